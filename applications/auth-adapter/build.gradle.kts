@@ -4,12 +4,21 @@ plugins {
 }
 
 dependencies {
+    // Structured access and audit log
+    implementation(project(":libraries:event-log"))
+
+    // Ed25519 JWS verification and verified token cache
+    implementation(project(":libraries:jose"))
+
     // Spring Boot Starters
     implementation(libs.spring.boot.starter.web)
     implementation(libs.spring.boot.starter.security)
     implementation(libs.spring.boot.starter.oauth2.client)
     implementation(libs.spring.boot.starter.oauth2.authorization.server)
     implementation(libs.spring.boot.starter.actuator)
+
+    // Caching
+    implementation(libs.caffeine)
     
     // Testing
     testImplementation(libs.spring.boot.starter.test)
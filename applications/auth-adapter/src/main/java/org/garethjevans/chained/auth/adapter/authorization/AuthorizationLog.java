@@ -0,0 +1,550 @@
+package org.garethjevans.chained.auth.adapter.authorization;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.garethjevans.chained.auth.adapter.authorization.ShardedOAuth2AuthorizationService.Entry;
+import org.garethjevans.chained.auth.adapter.storage.CompactSerialization;
+import org.garethjevans.chained.auth.adapter.storage.RecordFiles;
+import org.garethjevans.chained.auth.adapter.storage.SharedLock;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.oauth2.server.authorization.OAuth2Authorization;
+import org.springframework.util.Assert;
+
+/**
+ * Append-only log of authorization changes in a memory-mapped file, in the {@link RecordFiles}
+ * format. Each change is one record: whether the authorization was saved or removed, when it
+ * expires and its id. A saved record goes on with what the authorization is indexed by, its
+ * principal name, whether it has an access token and its token values, and ends with the
+ * authorization in Java serialized form.
+ *
+ * <p>Replay only reads the index fields, so it takes as long as building the indexes; each
+ * authorization is deserialized when it is first needed, with {@link CompactSerialization}, which
+ * keeps records small and deserializing them cheap; an authorization written by an incompatible
+ * version of a class is skipped when it is read.
+ *
+ * <p>Records are written into a mapped region of the file, so a write is a memory copy and is in
+ * the operating system's page cache as soon as it returns: it survives the process being killed.
+ * {@link #flush()} forces written records to disk, which is needed to survive losing the machine,
+ * without holding up writers. A record torn by a crash fails its checksum; replay stops there and
+ * the next write overwrites it.
+ *
+ * <p>The log only grows. {@link #compact(Instant)} rewrites it with the latest record of each
+ * authorization that is neither removed nor expired, copying records rather than serializing them
+ * again, and swaps the new file in with an atomic rename.
+ *
+ * <p>A log opened with a {@link SharedLock} is shared with the other instances given the same file.
+ * Records are then appended, holding the lock, at the end it records rather than at the end of what
+ * this instance wrote, after {@link #catchUp()} has read what the others appended. Compacting it
+ * moves every instance to the new file, which they notice by its generation and replay. A shared
+ * log is never truncated, as other instances may have it mapped.
+ */
+final class AuthorizationLog implements Closeable {
+
+  static final int DEFAULT_REGION_SIZE = 64 << 20;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AuthorizationLog.class);
+
+  private static final byte[] MAGIC = "CHAUTHL1".getBytes(StandardCharsets.US_ASCII);
+
+  private static final byte SAVED = 1;
+  private static final byte REMOVED = 2;
+
+  private static final int HEADER_SIZE = RecordFiles.HEADER_SIZE;
+
+  private static final int MAX_RECORD_SIZE = 16 << 20;
+
+  // Largest read-only window mapped at once when compaction copies records
+  private static final long READ_WINDOW = 1L << 30;
+
+  private static final long NO_EXPIRY = Long.MAX_VALUE;
+
+  private final Path path;
+  private final int regionSize;
+
+  private final @Nullable SharedLock shared;
+
+  private FileChannel channel;
+  private @Nullable MappedByteBuffer region;
+  // Regions filled since the last flush, which forces them
+  private final List<MappedByteBuffer> filled = new ArrayList<>();
+  private long regionStart;
+  private volatile long position;
+  // The generation of the shared log this instance has read
+  private volatile long generation;
+  private long records;
+
+  /**
+   * Opens the log at {@code path}, creating it, readable only by its owner, if it does not exist.
+   * Call {@link #replay(Instant)} before writing to it.
+   *
+   * @param path the log file
+   * @param regionSize the size of the regions the file is mapped and grown in
+   * @throws IOException if the file cannot be opened or is not an authorization log
+   */
+  AuthorizationLog(Path path, int regionSize) throws IOException {
+    this(path, regionSize, null);
+  }
+
+  /**
+   * Opens the log at {@code path}, shared with the other instances that open it with the same lock.
+   * Call {@link #replay(Instant)}, holding the lock, before writing to it.
+   *
+   * @param path the log file
+   * @param regionSize the size of the regions the file is mapped and grown in
+   * @param shared the lock of the log, or {@code null} if this instance has it to itself
+   * @throws IOException if the file cannot be opened or is not an authorization log
+   */
+  AuthorizationLog(Path path, int regionSize, @Nullable SharedLock shared) throws IOException {
+    Assert.isTrue(regionSize >= HEADER_SIZE + MAGIC.length, "regionSize is too small");
+    this.path = path;
+    this.regionSize = regionSize;
+    this.shared = shared;
+    this.channel = open(path);
+  }
+
+  /**
+   * Reads the log and returns the authorizations it holds, leaving the log ready to append to. Only
+   * the last record of each authorization is kept, and only if it has not expired. The entries read
+   * their authorization from the log when it is first needed. A shared log is reopened first, in
+   * case another instance compacted it.
+   *
+   * @param now the current time, to skip expired authorizations
+   * @return the entries of the authorizations in the log
+   * @throws IOException if the log cannot be read
+   */
+  synchronized List<Entry> replay(Instant now) throws IOException {
+    if (shared != null) {
+      requireLock(shared);
+      FileChannel previous = channel;
+      channel = open(path);
+      previous.close();
+    }
+    Map<String, @Nullable Record> latest = new LinkedHashMap<>();
+    RecordFiles.Scan scan = scan(channel, MAGIC.length, channel.size(), latest);
+    if (scan.torn()) {
+      LOGGER.warn(
+          "Discarding a torn record and the {} bytes after it at the end of {}",
+          channel.size() - scan.end(),
+          path);
+    }
+    if (shared == null) {
+      // Also drops the unused end of the last region when the log was not closed
+      channel.truncate(scan.end());
+    } else {
+      shared.advance(scan.end());
+      generation = shared.generation();
+    }
+    records = scan.records();
+    position = scan.end();
+    region = null;
+    filled.clear();
+
+    long nowMillis = now.toEpochMilli();
+    return latest.values().parallelStream()
+        .filter((record) -> record != null && record.expiresAt > nowMillis)
+        .map(AuthorizationLog::entry)
+        .toList();
+  }
+
+  /**
+   * Returns whether another instance sharing the log has appended to or compacted it since this one
+   * last read it. Cheap enough to check before every lookup.
+   *
+   * @return whether {@link #catchUp()} has anything to read
+   */
+  boolean behind() {
+    SharedLock lock = shared;
+    return lock != null && (lock.end() != position || lock.generation() != generation);
+  }
+
+  /**
+   * Reads what other instances sharing the log appended since this one last read it, and moves to
+   * the end of the log so this one can append to it. Call holding the shared lock.
+   *
+   * @return the last change to each authorization appended by other instances, or {@code null} if
+   *     another instance compacted the log, which then has to be replayed
+   * @throws IOException if the log cannot be read
+   */
+  synchronized @Nullable Changes catchUp() throws IOException {
+    SharedLock lock = shared;
+    Assert.state(lock != null, "The authorization log " + path + " is not shared");
+    requireLock(lock);
+    if (lock.generation() != generation) {
+      return null;
+    }
+    long end = lock.end();
+    Map<String, @Nullable Record> latest = new LinkedHashMap<>();
+    RecordFiles.Scan scan = scan(channel, position, end, latest);
+    if (scan.end() < end) {
+      LOGGER.warn("Skipping {} unreadable bytes appended to {}", end - scan.end(), path);
+    }
+    position = end;
+    records += scan.records();
+
+    List<Entry> saved = new ArrayList<>();
+    List<String> removed = new ArrayList<>();
+    latest.forEach(
+        (id, record) -> {
+          if (record != null) {
+            saved.add(entry(record));
+          } else {
+            removed.add(id);
+          }
+        });
+    return new Changes(saved, removed);
+  }
+
+  /**
+   * Appends a record of an authorization being saved.
+   *
+   * @param entry the entry of the authorization
+   */
+  void saved(Entry entry) {
+    OAuth2Authorization authorization = entry.authorization();
+    Assert.state(authorization != null, "Authorization " + entry.id + " cannot be read");
+    byte[] id = RecordFiles.utf8(entry.id);
+    byte[] principalName = RecordFiles.utf8(entry.principalName);
+    byte[][] tokenValues = new byte[entry.tokenValues.length][];
+    int length = 1 + Long.BYTES + Short.BYTES + id.length + Short.BYTES + principalName.length + 2;
+    for (int type = 0; type < tokenValues.length; type++) {
+      if (entry.tokenValues[type] != null) {
+        tokenValues[type] = entry.tokenValues[type].getBytes(StandardCharsets.UTF_8);
+        length += 1 + Integer.BYTES + tokenValues[type].length;
+      }
+    }
+    byte[] payload = serialize(authorization);
+    length += payload.length;
+    Assert.state(length <= MAX_RECORD_SIZE, "Authorization " + entry.id + " is too large to store");
+
+    ByteBuffer body = ByteBuffer.allocate(length);
+    body.put(SAVED).putLong(entry.expiresAt != null ? entry.expiresAt.toEpochMilli() : NO_EXPIRY);
+    body.putShort((short) id.length).put(id);
+    body.putShort((short) principalName.length).put(principalName);
+    body.put((byte) (entry.issued ? 1 : 0));
+    body.put((byte) Arrays.stream(tokenValues).filter(Objects::nonNull).count());
+    for (int type = 0; type < tokenValues.length; type++) {
+      if (tokenValues[type] != null) {
+        body.put((byte) type).putInt(tokenValues[type].length).put(tokenValues[type]);
+      }
+    }
+    append(body.put(payload).flip());
+  }
+
+  /**
+   * Appends a record of an authorization being removed.
+   *
+   * @param id the id of the authorization
+   */
+  void removed(String id) {
+    byte[] bytes = RecordFiles.utf8(id);
+    ByteBuffer body = ByteBuffer.allocate(1 + Long.BYTES + Short.BYTES + bytes.length);
+    append(body.put(REMOVED).putLong(NO_EXPIRY).putShort((short) bytes.length).put(bytes).flip());
+  }
+
+  /**
+   * Forces the records written so far to disk. Records are appended while it runs, as the regions
+   * and the file are forced without holding the log.
+   *
+   * @throws IOException if they cannot be written
+   */
+  void flush() throws IOException {
+    List<MappedByteBuffer> regions;
+    FileChannel file;
+    synchronized (this) {
+      regions = new ArrayList<>(filled.size() + 1);
+      regions.addAll(filled);
+      filled.clear();
+      if (region != null) {
+        regions.add(region);
+      }
+      file = channel;
+    }
+    for (MappedByteBuffer written : regions) {
+      written.force();
+    }
+    try {
+      file.force(false);
+    } catch (ClosedChannelException ex) {
+      // Swapped out by a compaction, which forced the file that replaced it
+    }
+  }
+
+  /**
+   * Rewrites the log with only the last record of each authorization that is neither removed nor
+   * expired. Records appended while it runs are carried over, so writers are only held up while
+   * those are copied and the new file is swapped in. A shared log is swapped holding its lock, and
+   * not at all if another instance compacted it meanwhile; records other instances appended that
+   * this one has not read yet are carried over for it to catch up with in the new file.
+   *
+   * @param now the current time, to drop expired authorizations
+   * @throws IOException if the log cannot be rewritten, in which case it is left as it was
+   */
+  void compact(Instant now) throws IOException {
+    long end;
+    FileChannel source;
+    long sourceGeneration;
+    synchronized (this) {
+      end = position;
+      source = channel;
+      sourceGeneration = generation;
+    }
+    // Everything before end is immutable, so it can be read without holding up writers
+    Map<String, @Nullable Record> latest = new LinkedHashMap<>();
+    scan(source, MAGIC.length, end, latest);
+    Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+    Files.deleteIfExists(compacted);
+    RecordFiles.create(compacted, MAGIC);
+
+    try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.WRITE)) {
+      out.position(MAGIC.length);
+      long kept = 0;
+      long nowMillis = now.toEpochMilli();
+      for (Record record : latest.values()) {
+        if (record != null && record.expiresAt > nowMillis) {
+          RecordFiles.writeFully(out, record.bytes.duplicate());
+          kept++;
+        }
+      }
+
+      if (shared != null) {
+        shared.lock();
+      }
+      try {
+        swap(compacted, out, end, kept, sourceGeneration);
+      } finally {
+        if (shared != null) {
+          shared.unlock();
+        }
+      }
+    } finally {
+      Files.deleteIfExists(compacted);
+    }
+  }
+
+  /**
+   * Returns the number of records in the log, including those later superseded.
+   *
+   * @return the number of records
+   */
+  synchronized long records() {
+    return records;
+  }
+
+  /**
+   * Returns the size of the records in the log, in bytes.
+   *
+   * @return the size of the log
+   */
+  synchronized long size() {
+    return position;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (!channel.isOpen()) {
+      return;
+    }
+    flush();
+    region = null;
+    filled.clear();
+    if (shared == null) {
+      // Drop the unused end of the last mapped region
+      channel.truncate(position);
+    }
+    channel.close();
+  }
+
+  // Copies what was appended since end to the compacted file, in order, and swaps it in
+  private synchronized void swap(
+      Path compacted, FileChannel out, long end, long kept, long sourceGeneration)
+      throws IOException {
+    if (shared != null && shared.generation() != sourceGeneration) {
+      LOGGER.info("Not compacting {}, which another instance compacted meanwhile", path);
+      return;
+    }
+    // Later records win on replay; a shared log also has those this instance has not read yet
+    long tailEnd = shared != null ? shared.end() : position;
+    RecordFiles.Scan tail = scan(channel, end, position, null);
+    for (long offset = end; offset < tailEnd; ) {
+      long length = Math.min(READ_WINDOW, tailEnd - offset);
+      RecordFiles.writeFully(out, channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+      offset += length;
+    }
+    out.force(true);
+
+    RecordFiles.move(compacted, path);
+    FileChannel previous = channel;
+    channel = open(path);
+    previous.close();
+    region = null;
+    filled.clear();
+    position = out.size() - (tailEnd - position);
+    records = kept + tail.records();
+    if (shared != null) {
+      shared.replaced(out.size());
+      generation = shared.generation();
+    }
+    LOGGER.info(
+        "Compacted {} to {} records ({} carried over), {} bytes, {} of them appended during"
+            + " compaction",
+        path,
+        records,
+        tail.records(),
+        out.size(),
+        tailEnd - end);
+  }
+
+  private synchronized void append(ByteBuffer body) {
+    Assert.state(channel.isOpen(), "The authorization log is closed");
+    if (shared != null) {
+      requireLock(shared);
+      Assert.state(
+          position == shared.end() && generation == shared.generation(),
+          () -> "Appending to " + path + " before catching up with the other instances");
+    }
+    int length = HEADER_SIZE + body.remaining();
+    RecordFiles.putRecord(writableRegion(length), body);
+    position += length;
+    records++;
+    if (shared != null) {
+      shared.advance(position);
+    }
+  }
+
+  private MappedByteBuffer writableRegion(int bytes) {
+    MappedByteBuffer current = region;
+    if (current != null
+        && position >= regionStart
+        && position + bytes <= regionStart + current.capacity()) {
+      // Other instances sharing the log may have appended to the region since this one did
+      return current.position((int) (position - regionStart));
+    }
+    try {
+      if (current != null) {
+        // Forced by the next flush, so appending never waits for the disk
+        filled.add(current);
+      }
+      // Mapping past the end of the file grows it, filled with zeros
+      regionStart = position;
+      current =
+          channel.map(FileChannel.MapMode.READ_WRITE, regionStart, Math.max(regionSize, bytes));
+      region = current;
+      return current;
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to grow the authorization log " + path, ex);
+    }
+  }
+
+  // Reads the records in [from, to): the last record of each authorization into latest, if given,
+  // null if it was removed
+  private static RecordFiles.Scan scan(
+      FileChannel channel, long from, long to, @Nullable Map<String, @Nullable Record> latest)
+      throws IOException {
+    return RecordFiles.scan(
+        channel,
+        from,
+        to,
+        MAX_RECORD_SIZE,
+        (offset, record) -> {
+          if (latest == null) {
+            return;
+          }
+          ByteBuffer body = RecordFiles.body(record);
+          byte operation = body.get(0);
+          long expiresAt = body.getLong(1);
+          String key = RecordFiles.string(body.position(1 + Long.BYTES));
+          // Reinsert so records stay in the order they were last written
+          latest.remove(key);
+          latest.put(key, operation == SAVED ? new Record(expiresAt, record) : null);
+        });
+  }
+
+  private static byte[] serialize(OAuth2Authorization authorization) {
+    try {
+      return CompactSerialization.serialize(authorization, 2048);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(
+          "Failed to serialize authorization " + authorization.getId(), ex);
+    }
+  }
+
+  // Reads the index fields of a saved record, leaving the authorization to be read when needed
+  private static Entry entry(Record record) {
+    ByteBuffer body = RecordFiles.body(record.bytes);
+    body.position(1 + Long.BYTES);
+    String id = RecordFiles.string(body);
+    String principalName = RecordFiles.string(body);
+    boolean issued = body.get() != 0;
+    String[] tokenValues = new String[ShardedOAuth2AuthorizationService.TOKEN_TYPES.size()];
+    for (int i = body.get(); i > 0; i--) {
+      int type = body.get();
+      byte[] value = new byte[body.getInt()];
+      body.get(value);
+      if (type < tokenValues.length) {
+        tokenValues[type] = new String(value, StandardCharsets.UTF_8);
+      }
+    }
+    ByteBuffer payload = body.slice();
+    return new Entry(
+        id,
+        principalName,
+        tokenValues,
+        issued,
+        record.expiresAt != NO_EXPIRY ? Instant.ofEpochMilli(record.expiresAt) : null,
+        () -> deserialize(payload));
+  }
+
+  private static @Nullable OAuth2Authorization deserialize(ByteBuffer payload) {
+    byte[] bytes = new byte[payload.remaining()];
+    payload.duplicate().get(bytes);
+    try {
+      return (OAuth2Authorization) CompactSerialization.deserialize(bytes);
+    } catch (InvalidClassException ex) {
+      // Usually written by an incompatible version of Spring Security
+      LOGGER.warn("Skipping an authorization that can no longer be read: {}", ex.getMessage());
+      return null;
+    } catch (IOException | ClassNotFoundException | ClassCastException ex) {
+      LOGGER.warn("Skipping an authorization that can no longer be read", ex);
+      return null;
+    }
+  }
+
+  private void requireLock(SharedLock lock) {
+    Assert.state(
+        lock.isHeldByCurrentThread(), () -> "The lock on the shared log " + path + " is not held");
+  }
+
+  private static FileChannel open(Path path) throws IOException {
+    return RecordFiles.open(path, MAGIC, "an authorization log");
+  }
+
+  /**
+   * What other instances sharing the log changed since this one last read it.
+   *
+   * @param saved the entries of the authorizations they saved
+   * @param removed the ids of the authorizations they removed
+   */
+  record Changes(List<Entry> saved, List<String> removed) {}
+
+  /** The last record of an authorization: when it expires and the whole record, header included. */
+  private record Record(long expiresAt, ByteBuffer bytes) {}
+}
@@ -0,0 +1,374 @@
+package org.garethjevans.chained.auth.adapter.authorization;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.garethjevans.chained.auth.adapter.authorization.ShardedOAuth2AuthorizationService.Entry;
+import org.garethjevans.chained.auth.adapter.storage.SharedLock;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.security.oauth2.server.authorization.OAuth2Authorization;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenType;
+import org.springframework.util.Assert;
+
+/**
+ * {@link ShardedOAuth2AuthorizationService} that keeps its authorizations across restarts in an
+ * {@link AuthorizationLog} on local disk, so clients do not all have to log in again, through
+ * GitHub, when the auth-adapter restarts.
+ *
+ * <p>Every change is appended to the log as it is made, and the log is replayed when the service is
+ * created, before it serves any request. Replay only rebuilds the indexes; each authorization is
+ * read from the log when it is first looked up, and once started the service reads the rest in the
+ * background. While running, the log is forced to disk every {@code flushInterval}; every {@code
+ * compactionInterval} expired authorizations are removed and, once most of the log is superseded
+ * records, it is compacted.
+ *
+ * <p>A shared service shares its log with the other instances given the same path, so a code issued
+ * by one can be redeemed at another. Each change is then made holding the log's {@link SharedLock},
+ * after applying what the other instances appended since this one last read the log; lookups apply
+ * it first too, when there is any. Changes are serialized across the instances, which is what
+ * sharing costs.
+ */
+public class PersistentOAuth2AuthorizationService
+    implements UpdatableOAuth2AuthorizationService, SmartLifecycle, AutoCloseable {
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(PersistentOAuth2AuthorizationService.class);
+
+  // Logs smaller than this are not worth compacting
+  private static final long MIN_COMPACTION_RECORDS = 10_000;
+
+  private final Path path;
+  private final @Nullable SharedLock shared;
+  private final AuthorizationLog log;
+  private final ShardedOAuth2AuthorizationService delegate;
+  private final Duration flushInterval;
+  private final Duration compactionInterval;
+  private final Clock clock;
+
+  private volatile @Nullable ScheduledExecutorService scheduler;
+
+  /**
+   * Opens the log at {@code path} and restores the authorizations in it.
+   *
+   * @param path the log file, created if it does not exist
+   * @param flushInterval how often to force the log to disk
+   * @param compactionInterval how often to remove expired authorizations and consider compacting
+   * @throws UncheckedIOException if the log cannot be opened or read
+   */
+  public PersistentOAuth2AuthorizationService(
+      Path path, Duration flushInterval, Duration compactionInterval) {
+    this(path, false, flushInterval, compactionInterval);
+  }
+
+  /**
+   * Opens the log at {@code path}, shared with the other instances given the same path if {@code
+   * shared}, and restores the authorizations in it.
+   *
+   * @param path the log file, created if it does not exist
+   * @param shared whether other instances share the log
+   * @param flushInterval how often to force the log to disk
+   * @param compactionInterval how often to remove expired authorizations and consider compacting
+   * @throws UncheckedIOException if the log cannot be opened or read
+   */
+  public PersistentOAuth2AuthorizationService(
+      Path path, boolean shared, Duration flushInterval, Duration compactionInterval) {
+    this(
+        path,
+        shared,
+        flushInterval,
+        compactionInterval,
+        ShardedOAuth2AuthorizationService.DEFAULT_SHARDS,
+        ShardedOAuth2AuthorizationService.DEFAULT_MAX_INITIALIZED_AUTHORIZATIONS,
+        AuthorizationLog.DEFAULT_REGION_SIZE,
+        Clock.systemUTC());
+  }
+
+  PersistentOAuth2AuthorizationService(
+      Path path,
+      boolean shared,
+      Duration flushInterval,
+      Duration compactionInterval,
+      int shards,
+      int maxInitializedAuthorizations,
+      int regionSize,
+      Clock clock) {
+    Assert.notNull(path, "path must not be null");
+    Assert.isTrue(flushInterval.isPositive(), "flushInterval must be positive");
+    Assert.isTrue(compactionInterval.isPositive(), "compactionInterval must be positive");
+    this.path = path;
+    this.flushInterval = flushInterval;
+    this.compactionInterval = compactionInterval;
+    this.clock = clock;
+
+    long start = System.nanoTime();
+    List<Entry> restored;
+    try {
+      this.shared = shared ? SharedLock.open(path) : null;
+      this.log = new AuthorizationLog(path, regionSize, this.shared);
+      if (this.shared != null) {
+        this.shared.lock();
+      }
+      try {
+        restored = log.replay(clock.instant());
+      } finally {
+        if (this.shared != null) {
+          this.shared.unlock();
+        }
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to open the authorization log " + path, ex);
+    }
+    this.delegate =
+        new ShardedOAuth2AuthorizationService(
+            shards,
+            maxInitializedAuthorizations,
+            new ShardedOAuth2AuthorizationService.ChangeListener() {
+              @Override
+              public void saved(Entry entry) {
+                log.saved(entry);
+              }
+
+              @Override
+              public void removed(String id) {
+                log.removed(id);
+              }
+            });
+    delegate.load(restored);
+    LOGGER.info(
+        "Restored {} authorizations from {} records in {} in {} ms",
+        delegate.size(),
+        log.records(),
+        path,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  @Override
+  public void save(OAuth2Authorization authorization) {
+    write(() -> delegate.save(authorization));
+  }
+
+  @Override
+  public void remove(OAuth2Authorization authorization) {
+    write(() -> delegate.remove(authorization));
+  }
+
+  @Override
+  public @Nullable OAuth2Authorization findById(String id) {
+    catchUpIfBehind();
+    return delegate.findById(id);
+  }
+
+  @Override
+  public @Nullable OAuth2Authorization findByToken(
+      String token, @Nullable OAuth2TokenType tokenType) {
+    catchUpIfBehind();
+    return delegate.findByToken(token, tokenType);
+  }
+
+  @Override
+  public @Nullable OAuth2Authorization updateAttributes(
+      String token,
+      @Nullable OAuth2TokenType tokenType,
+      Consumer<Map<String, Object>> attributesConsumer) {
+    return write(() -> delegate.updateAttributes(token, tokenType, attributesConsumer));
+  }
+
+  /**
+   * Returns the authorizations granted by a principal.
+   *
+   * @param principalName the name of the principal
+   * @return the principal's authorizations, empty if there are none
+   */
+  public List<OAuth2Authorization> findByPrincipalName(String principalName) {
+    catchUpIfBehind();
+    return delegate.findByPrincipalName(principalName);
+  }
+
+  /**
+   * Returns the number of stored authorizations.
+   *
+   * @return the number of authorizations
+   */
+  public int size() {
+    return delegate.size();
+  }
+
+  /**
+   * Forces the changes made so far to disk.
+   *
+   * @throws UncheckedIOException if they cannot be written
+   */
+  public void flush() {
+    try {
+      log.flush();
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to flush the authorization log " + path, ex);
+    }
+  }
+
+  /**
+   * Removes expired authorizations and, if most of the log is superseded records, compacts it.
+   *
+   * @return whether the log was compacted
+   * @throws UncheckedIOException if the log cannot be compacted
+   */
+  public boolean compact() {
+    int expired = write(() -> delegate.removeExpired(clock.instant()));
+    if (expired > 0) {
+      LOGGER.debug("Removed {} expired authorizations", expired);
+    }
+    long records = log.records();
+    if (records < MIN_COMPACTION_RECORDS || records < 2L * delegate.size()) {
+      return false;
+    }
+    // Restored authorizations not read yet would otherwise keep reading from the replaced file
+    delegate.readAll();
+    try {
+      log.compact(clock.instant());
+      return true;
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to compact the authorization log " + path, ex);
+    }
+  }
+
+  @Override
+  public void start() {
+    ScheduledExecutorService executor =
+        Executors.newScheduledThreadPool(
+            2,
+            (runnable) -> {
+              Thread thread = new Thread(runnable, "authorization-log");
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.execute(() -> run(this::readAll, "read"));
+    executor.scheduleWithFixedDelay(
+        () -> run(this::flush, "flush"),
+        flushInterval.toMillis(),
+        flushInterval.toMillis(),
+        TimeUnit.MILLISECONDS);
+    executor.scheduleWithFixedDelay(
+        () -> run(this::compact, "compact"),
+        compactionInterval.toMillis(),
+        compactionInterval.toMillis(),
+        TimeUnit.MILLISECONDS);
+    this.scheduler = executor;
+  }
+
+  @Override
+  public void stop() {
+    ScheduledExecutorService executor = this.scheduler;
+    this.scheduler = null;
+    if (executor != null) {
+      executor.shutdown();
+      try {
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return scheduler != null;
+  }
+
+  /**
+   * Flushes and closes the log. Changes made afterwards fail.
+   *
+   * @throws IOException if the log cannot be flushed
+   */
+  @Override
+  public void close() throws IOException {
+    stop();
+    try {
+      log.close();
+    } finally {
+      if (shared != null) {
+        shared.close();
+      }
+    }
+  }
+
+  // Reads the restored authorizations that have not been looked up yet
+  int readAll() {
+    long start = System.nanoTime();
+    int read = delegate.readAll();
+    LOGGER.info(
+        "Read {} restored authorizations in {} ms",
+        read,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    return read;
+  }
+
+  private void write(Runnable change) {
+    write(
+        () -> {
+          change.run();
+          return null;
+        });
+  }
+
+  // Makes a change, holding the shared lock after catching up with the other instances if shared
+  private <T> T write(Supplier<T> change) {
+    if (shared == null) {
+      return change.get();
+    }
+    shared.lock();
+    try {
+      catchUp();
+      return change.get();
+    } finally {
+      shared.unlock();
+    }
+  }
+
+  private void catchUpIfBehind() {
+    if (shared != null && log.behind()) {
+      shared.lock();
+      try {
+        catchUp();
+      } finally {
+        shared.unlock();
+      }
+    }
+  }
+
+  // Called holding the shared lock
+  private void catchUp() {
+    try {
+      AuthorizationLog.Changes changes = log.catchUp();
+      if (changes == null) {
+        // Another instance compacted the log, so read the new file from the start
+        delegate.reload(log.replay(clock.instant()));
+        return;
+      }
+      delegate.load(changes.saved());
+      delegate.unload(changes.removed());
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to read the shared authorization log " + path, ex);
+    }
+  }
+
+  private void run(Runnable task, String name) {
+    try {
+      task.run();
+    } catch (RuntimeException ex) {
+      // Keep the schedule going; the next run retries
+      LOGGER.warn("Failed to {} the authorization log {}", name, path, ex);
+    }
+  }
+}
@@ -0,0 +1,616 @@
+package org.garethjevans.chained.auth.adapter.authorization;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.jspecify.annotations.Nullable;
+import org.springframework.security.oauth2.core.OAuth2DeviceCode;
+import org.springframework.security.oauth2.core.OAuth2Token;
+import org.springframework.security.oauth2.core.OAuth2UserCode;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.core.oidc.endpoint.OidcParameterNames;
+import org.springframework.security.oauth2.server.authorization.InMemoryOAuth2AuthorizationService;
+import org.springframework.security.oauth2.server.authorization.OAuth2Authorization;
+import org.springframework.security.oauth2.server.authorization.OAuth2AuthorizationCode;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenType;
+import org.springframework.util.Assert;
+
+/**
+ * In-memory {@link UpdatableOAuth2AuthorizationService} whose lookups do not slow down as
+ * authorizations accumulate. {@link InMemoryOAuth2AuthorizationService} finds a token by scanning
+ * every stored authorization; this service keeps an index from token value to authorization id for
+ * each token type (state, code, access, refresh and id token, device and user code) and from
+ * principal name to authorization ids, so every lookup is a hash lookup.
+ *
+ * <p>Authorizations are spread over shards by id. Each shard has its own lock, taken to write an
+ * authorization and its index entries together, so writes to different authorizations rarely
+ * contend and reads take no lock at all. A read that finds an index entry for a token that was
+ * replaced in the meantime checks the token against the authorization and misses, as it would have
+ * a moment later.
+ *
+ * <p>As with {@link InMemoryOAuth2AuthorizationService}, authorizations that have not been issued
+ * an access token yet, such as those holding an unexchanged code, are bounded: once there are more
+ * than {@code maxInitializedAuthorizations}, the oldest are dropped. Expired authorizations are
+ * kept until {@link #removeExpired(Instant)} is called.
+ *
+ * <p>Each authorization is held in an {@link Entry} with the token values, principal name and
+ * expiry it is indexed by, so an entry restored from storage can be indexed without reading the
+ * authorization itself, which is only read the first time it is looked up. A {@link ChangeListener}
+ * sees every change before it is made, with the shard's lock held, so it sees the changes to each
+ * authorization in the order they are made.
+ */
+public class ShardedOAuth2AuthorizationService implements UpdatableOAuth2AuthorizationService {
+
+  public static final int DEFAULT_SHARDS = 64;
+
+  public static final int DEFAULT_MAX_INITIALIZED_AUTHORIZATIONS = 10_000;
+
+  private static final OAuth2TokenType STATE = new OAuth2TokenType(OAuth2ParameterNames.STATE);
+  private static final OAuth2TokenType CODE = new OAuth2TokenType(OAuth2ParameterNames.CODE);
+  private static final OAuth2TokenType ID_TOKEN = new OAuth2TokenType(OidcParameterNames.ID_TOKEN);
+  private static final OAuth2TokenType DEVICE_CODE =
+      new OAuth2TokenType(OAuth2ParameterNames.DEVICE_CODE);
+  private static final OAuth2TokenType USER_CODE =
+      new OAuth2TokenType(OAuth2ParameterNames.USER_CODE);
+
+  // Positions in this list are stored by AuthorizationLog, so only ever add to the end
+  static final List<OAuth2TokenType> TOKEN_TYPES =
+      List.of(
+          STATE,
+          CODE,
+          OAuth2TokenType.ACCESS_TOKEN,
+          OAuth2TokenType.REFRESH_TOKEN,
+          ID_TOKEN,
+          DEVICE_CODE,
+          USER_CODE);
+
+  private final Shard[] shards;
+  private final int maxInitializedPerShard;
+  private final Map<OAuth2TokenType, Map<String, String>> tokenIndexes = new ConcurrentHashMap<>();
+  private final Map<String, Set<String>> principalIndex = new ConcurrentHashMap<>();
+  private final ChangeListener listener;
+
+  public ShardedOAuth2AuthorizationService() {
+    this(DEFAULT_SHARDS, DEFAULT_MAX_INITIALIZED_AUTHORIZATIONS);
+  }
+
+  public ShardedOAuth2AuthorizationService(int shards, int maxInitializedAuthorizations) {
+    this(shards, maxInitializedAuthorizations, ChangeListener.NONE);
+  }
+
+  ShardedOAuth2AuthorizationService(
+      int shards, int maxInitializedAuthorizations, ChangeListener listener) {
+    Assert.notNull(listener, "listener cannot be null");
+    Assert.isTrue(shards > 0, "shards must be greater than 0");
+    Assert.isTrue(
+        maxInitializedAuthorizations >= shards,
+        "maxInitializedAuthorizations must be at least the number of shards");
+    this.shards = new Shard[shards];
+    for (int i = 0; i < shards; i++) {
+      this.shards[i] = new Shard();
+    }
+    this.maxInitializedPerShard = maxInitializedAuthorizations / shards;
+    this.listener = listener;
+    for (OAuth2TokenType tokenType : TOKEN_TYPES) {
+      tokenIndexes.put(tokenType, new ConcurrentHashMap<>());
+    }
+  }
+
+  @Override
+  public void save(OAuth2Authorization authorization) {
+    Assert.notNull(authorization, "authorization cannot be null");
+    Entry entry = Entry.of(authorization);
+    Shard shard = shard(entry.id);
+    shard.lock.lock();
+    try {
+      listener.saved(entry);
+      replace(shard, entry, listener);
+    } finally {
+      shard.lock.unlock();
+    }
+  }
+
+  @Override
+  public void remove(OAuth2Authorization authorization) {
+    Assert.notNull(authorization, "authorization cannot be null");
+    Shard shard = shard(authorization.getId());
+    shard.lock.lock();
+    try {
+      Entry stored = shard.entries.get(authorization.getId());
+      if (stored != null) {
+        listener.removed(stored.id);
+        delete(shard, stored);
+      }
+    } finally {
+      shard.lock.unlock();
+    }
+  }
+
+  @Override
+  public @Nullable OAuth2Authorization findById(String id) {
+    Assert.hasText(id, "id cannot be empty");
+    Entry entry = shard(id).entries.get(id);
+    return entry != null ? entry.authorization() : null;
+  }
+
+  @Override
+  public @Nullable OAuth2Authorization findByToken(
+      String token, @Nullable OAuth2TokenType tokenType) {
+    Assert.hasText(token, "token cannot be empty");
+    Entry entry = find(token, tokenType);
+    return entry != null ? entry.authorization() : null;
+  }
+
+  @Override
+  public @Nullable OAuth2Authorization updateAttributes(
+      String token,
+      @Nullable OAuth2TokenType tokenType,
+      Consumer<Map<String, Object>> attributesConsumer) {
+    Assert.notNull(attributesConsumer, "attributesConsumer cannot be null");
+    // Retry if the token moves to another authorization between the lookup and the lock
+    while (true) {
+      Entry found = find(token, tokenType);
+      if (found == null) {
+        return null;
+      }
+      Shard shard = shard(found.id);
+      shard.lock.lock();
+      try {
+        Entry current = shard.entries.get(found.id);
+        if (current != null && current.holds(token, tokenType)) {
+          OAuth2Authorization authorization = current.authorization();
+          if (authorization == null) {
+            return null;
+          }
+          OAuth2Authorization updated =
+              OAuth2Authorization.from(authorization).attributes(attributesConsumer).build();
+          Entry entry = Entry.of(updated);
+          listener.saved(entry);
+          replace(shard, entry, listener);
+          return updated;
+        }
+      } finally {
+        shard.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Returns the authorizations granted by a principal.
+   *
+   * @param principalName the name of the principal
+   * @return the principal's authorizations, empty if there are none
+   */
+  public List<OAuth2Authorization> findByPrincipalName(String principalName) {
+    Assert.hasText(principalName, "principalName cannot be empty");
+    Set<String> ids = principalIndex.get(principalName);
+    if (ids == null) {
+      return List.of();
+    }
+    List<OAuth2Authorization> authorizations = new ArrayList<>(ids.size());
+    for (String id : ids) {
+      Entry entry = shard(id).entries.get(id);
+      OAuth2Authorization authorization =
+          entry != null && principalName.equals(entry.principalName) ? entry.authorization() : null;
+      if (authorization != null) {
+        authorizations.add(authorization);
+      }
+    }
+    return authorizations;
+  }
+
+  /**
+   * Removes the authorizations whose every token has expired, as {@link #remove} would.
+   * Authorizations without a token that expires are kept.
+   *
+   * @param now the current time
+   * @return the number of authorizations removed
+   */
+  public int removeExpired(Instant now) {
+    int removed = 0;
+    for (Shard shard : shards) {
+      for (Entry entry : shard.entries.values()) {
+        if (entry.expiresAt != null && !entry.expiresAt.isAfter(now)) {
+          shard.lock.lock();
+          try {
+            // Only if it was not replaced since it was read
+            if (shard.entries.get(entry.id) == entry) {
+              listener.removed(entry.id);
+              delete(shard, entry);
+              removed++;
+            }
+          } finally {
+            shard.lock.unlock();
+          }
+        }
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Returns the number of stored authorizations.
+   *
+   * @return the number of authorizations across all shards
+   */
+  public int size() {
+    int size = 0;
+    for (Shard shard : shards) {
+      size += shard.entries.size();
+    }
+    return size;
+  }
+
+  /**
+   * Stores entries without telling the listener, such as those being restored, nor of the
+   * initialized authorizations they push out. Safe to call from many threads at once.
+   *
+   * @param entries the entries to store
+   */
+  void load(Collection<Entry> entries) {
+    entries.parallelStream()
+        .forEach(
+            (entry) -> {
+              Shard shard = shard(entry.id);
+              shard.lock.lock();
+              try {
+                replace(shard, entry, ChangeListener.NONE);
+              } finally {
+                shard.lock.unlock();
+              }
+            });
+  }
+
+  /**
+   * Removes authorizations without telling the listener, such as those another instance removed.
+   *
+   * @param ids the ids of the authorizations to remove
+   */
+  void unload(Collection<String> ids) {
+    for (String id : ids) {
+      Shard shard = shard(id);
+      shard.lock.lock();
+      try {
+        Entry entry = shard.entries.get(id);
+        if (entry != null) {
+          delete(shard, entry);
+        }
+      } finally {
+        shard.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Replaces the stored authorizations with {@code entries} without telling the listener, such as
+   * when storage was rewritten elsewhere. The entries are stored before the others are removed, so
+   * lookups of authorizations that are kept never miss.
+   *
+   * @param entries the entries to keep
+   */
+  void reload(Collection<Entry> entries) {
+    load(entries);
+    Set<String> kept = new HashSet<>();
+    for (Entry entry : entries) {
+      kept.add(entry.id);
+    }
+    List<String> dropped = new ArrayList<>();
+    for (Shard shard : shards) {
+      for (String id : shard.entries.keySet()) {
+        if (!kept.contains(id)) {
+          dropped.add(id);
+        }
+      }
+    }
+    unload(dropped);
+  }
+
+  /**
+   * Reads every stored authorization that has not been read yet, so lookups do not have to.
+   *
+   * @return the number of authorizations read
+   */
+  int readAll() {
+    return Arrays.stream(shards)
+        .parallel()
+        .mapToInt(
+            (shard) -> {
+              int read = 0;
+              for (Entry entry : shard.entries.values()) {
+                if (!entry.isRead()) {
+                  entry.authorization();
+                  read++;
+                }
+              }
+              return read;
+            })
+        .sum();
+  }
+
+  /**
+   * Returns the latest expiry of the tokens of an authorization, after which it is no use.
+   *
+   * @param authorization the authorization
+   * @return the latest token expiry, or {@code null} if it has no token that expires
+   */
+  static @Nullable Instant expiresAt(OAuth2Authorization authorization) {
+    Instant latest = null;
+    for (OAuth2TokenType tokenType : TOKEN_TYPES) {
+      OAuth2Authorization.Token<? extends OAuth2Token> token = token(authorization, tokenType);
+      Instant expiresAt = token != null ? token.getToken().getExpiresAt() : null;
+      if (expiresAt != null && (latest == null || expiresAt.isAfter(latest))) {
+        latest = expiresAt;
+      }
+    }
+    return latest;
+  }
+
+  private @Nullable Entry find(String token, @Nullable OAuth2TokenType tokenType) {
+    if (tokenType != null) {
+      return find(token, TOKEN_TYPES.indexOf(tokenType));
+    }
+    for (int type = 0; type < TOKEN_TYPES.size(); type++) {
+      Entry entry = find(token, type);
+      if (entry != null) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  private @Nullable Entry find(String token, int type) {
+    if (type < 0) {
+      return null;
+    }
+    String id = tokenIndexes.get(TOKEN_TYPES.get(type)).get(token);
+    if (id == null) {
+      return null;
+    }
+    Entry entry = shard(id).entries.get(id);
+    return entry != null && token.equals(entry.tokenValues[type]) ? entry : null;
+  }
+
+  // Called with the shard's lock held; evictions is told of an initialized authorization dropped
+  private void replace(Shard shard, Entry entry, ChangeListener evictions) {
+    Entry previous = shard.entries.put(entry.id, entry);
+    if (previous != null) {
+      unindex(previous, entry);
+    }
+    index(entry);
+
+    if (entry.issued) {
+      shard.initialized.remove(entry.id);
+      return;
+    }
+    shard.initialized.add(entry.id);
+    if (shard.initialized.size() > maxInitializedPerShard) {
+      Iterator<String> oldest = shard.initialized.iterator();
+      Entry evicted = shard.entries.get(oldest.next());
+      if (evicted != null) {
+        evictions.removed(evicted.id);
+        delete(shard, evicted);
+      } else {
+        oldest.remove();
+      }
+    }
+  }
+
+  // Called with the shard's lock held
+  private void delete(Shard shard, Entry entry) {
+    shard.entries.remove(entry.id);
+    shard.initialized.remove(entry.id);
+    unindex(entry, null);
+  }
+
+  private void index(Entry entry) {
+    for (int type = 0; type < TOKEN_TYPES.size(); type++) {
+      String value = entry.tokenValues[type];
+      if (value != null) {
+        tokenIndexes.get(TOKEN_TYPES.get(type)).put(value, entry.id);
+      }
+    }
+    principalIndex.compute(
+        entry.principalName,
+        (name, ids) -> {
+          Set<String> updated = ids != null ? ids : ConcurrentHashMap.newKeySet();
+          updated.add(entry.id);
+          return updated;
+        });
+  }
+
+  // Removes the index entries of previous that replacement, if any, does not keep
+  private void unindex(Entry previous, @Nullable Entry replacement) {
+    for (int type = 0; type < TOKEN_TYPES.size(); type++) {
+      String value = previous.tokenValues[type];
+      if (value != null && (replacement == null || !value.equals(replacement.tokenValues[type]))) {
+        tokenIndexes.get(TOKEN_TYPES.get(type)).remove(value, previous.id);
+      }
+    }
+    if (replacement == null || !previous.principalName.equals(replacement.principalName)) {
+      principalIndex.computeIfPresent(
+          previous.principalName,
+          (name, ids) -> {
+            ids.remove(previous.id);
+            return ids.isEmpty() ? null : ids;
+          });
+    }
+  }
+
+  private static @Nullable String tokenValue(
+      OAuth2Authorization authorization, OAuth2TokenType tokenType) {
+    if (STATE.equals(tokenType)) {
+      return authorization.getAttribute(OAuth2ParameterNames.STATE);
+    }
+    OAuth2Authorization.Token<? extends OAuth2Token> token = token(authorization, tokenType);
+    return token != null ? token.getToken().getTokenValue() : null;
+  }
+
+  private static OAuth2Authorization.@Nullable Token<? extends OAuth2Token> token(
+      OAuth2Authorization authorization, OAuth2TokenType tokenType) {
+    if (CODE.equals(tokenType)) {
+      return authorization.getToken(OAuth2AuthorizationCode.class);
+    }
+    if (OAuth2TokenType.ACCESS_TOKEN.equals(tokenType)) {
+      return authorization.getAccessToken();
+    }
+    if (OAuth2TokenType.REFRESH_TOKEN.equals(tokenType)) {
+      return authorization.getRefreshToken();
+    }
+    if (ID_TOKEN.equals(tokenType)) {
+      return authorization.getToken(OidcIdToken.class);
+    }
+    if (DEVICE_CODE.equals(tokenType)) {
+      return authorization.getToken(OAuth2DeviceCode.class);
+    }
+    if (USER_CODE.equals(tokenType)) {
+      return authorization.getToken(OAuth2UserCode.class);
+    }
+    return null;
+  }
+
+  private Shard shard(String id) {
+    // Spread the hash so ids that differ only in high bits still land in different shards
+    int hash = Objects.hashCode(id);
+    hash ^= hash >>> 16;
+    return shards[Math.floorMod(hash, shards.length)];
+  }
+
+  /**
+   * Receives the changes made to the stored authorizations. A listener that throws stops the change
+   * from being made.
+   */
+  interface ChangeListener {
+
+    /** A listener that ignores every change. */
+    ChangeListener NONE =
+        new ChangeListener() {
+          @Override
+          public void saved(Entry entry) {}
+
+          @Override
+          public void removed(String id) {}
+        };
+
+    /**
+     * Called before an authorization is stored, whether it is new or replaces one with its id.
+     *
+     * @param entry the entry about to be stored, holding the authorization
+     */
+    void saved(Entry entry);
+
+    /**
+     * Called before an authorization is removed, including when it is dropped to bound the number
+     * of initialized authorizations.
+     *
+     * @param id the id of the authorization about to be removed
+     */
+    void removed(String id);
+  }
+
+  /**
+   * A stored authorization and what it is indexed by. The authorization of an entry restored from
+   * storage is read the first time it is needed; one that can no longer be read is treated as
+   * missing.
+   */
+  static final class Entry {
+
+    final String id;
+    final String principalName;
+    // By position in TOKEN_TYPES
+    final @Nullable String[] tokenValues;
+    // Whether an access token has been issued
+    final boolean issued;
+    final @Nullable Instant expiresAt;
+
+    private volatile @Nullable OAuth2Authorization authorization;
+    private volatile @Nullable Supplier<@Nullable OAuth2Authorization> reader;
+
+    Entry(
+        String id,
+        String principalName,
+        @Nullable String[] tokenValues,
+        boolean issued,
+        @Nullable Instant expiresAt,
+        Supplier<@Nullable OAuth2Authorization> reader) {
+      Assert.isTrue(tokenValues.length == TOKEN_TYPES.size(), "tokenValues must have every type");
+      this.id = id;
+      this.principalName = principalName;
+      this.tokenValues = tokenValues;
+      this.issued = issued;
+      this.expiresAt = expiresAt;
+      this.reader = reader;
+    }
+
+    private Entry(OAuth2Authorization authorization) {
+      this.id = authorization.getId();
+      this.principalName = authorization.getPrincipalName();
+      this.tokenValues = new String[TOKEN_TYPES.size()];
+      for (int type = 0; type < TOKEN_TYPES.size(); type++) {
+        tokenValues[type] = tokenValue(authorization, TOKEN_TYPES.get(type));
+      }
+      this.issued = authorization.getAccessToken() != null;
+      this.expiresAt = ShardedOAuth2AuthorizationService.expiresAt(authorization);
+      this.authorization = authorization;
+    }
+
+    static Entry of(OAuth2Authorization authorization) {
+      return new Entry(authorization);
+    }
+
+    @Nullable OAuth2Authorization authorization() {
+      OAuth2Authorization authorization = this.authorization;
+      if (authorization != null || this.reader == null) {
+        return authorization;
+      }
+      synchronized (this) {
+        Supplier<@Nullable OAuth2Authorization> reader = this.reader;
+        if (reader != null) {
+          this.authorization = reader.get();
+          // Let go of what it was read from
+          this.reader = null;
+        }
+        return this.authorization;
+      }
+    }
+
+    boolean isRead() {
+      return reader == null;
+    }
+
+    private boolean holds(String token, @Nullable OAuth2TokenType tokenType) {
+      if (tokenType != null) {
+        int type = TOKEN_TYPES.indexOf(tokenType);
+        return type >= 0 && token.equals(tokenValues[type]);
+      }
+      for (String value : tokenValues) {
+        if (token.equals(value)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final class Shard {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // Ids of authorizations without an access token, oldest first; guarded by lock
+    private final Set<String> initialized = new LinkedHashSet<>();
+  }
+}
@@ -0,0 +1,30 @@
+package org.garethjevans.chained.auth.adapter.authorization;
+
+import java.util.Map;
+import java.util.function.Consumer;
+import org.jspecify.annotations.Nullable;
+import org.springframework.security.oauth2.server.authorization.OAuth2Authorization;
+import org.springframework.security.oauth2.server.authorization.OAuth2AuthorizationService;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenType;
+
+/**
+ * An {@link OAuth2AuthorizationService} that can change the attributes of a stored authorization in
+ * one atomic step, instead of a {@code findByToken} followed by a {@code save} that races with any
+ * other update of the same authorization.
+ */
+public interface UpdatableOAuth2AuthorizationService extends OAuth2AuthorizationService {
+
+  /**
+   * Applies {@code attributesConsumer} to the attributes of the authorization holding the given
+   * token, and stores the result in place of that authorization.
+   *
+   * @param token the token value
+   * @param tokenType the token type, or {@code null} to match the token against every type
+   * @param attributesConsumer changes the attributes of the authorization
+   * @return the updated authorization, or {@code null} if no authorization holds the token
+   */
+  @Nullable OAuth2Authorization updateAttributes(
+      String token,
+      @Nullable OAuth2TokenType tokenType,
+      Consumer<Map<String, Object>> attributesConsumer);
+}
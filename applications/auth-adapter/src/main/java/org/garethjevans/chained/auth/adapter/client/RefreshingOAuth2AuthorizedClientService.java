@@ -0,0 +1,384 @@
+package org.garethjevans.chained.auth.adapter.client;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.garethjevans.chained.auth.logging.EventLogger;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.client.OAuth2AuthorizationContext;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientProvider;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.RefreshTokenOAuth2AuthorizedClientProvider;
+import org.springframework.security.oauth2.client.endpoint.OAuth2AccessTokenResponseClient;
+import org.springframework.security.oauth2.client.endpoint.OAuth2RefreshTokenGrantRequest;
+import org.springframework.security.oauth2.core.OAuth2AuthorizationException;
+import org.springframework.security.oauth2.core.OAuth2ErrorCodes;
+import org.springframework.util.Assert;
+
+/**
+ * {@link OAuth2AuthorizedClientService} that refreshes upstream access tokens in the background
+ * before they expire, so an authorization request never waits on the upstream token endpoint.
+ *
+ * <p>When a client of one of the given registrations is saved with a refresh token and an access
+ * token that expires, its refresh is scheduled {@code refreshAhead} before the token expires,
+ * brought forward by a random jitter of up to {@code jitter} so that tokens issued together are not
+ * all refreshed together. Refreshes run on a fixed pool of {@code workers} threads. A refreshed
+ * client is saved through this service, which schedules its next refresh. A refresh that fails is
+ * retried every {@code retryInterval} while the access token is still valid; a client whose refresh
+ * token is rejected is removed, so the next authorization request sends the user back to the
+ * upstream login.
+ */
+public class RefreshingOAuth2AuthorizedClientService
+    implements OAuth2AuthorizedClientService, SmartLifecycle, MeterBinder {
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(RefreshingOAuth2AuthorizedClientService.class);
+
+  private static final String AUDIT = "audit";
+
+  private final OAuth2AuthorizedClientService delegate;
+  private final OAuth2AuthorizedClientProvider refreshProvider;
+  private final EventLogger eventLogger;
+  private final Set<String> registrationIds;
+  private final Duration refreshAhead;
+  private final Duration jitter;
+  private final Duration retryInterval;
+  private final int workers;
+  private final Clock clock;
+
+  private final Map<Key, Refresh> refreshes = new ConcurrentHashMap<>();
+  private final Map<Outcome, Timer> timers = new ConcurrentHashMap<>();
+  private final AtomicInteger threads = new AtomicInteger();
+
+  private volatile @Nullable ScheduledThreadPoolExecutor executor;
+
+  /**
+   * Creates a service that refreshes the clients it saves through the token endpoint of their
+   * registration.
+   *
+   * @param delegate the service that stores the clients
+   * @param accessTokenResponseClient the client that refreshes tokens at the token endpoint
+   * @param eventLogger the log that refreshed tokens are audited to
+   * @param registrationIds the registrations whose clients are refreshed
+   * @param refreshAhead how long before its access token expires a client is refreshed
+   * @param jitter the most a refresh is brought forward by, at random
+   * @param retryInterval how long to wait before retrying a failed refresh
+   * @param workers the number of threads that refresh clients
+   */
+  public RefreshingOAuth2AuthorizedClientService(
+      OAuth2AuthorizedClientService delegate,
+      OAuth2AccessTokenResponseClient<OAuth2RefreshTokenGrantRequest> accessTokenResponseClient,
+      EventLogger eventLogger,
+      Set<String> registrationIds,
+      Duration refreshAhead,
+      Duration jitter,
+      Duration retryInterval,
+      int workers) {
+    this(
+        delegate,
+        refreshProvider(accessTokenResponseClient, refreshAhead.plus(jitter)),
+        eventLogger,
+        registrationIds,
+        refreshAhead,
+        jitter,
+        retryInterval,
+        workers,
+        Clock.systemUTC());
+  }
+
+  RefreshingOAuth2AuthorizedClientService(
+      OAuth2AuthorizedClientService delegate,
+      OAuth2AuthorizedClientProvider refreshProvider,
+      EventLogger eventLogger,
+      Set<String> registrationIds,
+      Duration refreshAhead,
+      Duration jitter,
+      Duration retryInterval,
+      int workers,
+      Clock clock) {
+    Assert.notNull(delegate, "delegate must not be null");
+    Assert.notNull(refreshProvider, "refreshProvider must not be null");
+    Assert.notNull(eventLogger, "eventLogger must not be null");
+    Assert.isTrue(!refreshAhead.isNegative(), "refreshAhead must not be negative");
+    Assert.isTrue(!jitter.isNegative(), "jitter must not be negative");
+    Assert.isTrue(retryInterval.isPositive(), "retryInterval must be positive");
+    Assert.isTrue(workers > 0, "workers must be greater than 0");
+    this.delegate = delegate;
+    this.refreshProvider = refreshProvider;
+    this.eventLogger = eventLogger;
+    this.registrationIds = Set.copyOf(registrationIds);
+    this.refreshAhead = refreshAhead;
+    this.jitter = jitter;
+    this.retryInterval = retryInterval;
+    this.workers = workers;
+    this.clock = clock;
+  }
+
+  // Refreshes whatever is due within the window a refresh can be scheduled in
+  private static OAuth2AuthorizedClientProvider refreshProvider(
+      OAuth2AccessTokenResponseClient<OAuth2RefreshTokenGrantRequest> accessTokenResponseClient,
+      Duration window) {
+    RefreshTokenOAuth2AuthorizedClientProvider provider =
+        new RefreshTokenOAuth2AuthorizedClientProvider();
+    provider.setAccessTokenResponseClient(accessTokenResponseClient);
+    provider.setClockSkew(window);
+    return provider;
+  }
+
+  @Override
+  public <T extends OAuth2AuthorizedClient> @Nullable T loadAuthorizedClient(
+      String clientRegistrationId, String principalName) {
+    return delegate.loadAuthorizedClient(clientRegistrationId, principalName);
+  }
+
+  @Override
+  public void saveAuthorizedClient(
+      OAuth2AuthorizedClient authorizedClient, Authentication principal) {
+    delegate.saveAuthorizedClient(authorizedClient, principal);
+    Key key =
+        new Key(authorizedClient.getClientRegistration().getRegistrationId(), principal.getName());
+    if (!registrationIds.contains(key.registrationId()) || !isRefreshable(authorizedClient)) {
+      cancel(refreshes.remove(key));
+      return;
+    }
+    Refresh refresh = new Refresh(key, authorizedClient, principal);
+    cancel(refreshes.put(key, refresh));
+    schedule(refresh, delay(authorizedClient));
+  }
+
+  @Override
+  public void removeAuthorizedClient(String clientRegistrationId, String principalName) {
+    delegate.removeAuthorizedClient(clientRegistrationId, principalName);
+    cancel(refreshes.remove(new Key(clientRegistrationId, principalName)));
+  }
+
+  /**
+   * Returns the number of clients with a refresh scheduled.
+   *
+   * @return the number of scheduled refreshes
+   */
+  public int getScheduled() {
+    return refreshes.size();
+  }
+
+  @Override
+  public void start() {
+    ScheduledThreadPoolExecutor executor =
+        new ScheduledThreadPoolExecutor(
+            workers,
+            (runnable) -> {
+              Thread thread = new Thread(runnable, "upstream-refresh-" + threads.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            },
+            (runnable, pool) -> LOGGER.debug("Not refreshing after shutdown"));
+    executor.setRemoveOnCancelPolicy(true);
+    executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    this.executor = executor;
+    // Clients saved before the service started
+    for (Refresh refresh : refreshes.values()) {
+      schedule(refresh, delay(refresh.client));
+    }
+  }
+
+  @Override
+  public void stop() {
+    ScheduledThreadPoolExecutor executor = this.executor;
+    this.executor = null;
+    if (executor != null) {
+      // Lets refreshes that are under way finish, and drops the rest
+      executor.shutdown();
+      try {
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return executor != null;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    for (Outcome outcome : Outcome.values()) {
+      timers.put(
+          outcome,
+          Timer.builder("upstream.token.refresh")
+              .description("Background refreshes of upstream access tokens, by outcome")
+              .tag("outcome", outcome.tag)
+              .register(registry));
+    }
+    Gauge.builder(
+            "upstream.token.refresh.scheduled",
+            this,
+            RefreshingOAuth2AuthorizedClientService::getScheduled)
+        .description("Upstream clients with a background refresh scheduled")
+        .register(registry);
+  }
+
+  private static boolean isRefreshable(OAuth2AuthorizedClient authorizedClient) {
+    return authorizedClient.getRefreshToken() != null
+        && authorizedClient.getAccessToken().getExpiresAt() != null;
+  }
+
+  private Duration delay(OAuth2AuthorizedClient authorizedClient) {
+    Instant due = authorizedClient.getAccessToken().getExpiresAt().minus(refreshAhead);
+    long jitterMillis = ThreadLocalRandom.current().nextLong(jitter.toMillis() + 1);
+    Duration delay = Duration.between(clock.instant(), due).minusMillis(jitterMillis);
+    return delay.isNegative() ? Duration.ZERO : delay;
+  }
+
+  private void schedule(Refresh refresh, Duration delay) {
+    ScheduledThreadPoolExecutor executor = this.executor;
+    if (executor != null) {
+      refresh.future =
+          executor.schedule(() -> refresh(refresh), delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private static void cancel(@Nullable Refresh refresh) {
+    if (refresh != null && refresh.future != null) {
+      refresh.future.cancel(false);
+    }
+  }
+
+  private void refresh(Refresh refresh) {
+    Key key = refresh.key;
+    if (refreshes.get(key) != refresh) {
+      // Saved again or removed since this was scheduled
+      return;
+    }
+    long start = System.nanoTime();
+    OAuth2AuthorizedClient refreshed;
+    try {
+      refreshed =
+          refreshProvider.authorize(
+              OAuth2AuthorizationContext.withAuthorizedClient(refresh.client)
+                  .principal(refresh.principal)
+                  .build());
+    } catch (OAuth2AuthorizationException ex) {
+      if (OAuth2ErrorCodes.INVALID_GRANT.equals(ex.getError().getErrorCode())) {
+        record(Outcome.REVOKED, start);
+        LOGGER.info(
+            "Refresh token for {} of {} was rejected, removing the client",
+            key.registrationId(),
+            key.principalName());
+        eventLogger.log(
+            AUDIT, "event", "upstream.refresh.revoked", "principal", key.principalName());
+        if (refreshes.remove(key, refresh)) {
+          delegate.removeAuthorizedClient(key.registrationId(), key.principalName());
+        }
+        return;
+      }
+      retry(refresh, start, ex);
+      return;
+    } catch (RuntimeException ex) {
+      retry(refresh, start, ex);
+      return;
+    }
+    if (refreshed == null) {
+      // Not due after all, which only happens if the clock went backwards
+      refreshes.remove(key, refresh);
+      return;
+    }
+    record(Outcome.SUCCESS, start);
+    eventLogger.log(
+        AUDIT,
+        "event",
+        "upstream.refreshed",
+        "principal",
+        key.principalName(),
+        "issued_at",
+        refreshed.getAccessToken().getIssuedAt(),
+        "expires_at",
+        refreshed.getAccessToken().getExpiresAt(),
+        "access_token",
+        refreshed.getAccessToken().getTokenValue());
+    if (refreshes.get(key) == refresh) {
+      saveAuthorizedClient(refreshed, refresh.principal);
+    }
+  }
+
+  private void retry(Refresh refresh, long start, RuntimeException ex) {
+    record(Outcome.FAILURE, start);
+    Key key = refresh.key;
+    Instant expiresAt = refresh.client.getAccessToken().getExpiresAt();
+    if (clock.instant().plus(retryInterval).isBefore(expiresAt)) {
+      LOGGER.warn(
+          "Failed to refresh {} of {}, retrying in {}",
+          key.registrationId(),
+          key.principalName(),
+          retryInterval,
+          ex);
+      Refresh retry = new Refresh(key, refresh.client, refresh.principal);
+      if (refreshes.replace(key, refresh, retry)) {
+        schedule(retry, retryInterval);
+      }
+    } else {
+      // The request path asks the user to log in again once the token has expired
+      LOGGER.warn(
+          "Failed to refresh {} of {}, giving up as its token expires at {}",
+          key.registrationId(),
+          key.principalName(),
+          expiresAt,
+          ex);
+      refreshes.remove(key, refresh);
+    }
+  }
+
+  private void record(Outcome outcome, long start) {
+    Timer timer = timers.get(outcome);
+    if (timer != null) {
+      timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private enum Outcome {
+    SUCCESS("success"),
+    FAILURE("failure"),
+    REVOKED("revoked");
+
+    private final String tag;
+
+    Outcome(String tag) {
+      this.tag = tag;
+    }
+  }
+
+  private record Key(String registrationId, String principalName) {}
+
+  private static final class Refresh {
+
+    private final Key key;
+    private final OAuth2AuthorizedClient client;
+    private final Authentication principal;
+
+    private volatile @Nullable ScheduledFuture<?> future;
+
+    private Refresh(Key key, OAuth2AuthorizedClient client, Authentication principal) {
+      this.key = key;
+      this.client = client;
+      this.principal = principal;
+    }
+  }
+}
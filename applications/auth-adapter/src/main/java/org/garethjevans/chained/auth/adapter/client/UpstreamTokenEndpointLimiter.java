@@ -0,0 +1,143 @@
+package org.garethjevans.chained.auth.adapter.client;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.security.oauth2.client.endpoint.AbstractOAuth2AuthorizationGrantRequest;
+import org.springframework.security.oauth2.client.endpoint.OAuth2AccessTokenResponseClient;
+import org.springframework.security.oauth2.core.OAuth2AuthorizationException;
+import org.springframework.security.oauth2.core.OAuth2Error;
+import org.springframework.security.oauth2.core.OAuth2ErrorCodes;
+import org.springframework.util.Assert;
+
+/**
+ * Caps the number of requests made to upstream token endpoints at once, across every grant that is
+ * {@link #limit limited} by it, so that a burst of logins and refreshes does not trip the upstream
+ * provider's rate limits.
+ *
+ * <p>Up to {@code maxConcurrent} requests run at once. Further requests queue, in arrival order,
+ * for up to {@code queueTimeout}; once {@code maxQueued} are waiting, or a request has waited that
+ * long, it fails straight away with {@code temporarily_unavailable} rather than piling up behind
+ * the others.
+ */
+public class UpstreamTokenEndpointLimiter implements MeterBinder {
+
+  private final int maxConcurrent;
+  private final int maxQueued;
+  private final Duration queueTimeout;
+
+  private final Semaphore permits;
+  private final AtomicInteger queued = new AtomicInteger();
+  private final LongAdder rejected = new LongAdder();
+
+  /**
+   * Creates a limiter.
+   *
+   * @param maxConcurrent the most requests made to token endpoints at once
+   * @param maxQueued the most requests waiting to be made
+   * @param queueTimeout how long a request waits before it fails
+   */
+  public UpstreamTokenEndpointLimiter(int maxConcurrent, int maxQueued, Duration queueTimeout) {
+    Assert.isTrue(maxConcurrent > 0, "maxConcurrent must be greater than 0");
+    Assert.isTrue(maxQueued >= 0, "maxQueued must not be negative");
+    Assert.isTrue(!queueTimeout.isNegative(), "queueTimeout must not be negative");
+    this.maxConcurrent = maxConcurrent;
+    this.maxQueued = maxQueued;
+    this.queueTimeout = queueTimeout;
+    this.permits = new Semaphore(maxConcurrent, true);
+  }
+
+  /**
+   * Returns a client that makes its requests through this limiter.
+   *
+   * @param client the client that makes the requests
+   * @param <T> the type of grant request
+   * @return the limited client
+   */
+  public <T extends AbstractOAuth2AuthorizationGrantRequest>
+      OAuth2AccessTokenResponseClient<T> limit(OAuth2AccessTokenResponseClient<T> client) {
+    Assert.notNull(client, "client must not be null");
+    return (grantRequest) -> {
+      acquire();
+      try {
+        return client.getTokenResponse(grantRequest);
+      } finally {
+        permits.release();
+      }
+    };
+  }
+
+  /**
+   * Returns the number of requests being made to token endpoints.
+   *
+   * @return the number of requests in flight
+   */
+  public int getActive() {
+    return maxConcurrent - permits.availablePermits();
+  }
+
+  /**
+   * Returns the number of requests waiting to be made.
+   *
+   * @return the number of queued requests
+   */
+  public int getQueued() {
+    return queued.get();
+  }
+
+  /**
+   * Returns the number of requests that failed because too many were queued or they waited too
+   * long.
+   *
+   * @return the number of rejected requests
+   */
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("upstream.token.endpoint.active", this, UpstreamTokenEndpointLimiter::getActive)
+        .description("Requests being made to upstream token endpoints")
+        .register(registry);
+    Gauge.builder("upstream.token.endpoint.queued", this, UpstreamTokenEndpointLimiter::getQueued)
+        .description("Requests waiting to be made to upstream token endpoints")
+        .register(registry);
+    FunctionCounter.builder(
+            "upstream.token.endpoint.rejected", this, UpstreamTokenEndpointLimiter::getRejected)
+        .description("Requests to upstream token endpoints rejected by the concurrency limit")
+        .register(registry);
+  }
+
+  private void acquire() {
+    if (permits.tryAcquire()) {
+      return;
+    }
+    if (queued.incrementAndGet() > maxQueued) {
+      queued.decrementAndGet();
+      throw rejected("Too many requests are waiting for the upstream token endpoint");
+    }
+    try {
+      if (!permits.tryAcquire(queueTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+        throw rejected("Timed out waiting for the upstream token endpoint");
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw rejected("Interrupted waiting for the upstream token endpoint");
+    } finally {
+      queued.decrementAndGet();
+    }
+  }
+
+  private OAuth2AuthorizationException rejected(String description) {
+    rejected.increment();
+    return new OAuth2AuthorizationException(
+        new OAuth2Error(OAuth2ErrorCodes.TEMPORARILY_UNAVAILABLE, description, null));
+  }
+}
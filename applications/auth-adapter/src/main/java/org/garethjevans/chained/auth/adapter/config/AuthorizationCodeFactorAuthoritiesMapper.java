@@ -0,0 +1,42 @@
+package org.garethjevans.chained.auth.adapter.config;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.FactorGrantedAuthority;
+import org.springframework.security.core.authority.mapping.GrantedAuthoritiesMapper;
+import org.springframework.security.oauth2.core.oidc.user.OidcUserAuthority;
+
+/**
+ * Records a login at the test-auth-server as an authorization code factor. OAuth2 login adds one
+ * itself, but OpenID Connect login does not, and without it the ID token issued to clients has no
+ * {@code auth_time}, so issuing it fails. The factor is timed from the {@code auth_time} of the
+ * upstream ID token, or from now when it has none.
+ */
+public class AuthorizationCodeFactorAuthoritiesMapper implements GrantedAuthoritiesMapper {
+
+  @Override
+  public Collection<? extends GrantedAuthority> mapAuthorities(
+      Collection<? extends GrantedAuthority> authorities) {
+    Set<GrantedAuthority> mapped = new HashSet<>(authorities);
+    for (GrantedAuthority authority : authorities) {
+      if (authority instanceof FactorGrantedAuthority) {
+        return mapped;
+      }
+    }
+    Instant authenticatedAt = Instant.now();
+    for (GrantedAuthority authority : authorities) {
+      if (authority instanceof OidcUserAuthority oidcUserAuthority
+          && oidcUserAuthority.getIdToken().getAuthenticatedAt() != null) {
+        authenticatedAt = oidcUserAuthority.getIdToken().getAuthenticatedAt();
+      }
+    }
+    mapped.add(
+        FactorGrantedAuthority.withAuthority(FactorGrantedAuthority.AUTHORIZATION_CODE_AUTHORITY)
+            .issuedAt(authenticatedAt)
+            .build());
+    return mapped;
+  }
+}
@@ -1,45 +1,38 @@
 package org.garethjevans.chained.auth.adapter.config;
 
-import com.nimbusds.jose.jwk.JWKSet;
-import com.nimbusds.jose.jwk.RSAKey;
-import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
-import com.nimbusds.jose.jwk.source.JWKSource;
-import com.nimbusds.jose.proc.SecurityContext;
-import java.security.KeyPair;
-import java.security.KeyPairGenerator;
-import java.security.interfaces.RSAPrivateKey;
-import java.security.interfaces.RSAPublicKey;
-import java.util.UUID;
+import java.util.List;
+import java.util.Set;
+import org.garethjevans.chained.auth.adapter.authorization.UpdatableOAuth2AuthorizationService;
+import org.garethjevans.chained.auth.adapter.client.UpstreamTokenEndpointLimiter;
+import org.garethjevans.chained.auth.adapter.session.StatelessLogin;
+import org.garethjevans.chained.auth.logging.EventLogger;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
+import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
+import org.springframework.security.core.authority.mapping.GrantedAuthoritiesMapper;
 import org.springframework.security.oauth2.client.OAuth2AuthorizedClientManager;
 import org.springframework.security.oauth2.client.OAuth2AuthorizedClientProvider;
 import org.springframework.security.oauth2.client.OAuth2AuthorizedClientProviderBuilder;
 import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.endpoint.RestClientAuthorizationCodeTokenResponseClient;
 import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
 import org.springframework.security.oauth2.client.web.DefaultOAuth2AuthorizedClientManager;
 import org.springframework.security.oauth2.client.web.OAuth2AuthorizedClientRepository;
-import org.springframework.security.oauth2.core.AuthorizationGrantType;
-import org.springframework.security.oauth2.core.ClientAuthenticationMethod;
-import org.springframework.security.oauth2.core.oidc.OidcScopes;
-import org.springframework.security.oauth2.jwt.JwtDecoder;
-import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
-import org.springframework.security.oauth2.server.authorization.client.InMemoryRegisteredClientRepository;
-import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
-import org.springframework.security.oauth2.server.authorization.client.RegisteredClientRepository;
+import org.springframework.security.oauth2.server.authorization.authentication.OAuth2ClientRegistrationAuthenticationProvider;
 import org.springframework.security.oauth2.server.authorization.settings.AuthorizationServerSettings;
-import org.springframework.security.oauth2.server.authorization.settings.ClientSettings;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.LoginUrlAuthenticationEntryPoint;
 import org.springframework.security.web.util.matcher.MediaTypeRequestMatcher;
 
 @Configuration
-@EnableWebSecurity(debug = true)
+@EnableWebSecurity
 public class AuthorizationServerConfig {
 
   public AuthorizationServerConfig() {}
@@ -48,8 +41,13 @@ public class AuthorizationServerConfig {
   @Order(1)
   public SecurityFilterChain authorizationServerSecurityFilterChain(
       HttpSecurity http,
+      UpdatableOAuth2AuthorizationService authorizationService,
       OAuth2AuthorizedClientManager oAuth2AuthorizedClientManager,
-      OAuth2AuthorizedClientService oAuth2AuthorizedClientService)
+      OAuth2AuthorizedClientService oAuth2AuthorizedClientService,
+      EventLogger eventLogger,
+      PhantomTokenConfig.PhantomTokenProperties phantomTokenProperties,
+      ClientRegistrationConfig.ClientRegistrationProperties clientRegistrationProperties,
+      ObjectProvider<StatelessLogin> statelessLogin)
       throws Exception {
     http.oauth2Client(Customizer.withDefaults())
         .oauth2AuthorizationServer(
@@ -58,31 +56,68 @@ public class AuthorizationServerConfig {
               authorizationServer.oidc(Customizer.withDefaults()); // Enable OpenID Connect 1.0
               authorizationServer.addObjectPostProcessor(
                   PocOAuth2AuthorizationCodeRequestAuthenticationProvider.postProcessor(
-                      http, oAuth2AuthorizedClientManager, oAuth2AuthorizedClientService));
+                      authorizationService,
+                      oAuth2AuthorizedClientManager,
+                      oAuth2AuthorizedClientService,
+                      eventLogger));
+              // Only the gateway may see the upstream token behind a reference token
+              authorizationServer.tokenIntrospectionEndpoint(
+                  introspection ->
+                      introspection.introspectionResponseHandler(
+                          new UpstreamTokenIntrospectionResponseHandler(
+                              Set.of(phantomTokenProperties.getGatewayClientId()))));
+              // Dynamic client registration (RFC 7591), which MCP clients use to register
+              authorizationServer.clientRegistrationEndpoint(
+                  (registration) ->
+                      registration
+                          .openRegistrationAllowed(
+                              clientRegistrationProperties.isOpenRegistration())
+                          .authenticationProviders(
+                              (providers) ->
+                                  useRegisteredClientConverter(providers, phantomTokenProperties)));
+            })
+        .authorizeHttpRequests(
+            (authorize) -> {
+              if (clientRegistrationProperties.isOpenRegistration()) {
+                authorize.requestMatchers(HttpMethod.POST, "/oauth2/register").permitAll();
+              }
+              authorize.anyRequest().authenticated();
             })
-        .authorizeHttpRequests((authorize) -> authorize.anyRequest().authenticated())
         // Redirect to the test-auth-server login when not authenticated
         .exceptionHandling(
             (exceptions) ->
                 exceptions.defaultAuthenticationEntryPointFor(
                     new LoginUrlAuthenticationEntryPoint("/oauth2/authorization/test-auth-server"),
                     new MediaTypeRequestMatcher(MediaType.TEXT_HTML)));
+    applyStatelessLogin(http, statelessLogin);
 
     return http.build();
   }
 
   @Bean
   @Order(2)
-  public SecurityFilterChain defaultSecurityFilterChain(HttpSecurity http) throws Exception {
+  public SecurityFilterChain defaultSecurityFilterChain(
+      HttpSecurity http,
+      UpstreamTokenEndpointLimiter tokenEndpointLimiter,
+      ObjectProvider<StatelessLogin> statelessLogin)
+      throws Exception {
     http.authorizeHttpRequests(
             (authorize) ->
                 authorize.requestMatchers("/actuator/**").permitAll().anyRequest().authenticated())
+        // Exchanges the GitHub authorization code, sharing the limit on calls to its token endpoint
+        .oauth2Client(
+            (client) ->
+                client.authorizationCodeGrant(
+                    (grant) ->
+                        grant.accessTokenResponseClient(
+                            tokenEndpointLimiter.limit(
+                                new RestClientAuthorizationCodeTokenResponseClient()))))
         // OAuth2 login with test-auth-server as primary authentication
-        .oauth2Client(Customizer.withDefaults())
         .oauth2Login(
             oauth2 -> oauth2.loginPage("/oauth2/authorization/test-auth-server")
             //   .successHandler(authenticationSuccessHandler)
             );
+    applyStatelessLogin(http, statelessLogin);
 
     return http.build();
   }
@@ -95,7 +130,8 @@ public class AuthorizationServerConfig {
     OAuth2AuthorizedClientProvider authorizedClientProvider =
         OAuth2AuthorizedClientProviderBuilder.builder()
             .authorizationCode()
-            // .refreshToken()
+            // No .refreshToken(): RefreshingOAuth2AuthorizedClientService refreshes tokens in the
+            // background, so authorizing never waits on the upstream token endpoint
             // .clientCredentials()
             .build();
 
@@ -108,65 +144,39 @@ public class AuthorizationServerConfig {
   }
 
   /**
-   * This bean should not be required to be registered here. It would be part of the DCR flow.
+   * Adds the authorization code factor that OpenID Connect login leaves out, so ID tokens can be
+   * issued after it.
    *
-   * @return the test-app client
+   * @return the mapper applied to the authorities of a login
    */
   @Bean
-  public RegisteredClientRepository registeredClientRepository() {
-    RegisteredClient registeredClient =
-        RegisteredClient.withId(UUID.randomUUID().toString())
-            .clientId("client")
-            .clientSecret("{noop}secret")
-            .clientAuthenticationMethod(ClientAuthenticationMethod.CLIENT_SECRET_BASIC)
-            .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
-            // .authorizationGrantType(AuthorizationGrantType.REFRESH_TOKEN)
-            .redirectUri("http://127.0.0.1:8080/login/oauth2/code/auth-adapter")
-            .redirectUri("cursor://anysphere.cursor-mcp/oauth/callback")
-            .postLogoutRedirectUri("http://127.0.0.1:8080/")
-            .scope(OidcScopes.OPENID)
-            .scope(OidcScopes.PROFILE)
-            //            .scope("user:email")
-            //            .scope("read:user")
-            .clientSettings(ClientSettings.builder().requireAuthorizationConsent(false).build())
-            .build();
-
-    return new InMemoryRegisteredClientRepository(registeredClient);
+  public GrantedAuthoritiesMapper userAuthoritiesMapper() {
+    return new AuthorizationCodeFactorAuthoritiesMapper();
   }
 
   @Bean
-  public JWKSource<SecurityContext> jwkSource() {
-    KeyPair keyPair = generateRsaKey();
-    RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
-    RSAPrivateKey privateKey = (RSAPrivateKey) keyPair.getPrivate();
-    RSAKey rsaKey =
-        new RSAKey.Builder(publicKey)
-            .privateKey(privateKey)
-            .keyID(UUID.randomUUID().toString())
-            .build();
-    JWKSet jwkSet = new JWKSet(rsaKey);
-    return new ImmutableJWKSet<>(jwkSet);
+  public AuthorizationServerSettings authorizationServerSettings() {
+    return AuthorizationServerSettings.builder().issuer("http://127.0.0.1:9000").build();
   }
 
-  private static KeyPair generateRsaKey() {
-    KeyPair keyPair;
-    try {
-      KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
-      keyPairGenerator.initialize(2048);
-      keyPair = keyPairGenerator.generateKeyPair();
-    } catch (Exception ex) {
-      throw new IllegalStateException(ex);
+  // In stateless mode the state of a login is kept in cookies rather than the HTTP session
+  private static void applyStatelessLogin(
+      HttpSecurity http, ObjectProvider<StatelessLogin> statelessLogin) throws Exception {
+    StatelessLogin login = statelessLogin.getIfAvailable();
+    if (login != null) {
+      login.applyTo(http);
     }
-    return keyPair;
   }
 
-  @Bean
-  public JwtDecoder jwtDecoder(JWKSource<SecurityContext> jwkSource) {
-    return NimbusJwtDecoder.withJwkSetUri("http://127.0.0.1:9000/oauth2/jwks").build();
-  }
-
-  @Bean
-  public AuthorizationServerSettings authorizationServerSettings() {
-    return AuthorizationServerSettings.builder().issuer("http://127.0.0.1:9000").build();
+  // Registered clients are issued the same kind of access token as the configured client
+  private static void useRegisteredClientConverter(
+      List<AuthenticationProvider> providers,
+      PhantomTokenConfig.PhantomTokenProperties phantomTokenProperties) {
+    for (AuthenticationProvider provider : providers) {
+      if (provider instanceof OAuth2ClientRegistrationAuthenticationProvider registration) {
+        registration.setRegisteredClientConverter(
+            ClientRegistrationConfig.registeredClientConverter(phantomTokenProperties));
+      }
+    }
   }
 }
@@ -0,0 +1,107 @@
+package org.garethjevans.chained.auth.adapter.config;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import org.garethjevans.chained.auth.adapter.authorization.PersistentOAuth2AuthorizationService;
+import org.garethjevans.chained.auth.adapter.authorization.ShardedOAuth2AuthorizationService;
+import org.garethjevans.chained.auth.adapter.authorization.UpdatableOAuth2AuthorizationService;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configures where the authorization server keeps its authorizations. They are held in memory,
+ * indexed by token, and when persistence is enabled also in a log on local disk that is replayed on
+ * startup, so a restart does not make every client log in again.
+ */
+@Configuration
+@EnableConfigurationProperties(AuthorizationStoreConfig.AuthorizationStoreProperties.class)
+public class AuthorizationStoreConfig {
+
+  /**
+   * Stores authorizations with an index per token type, so finding one by its code or token does
+   * not scan every live authorization.
+   *
+   * @param properties the authorization store settings
+   * @return the authorization service used by the authorization server endpoints
+   */
+  @Bean
+  public UpdatableOAuth2AuthorizationService authorizationService(
+      AuthorizationStoreProperties properties) {
+    if (!properties.isPersistent()) {
+      return new ShardedOAuth2AuthorizationService();
+    }
+    return new PersistentOAuth2AuthorizationService(
+        properties.getPath(),
+        properties.isShared(),
+        properties.getFlushInterval(),
+        properties.getCompactionInterval());
+  }
+
+  /**
+   * Settings for the authorization store, bound from the {@code auth-adapter.authorization-store}
+   * prefix.
+   */
+  @ConfigurationProperties(prefix = "auth-adapter.authorization-store")
+  public static class AuthorizationStoreProperties {
+
+    /** Whether to keep authorizations in a log on local disk so they survive a restart. */
+    private boolean persistent = false;
+
+    /** The log file, created with its directory if it does not exist. */
+    private Path path = Path.of("data", "authorizations.log");
+
+    /**
+     * Whether other instances on the same machine are given the same log, so any of them can redeem
+     * a code or token another one issued.
+     */
+    private boolean shared = false;
+
+    /** How often to force the log to disk. Writes survive the process dying without it. */
+    private Duration flushInterval = Duration.ofSeconds(1);
+
+    /** How often to drop expired authorizations and consider compacting the log. */
+    private Duration compactionInterval = Duration.ofMinutes(5);
+
+    public boolean isPersistent() {
+      return persistent;
+    }
+
+    public void setPersistent(boolean persistent) {
+      this.persistent = persistent;
+    }
+
+    public Path getPath() {
+      return path;
+    }
+
+    public void setPath(Path path) {
+      this.path = path;
+    }
+
+    public boolean isShared() {
+      return shared;
+    }
+
+    public void setShared(boolean shared) {
+      this.shared = shared;
+    }
+
+    public Duration getFlushInterval() {
+      return flushInterval;
+    }
+
+    public void setFlushInterval(Duration flushInterval) {
+      this.flushInterval = flushInterval;
+    }
+
+    public Duration getCompactionInterval() {
+      return compactionInterval;
+    }
+
+    public void setCompactionInterval(Duration compactionInterval) {
+      this.compactionInterval = compactionInterval;
+    }
+  }
+}
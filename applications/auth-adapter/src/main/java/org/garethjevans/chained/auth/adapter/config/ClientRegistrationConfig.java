@@ -0,0 +1,222 @@
+package org.garethjevans.chained.auth.adapter.config;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.garethjevans.chained.auth.adapter.registration.PersistentRegisteredClientRepository;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.ClientAuthenticationMethod;
+import org.springframework.security.oauth2.core.oidc.OidcScopes;
+import org.springframework.security.oauth2.server.authorization.OAuth2ClientRegistration;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.security.oauth2.server.authorization.converter.OAuth2ClientRegistrationRegisteredClientConverter;
+import org.springframework.security.oauth2.server.authorization.settings.ClientSettings;
+import org.springframework.security.oauth2.server.authorization.settings.OAuth2TokenFormat;
+import org.springframework.security.oauth2.server.authorization.settings.TokenSettings;
+
+/**
+ * Configures the clients of the authorization server. Besides the test-app client, and the gateway
+ * client in phantom-token mode, clients such as MCP client installations register themselves at
+ * {@code /oauth2/register}. Registered clients are kept on local disk, and those not used for a
+ * while are removed.
+ */
+@Configuration
+@EnableConfigurationProperties(ClientRegistrationConfig.ClientRegistrationProperties.class)
+public class ClientRegistrationConfig {
+
+  /**
+   * Holds the configured clients and those that registered themselves, with an index of the
+   * registered ones by id and client id in memory and the most used of them cached.
+   *
+   * @param properties the client registration settings
+   * @param phantomTokenProperties the phantom-token settings
+   * @return the registered client repository
+   */
+  @Bean
+  public PersistentRegisteredClientRepository registeredClientRepository(
+      ClientRegistrationProperties properties,
+      PhantomTokenConfig.PhantomTokenProperties phantomTokenProperties) {
+    return new PersistentRegisteredClientRepository(
+        properties.getPath(),
+        properties.isShared(),
+        configuredClients(phantomTokenProperties),
+        properties.getCacheSize(),
+        properties.getAbandonedAfter(),
+        properties.getFlushInterval(),
+        properties.getCompactionInterval());
+  }
+
+  /**
+   * Returns the clients that do not register themselves. Their ids are their client ids, so they
+   * stay the same across restarts, as the authorizations kept on disk expect.
+   *
+   * <p>In phantom-token mode the test-app client is issued reference tokens, and a second client is
+   * configured for the gateway to introspect them with.
+   *
+   * @param phantomTokenProperties the phantom-token settings
+   * @return the test-app client, and the gateway client in phantom-token mode
+   */
+  public static List<RegisteredClient> configuredClients(
+      PhantomTokenConfig.PhantomTokenProperties phantomTokenProperties) {
+    List<RegisteredClient> clients = new ArrayList<>();
+    clients.add(
+        RegisteredClient.withId("client")
+            .clientId("client")
+            .clientSecret("{noop}secret")
+            .clientAuthenticationMethod(ClientAuthenticationMethod.CLIENT_SECRET_BASIC)
+            .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+            // .authorizationGrantType(AuthorizationGrantType.REFRESH_TOKEN)
+            .redirectUri("http://127.0.0.1:8080/login/oauth2/code/auth-adapter")
+            .redirectUri("cursor://anysphere.cursor-mcp/oauth/callback")
+            .postLogoutRedirectUri("http://127.0.0.1:8080/")
+            .scope(OidcScopes.OPENID)
+            .scope(OidcScopes.PROFILE)
+            //            .scope("user:email")
+            //            .scope("read:user")
+            .clientSettings(ClientSettings.builder().requireAuthorizationConsent(false).build())
+            .tokenSettings(tokenSettings(phantomTokenProperties))
+            .build());
+
+    if (phantomTokenProperties.isEnabled()) {
+      clients.add(
+          RegisteredClient.withId(phantomTokenProperties.getGatewayClientId())
+              .clientId(phantomTokenProperties.getGatewayClientId())
+              .clientSecret(phantomTokenProperties.getGatewayClientSecret())
+              .clientAuthenticationMethod(ClientAuthenticationMethod.CLIENT_SECRET_BASIC)
+              .authorizationGrantType(AuthorizationGrantType.CLIENT_CREDENTIALS)
+              .build());
+    }
+    return clients;
+  }
+
+  /**
+   * Creates registered clients from registration requests as Spring Authorization Server does, but
+   * issuing them the same kind of access token as the test-app client, and without asking for
+   * consent, which the authorization code request provider does not support.
+   *
+   * @param phantomTokenProperties the phantom-token settings
+   * @return the converter used by the client registration endpoint
+   */
+  static Converter<OAuth2ClientRegistration, RegisteredClient> registeredClientConverter(
+      PhantomTokenConfig.PhantomTokenProperties phantomTokenProperties) {
+    OAuth2ClientRegistrationRegisteredClientConverter delegate =
+        new OAuth2ClientRegistrationRegisteredClientConverter();
+    return (registration) -> {
+      RegisteredClient converted = delegate.convert(registration);
+      return RegisteredClient.from(converted)
+          .clientSettings(
+              ClientSettings.withSettings(converted.getClientSettings().getSettings())
+                  .requireAuthorizationConsent(false)
+                  .build())
+          .tokenSettings(tokenSettings(phantomTokenProperties))
+          .build();
+    };
+  }
+
+  private static TokenSettings tokenSettings(
+      PhantomTokenConfig.PhantomTokenProperties phantomTokenProperties) {
+    return TokenSettings.builder()
+        .accessTokenFormat(
+            phantomTokenProperties.isEnabled()
+                ? OAuth2TokenFormat.REFERENCE
+                : OAuth2TokenFormat.SELF_CONTAINED)
+        .build();
+  }
+
+  /**
+   * Settings for client registration, bound from the {@code auth-adapter.client-registration}
+   * prefix.
+   */
+  @ConfigurationProperties(prefix = "auth-adapter.client-registration")
+  public static class ClientRegistrationProperties {
+
+    /**
+     * Whether clients may register without an initial access token, as MCP clients expect. When
+     * disabled, registering needs an access token with the {@code client.create} scope.
+     */
+    private boolean openRegistration = true;
+
+    /** The log of registered clients, created with its directory if it does not exist. */
+    private Path path = Path.of("data", "clients.log");
+
+    /**
+     * Whether other instances on the same machine are given the same log, so a client that
+     * registered at one of them is known to all.
+     */
+    private boolean shared = false;
+
+    /** The most registered clients to keep in memory; the others are read from the log. */
+    private long cacheSize = 10_000;
+
+    /** How long a registered client may go unused before it is removed. */
+    private Duration abandonedAfter = Duration.ofDays(90);
+
+    /** How often to force the log to disk. Writes survive the process dying without it. */
+    private Duration flushInterval = Duration.ofSeconds(1);
+
+    /** How often to remove abandoned clients and consider compacting the log. */
+    private Duration compactionInterval = Duration.ofMinutes(5);
+
+    public boolean isOpenRegistration() {
+      return openRegistration;
+    }
+
+    public void setOpenRegistration(boolean openRegistration) {
+      this.openRegistration = openRegistration;
+    }
+
+    public Path getPath() {
+      return path;
+    }
+
+    public void setPath(Path path) {
+      this.path = path;
+    }
+
+    public boolean isShared() {
+      return shared;
+    }
+
+    public void setShared(boolean shared) {
+      this.shared = shared;
+    }
+
+    public long getCacheSize() {
+      return cacheSize;
+    }
+
+    public void setCacheSize(long cacheSize) {
+      this.cacheSize = cacheSize;
+    }
+
+    public Duration getAbandonedAfter() {
+      return abandonedAfter;
+    }
+
+    public void setAbandonedAfter(Duration abandonedAfter) {
+      this.abandonedAfter = abandonedAfter;
+    }
+
+    public Duration getFlushInterval() {
+      return flushInterval;
+    }
+
+    public void setFlushInterval(Duration flushInterval) {
+      this.flushInterval = flushInterval;
+    }
+
+    public Duration getCompactionInterval() {
+      return compactionInterval;
+    }
+
+    public void setCompactionInterval(Duration compactionInterval) {
+      this.compactionInterval = compactionInterval;
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package org.garethjevans.chained.auth.adapter.config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.garethjevans.chained.auth.adapter.logging.AccessLogFilter;
+import org.garethjevans.chained.auth.logging.EventLogger;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * Configures the asynchronous access and audit log. Access events are written for every request;
+ * audit events record upstream authorizations and issued tokens, with token values redacted.
+ */
+@Configuration
+@EnableConfigurationProperties(EventLogConfig.EventLogProperties.class)
+public class EventLogConfig {
+
+  @Bean
+  public EventLogger eventLogger(EventLogProperties properties) {
+    return new EventLogger(
+        "auth-adapter-event-log",
+        properties.getQueueCapacity(),
+        properties.getSampleRates(),
+        properties.getDefaultSampleRate());
+  }
+
+  @Bean
+  public FilterRegistrationBean<AccessLogFilter> accessLogFilter(EventLogger eventLogger) {
+    FilterRegistrationBean<AccessLogFilter> registration =
+        new FilterRegistrationBean<>(new AccessLogFilter(eventLogger));
+    // Run before Spring Security so rejected requests are logged too
+    registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+    return registration;
+  }
+
+  /** Settings for the event log, bound from the {@code auth-adapter.event-log} prefix. */
+  @ConfigurationProperties(prefix = "auth-adapter.event-log")
+  public static class EventLogProperties {
+
+    /** Maximum number of events waiting to be written before new ones are dropped. */
+    private int queueCapacity = 8192;
+
+    /** Fraction of events to log for categories without their own sample rate. */
+    private double defaultSampleRate = 1.0;
+
+    /** Fraction of events to log, keyed by category. */
+    private final Map<String, Double> sampleRates = new LinkedHashMap<>();
+
+    public int getQueueCapacity() {
+      return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+      this.queueCapacity = queueCapacity;
+    }
+
+    public double getDefaultSampleRate() {
+      return defaultSampleRate;
+    }
+
+    public void setDefaultSampleRate(double defaultSampleRate) {
+      this.defaultSampleRate = defaultSampleRate;
+    }
+
+    public Map<String, Double> getSampleRates() {
+      return sampleRates;
+    }
+  }
+}
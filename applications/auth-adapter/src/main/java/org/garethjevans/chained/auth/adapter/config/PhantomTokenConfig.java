@@ -0,0 +1,56 @@
+package org.garethjevans.chained.auth.adapter.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configures phantom-token mode. When enabled, clients receive short opaque reference tokens
+ * instead of proxy JWTs carrying the upstream GitHub token. The gateway swaps a reference token for
+ * the upstream token by introspecting it at {@code /oauth2/introspect}, authenticating as the
+ * gateway client registered here; other clients can introspect tokens but are never shown the
+ * upstream token. Revoking a reference token at {@code /oauth2/revoke} stops the gateway from
+ * accepting it once its cached introspection result expires.
+ */
+@Configuration
+@EnableConfigurationProperties(PhantomTokenConfig.PhantomTokenProperties.class)
+public class PhantomTokenConfig {
+
+  /** Settings for phantom-token mode, bound from the {@code auth-adapter.phantom-token} prefix. */
+  @ConfigurationProperties(prefix = "auth-adapter.phantom-token")
+  public static class PhantomTokenProperties {
+
+    /** Whether to issue reference tokens instead of self-contained proxy JWTs. */
+    private boolean enabled = false;
+
+    /** Client id the gateway authenticates with when introspecting reference tokens. */
+    private String gatewayClientId = "gateway";
+
+    /** Client secret of the gateway client, with its password encoder prefix. */
+    private String gatewayClientSecret = "{noop}gateway-secret";
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public String getGatewayClientId() {
+      return gatewayClientId;
+    }
+
+    public void setGatewayClientId(String gatewayClientId) {
+      this.gatewayClientId = gatewayClientId;
+    }
+
+    public String getGatewayClientSecret() {
+      return gatewayClientSecret;
+    }
+
+    public void setGatewayClientSecret(String gatewayClientSecret) {
+      this.gatewayClientSecret = gatewayClientSecret;
+    }
+  }
+}
@@ -1,27 +1,71 @@
 package org.garethjevans.chained.auth.adapter.config;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.garethjevans.chained.auth.adapter.keys.KeyRingJwtEncoder;
+import org.garethjevans.chained.auth.adapter.keys.SigningAlgorithm;
+import org.garethjevans.chained.auth.adapter.keys.SigningKeyRing;
+import org.garethjevans.chained.auth.logging.EventLogger;
+import org.jspecify.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenType;
 import org.springframework.security.oauth2.server.authorization.token.JwtEncodingContext;
+import org.springframework.security.oauth2.server.authorization.token.OAuth2TokenContext;
 import org.springframework.security.oauth2.server.authorization.token.OAuth2TokenCustomizer;
 import org.springframework.stereotype.Component;
 
 @Component
 public class PocAuthTokenCustomizer implements OAuth2TokenCustomizer<JwtEncodingContext> {
 
-  private static final Logger LOGGER = LoggerFactory.getLogger(PocAuthTokenCustomizer.class);
+  private final EventLogger eventLogger;
+  private final @Nullable SigningAlgorithm accessTokenAlgorithm;
+
+  public PocAuthTokenCustomizer(EventLogger eventLogger) {
+    this.eventLogger = eventLogger;
+    this.accessTokenAlgorithm = null;
+  }
+
+  /**
+   * Creates a customizer that also signs access tokens with the default algorithm of the key ring,
+   * rather than the RS256 the authorization server asks for.
+   */
+  @Autowired
+  public PocAuthTokenCustomizer(EventLogger eventLogger, SigningKeyRing signingKeyRing) {
+    this.eventLogger = eventLogger;
+    this.accessTokenAlgorithm = signingKeyRing.defaultAlgorithm();
+  }
 
   @Override
   public void customize(JwtEncodingContext context) {
+    if (accessTokenAlgorithm != null
+        && OAuth2TokenType.ACCESS_TOKEN.equals(context.getTokenType())) {
+      context.getJwsHeader().algorithm(KeyRingJwtEncoder.jwsAlgorithm(accessTokenAlgorithm));
+    }
+    context
+        .getClaims()
+        .claim(
+            PocOAuth2AuthorizationCodeRequestAuthenticationProvider.ACCESS_TOKEN_KEY,
+            upstreamAccessToken(context, eventLogger));
+  }
+
+  /**
+   * Returns the upstream GitHub token stored with the authorization the token is issued for, and
+   * records the issue in the audit log.
+   */
+  static @Nullable String upstreamAccessToken(OAuth2TokenContext context, EventLogger eventLogger) {
     // load the token from the db
     String accessToken =
         context
             .getAuthorization()
             .getAttribute(PocOAuth2AuthorizationCodeRequestAuthenticationProvider.ACCESS_TOKEN_KEY);
-    LOGGER.debug("Loaded raw access token from attributes: {}", accessToken);
-    context
-        .getClaims()
-        .claim(
-            PocOAuth2AuthorizationCodeRequestAuthenticationProvider.ACCESS_TOKEN_KEY, accessToken);
+    eventLogger.log(
+        PocOAuth2AuthorizationCodeRequestAuthenticationProvider.AUDIT,
+        "event",
+        "token.issued",
+        "principal",
+        context.getPrincipal().getName(),
+        "token_type",
+        context.getTokenType().getValue(),
+        "access_token",
+        accessToken);
+    return accessToken;
   }
 }
@@ -1,12 +1,13 @@
 package org.garethjevans.chained.auth.adapter.config;
 
 import java.time.Instant;
+import org.garethjevans.chained.auth.adapter.authorization.UpdatableOAuth2AuthorizationService;
+import org.garethjevans.chained.auth.logging.EventLogger;
 import org.jspecify.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.config.ObjectPostProcessor;
-import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -15,8 +16,6 @@ import org.springframework.security.oauth2.client.OAuth2AuthorizedClientManager;
 import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
 import org.springframework.security.oauth2.core.OAuth2AccessToken;
 import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
-import org.springframework.security.oauth2.server.authorization.OAuth2Authorization;
-import org.springframework.security.oauth2.server.authorization.OAuth2AuthorizationService;
 import org.springframework.security.oauth2.server.authorization.OAuth2TokenType;
 import org.springframework.security.oauth2.server.authorization.authentication.OAuth2AuthorizationCodeRequestAuthenticationProvider;
 import org.springframework.security.oauth2.server.authorization.authentication.OAuth2AuthorizationCodeRequestAuthenticationToken;
@@ -27,19 +26,23 @@ public class PocOAuth2AuthorizationCodeRequestAuthenticationProvider
 
   public static final String ACCESS_TOKEN_KEY = "access_token";
 
+  static final String AUDIT = "audit";
+
   private static final Logger LOGGER =
       LoggerFactory.getLogger(PocOAuth2AuthorizationCodeRequestAuthenticationProvider.class);
 
   private final OAuth2AuthorizationCodeRequestAuthenticationProvider delegate;
-  private final OAuth2AuthorizationService authorizationService;
+  private final UpdatableOAuth2AuthorizationService authorizationService;
   private final OAuth2AuthorizedClientManager authorizedClientManager;
   private final OAuth2AuthorizedClientService authorizedClientService;
+  private final EventLogger eventLogger;
 
   public PocOAuth2AuthorizationCodeRequestAuthenticationProvider(
       OAuth2AuthorizationCodeRequestAuthenticationProvider delegate,
-      OAuth2AuthorizationService authorizationService,
+      UpdatableOAuth2AuthorizationService authorizationService,
       OAuth2AuthorizedClientManager authorizedClientManager,
-      OAuth2AuthorizedClientService authorizedClientService) {
+      OAuth2AuthorizedClientService authorizedClientService,
+      EventLogger eventLogger) {
     Assert.notNull(delegate, "delegate must not be null");
     Assert.notNull(authorizationService, "authorizationService must not be null");
     Assert.notNull(authorizedClientManager, "authorizedClientManager must not be null");
@@ -47,6 +50,7 @@ public class PocOAuth2AuthorizationCodeRequestAuthenticationProvider
     this.authorizationService = authorizationService;
     this.authorizedClientManager = authorizedClientManager;
     this.authorizedClientService = authorizedClientService;
+    this.eventLogger = eventLogger;
   }
 
   @Override
@@ -57,61 +61,67 @@ public class PocOAuth2AuthorizationCodeRequestAuthenticationProvider
     OAuth2AuthorizationCodeRequestAuthenticationToken updated =
         (OAuth2AuthorizationCodeRequestAuthenticationToken) delegate.authenticate(authentication);
 
-    // update in db
-    var tokenFromDb =
-        authorizationService.findByToken(
-            updated.getAuthorizationCode().getTokenValue(),
-            new OAuth2TokenType(OAuth2ParameterNames.CODE));
-    LOGGER.debug("Found OAuth2AuthorizationCodeRequestAuthenticationToken {}", tokenFromDb);
-
     OAuth2AuthorizeRequest authorizeRequest =
         OAuth2AuthorizeRequest.withClientRegistrationId("github")
             .principal(SecurityContextHolder.getContext().getAuthentication())
             .build();
 
+    String principal = SecurityContextHolder.getContext().getAuthentication().getName();
     OAuth2AccessToken accessToken =
         this.authorizedClientManager.authorize(authorizeRequest).getAccessToken();
-    LOGGER.info(
-        "Found OAuth2AccessToken issuedAt={}, expiresAt={}, tokenValue={}",
-        accessToken.getIssuedAt(),
-        accessToken.getExpiresAt(),
-        accessToken.getTokenValue());
+    auditUpstreamToken("upstream.authorized", principal, accessToken);
 
-    // check if this access token should be expired
-    if (accessToken.getIssuedAt().isBefore(Instant.now().minusSeconds(120))) {
-      LOGGER.info("XXXXXX Expiring Access Token");
-      authorizedClientService.removeAuthorizedClient(
-          "github", SecurityContextHolder.getContext().getAuthentication().getName());
+    // Tokens are refreshed in the background before they expire. One that has expired anyway,
+    // because it could not be refreshed, is only replaced by logging in to GitHub again
+    Instant expiresAt = accessToken.getExpiresAt();
+    if (expiresAt != null && !expiresAt.isAfter(Instant.now())) {
+      eventLogger.log(AUDIT, "event", "upstream.expired", "principal", principal);
+      authorizedClientService.removeAuthorizedClient("github", principal);
 
       accessToken = this.authorizedClientManager.authorize(authorizeRequest).getAccessToken();
-      LOGGER.info(
-          "Found NEW OAuth2AccessToken issuedAt={}, expiresAt={}, tokenValue={}",
-          accessToken.getIssuedAt(),
-          accessToken.getExpiresAt(),
-          accessToken.getTokenValue());
+      auditUpstreamToken("upstream.reauthorized", principal, accessToken);
     }
 
     String accessTokenValue = accessToken.getTokenValue();
 
-    var tokenToSave =
-        OAuth2Authorization.from(tokenFromDb)
-            .attributes(attr -> attr.put(ACCESS_TOKEN_KEY, accessTokenValue))
-            .build();
-
-    authorizationService.save(tokenToSave);
+    // Attach the upstream token to the authorization holding the new code, in one step
+    var saved =
+        authorizationService.updateAttributes(
+            updated.getAuthorizationCode().getTokenValue(),
+            new OAuth2TokenType(OAuth2ParameterNames.CODE),
+            attr -> attr.put(ACCESS_TOKEN_KEY, accessTokenValue));
+    Assert.state(saved != null, "No authorization found for the issued code");
+    LOGGER.debug("Attached upstream token to authorization {}", saved.getId());
 
     return updated;
   }
 
+  private void auditUpstreamToken(String event, String principal, OAuth2AccessToken accessToken) {
+    // The token value is redacted to a fingerprint by the event logger
+    eventLogger.log(
+        AUDIT,
+        "event",
+        event,
+        "principal",
+        principal,
+        "issued_at",
+        accessToken.getIssuedAt(),
+        "expires_at",
+        accessToken.getExpiresAt(),
+        "access_token",
+        accessToken.getTokenValue());
+  }
+
   @Override
   public boolean supports(Class<?> authentication) {
     return delegate.supports(authentication);
   }
 
   public static ObjectPostProcessor<AuthenticationProvider> postProcessor(
-      HttpSecurity http,
+      UpdatableOAuth2AuthorizationService authorizationService,
       OAuth2AuthorizedClientManager authorizedClientManager,
-      OAuth2AuthorizedClientService authorizedClientService) {
+      OAuth2AuthorizedClientService authorizedClientService,
+      EventLogger eventLogger) {
     return new ObjectPostProcessor<>() {
 
       @Override
@@ -123,9 +133,10 @@ public class PocOAuth2AuthorizationCodeRequestAuthenticationProvider
           return (O)
               new PocOAuth2AuthorizationCodeRequestAuthenticationProvider(
                   authenticationProvider,
-                  http.getSharedObject(OAuth2AuthorizationService.class),
+                  authorizationService,
                   authorizedClientManager,
-                  authorizedClientService);
+                  authorizedClientService,
+                  eventLogger);
         }
         return object;
       }
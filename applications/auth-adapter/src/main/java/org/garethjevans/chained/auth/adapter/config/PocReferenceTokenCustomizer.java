@@ -0,0 +1,34 @@
+package org.garethjevans.chained.auth.adapter.config;
+
+import org.garethjevans.chained.auth.logging.EventLogger;
+import org.springframework.security.oauth2.server.authorization.token.OAuth2TokenClaimsContext;
+import org.springframework.security.oauth2.server.authorization.token.OAuth2TokenCustomizer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counterpart of {@link PocAuthTokenCustomizer} for reference (opaque) access tokens. The upstream
+ * GitHub token is added to the claims stored with the authorization rather than to the token
+ * itself, so it never leaves the auth-adapter except through token introspection.
+ */
+@Component
+public class PocReferenceTokenCustomizer
+    implements OAuth2TokenCustomizer<OAuth2TokenClaimsContext> {
+
+  private final EventLogger eventLogger;
+
+  public PocReferenceTokenCustomizer(EventLogger eventLogger) {
+    this.eventLogger = eventLogger;
+  }
+
+  @Override
+  public void customize(OAuth2TokenClaimsContext context) {
+    String accessToken = PocAuthTokenCustomizer.upstreamAccessToken(context, eventLogger);
+    if (accessToken != null) {
+      context
+          .getClaims()
+          .claim(
+              PocOAuth2AuthorizationCodeRequestAuthenticationProvider.ACCESS_TOKEN_KEY,
+              accessToken);
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package org.garethjevans.chained.auth.adapter.config;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.garethjevans.chained.auth.adapter.keys.KeyRingJwtDecoder;
+import org.garethjevans.chained.auth.adapter.keys.KeyRingJwtEncoder;
+import org.garethjevans.chained.auth.adapter.keys.SigningAlgorithm;
+import org.garethjevans.chained.auth.adapter.keys.SigningKeyRing;
+import org.garethjevans.chained.auth.jose.CachingJwtDecoder;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+
+/**
+ * Configures the keys the authorization server signs tokens with. They are kept on local disk, so
+ * tokens stay valid across a restart and relying parties do not have to refetch the JWK Set, and
+ * rotated on a schedule.
+ */
+@Configuration
+@EnableConfigurationProperties(SigningKeyConfig.SigningKeyProperties.class)
+public class SigningKeyConfig {
+
+  /**
+   * The signing keys, also published by the JWK Set endpoint.
+   *
+   * @param properties the signing key settings
+   * @return the key ring
+   */
+  @Bean
+  public SigningKeyRing signingKeyRing(SigningKeyProperties properties) {
+    return new SigningKeyRing(
+        properties.getPath(),
+        properties.getAlgorithms(),
+        properties.getRotationInterval(),
+        properties.getPublishAhead(),
+        properties.getRetention());
+  }
+
+  @Bean
+  public KeyRingJwtEncoder jwtEncoder(SigningKeyRing signingKeyRing) {
+    return new KeyRingJwtEncoder(signingKeyRing);
+  }
+
+  /**
+   * Decodes bearer tokens the authorization server issued, such as those presented to the user info
+   * endpoint, with the keys in the ring rather than by fetching its own JWK Set endpoint. Decoded
+   * tokens are remembered until they expire, so the signature of one presented again is checked
+   * once.
+   *
+   * @param signingKeyRing the signing keys
+   * @param properties the signing key settings
+   * @return the decoder
+   */
+  @Bean
+  public JwtDecoder jwtDecoder(SigningKeyRing signingKeyRing, SigningKeyProperties properties) {
+    return new CachingJwtDecoder(
+        new KeyRingJwtDecoder(signingKeyRing), properties.getVerifiedTokenCacheSize());
+  }
+
+  /** Settings for the signing keys, bound from the {@code auth-adapter.signing-keys} prefix. */
+  @ConfigurationProperties(prefix = "auth-adapter.signing-keys")
+  public static class SigningKeyProperties {
+
+    /** The JWK Set file holding the keys, created with its directory if it does not exist. */
+    private Path path = Path.of("data", "signing-keys.json");
+
+    /**
+     * The algorithms to keep an active key for. Access tokens are signed with the first; ID tokens
+     * with the one the client asks for, RS256 by default.
+     */
+    private List<SigningAlgorithm> algorithms =
+        new ArrayList<>(List.of(SigningAlgorithm.ES256, SigningAlgorithm.RS256));
+
+    /** How long a key signs before it is replaced. */
+    private Duration rotationInterval = Duration.ofDays(30);
+
+    /** How long before it signs a new key is published, so verifiers caching the keys learn it. */
+    private Duration publishAhead = Duration.ofHours(1);
+
+    /** How long a replaced key is still published, so the tokens it signed can be verified. */
+    private Duration retention = Duration.ofDays(1);
+
+    /** Most decoded tokens to remember, so their signatures are not checked again. */
+    private long verifiedTokenCacheSize = 10_000;
+
+    public Path getPath() {
+      return path;
+    }
+
+    public void setPath(Path path) {
+      this.path = path;
+    }
+
+    public List<SigningAlgorithm> getAlgorithms() {
+      return algorithms;
+    }
+
+    public void setAlgorithms(List<SigningAlgorithm> algorithms) {
+      this.algorithms = algorithms;
+    }
+
+    public Duration getRotationInterval() {
+      return rotationInterval;
+    }
+
+    public void setRotationInterval(Duration rotationInterval) {
+      this.rotationInterval = rotationInterval;
+    }
+
+    public Duration getPublishAhead() {
+      return publishAhead;
+    }
+
+    public void setPublishAhead(Duration publishAhead) {
+      this.publishAhead = publishAhead;
+    }
+
+    public Duration getRetention() {
+      return retention;
+    }
+
+    public void setRetention(Duration retention) {
+      this.retention = retention;
+    }
+
+    public long getVerifiedTokenCacheSize() {
+      return verifiedTokenCacheSize;
+    }
+
+    public void setVerifiedTokenCacheSize(long verifiedTokenCacheSize) {
+      this.verifiedTokenCacheSize = verifiedTokenCacheSize;
+    }
+  }
+}
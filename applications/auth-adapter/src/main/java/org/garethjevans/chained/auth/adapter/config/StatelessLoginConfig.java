@@ -0,0 +1,162 @@
+package org.garethjevans.chained.auth.adapter.config;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.garethjevans.chained.auth.adapter.session.CookieOAuth2AuthorizedClientRepository;
+import org.garethjevans.chained.auth.adapter.session.SealedCookies;
+import org.garethjevans.chained.auth.adapter.session.StatelessLogin;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.client.web.AuthenticatedPrincipalOAuth2AuthorizedClientRepository;
+import org.springframework.security.oauth2.client.web.OAuth2AuthorizedClientRepository;
+import org.springframework.util.Assert;
+
+/**
+ * Configures where logins keep their state between requests. By default that is the HTTP session,
+ * so a login has to stay on the instance that started it. In stateless mode it is kept in cookies
+ * sealed with keys every instance shares, so no session is created and instances can sit behind a
+ * load balancer without sticky sessions.
+ */
+@Configuration
+@EnableConfigurationProperties(StatelessLoginConfig.StatelessLoginProperties.class)
+public class StatelessLoginConfig {
+
+  private static final String PREFIX = "auth-adapter.stateless-login";
+
+  /**
+   * Seals the cookies a stateless login keeps its state in.
+   *
+   * @param properties the stateless login settings
+   * @return the sealed cookies
+   */
+  @Bean
+  @ConditionalOnProperty(prefix = PREFIX, name = "enabled", havingValue = "true")
+  public SealedCookies sealedCookies(StatelessLoginProperties properties) {
+    Assert.notEmpty(properties.getKeys(), PREFIX + ".keys must hold at least one key");
+    List<byte[]> keys = new ArrayList<>(properties.getKeys().size());
+    for (String key : properties.getKeys()) {
+      keys.add(Base64.getDecoder().decode(key));
+    }
+    return new SealedCookies(keys);
+  }
+
+  /**
+   * Keeps the state of logins in cookies, applied to the filter chains.
+   *
+   * @param sealedCookies seals the cookies
+   * @param properties the stateless login settings
+   * @return the stateless login
+   */
+  @Bean
+  @ConditionalOnProperty(prefix = PREFIX, name = "enabled", havingValue = "true")
+  public StatelessLogin statelessLogin(
+      SealedCookies sealedCookies, StatelessLoginProperties properties) {
+    return new StatelessLogin(
+        sealedCookies, properties.getLoginTimeout(), properties.getSessionTimeout());
+  }
+
+  /**
+   * Keeps the authorized clients of logged in users in the authorized client service, and in
+   * stateless mode also those of the carried registrations in cookies.
+   *
+   * @param authorizedClientService the service storing authorized clients
+   * @param clientRegistrationRepository the client registrations
+   * @param sealedCookies seals the cookies, in stateless mode
+   * @param properties the stateless login settings
+   * @return the authorized client repository used by the OAuth2 client
+   */
+  @Bean
+  public OAuth2AuthorizedClientRepository authorizedClientRepository(
+      OAuth2AuthorizedClientService authorizedClientService,
+      ClientRegistrationRepository clientRegistrationRepository,
+      ObjectProvider<SealedCookies> sealedCookies,
+      StatelessLoginProperties properties) {
+    SealedCookies cookies = sealedCookies.getIfAvailable();
+    if (cookies == null) {
+      return new AuthenticatedPrincipalOAuth2AuthorizedClientRepository(authorizedClientService);
+    }
+    return new CookieOAuth2AuthorizedClientRepository(
+        authorizedClientService,
+        clientRegistrationRepository,
+        cookies,
+        properties.getAuthorizedClients(),
+        properties.getLoginTimeout());
+  }
+
+  /** Settings for stateless login, bound from the {@code auth-adapter.stateless-login} prefix. */
+  @ConfigurationProperties(prefix = PREFIX)
+  public static class StatelessLoginProperties {
+
+    /** Whether to keep the state of logins in sealed cookies rather than the HTTP session. */
+    private boolean enabled = false;
+
+    /**
+     * Base64 encoded 256-bit AES keys that seal the cookies, the same on every instance. Cookies
+     * are sealed with the first and opened with any, so keys can be rotated without logging users
+     * out.
+     */
+    private List<String> keys = new ArrayList<>();
+
+    /** How long a login may take, after which the requests saved for it are forgotten. */
+    private Duration loginTimeout = Duration.ofMinutes(10);
+
+    /** How long a user stays logged in to the auth-adapter, however active. */
+    private Duration sessionTimeout = Duration.ofMinutes(30);
+
+    /**
+     * Registrations whose authorized clients are also kept in a cookie during the login, so the
+     * instance the authorization request is replayed on has the upstream token another obtained.
+     */
+    private Set<String> authorizedClients = new LinkedHashSet<>(Set.of("github"));
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public List<String> getKeys() {
+      return keys;
+    }
+
+    public void setKeys(List<String> keys) {
+      this.keys = keys;
+    }
+
+    public Duration getLoginTimeout() {
+      return loginTimeout;
+    }
+
+    public void setLoginTimeout(Duration loginTimeout) {
+      this.loginTimeout = loginTimeout;
+    }
+
+    public Duration getSessionTimeout() {
+      return sessionTimeout;
+    }
+
+    public void setSessionTimeout(Duration sessionTimeout) {
+      this.sessionTimeout = sessionTimeout;
+    }
+
+    public Set<String> getAuthorizedClients() {
+      return authorizedClients;
+    }
+
+    public void setAuthorizedClients(Set<String> authorizedClients) {
+      this.authorizedClients = authorizedClients;
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package org.garethjevans.chained.auth.adapter.config;
+
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.garethjevans.chained.auth.adapter.client.RefreshingOAuth2AuthorizedClientService;
+import org.garethjevans.chained.auth.adapter.client.UpstreamTokenEndpointLimiter;
+import org.garethjevans.chained.auth.logging.EventLogger;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.client.InMemoryOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.endpoint.RestClientRefreshTokenTokenResponseClient;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+
+/**
+ * Configures the background refresh of upstream tokens. Clients authorized at GitHub are refreshed
+ * shortly before their access token expires, so the authorization endpoint only ever reads a token
+ * that is already stored.
+ */
+@Configuration
+@EnableConfigurationProperties(UpstreamRefreshConfig.UpstreamRefreshProperties.class)
+public class UpstreamRefreshConfig {
+
+  /**
+   * Stores authorized clients in memory and schedules the refresh of those it is configured for.
+   * Declared as the concrete type so it is also picked up as a lifecycle and a meter binder.
+   *
+   * @param clientRegistrationRepository the registrations of the clients
+   * @param eventLogger the log that refreshed tokens are audited to
+   * @param tokenEndpointLimiter the limit on concurrent requests to the token endpoint
+   * @param properties the upstream refresh settings
+   * @return the authorized client service used by the OAuth2 client
+   */
+  @Bean
+  public RefreshingOAuth2AuthorizedClientService authorizedClientService(
+      ClientRegistrationRepository clientRegistrationRepository,
+      EventLogger eventLogger,
+      UpstreamTokenEndpointLimiter tokenEndpointLimiter,
+      UpstreamRefreshProperties properties) {
+    return new RefreshingOAuth2AuthorizedClientService(
+        new InMemoryOAuth2AuthorizedClientService(clientRegistrationRepository),
+        tokenEndpointLimiter.limit(new RestClientRefreshTokenTokenResponseClient()),
+        eventLogger,
+        properties.getRegistrations(),
+        properties.getRefreshAhead(),
+        properties.getJitter(),
+        properties.getRetryInterval(),
+        properties.getWorkers());
+  }
+
+  /**
+   * Settings for the upstream refresh, bound from the {@code auth-adapter.upstream-refresh} prefix.
+   */
+  @ConfigurationProperties(prefix = "auth-adapter.upstream-refresh")
+  public static class UpstreamRefreshProperties {
+
+    /** Registrations whose clients are refreshed in the background. */
+    private Set<String> registrations = new LinkedHashSet<>(Set.of("github"));
+
+    /** How long before its access token expires a client is refreshed. */
+    private Duration refreshAhead = Duration.ofMinutes(5);
+
+    /** The most a refresh is brought forward by, at random, to spread refreshes out. */
+    private Duration jitter = Duration.ofMinutes(1);
+
+    /** How long to wait before retrying a refresh that failed. */
+    private Duration retryInterval = Duration.ofSeconds(30);
+
+    /** Number of threads that refresh clients. */
+    private int workers = 2;
+
+    public Set<String> getRegistrations() {
+      return registrations;
+    }
+
+    public void setRegistrations(Set<String> registrations) {
+      this.registrations = registrations;
+    }
+
+    public Duration getRefreshAhead() {
+      return refreshAhead;
+    }
+
+    public void setRefreshAhead(Duration refreshAhead) {
+      this.refreshAhead = refreshAhead;
+    }
+
+    public Duration getJitter() {
+      return jitter;
+    }
+
+    public void setJitter(Duration jitter) {
+      this.jitter = jitter;
+    }
+
+    public Duration getRetryInterval() {
+      return retryInterval;
+    }
+
+    public void setRetryInterval(Duration retryInterval) {
+      this.retryInterval = retryInterval;
+    }
+
+    public int getWorkers() {
+      return workers;
+    }
+
+    public void setWorkers(int workers) {
+      this.workers = workers;
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package org.garethjevans.chained.auth.adapter.config;
+
+import java.time.Duration;
+import org.garethjevans.chained.auth.adapter.client.UpstreamTokenEndpointLimiter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configures how hard the auth-adapter may call GitHub's token endpoint. Exchanging authorization
+ * codes and refreshing tokens share one concurrency limit, so a burst of logins is queued rather
+ * than answered by GitHub's secondary rate limit.
+ */
+@Configuration
+@EnableConfigurationProperties(UpstreamTokenEndpointConfig.UpstreamTokenEndpointProperties.class)
+public class UpstreamTokenEndpointConfig {
+
+  @Bean
+  public UpstreamTokenEndpointLimiter upstreamTokenEndpointLimiter(
+      UpstreamTokenEndpointProperties properties) {
+    return new UpstreamTokenEndpointLimiter(
+        properties.getMaxConcurrent(), properties.getMaxQueued(), properties.getQueueTimeout());
+  }
+
+  /**
+   * Settings for calls to the upstream token endpoint, bound from the {@code
+   * auth-adapter.upstream-token-endpoint} prefix.
+   */
+  @ConfigurationProperties(prefix = "auth-adapter.upstream-token-endpoint")
+  public static class UpstreamTokenEndpointProperties {
+
+    /** Most requests made to the token endpoint at once. */
+    private int maxConcurrent = 4;
+
+    /** Most requests waiting for the token endpoint before new ones fail straight away. */
+    private int maxQueued = 100;
+
+    /** How long a request waits for the token endpoint before it fails. */
+    private Duration queueTimeout = Duration.ofSeconds(10);
+
+    public int getMaxConcurrent() {
+      return maxConcurrent;
+    }
+
+    public void setMaxConcurrent(int maxConcurrent) {
+      this.maxConcurrent = maxConcurrent;
+    }
+
+    public int getMaxQueued() {
+      return maxQueued;
+    }
+
+    public void setMaxQueued(int maxQueued) {
+      this.maxQueued = maxQueued;
+    }
+
+    public Duration getQueueTimeout() {
+      return queueTimeout;
+    }
+
+    public void setQueueTimeout(Duration queueTimeout) {
+      this.queueTimeout = queueTimeout;
+    }
+  }
+}
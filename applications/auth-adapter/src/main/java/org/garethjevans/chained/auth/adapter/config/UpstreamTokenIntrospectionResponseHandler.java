@@ -0,0 +1,58 @@
+package org.garethjevans.chained.auth.adapter.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Set;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenIntrospection;
+import org.springframework.security.oauth2.server.authorization.authentication.OAuth2ClientAuthenticationToken;
+import org.springframework.security.oauth2.server.authorization.authentication.OAuth2TokenIntrospectionAuthenticationToken;
+import org.springframework.security.oauth2.server.authorization.http.converter.OAuth2TokenIntrospectionHttpMessageConverter;
+import org.springframework.security.web.authentication.AuthenticationSuccessHandler;
+
+/**
+ * Writes token introspection responses, only including the upstream GitHub token for the clients
+ * that are allowed to swap reference tokens for it. Any other client, including the one the token
+ * was issued to, sees the remaining claims only.
+ */
+public class UpstreamTokenIntrospectionResponseHandler implements AuthenticationSuccessHandler {
+
+  private final HttpMessageConverter<OAuth2TokenIntrospection> converter =
+      new OAuth2TokenIntrospectionHttpMessageConverter();
+  private final Set<String> trustedClientIds;
+
+  public UpstreamTokenIntrospectionResponseHandler(Set<String> trustedClientIds) {
+    this.trustedClientIds = Set.copyOf(trustedClientIds);
+  }
+
+  @Override
+  public void onAuthenticationSuccess(
+      HttpServletRequest request, HttpServletResponse response, Authentication authentication)
+      throws IOException {
+    OAuth2TokenIntrospectionAuthenticationToken introspection =
+        (OAuth2TokenIntrospectionAuthenticationToken) authentication;
+    OAuth2TokenIntrospection tokenClaims = introspection.getTokenClaims();
+    if (tokenClaims
+            .getClaims()
+            .containsKey(PocOAuth2AuthorizationCodeRequestAuthenticationProvider.ACCESS_TOKEN_KEY)
+        && !isTrusted(introspection)) {
+      tokenClaims =
+          OAuth2TokenIntrospection.withClaims(tokenClaims.getClaims())
+              .claims(
+                  claims ->
+                      claims.remove(
+                          PocOAuth2AuthorizationCodeRequestAuthenticationProvider.ACCESS_TOKEN_KEY))
+              .build();
+    }
+    converter.write(tokenClaims, null, new ServletServerHttpResponse(response));
+  }
+
+  private boolean isTrusted(OAuth2TokenIntrospectionAuthenticationToken introspection) {
+    return introspection.getPrincipal() instanceof OAuth2ClientAuthenticationToken client
+        && client.getRegisteredClient() != null
+        && trustedClientIds.contains(client.getRegisteredClient().getClientId());
+  }
+}
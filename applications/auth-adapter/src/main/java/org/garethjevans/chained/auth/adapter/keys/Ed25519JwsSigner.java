@@ -0,0 +1,53 @@
+package org.garethjevans.chained.auth.adapter.keys;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.jca.JCAContext;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.util.Base64URL;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Set;
+import org.garethjevans.chained.auth.jose.Ed25519Keys;
+
+/**
+ * Signs with an Ed25519 key using the JDK's EdDSA implementation. The Nimbus {@code Ed25519Signer}
+ * needs Google Tink, which the auth-adapter does not ship.
+ */
+final class Ed25519JwsSigner implements JWSSigner {
+
+  private final PrivateKey privateKey;
+  private final JCAContext jcaContext = new JCAContext();
+
+  Ed25519JwsSigner(OctetKeyPair jwk) throws JOSEException {
+    this.privateKey = Ed25519Keys.privateKey(jwk);
+  }
+
+  @Override
+  public Base64URL sign(JWSHeader header, byte[] signingInput) throws JOSEException {
+    if (!JWSAlgorithm.EdDSA.equals(header.getAlgorithm())) {
+      throw new JOSEException("Unsupported JWS algorithm " + header.getAlgorithm());
+    }
+    try {
+      Signature signature = Signature.getInstance("Ed25519");
+      signature.initSign(privateKey);
+      signature.update(signingInput);
+      return Base64URL.encode(signature.sign());
+    } catch (GeneralSecurityException ex) {
+      throw new JOSEException("Ed25519 signing failed: " + ex.getMessage(), ex);
+    }
+  }
+
+  @Override
+  public Set<JWSAlgorithm> supportedJWSAlgorithms() {
+    return Set.of(JWSAlgorithm.EdDSA);
+  }
+
+  @Override
+  public JCAContext getJCAContext() {
+    return jcaContext;
+  }
+}
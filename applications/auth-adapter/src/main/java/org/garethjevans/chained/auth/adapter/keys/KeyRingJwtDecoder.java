@@ -0,0 +1,123 @@
+package org.garethjevans.chained.auth.adapter.keys;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.crypto.factories.DefaultJWSVerifierFactory;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import java.security.Key;
+import java.security.interfaces.EdECPublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import org.garethjevans.chained.auth.jose.Ed25519JwsVerifier;
+import org.garethjevans.chained.auth.jose.Ed25519Keys;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.util.Assert;
+
+/**
+ * Decodes JWTs signed by the auth-adapter itself, reading the keys straight from its {@link
+ * SigningKeyRing} rather than fetching its own JWK Set endpoint over HTTP. Every algorithm the ring
+ * signs with is accepted, including EdDSA, which the Nimbus verifiers cannot check without Google
+ * Tink.
+ *
+ * <p>Every token is parsed and its signature checked; wrap the decoder in a {@link
+ * org.garethjevans.chained.auth.jose.CachingJwtDecoder} to check a token presented again once.
+ */
+public class KeyRingJwtDecoder implements JwtDecoder {
+
+  private final JwtDecoder delegate;
+
+  /**
+   * Creates a decoder.
+   *
+   * @param keyRing the keys the tokens are signed with
+   */
+  public KeyRingJwtDecoder(SigningKeyRing keyRing) {
+    this.delegate = processor(keyRing);
+  }
+
+  @Override
+  public Jwt decode(String token) throws JwtException {
+    return delegate.decode(token);
+  }
+
+  private static NimbusJwtDecoder processor(SigningKeyRing keyRing) {
+    Assert.notNull(keyRing, "keyRing must not be null");
+    DefaultJWTProcessor<SecurityContext> processor = new DefaultJWTProcessor<>();
+    processor.setJWSKeySelector((header, context) -> keys(keyRing, header));
+    processor.setJWSVerifierFactory(new Ed25519JwsVerifierFactory());
+    // Claims are validated by NimbusJwtDecoder
+    processor.setJWTClaimsSetVerifier((claims, context) -> {});
+    return new NimbusJwtDecoder(processor);
+  }
+
+  // Returns the public key of the ring's key with the token's kid, if it is of the token's
+  // algorithm
+  private static List<Key> keys(SigningKeyRing keyRing, JWSHeader header)
+      throws KeySourceException {
+    SigningAlgorithm algorithm = SigningAlgorithm.of(header.getAlgorithm());
+    if (algorithm == null || header.getKeyID() == null) {
+      return List.of();
+    }
+    List<Key> keys = new ArrayList<>();
+    JWKSelector selector =
+        new JWKSelector(new JWKMatcher.Builder().keyID(header.getKeyID()).build());
+    for (JWK jwk : keyRing.get(selector, null)) {
+      if (jwk.getAlgorithm() != null && !algorithm.jwsAlgorithm().equals(jwk.getAlgorithm())) {
+        continue;
+      }
+      try {
+        addPublicKey(keys, algorithm, jwk);
+      } catch (JOSEException ex) {
+        throw new KeySourceException("Unusable key " + jwk.getKeyID(), ex);
+      }
+    }
+    return keys;
+  }
+
+  private static void addPublicKey(List<Key> keys, SigningAlgorithm algorithm, JWK jwk)
+      throws JOSEException {
+    switch (algorithm) {
+      case RS256 -> {
+        if (jwk instanceof RSAKey rsaKey) {
+          keys.add(rsaKey.toRSAPublicKey());
+        }
+      }
+      case ES256 -> {
+        if (jwk instanceof ECKey ecKey) {
+          keys.add(ecKey.toECPublicKey());
+        }
+      }
+      case ED25519 -> {
+        if (jwk instanceof OctetKeyPair okp) {
+          keys.add(Ed25519Keys.publicKey(okp));
+        }
+      }
+    }
+  }
+
+  /** Creates the Nimbus verifiers, and {@link Ed25519JwsVerifier}s for EdDSA. */
+  private static final class Ed25519JwsVerifierFactory extends DefaultJWSVerifierFactory {
+
+    @Override
+    public JWSVerifier createJWSVerifier(JWSHeader header, Key key) throws JOSEException {
+      if (JWSAlgorithm.EdDSA.equals(header.getAlgorithm())
+          && key instanceof EdECPublicKey publicKey) {
+        return new Ed25519JwsVerifier(publicKey);
+      }
+      return super.createJWSVerifier(header, key);
+    }
+  }
+}
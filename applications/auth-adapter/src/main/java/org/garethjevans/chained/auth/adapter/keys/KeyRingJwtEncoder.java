@@ -0,0 +1,124 @@
+package org.garethjevans.chained.auth.adapter.keys;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jwt.JWTClaimNames;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import java.net.URL;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import org.jspecify.annotations.Nullable;
+import org.springframework.security.oauth2.jose.jws.JwsAlgorithm;
+import org.springframework.security.oauth2.jwt.JwsHeader;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.jwt.JwtEncoder;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+import org.springframework.security.oauth2.jwt.JwtEncodingException;
+import org.springframework.util.Assert;
+
+/**
+ * Signs JWTs with the active key of a {@link SigningKeyRing}. Unlike {@code NimbusJwtEncoder},
+ * which selects a key from the JWK source and builds a signer for it on every token, the key is
+ * picked by the algorithm in the header and its signer is reused.
+ *
+ * <p>The {@code alg} and {@code kid} of the header are set from the key. Of the other registered
+ * header parameters only {@code typ} and {@code cty} are kept.
+ */
+public class KeyRingJwtEncoder implements JwtEncoder {
+
+  private static final Set<String> DATE_CLAIMS =
+      Set.of(JWTClaimNames.ISSUED_AT, JWTClaimNames.EXPIRATION_TIME, JWTClaimNames.NOT_BEFORE);
+
+  private final SigningKeyRing keyRing;
+
+  public KeyRingJwtEncoder(SigningKeyRing keyRing) {
+    Assert.notNull(keyRing, "keyRing must not be null");
+    this.keyRing = keyRing;
+  }
+
+  @Override
+  public Jwt encode(JwtEncoderParameters parameters) throws JwtEncodingException {
+    Assert.notNull(parameters, "parameters must not be null");
+    JwsHeader jwsHeader = parameters.getJwsHeader();
+    JWSAlgorithm requested =
+        jwsHeader != null && jwsHeader.getAlgorithm() != null
+            ? JWSAlgorithm.parse(jwsHeader.getAlgorithm().getName())
+            : null;
+    SigningKeyRing.SigningKey key = keyRing.signingKey(requested);
+    JWSHeader header = header(key, jwsHeader);
+    JwtClaimsSet claims = parameters.getClaims();
+    SignedJWT jwt = new SignedJWT(header, claimsSet(claims));
+    try {
+      jwt.sign(key.signer());
+    } catch (JOSEException ex) {
+      throw new JwtEncodingException(
+          "An error occurred while attempting to encode the Jwt: " + ex.getMessage(), ex);
+    }
+    return new Jwt(
+        jwt.serialize(),
+        claims.getIssuedAt(),
+        claims.getExpiresAt(),
+        header.toJSONObject(),
+        claims.getClaims());
+  }
+
+  /**
+   * Returns the Spring Security form of a JWS algorithm, for setting it on a {@link JwsHeader}.
+   *
+   * @param algorithm the signing algorithm
+   * @return the JWS algorithm
+   */
+  public static JwsAlgorithm jwsAlgorithm(SigningAlgorithm algorithm) {
+    String name = algorithm.jwsAlgorithm().getName();
+    // SignatureAlgorithm has no EdDSA constant
+    return () -> name;
+  }
+
+  private static JWSHeader header(SigningKeyRing.SigningKey key, @Nullable JwsHeader jwsHeader) {
+    JWSHeader.Builder builder = new JWSHeader.Builder(key.algorithm()).keyID(key.keyId());
+    if (jwsHeader == null) {
+      return builder.build();
+    }
+    if (jwsHeader.getType() != null) {
+      builder.type(new JOSEObjectType(jwsHeader.getType()));
+    }
+    if (jwsHeader.getContentType() != null) {
+      builder.contentType(jwsHeader.getContentType());
+    }
+    for (Map.Entry<String, Object> parameter : jwsHeader.getHeaders().entrySet()) {
+      if (!JWSHeader.getRegisteredParameterNames().contains(parameter.getKey())) {
+        builder.customParam(parameter.getKey(), parameter.getValue());
+      }
+    }
+    return builder.build();
+  }
+
+  private static JWTClaimsSet claimsSet(JwtClaimsSet claims) {
+    JWTClaimsSet.Builder builder = new JWTClaimsSet.Builder();
+    for (Map.Entry<String, Object> claim : claims.getClaims().entrySet()) {
+      builder.claim(claim.getKey(), claimValue(claim.getKey(), claim.getValue()));
+    }
+    return builder.build();
+  }
+
+  private static Object claimValue(String name, Object value) {
+    if (value instanceof Instant instant) {
+      return DATE_CLAIMS.contains(name) ? Date.from(instant) : instant.getEpochSecond();
+    }
+    if (value instanceof URL url) {
+      return url.toExternalForm();
+    }
+    if (JWTClaimNames.AUDIENCE.equals(name) && value instanceof Collection<?> audience) {
+      return new ArrayList<>(audience.stream().map(String::valueOf).toList());
+    }
+    return value;
+  }
+}
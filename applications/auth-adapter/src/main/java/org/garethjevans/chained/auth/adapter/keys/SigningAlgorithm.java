@@ -0,0 +1,134 @@
+package org.garethjevans.chained.auth.adapter.keys;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.JWKGenerator;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.util.Base64URL;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.EdECPrivateKey;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+import org.garethjevans.chained.auth.jose.Ed25519Keys;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * The algorithms the auth-adapter signs tokens with. ES256 and Ed25519 sign far faster than RS256;
+ * RS256 is kept for clients that only accept it, as OpenID Connect clients do by default for ID
+ * tokens.
+ */
+public enum SigningAlgorithm {
+
+  /** RSASSA-PKCS1-v1_5 with SHA-256 and a 2048-bit key. */
+  RS256(JWSAlgorithm.RS256),
+
+  /** ECDSA on the P-256 curve with SHA-256. */
+  ES256(JWSAlgorithm.ES256),
+
+  /** EdDSA on the Ed25519 curve, published with the JWS algorithm name {@code EdDSA}. */
+  ED25519(JWSAlgorithm.EdDSA);
+
+  private final JWSAlgorithm jwsAlgorithm;
+
+  SigningAlgorithm(JWSAlgorithm jwsAlgorithm) {
+    this.jwsAlgorithm = jwsAlgorithm;
+  }
+
+  /**
+   * Returns the JWS algorithm tokens signed with this algorithm carry in their header.
+   *
+   * @return the JWS algorithm
+   */
+  public JWSAlgorithm jwsAlgorithm() {
+    return jwsAlgorithm;
+  }
+
+  /**
+   * Returns the signing algorithm of the given JWS algorithm.
+   *
+   * @param jwsAlgorithm the JWS algorithm
+   * @return the signing algorithm, or {@code null} if it is not supported
+   */
+  public static @Nullable SigningAlgorithm of(@Nullable JWSAlgorithm jwsAlgorithm) {
+    for (SigningAlgorithm algorithm : values()) {
+      if (algorithm.jwsAlgorithm.equals(jwsAlgorithm)) {
+        return algorithm;
+      }
+    }
+    return null;
+  }
+
+  // Generates a key pair for this algorithm, valid for signing from notBefore
+  JWK generate(Date issuedAt, Date notBefore) throws JOSEException {
+    JWKGenerator<? extends JWK> generator =
+        switch (this) {
+          case RS256 -> new RSAKeyGenerator(2048);
+          case ES256 -> new ECKeyGenerator(Curve.P_256);
+          case ED25519 -> new JdkOctetKeyPairGenerator();
+        };
+    return generator
+        .keyID(UUID.randomUUID().toString())
+        .algorithm(jwsAlgorithm)
+        .keyUse(KeyUse.SIGNATURE)
+        .issueTime(issuedAt)
+        .notBeforeTime(notBefore)
+        .generate();
+  }
+
+  // Creates a signer for a private key of this algorithm
+  JWSSigner signer(JWK jwk) throws JOSEException {
+    return switch (this) {
+      case RS256 -> new RSASSASigner((RSAKey) jwk);
+      case ES256 -> new ECDSASigner((ECKey) jwk);
+      case ED25519 -> new Ed25519JwsSigner((OctetKeyPair) jwk);
+    };
+  }
+
+  /**
+   * Generates Ed25519 key pairs with the JDK, as the Nimbus generator needs Google Tink, which the
+   * auth-adapter does not ship.
+   */
+  private static final class JdkOctetKeyPairGenerator extends JWKGenerator<OctetKeyPair> {
+
+    @Override
+    public OctetKeyPair generate() throws JOSEException {
+      KeyPair keyPair;
+      try {
+        keyPair = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+      } catch (NoSuchAlgorithmException ex) {
+        throw new JOSEException("Ed25519 is not supported by this JVM", ex);
+      }
+      byte[] encoded = keyPair.getPublic().getEncoded();
+      byte[] x =
+          Arrays.copyOfRange(encoded, encoded.length - Ed25519Keys.KEY_LENGTH, encoded.length);
+      byte[] d =
+          ((EdECPrivateKey) keyPair.getPrivate())
+              .getBytes()
+              .orElseThrow(() -> new JOSEException("Ed25519 private key is not extractable"));
+      return new OctetKeyPair.Builder(Curve.Ed25519, Base64URL.encode(x))
+          .d(Base64URL.encode(d))
+          .keyUse(use)
+          .keyOperations(ops)
+          .algorithm(alg)
+          .keyID(kid)
+          .issueTime(iat)
+          .notBeforeTime(nbf)
+          .expirationTime(exp)
+          .keyStore(keyStore)
+          .build();
+    }
+  }
+}
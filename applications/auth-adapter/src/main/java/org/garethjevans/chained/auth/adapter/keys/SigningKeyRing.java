@@ -0,0 +1,426 @@
+package org.garethjevans.chained.auth.adapter.keys;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyOperation;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.text.ParseException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.garethjevans.chained.auth.adapter.storage.SharedLock;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.util.Assert;
+
+/**
+ * The keys the auth-adapter signs tokens with, kept in a JSON Web Key Set file on local disk so
+ * tokens issued before a restart still verify after it, and published through the JWK Set endpoint.
+ *
+ * <p>Each key is either active, with {@code key_ops} of {@code sign} and {@code verify}, or
+ * verify-only. There is an active key for each configured algorithm; a token is signed with the
+ * active key for the algorithm in its header, and with the first configured algorithm when there is
+ * none. Keys can be edited in the file while the auth-adapter is stopped: a key whose {@code
+ * key_ops} leaves out {@code sign} is only published, and a key without {@code key_ops} is active.
+ *
+ * <p>Keys are rotated every {@code rotationInterval}. A successor is generated and published {@code
+ * publishAhead} before it takes over, so verifiers that cache the key set know it by the time it
+ * signs anything. The key it replaces is then kept, without its private part, for {@code retention}
+ * so the tokens it signed can still be verified, and then dropped.
+ *
+ * <p>Instances given the same file share the ring. Each rotates it holding the file's {@link
+ * SharedLock}, starting from what is in the file rather than what it last read, so only one of them
+ * generates each successor, and the others pick it up at their next check, well before it signs.
+ */
+public class SigningKeyRing implements JWKSource<SecurityContext>, SmartLifecycle {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SigningKeyRing.class);
+
+  private static final Set<KeyOperation> ACTIVE = Set.of(KeyOperation.SIGN, KeyOperation.VERIFY);
+  private static final Set<KeyOperation> VERIFY_ONLY = Set.of(KeyOperation.VERIFY);
+
+  // How often, at most, rotation is checked
+  private static final Duration MAX_CHECK_INTERVAL = Duration.ofHours(1);
+
+  private final Path path;
+  private final List<SigningAlgorithm> algorithms;
+  private final Duration rotationInterval;
+  private final Duration publishAhead;
+  private final Duration retention;
+  private final Clock clock;
+
+  private final Map<String, JWSSigner> signers = new ConcurrentHashMap<>();
+
+  private volatile List<JWK> keys;
+  private volatile @Nullable ScheduledExecutorService scheduler;
+
+  /**
+   * Loads the key ring at {@code path}, generating and saving the keys it is missing.
+   *
+   * @param path the JWK Set file, created with its directory if it does not exist
+   * @param algorithms the algorithms to keep an active key for, the first of which signs tokens
+   *     that ask for none of them
+   * @param rotationInterval how long a key signs before it is replaced
+   * @param publishAhead how long before it signs a successor key is published
+   * @param retention how long a replaced key is published after it stops signing
+   * @throws UncheckedIOException if the file cannot be read or written
+   */
+  public SigningKeyRing(
+      Path path,
+      List<SigningAlgorithm> algorithms,
+      Duration rotationInterval,
+      Duration publishAhead,
+      Duration retention) {
+    this(path, algorithms, rotationInterval, publishAhead, retention, Clock.systemUTC());
+  }
+
+  SigningKeyRing(
+      Path path,
+      List<SigningAlgorithm> algorithms,
+      Duration rotationInterval,
+      Duration publishAhead,
+      Duration retention,
+      Clock clock) {
+    Assert.notNull(path, "path must not be null");
+    Assert.notEmpty(algorithms, "algorithms must not be empty");
+    Assert.isTrue(rotationInterval.isPositive(), "rotationInterval must be positive");
+    Assert.isTrue(!publishAhead.isNegative(), "publishAhead must not be negative");
+    Assert.isTrue(
+        publishAhead.compareTo(rotationInterval) < 0,
+        "publishAhead must be shorter than rotationInterval");
+    Assert.isTrue(!retention.isNegative(), "retention must not be negative");
+    this.path = path;
+    this.algorithms = List.copyOf(new LinkedHashSet<>(algorithms));
+    this.rotationInterval = rotationInterval;
+    this.publishAhead = publishAhead;
+    this.retention = retention;
+    this.clock = clock;
+    this.keys = List.of();
+    rotate();
+  }
+
+  @Override
+  public List<JWK> get(JWKSelector jwkSelector, @Nullable SecurityContext context) {
+    return jwkSelector.select(new JWKSet(keys));
+  }
+
+  /**
+   * Returns the keys in the ring, with their private parts.
+   *
+   * @return the active and verify-only keys
+   */
+  public List<JWK> keys() {
+    return keys;
+  }
+
+  /**
+   * Returns the algorithm of tokens that do not ask for one, the first configured.
+   *
+   * @return the default signing algorithm
+   */
+  public SigningAlgorithm defaultAlgorithm() {
+    return algorithms.getFirst();
+  }
+
+  /**
+   * Returns the key to sign a token with.
+   *
+   * @param algorithm the algorithm the token asks for, or {@code null} for the default
+   * @return the active key for the algorithm if there is one, otherwise for the default algorithm
+   * @throws IllegalStateException if there is no active key for either
+   */
+  public SigningKey signingKey(@Nullable JWSAlgorithm algorithm) {
+    Instant now = clock.instant();
+    List<JWK> current = keys;
+    SigningAlgorithm requested = SigningAlgorithm.of(algorithm);
+    JWK jwk = requested != null ? signingJwk(current, requested, now) : null;
+    if (jwk == null) {
+      requested = defaultAlgorithm();
+      jwk = signingJwk(current, requested, now);
+    }
+    Assert.state(jwk != null, () -> "No active " + defaultAlgorithm() + " signing key");
+    SigningAlgorithm signingAlgorithm = requested;
+    JWK signingJwk = jwk;
+    JWSSigner signer =
+        signers.computeIfAbsent(
+            jwk.getKeyID(),
+            (kid) -> {
+              try {
+                return signingAlgorithm.signer(signingJwk);
+              } catch (JOSEException ex) {
+                throw new IllegalStateException("Unusable signing key " + kid, ex);
+              }
+            });
+    return new SigningKey(jwk.getKeyID(), signingAlgorithm.jwsAlgorithm(), signer);
+  }
+
+  /**
+   * Reads the ring from its file, generates the keys that are due, replaces superseded keys with
+   * verify-only ones, drops verify-only keys past their retention, and saves the ring if any of
+   * that changed it. The file is locked meanwhile, so instances sharing it take turns.
+   *
+   * @return whether the ring changed, here or in the file
+   * @throws UncheckedIOException if the ring cannot be read or saved
+   */
+  public synchronized boolean rotate() {
+    try (SharedLock lock = SharedLock.open(path)) {
+      lock.lock();
+      try {
+        return rotate(load(path));
+      } finally {
+        lock.unlock();
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to lock the signing key ring " + path, ex);
+    }
+  }
+
+  // Called holding the lock on the file, with the keys it holds
+  private boolean rotate(List<JWK> stored) {
+    // Key times are published in whole seconds
+    Instant now = clock.instant().truncatedTo(ChronoUnit.SECONDS);
+    List<JWK> updated = new ArrayList<>();
+    for (JWK jwk : stored) {
+      if (jwk.getExpirationTime() == null || jwk.getExpirationTime().toInstant().isAfter(now)) {
+        updated.add(jwk);
+      }
+    }
+    for (int i = 0; i < updated.size(); i++) {
+      JWK jwk = updated.get(i);
+      SigningAlgorithm algorithm = algorithmOf(jwk);
+      if (canSign(jwk) && (algorithm == null || !algorithms.contains(algorithm))) {
+        updated.set(i, retire(jwk, now));
+      }
+    }
+    for (SigningAlgorithm algorithm : algorithms) {
+      JWK signing = signingJwk(updated, algorithm, now);
+      if (signing == null) {
+        updated.add(generate(algorithm, now, now));
+        continue;
+      }
+      Instant since = activeFrom(signing);
+      for (int i = 0; i < updated.size(); i++) {
+        JWK jwk = updated.get(i);
+        if (jwk != signing
+            && canSign(jwk)
+            && algorithm == algorithmOf(jwk)
+            && activeFrom(jwk).isBefore(since)) {
+          updated.set(i, retire(jwk, now));
+        }
+      }
+      Instant successorFrom = since.plus(rotationInterval);
+      boolean successorPublished =
+          updated.stream()
+              .anyMatch(
+                  (jwk) ->
+                      canSign(jwk)
+                          && algorithm == algorithmOf(jwk)
+                          && activeFrom(jwk).isAfter(now));
+      if (!successorPublished && !now.isBefore(successorFrom.minus(publishAhead))) {
+        updated.add(generate(algorithm, now, successorFrom.isAfter(now) ? successorFrom : now));
+      }
+    }
+    if (!updated.equals(stored)) {
+      save(updated);
+    }
+    if (updated.equals(keys)) {
+      return false;
+    }
+    this.keys = List.copyOf(updated);
+    signers.keySet().retainAll(updated.stream().map(JWK::getKeyID).toList());
+    LOGGER.info(
+        "Signing key ring {} now has {} keys, signing with {}",
+        path,
+        updated.size(),
+        algorithms.stream()
+            .map((algorithm) -> signingKey(algorithm.jwsAlgorithm()).keyId())
+            .toList());
+    return true;
+  }
+
+  @Override
+  public void start() {
+    ScheduledExecutorService executor =
+        Executors.newSingleThreadScheduledExecutor(
+            (runnable) -> {
+              Thread thread = new Thread(runnable, "signing-key-rotation");
+              thread.setDaemon(true);
+              return thread;
+            });
+    long interval = checkInterval().toMillis();
+    executor.scheduleWithFixedDelay(this::rotateQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    this.scheduler = executor;
+  }
+
+  @Override
+  public void stop() {
+    ScheduledExecutorService executor = this.scheduler;
+    this.scheduler = null;
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return scheduler != null;
+  }
+
+  // Checks often enough that a successor is published well within publishAhead
+  Duration checkInterval() {
+    Duration interval = publishAhead.isZero() ? rotationInterval : publishAhead;
+    interval = interval.dividedBy(4);
+    return interval.compareTo(MAX_CHECK_INTERVAL) > 0 ? MAX_CHECK_INTERVAL : interval;
+  }
+
+  private void rotateQuietly() {
+    try {
+      rotate();
+    } catch (RuntimeException ex) {
+      // Keep the schedule going; the next check retries
+      LOGGER.warn("Failed to rotate the signing key ring {}", path, ex);
+    }
+  }
+
+  private static @Nullable JWK signingJwk(List<JWK> keys, SigningAlgorithm algorithm, Instant now) {
+    return keys.stream()
+        .filter((jwk) -> canSign(jwk) && algorithm == algorithmOf(jwk))
+        .filter((jwk) -> !activeFrom(jwk).isAfter(now))
+        .max(Comparator.comparing(SigningKeyRing::activeFrom))
+        .orElse(null);
+  }
+
+  private static boolean canSign(JWK jwk) {
+    return jwk.isPrivate()
+        && (jwk.getKeyOperations() == null || jwk.getKeyOperations().contains(KeyOperation.SIGN));
+  }
+
+  private static @Nullable SigningAlgorithm algorithmOf(JWK jwk) {
+    if (jwk.getAlgorithm() != null) {
+      return SigningAlgorithm.of(JWSAlgorithm.parse(jwk.getAlgorithm().getName()));
+    }
+    // Keys added by hand may leave out alg
+    if (jwk instanceof RSAKey) {
+      return SigningAlgorithm.RS256;
+    }
+    if (jwk instanceof ECKey ecKey && Curve.P_256.equals(ecKey.getCurve())) {
+      return SigningAlgorithm.ES256;
+    }
+    if (jwk instanceof OctetKeyPair okp && Curve.Ed25519.equals(okp.getCurve())) {
+      return SigningAlgorithm.ED25519;
+    }
+    return null;
+  }
+
+  private static Instant activeFrom(JWK jwk) {
+    Date from = jwk.getNotBeforeTime() != null ? jwk.getNotBeforeTime() : jwk.getIssueTime();
+    return from != null ? from.toInstant() : Instant.EPOCH;
+  }
+
+  private static JWK generate(SigningAlgorithm algorithm, Instant now, Instant notBefore) {
+    try {
+      JWK jwk = algorithm.generate(Date.from(now), Date.from(notBefore));
+      return rebuild(jwk, ACTIVE, null);
+    } catch (JOSEException ex) {
+      throw new IllegalStateException("Failed to generate a " + algorithm + " signing key", ex);
+    }
+  }
+
+  private JWK retire(JWK jwk, Instant now) {
+    LOGGER.info("Retiring signing key {}, published until {}", jwk.getKeyID(), now.plus(retention));
+    return rebuild(jwk.toPublicJWK(), VERIFY_ONLY, Date.from(now.plus(retention)));
+  }
+
+  private static JWK rebuild(JWK jwk, Set<KeyOperation> operations, @Nullable Date expiresAt) {
+    if (jwk instanceof RSAKey rsaKey) {
+      return new RSAKey.Builder(rsaKey).keyOperations(operations).expirationTime(expiresAt).build();
+    }
+    if (jwk instanceof ECKey ecKey) {
+      return new ECKey.Builder(ecKey).keyOperations(operations).expirationTime(expiresAt).build();
+    }
+    if (jwk instanceof OctetKeyPair okp) {
+      return new OctetKeyPair.Builder(okp)
+          .keyOperations(operations)
+          .expirationTime(expiresAt)
+          .build();
+    }
+    throw new IllegalArgumentException("Unsupported key type " + jwk.getKeyType());
+  }
+
+  private static List<JWK> load(Path path) {
+    if (!Files.exists(path)) {
+      return List.of();
+    }
+    try {
+      return List.copyOf(JWKSet.parse(Files.readString(path, StandardCharsets.UTF_8)).getKeys());
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to read the signing key ring " + path, ex);
+    } catch (ParseException ex) {
+      throw new IllegalStateException("Invalid signing key ring " + path, ex);
+    }
+  }
+
+  // Writes the ring next to the file and renames it into place, so a crash leaves the old ring
+  private void save(List<JWK> updated) {
+    String json = new JWKSet(updated).toString(false);
+    try {
+      Path directory = path.toAbsolutePath().getParent();
+      Files.createDirectories(directory);
+      Path temporary;
+      try {
+        temporary =
+            Files.createTempFile(
+                directory,
+                path.getFileName().toString(),
+                ".tmp",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+      } catch (UnsupportedOperationException ex) {
+        temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+      }
+      Files.writeString(temporary, json, StandardCharsets.UTF_8);
+      Files.move(
+          temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to save the signing key ring " + path, ex);
+    }
+  }
+
+  /**
+   * An active key, with the signer for it.
+   *
+   * @param keyId the {@code kid} of the key
+   * @param algorithm the JWS algorithm the key signs with
+   * @param signer the signer for the key
+   */
+  public record SigningKey(String keyId, JWSAlgorithm algorithm, JWSSigner signer) {}
+}
@@ -0,0 +1,52 @@
+package org.garethjevans.chained.auth.adapter.logging;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.security.Principal;
+import java.util.concurrent.TimeUnit;
+import org.garethjevans.chained.auth.logging.EventLogger;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Servlet filter that writes one {@code access} event per request to the {@link EventLogger}. The
+ * query string is left out because authorization responses carry the code and state in it.
+ */
+public class AccessLogFilter extends OncePerRequestFilter {
+
+  static final String CATEGORY = "access";
+
+  private final EventLogger eventLogger;
+
+  public AccessLogFilter(EventLogger eventLogger) {
+    this.eventLogger = eventLogger;
+  }
+
+  @Override
+  protected void doFilterInternal(
+      HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+      throws ServletException, IOException {
+    long start = System.nanoTime();
+    try {
+      filterChain.doFilter(request, response);
+    } finally {
+      Principal principal = request.getUserPrincipal();
+      eventLogger.log(
+          CATEGORY,
+          "method",
+          request.getMethod(),
+          "path",
+          request.getRequestURI(),
+          "status",
+          response.getStatus(),
+          "duration_ms",
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+          "client",
+          request.getRemoteAddr(),
+          "principal",
+          principal != null ? principal.getName() : null);
+    }
+  }
+}
@@ -0,0 +1,601 @@
+package org.garethjevans.chained.auth.adapter.registration;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.garethjevans.chained.auth.adapter.storage.SharedLock;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClientRepository;
+import org.springframework.util.Assert;
+
+/**
+ * {@link RegisteredClientRepository} for clients that register themselves, which every MCP client
+ * installation does, so there can be hundreds of thousands of them. Clients are kept in a {@link
+ * RegisteredClientLog} on local disk; in memory there is only an index of where each one is in the
+ * log, by id and by client id, and a cache of the most recently used clients. A client is looked up
+ * on every authorization and token request, and one that is not cached is read from the log and
+ * cached.
+ *
+ * <p>A client not used for {@code abandonedAfter} is removed, so registrations by installations
+ * that were thrown away do not pile up. When a client was last used is tracked to within {@link
+ * #USE_RESOLUTION}, and written to the log along with the changes flushed every {@code
+ * flushInterval}. Every {@code compactionInterval} abandoned clients are removed and, once most of
+ * the log is superseded records, it is compacted.
+ *
+ * <p>Configured clients are held in memory. They are not written to the log, never expire and
+ * cannot be replaced by a registration; saving one, as the token endpoint does when it upgrades how
+ * the client secret is encoded, only changes it until the next restart.
+ *
+ * <p>A shared repository shares its log with the other instances given the same path, so a client
+ * that registered at one can log in through any. Each change is then made holding the log's {@link
+ * SharedLock}, after applying what the other instances appended since this one last read the log;
+ * lookups apply it first too, when there is any.
+ */
+public class PersistentRegisteredClientRepository
+    implements RegisteredClientRepository, SmartLifecycle, MeterBinder, AutoCloseable {
+
+  /** How precisely when a client was last used is tracked. */
+  static final Duration USE_RESOLUTION = Duration.ofHours(1);
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(PersistentRegisteredClientRepository.class);
+
+  // Logs smaller than this are not worth compacting
+  private static final long MIN_COMPACTION_RECORDS = 10_000;
+
+  private final Path path;
+  private final @Nullable SharedLock shared;
+  private final Map<String, RegisteredClient> configuredById = new ConcurrentHashMap<>();
+  private final Map<String, RegisteredClient> configuredByClientId = new ConcurrentHashMap<>();
+  private final RegisteredClientLog log;
+  private final Map<String, Entry> byId;
+  private final Map<String, Entry> byClientId;
+  private final Cache<String, RegisteredClient> cache;
+  // Entries whose last use has not been written to the log yet
+  private final Queue<Entry> used = new ConcurrentLinkedQueue<>();
+  private final Duration abandonedAfter;
+  private final Duration flushInterval;
+  private final Duration compactionInterval;
+  private final Clock clock;
+
+  private volatile @Nullable ScheduledExecutorService scheduler;
+
+  /**
+   * Opens the log at {@code path} and restores the clients in it.
+   *
+   * @param path the log file, created if it does not exist
+   * @param configuredClients the clients to hold alongside the registered ones
+   * @param cacheSize the most registered clients to keep in memory
+   * @param abandonedAfter how long a registered client may go unused before it is removed
+   * @param flushInterval how often to force the log to disk
+   * @param compactionInterval how often to remove abandoned clients and consider compacting
+   * @throws UncheckedIOException if the log cannot be opened or read
+   */
+  public PersistentRegisteredClientRepository(
+      Path path,
+      List<RegisteredClient> configuredClients,
+      long cacheSize,
+      Duration abandonedAfter,
+      Duration flushInterval,
+      Duration compactionInterval) {
+    this(
+        path,
+        false,
+        configuredClients,
+        cacheSize,
+        abandonedAfter,
+        flushInterval,
+        compactionInterval);
+  }
+
+  /**
+   * Opens the log at {@code path}, shared with the other instances given the same path if {@code
+   * shared}, and restores the clients in it.
+   *
+   * @param path the log file, created if it does not exist
+   * @param shared whether other instances share the log
+   * @param configuredClients the clients to hold alongside the registered ones
+   * @param cacheSize the most registered clients to keep in memory
+   * @param abandonedAfter how long a registered client may go unused before it is removed
+   * @param flushInterval how often to force the log to disk
+   * @param compactionInterval how often to remove abandoned clients and consider compacting
+   * @throws UncheckedIOException if the log cannot be opened or read
+   */
+  public PersistentRegisteredClientRepository(
+      Path path,
+      boolean shared,
+      List<RegisteredClient> configuredClients,
+      long cacheSize,
+      Duration abandonedAfter,
+      Duration flushInterval,
+      Duration compactionInterval) {
+    this(
+        path,
+        shared,
+        configuredClients,
+        cacheSize,
+        abandonedAfter,
+        flushInterval,
+        compactionInterval,
+        Clock.systemUTC());
+  }
+
+  PersistentRegisteredClientRepository(
+      Path path,
+      boolean shared,
+      List<RegisteredClient> configuredClients,
+      long cacheSize,
+      Duration abandonedAfter,
+      Duration flushInterval,
+      Duration compactionInterval,
+      Clock clock) {
+    Assert.notNull(path, "path must not be null");
+    Assert.notNull(configuredClients, "configuredClients must not be null");
+    Assert.isTrue(cacheSize > 0, "cacheSize must be greater than 0");
+    Assert.isTrue(abandonedAfter.isPositive(), "abandonedAfter must be positive");
+    Assert.isTrue(flushInterval.isPositive(), "flushInterval must be positive");
+    Assert.isTrue(compactionInterval.isPositive(), "compactionInterval must be positive");
+    this.path = path;
+    this.abandonedAfter = abandonedAfter;
+    this.flushInterval = flushInterval;
+    this.compactionInterval = compactionInterval;
+    this.clock = clock;
+    for (RegisteredClient client : configuredClients) {
+      Assert.isTrue(
+          configuredById.putIfAbsent(client.getId(), client) == null
+              && configuredByClientId.putIfAbsent(client.getClientId(), client) == null,
+          "Configured client " + client.getClientId() + " is not unique");
+    }
+    this.cache = Caffeine.newBuilder().maximumSize(cacheSize).recordStats().build();
+
+    long start = System.nanoTime();
+    Map<String, Entry> restored;
+    try {
+      this.shared = shared ? SharedLock.open(path) : null;
+      this.log = new RegisteredClientLog(path, this.shared);
+      if (this.shared != null) {
+        this.shared.lock();
+      }
+      try {
+        restored = log.replay();
+      } finally {
+        if (this.shared != null) {
+          this.shared.unlock();
+        }
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to open the registered client log " + path, ex);
+    }
+    this.byId = new ConcurrentHashMap<>(Math.max(16, restored.size() * 4 / 3));
+    this.byClientId = new ConcurrentHashMap<>(Math.max(16, restored.size() * 4 / 3));
+    long abandonedAt = clock.millis() - abandonedAfter.toMillis();
+    for (Entry entry : restored.values()) {
+      if (entry.usedAt <= abandonedAt) {
+        continue;
+      }
+      if (configuredById.containsKey(entry.id)
+          || configuredByClientId.containsKey(entry.clientId)) {
+        LOGGER.warn("Ignoring registered client {}, which is configured", entry.clientId);
+        continue;
+      }
+      byId.put(entry.id, entry);
+      byClientId.put(entry.clientId, entry);
+    }
+    LOGGER.info(
+        "Restored {} registered clients from {} records in {} in {} ms",
+        byId.size(),
+        log.records(),
+        path,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  /**
+   * Saves a client, replacing the one with the same id.
+   *
+   * @param registeredClient the client
+   * @throws IllegalArgumentException if its client id is another client's
+   */
+  @Override
+  public void save(RegisteredClient registeredClient) {
+    Assert.notNull(registeredClient, "registeredClient cannot be null");
+    String id = registeredClient.getId();
+    String clientId = registeredClient.getClientId();
+    RegisteredClient configured = configuredById.get(id);
+    if (configured != null) {
+      // As when the token endpoint upgrades how its secret is encoded
+      Assert.isTrue(
+          configured.getClientId().equals(clientId),
+          "Configured client " + configured.getClientId() + " cannot change its client id");
+      configuredById.put(id, registeredClient);
+      configuredByClientId.put(clientId, registeredClient);
+      return;
+    }
+    lockShared();
+    try {
+      synchronized (this) {
+        Entry existing = byClientId.get(clientId);
+        Assert.isTrue(
+            !configuredByClientId.containsKey(clientId)
+                && (existing == null || existing.id.equals(id)),
+            "Registered client must be unique. Found duplicate client identifier: " + clientId);
+
+        long now = clock.millis();
+        Entry entry = new Entry(id, clientId, log.saved(registeredClient, now), now);
+        Entry previous = byId.put(id, entry);
+        if (previous != null && !previous.clientId.equals(clientId)) {
+          byClientId.remove(previous.clientId);
+        }
+        byClientId.put(clientId, entry);
+        // A client is used right after it registers
+        cache.put(id, registeredClient);
+      }
+    } finally {
+      unlockShared();
+    }
+  }
+
+  @Override
+  public @Nullable RegisteredClient findById(String id) {
+    Assert.hasText(id, "id cannot be empty");
+    RegisteredClient configured = configuredById.get(id);
+    if (configured != null) {
+      return configured;
+    }
+    catchUpIfBehind();
+    Entry entry = byId.get(id);
+    return entry != null ? client(entry) : null;
+  }
+
+  @Override
+  public @Nullable RegisteredClient findByClientId(String clientId) {
+    Assert.hasText(clientId, "clientId cannot be empty");
+    RegisteredClient configured = configuredByClientId.get(clientId);
+    if (configured != null) {
+      return configured;
+    }
+    catchUpIfBehind();
+    Entry entry = byClientId.get(clientId);
+    return entry != null ? client(entry) : null;
+  }
+
+  /**
+   * Removes a registered client.
+   *
+   * @param id the id of the client
+   * @return whether there was a registered client with the id
+   */
+  public boolean remove(String id) {
+    lockShared();
+    try {
+      synchronized (this) {
+        Entry entry = byId.get(id);
+        if (entry == null) {
+          return false;
+        }
+        remove(entry);
+        return true;
+      }
+    } finally {
+      unlockShared();
+    }
+  }
+
+  /**
+   * Returns the number of registered clients, not counting configured ones.
+   *
+   * @return the number of registered clients
+   */
+  public int size() {
+    return byId.size();
+  }
+
+  /**
+   * Writes when clients were last used to the log and forces the changes made so far to disk.
+   *
+   * @throws UncheckedIOException if they cannot be written
+   */
+  public void flush() {
+    try {
+      lockShared();
+      try {
+        synchronized (this) {
+          writeUsed();
+        }
+      } finally {
+        unlockShared();
+      }
+      log.flush();
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to flush the registered client log " + path, ex);
+    }
+  }
+
+  /**
+   * Removes registered clients not used for {@code abandonedAfter}.
+   *
+   * @return the number of clients removed
+   */
+  public int removeAbandoned() {
+    long abandonedAt = clock.millis() - abandonedAfter.toMillis();
+    int removed = 0;
+    for (Entry entry : byId.values()) {
+      if (entry.usedAt > abandonedAt) {
+        continue;
+      }
+      lockShared();
+      try {
+        synchronized (this) {
+          // Unless it was used or replaced since
+          if (entry.usedAt <= abandonedAt && byId.get(entry.id) == entry) {
+            remove(entry);
+            removed++;
+          }
+        }
+      } finally {
+        unlockShared();
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Removes abandoned clients and, if most of the log is superseded records, compacts it.
+   *
+   * @return whether the log was compacted
+   * @throws UncheckedIOException if the log cannot be compacted
+   */
+  public boolean compact() {
+    int abandoned = removeAbandoned();
+    if (abandoned > 0) {
+      LOGGER.info("Removed {} abandoned registered clients", abandoned);
+    }
+    long records = log.records();
+    if (records < MIN_COMPACTION_RECORDS || records < 2L * byId.size()) {
+      return false;
+    }
+    lockShared();
+    try {
+      synchronized (this) {
+        // The compacted records carry when each client was last used
+        used.clear();
+        log.compact(new ArrayList<>(byId.values()));
+      }
+      return true;
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to compact the registered client log " + path, ex);
+    } finally {
+      unlockShared();
+    }
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("registered.clients", this, PersistentRegisteredClientRepository::size)
+        .description("Registered clients, not counting configured ones")
+        .register(registry);
+    FunctionCounter.builder(
+            "registered.clients.lookups", cache, (cache) -> cache.stats().hitCount())
+        .description("Lookups of registered clients, by whether they were cached")
+        .tag("result", "hit")
+        .register(registry);
+    FunctionCounter.builder(
+            "registered.clients.lookups", cache, (cache) -> cache.stats().missCount())
+        .description("Lookups of registered clients, by whether they were cached")
+        .tag("result", "miss")
+        .register(registry);
+  }
+
+  @Override
+  public void start() {
+    ScheduledExecutorService executor =
+        Executors.newSingleThreadScheduledExecutor(
+            (runnable) -> {
+              Thread thread = new Thread(runnable, "registered-client-log");
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.scheduleWithFixedDelay(
+        () -> run(this::flush, "flush"),
+        flushInterval.toMillis(),
+        flushInterval.toMillis(),
+        TimeUnit.MILLISECONDS);
+    executor.scheduleWithFixedDelay(
+        () -> run(this::compact, "compact"),
+        compactionInterval.toMillis(),
+        compactionInterval.toMillis(),
+        TimeUnit.MILLISECONDS);
+    this.scheduler = executor;
+  }
+
+  @Override
+  public void stop() {
+    ScheduledExecutorService executor = this.scheduler;
+    this.scheduler = null;
+    if (executor != null) {
+      executor.shutdown();
+      try {
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return scheduler != null;
+  }
+
+  /**
+   * Flushes and closes the log. Changes made afterwards fail.
+   *
+   * @throws IOException if the log cannot be flushed
+   */
+  @Override
+  public void close() throws IOException {
+    stop();
+    lockShared();
+    try {
+      synchronized (this) {
+        writeUsed();
+        log.close();
+      }
+    } finally {
+      unlockShared();
+      if (shared != null) {
+        shared.close();
+      }
+    }
+  }
+
+  private @Nullable RegisteredClient client(Entry entry) {
+    long now = clock.millis();
+    if (now - entry.usedAt >= USE_RESOLUTION.toMillis()) {
+      entry.usedAt = now;
+      used.add(entry);
+    }
+    return cache.get(entry.id, (id) -> log.read(entry));
+  }
+
+  // Called holding the lock on this
+  private void remove(Entry entry) {
+    log.removed(entry.id);
+    forget(entry.id);
+  }
+
+  // Called holding the lock on this
+  private void forget(String id) {
+    Entry entry = byId.remove(id);
+    if (entry != null) {
+      byClientId.remove(entry.clientId, entry);
+      cache.invalidate(id);
+    }
+  }
+
+  // Holds the shared lock, if any, having caught up with the other instances; before locking this
+  private void lockShared() {
+    if (shared == null) {
+      return;
+    }
+    shared.lock();
+    try {
+      synchronized (this) {
+        catchUp();
+      }
+    } catch (RuntimeException ex) {
+      shared.unlock();
+      throw ex;
+    }
+  }
+
+  private void unlockShared() {
+    if (shared != null) {
+      shared.unlock();
+    }
+  }
+
+  private void catchUpIfBehind() {
+    if (shared != null && log.behind()) {
+      // Taking the lock catches up
+      lockShared();
+      unlockShared();
+    }
+  }
+
+  // Called holding the shared lock and the lock on this
+  private void catchUp() {
+    try {
+      log.catchUp(
+          byId,
+          new RegisteredClientLog.Changes() {
+            @Override
+            public void saved(Entry entry) {
+              if (configuredById.containsKey(entry.id)
+                  || configuredByClientId.containsKey(entry.clientId)) {
+                return;
+              }
+              Entry previous = byId.put(entry.id, entry);
+              if (previous != null) {
+                entry.usedAt = Math.max(entry.usedAt, previous.usedAt);
+                if (!previous.clientId.equals(entry.clientId)) {
+                  byClientId.remove(previous.clientId, previous);
+                }
+              }
+              byClientId.put(entry.clientId, entry);
+              cache.invalidate(entry.id);
+            }
+
+            @Override
+            public void used(String id, long usedAt) {
+              Entry entry = byId.get(id);
+              if (entry != null && usedAt > entry.usedAt) {
+                entry.usedAt = usedAt;
+              }
+            }
+
+            @Override
+            public void removed(String id) {
+              forget(id);
+            }
+          });
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to read the shared registered client log " + path, ex);
+    }
+  }
+
+  // Called holding the lock on this
+  private void writeUsed() {
+    for (Entry entry = used.poll(); entry != null; entry = used.poll()) {
+      if (byId.get(entry.id) == entry) {
+        log.used(entry.id, entry.usedAt);
+      }
+    }
+  }
+
+  private void run(Runnable task, String name) {
+    try {
+      task.run();
+    } catch (RuntimeException ex) {
+      // Keep the schedule going; the next run retries
+      LOGGER.warn("Failed to {} the registered client log {}", name, path, ex);
+    }
+  }
+
+  /** Where a registered client is in the log, and when it was last used. */
+  static final class Entry {
+
+    final String id;
+    final String clientId;
+    volatile long offset;
+    // Milliseconds since the epoch
+    volatile long usedAt;
+
+    Entry(String id, String clientId, long offset, long usedAt) {
+      this.id = id;
+      this.clientId = clientId;
+      this.offset = offset;
+      this.usedAt = usedAt;
+    }
+  }
+}
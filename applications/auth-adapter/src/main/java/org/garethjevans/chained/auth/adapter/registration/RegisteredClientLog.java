@@ -0,0 +1,519 @@
+package org.garethjevans.chained.auth.adapter.registration;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.garethjevans.chained.auth.adapter.registration.PersistentRegisteredClientRepository.Entry;
+import org.garethjevans.chained.auth.adapter.storage.CompactSerialization;
+import org.garethjevans.chained.auth.adapter.storage.RecordFiles;
+import org.garethjevans.chained.auth.adapter.storage.SharedLock;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.util.Assert;
+
+/**
+ * Append-only log of registered clients on local disk, in the {@link RecordFiles} format. Each
+ * change is one record: whether the client was saved, used or removed, when it was last used and
+ * its id. A saved record goes on with its client id and ends with the client in {@link
+ * CompactSerialization compact serialized} form.
+ *
+ * <p>Replay only reads the index fields and remembers where each client's record is, so a client is
+ * read from the log, with a positional read, only when it is looked up and is not cached. Records
+ * are written with positional writes, which are in the operating system's page cache as soon as
+ * they return; {@link #flush()} forces them to disk. A record torn by a crash fails its checksum;
+ * replay stops there and the next write overwrites it.
+ *
+ * <p>The log only grows. {@link #compact(Collection)} rewrites it with the latest record of each
+ * live client, stamped with when it was last used, and swaps the new file in with an atomic rename.
+ *
+ * <p>A log opened with a {@link SharedLock} is shared with the other instances given the same file.
+ * Records are then appended, holding the lock, at the end it records, after {@link #catchUp} has
+ * read what the others appended. Compacting it moves every instance to the new file, which they
+ * notice by its generation and read from the start.
+ */
+final class RegisteredClientLog implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RegisteredClientLog.class);
+
+  private static final byte[] MAGIC = "CHCLNTL1".getBytes(StandardCharsets.US_ASCII);
+
+  private static final byte SAVED = 1;
+  private static final byte USED = 2;
+  private static final byte REMOVED = 3;
+
+  private static final int HEADER_SIZE = RecordFiles.HEADER_SIZE;
+
+  // Where the time a client was last used is in a record
+  private static final int USED_AT_OFFSET = HEADER_SIZE + 1;
+
+  private static final int MAX_RECORD_SIZE = 1 << 20;
+
+  private final Path path;
+
+  // Held to read a client, and exclusively to swap in a compacted file and move the entries
+  private final ReadWriteLock swap = new ReentrantReadWriteLock();
+
+  private final @Nullable SharedLock shared;
+
+  private FileChannel channel;
+  private volatile long position;
+  // The generation of the shared log this instance has read
+  private volatile long generation;
+  private long records;
+
+  /**
+   * Opens the log at {@code path}, creating it, readable only by its owner, if it does not exist.
+   * Call {@link #replay()} before writing to it.
+   *
+   * @param path the log file
+   * @throws IOException if the file cannot be opened or is not a registered client log
+   */
+  RegisteredClientLog(Path path) throws IOException {
+    this(path, null);
+  }
+
+  /**
+   * Opens the log at {@code path}, shared with the other instances that open it with the same lock.
+   * Call {@link #replay()}, holding the lock, before writing to it.
+   *
+   * @param path the log file
+   * @param shared the lock of the log, or {@code null} if this instance has it to itself
+   * @throws IOException if the file cannot be opened or is not a registered client log
+   */
+  RegisteredClientLog(Path path, @Nullable SharedLock shared) throws IOException {
+    this.path = path;
+    this.shared = shared;
+    this.channel = open(path);
+  }
+
+  /**
+   * Reads the log and returns the clients it holds, in the order they were last saved, leaving the
+   * log ready to append to. A shared log is reopened first, in case another instance compacted it.
+   *
+   * @return the entries of the clients in the log, by id
+   * @throws IOException if the log cannot be read
+   */
+  synchronized Map<String, Entry> replay() throws IOException {
+    if (shared != null) {
+      requireLock(shared);
+      swap.writeLock().lock();
+      try {
+        FileChannel previous = channel;
+        channel = open(path);
+        previous.close();
+      } finally {
+        swap.writeLock().unlock();
+      }
+    }
+    Map<String, Entry> latest = new LinkedHashMap<>();
+    long size = channel.size();
+    RecordFiles.Scan scan = scan(MAGIC.length, size, replayed(latest));
+    if (scan.end() < size) {
+      LOGGER.warn(
+          "Discarding a torn record and the {} bytes after it at the end of {}",
+          size - scan.end(),
+          path);
+      if (shared == null) {
+        channel.truncate(scan.end());
+      }
+    }
+    records = scan.records();
+    position = scan.end();
+    if (shared != null) {
+      shared.advance(position);
+      generation = shared.generation();
+    }
+    return latest;
+  }
+
+  /**
+   * Returns whether another instance sharing the log has appended to or compacted it since this one
+   * last read it. Cheap enough to check before every lookup.
+   *
+   * @return whether {@link #catchUp} has anything to read
+   */
+  boolean behind() {
+    SharedLock lock = shared;
+    return lock != null && (lock.end() != position || lock.generation() != generation);
+  }
+
+  /**
+   * Reads what other instances sharing the log appended since this one last read it, in order, and
+   * moves to the end of the log so this one can append to it. If another instance compacted the
+   * log, it is read from the start instead: the entries of {@code current} still in it are moved to
+   * their new records, and {@code changes} sees every client in it saved and the others removed.
+   * Call holding the shared lock.
+   *
+   * @param current the entries of the clients this instance holds, by id
+   * @param changes receives the changes
+   * @throws IOException if the log cannot be read
+   */
+  synchronized void catchUp(Map<String, Entry> current, Changes changes) throws IOException {
+    SharedLock lock = shared;
+    Assert.state(lock != null, "The registered client log " + path + " is not shared");
+    requireLock(lock);
+    if (lock.generation() == generation) {
+      long end = lock.end();
+      RecordFiles.Scan scan = scan(position, end, changes);
+      if (scan.end() < end) {
+        LOGGER.warn("Skipping {} unreadable bytes appended to {}", end - scan.end(), path);
+      }
+      position = end;
+      records += scan.records();
+      return;
+    }
+
+    Map<String, Entry> latest;
+    // Readers of the entries held here wait until they are moved to the new file
+    swap.writeLock().lock();
+    try {
+      latest = replay();
+      for (Entry entry : latest.values()) {
+        Entry held = current.get(entry.id);
+        if (held != null && held.clientId.equals(entry.clientId)) {
+          held.offset = entry.offset;
+        }
+      }
+    } finally {
+      swap.writeLock().unlock();
+    }
+    for (Entry entry : latest.values()) {
+      changes.saved(entry);
+    }
+    for (String id : List.copyOf(current.keySet())) {
+      if (!latest.containsKey(id)) {
+        changes.removed(id);
+      }
+    }
+  }
+
+  /**
+   * Appends a record of a client being saved.
+   *
+   * @param client the client
+   * @param usedAt when the client was last used, in milliseconds since the epoch
+   * @return the offset of the record, to read the client back from
+   */
+  synchronized long saved(RegisteredClient client, long usedAt) {
+    byte[] id = RecordFiles.utf8(client.getId());
+    byte[] clientId = RecordFiles.utf8(client.getClientId());
+    byte[] payload;
+    try {
+      payload = CompactSerialization.serialize(client, 1024);
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to serialize registered client " + client.getId(), ex);
+    }
+    int length = 1 + Long.BYTES + Short.BYTES + id.length + Short.BYTES + clientId.length;
+    length += payload.length;
+    Assert.state(
+        length <= MAX_RECORD_SIZE,
+        "Registered client " + client.getId() + " is too large to store");
+    ByteBuffer body = ByteBuffer.allocate(length);
+    body.put(SAVED).putLong(usedAt);
+    body.putShort((short) id.length).put(id);
+    body.putShort((short) clientId.length).put(clientId);
+    return append(body.put(payload).flip());
+  }
+
+  /**
+   * Appends a record of when a client was last used.
+   *
+   * @param id the id of the client
+   * @param usedAt when the client was last used, in milliseconds since the epoch
+   */
+  synchronized void used(String id, long usedAt) {
+    append(marker(USED, usedAt, id));
+  }
+
+  /**
+   * Appends a record of a client being removed.
+   *
+   * @param id the id of the client
+   */
+  synchronized void removed(String id) {
+    append(marker(REMOVED, 0, id));
+  }
+
+  /**
+   * Reads a client from its record.
+   *
+   * @param entry the entry of the client
+   * @return the client, or {@code null} if it was written by an incompatible version of a class
+   * @throws UncheckedIOException if the record cannot be read
+   */
+  @Nullable RegisteredClient read(Entry entry) {
+    ByteBuffer body;
+    swap.readLock().lock();
+    try {
+      long offset = entry.offset;
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      readFully(header, offset);
+      int length = header.getInt(0);
+      Assert.state(
+          length > 0 && length <= MAX_RECORD_SIZE,
+          () -> "Registered client " + entry.id + " has no record at " + offset + " in " + path);
+      body = ByteBuffer.allocate(length);
+      readFully(body, offset + HEADER_SIZE);
+      Assert.state(
+          RecordFiles.checksum(body) == header.getInt(Integer.BYTES) && body.get(0) == SAVED,
+          () -> "Registered client " + entry.id + " has no record at " + offset + " in " + path);
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to read registered client " + entry.id, ex);
+    } finally {
+      swap.readLock().unlock();
+    }
+
+    body.position(1 + Long.BYTES);
+    RecordFiles.string(body);
+    RecordFiles.string(body);
+    byte[] payload = new byte[body.remaining()];
+    body.get(payload);
+    try {
+      return (RegisteredClient) CompactSerialization.deserialize(payload);
+    } catch (InvalidClassException ex) {
+      // Usually written by an incompatible version of Spring Security
+      LOGGER.warn("Skipping a registered client that can no longer be read: {}", ex.getMessage());
+      return null;
+    } catch (IOException | ClassNotFoundException | ClassCastException ex) {
+      LOGGER.warn("Skipping a registered client that can no longer be read", ex);
+      return null;
+    }
+  }
+
+  /**
+   * Forces the records written so far to disk, without holding up writers meanwhile.
+   *
+   * @throws IOException if they cannot be written
+   */
+  void flush() throws IOException {
+    FileChannel file;
+    synchronized (this) {
+      file = channel;
+    }
+    try {
+      file.force(false);
+    } catch (ClosedChannelException ex) {
+      // Swapped out by a compaction, which forced the file that replaced it
+    }
+  }
+
+  /**
+   * Rewrites the log with a saved record of each of {@code entries}, stamped with when it was last
+   * used, and moves the entries to their new records. Writers are held up while it runs; readers
+   * only while the new file is swapped in. A shared log is compacted holding its lock, once caught
+   * up with.
+   *
+   * @param entries the entries of the live clients
+   * @throws IOException if the log cannot be rewritten, in which case it is left as it was
+   */
+  synchronized void compact(Collection<Entry> entries) throws IOException {
+    Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+    Files.deleteIfExists(compacted);
+    RecordFiles.create(compacted, MAGIC);
+
+    Entry[] moved = entries.toArray(new Entry[0]);
+    long[] offsets = new long[moved.length];
+    try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.WRITE)) {
+      out.position(MAGIC.length);
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      for (int i = 0; i < moved.length; i++) {
+        Entry entry = moved[i];
+        header.clear();
+        readFully(header, entry.offset);
+        ByteBuffer body = ByteBuffer.allocate(header.getInt(0));
+        readFully(body, entry.offset + HEADER_SIZE);
+        body.putLong(USED_AT_OFFSET - HEADER_SIZE, entry.usedAt);
+        offsets[i] = out.position();
+        RecordFiles.writeFully(out, header.putInt(Integer.BYTES, RecordFiles.checksum(body)));
+        RecordFiles.writeFully(out, body);
+      }
+      out.force(true);
+
+      swap.writeLock().lock();
+      try {
+        RecordFiles.move(compacted, path);
+        FileChannel previous = channel;
+        channel = open(path);
+        previous.close();
+        for (int i = 0; i < moved.length; i++) {
+          moved[i].offset = offsets[i];
+        }
+        position = out.size();
+        records = moved.length;
+        if (shared != null) {
+          shared.replaced(position);
+          generation = shared.generation();
+        }
+      } finally {
+        swap.writeLock().unlock();
+      }
+      LOGGER.info("Compacted {} to {} records, {} bytes", path, records, position);
+    } finally {
+      Files.deleteIfExists(compacted);
+    }
+  }
+
+  /**
+   * Returns the number of records in the log, including those later superseded.
+   *
+   * @return the number of records
+   */
+  synchronized long records() {
+    return records;
+  }
+
+  /**
+   * Returns the size of the records in the log, in bytes.
+   *
+   * @return the size of the log
+   */
+  synchronized long size() {
+    return position;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel.isOpen()) {
+      flush();
+      channel.close();
+    }
+  }
+
+  private long append(ByteBuffer body) {
+    Assert.state(channel.isOpen(), "The registered client log is closed");
+    if (shared != null) {
+      requireLock(shared);
+      Assert.state(
+          position == shared.end() && generation == shared.generation(),
+          () -> "Appending to " + path + " before catching up with the other instances");
+    }
+    ByteBuffer record =
+        RecordFiles.putRecord(ByteBuffer.allocate(HEADER_SIZE + body.remaining()), body).flip();
+    long offset = position;
+    try {
+      while (record.hasRemaining()) {
+        channel.write(record, offset + record.position());
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to append to the registered client log " + path, ex);
+    }
+    position += record.limit();
+    records++;
+    if (shared != null) {
+      shared.advance(position);
+    }
+    return offset;
+  }
+
+  // Reads the records in [from, to), telling changes of each in order
+  private RecordFiles.Scan scan(long from, long to, Changes changes) throws IOException {
+    return RecordFiles.scan(
+        channel,
+        from,
+        to,
+        MAX_RECORD_SIZE,
+        (offset, record) -> {
+          ByteBuffer body = RecordFiles.body(record);
+          byte operation = body.get();
+          long usedAt = body.getLong();
+          String id = RecordFiles.string(body);
+          switch (operation) {
+            case SAVED -> changes.saved(new Entry(id, RecordFiles.string(body), offset, usedAt));
+            case USED -> changes.used(id, usedAt);
+            default -> changes.removed(id);
+          }
+        });
+  }
+
+  // Applies the changes read on replay to the latest entry of each client
+  private static Changes replayed(Map<String, Entry> latest) {
+    return new Changes() {
+      @Override
+      public void saved(Entry entry) {
+        // Reinsert so clients stay in the order they were last saved
+        latest.remove(entry.id);
+        latest.put(entry.id, entry);
+      }
+
+      @Override
+      public void used(String id, long usedAt) {
+        Entry entry = latest.get(id);
+        if (entry != null) {
+          entry.usedAt = usedAt;
+        }
+      }
+
+      @Override
+      public void removed(String id) {
+        latest.remove(id);
+      }
+    };
+  }
+
+  private void requireLock(SharedLock lock) {
+    Assert.state(
+        lock.isHeldByCurrentThread(), () -> "The lock on the shared log " + path + " is not held");
+  }
+
+  private void readFully(ByteBuffer buffer, long offset) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new EOFException("Unexpected end of " + path + " at " + offset);
+      }
+    }
+    buffer.flip();
+  }
+
+  private static ByteBuffer marker(byte operation, long usedAt, String id) {
+    byte[] bytes = RecordFiles.utf8(id);
+    ByteBuffer body = ByteBuffer.allocate(1 + Long.BYTES + Short.BYTES + bytes.length);
+    return body.put(operation).putLong(usedAt).putShort((short) bytes.length).put(bytes).flip();
+  }
+
+  private static FileChannel open(Path path) throws IOException {
+    return RecordFiles.open(path, MAGIC, "a registered client log");
+  }
+
+  /** Receives the changes read from the log, in the order they were made. */
+  interface Changes {
+
+    /**
+     * A client was saved, replacing any with its id.
+     *
+     * @param entry the entry of the client
+     */
+    void saved(Entry entry);
+
+    /**
+     * A client was used.
+     *
+     * @param id the id of the client
+     * @param usedAt when it was last used, in milliseconds since the epoch
+     */
+    void used(String id, long usedAt);
+
+    /**
+     * A client was removed.
+     *
+     * @param id the id of the client
+     */
+    void removed(String id);
+  }
+}
@@ -0,0 +1,75 @@
+package org.garethjevans.chained.auth.adapter.session;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.time.Duration;
+import org.jspecify.annotations.Nullable;
+import org.springframework.security.oauth2.client.web.AuthorizationRequestRepository;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.util.Assert;
+
+/**
+ * Keeps the authorization request sent to an upstream authorization server in a {@link
+ * SealedCookies sealed cookie} rather than the HTTP session, so whichever instance receives the
+ * redirect back can check its {@code state} and exchange the code. As with the session, there is
+ * one authorization request in progress per browser.
+ */
+public final class CookieOAuth2AuthorizationRequestRepository
+    implements AuthorizationRequestRepository<OAuth2AuthorizationRequest> {
+
+  /** The name of the cookie holding the authorization request. */
+  public static final String COOKIE_NAME = "AUTH_ADAPTER_AUTHORIZATION_REQUEST";
+
+  private final SealedCookies cookies;
+  private final Duration maxAge;
+
+  /**
+   * Creates a repository keeping the authorization request in a cookie.
+   *
+   * @param cookies seals the cookie
+   * @param maxAge how long the upstream login may take
+   */
+  public CookieOAuth2AuthorizationRequestRepository(SealedCookies cookies, Duration maxAge) {
+    Assert.notNull(cookies, "cookies must not be null");
+    Assert.isTrue(maxAge.isPositive(), "maxAge must be positive");
+    this.cookies = cookies;
+    this.maxAge = maxAge;
+  }
+
+  @Override
+  public @Nullable OAuth2AuthorizationRequest loadAuthorizationRequest(HttpServletRequest request) {
+    String state = request.getParameter(OAuth2ParameterNames.STATE);
+    if (state == null) {
+      return null;
+    }
+    OAuth2AuthorizationRequest authorizationRequest =
+        cookies.read(request, COOKIE_NAME, OAuth2AuthorizationRequest.class);
+    return authorizationRequest != null && state.equals(authorizationRequest.getState())
+        ? authorizationRequest
+        : null;
+  }
+
+  @Override
+  public void saveAuthorizationRequest(
+      @Nullable OAuth2AuthorizationRequest authorizationRequest,
+      HttpServletRequest request,
+      HttpServletResponse response) {
+    if (authorizationRequest == null) {
+      cookies.delete(request, response, COOKIE_NAME);
+      return;
+    }
+    Assert.hasText(authorizationRequest.getState(), "authorizationRequest.state cannot be empty");
+    cookies.write(request, response, COOKIE_NAME, authorizationRequest, maxAge);
+  }
+
+  @Override
+  public @Nullable OAuth2AuthorizationRequest removeAuthorizationRequest(
+      HttpServletRequest request, HttpServletResponse response) {
+    OAuth2AuthorizationRequest authorizationRequest = loadAuthorizationRequest(request);
+    if (authorizationRequest != null) {
+      cookies.delete(request, response, COOKIE_NAME);
+    }
+    return authorizationRequest;
+  }
+}
@@ -0,0 +1,155 @@
+package org.garethjevans.chained.auth.adapter.session;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import org.jspecify.annotations.Nullable;
+import org.springframework.security.authentication.AuthenticationTrustResolver;
+import org.springframework.security.authentication.AuthenticationTrustResolverImpl;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.client.web.AuthenticatedPrincipalOAuth2AuthorizedClientRepository;
+import org.springframework.security.oauth2.client.web.OAuth2AuthorizedClientRepository;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+import org.springframework.util.Assert;
+
+/**
+ * Keeps authorized clients in the {@link OAuth2AuthorizedClientService}, as the default repository
+ * does for logged in users, and for the given registrations also in a {@link SealedCookies sealed
+ * cookie} for the rest of the login.
+ *
+ * <p>An upstream login ends with a redirect to the request that needed it, which may arrive at
+ * another instance than the one that exchanged the code. That instance finds the client in the
+ * cookie and saves it to its own service, rather than sending the user back to the upstream login.
+ * Only the tokens are kept in the cookie; the registration is looked up again.
+ */
+public final class CookieOAuth2AuthorizedClientRepository
+    implements OAuth2AuthorizedClientRepository {
+
+  /** The prefix of the names of the cookies holding authorized clients. */
+  public static final String COOKIE_NAME_PREFIX = "AUTH_ADAPTER_CLIENT_";
+
+  private final OAuth2AuthorizedClientService authorizedClientService;
+  private final ClientRegistrationRepository clientRegistrationRepository;
+  private final OAuth2AuthorizedClientRepository delegate;
+  private final SealedCookies cookies;
+  private final Set<String> registrationIds;
+  private final Duration maxAge;
+
+  private final AuthenticationTrustResolver trustResolver = new AuthenticationTrustResolverImpl();
+
+  /**
+   * Creates a repository that also keeps clients of the given registrations in cookies.
+   *
+   * @param authorizedClientService the service storing authorized clients on this instance
+   * @param clientRegistrationRepository the registrations of the clients
+   * @param cookies seals the cookies
+   * @param registrationIds the registrations whose clients are kept in cookies
+   * @param maxAge how long a client is kept in its cookie
+   */
+  public CookieOAuth2AuthorizedClientRepository(
+      OAuth2AuthorizedClientService authorizedClientService,
+      ClientRegistrationRepository clientRegistrationRepository,
+      SealedCookies cookies,
+      Set<String> registrationIds,
+      Duration maxAge) {
+    Assert.notNull(authorizedClientService, "authorizedClientService must not be null");
+    Assert.notNull(clientRegistrationRepository, "clientRegistrationRepository must not be null");
+    Assert.notNull(cookies, "cookies must not be null");
+    Assert.isTrue(maxAge.isPositive(), "maxAge must be positive");
+    this.authorizedClientService = authorizedClientService;
+    this.clientRegistrationRepository = clientRegistrationRepository;
+    this.delegate =
+        new AuthenticatedPrincipalOAuth2AuthorizedClientRepository(authorizedClientService);
+    this.cookies = cookies;
+    this.registrationIds = Set.copyOf(registrationIds);
+    this.maxAge = maxAge;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T extends OAuth2AuthorizedClient> @Nullable T loadAuthorizedClient(
+      String clientRegistrationId, Authentication principal, HttpServletRequest request) {
+    T authorizedClient = delegate.loadAuthorizedClient(clientRegistrationId, principal, request);
+    if (authorizedClient != null || !carried(clientRegistrationId, principal)) {
+      return authorizedClient;
+    }
+    List<?> tokens = cookies.read(request, cookieName(clientRegistrationId), List.class);
+    ClientRegistration clientRegistration =
+        clientRegistrationRepository.findByRegistrationId(clientRegistrationId);
+    if (tokens == null
+        || tokens.size() != 3
+        || clientRegistration == null
+        || !principal.getName().equals(tokens.get(0))
+        || !(tokens.get(1) instanceof OAuth2AccessToken accessToken)
+        || expired(accessToken)) {
+      return null;
+    }
+    OAuth2AuthorizedClient carried =
+        new OAuth2AuthorizedClient(
+            clientRegistration,
+            principal.getName(),
+            accessToken,
+            tokens.get(2) instanceof OAuth2RefreshToken refreshToken ? refreshToken : null);
+    // Saved here too, so it is refreshed and no longer read from the cookie
+    authorizedClientService.saveAuthorizedClient(carried, principal);
+    return (T) carried;
+  }
+
+  @Override
+  public void saveAuthorizedClient(
+      OAuth2AuthorizedClient authorizedClient,
+      Authentication principal,
+      HttpServletRequest request,
+      HttpServletResponse response) {
+    delegate.saveAuthorizedClient(authorizedClient, principal, request, response);
+    String clientRegistrationId = authorizedClient.getClientRegistration().getRegistrationId();
+    if (carried(clientRegistrationId, principal)) {
+      cookies.write(
+          request,
+          response,
+          cookieName(clientRegistrationId),
+          Arrays.asList(
+              authorizedClient.getPrincipalName(),
+              authorizedClient.getAccessToken(),
+              authorizedClient.getRefreshToken()),
+          maxAge);
+    }
+  }
+
+  @Override
+  public void removeAuthorizedClient(
+      String clientRegistrationId,
+      Authentication principal,
+      HttpServletRequest request,
+      HttpServletResponse response) {
+    delegate.removeAuthorizedClient(clientRegistrationId, principal, request, response);
+    if (registrationIds.contains(clientRegistrationId)) {
+      cookies.delete(request, response, cookieName(clientRegistrationId));
+    }
+  }
+
+  private boolean carried(String clientRegistrationId, @Nullable Authentication principal) {
+    return registrationIds.contains(clientRegistrationId)
+        && principal != null
+        && !trustResolver.isAnonymous(principal);
+  }
+
+  // One removed because it expired must not come back from the cookie
+  private static boolean expired(OAuth2AccessToken accessToken) {
+    Instant expiresAt = accessToken.getExpiresAt();
+    return expiresAt != null && !expiresAt.isAfter(Instant.now());
+  }
+
+  private static String cookieName(String clientRegistrationId) {
+    return COOKIE_NAME_PREFIX + clientRegistrationId;
+  }
+}
@@ -0,0 +1,95 @@
+package org.garethjevans.chained.auth.adapter.session;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.time.Duration;
+import java.util.Collections;
+import org.jspecify.annotations.Nullable;
+import org.springframework.http.HttpMethod;
+import org.springframework.security.web.savedrequest.DefaultSavedRequest;
+import org.springframework.security.web.savedrequest.RequestCache;
+import org.springframework.security.web.savedrequest.SavedRequest;
+import org.springframework.security.web.util.UrlUtils;
+import org.springframework.util.Assert;
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * Saves the request that needed a login, such as the authorization request of a client, in a {@link
+ * SealedCookies sealed cookie} rather than the HTTP session, so whichever instance the browser
+ * comes back to can replay it.
+ *
+ * <p>Only the path and query are kept, and the request is replayed on the host the browser is
+ * redirected back to. That only works for {@code GET} requests, so no other request is saved.
+ */
+public final class CookieRequestCache implements RequestCache {
+
+  /** The name of the cookie holding the saved request. */
+  public static final String COOKIE_NAME = "AUTH_ADAPTER_SAVED_REQUEST";
+
+  private final SealedCookies cookies;
+  private final Duration maxAge;
+
+  /**
+   * Creates a request cache keeping the request in a cookie.
+   *
+   * @param cookies seals the cookie
+   * @param maxAge how long the login may take before the request is forgotten
+   */
+  public CookieRequestCache(SealedCookies cookies, Duration maxAge) {
+    Assert.notNull(cookies, "cookies must not be null");
+    Assert.isTrue(maxAge.isPositive(), "maxAge must be positive");
+    this.cookies = cookies;
+    this.maxAge = maxAge;
+  }
+
+  @Override
+  public void saveRequest(HttpServletRequest request, HttpServletResponse response) {
+    if (HttpMethod.GET.matches(request.getMethod())) {
+      cookies.write(request, response, COOKIE_NAME, UrlUtils.buildRequestUrl(request), maxAge);
+    }
+  }
+
+  @Override
+  public @Nullable SavedRequest getRequest(
+      HttpServletRequest request, HttpServletResponse response) {
+    String saved = saved(request);
+    if (saved == null) {
+      return null;
+    }
+    UriComponents uri = UriComponentsBuilder.fromUriString(saved).build();
+    return new DefaultSavedRequest.Builder()
+        .setScheme(request.getScheme())
+        .setServerName(request.getServerName())
+        .setServerPort(request.getServerPort())
+        .setContextPath(request.getContextPath())
+        .setRequestURI(request.getContextPath() + uri.getPath())
+        .setServletPath(uri.getPath())
+        .setQueryString(uri.getQuery())
+        .setMethod(HttpMethod.GET.name())
+        .setLocales(Collections.list(request.getLocales()))
+        .build();
+  }
+
+  @Override
+  public @Nullable HttpServletRequest getMatchingRequest(
+      HttpServletRequest request, HttpServletResponse response) {
+    // Called for every request, so only opened while a login is in progress
+    if (!cookies.contains(request, COOKIE_NAME)
+        || !UrlUtils.buildRequestUrl(request).equals(saved(request))) {
+      return null;
+    }
+    removeRequest(request, response);
+    // The browser replays the request itself, so there is nothing to restore from the saved one
+    return request;
+  }
+
+  @Override
+  public void removeRequest(HttpServletRequest request, HttpServletResponse response) {
+    cookies.delete(request, response, COOKIE_NAME);
+  }
+
+  private @Nullable String saved(HttpServletRequest request) {
+    return cookies.read(request, COOKIE_NAME, String.class);
+  }
+}
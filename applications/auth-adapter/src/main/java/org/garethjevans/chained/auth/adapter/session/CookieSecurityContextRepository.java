@@ -0,0 +1,95 @@
+package org.garethjevans.chained.auth.adapter.session;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.time.Duration;
+import org.jspecify.annotations.Nullable;
+import org.springframework.security.authentication.AuthenticationTrustResolver;
+import org.springframework.security.authentication.AuthenticationTrustResolverImpl;
+import org.springframework.security.core.context.DeferredSecurityContext;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.context.SecurityContextHolderStrategy;
+import org.springframework.security.web.context.HttpRequestResponseHolder;
+import org.springframework.security.web.context.SecurityContextRepository;
+import org.springframework.util.Assert;
+
+/**
+ * Keeps the logged in user in a {@link SealedCookies sealed cookie} rather than the HTTP session.
+ * The cookie is written when the user logs in, and expires {@code maxAge} later however active the
+ * user has been; logging out removes it.
+ */
+public final class CookieSecurityContextRepository implements SecurityContextRepository {
+
+  /** The name of the cookie holding the security context. */
+  public static final String COOKIE_NAME = "AUTH_ADAPTER_CONTEXT";
+
+  private final SealedCookies cookies;
+  private final Duration maxAge;
+
+  private final SecurityContextHolderStrategy securityContextHolderStrategy =
+      SecurityContextHolder.getContextHolderStrategy();
+  private final AuthenticationTrustResolver trustResolver = new AuthenticationTrustResolverImpl();
+
+  /**
+   * Creates a repository keeping the security context in a cookie.
+   *
+   * @param cookies seals the cookie
+   * @param maxAge how long a login lasts
+   */
+  public CookieSecurityContextRepository(SealedCookies cookies, Duration maxAge) {
+    Assert.notNull(cookies, "cookies must not be null");
+    Assert.isTrue(maxAge.isPositive(), "maxAge must be positive");
+    this.cookies = cookies;
+    this.maxAge = maxAge;
+  }
+
+  @Override
+  public DeferredSecurityContext loadDeferredContext(HttpServletRequest request) {
+    return new DeferredSecurityContext() {
+
+      private @Nullable SecurityContext context;
+      private boolean generated;
+
+      @Override
+      public SecurityContext get() {
+        if (context == null) {
+          context = cookies.read(request, COOKIE_NAME, SecurityContext.class);
+          generated = context == null;
+          if (generated) {
+            context = securityContextHolderStrategy.createEmptyContext();
+          }
+        }
+        return context;
+      }
+
+      @Override
+      public boolean isGenerated() {
+        get();
+        return generated;
+      }
+    };
+  }
+
+  @Override
+  @Deprecated
+  public SecurityContext loadContext(HttpRequestResponseHolder requestResponseHolder) {
+    return loadDeferredContext(requestResponseHolder.getRequest()).get();
+  }
+
+  @Override
+  public void saveContext(
+      SecurityContext context, HttpServletRequest request, HttpServletResponse response) {
+    if (context.getAuthentication() == null
+        || trustResolver.isAnonymous(context.getAuthentication())) {
+      cookies.delete(request, response, COOKIE_NAME);
+      return;
+    }
+    cookies.write(request, response, COOKIE_NAME, context, maxAge);
+  }
+
+  @Override
+  public boolean containsContext(HttpServletRequest request) {
+    return cookies.contains(request, COOKIE_NAME);
+  }
+}
@@ -0,0 +1,313 @@
+package org.garethjevans.chained.auth.adapter.session;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.garethjevans.chained.auth.adapter.storage.CompactSerialization;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * Keeps objects in cookies that only the auth-adapter can read or write, so state that would
+ * otherwise live in the HTTP session travels with the browser and any instance can pick it up.
+ *
+ * <p>An object is serialized with {@link CompactSerialization}, deflated, and sealed with AES-GCM
+ * together with the time it expires. GCM both encrypts the value and authenticates it, along with
+ * the name of the cookie, so a value cannot be read, changed, or moved to another cookie. Values
+ * are sealed with the first key; every key opens them, so a new key can be rolled out ahead of the
+ * instances sealing with it and an old one kept until the values it sealed have expired.
+ *
+ * <p>A value longer than browsers accept in one cookie is split across several, named {@code name},
+ * {@code name-1}, {@code name-2} and so on. A value that is missing, expired, or fails to open is
+ * treated as absent.
+ */
+public final class SealedCookies {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SealedCookies.class);
+
+  private static final byte VERSION = 1;
+  private static final int KEY_LENGTH = 32;
+  private static final int NONCE_LENGTH = 12;
+  private static final int TAG_LENGTH = 16;
+  private static final String CIPHER = "AES/GCM/NoPadding";
+
+  // Browsers accept 4096 bytes per cookie, name and attributes included
+  static final int MAX_VALUE_LENGTH = 3800;
+
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+  private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+  private final List<SecretKey> keys;
+  private final Clock clock;
+  private final SecureRandom random = new SecureRandom();
+
+  /**
+   * Creates cookies sealed with the given AES-256 keys.
+   *
+   * @param keys the keys, each 32 bytes; values are sealed with the first
+   */
+  public SealedCookies(List<byte[]> keys) {
+    this(keys, Clock.systemUTC());
+  }
+
+  SealedCookies(List<byte[]> keys, Clock clock) {
+    Assert.notEmpty(keys, "keys must not be empty");
+    List<SecretKey> secretKeys = new ArrayList<>(keys.size());
+    for (byte[] key : keys) {
+      Assert.isTrue(key.length == KEY_LENGTH, "keys must be " + KEY_LENGTH + " bytes");
+      secretKeys.add(new SecretKeySpec(key, "AES"));
+    }
+    this.keys = List.copyOf(secretKeys);
+    this.clock = clock;
+  }
+
+  /**
+   * Adds a cookie holding a value to the response.
+   *
+   * @param request the request, whose cookies of the same name are replaced
+   * @param response the response
+   * @param name the name of the cookie
+   * @param value the value, which must be serializable
+   * @param maxAge how long the value can be read
+   */
+  public void write(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      String name,
+      Object value,
+      Duration maxAge) {
+    String sealed;
+    try {
+      sealed = seal(name, CompactSerialization.serialize(value, 1024), maxAge);
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to serialize the value of cookie " + name, ex);
+    }
+    int chunks = 0;
+    for (int start = 0; start < sealed.length(); start += MAX_VALUE_LENGTH) {
+      String chunk = sealed.substring(start, Math.min(sealed.length(), start + MAX_VALUE_LENGTH));
+      response.addCookie(cookie(request, chunkName(name, chunks++), chunk, maxAge));
+    }
+    // Chunks left over from a longer value would otherwise be read as part of this one
+    for (int chunk = chunks; hasCookie(request, chunkName(name, chunk)); chunk++) {
+      response.addCookie(cookie(request, chunkName(name, chunk), "", Duration.ZERO));
+    }
+  }
+
+  /**
+   * Reads the value of a cookie.
+   *
+   * @param request the request
+   * @param name the name of the cookie
+   * @param type the type of the value
+   * @return the value, or {@code null} if there is none of that type that is still valid
+   */
+  public <T> @Nullable T read(HttpServletRequest request, String name, Class<T> type) {
+    String sealed = value(request, name);
+    if (sealed == null) {
+      return null;
+    }
+    byte[] payload = open(name, sealed);
+    if (payload == null) {
+      return null;
+    }
+    try {
+      Object value = CompactSerialization.deserialize(payload);
+      return type.isInstance(value) ? type.cast(value) : null;
+    } catch (IOException | ClassNotFoundException ex) {
+      // Written by a version of the auth-adapter with different classes
+      LOGGER.debug("Ignoring cookie {} that cannot be read", name, ex);
+      return null;
+    }
+  }
+
+  /**
+   * Tells the browser to drop a cookie, if the request has it.
+   *
+   * @param request the request
+   * @param response the response
+   * @param name the name of the cookie
+   */
+  public void delete(HttpServletRequest request, HttpServletResponse response, String name) {
+    for (int chunk = 0; hasCookie(request, chunkName(name, chunk)); chunk++) {
+      response.addCookie(cookie(request, chunkName(name, chunk), "", Duration.ZERO));
+    }
+  }
+
+  /**
+   * Returns whether the request has a cookie, without opening it.
+   *
+   * @param request the request
+   * @param name the name of the cookie
+   * @return whether it is present
+   */
+  public boolean contains(HttpServletRequest request, String name) {
+    return hasCookie(request, name);
+  }
+
+  String seal(String name, byte[] payload, Duration maxAge) {
+    byte[] deflated = deflate(payload);
+    byte[] nonce = new byte[NONCE_LENGTH];
+    random.nextBytes(nonce);
+    ByteBuffer plaintext = ByteBuffer.allocate(Long.BYTES + deflated.length);
+    plaintext.putLong(clock.millis() + maxAge.toMillis()).put(deflated);
+
+    ByteBuffer sealed = ByteBuffer.allocate(1 + NONCE_LENGTH + plaintext.capacity() + TAG_LENGTH);
+    sealed.put(VERSION).put(nonce);
+    try {
+      Cipher cipher = Cipher.getInstance(CIPHER);
+      cipher.init(Cipher.ENCRYPT_MODE, keys.get(0), new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+      cipher.updateAAD(associatedData(name));
+      cipher.doFinal(plaintext.flip(), sealed);
+    } catch (GeneralSecurityException ex) {
+      throw new IllegalStateException("Failed to seal cookie " + name, ex);
+    }
+    return ENCODER.encodeToString(sealed.array());
+  }
+
+  byte @Nullable [] open(String name, String value) {
+    byte[] sealed;
+    try {
+      sealed = DECODER.decode(value);
+    } catch (IllegalArgumentException ex) {
+      return null;
+    }
+    if (sealed.length < 1 + NONCE_LENGTH + Long.BYTES + TAG_LENGTH || sealed[0] != VERSION) {
+      return null;
+    }
+    GCMParameterSpec parameters = new GCMParameterSpec(TAG_LENGTH * 8, sealed, 1, NONCE_LENGTH);
+    for (SecretKey key : keys) {
+      byte[] plaintext;
+      try {
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.DECRYPT_MODE, key, parameters);
+        cipher.updateAAD(associatedData(name));
+        plaintext = cipher.doFinal(sealed, 1 + NONCE_LENGTH, sealed.length - 1 - NONCE_LENGTH);
+      } catch (AEADBadTagException ex) {
+        // Sealed with another key, or tampered with
+        continue;
+      } catch (GeneralSecurityException ex) {
+        throw new IllegalStateException("Failed to open cookie " + name, ex);
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(plaintext);
+      if (buffer.getLong() <= clock.millis()) {
+        return null;
+      }
+      return inflate(plaintext, Long.BYTES);
+    }
+    LOGGER.debug("Ignoring cookie {} that does not open with any key", name);
+    return null;
+  }
+
+  private static byte[] associatedData(String name) {
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    return ByteBuffer.allocate(1 + bytes.length).put(VERSION).put(bytes).array();
+  }
+
+  private static byte[] deflate(byte[] bytes) {
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    try {
+      deflater.setInput(bytes);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+      byte[] buffer = new byte[1024];
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte @Nullable [] inflate(byte[] bytes, int offset) {
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(bytes, offset, bytes.length - offset);
+      ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 3);
+      byte[] buffer = new byte[1024];
+      while (!inflater.finished()) {
+        int inflated = inflater.inflate(buffer);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          return null;
+        }
+        out.write(buffer, 0, inflated);
+      }
+      return out.toByteArray();
+    } catch (DataFormatException ex) {
+      return null;
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private static @Nullable String value(HttpServletRequest request, String name) {
+    String first = cookieValue(request, name);
+    if (!StringUtils.hasLength(first)) {
+      return null;
+    }
+    StringBuilder value = new StringBuilder(first);
+    for (int chunk = 1; ; chunk++) {
+      String next = cookieValue(request, chunkName(name, chunk));
+      if (!StringUtils.hasLength(next)) {
+        return value.toString();
+      }
+      value.append(next);
+    }
+  }
+
+  private static @Nullable String cookieValue(HttpServletRequest request, String name) {
+    Cookie[] cookies = request.getCookies();
+    if (cookies != null) {
+      for (Cookie cookie : cookies) {
+        if (name.equals(cookie.getName())) {
+          return cookie.getValue();
+        }
+      }
+    }
+    return null;
+  }
+
+  private static boolean hasCookie(HttpServletRequest request, String name) {
+    return cookieValue(request, name) != null;
+  }
+
+  private static String chunkName(String name, int chunk) {
+    return chunk == 0 ? name : name + "-" + chunk;
+  }
+
+  private static Cookie cookie(
+      HttpServletRequest request, String name, String value, Duration maxAge) {
+    Cookie cookie = new Cookie(name, value);
+    cookie.setPath(
+        StringUtils.hasLength(request.getContextPath()) ? request.getContextPath() : "/");
+    cookie.setMaxAge((int) maxAge.toSeconds());
+    cookie.setHttpOnly(true);
+    cookie.setSecure(request.isSecure());
+    // Sent on the top-level redirects back from the upstream authorization servers
+    cookie.setAttribute("SameSite", "Lax");
+    return cookie;
+  }
+}
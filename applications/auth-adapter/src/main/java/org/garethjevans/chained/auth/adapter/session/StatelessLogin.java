@@ -0,0 +1,91 @@
+package org.garethjevans.chained.auth.adapter.session;
+
+import java.time.Duration;
+import org.springframework.security.config.ObjectPostProcessor;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.configurers.oauth2.client.OAuth2LoginConfigurer;
+import org.springframework.security.config.annotation.web.configurers.oauth2.server.authorization.OAuth2AuthorizationServerConfigurer;
+import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.oauth2.client.web.AuthorizationRequestRepository;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.server.authorization.web.OAuth2AuthorizationEndpointFilter;
+import org.springframework.security.web.authentication.session.NullAuthenticatedSessionStrategy;
+import org.springframework.security.web.context.DelegatingSecurityContextRepository;
+import org.springframework.security.web.context.RequestAttributeSecurityContextRepository;
+import org.springframework.security.web.context.SecurityContextRepository;
+import org.springframework.security.web.csrf.CookieCsrfTokenRepository;
+import org.springframework.security.web.savedrequest.RequestCache;
+
+/**
+ * Keeps everything a login needs between requests in {@link SealedCookies sealed cookies} instead
+ * of the HTTP session, so no session is created and any instance can carry on a login another one
+ * started: the logged in user, the request that needed the login, the authorization request sent
+ * upstream, and the CSRF token. Authorized clients are carried by a {@link
+ * CookieOAuth2AuthorizedClientRepository}, which the OAuth2 client picks up as a bean.
+ */
+public final class StatelessLogin {
+
+  private final SecurityContextRepository securityContextRepository;
+  private final RequestCache requestCache;
+  private final AuthorizationRequestRepository<OAuth2AuthorizationRequest>
+      authorizationRequestRepository;
+
+  /**
+   * Creates the repositories a stateless login keeps its state in.
+   *
+   * @param cookies seals the cookies
+   * @param loginTimeout how long a login may take before its saved requests are forgotten
+   * @param sessionTimeout how long a logged in user stays logged in
+   */
+  public StatelessLogin(SealedCookies cookies, Duration loginTimeout, Duration sessionTimeout) {
+    // Also kept in the request, so a context saved during a request is loaded by the same request
+    this.securityContextRepository =
+        new DelegatingSecurityContextRepository(
+            new CookieSecurityContextRepository(cookies, sessionTimeout),
+            new RequestAttributeSecurityContextRepository());
+    this.requestCache = new CookieRequestCache(cookies, loginTimeout);
+    this.authorizationRequestRepository =
+        new CookieOAuth2AuthorizationRequestRepository(cookies, loginTimeout);
+  }
+
+  /**
+   * Makes a filter chain keep its login state in cookies. Call it once the OAuth2 login, client and
+   * authorization server are configured.
+   *
+   * @param http the filter chain
+   * @throws Exception if it cannot be configured
+   */
+  @SuppressWarnings("unchecked")
+  public void applyTo(HttpSecurity http) throws Exception {
+    http.sessionManagement(
+            (session) -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
+        .securityContext((context) -> context.securityContextRepository(securityContextRepository))
+        .requestCache((cache) -> cache.requestCache(requestCache))
+        .csrf((csrf) -> csrf.csrfTokenRepository(new CookieCsrfTokenRepository()))
+        .oauth2Client(
+            (client) ->
+                client.authorizationCodeGrant(
+                    (grant) ->
+                        grant.authorizationRequestRepository(authorizationRequestRepository)));
+    if (http.getConfigurer(OAuth2LoginConfigurer.class) != null) {
+      http.oauth2Login(
+          (login) ->
+              login.authorizationEndpoint(
+                  (endpoint) ->
+                      endpoint.authorizationRequestRepository(authorizationRequestRepository)));
+    }
+    OAuth2AuthorizationServerConfigurer authorizationServer =
+        http.getConfigurer(OAuth2AuthorizationServerConfigurer.class);
+    if (authorizationServer != null) {
+      // OpenID Connect session tracking would create a session for every authorization request
+      authorizationServer.addObjectPostProcessor(
+          new ObjectPostProcessor<OAuth2AuthorizationEndpointFilter>() {
+            @Override
+            public <O extends OAuth2AuthorizationEndpointFilter> O postProcess(O filter) {
+              filter.setSessionAuthenticationStrategy(new NullAuthenticatedSessionStrategy());
+              return filter;
+            }
+          });
+    }
+  }
+}
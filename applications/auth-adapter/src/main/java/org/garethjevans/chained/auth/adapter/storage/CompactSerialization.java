@@ -0,0 +1,126 @@
+package org.garethjevans.chained.auth.adapter.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Java serialization for the records the auth-adapter keeps on local disk. Class descriptors are
+ * written as just the class name and serial version UID, rather than every field of the class, so
+ * records are smaller and reading one back does not parse descriptors. An object written by an
+ * incompatible version of a class fails to read with an {@link InvalidClassException}.
+ *
+ * <p>Only what authorizations, registered clients and their principals are made of may be read
+ * back.
+ */
+public final class CompactSerialization {
+
+  private static final ObjectInputFilter FILTER =
+      ObjectInputFilter.Config.createFilter(
+          "maxdepth=64;java.**;org.springframework.**;com.nimbusds.**;net.minidev.json.**;!*");
+
+  private static final Map<String, ObjectStreamClass> DESCRIPTORS = new ConcurrentHashMap<>();
+
+  private CompactSerialization() {}
+
+  /**
+   * Serializes an object.
+   *
+   * @param object the object, which must be serializable
+   * @param sizeHint the expected size of the result, in bytes
+   * @return the serialized object
+   * @throws IOException if the object cannot be serialized
+   */
+  public static byte[] serialize(Object object, int sizeHint) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(sizeHint);
+    try (ObjectOutputStream out = new CompactObjectOutputStream(bytes)) {
+      out.writeObject(object);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Reads back an object written by {@link #serialize(Object, int)}.
+   *
+   * @param bytes the serialized object
+   * @return the object
+   * @throws InvalidClassException if it was written by an incompatible version of a class
+   * @throws IOException if it cannot be read
+   * @throws ClassNotFoundException if one of its classes no longer exists
+   */
+  public static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+    try (ObjectInputStream in = new CompactObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return in.readObject();
+    }
+  }
+
+  private static final class CompactObjectOutputStream extends ObjectOutputStream {
+
+    CompactObjectOutputStream(OutputStream out) throws IOException {
+      super(out);
+    }
+
+    @Override
+    protected void writeClassDescriptor(ObjectStreamClass descriptor) throws IOException {
+      writeUTF(descriptor.getName());
+      writeLong(descriptor.getSerialVersionUID());
+    }
+  }
+
+  /**
+   * Reads what {@link CompactObjectOutputStream} writes, using the descriptor of the local class,
+   * which is only compatible if its serial version UID is the one written.
+   */
+  private static final class CompactObjectInputStream extends ObjectInputStream {
+
+    CompactObjectInputStream(InputStream in) throws IOException {
+      super(in);
+      setObjectInputFilter(FILTER);
+    }
+
+    @Override
+    protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+      String name = readUTF();
+      long serialVersionUid = readLong();
+      ObjectStreamClass descriptor = descriptor(name);
+      if (descriptor.getSerialVersionUID() != serialVersionUid) {
+        throw new InvalidClassException(
+            name,
+            "stored serialVersionUID "
+                + serialVersionUid
+                + " does not match "
+                + descriptor.getSerialVersionUID());
+      }
+      return descriptor;
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass descriptor) {
+      // Already resolved, and without the stack walk the default does for every class
+      return descriptor.forClass();
+    }
+
+    private static ObjectStreamClass descriptor(String name) throws ClassNotFoundException {
+      ObjectStreamClass descriptor = DESCRIPTORS.get(name);
+      if (descriptor == null) {
+        descriptor =
+            ObjectStreamClass.lookup(
+                Class.forName(name, false, CompactSerialization.class.getClassLoader()));
+        if (descriptor == null) {
+          throw new ClassNotFoundException(name + " is not serializable");
+        }
+        DESCRIPTORS.putIfAbsent(name, descriptor);
+      }
+      return descriptor;
+    }
+  }
+}
@@ -0,0 +1,262 @@
+package org.garethjevans.chained.auth.adapter.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * The file format of the append-only logs the auth-adapter keeps on local disk. A log starts with a
+ * magic number naming what it holds, followed by records, each a length and a CRC32C checksum of
+ * the body that follows them. A record torn by a crash fails its checksum, so reading stops there
+ * and the next write overwrites it.
+ *
+ * <p>Logs are created readable only by their owner, and are compacted by writing a new file and
+ * moving it over the old one with {@link #move(Path, Path)}.
+ */
+public final class RecordFiles {
+
+  /** The size of the length and checksum in front of each record body. */
+  public static final int HEADER_SIZE = Integer.BYTES * 2;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RecordFiles.class);
+
+  // Largest read-only window mapped at once while scanning
+  private static final long READ_WINDOW = 1L << 30;
+
+  private RecordFiles() {}
+
+  /**
+   * Opens a log for reading and writing, creating it and its directory if they do not exist.
+   *
+   * @param path the log file
+   * @param magic the magic number the log starts with
+   * @param description what the log is, for the error if it starts with another magic number
+   * @return the open file, positioned at its start
+   * @throws IOException if the file cannot be opened or does not start with {@code magic}
+   */
+  public static FileChannel open(Path path, byte[] magic, String description) throws IOException {
+    Path parent = path.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    if (Files.notExists(path)) {
+      create(path, magic);
+    }
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    ByteBuffer start = ByteBuffer.allocate(magic.length);
+    while (start.hasRemaining() && channel.read(start, start.position()) > 0) {}
+    if (!Arrays.equals(start.array(), magic)) {
+      channel.close();
+      throw new IOException(path + " is not " + description);
+    }
+    return channel;
+  }
+
+  /**
+   * Creates an empty log, readable only by its owner where the file system allows it. A log created
+   * concurrently is left as it is.
+   *
+   * @param path the log file
+   * @param magic the magic number the log starts with
+   * @throws IOException if the file cannot be created
+   */
+  public static void create(Path path, byte[] magic) throws IOException {
+    try {
+      Files.createFile(
+          path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+    } catch (UnsupportedOperationException ex) {
+      Files.createFile(path);
+    } catch (FileAlreadyExistsException ex) {
+      // Created concurrently; the magic number is checked on open
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      if (channel.size() == 0) {
+        writeFully(channel, ByteBuffer.wrap(magic));
+        channel.force(true);
+      }
+    }
+  }
+
+  /**
+   * Replaces a log with a rewritten one, atomically where the file system supports it, and makes
+   * the rename durable where directories can be synced.
+   *
+   * @param source the rewritten log
+   * @param target the log it replaces
+   * @throws IOException if the file cannot be moved
+   */
+  public static void move(Path source, Path target) throws IOException {
+    try {
+      Files.move(
+          source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException ex) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+    Path directory = target.toAbsolutePath().getParent();
+    try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+      dir.force(true);
+    } catch (IOException ex) {
+      LOGGER.debug("Could not sync directory {}", directory, ex);
+    }
+  }
+
+  /**
+   * Writes the whole of a buffer at the file's position.
+   *
+   * @param channel the file
+   * @param buffer what to write
+   * @throws IOException if it cannot be written
+   */
+  public static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Returns the checksum of the remaining bytes of a record body, leaving the buffer as it is.
+   *
+   * @param body the record body
+   * @return the checksum
+   */
+  public static int checksum(ByteBuffer body) {
+    CRC32C crc = new CRC32C();
+    crc.update(body.duplicate());
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Puts a record, its header and then the remaining bytes of {@code body}, into a buffer.
+   *
+   * @param target the buffer to put the record into
+   * @param body the record body
+   * @return {@code target}
+   */
+  public static ByteBuffer putRecord(ByteBuffer target, ByteBuffer body) {
+    return target.putInt(body.remaining()).putInt(checksum(body)).put(body);
+  }
+
+  /**
+   * Reads the records of a log in {@code [from, to)}, through read-only mappings of the file, up to
+   * the first that is torn. The records handed to the visitor stay readable after the scan.
+   *
+   * @param channel the log file
+   * @param from the offset of the first record
+   * @param to the offset to stop at
+   * @param maxRecordSize the largest record body the log holds
+   * @param visitor called with each intact record, header included, in order
+   * @return where the scan stopped
+   * @throws IOException if the file cannot be read
+   */
+  public static Scan scan(
+      FileChannel channel, long from, long to, int maxRecordSize, RecordVisitor visitor)
+      throws IOException {
+    long offset = from;
+    long records = 0;
+    boolean torn = false;
+    MappedByteBuffer window = null;
+    long windowStart = 0;
+    while (offset + HEADER_SIZE <= to) {
+      if (window == null || offset + HEADER_SIZE > windowStart + window.limit()) {
+        windowStart = offset;
+        window = map(channel, windowStart, to);
+      }
+      int length = window.getInt((int) (offset - windowStart));
+      if (length <= 0 || length > maxRecordSize || offset + HEADER_SIZE + length > to) {
+        // Zeros are the unwritten end of a file grown ahead of its records
+        torn = length != 0;
+        break;
+      }
+      if (offset + HEADER_SIZE + length > windowStart + window.limit()) {
+        windowStart = offset;
+        window = map(channel, windowStart, to);
+      }
+      int start = (int) (offset - windowStart);
+      ByteBuffer record = window.slice(start, HEADER_SIZE + length);
+      if (checksum(body(record)) != record.getInt(Integer.BYTES)) {
+        torn = true;
+        break;
+      }
+      visitor.record(offset, record);
+      records++;
+      offset += HEADER_SIZE + length;
+    }
+    return new Scan(records, offset, torn);
+  }
+
+  /**
+   * Returns the body of a record read by {@link #scan}.
+   *
+   * @param record the record, header included
+   * @return a view of its body
+   */
+  public static ByteBuffer body(ByteBuffer record) {
+    return record.slice(HEADER_SIZE, record.limit() - HEADER_SIZE);
+  }
+
+  /**
+   * Reads a string written by {@link #utf8(String)} with its length as a short, leaving the buffer
+   * after it.
+   *
+   * @param buffer the buffer to read from
+   * @return the string
+   */
+  public static String string(ByteBuffer buffer) {
+    byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Encodes a string to be written with its length as a short.
+   *
+   * @param value the string
+   * @return its UTF-8 bytes
+   * @throws IllegalStateException if it is too long for its length to fit a short
+   */
+  public static byte[] utf8(String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    Assert.state(bytes.length <= 0xFFFF, "Value is too long to store: " + value);
+    return bytes;
+  }
+
+  private static MappedByteBuffer map(FileChannel channel, long from, long to) throws IOException {
+    return channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(READ_WINDOW, to - from));
+  }
+
+  /** Receives the records of a log as they are scanned. */
+  @FunctionalInterface
+  public interface RecordVisitor {
+
+    /**
+     * Receives a record.
+     *
+     * @param offset where the record starts in the log
+     * @param record the record, header included
+     */
+    void record(long offset, ByteBuffer record);
+  }
+
+  /**
+   * Where a scan stopped.
+   *
+   * @param records the number of intact records read
+   * @param end the offset after the last of them
+   * @param torn whether the scan stopped at a torn record rather than the end of the log
+   */
+  public record Scan(long records, long end, boolean torn) {}
+}
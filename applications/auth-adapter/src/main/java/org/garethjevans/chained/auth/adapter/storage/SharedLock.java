@@ -0,0 +1,236 @@
+package org.garethjevans.chained.auth.adapter.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import org.jspecify.annotations.Nullable;
+import org.springframework.util.Assert;
+
+/**
+ * Lets auth-adapter instances that are given the same file share it: a lock they hold to change the
+ * file, and the state of the log it holds, so each instance notices what the others appended. Both
+ * are kept in a small file next to the one they guard, named after it with a {@code .lock} suffix,
+ * which is never replaced.
+ *
+ * <p>The lock is held by one thread of one instance at a time. Within a JVM every {@code
+ * SharedLock} on a file shares one reentrant lock, as a {@link FileLock} is held on behalf of the
+ * whole JVM; across processes the outermost hold also locks the file. The operating system releases
+ * the file lock of a process that dies.
+ *
+ * <p>The state is two counters in a memory mapping of the lock file, written holding the lock and
+ * read without it: where the log ends, and its generation, which goes up each time the log is
+ * replaced by a compacted file. Memory mappings are only kept coherent between processes on one
+ * machine, so the instances have to share a local file system, such as a volume mounted into
+ * several containers on one host.
+ */
+public final class SharedLock implements Closeable {
+
+  private static final VarHandle COUNTER =
+      MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+  private static final int END = 0;
+  private static final int GENERATION = Long.BYTES;
+  private static final int SIZE = 2 * Long.BYTES;
+
+  // Shared by the instances in this JVM, such as those started by tests, by lock file
+  private static final Map<Path, Holder> HOLDERS = new ConcurrentHashMap<>();
+
+  private final Path path;
+  private final Holder holder;
+  private boolean closed;
+
+  private SharedLock(Path path, Holder holder) {
+    this.path = path;
+    this.holder = holder;
+  }
+
+  /**
+   * Opens the lock on a file, creating the lock file and its directory if they do not exist.
+   *
+   * @param guarded the file the lock guards
+   * @return the lock
+   * @throws IOException if the lock file cannot be opened
+   */
+  public static SharedLock open(Path guarded) throws IOException {
+    Path path = guarded.resolveSibling(guarded.getFileName() + ".lock");
+    Path parent = path.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    FileChannel channel =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    Path key;
+    try {
+      key = path.toRealPath();
+    } catch (IOException ex) {
+      channel.close();
+      throw ex;
+    }
+    try {
+      Holder holder =
+          HOLDERS.compute(
+              key,
+              (file, existing) -> {
+                Holder opened = existing != null ? existing : new Holder(file, channel);
+                opened.users++;
+                return opened;
+              });
+      if (holder.channel != channel) {
+        channel.close();
+      }
+      return new SharedLock(key, holder);
+    } catch (UncheckedIOException ex) {
+      channel.close();
+      throw ex.getCause();
+    }
+  }
+
+  /**
+   * Waits for the lock, then holds it until {@link #unlock()} is called as many times as this was.
+   *
+   * @throws UncheckedIOException if the lock file cannot be locked
+   */
+  public void lock() {
+    ReentrantLock lock = holder.lock;
+    lock.lock();
+    if (lock.getHoldCount() > 1) {
+      return;
+    }
+    try {
+      holder.fileLock = holder.channel().lock();
+    } catch (IOException ex) {
+      lock.unlock();
+      throw new UncheckedIOException("Failed to lock " + path, ex);
+    }
+  }
+
+  /**
+   * Releases a hold of the lock.
+   *
+   * @throws IllegalMonitorStateException if the current thread does not hold it
+   */
+  public void unlock() {
+    ReentrantLock lock = holder.lock;
+    try {
+      FileLock fileLock = holder.fileLock;
+      if (lock.getHoldCount() == 1 && fileLock != null) {
+        holder.fileLock = null;
+        // Closing the channel, as an interrupt does, releases it too
+        if (fileLock.isValid()) {
+          fileLock.release();
+        }
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to unlock " + path, ex);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns whether the current thread holds the lock.
+   *
+   * @return whether the lock is held by the current thread
+   */
+  public boolean isHeldByCurrentThread() {
+    return holder.lock.isHeldByCurrentThread();
+  }
+
+  /**
+   * Returns where the log ends, as last set by any instance.
+   *
+   * @return the offset after the last record, or 0 if it was never set
+   */
+  public long end() {
+    return (long) COUNTER.getAcquire(holder.state, END);
+  }
+
+  /**
+   * Returns how many times the log has been replaced by a compacted file.
+   *
+   * @return the generation of the log
+   */
+  public long generation() {
+    return (long) COUNTER.getAcquire(holder.state, GENERATION);
+  }
+
+  /**
+   * Records where the log ends after appending to it or reading it from the start.
+   *
+   * @param end the offset after the last record
+   * @throws IllegalStateException if the current thread does not hold the lock
+   */
+  public void advance(long end) {
+    Assert.state(isHeldByCurrentThread(), "The lock on " + path + " is not held");
+    COUNTER.setRelease(holder.state, END, end);
+  }
+
+  /**
+   * Records that the log was replaced by a compacted file, and where that ends.
+   *
+   * @param end the offset after the last record of the new file
+   * @throws IllegalStateException if the current thread does not hold the lock
+   */
+  public void replaced(long end) {
+    advance(end);
+    COUNTER.setRelease(holder.state, GENERATION, generation() + 1);
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    Holder removed =
+        HOLDERS.computeIfPresent(path, (file, existing) -> --existing.users > 0 ? existing : null);
+    if (removed == null) {
+      holder.channel.close();
+    }
+  }
+
+  /** The lock and state of a lock file, shared by the {@code SharedLock}s on it in this JVM. */
+  private static final class Holder {
+
+    private final Path path;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final MappedByteBuffer state;
+    private FileChannel channel;
+    private @Nullable FileLock fileLock;
+    private int users;
+
+    private Holder(Path path, FileChannel channel) {
+      this.path = path;
+      this.channel = channel;
+      try {
+        // Mapping past the end of the file grows it, filled with zeros
+        this.state = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+      } catch (IOException ex) {
+        throw new UncheckedIOException("Failed to map " + path, ex);
+      }
+    }
+
+    // Called holding the lock; an interrupt while waiting for the file lock closes the channel
+    private FileChannel channel() throws IOException {
+      if (!channel.isOpen()) {
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      }
+      return channel;
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package org.garethjevans.chained.auth.adapter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.garethjevans.chained.auth.adapter.registration.PersistentRegisteredClientRepository;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.security.oauth2.core.ClientAuthenticationMethod;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.util.FileSystemUtils;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class ClientRegistrationEndpointTests {
+
+  private static Path directory;
+
+  @LocalServerPort private int port;
+
+  @Autowired private PersistentRegisteredClientRepository registeredClientRepository;
+
+  @DynamicPropertySource
+  static void clientLog(DynamicPropertyRegistry registry) throws Exception {
+    directory = Files.createTempDirectory("clients");
+    registry.add(
+        "auth-adapter.client-registration.path", () -> directory.resolve("clients.log").toString());
+  }
+
+  @AfterAll
+  static void deleteClientLog() throws Exception {
+    FileSystemUtils.deleteRecursively(directory);
+  }
+
+  @Test
+  void testClientRegistersWithoutAccessToken() throws Exception {
+    HttpResponse<String> response =
+        HttpClient.newHttpClient()
+            .send(
+                HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/oauth2/register"))
+                    .header("Content-Type", "application/json")
+                    .header("Accept", "application/json")
+                    .POST(
+                        HttpRequest.BodyPublishers.ofString(
+                            """
+                            {
+                              "client_name": "Cursor",
+                              "redirect_uris": ["cursor://anysphere.cursor-mcp/oauth/callback"],
+                              "grant_types": ["authorization_code", "refresh_token"],
+                              "response_types": ["code"],
+                              "token_endpoint_auth_method": "none"
+                            }
+                            """))
+                    .build(),
+                HttpResponse.BodyHandlers.ofString());
+
+    assertThat(response.statusCode()).isEqualTo(201);
+    String clientId = response.body().replaceAll(".*\"client_id\"\\s*:\\s*\"([^\"]+)\".*", "$1");
+    RegisteredClient registered = registeredClientRepository.findByClientId(clientId);
+    assertThat(registered).isNotNull();
+    assertThat(registered.getClientName()).isEqualTo("Cursor");
+    assertThat(registered.getClientAuthenticationMethods())
+        .containsExactly(ClientAuthenticationMethod.NONE);
+    assertThat(registeredClientRepository.findById(registered.getId())).isEqualTo(registered);
+  }
+}
@@ -0,0 +1,168 @@
+package org.garethjevans.chained.auth.adapter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Logs a user in to the auth-adapter through an OpenID Connect upstream, and redeems the code it
+ * issues for an ID token. The ID token needs the time the user logged in at, which OpenID Connect
+ * login only records through {@link
+ * org.garethjevans.chained.auth.adapter.config.AuthorizationCodeFactorAuthoritiesMapper}.
+ */
+class OidcLoginTests {
+
+  // Registered for the "client" client; nothing listens on it
+  private static final String REDIRECT_URI = "http://127.0.0.1:8080/login/oauth2/code/auth-adapter";
+  private static final String CLIENT_CREDENTIALS =
+      Base64.getEncoder().encodeToString("client:secret".getBytes(StandardCharsets.UTF_8));
+  private static final int MAX_REDIRECTS = 20;
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private static UpstreamStandIn upstream;
+  private static Path directory;
+  private static ConfigurableApplicationContext instance;
+  private static URI authAdapter;
+
+  @BeforeAll
+  static void startInstance() throws Exception {
+    upstream = new UpstreamStandIn();
+    directory = Files.createTempDirectory("auth-adapter");
+    instance = new SpringApplicationBuilder(AuthAdapterApplication.class).run(arguments());
+    authAdapter =
+        URI.create(
+            "http://127.0.0.1:"
+                + instance.getEnvironment().getRequiredProperty("local.server.port"));
+  }
+
+  @AfterAll
+  static void stopInstance() throws Exception {
+    if (instance != null) {
+      instance.close();
+    }
+    if (upstream != null) {
+      upstream.close();
+    }
+    if (directory != null) {
+      FileSystemUtils.deleteRecursively(directory);
+    }
+  }
+
+  @Test
+  void testOidcLoginIssuesIdTokenWithAuthTime() throws Exception {
+    try (HttpClient client =
+        HttpClient.newBuilder()
+            .cookieHandler(new CookieManager(null, CookiePolicy.ACCEPT_ALL))
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build()) {
+      byte[] verifierBytes = new byte[32];
+      RANDOM.nextBytes(verifierBytes);
+      String verifier = Base64.getUrlEncoder().withoutPadding().encodeToString(verifierBytes);
+      String state = UUID.randomUUID().toString();
+
+      URI next =
+          authAdapter.resolve(
+              "/oauth2/authorize?response_type=code&client_id=client&scope=openid%20profile"
+                  + "&state="
+                  + state
+                  + "&code_challenge="
+                  + challenge(verifier)
+                  + "&code_challenge_method=S256"
+                  + "&redirect_uri="
+                  + URLEncoder.encode(REDIRECT_URI, StandardCharsets.UTF_8));
+      String code = null;
+      for (int redirects = 0; code == null && redirects < MAX_REDIRECTS; redirects++) {
+        if (next.toString().startsWith(REDIRECT_URI)) {
+          code = UpstreamStandIn.parse(next.getRawQuery()).get("code");
+          break;
+        }
+        HttpResponse<String> response =
+            client.send(
+                HttpRequest.newBuilder(next).header("Accept", "text/html").GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertThat(response.statusCode()).as("%s %s", next, response.body()).isEqualTo(302);
+        next = next.resolve(response.headers().firstValue("Location").orElseThrow());
+      }
+      assertThat(code).as("authorization code").isNotNull();
+
+      HttpResponse<String> token =
+          client.send(
+              HttpRequest.newBuilder(authAdapter.resolve("/oauth2/token"))
+                  .header("Authorization", "Basic " + CLIENT_CREDENTIALS)
+                  .header("Content-Type", "application/x-www-form-urlencoded")
+                  .POST(
+                      HttpRequest.BodyPublishers.ofString(
+                          "grant_type=authorization_code&code="
+                              + URLEncoder.encode(code, StandardCharsets.UTF_8)
+                              + "&code_verifier="
+                              + verifier
+                              + "&redirect_uri="
+                              + URLEncoder.encode(REDIRECT_URI, StandardCharsets.UTF_8)))
+                  .build(),
+              HttpResponse.BodyHandlers.ofString());
+
+      assertThat(token.statusCode()).as(token.body()).isEqualTo(200);
+      assertThat(token.body()).contains("\"id_token\"");
+      String idToken = token.body().replaceAll(".*\"id_token\"\\s*:\\s*\"([^\"]+)\".*", "$1");
+      JWTClaimsSet claims = SignedJWT.parse(idToken).getJWTClaimsSet();
+      // The time of the upstream login, not of the token request
+      assertThat(claims.getDateClaim("auth_time").toInstant())
+          .isEqualTo(upstream.authenticatedAt());
+    }
+  }
+
+  // Given as arguments, as they have to override application.yml
+  private static String[] arguments() {
+    String provider = "spring.security.oauth2.client.provider.";
+    Map<String, String> properties = new LinkedHashMap<>();
+    properties.put("server.port", "0");
+    properties.put(
+        provider + "test-auth-server.authorization-uri", upstream.url() + "/oauth2/authorize");
+    properties.put(provider + "test-auth-server.token-uri", upstream.url() + "/oauth2/token");
+    properties.put(provider + "test-auth-server.user-info-uri", upstream.url() + "/userinfo");
+    properties.put(provider + "test-auth-server.jwk-set-uri", upstream.url() + "/oauth2/jwks");
+    properties.put(
+        provider + "github.authorization-uri", upstream.url() + "/login/oauth/authorize");
+    properties.put(provider + "github.token-uri", upstream.url() + "/login/oauth/access_token");
+    properties.put(
+        "auth-adapter.authorization-store.path",
+        directory.resolve("authorizations.log").toString());
+    properties.put(
+        "auth-adapter.signing-keys.path", directory.resolve("signing-keys.json").toString());
+    properties.put(
+        "auth-adapter.client-registration.path", directory.resolve("clients.log").toString());
+    return properties.entrySet().stream()
+        .map((property) -> "--" + property.getKey() + "=" + property.getValue())
+        .toArray(String[]::new);
+  }
+
+  private static String challenge(String verifier) throws Exception {
+    byte[] digest =
+        MessageDigest.getInstance("SHA-256").digest(verifier.getBytes(StandardCharsets.US_ASCII));
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+  }
+}
@@ -0,0 +1,277 @@
+package org.garethjevans.chained.auth.adapter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.nimbusds.jose.crypto.factories.DefaultJWSVerifierFactory;
+import com.nimbusds.jose.jwk.AsymmetricJWK;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jwt.SignedJWT;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.garethjevans.chained.auth.adapter.session.CookieOAuth2AuthorizationRequestRepository;
+import org.garethjevans.chained.auth.adapter.session.CookieRequestCache;
+import org.garethjevans.chained.auth.adapter.session.CookieSecurityContextRepository;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Runs two auth-adapter instances in stateless login mode, sharing the keys that seal their cookies
+ * and the directory they keep authorizations, registered clients and signing keys in, behind a
+ * stand-in load balancer that sends each request to the other instance from the last one. Every
+ * step of the login, upstream logins included, therefore lands on a different instance from the
+ * step before it, and the client, registered at one instance, redeems its code at the instance that
+ * did not issue it.
+ */
+class StatelessLoginTests {
+
+  // Nothing listens on it
+  private static final String REDIRECT_URI = "http://127.0.0.1:8080/login/oauth2/code/auth-adapter";
+  private static final int MAX_REDIRECTS = 20;
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private static final List<ConfigurableApplicationContext> instances = new ArrayList<>();
+  private static final List<Integer> ports = new ArrayList<>();
+
+  private static Path directory;
+
+  private static UpstreamStandIn upstream;
+
+  // The address the browser knows the auth-adapter by; nothing listens on it
+  private static final URI LOAD_BALANCER = URI.create("http://127.0.0.1:1");
+
+  private final List<Integer> served = new ArrayList<>();
+
+  @BeforeAll
+  static void startInstances() throws Exception {
+    upstream = new UpstreamStandIn();
+    byte[] key = new byte[32];
+    RANDOM.nextBytes(key);
+    directory = Files.createTempDirectory("auth-adapter");
+    for (int i = 0; i < 2; i++) {
+      ConfigurableApplicationContext instance =
+          new SpringApplicationBuilder(AuthAdapterApplication.class)
+              .run(arguments(directory, Base64.getEncoder().encodeToString(key)));
+      instances.add(instance);
+      ports.add(
+          Integer.valueOf(instance.getEnvironment().getRequiredProperty("local.server.port")));
+    }
+  }
+
+  @AfterAll
+  static void stopInstances() throws Exception {
+    for (ConfigurableApplicationContext instance : instances) {
+      instance.close();
+    }
+    if (upstream != null) {
+      upstream.close();
+    }
+    if (directory != null) {
+      FileSystemUtils.deleteRecursively(directory);
+    }
+  }
+
+  @Test
+  void testLoginCompletesAcrossInstancesWithoutSession() throws Exception {
+    CookieManager cookies = new CookieManager(null, CookiePolicy.ACCEPT_ALL);
+    try (HttpClient client =
+        HttpClient.newBuilder()
+            .cookieHandler(cookies)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build()) {
+      // As an MCP client installation does, at the instance the login does not start at
+      String clientId = register(client, ports.getLast());
+      byte[] verifierBytes = new byte[32];
+      RANDOM.nextBytes(verifierBytes);
+      String verifier = Base64.getUrlEncoder().withoutPadding().encodeToString(verifierBytes);
+      String state = UUID.randomUUID().toString();
+
+      URI next =
+          LOAD_BALANCER.resolve(
+              "/oauth2/authorize?response_type=code&client_id="
+                  + clientId
+                  + "&state="
+                  + state
+                  + "&code_challenge="
+                  + challenge(verifier)
+                  + "&code_challenge_method=S256"
+                  + "&redirect_uri="
+                  + URLEncoder.encode(REDIRECT_URI, StandardCharsets.UTF_8));
+      String code = null;
+      for (int redirects = 0; code == null && redirects < MAX_REDIRECTS; redirects++) {
+        if (next.toString().startsWith(REDIRECT_URI)) {
+          Map<String, String> params = UpstreamStandIn.parse(next.getRawQuery());
+          assertThat(params).containsEntry("state", state).containsKey("code");
+          code = params.get("code");
+          break;
+        }
+        HttpResponse<String> response =
+            client.send(
+                request(next).header("Accept", "text/html").GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertThat(response.statusCode()).as("%s %s", next, response.body()).isEqualTo(302);
+        next = next.resolve(response.headers().firstValue("Location").orElseThrow());
+      }
+
+      assertThat(code).as("authorization code").isNotNull();
+      // Both logins and their callbacks, and both replays of the authorization request
+      assertThat(served).hasSizeGreaterThanOrEqualTo(6).containsAll(ports);
+      assertThat(cookies.getCookieStore().getCookies())
+          .extracting(HttpCookie::getName)
+          .contains(CookieSecurityContextRepository.COOKIE_NAME)
+          .doesNotContain(
+              "JSESSIONID",
+              "AUTH_ADAPTER_SESSION",
+              CookieRequestCache.COOKIE_NAME,
+              CookieOAuth2AuthorizationRequestRepository.COOKIE_NAME);
+
+      // The code is redeemed at the instance that did not issue it
+      int issuedBy = served.getLast();
+      int redeemedAt = ports.getFirst() == issuedBy ? ports.getLast() : ports.getFirst();
+      HttpResponse<String> token =
+          client.send(
+              HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + redeemedAt + "/oauth2/token"))
+                  .header("Content-Type", "application/x-www-form-urlencoded")
+                  .POST(
+                      HttpRequest.BodyPublishers.ofString(
+                          "grant_type=authorization_code&client_id="
+                              + clientId
+                              + "&code="
+                              + URLEncoder.encode(code, StandardCharsets.UTF_8)
+                              + "&code_verifier="
+                              + verifier
+                              + "&redirect_uri="
+                              + URLEncoder.encode(REDIRECT_URI, StandardCharsets.UTF_8)))
+                  .build(),
+              HttpResponse.BodyHandlers.ofString());
+      assertThat(token.statusCode()).as(token.body()).isEqualTo(200);
+      String accessToken = field(token.body(), "access_token");
+      // The GitHub token the other instance obtained
+      SignedJWT jwt = SignedJWT.parse(accessToken);
+      String upstreamToken = jwt.getJWTClaimsSet().getStringClaim("access_token");
+      assertThat(upstream.issuedGitHubToken(upstreamToken)).isTrue();
+
+      // Verifies with the key set the instance that did not sign it publishes
+      HttpResponse<String> jwks =
+          client.send(
+              HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + issuedBy + "/oauth2/jwks"))
+                  .GET()
+                  .build(),
+              HttpResponse.BodyHandlers.ofString());
+      JWK signingKey = JWKSet.parse(jwks.body()).getKeyByKeyId(jwt.getHeader().getKeyID());
+      assertThat(signingKey).as("key %s", jwt.getHeader().getKeyID()).isNotNull();
+      assertThat(
+              jwt.verify(
+                  new DefaultJWSVerifierFactory()
+                      .createJWSVerifier(
+                          jwt.getHeader(), ((AsymmetricJWK) signingKey).toPublicKey())))
+          .isTrue();
+    }
+  }
+
+  // Registers a public client, which has to use PKCE, and returns its client id
+  private static String register(HttpClient client, int port) throws Exception {
+    HttpResponse<String> response =
+        client.send(
+            HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/oauth2/register"))
+                .header("Content-Type", "application/json")
+                .header("Accept", "application/json")
+                .POST(
+                    HttpRequest.BodyPublishers.ofString(
+                        """
+                        {
+                          "client_name": "Stateless login test",
+                          "redirect_uris": ["%s"],
+                          "grant_types": ["authorization_code"],
+                          "response_types": ["code"],
+                          "token_endpoint_auth_method": "none"
+                        }
+                        """
+                            .formatted(REDIRECT_URI)))
+                .build(),
+            HttpResponse.BodyHandlers.ofString());
+    assertThat(response.statusCode()).as(response.body()).isEqualTo(201);
+    return field(response.body(), "client_id");
+  }
+
+  private static String field(String json, String name) {
+    return json.replaceAll(".*\"" + name + "\"\\s*:\\s*\"([^\"]+)\".*", "$1");
+  }
+
+  // Sends requests for the load balancer to the instance after the one that served the last
+  private HttpRequest.Builder request(URI uri) {
+    if (uri.getPort() != LOAD_BALANCER.getPort()) {
+      return HttpRequest.newBuilder(uri);
+    }
+    int port = ports.get(served.size() % ports.size());
+    served.add(port);
+    return HttpRequest.newBuilder(
+            URI.create("http://127.0.0.1:" + port + uri.getRawPath() + query(uri)))
+        .header("X-Forwarded-Proto", LOAD_BALANCER.getScheme())
+        .header("X-Forwarded-Host", LOAD_BALANCER.getHost())
+        .header("X-Forwarded-Port", String.valueOf(LOAD_BALANCER.getPort()));
+  }
+
+  private static String query(URI uri) {
+    return uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery();
+  }
+
+  // Given as arguments, as they have to override application.yml
+  private static String[] arguments(Path directory, String key) {
+    String provider = "spring.security.oauth2.client.provider.";
+    Map<String, String> properties = new LinkedHashMap<>();
+    properties.put("server.port", "0");
+    properties.put("server.forward-headers-strategy", "native");
+    properties.put(
+        provider + "test-auth-server.authorization-uri", upstream.url() + "/oauth2/authorize");
+    properties.put(provider + "test-auth-server.token-uri", upstream.url() + "/oauth2/token");
+    properties.put(provider + "test-auth-server.user-info-uri", upstream.url() + "/userinfo");
+    properties.put(provider + "test-auth-server.jwk-set-uri", upstream.url() + "/oauth2/jwks");
+    properties.put(
+        provider + "github.authorization-uri", upstream.url() + "/login/oauth/authorize");
+    properties.put(provider + "github.token-uri", upstream.url() + "/login/oauth/access_token");
+    properties.put("auth-adapter.stateless-login.enabled", "true");
+    properties.put("auth-adapter.stateless-login.keys[0]", key);
+    properties.put(
+        "auth-adapter.authorization-store.path",
+        directory.resolve("authorizations.log").toString());
+    properties.put("auth-adapter.authorization-store.persistent", "true");
+    properties.put("auth-adapter.authorization-store.shared", "true");
+    properties.put(
+        "auth-adapter.signing-keys.path", directory.resolve("signing-keys.json").toString());
+    properties.put(
+        "auth-adapter.client-registration.path", directory.resolve("clients.log").toString());
+    properties.put("auth-adapter.client-registration.shared", "true");
+    return properties.entrySet().stream()
+        .map((property) -> "--" + property.getKey() + "=" + property.getValue())
+        .toArray(String[]::new);
+  }
+
+  private static String challenge(String verifier) throws Exception {
+    byte[] digest =
+        MessageDigest.getInstance("SHA-256").digest(verifier.getBytes(StandardCharsets.US_ASCII));
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+  }
+}
@@ -0,0 +1,195 @@
+package org.garethjevans.chained.auth.adapter;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Answers for both upstream authorization servers the auth-adapter logs users in with: an OpenID
+ * Connect provider in place of the test-auth-server, and GitHub. Both approve every authorization
+ * request straight away, for {@link #SUBJECT}, and codes can be exchanged once.
+ */
+final class UpstreamStandIn implements AutoCloseable {
+
+  static final String SUBJECT = "testuser";
+
+  private final HttpServer server;
+  private final RSAKey key;
+  private final Map<String, String> nonces = new ConcurrentHashMap<>();
+  private final Map<String, String> githubCodes = new ConcurrentHashMap<>();
+  private final Map<String, String> githubTokens = new ConcurrentHashMap<>();
+  // Some time before any token is issued, so it cannot be mistaken for the time of a token request
+  private final Instant authenticatedAt =
+      Instant.now().minus(Duration.ofMinutes(1)).truncatedTo(ChronoUnit.SECONDS);
+
+  UpstreamStandIn() throws IOException, JOSEException {
+    key = new RSAKeyGenerator(2048).keyID("stand-in").generate();
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/oauth2/authorize", this::authorize);
+    server.createContext("/oauth2/token", this::token);
+    server.createContext("/oauth2/jwks", this::jwks);
+    server.createContext("/userinfo", this::userInfo);
+    server.createContext("/login/oauth/authorize", this::githubAuthorize);
+    server.createContext("/login/oauth/access_token", this::githubToken);
+    server.start();
+  }
+
+  String url() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  /** Returns when the OpenID Connect provider says the user logged in. */
+  Instant authenticatedAt() {
+    return authenticatedAt;
+  }
+
+  /** Returns whether GitHub issued the token, to a user who authorized once. */
+  boolean issuedGitHubToken(String token) {
+    return githubTokens.containsKey(token);
+  }
+
+  private void authorize(HttpExchange exchange) throws IOException {
+    Map<String, String> params = parse(exchange.getRequestURI().getRawQuery());
+    String code = UUID.randomUUID().toString();
+    nonces.put(code, params.getOrDefault("nonce", ""));
+    redirect(exchange, params, code);
+  }
+
+  private void token(HttpExchange exchange) throws IOException {
+    Map<String, String> params = parse(body(exchange));
+    String nonce = nonces.remove(params.getOrDefault("code", ""));
+    if (nonce == null) {
+      respond(exchange, 400, "{\"error\":\"invalid_grant\"}");
+      return;
+    }
+    Instant now = Instant.now();
+    JWTClaimsSet.Builder claims =
+        new JWTClaimsSet.Builder()
+            .issuer(url())
+            .subject(SUBJECT)
+            .audience("test-client")
+            .issueTime(Date.from(now))
+            .expirationTime(Date.from(now.plusSeconds(600)))
+            .claim("auth_time", authenticatedAt.getEpochSecond());
+    if (!nonce.isEmpty()) {
+      claims.claim("nonce", nonce);
+    }
+    SignedJWT idToken =
+        new SignedJWT(
+            new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(),
+            claims.build());
+    try {
+      idToken.sign(new RSASSASigner(key));
+    } catch (JOSEException ex) {
+      throw new IOException(ex);
+    }
+    respond(
+        exchange,
+        200,
+        "{\"access_token\":\""
+            + UUID.randomUUID()
+            + "\",\"token_type\":\"Bearer\",\"expires_in\":600,\"scope\":\"openid profile\","
+            + "\"id_token\":\""
+            + idToken.serialize()
+            + "\"}");
+  }
+
+  private void jwks(HttpExchange exchange) throws IOException {
+    respond(exchange, 200, new JWKSet(key.toPublicJWK()).toString());
+  }
+
+  private void userInfo(HttpExchange exchange) throws IOException {
+    respond(exchange, 200, "{\"sub\":\"" + SUBJECT + "\",\"name\":\"Test User\"}");
+  }
+
+  private void githubAuthorize(HttpExchange exchange) throws IOException {
+    Map<String, String> params = parse(exchange.getRequestURI().getRawQuery());
+    String code = UUID.randomUUID().toString();
+    githubCodes.put(code, SUBJECT);
+    redirect(exchange, params, code);
+  }
+
+  private void githubToken(HttpExchange exchange) throws IOException {
+    Map<String, String> params = parse(body(exchange));
+    String user = githubCodes.remove(params.getOrDefault("code", ""));
+    if (user == null) {
+      respond(exchange, 400, "{\"error\":\"bad_verification_code\"}");
+      return;
+    }
+    String token = "gho_" + UUID.randomUUID().toString().replace("-", "");
+    githubTokens.put(token, user);
+    respond(
+        exchange,
+        200,
+        "{\"access_token\":\"" + token + "\",\"token_type\":\"bearer\",\"scope\":\"read:user\"}");
+  }
+
+  private static void redirect(HttpExchange exchange, Map<String, String> params, String code)
+      throws IOException {
+    exchange
+        .getResponseHeaders()
+        .set(
+            "Location",
+            params.get("redirect_uri")
+                + "?code="
+                + code
+                + "&state="
+                + URLEncoder.encode(params.get("state"), StandardCharsets.UTF_8));
+    exchange.sendResponseHeaders(302, -1);
+    exchange.close();
+  }
+
+  private static String body(HttpExchange exchange) throws IOException {
+    return new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+  }
+
+  private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+    byte[] body = json.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, body.length);
+    exchange.getResponseBody().write(body);
+    exchange.close();
+  }
+
+  static Map<String, String> parse(String query) {
+    Map<String, String> params = new HashMap<>();
+    if (query == null || query.isEmpty()) {
+      return params;
+    }
+    for (String pair : query.split("&")) {
+      int equals = pair.indexOf('=');
+      if (equals > 0) {
+        params.put(
+            URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+            URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+      }
+    }
+    return params;
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+}
@@ -0,0 +1,386 @@
+package org.garethjevans.chained.auth.adapter.authorization;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.garethjevans.chained.auth.adapter.authorization.ShardedOAuth2AuthorizationService.Entry;
+import org.garethjevans.chained.auth.adapter.storage.SharedLock;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.server.authorization.OAuth2Authorization;
+import org.springframework.security.oauth2.server.authorization.OAuth2AuthorizationCode;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenType;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+
+class PersistentOAuth2AuthorizationServiceTest {
+
+  private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+
+  private static final OAuth2TokenType CODE = new OAuth2TokenType(OAuth2ParameterNames.CODE);
+
+  private static final RegisteredClient CLIENT =
+      RegisteredClient.withId("client-id")
+          .clientId("client")
+          .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+          .redirectUri("http://127.0.0.1:8080/login/oauth2/code/auth-adapter")
+          .build();
+
+  @TempDir private Path directory;
+
+  @Test
+  void testRestoresAuthorizationsAfterRestart() throws Exception {
+    OAuth2Authorization authorization = issued("1", "testuser");
+    try (PersistentOAuth2AuthorizationService service = open(NOW)) {
+      service.save(authorization);
+      service.save(issued("2", "octocat"));
+    }
+
+    try (PersistentOAuth2AuthorizationService service = open(NOW)) {
+      assertThat(service.size()).isEqualTo(2);
+      assertThat(service.findById("1")).isEqualTo(authorization);
+      assertThat(service.findByToken("access-1", OAuth2TokenType.ACCESS_TOKEN))
+          .isEqualTo(authorization);
+      assertThat(service.findByPrincipalName("octocat"))
+          .extracting(OAuth2Authorization::getId)
+          .containsExactly("2");
+    }
+  }
+
+  @Test
+  void testRestoredAuthorizationsAreIndexedBeforeTheyAreRead() throws Exception {
+    try (PersistentOAuth2AuthorizationService service = open(NOW)) {
+      service.save(issued("1", "testuser"));
+      service.save(initialized("2"));
+      service.save(issued("3", "testuser"));
+    }
+
+    try (PersistentOAuth2AuthorizationService service = open(NOW)) {
+      assertThat(service.findByToken("refresh-1", null).getId()).isEqualTo("1");
+      assertThat(service.findByToken("state-2", null).getId()).isEqualTo("2");
+      assertThat(service.findByToken("access-1", CODE)).isNull();
+      assertThat(service.readAll()).isEqualTo(1);
+      assertThat(service.readAll()).isZero();
+    }
+  }
+
+  @Test
+  void testRemovedAuthorizationIsNotRestored() throws Exception {
+    try (PersistentOAuth2AuthorizationService service = open(NOW)) {
+      service.save(issued("1", "testuser"));
+      service.save(issued("2", "testuser"));
+      service.remove(service.findById("1"));
+    }
+
+    try (PersistentOAuth2AuthorizationService service = open(NOW)) {
+      assertThat(service.findById("1")).isNull();
+      assertThat(service.findByToken("access-1", OAuth2TokenType.ACCESS_TOKEN)).isNull();
+      assertThat(service.findById("2")).isNotNull();
+    }
+  }
+
+  @Test
+  void testUpdatedAttributesAreRestored() throws Exception {
+    try (PersistentOAuth2AuthorizationService service = open(NOW)) {
+      service.save(issued("1", "testuser"));
+      service.updateAttributes(
+          "code-1", CODE, attributes -> attributes.put("access_token", "gho_upstream"));
+    }
+
+    try (PersistentOAuth2AuthorizationService service = open(NOW)) {
+      assertThat((String) service.findByToken("code-1", CODE).getAttribute("access_token"))
+          .isEqualTo("gho_upstream");
+    }
+  }
+
+  @Test
+  void testExpiredAuthorizationsAreNotRestored() throws Exception {
+    try (PersistentOAuth2AuthorizationService service = open(NOW)) {
+      service.save(issued("1", "testuser"));
+      service.save(
+          OAuth2Authorization.from(issued("2", "testuser"))
+              .refreshToken(new OAuth2RefreshToken("refresh-2", NOW, NOW.plus(Duration.ofDays(1))))
+              .build());
+    }
+
+    // The first has nothing left that is valid after an hour, the second still has its refresh
+    // token
+    try (PersistentOAuth2AuthorizationService service = open(NOW.plus(Duration.ofHours(2)))) {
+      assertThat(service.findById("1")).isNull();
+      assertThat(service.findById("2")).isNotNull();
+    }
+  }
+
+  @Test
+  void testCompactRemovesExpiredAuthorizations() throws Exception {
+    MutableClock clock = new MutableClock(NOW);
+    try (PersistentOAuth2AuthorizationService service = open(clock)) {
+      service.save(issued("1", "testuser"));
+      service.save(initialized("2"));
+
+      clock.instant = NOW.plus(Duration.ofMinutes(10));
+      service.compact();
+
+      assertThat(service.findById("1")).isNotNull();
+      assertThat(service.findById("2")).isNull();
+      assertThat(service.size()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  void testTornRecordIsDiscarded() throws Exception {
+    Path log = directory.resolve("authorizations.log");
+    try (PersistentOAuth2AuthorizationService service = open(NOW)) {
+      service.save(issued("1", "testuser"));
+    }
+    // A record whose write was cut short
+    Files.write(log, new byte[] {0, 0, 0, 64, 1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+
+    try (PersistentOAuth2AuthorizationService service = open(NOW)) {
+      assertThat(service.findById("1")).isNotNull();
+      service.save(issued("2", "testuser"));
+    }
+
+    try (PersistentOAuth2AuthorizationService service = open(NOW)) {
+      assertThat(service.findById("1")).isNotNull();
+      assertThat(service.findById("2")).isNotNull();
+    }
+  }
+
+  @Test
+  void testLogThatWasNotClosedIsReplayed() throws Exception {
+    PersistentOAuth2AuthorizationService crashed = open(NOW);
+    crashed.save(issued("1", "testuser"));
+    crashed.save(issued("2", "testuser"));
+
+    try (PersistentOAuth2AuthorizationService service = open(NOW)) {
+      assertThat(service.size()).isEqualTo(2);
+      service.save(issued("3", "testuser"));
+    }
+
+    try (PersistentOAuth2AuthorizationService service = open(NOW)) {
+      assertThat(service.size()).isEqualTo(3);
+    }
+  }
+
+  @Test
+  void testCompactionKeepsOnlyLatestRecords() throws Exception {
+    Path path = directory.resolve("authorizations.log");
+    try (AuthorizationLog log = new AuthorizationLog(path, 4096)) {
+      log.replay(NOW);
+      for (int i = 0; i < 50; i++) {
+        log.saved(
+            Entry.of(
+                OAuth2Authorization.from(issued("1", "testuser")).attribute("version", i).build()));
+        log.saved(Entry.of(issued("2", "testuser")));
+      }
+      log.removed("2");
+      log.saved(Entry.of(initialized("3")));
+      long before = log.size();
+
+      log.compact(NOW.plus(Duration.ofMinutes(10)));
+
+      assertThat(log.records()).isEqualTo(1);
+      assertThat(log.size()).isLessThan(before / 50);
+      log.saved(Entry.of(issued("4", "testuser")));
+    }
+
+    try (AuthorizationLog log = new AuthorizationLog(path, 4096)) {
+      List<OAuth2Authorization> restored =
+          log.replay(NOW).stream().map(Entry::authorization).toList();
+      assertThat(restored)
+          .extracting(OAuth2Authorization::getId)
+          .containsExactlyInAnyOrder("1", "4");
+      assertThat(restored)
+          .filteredOn((authorization) -> authorization.getId().equals("1"))
+          .extracting((authorization) -> authorization.<Integer>getAttribute("version"))
+          .containsExactly(49);
+    }
+  }
+
+  @Test
+  void testRecordsAppendedWhileFlushingAreKept() throws Exception {
+    Path path = directory.resolve("authorizations.log");
+    try (AuthorizationLog log = new AuthorizationLog(path, 4096)) {
+      log.replay(NOW);
+      AtomicBoolean writing = new AtomicBoolean(true);
+      Thread flusher =
+          Thread.ofPlatform()
+              .start(
+                  () -> {
+                    while (writing.get()) {
+                      try {
+                        log.flush();
+                      } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                      }
+                    }
+                  });
+      // Fills several regions, each forced by a flush after it is filled
+      for (int i = 0; i < 200; i++) {
+        log.saved(Entry.of(issued(String.valueOf(i), "testuser")));
+      }
+      writing.set(false);
+      flusher.join();
+      log.flush();
+    }
+
+    try (AuthorizationLog log = new AuthorizationLog(path, 4096)) {
+      assertThat(log.replay(NOW)).hasSize(200);
+    }
+  }
+
+  @Test
+  void testSharedLogShowsEachInstanceWhatTheOthersChanged() throws Exception {
+    Clock clock = Clock.fixed(NOW, ZoneOffset.UTC);
+    try (PersistentOAuth2AuthorizationService issuing = open(clock, true);
+        PersistentOAuth2AuthorizationService redeeming = open(clock, true)) {
+      issuing.save(initialized("1"));
+      issuing.save(issued("2", "testuser"));
+
+      // The code is redeemed at the instance that did not issue it
+      OAuth2Authorization authorization = redeeming.findByToken("code-1", CODE);
+      assertThat(authorization).isNotNull();
+      redeeming.save(OAuth2Authorization.from(issued("1", "octocat")).build());
+      redeeming.remove(redeeming.findById("2"));
+
+      assertThat(issuing.findByToken("access-1", OAuth2TokenType.ACCESS_TOKEN))
+          .extracting(OAuth2Authorization::getPrincipalName)
+          .isEqualTo("octocat");
+      assertThat(issuing.findById("2")).isNull();
+      assertThat(issuing.findByPrincipalName("testuser")).isEmpty();
+    }
+
+    try (PersistentOAuth2AuthorizationService service = open(NOW)) {
+      assertThat(service.findById("1").getPrincipalName()).isEqualTo("octocat");
+      assertThat(service.findById("2")).isNull();
+    }
+  }
+
+  @Test
+  void testSharedLogCompactedByOneInstanceIsReplayedByTheOthers() throws Exception {
+    Path path = directory.resolve("authorizations.log");
+    try (SharedLock lock = SharedLock.open(path);
+        AuthorizationLog compacting = new AuthorizationLog(path, 4096, lock);
+        AuthorizationLog other = new AuthorizationLog(path, 4096, lock)) {
+      lock.lock();
+      try {
+        compacting.replay(NOW);
+        other.replay(NOW);
+        for (int i = 0; i < 50; i++) {
+          compacting.saved(Entry.of(issued("1", "testuser")));
+        }
+        compacting.saved(Entry.of(issued("2", "testuser")));
+        assertThat(other.behind()).isTrue();
+        assertThat(other.catchUp().saved())
+            .extracting((entry) -> entry.id)
+            .containsExactly("1", "2");
+        other.removed("2");
+        assertThat(other.behind()).isFalse();
+      } finally {
+        lock.unlock();
+      }
+
+      compacting.compact(NOW);
+
+      lock.lock();
+      try {
+        // Read from the compacted file, with the removal the compacting instance had not read yet
+        assertThat(other.behind()).isTrue();
+        assertThat(other.catchUp()).isNull();
+        assertThat(other.replay(NOW)).extracting((entry) -> entry.id).containsExactly("1");
+        other.saved(Entry.of(issued("3", "testuser")));
+
+        AuthorizationLog.Changes changes = compacting.catchUp();
+        assertThat(changes.removed()).containsExactly("2");
+        assertThat(changes.saved()).extracting((entry) -> entry.id).containsExactly("3");
+        assertThat(compacting.records()).isEqualTo(4);
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private PersistentOAuth2AuthorizationService open(Instant now) {
+    return open(Clock.fixed(now, ZoneOffset.UTC));
+  }
+
+  private PersistentOAuth2AuthorizationService open(Clock clock) {
+    return open(clock, false);
+  }
+
+  private PersistentOAuth2AuthorizationService open(Clock clock, boolean shared) {
+    return new PersistentOAuth2AuthorizationService(
+        directory.resolve("authorizations.log"),
+        shared,
+        Duration.ofSeconds(1),
+        Duration.ofMinutes(5),
+        4,
+        100,
+        4096,
+        clock);
+  }
+
+  private static OAuth2Authorization initialized(String id) {
+    return OAuth2Authorization.withRegisteredClient(CLIENT)
+        .id(id)
+        .principalName("testuser")
+        .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+        .authorizedScopes(Set.of("openid"))
+        .attribute(OAuth2ParameterNames.STATE, "state-" + id)
+        .token(new OAuth2AuthorizationCode("code-" + id, NOW, NOW.plusSeconds(300)))
+        .build();
+  }
+
+  private static OAuth2Authorization issued(String id, String principalName) {
+    return OAuth2Authorization.from(initialized(id))
+        .principalName(principalName)
+        .accessToken(
+            new OAuth2AccessToken(
+                OAuth2AccessToken.TokenType.BEARER, "access-" + id, NOW, NOW.plusSeconds(300)))
+        .refreshToken(new OAuth2RefreshToken("refresh-" + id, NOW, NOW.plusSeconds(3600)))
+        .token(new OidcIdToken("id-" + id, NOW, NOW.plusSeconds(300), Map.of("sub", principalName)))
+        .build();
+  }
+
+  private static final class MutableClock extends Clock {
+
+    private volatile Instant instant;
+
+    private MutableClock(Instant instant) {
+      this.instant = instant;
+    }
+
+    @Override
+    public Instant instant() {
+      return instant;
+    }
+
+    @Override
+    public ZoneOffset getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+  }
+}
@@ -0,0 +1,197 @@
+package org.garethjevans.chained.auth.adapter.authorization;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.server.authorization.OAuth2Authorization;
+import org.springframework.security.oauth2.server.authorization.OAuth2AuthorizationCode;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenType;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+
+class ShardedOAuth2AuthorizationServiceTest {
+
+  private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+
+  private static final OAuth2TokenType STATE = new OAuth2TokenType(OAuth2ParameterNames.STATE);
+  private static final OAuth2TokenType CODE = new OAuth2TokenType(OAuth2ParameterNames.CODE);
+  private static final OAuth2TokenType ID_TOKEN = new OAuth2TokenType("id_token");
+
+  private static final RegisteredClient CLIENT =
+      RegisteredClient.withId("client-id")
+          .clientId("client")
+          .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+          .redirectUri("http://127.0.0.1:8080/login/oauth2/code/auth-adapter")
+          .build();
+
+  private final ShardedOAuth2AuthorizationService service =
+      new ShardedOAuth2AuthorizationService(4, 100);
+
+  @Test
+  void testFindsAuthorizationByEachTokenType() {
+    OAuth2Authorization authorization = issued("1", "testuser");
+    service.save(authorization);
+
+    assertThat(service.findById("1")).isEqualTo(authorization);
+    assertThat(service.findByToken("state-1", STATE)).isEqualTo(authorization);
+    assertThat(service.findByToken("code-1", CODE)).isEqualTo(authorization);
+    assertThat(service.findByToken("access-1", OAuth2TokenType.ACCESS_TOKEN))
+        .isEqualTo(authorization);
+    assertThat(service.findByToken("refresh-1", OAuth2TokenType.REFRESH_TOKEN))
+        .isEqualTo(authorization);
+    assertThat(service.findByToken("id-1", ID_TOKEN)).isEqualTo(authorization);
+    assertThat(service.findByToken("refresh-1", null)).isEqualTo(authorization);
+  }
+
+  @Test
+  void testTokenOfAnotherTypeIsNotFound() {
+    service.save(issued("1", "testuser"));
+
+    assertThat(service.findByToken("code-1", OAuth2TokenType.ACCESS_TOKEN)).isNull();
+    assertThat(service.findByToken("unknown", null)).isNull();
+    assertThat(service.findById("2")).isNull();
+  }
+
+  @Test
+  void testReplacingAuthorizationDropsItsOldTokens() {
+    service.save(issued("1", "testuser"));
+
+    OAuth2Authorization refreshed =
+        OAuth2Authorization.from(issued("1", "testuser"))
+            .token(new OAuth2RefreshToken("refresh-1b", NOW, NOW.plusSeconds(3600)))
+            .build();
+    service.save(refreshed);
+
+    assertThat(service.findByToken("refresh-1", OAuth2TokenType.REFRESH_TOKEN)).isNull();
+    assertThat(service.findByToken("refresh-1b", OAuth2TokenType.REFRESH_TOKEN))
+        .isEqualTo(refreshed);
+    assertThat(service.findByToken("access-1", OAuth2TokenType.ACCESS_TOKEN)).isEqualTo(refreshed);
+    assertThat(service.size()).isEqualTo(1);
+  }
+
+  @Test
+  void testRemoveDropsAuthorizationAndIndexes() {
+    OAuth2Authorization authorization = issued("1", "testuser");
+    service.save(authorization);
+
+    service.remove(authorization);
+
+    assertThat(service.findById("1")).isNull();
+    assertThat(service.findByToken("access-1", OAuth2TokenType.ACCESS_TOKEN)).isNull();
+    assertThat(service.findByPrincipalName("testuser")).isEmpty();
+    assertThat(service.size()).isZero();
+  }
+
+  @Test
+  void testFindsAuthorizationsByPrincipalName() {
+    service.save(issued("1", "testuser"));
+    service.save(issued("2", "testuser"));
+    service.save(issued("3", "octocat"));
+
+    assertThat(service.findByPrincipalName("testuser"))
+        .extracting(OAuth2Authorization::getId)
+        .containsExactlyInAnyOrder("1", "2");
+    assertThat(service.findByPrincipalName("octocat"))
+        .extracting(OAuth2Authorization::getId)
+        .containsExactly("3");
+    assertThat(service.findByPrincipalName("nobody")).isEmpty();
+  }
+
+  @Test
+  void testUpdateAttributesChangesStoredAuthorization() {
+    service.save(issued("1", "testuser"));
+
+    OAuth2Authorization updated =
+        service.updateAttributes(
+            "code-1", CODE, attributes -> attributes.put("access_token", "gho_upstream"));
+
+    assertThat(updated).isNotNull();
+    assertThat((String) updated.getAttribute("access_token")).isEqualTo("gho_upstream");
+    assertThat((String) service.findById("1").getAttribute("access_token"))
+        .isEqualTo("gho_upstream");
+    assertThat(service.findByToken("code-1", CODE)).isEqualTo(updated);
+  }
+
+  @Test
+  void testUpdateAttributesOfUnknownTokenReturnsNull() {
+    service.save(issued("1", "testuser"));
+
+    assertThat(service.updateAttributes("unknown", CODE, attributes -> attributes.put("a", "b")))
+        .isNull();
+  }
+
+  @Test
+  void testConcurrentUpdatesOfOneAuthorizationAreNotLost() throws Exception {
+    service.save(issued("1", "testuser"));
+
+    int updates = 200;
+    try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+      List<Future<?>> futures =
+          IntStream.range(0, updates)
+              .<Future<?>>mapToObj(
+                  i ->
+                      executor.submit(
+                          () ->
+                              service.updateAttributes(
+                                  "code-1", CODE, attributes -> attributes.put("a" + i, i))))
+              .toList();
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    }
+
+    Map<String, Object> attributes = service.findById("1").getAttributes();
+    for (int i = 0; i < updates; i++) {
+      assertThat(attributes).containsEntry("a" + i, i);
+    }
+  }
+
+  @Test
+  void testInitializedAuthorizationsAreBounded() {
+    ShardedOAuth2AuthorizationService bounded = new ShardedOAuth2AuthorizationService(1, 10);
+
+    for (int i = 0; i < 20; i++) {
+      bounded.save(initialized(String.valueOf(i)));
+    }
+    bounded.save(issued("issued", "testuser"));
+
+    assertThat(bounded.size()).isEqualTo(11);
+    assertThat(bounded.findByToken("code-0", CODE)).isNull();
+    assertThat(bounded.findByToken("code-19", CODE)).isNotNull();
+    assertThat(bounded.findById("issued")).isNotNull();
+  }
+
+  private static OAuth2Authorization initialized(String id) {
+    return OAuth2Authorization.withRegisteredClient(CLIENT)
+        .id(id)
+        .principalName("testuser")
+        .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+        .authorizedScopes(Set.of("openid"))
+        .attribute(OAuth2ParameterNames.STATE, "state-" + id)
+        .token(new OAuth2AuthorizationCode("code-" + id, NOW, NOW.plusSeconds(300)))
+        .build();
+  }
+
+  private static OAuth2Authorization issued(String id, String principalName) {
+    return OAuth2Authorization.from(initialized(id))
+        .principalName(principalName)
+        .accessToken(
+            new OAuth2AccessToken(
+                OAuth2AccessToken.TokenType.BEARER, "access-" + id, NOW, NOW.plusSeconds(300)))
+        .refreshToken(new OAuth2RefreshToken("refresh-" + id, NOW, NOW.plusSeconds(3600)))
+        .token(new OidcIdToken("id-" + id, NOW, NOW.plusSeconds(300), Map.of("sub", principalName)))
+        .build();
+  }
+}
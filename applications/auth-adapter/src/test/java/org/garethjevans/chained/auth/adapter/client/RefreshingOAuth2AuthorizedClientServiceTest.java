@@ -0,0 +1,218 @@
+package org.garethjevans.chained.auth.adapter.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.garethjevans.chained.auth.logging.EventLogger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.client.InMemoryOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.OAuth2AuthorizationContext;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientProvider;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2AuthorizationException;
+import org.springframework.security.oauth2.core.OAuth2Error;
+import org.springframework.security.oauth2.core.OAuth2ErrorCodes;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+
+class RefreshingOAuth2AuthorizedClientServiceTest {
+
+  private static final Duration REFRESH_AHEAD = Duration.ofMinutes(5);
+
+  private static final Authentication PRINCIPAL = new TestingAuthenticationToken("testuser", null);
+
+  private static final ClientRegistration GITHUB = registration("github");
+
+  private static final ClientRegistration TEST_AUTH_SERVER = registration("test-auth-server");
+
+  private final InMemoryOAuth2AuthorizedClientService delegate =
+      new InMemoryOAuth2AuthorizedClientService(
+          new InMemoryClientRegistrationRepository(GITHUB, TEST_AUTH_SERVER));
+
+  private final LinkedBlockingQueue<OAuth2AuthorizationContext> refreshed =
+      new LinkedBlockingQueue<>();
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+  private RefreshingOAuth2AuthorizedClientService service;
+
+  @AfterEach
+  void stop() {
+    service.stop();
+  }
+
+  @Test
+  void testRefreshesClientBeforeItExpires() throws Exception {
+    start((context) -> refresh(context, "gho_refreshed"));
+
+    service.saveAuthorizedClient(client(GITHUB, "gho_initial", Duration.ofMinutes(1)), PRINCIPAL);
+
+    OAuth2AuthorizationContext context = refreshed.poll(5, TimeUnit.SECONDS);
+    assertThat(context.getAuthorizedClient().getAccessToken().getTokenValue())
+        .isEqualTo("gho_initial");
+    assertThat(context.getPrincipal()).isSameAs(PRINCIPAL);
+    await(
+        () ->
+            delegate
+                .loadAuthorizedClient("github", "testuser")
+                .getAccessToken()
+                .getTokenValue()
+                .equals("gho_refreshed"));
+    assertThat(timerCount("success")).isEqualTo(1);
+    assertThat(
+            registry
+                .get("upstream.token.refresh")
+                .tag("outcome", "success")
+                .timer()
+                .totalTime(TimeUnit.NANOSECONDS))
+        .isPositive();
+    // The refreshed token is scheduled for its own refresh
+    assertThat(service.getScheduled()).isEqualTo(1);
+  }
+
+  @Test
+  void testSchedulesRefreshOnlyForRefreshableClientsOfConfiguredRegistrations() {
+    start((context) -> refresh(context, "gho_refreshed"));
+
+    service.saveAuthorizedClient(client(GITHUB, "gho_initial", Duration.ofHours(8)), PRINCIPAL);
+    service.saveAuthorizedClient(
+        client(TEST_AUTH_SERVER, "access", Duration.ofHours(8)), PRINCIPAL);
+    service.saveAuthorizedClient(
+        new OAuth2AuthorizedClient(
+            GITHUB,
+            "octocat",
+            new OAuth2AccessToken(
+                OAuth2AccessToken.TokenType.BEARER, "gho_classic", Instant.now(), null),
+            new OAuth2RefreshToken("ghr_classic", Instant.now())),
+        new TestingAuthenticationToken("octocat", null));
+
+    assertThat(service.getScheduled()).isEqualTo(1);
+    assertThat(delegate.<OAuth2AuthorizedClient>loadAuthorizedClient("github", "octocat"))
+        .isNotNull();
+  }
+
+  @Test
+  void testRemovedClientIsNotRefreshed() throws Exception {
+    start((context) -> refresh(context, "gho_refreshed"));
+
+    service.saveAuthorizedClient(client(GITHUB, "gho_initial", Duration.ofHours(8)), PRINCIPAL);
+    service.removeAuthorizedClient("github", "testuser");
+
+    assertThat(service.getScheduled()).isZero();
+    assertThat(refreshed.poll(100, TimeUnit.MILLISECONDS)).isNull();
+  }
+
+  @Test
+  void testRetriesFailedRefresh() throws Exception {
+    AtomicInteger attempts = new AtomicInteger();
+    start(
+        (context) -> {
+          if (attempts.incrementAndGet() == 1) {
+            throw new IllegalStateException("Connection refused");
+          }
+          return refresh(context, "gho_refreshed");
+        });
+
+    service.saveAuthorizedClient(client(GITHUB, "gho_initial", Duration.ofMinutes(1)), PRINCIPAL);
+
+    await(() -> timerCount("success") == 1);
+    assertThat(timerCount("failure")).isEqualTo(1);
+    assertThat(attempts).hasValue(2);
+  }
+
+  @Test
+  void testRemovesClientWhoseRefreshTokenIsRejected() throws Exception {
+    start(
+        (context) -> {
+          throw new OAuth2AuthorizationException(new OAuth2Error(OAuth2ErrorCodes.INVALID_GRANT));
+        });
+
+    service.saveAuthorizedClient(client(GITHUB, "gho_initial", Duration.ofMinutes(1)), PRINCIPAL);
+
+    await(() -> timerCount("revoked") == 1);
+    await(() -> service.getScheduled() == 0);
+    assertThat(delegate.<OAuth2AuthorizedClient>loadAuthorizedClient("github", "testuser"))
+        .isNull();
+  }
+
+  private void start(OAuth2AuthorizedClientProvider refreshProvider) {
+    EventLogger eventLogger = new EventLogger("test", 16, Map.of(), 1.0);
+    service =
+        new RefreshingOAuth2AuthorizedClientService(
+            delegate,
+            (context) -> {
+              refreshed.add(context);
+              return refreshProvider.authorize(context);
+            },
+            eventLogger,
+            Set.of("github"),
+            REFRESH_AHEAD,
+            Duration.ofMillis(10),
+            Duration.ofMillis(10),
+            2,
+            Clock.systemUTC());
+    service.bindTo(registry);
+    service.start();
+  }
+
+  private long timerCount(String outcome) {
+    return registry.get("upstream.token.refresh").tag("outcome", outcome).timer().count();
+  }
+
+  private static OAuth2AuthorizedClient refresh(OAuth2AuthorizationContext context, String token) {
+    OAuth2AuthorizedClient client = context.getAuthorizedClient();
+    return new OAuth2AuthorizedClient(
+        client.getClientRegistration(),
+        client.getPrincipalName(),
+        new OAuth2AccessToken(
+            OAuth2AccessToken.TokenType.BEARER,
+            token,
+            Instant.now(),
+            Instant.now().plus(Duration.ofHours(8))),
+        client.getRefreshToken());
+  }
+
+  private static OAuth2AuthorizedClient client(
+      ClientRegistration registration, String token, Duration expiresIn) {
+    Instant now = Instant.now();
+    return new OAuth2AuthorizedClient(
+        registration,
+        "testuser",
+        new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, token, now, now.plus(expiresIn)),
+        new OAuth2RefreshToken("ghr_" + token, now));
+  }
+
+  private static ClientRegistration registration(String registrationId) {
+    return ClientRegistration.withRegistrationId(registrationId)
+        .clientId("client")
+        .clientSecret("secret")
+        .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+        .redirectUri("{baseUrl}/authorize/oauth2/code/{registrationId}")
+        .authorizationUri("https://github.com/login/oauth/authorize")
+        .tokenUri("https://github.com/login/oauth/access_token")
+        .build();
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.getAsBoolean()) {
+      assertThat(System.nanoTime()).as("timed out waiting").isLessThan(deadline);
+      Thread.sleep(10);
+    }
+  }
+}
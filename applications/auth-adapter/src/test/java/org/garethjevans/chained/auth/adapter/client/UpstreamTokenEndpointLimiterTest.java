@@ -0,0 +1,121 @@
+package org.garethjevans.chained.auth.adapter.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.client.endpoint.OAuth2AccessTokenResponseClient;
+import org.springframework.security.oauth2.client.endpoint.OAuth2RefreshTokenGrantRequest;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2AuthorizationException;
+import org.springframework.security.oauth2.core.OAuth2ErrorCodes;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AccessTokenResponse;
+
+class UpstreamTokenEndpointLimiterTest {
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final AtomicInteger concurrent = new AtomicInteger();
+  private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+  @AfterEach
+  void shutdown() {
+    release.countDown();
+    executor.shutdownNow();
+  }
+
+  @Test
+  void testCapsConcurrentRequestsAndQueuesTheRest() throws Exception {
+    UpstreamTokenEndpointLimiter limiter =
+        new UpstreamTokenEndpointLimiter(2, 10, Duration.ofSeconds(5));
+    OAuth2AccessTokenResponseClient<OAuth2RefreshTokenGrantRequest> client =
+        limiter.limit(this::blockingTokenResponse);
+
+    List<Future<OAuth2AccessTokenResponse>> responses = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      responses.add(executor.submit(() -> client.getTokenResponse(null)));
+    }
+    waitFor(() -> limiter.getActive() == 2 && limiter.getQueued() == 4);
+    release.countDown();
+
+    for (Future<OAuth2AccessTokenResponse> response : responses) {
+      assertThat(response.get(5, TimeUnit.SECONDS).getAccessToken().getTokenValue())
+          .isEqualTo("gho_refreshed");
+    }
+    assertThat(maxConcurrent).hasValue(2);
+    assertThat(limiter.getActive()).isZero();
+    assertThat(limiter.getQueued()).isZero();
+    assertThat(limiter.getRejected()).isZero();
+  }
+
+  @Test
+  void testRejectsRequestsBeyondQueue() throws Exception {
+    UpstreamTokenEndpointLimiter limiter =
+        new UpstreamTokenEndpointLimiter(1, 1, Duration.ofSeconds(5));
+    OAuth2AccessTokenResponseClient<OAuth2RefreshTokenGrantRequest> client =
+        limiter.limit(this::blockingTokenResponse);
+
+    executor.submit(() -> client.getTokenResponse(null));
+    executor.submit(() -> client.getTokenResponse(null));
+    waitFor(() -> limiter.getActive() == 1 && limiter.getQueued() == 1);
+
+    assertThatThrownBy(() -> client.getTokenResponse(null))
+        .isInstanceOfSatisfying(
+            OAuth2AuthorizationException.class,
+            (ex) ->
+                assertThat(ex.getError().getErrorCode())
+                    .isEqualTo(OAuth2ErrorCodes.TEMPORARILY_UNAVAILABLE));
+    assertThat(limiter.getRejected()).isEqualTo(1);
+  }
+
+  @Test
+  void testRejectsRequestThatWaitsTooLong() throws Exception {
+    UpstreamTokenEndpointLimiter limiter =
+        new UpstreamTokenEndpointLimiter(1, 10, Duration.ofMillis(50));
+    OAuth2AccessTokenResponseClient<OAuth2RefreshTokenGrantRequest> client =
+        limiter.limit(this::blockingTokenResponse);
+
+    executor.submit(() -> client.getTokenResponse(null));
+    waitFor(() -> limiter.getActive() == 1);
+
+    assertThatThrownBy(() -> client.getTokenResponse(null))
+        .isInstanceOf(OAuth2AuthorizationException.class);
+    assertThat(limiter.getQueued()).isZero();
+    assertThat(limiter.getRejected()).isEqualTo(1);
+  }
+
+  private OAuth2AccessTokenResponse blockingTokenResponse(OAuth2RefreshTokenGrantRequest request) {
+    maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+    try {
+      assertThat(release.await(5, TimeUnit.SECONDS)).isTrue();
+      return OAuth2AccessTokenResponse.withToken("gho_refreshed")
+          .tokenType(OAuth2AccessToken.TokenType.BEARER)
+          .build();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(ex);
+    } finally {
+      concurrent.decrementAndGet();
+    }
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.getAsBoolean()) {
+      assertThat(System.nanoTime()).as("timed out waiting").isLessThan(deadline);
+      Thread.sleep(10);
+    }
+  }
+}
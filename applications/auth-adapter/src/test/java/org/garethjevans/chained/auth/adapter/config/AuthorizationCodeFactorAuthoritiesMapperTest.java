@@ -0,0 +1,59 @@
+package org.garethjevans.chained.auth.adapter.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.FactorGrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.core.oidc.user.OidcUserAuthority;
+
+class AuthorizationCodeFactorAuthoritiesMapperTest {
+
+  private final AuthorizationCodeFactorAuthoritiesMapper mapper =
+      new AuthorizationCodeFactorAuthoritiesMapper();
+
+  @Test
+  void testOidcLoginGetsFactorTimedFromIdToken() {
+    Instant authenticatedAt = Instant.parse("2026-01-01T00:00:00Z");
+    OidcIdToken idToken =
+        new OidcIdToken(
+            "id-token",
+            authenticatedAt,
+            authenticatedAt.plusSeconds(600),
+            Map.of("sub", "testuser", "auth_time", authenticatedAt));
+    OidcUserAuthority oidcUser = new OidcUserAuthority(idToken);
+    SimpleGrantedAuthority scope = new SimpleGrantedAuthority("SCOPE_openid");
+
+    List<GrantedAuthority> mapped = List.copyOf(mapper.mapAuthorities(List.of(oidcUser, scope)));
+
+    assertThat(mapped).contains(oidcUser, scope);
+    assertThat(mapped)
+        .filteredOn(FactorGrantedAuthority.class::isInstance)
+        .singleElement()
+        .satisfies(
+            (authority) -> {
+              FactorGrantedAuthority factor = (FactorGrantedAuthority) authority;
+              assertThat(factor.getAuthority())
+                  .isEqualTo(FactorGrantedAuthority.AUTHORIZATION_CODE_AUTHORITY);
+              assertThat(factor.getIssuedAt()).isEqualTo(authenticatedAt);
+            });
+  }
+
+  @Test
+  void testLoginWithFactorIsLeftAlone() {
+    FactorGrantedAuthority factor =
+        FactorGrantedAuthority.withAuthority(FactorGrantedAuthority.AUTHORIZATION_CODE_AUTHORITY)
+            .issuedAt(Instant.parse("2026-01-01T00:00:00Z"))
+            .build();
+    SimpleGrantedAuthority user = new SimpleGrantedAuthority("OAUTH2_USER");
+
+    List<GrantedAuthority> mapped = List.copyOf(mapper.mapAuthorities(List.of(user, factor)));
+
+    assertThat(mapped).containsExactlyInAnyOrder(user, factor);
+  }
+}
@@ -0,0 +1,101 @@
+package org.garethjevans.chained.auth.adapter.keys;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.security.oauth2.jwt.BadJwtException;
+import org.springframework.security.oauth2.jwt.JwsHeader;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+
+class KeyRingJwtDecoderTest {
+
+  @TempDir private Path directory;
+
+  private SigningKeyRing keyRing;
+  private KeyRingJwtEncoder encoder;
+  private KeyRingJwtDecoder decoder;
+
+  @BeforeEach
+  void setUp() {
+    keyRing =
+        new SigningKeyRing(
+            directory.resolve("signing-keys.json"),
+            List.of(SigningAlgorithm.ES256, SigningAlgorithm.RS256, SigningAlgorithm.ED25519),
+            Duration.ofDays(30),
+            Duration.ofHours(1),
+            Duration.ofDays(1));
+    encoder = new KeyRingJwtEncoder(keyRing);
+    decoder = new KeyRingJwtDecoder(keyRing);
+  }
+
+  @Test
+  void testDecodesTokensOfEveryAlgorithm() {
+    for (SigningAlgorithm algorithm : SigningAlgorithm.values()) {
+      String token = encode(algorithm, "testuser");
+
+      Jwt jwt = decoder.decode(token);
+
+      assertThat(jwt.getSubject()).isEqualTo("testuser");
+      assertThat(jwt.getHeaders()).containsEntry("alg", algorithm.jwsAlgorithm().getName());
+    }
+  }
+
+  @Test
+  void testRejectsTokenSignedByAnotherRing() {
+    SigningKeyRing otherRing =
+        new SigningKeyRing(
+            directory.resolve("other-keys.json"),
+            List.of(SigningAlgorithm.ES256),
+            Duration.ofDays(30),
+            Duration.ofHours(1),
+            Duration.ofDays(1));
+    String token =
+        new KeyRingJwtEncoder(otherRing)
+            .encode(JwtEncoderParameters.from(claims("testuser")))
+            .getTokenValue();
+
+    assertThatThrownBy(() -> decoder.decode(token)).isInstanceOf(BadJwtException.class);
+  }
+
+  @Test
+  void testRejectsTokenWithAlgorithmOtherThanItsKey() {
+    String token = encode(SigningAlgorithm.ES256, "testuser");
+    String[] parts = token.split("\\.");
+    String kid = (String) decoder.decode(token).getHeaders().get("kid");
+    String header =
+        Base64.getUrlEncoder()
+            .withoutPadding()
+            .encodeToString(
+                ("{\"alg\":\"RS256\",\"kid\":\"" + kid + "\"}").getBytes(StandardCharsets.UTF_8));
+
+    assertThatThrownBy(() -> decoder.decode(header + "." + parts[1] + "." + parts[2]))
+        .isInstanceOf(BadJwtException.class);
+  }
+
+  private String encode(SigningAlgorithm algorithm, String subject) {
+    JwsHeader header = JwsHeader.with(KeyRingJwtEncoder.jwsAlgorithm(algorithm)).build();
+    return encoder.encode(JwtEncoderParameters.from(header, claims(subject))).getTokenValue();
+  }
+
+  private static JwtClaimsSet claims(String subject) {
+    Instant issuedAt = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+    return JwtClaimsSet.builder()
+        .issuer("http://127.0.0.1:9000")
+        .subject(subject)
+        .issuedAt(issuedAt)
+        .expiresAt(issuedAt.plusSeconds(300))
+        .build();
+  }
+}
@@ -0,0 +1,111 @@
+package org.garethjevans.chained.auth.adapter.keys;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jwt.SignedJWT;
+import java.nio.file.Path;
+import java.security.Signature;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import org.garethjevans.chained.auth.jose.Ed25519Keys;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.jwt.JwsHeader;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+
+class KeyRingJwtEncoderTest {
+
+  @TempDir private Path directory;
+
+  private SigningKeyRing keyRing;
+  private KeyRingJwtEncoder encoder;
+
+  @BeforeEach
+  void setUp() {
+    keyRing =
+        new SigningKeyRing(
+            directory.resolve("signing-keys.json"),
+            List.of(SigningAlgorithm.ES256, SigningAlgorithm.RS256, SigningAlgorithm.ED25519),
+            Duration.ofDays(30),
+            Duration.ofHours(1),
+            Duration.ofDays(1));
+    encoder = new KeyRingJwtEncoder(keyRing);
+  }
+
+  @Test
+  void testSignsWithRequestedAlgorithm() throws Exception {
+    Jwt jwt =
+        encoder.encode(
+            JwtEncoderParameters.from(JwsHeader.with(SignatureAlgorithm.RS256).build(), claims()));
+
+    SignedJWT signed = SignedJWT.parse(jwt.getTokenValue());
+    assertThat(signed.getHeader().getAlgorithm()).isEqualTo(JWSAlgorithm.RS256);
+    assertThat(signed.verify(new RSASSAVerifier(key(signed).toRSAKey()))).isTrue();
+    assertThat(jwt.getHeaders()).containsEntry("kid", signed.getHeader().getKeyID());
+  }
+
+  @Test
+  void testSignsWithDefaultAlgorithmWithoutHeader() throws Exception {
+    Jwt jwt = encoder.encode(JwtEncoderParameters.from(claims()));
+
+    SignedJWT signed = SignedJWT.parse(jwt.getTokenValue());
+    assertThat(signed.getHeader().getAlgorithm()).isEqualTo(JWSAlgorithm.ES256);
+    assertThat(signed.verify(new ECDSAVerifier(key(signed).toECKey()))).isTrue();
+    assertThat(signed.getJWTClaimsSet().getSubject()).isEqualTo("testuser");
+    assertThat(signed.getJWTClaimsSet().getAudience()).containsExactly("gateway");
+    assertThat(signed.getJWTClaimsSet().getExpirationTime().toInstant())
+        .isEqualTo(jwt.getExpiresAt());
+    assertThat(signed.getJWTClaimsSet().getStringListClaim("scope"))
+        .containsExactlyInAnyOrder("openid", "profile");
+  }
+
+  @Test
+  void testSignsWithEd25519() throws Exception {
+    Jwt jwt =
+        encoder.encode(
+            JwtEncoderParameters.from(
+                JwsHeader.with(KeyRingJwtEncoder.jwsAlgorithm(SigningAlgorithm.ED25519))
+                    .type("at+jwt")
+                    .build(),
+                claims()));
+
+    SignedJWT signed = SignedJWT.parse(jwt.getTokenValue());
+    assertThat(signed.getHeader().getAlgorithm()).isEqualTo(JWSAlgorithm.EdDSA);
+    assertThat(signed.getHeader().getType().getType()).isEqualTo("at+jwt");
+    Signature signature = Signature.getInstance("Ed25519");
+    signature.initVerify(Ed25519Keys.publicKey((OctetKeyPair) key(signed)));
+    signature.update(signed.getSigningInput());
+    assertThat(signature.verify(signed.getSignature().decode())).isTrue();
+  }
+
+  private JWK key(SignedJWT signed) {
+    return keyRing.keys().stream()
+        .filter((jwk) -> jwk.getKeyID().equals(signed.getHeader().getKeyID()))
+        .findFirst()
+        .get()
+        .toPublicJWK();
+  }
+
+  private static JwtClaimsSet claims() {
+    Instant issuedAt = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+    return JwtClaimsSet.builder()
+        .issuer("http://127.0.0.1:9000")
+        .subject("testuser")
+        .audience(List.of("gateway"))
+        .issuedAt(issuedAt)
+        .expiresAt(issuedAt.plusSeconds(300))
+        .claim("scope", List.of("openid", "profile"))
+        .build();
+  }
+}
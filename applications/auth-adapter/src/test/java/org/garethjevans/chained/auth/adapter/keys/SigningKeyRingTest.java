@@ -0,0 +1,171 @@
+package org.garethjevans.chained.auth.adapter.keys;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyOperation;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SigningKeyRingTest {
+
+  private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+
+  private static final Duration ROTATION_INTERVAL = Duration.ofDays(30);
+  private static final Duration PUBLISH_AHEAD = Duration.ofHours(1);
+  private static final Duration RETENTION = Duration.ofDays(1);
+
+  @TempDir private Path directory;
+
+  private final MutableClock clock = new MutableClock(NOW);
+
+  @Test
+  void testGeneratesKeysAndReloadsThemAfterRestart() throws Exception {
+    SigningKeyRing keyRing = open(SigningAlgorithm.ES256, SigningAlgorithm.RS256);
+
+    assertThat(keyRing.keys()).hasSize(2);
+    assertThat(keyRing.signingKey(null).algorithm()).isEqualTo(JWSAlgorithm.ES256);
+    assertThat(keyRing.signingKey(JWSAlgorithm.RS256).algorithm()).isEqualTo(JWSAlgorithm.RS256);
+    // An algorithm without a key falls back to the default
+    assertThat(keyRing.signingKey(JWSAlgorithm.EdDSA).algorithm()).isEqualTo(JWSAlgorithm.ES256);
+
+    SigningKeyRing reopened = open(SigningAlgorithm.ES256, SigningAlgorithm.RS256);
+
+    assertThat(kids(reopened)).isEqualTo(kids(keyRing));
+    assertThat(reopened.signingKey(null).keyId()).isEqualTo(keyRing.signingKey(null).keyId());
+    assertThat(reopened.rotate()).isFalse();
+  }
+
+  @Test
+  void testPublishesSuccessorBeforeItSigns() {
+    SigningKeyRing keyRing = open(SigningAlgorithm.ED25519);
+    String first = keyRing.signingKey(null).keyId();
+
+    clock.instant = NOW.plus(ROTATION_INTERVAL).minus(PUBLISH_AHEAD).minusSeconds(1);
+    assertThat(keyRing.rotate()).isFalse();
+
+    clock.instant = NOW.plus(ROTATION_INTERVAL).minus(PUBLISH_AHEAD);
+    assertThat(keyRing.rotate()).isTrue();
+    assertThat(keyRing.keys()).hasSize(2);
+    assertThat(keyRing.signingKey(null).keyId()).isEqualTo(first);
+
+    clock.instant = NOW.plus(ROTATION_INTERVAL);
+    keyRing.rotate();
+    String second = keyRing.signingKey(null).keyId();
+    assertThat(second).isNotEqualTo(first);
+    assertThat(keyRing.signingKey(JWSAlgorithm.EdDSA).algorithm()).isEqualTo(JWSAlgorithm.EdDSA);
+  }
+
+  @Test
+  void testKeepsReplacedKeyPublicOnlyUntilRetentionEnds() throws Exception {
+    SigningKeyRing keyRing = open(SigningAlgorithm.ES256);
+    String first = keyRing.signingKey(null).keyId();
+    clock.instant = NOW.plus(ROTATION_INTERVAL).minus(PUBLISH_AHEAD);
+    keyRing.rotate();
+    clock.instant = NOW.plus(ROTATION_INTERVAL);
+    keyRing.rotate();
+
+    JWK retired = key(keyRing, first);
+    assertThat(retired.isPrivate()).isFalse();
+    assertThat(retired.getKeyOperations()).containsOnly(KeyOperation.VERIFY);
+    assertThat(retired.getExpirationTime().toInstant())
+        .isEqualTo(NOW.plus(ROTATION_INTERVAL).plus(RETENTION));
+    // The saved ring holds no private part for it either
+    JWKSet saved = JWKSet.load(directory.resolve("signing-keys.json").toFile());
+    assertThat(saved.getKeyByKeyId(first).isPrivate()).isFalse();
+
+    clock.instant = NOW.plus(ROTATION_INTERVAL).plus(RETENTION);
+    keyRing.rotate();
+    assertThat(kids(keyRing)).doesNotContain(first).hasSize(1);
+  }
+
+  @Test
+  void testRetiresKeysOfAlgorithmsNoLongerConfigured() {
+    SigningKeyRing keyRing = open(SigningAlgorithm.RS256);
+    String rsa = keyRing.signingKey(null).keyId();
+
+    SigningKeyRing reopened = open(SigningAlgorithm.ES256);
+
+    assertThat(reopened.signingKey(null).algorithm()).isEqualTo(JWSAlgorithm.ES256);
+    assertThat(reopened.signingKey(JWSAlgorithm.RS256).algorithm()).isEqualTo(JWSAlgorithm.ES256);
+    assertThat(key(reopened, rsa).isPrivate()).isFalse();
+  }
+
+  @Test
+  void testSavesKeysReadableOnlyByOwner() throws Exception {
+    open(SigningAlgorithm.ES256);
+
+    Path path = directory.resolve("signing-keys.json");
+    assertThat(Files.getPosixFilePermissions(path))
+        .containsExactlyInAnyOrderElementsOf(PosixFilePermissions.fromString("rw-------"));
+  }
+
+  @Test
+  void testInstancesSharingFileRotateItOnce() {
+    SigningKeyRing rotating = open(SigningAlgorithm.ES256);
+    SigningKeyRing other = open(SigningAlgorithm.ES256);
+    assertThat(kids(other)).isEqualTo(kids(rotating));
+
+    clock.instant = NOW.plus(ROTATION_INTERVAL).minus(PUBLISH_AHEAD);
+    assertThat(rotating.rotate()).isTrue();
+    // Picks up the successor rather than generating its own
+    assertThat(other.rotate()).isTrue();
+    assertThat(kids(other)).isEqualTo(kids(rotating)).hasSize(2);
+
+    clock.instant = NOW.plus(ROTATION_INTERVAL);
+    assertThat(other.signingKey(null).keyId()).isEqualTo(rotating.signingKey(null).keyId());
+  }
+
+  private SigningKeyRing open(SigningAlgorithm... algorithms) {
+    return new SigningKeyRing(
+        directory.resolve("signing-keys.json"),
+        List.of(algorithms),
+        ROTATION_INTERVAL,
+        PUBLISH_AHEAD,
+        RETENTION,
+        clock);
+  }
+
+  private static List<String> kids(SigningKeyRing keyRing) {
+    return keyRing.keys().stream().map(JWK::getKeyID).toList();
+  }
+
+  private static JWK key(SigningKeyRing keyRing, String kid) {
+    return keyRing.keys().stream().filter((jwk) -> kid.equals(jwk.getKeyID())).findFirst().get();
+  }
+
+  private static final class MutableClock extends Clock {
+
+    private volatile Instant instant;
+
+    private MutableClock(Instant instant) {
+      this.instant = instant;
+    }
+
+    @Override
+    public Instant instant() {
+      return instant;
+    }
+
+    @Override
+    public ZoneOffset getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package org.garethjevans.chained.auth.adapter.logging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.garethjevans.chained.auth.logging.EventLogger;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+
+class AccessLogFilterTest {
+
+  private final List<Object[]> events = new CopyOnWriteArrayList<>();
+
+  private final EventLogger eventLogger =
+      new EventLogger("test", 16, Map.of(), 1.0) {
+        @Override
+        public void log(String category, Object... fields) {
+          assertThat(category).isEqualTo(AccessLogFilter.CATEGORY);
+          events.add(fields);
+        }
+      };
+
+  @Test
+  void testFilterLogsRequestWithoutQueryString() throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/login/oauth2/code/github");
+    request.setQueryString("code=secret&state=xyz");
+    request.setRemoteAddr("192.0.2.10");
+    request.setUserPrincipal(new TestingAuthenticationToken("octocat", null));
+    MockHttpServletResponse response = new MockHttpServletResponse();
+
+    new AccessLogFilter(eventLogger)
+        .doFilter(
+            request,
+            response,
+            new MockFilterChain() {
+              @Override
+              public void doFilter(ServletRequest req, ServletResponse res) {
+                ((MockHttpServletResponse) res).setStatus(302);
+              }
+            });
+
+    assertThat(events).hasSize(1);
+    assertThat(events.getFirst())
+        .containsSubsequence("method", "GET")
+        .containsSubsequence("path", "/login/oauth2/code/github")
+        .containsSubsequence("status", 302)
+        .containsSubsequence("client", "192.0.2.10")
+        .containsSubsequence("principal", "octocat")
+        .doesNotContain("code=secret&state=xyz");
+  }
+
+  @Test
+  void testFilterLogsRequestThatFailed() {
+    MockHttpServletRequest request = new MockHttpServletRequest("POST", "/oauth2/token");
+
+    assertThatExceptionOfType(ServletException.class)
+        .isThrownBy(
+            () ->
+                new AccessLogFilter(eventLogger)
+                    .doFilter(
+                        request,
+                        new MockHttpServletResponse(),
+                        new MockFilterChain() {
+                          @Override
+                          public void doFilter(ServletRequest req, ServletResponse res)
+                              throws ServletException {
+                            throw new ServletException("failed");
+                          }
+                        }));
+
+    assertThat(events).hasSize(1);
+    assertThat(events.getFirst())
+        .containsSubsequence("method", "POST")
+        .containsSubsequence("path", "/oauth2/token")
+        .containsSubsequence("principal", null);
+  }
+}
@@ -0,0 +1,355 @@
+package org.garethjevans.chained.auth.adapter.registration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.garethjevans.chained.auth.adapter.registration.PersistentRegisteredClientRepository.Entry;
+import org.garethjevans.chained.auth.adapter.storage.SharedLock;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.ClientAuthenticationMethod;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+
+class PersistentRegisteredClientRepositoryTest {
+
+  private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+
+  private static final Duration ABANDONED_AFTER = Duration.ofDays(30);
+
+  private static final RegisteredClient CONFIGURED =
+      RegisteredClient.withId("client")
+          .clientId("client")
+          .clientSecret("{noop}secret")
+          .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+          .redirectUri("http://127.0.0.1:8080/login/oauth2/code/auth-adapter")
+          .build();
+
+  @TempDir private Path directory;
+
+  private final MutableClock clock = new MutableClock(NOW);
+
+  @Test
+  void testRestoresRegisteredClientsAfterRestart() throws Exception {
+    RegisteredClient cursor = registered("1", "cursor");
+    try (PersistentRegisteredClientRepository repository = open(100)) {
+      repository.save(cursor);
+      repository.save(registered("2", "claude"));
+      assertThat(repository.findByClientId("cursor")).isEqualTo(cursor);
+    }
+
+    try (PersistentRegisteredClientRepository repository = open(100)) {
+      assertThat(repository.size()).isEqualTo(2);
+      assertThat(repository.findById("1")).isEqualTo(cursor);
+      assertThat(repository.findByClientId("claude").getId()).isEqualTo("2");
+      assertThat(repository.findByClientId("client")).isEqualTo(CONFIGURED);
+      assertThat(repository.findByClientId("unknown")).isNull();
+    }
+    assertThat(Files.getPosixFilePermissions(directory.resolve("clients.log")))
+        .containsExactlyInAnyOrderElementsOf(PosixFilePermissions.fromString("rw-------"));
+  }
+
+  @Test
+  void testReadsClientsThatAreNotCachedFromTheLog() throws Exception {
+    try (PersistentRegisteredClientRepository repository = open(1)) {
+      for (int i = 0; i < 50; i++) {
+        repository.save(registered(String.valueOf(i), "client-" + i));
+      }
+
+      for (int i = 0; i < 50; i++) {
+        assertThat(repository.findByClientId("client-" + i).getId()).isEqualTo(String.valueOf(i));
+        assertThat(repository.findById(String.valueOf(i)).getClientId()).isEqualTo("client-" + i);
+      }
+    }
+  }
+
+  @Test
+  void testSavingClientAgainReplacesIt() throws Exception {
+    try (PersistentRegisteredClientRepository repository = open(100)) {
+      repository.save(registered("1", "cursor"));
+      repository.save(
+          RegisteredClient.from(registered("1", "renamed")).clientName("Cursor").build());
+
+      assertThat(repository.findByClientId("cursor")).isNull();
+      assertThat(repository.findById("1").getClientName()).isEqualTo("Cursor");
+    }
+
+    try (PersistentRegisteredClientRepository repository = open(100)) {
+      assertThat(repository.size()).isEqualTo(1);
+      assertThat(repository.findByClientId("renamed").getClientName()).isEqualTo("Cursor");
+    }
+  }
+
+  @Test
+  void testRejectsClientIdOfAnotherClient() throws Exception {
+    try (PersistentRegisteredClientRepository repository = open(100)) {
+      repository.save(registered("1", "cursor"));
+
+      assertThatIllegalArgumentException()
+          .isThrownBy(() -> repository.save(registered("2", "cursor")));
+      assertThatIllegalArgumentException()
+          .isThrownBy(() -> repository.save(registered("2", "client")));
+      assertThatIllegalArgumentException()
+          .isThrownBy(
+              () -> repository.save(RegisteredClient.from(CONFIGURED).clientId("other").build()));
+    }
+  }
+
+  @Test
+  void testSavingConfiguredClientOnlyChangesItInMemory() throws Exception {
+    try (PersistentRegisteredClientRepository repository = open(100)) {
+      // As the token endpoint does when it upgrades how the secret is encoded
+      repository.save(RegisteredClient.from(CONFIGURED).clientSecret("{bcrypt}upgraded").build());
+
+      assertThat(repository.findByClientId("client").getClientSecret())
+          .isEqualTo("{bcrypt}upgraded");
+      assertThat(repository.size()).isZero();
+    }
+
+    try (PersistentRegisteredClientRepository repository = open(100)) {
+      assertThat(repository.findById("client")).isEqualTo(CONFIGURED);
+    }
+  }
+
+  @Test
+  void testRemovedClientIsNotRestored() throws Exception {
+    try (PersistentRegisteredClientRepository repository = open(100)) {
+      repository.save(registered("1", "cursor"));
+      repository.save(registered("2", "claude"));
+      assertThat(repository.remove("1")).isTrue();
+      assertThat(repository.findByClientId("cursor")).isNull();
+    }
+
+    try (PersistentRegisteredClientRepository repository = open(100)) {
+      assertThat(repository.findById("1")).isNull();
+      assertThat(repository.findById("2")).isNotNull();
+    }
+  }
+
+  @Test
+  void testRemovesClientsNotUsedForAbandonedAfter() throws Exception {
+    try (PersistentRegisteredClientRepository repository = open(100)) {
+      repository.save(registered("1", "cursor"));
+      repository.save(registered("2", "claude"));
+
+      clock.instant = NOW.plus(ABANDONED_AFTER).minusSeconds(1);
+      repository.findByClientId("claude");
+      assertThat(repository.removeAbandoned()).isZero();
+
+      clock.instant = NOW.plus(ABANDONED_AFTER);
+      assertThat(repository.removeAbandoned()).isEqualTo(1);
+      assertThat(repository.findByClientId("cursor")).isNull();
+      assertThat(repository.findByClientId("claude")).isNotNull();
+      // Configured clients never expire
+      assertThat(repository.findByClientId("client")).isNotNull();
+    }
+
+    // When the client was last used is restored too
+    clock.instant = NOW.plus(ABANDONED_AFTER).plus(ABANDONED_AFTER).minusSeconds(2);
+    try (PersistentRegisteredClientRepository repository = open(100)) {
+      assertThat(repository.size()).isEqualTo(1);
+      assertThat(repository.findById("2")).isNotNull();
+    }
+  }
+
+  @Test
+  void testAbandonedClientsAreNotRestored() throws Exception {
+    try (PersistentRegisteredClientRepository repository = open(100)) {
+      repository.save(registered("1", "cursor"));
+    }
+
+    clock.instant = NOW.plus(ABANDONED_AFTER);
+    try (PersistentRegisteredClientRepository repository = open(100)) {
+      assertThat(repository.size()).isZero();
+      assertThat(repository.findByClientId("cursor")).isNull();
+    }
+  }
+
+  @Test
+  void testTornRecordIsDiscarded() throws Exception {
+    Path log = directory.resolve("clients.log");
+    try (PersistentRegisteredClientRepository repository = open(100)) {
+      repository.save(registered("1", "cursor"));
+    }
+    // A record cut short by a crash
+    Files.write(log, new byte[] {0, 0, 1, 0, 42, 42}, StandardOpenOption.APPEND);
+
+    try (PersistentRegisteredClientRepository repository = open(100)) {
+      assertThat(repository.findByClientId("cursor")).isNotNull();
+      repository.save(registered("2", "claude"));
+    }
+
+    try (PersistentRegisteredClientRepository repository = open(100)) {
+      assertThat(repository.size()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  void testCompactionKeepsOnlyLatestRecords() throws Exception {
+    Path path = directory.resolve("clients.log");
+    try (RegisteredClientLog log = new RegisteredClientLog(path)) {
+      log.replay();
+      RegisteredClient client = registered("1", "cursor");
+      long offset = 0;
+      for (int i = 0; i < 100; i++) {
+        offset = log.saved(client, NOW.toEpochMilli());
+      }
+      log.removed("2");
+      Entry entry = new Entry("1", "cursor", offset, NOW.plusSeconds(60).toEpochMilli());
+      long before = log.size();
+
+      log.compact(List.of(entry));
+
+      assertThat(log.records()).isEqualTo(1);
+      assertThat(log.size()).isLessThan(before / 50);
+      assertThat(log.read(entry)).isEqualTo(client);
+    }
+
+    try (RegisteredClientLog log = new RegisteredClientLog(path)) {
+      Map<String, Entry> replayed = log.replay();
+      assertThat(replayed).containsOnlyKeys("1");
+      assertThat(replayed.get("1").usedAt).isEqualTo(NOW.plusSeconds(60).toEpochMilli());
+      assertThat(log.read(replayed.get("1")).getClientId()).isEqualTo("cursor");
+    }
+  }
+
+  @Test
+  void testSharedLogShowsEachInstanceTheClientsOthersRegistered() throws Exception {
+    RegisteredClient cursor = registered("1", "cursor");
+    try (PersistentRegisteredClientRepository registering = open(100, true);
+        PersistentRegisteredClientRepository other = open(100, true)) {
+      registering.save(cursor);
+
+      assertThat(other.findByClientId("cursor")).isEqualTo(cursor);
+      assertThat(other.findById("1")).isEqualTo(cursor);
+      other.save(registered("2", "claude"));
+      assertThatIllegalArgumentException()
+          .isThrownBy(() -> registering.save(registered("3", "claude")));
+
+      other.remove("1");
+      assertThat(registering.findByClientId("cursor")).isNull();
+      assertThat(registering.size()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  void testSharedLogCompactedByOneInstanceMovesTheOthersToIt() throws Exception {
+    Path path = directory.resolve("clients.log");
+    RegisteredClient client = registered("1", "cursor");
+    try (SharedLock lock = SharedLock.open(path);
+        RegisteredClientLog compacting = new RegisteredClientLog(path, lock);
+        RegisteredClientLog other = new RegisteredClientLog(path, lock)) {
+      lock.lock();
+      try {
+        compacting.replay();
+        other.replay();
+        long offset = 0;
+        for (int i = 0; i < 10; i++) {
+          offset = compacting.saved(client, NOW.toEpochMilli());
+        }
+        Map<String, Entry> held = new LinkedHashMap<>();
+        other.catchUp(held, changes(held, new ArrayList<>()));
+        assertThat(held).containsOnlyKeys("1");
+        assertThat(held.get("1").offset).isEqualTo(offset);
+        assertThat(other.behind()).isFalse();
+
+        compacting.compact(List.of(new Entry("1", "cursor", offset, NOW.toEpochMilli())));
+
+        List<String> removed = new ArrayList<>();
+        Entry entry = held.get("1");
+        assertThat(other.behind()).isTrue();
+        other.catchUp(held, changes(held, removed));
+        assertThat(entry.offset).isLessThan(offset);
+        assertThat(other.read(entry)).isEqualTo(client);
+        assertThat(removed).isEmpty();
+        assertThat(other.behind()).isFalse();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private PersistentRegisteredClientRepository open(long cacheSize) {
+    return open(cacheSize, false);
+  }
+
+  private PersistentRegisteredClientRepository open(long cacheSize, boolean shared) {
+    return new PersistentRegisteredClientRepository(
+        directory.resolve("clients.log"),
+        shared,
+        List.of(CONFIGURED),
+        cacheSize,
+        ABANDONED_AFTER,
+        Duration.ofSeconds(1),
+        Duration.ofMinutes(5),
+        clock);
+  }
+
+  // Applies changes read from the log to held, collecting the ids of removed clients
+  private static RegisteredClientLog.Changes changes(
+      Map<String, Entry> held, List<String> removed) {
+    return new RegisteredClientLog.Changes() {
+      @Override
+      public void saved(Entry entry) {
+        held.put(entry.id, entry);
+      }
+
+      @Override
+      public void used(String id, long usedAt) {}
+
+      @Override
+      public void removed(String id) {
+        held.remove(id);
+        removed.add(id);
+      }
+    };
+  }
+
+  private static RegisteredClient registered(String id, String clientId) {
+    return RegisteredClient.withId(id)
+        .clientId(clientId)
+        .clientIdIssuedAt(NOW)
+        .clientAuthenticationMethod(ClientAuthenticationMethod.NONE)
+        .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+        .redirectUri("cursor://anysphere.cursor-mcp/oauth/callback")
+        .scope("openid")
+        .build();
+  }
+
+  private static final class MutableClock extends Clock {
+
+    private volatile Instant instant;
+
+    private MutableClock(Instant instant) {
+      this.instant = instant;
+    }
+
+    @Override
+    public Instant instant() {
+      return instant;
+    }
+
+    @Override
+    public ZoneOffset getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+  }
+}
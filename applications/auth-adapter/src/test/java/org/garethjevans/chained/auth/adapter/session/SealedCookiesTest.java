@@ -0,0 +1,174 @@
+package org.garethjevans.chained.auth.adapter.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import jakarta.servlet.http.Cookie;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+class SealedCookiesTest {
+
+  private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+  private static final Duration MAX_AGE = Duration.ofMinutes(10);
+  private static final String NAME = "SEALED";
+
+  private final MutableClock clock = new MutableClock(NOW);
+
+  @Test
+  void testReadsWhatItWrote() {
+    SealedCookies cookies = new SealedCookies(List.of(key(1)), clock);
+
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    cookies.write(new MockHttpServletRequest(), response, NAME, "/oauth2/authorize?a=b", MAX_AGE);
+
+    Cookie cookie = response.getCookie(NAME);
+    assertThat(cookie).isNotNull();
+    assertThat(cookie.isHttpOnly()).isTrue();
+    assertThat(cookie.getMaxAge()).isEqualTo((int) MAX_AGE.toSeconds());
+    assertThat(cookie.getValue()).doesNotContain("oauth2");
+    MockHttpServletRequest request = carrying(response);
+    assertThat(cookies.contains(request, NAME)).isTrue();
+    assertThat(cookies.read(request, NAME, String.class)).isEqualTo("/oauth2/authorize?a=b");
+    // Not a value of the requested type
+    assertThat(cookies.read(request, NAME, Integer.class)).isNull();
+  }
+
+  @Test
+  void testIgnoresTamperedValues() {
+    SealedCookies cookies = new SealedCookies(List.of(key(1)), clock);
+    String sealed = cookies.seal(NAME, new byte[] {1, 2, 3}, MAX_AGE);
+
+    char[] tampered = sealed.toCharArray();
+    int last = tampered.length - 1;
+    tampered[last] = tampered[last] == 'A' ? 'B' : 'A';
+
+    assertThat(cookies.open(NAME, sealed)).containsExactly(1, 2, 3);
+    assertThat(cookies.open(NAME, new String(tampered))).isNull();
+    assertThat(cookies.open(NAME, "not base64!")).isNull();
+    assertThat(cookies.open(NAME, "")).isNull();
+  }
+
+  @Test
+  void testIgnoresValuesMovedToAnotherCookie() {
+    SealedCookies cookies = new SealedCookies(List.of(key(1)), clock);
+    String sealed = cookies.seal(NAME, new byte[] {1, 2, 3}, MAX_AGE);
+
+    assertThat(cookies.open("OTHER", sealed)).isNull();
+  }
+
+  @Test
+  void testIgnoresExpiredValues() {
+    SealedCookies cookies = new SealedCookies(List.of(key(1)), clock);
+    String sealed = cookies.seal(NAME, new byte[] {1, 2, 3}, MAX_AGE);
+
+    clock.instant = NOW.plus(MAX_AGE).minusSeconds(1);
+    assertThat(cookies.open(NAME, sealed)).isNotNull();
+
+    clock.instant = NOW.plus(MAX_AGE);
+    assertThat(cookies.open(NAME, sealed)).isNull();
+  }
+
+  @Test
+  void testOpensValuesSealedWithAnyKey() {
+    SealedCookies old = new SealedCookies(List.of(key(1)), clock);
+    SealedCookies rotated = new SealedCookies(List.of(key(2), key(1)), clock);
+    SealedCookies other = new SealedCookies(List.of(key(3)), clock);
+    String sealedWithOld = old.seal(NAME, new byte[] {1}, MAX_AGE);
+    String sealedWithNew = rotated.seal(NAME, new byte[] {2}, MAX_AGE);
+
+    assertThat(rotated.open(NAME, sealedWithOld)).containsExactly(1);
+    assertThat(rotated.open(NAME, sealedWithNew)).containsExactly(2);
+    // An instance without the new key yet cannot read what is sealed with it
+    assertThat(old.open(NAME, sealedWithNew)).isNull();
+    assertThat(other.open(NAME, sealedWithOld)).isNull();
+  }
+
+  @Test
+  void testSplitsLongValuesAndDropsChunksLeftOver() {
+    SealedCookies cookies = new SealedCookies(List.of(key(1)), clock);
+    // Random bytes do not deflate, so the value needs several cookies
+    byte[] large = new byte[3 * SealedCookies.MAX_VALUE_LENGTH];
+    new Random(42).nextBytes(large);
+
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    cookies.write(new MockHttpServletRequest(), response, NAME, large, MAX_AGE);
+
+    assertThat(response.getCookies()).hasSizeGreaterThan(3);
+    assertThat(response.getCookies())
+        .allSatisfy(
+            (cookie) ->
+                assertThat(cookie.getValue().length())
+                    .isLessThanOrEqualTo(SealedCookies.MAX_VALUE_LENGTH));
+    MockHttpServletRequest request = carrying(response);
+    assertThat(cookies.read(request, NAME, byte[].class)).isEqualTo(large);
+
+    MockHttpServletResponse shorter = new MockHttpServletResponse();
+    cookies.write(request, shorter, NAME, "short", MAX_AGE);
+
+    assertThat(shorter.getCookie(NAME).getMaxAge()).isPositive();
+    assertThat(Arrays.stream(shorter.getCookies()).skip(1))
+        .isNotEmpty()
+        .allSatisfy((cookie) -> assertThat(cookie.getMaxAge()).isZero());
+    assertThat(cookies.read(carrying(shorter), NAME, String.class)).isEqualTo("short");
+
+    MockHttpServletResponse deleted = new MockHttpServletResponse();
+    cookies.delete(request, deleted, NAME);
+
+    assertThat(deleted.getCookies())
+        .hasSameSizeAs(response.getCookies())
+        .allSatisfy((cookie) -> assertThat(cookie.getMaxAge()).isZero());
+  }
+
+  // The request a browser sends after receiving the response
+  private static MockHttpServletRequest carrying(MockHttpServletResponse response) {
+    List<Cookie> kept = new ArrayList<>();
+    for (Cookie cookie : response.getCookies()) {
+      if (cookie.getMaxAge() != 0) {
+        kept.add(cookie);
+      }
+    }
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setCookies(kept.toArray(new Cookie[0]));
+    return request;
+  }
+
+  private static byte[] key(int seed) {
+    byte[] key = new byte[32];
+    new Random(seed).nextBytes(key);
+    return key;
+  }
+
+  private static final class MutableClock extends Clock {
+
+    private volatile Instant instant;
+
+    private MutableClock(Instant instant) {
+      this.instant = instant;
+    }
+
+    @Override
+    public Instant instant() {
+      return instant;
+    }
+
+    @Override
+    public ZoneOffset getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package org.garethjevans.chained.auth.adapter.storage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RecordFilesTest {
+
+  private static final byte[] MAGIC = "TESTLOG1".getBytes(StandardCharsets.US_ASCII);
+
+  @TempDir private Path directory;
+
+  @Test
+  void testScansRecordsUpToTornRecord() throws IOException {
+    Path path = directory.resolve("logs").resolve("test.log");
+    try (FileChannel channel = RecordFiles.open(path, MAGIC, "a test log")) {
+      long first = append(channel, "first");
+      long second = append(channel, "second");
+      long torn = append(channel, "torn");
+      // Corrupt the last byte of the torn record's body
+      channel.write(ByteBuffer.wrap(new byte[] {0}), channel.size() - 1);
+
+      List<Long> offsets = new ArrayList<>();
+      List<String> bodies = new ArrayList<>();
+      RecordFiles.Scan scan =
+          RecordFiles.scan(
+              channel,
+              MAGIC.length,
+              channel.size(),
+              1024,
+              (offset, record) -> {
+                offsets.add(offset);
+                bodies.add(RecordFiles.string(RecordFiles.body(record)));
+              });
+
+      assertThat(offsets).containsExactly(first, second);
+      assertThat(bodies).containsExactly("first", "second");
+      assertThat(scan.records()).isEqualTo(2);
+      assertThat(scan.end()).isEqualTo(torn);
+      assertThat(scan.torn()).isTrue();
+    }
+  }
+
+  @Test
+  void testScanStopsQuietlyAtZeroedEnd() throws IOException {
+    try (FileChannel channel =
+        RecordFiles.open(directory.resolve("test.log"), MAGIC, "a test log")) {
+      append(channel, "first");
+      long end = channel.size();
+      channel.write(ByteBuffer.allocate(64), end);
+
+      RecordFiles.Scan scan =
+          RecordFiles.scan(channel, MAGIC.length, channel.size(), 1024, (offset, record) -> {});
+
+      assertThat(scan.records()).isEqualTo(1);
+      assertThat(scan.end()).isEqualTo(end);
+      assertThat(scan.torn()).isFalse();
+    }
+  }
+
+  @Test
+  void testRejectsFileWithOtherMagicNumber() throws IOException {
+    Path path = directory.resolve("other.log");
+    Files.write(path, "OTHERLOG".getBytes(StandardCharsets.US_ASCII));
+
+    assertThatThrownBy(() -> RecordFiles.open(path, MAGIC, "a test log"))
+        .isInstanceOf(IOException.class)
+        .hasMessageEndingWith("is not a test log");
+  }
+
+  @Test
+  void testMoveReplacesLog() throws IOException {
+    Path path = directory.resolve("test.log");
+    Path compacted = directory.resolve("test.log.compact");
+    try (FileChannel channel = RecordFiles.open(path, MAGIC, "a test log")) {
+      append(channel, "stale");
+    }
+    RecordFiles.create(compacted, MAGIC);
+
+    RecordFiles.move(compacted, path);
+
+    assertThat(compacted).doesNotExist();
+    assertThat(Files.readAllBytes(path)).isEqualTo(MAGIC);
+  }
+
+  private static long append(FileChannel channel, String value) throws IOException {
+    byte[] bytes = RecordFiles.utf8(value);
+    ByteBuffer body = ByteBuffer.allocate(Short.BYTES + bytes.length);
+    body.putShort((short) bytes.length).put(bytes).flip();
+    ByteBuffer record =
+        RecordFiles.putRecord(ByteBuffer.allocate(RecordFiles.HEADER_SIZE + body.remaining()), body)
+            .flip();
+    long offset = channel.size();
+    channel.position(offset);
+    RecordFiles.writeFully(channel, record);
+    return offset;
+  }
+}
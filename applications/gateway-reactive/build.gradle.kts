@@ -0,0 +1,31 @@
+plugins {
+    id("java.conventions")
+    alias(libs.plugins.spring.boot)
+}
+
+dependencies {
+    // Token swap cache, claims extraction and metrics shared with the servlet gateway
+    implementation(project(":libraries:gateway-core"))
+
+    // Spring Cloud Gateway on WebFlux and Reactor Netty
+    implementation(libs.spring.cloud.gateway.webflux)
+
+    // Spring Boot Actuator
+    implementation(libs.spring.boot.starter.actuator)
+    runtimeOnly(libs.micrometer.registry.prometheus)
+
+    // Jackson for JSON serialization
+    implementation("com.fasterxml.jackson.core:jackson-databind")
+
+    // Caching
+    implementation(libs.caffeine)
+
+    // Testing
+    testImplementation(libs.spring.boot.starter.test)
+    testImplementation(testFixtures(project(":libraries:gateway-core")))
+    testImplementation("com.nimbusds:nimbus-jose-jwt:10.9")
+}
+
+tasks.named<org.springframework.boot.gradle.tasks.bundling.BootJar>("bootJar") {
+    archiveFileName.set("gateway-reactive.jar")
+}
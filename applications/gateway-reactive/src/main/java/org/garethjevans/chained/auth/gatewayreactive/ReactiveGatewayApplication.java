@@ -0,0 +1,12 @@
+package org.garethjevans.chained.auth.gatewayreactive;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+@SpringBootApplication
+public class ReactiveGatewayApplication {
+
+  public static void main(String[] args) {
+    SpringApplication.run(ReactiveGatewayApplication.class, args);
+  }
+}
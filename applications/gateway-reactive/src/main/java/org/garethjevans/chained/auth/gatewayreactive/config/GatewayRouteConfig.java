@@ -0,0 +1,69 @@
+package org.garethjevans.chained.auth.gatewayreactive.config;
+
+import static org.garethjevans.chained.auth.gatewayreactive.filter.AuthenticationRequiredFilter.requireAuthentication;
+import static org.garethjevans.chained.auth.gatewayreactive.filter.JwtTokenModifierFilter.modifyBearerToken;
+import static org.garethjevans.chained.auth.gatewayreactive.filter.ProtectedResourceMetadataFilter.serveProtectedResourceMetadata;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.net.URI;
+import org.garethjevans.chained.auth.gateway.core.config.TokenCacheProperties;
+import org.garethjevans.chained.auth.gateway.core.metrics.GatewayMetrics;
+import org.garethjevans.chained.auth.gateway.core.token.TokenSwapCache;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.gateway.route.RouteLocator;
+import org.springframework.cloud.gateway.route.builder.RouteLocatorBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configuration for the reactive gateway routes. Settings are bound to {@link
+ * ReactiveGatewayProperties}, from the same {@code gateway} block the servlet gateway reads.
+ *
+ * <p>Only the authentication challenge, the protected resource metadata and the bearer-token swap
+ * are ported; requests are forwarded to the first of the route's configured instances.
+ */
+@Configuration
+@EnableConfigurationProperties(ReactiveGatewayProperties.class)
+public class GatewayRouteConfig {
+
+  private static final String GITHUB_MCP_SERVER_ROUTE = "github-mcp-server";
+
+  @Bean
+  public TokenSwapCache tokenSwapCache(ReactiveGatewayProperties properties) {
+    TokenCacheProperties tokenCache = properties.getTokenCache();
+    return new TokenSwapCache(tokenCache.getMaximumSize(), tokenCache.getDefaultTimeToLive());
+  }
+
+  @Bean
+  public GatewayMetrics gatewayMetrics(MeterRegistry meterRegistry) {
+    return new GatewayMetrics(meterRegistry);
+  }
+
+  @Bean
+  public RouteLocator gatewayRoutes(
+      RouteLocatorBuilder builder,
+      TokenSwapCache tokenSwapCache,
+      GatewayMetrics gatewayMetrics,
+      ReactiveGatewayProperties properties) {
+    URI upstream = properties.getUpstream(GITHUB_MCP_SERVER_ROUTE).getInstances().getFirst();
+    return builder
+        .routes()
+        // Answered by the filter, so the route has no backend
+        .route(
+            "protected-resource-metadata",
+            r ->
+                r.path("/.well-known/oauth-protected-resource")
+                    .filters(f -> f.filter(serveProtectedResourceMetadata()))
+                    .uri("no://op"))
+        .route(
+            GITHUB_MCP_SERVER_ROUTE,
+            r ->
+                r.path("/mcp", "/mcp/**")
+                    .filters(
+                        f ->
+                            f.filter(requireAuthentication(gatewayMetrics))
+                                .filter(modifyBearerToken(tokenSwapCache, gatewayMetrics)))
+                    .uri(upstream))
+        .build();
+  }
+}
@@ -0,0 +1,56 @@
+package org.garethjevans.chained.auth.gatewayreactive.config;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.garethjevans.chained.auth.gateway.core.config.TokenCacheProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for the reactive gateway, bound from the same {@code gateway} prefix as
+ * the servlet gateway. Only the settings of the stages the reactive variant implements are read;
+ * the servlet gateway's retry, circuit breaker, rate and concurrency limit settings are ignored.
+ */
+@ConfigurationProperties(prefix = "gateway")
+public class ReactiveGatewayProperties {
+
+  private final TokenCacheProperties tokenCache = new TokenCacheProperties();
+
+  /** Upstream backends, keyed by route id. */
+  private final Map<String, Upstream> upstreams = new LinkedHashMap<>();
+
+  public TokenCacheProperties getTokenCache() {
+    return tokenCache;
+  }
+
+  public Map<String, Upstream> getUpstreams() {
+    return upstreams;
+  }
+
+  /**
+   * Returns the upstream settings for the given route, falling back to the defaults when the route
+   * has none configured.
+   *
+   * @param routeId the route id
+   * @return the upstream settings for the route
+   */
+  public Upstream getUpstream(String routeId) {
+    return upstreams.getOrDefault(routeId, new Upstream());
+  }
+
+  /** Backend of a route. */
+  public static class Upstream {
+
+    /** Instances of the backend; requests are forwarded to the first. */
+    private List<URI> instances = List.of(URI.create("http://localhost:8084"));
+
+    public List<URI> getInstances() {
+      return instances;
+    }
+
+    public void setInstances(List<URI> instances) {
+      this.instances = instances;
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package org.garethjevans.chained.auth.gatewayreactive.filter;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.net.URI;
+import org.garethjevans.chained.auth.gateway.core.metrics.GatewayMetrics;
+import org.garethjevans.chained.auth.gateway.core.metrics.GatewayMetrics.AuthenticationOutcome;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reactive port of the servlet gateway's {@code AuthenticationRequiredFilter}. Returns a 401
+ * Unauthorized response with a WWW-Authenticate header when no Authorization header is present in
+ * the incoming request. The WWW-Authenticate header is formatted according to RFC 9728 (OAuth 2.0
+ * Protected Resource Metadata).
+ *
+ * <p>The challenge only depends on the host the request was sent to, so the resource metadata URL
+ * and the header value are built once per host and reused for every rejected request.
+ */
+@Component
+public class AuthenticationRequiredFilter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AuthenticationRequiredFilter.class);
+
+  private static final String RESOURCE_METADATA_URL_TEMPLATE =
+      "http://%s/.well-known/oauth-protected-resource";
+
+  // The Host header is client controlled, so bound the number of hosts we remember
+  private static final Cache<String, Challenge> CHALLENGES =
+      Caffeine.newBuilder().maximumSize(1_000).build();
+
+  /**
+   * Creates a gateway filter that checks for the presence of an Authorization header. If the header
+   * is missing, completes the exchange with a 401 Unauthorized response with the WWW-Authenticate
+   * header set according to the Protected Resource Metadata spec (RFC 9728).
+   *
+   * @return A GatewayFilter that either allows the request to proceed or returns a 401 response
+   */
+  public static GatewayFilter requireAuthentication() {
+    return requireAuthentication(GatewayMetrics.noop());
+  }
+
+  /**
+   * Creates a gateway filter that checks for the presence of an Authorization header, recording
+   * each decision in the given metrics.
+   *
+   * @param metrics the metrics to record decisions in
+   * @return A GatewayFilter that either allows the request to proceed or returns a 401 response
+   */
+  public static GatewayFilter requireAuthentication(GatewayMetrics metrics) {
+    return (exchange, chain) -> {
+      URI uri = exchange.getRequest().getURI();
+      String authHeader = exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+
+      if (authHeader == null || authHeader.trim().isEmpty()) {
+        // Look up the precomputed challenge for the request's host
+        Challenge challenge = challenge(uri);
+
+        LOGGER.debug(
+            "Request to {} rejected: No Authorization header present, resource metadata at {}",
+            uri.getPath(),
+            challenge.resourceMetadataUrl());
+        metrics.recordAuthentication(AuthenticationOutcome.CHALLENGED);
+
+        // Return 401 with WWW-Authenticate header as per RFC 9728
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.UNAUTHORIZED);
+        response.getHeaders().set(HttpHeaders.WWW_AUTHENTICATE, challenge.wwwAuthenticate());
+        response.getHeaders().setCacheControl(CacheControl.noStore());
+        return response.setComplete();
+      }
+
+      // Authorization header is present, continue processing
+      metrics.recordAuthentication(AuthenticationOutcome.PRESENT);
+      return chain.filter(exchange);
+    };
+  }
+
+  private static Challenge challenge(URI uri) {
+    String hostAndPort = uri.getHost() + (uri.getPort() == -1 ? "" : ":" + uri.getPort());
+    return CHALLENGES.get(hostAndPort, AuthenticationRequiredFilter::createChallenge);
+  }
+
+  private static Challenge createChallenge(String hostAndPort) {
+    String resourceMetadataUrl = String.format(RESOURCE_METADATA_URL_TEMPLATE, hostAndPort);
+    return new Challenge(
+        resourceMetadataUrl, String.format("Bearer resource_metadata=\"%s\"", resourceMetadataUrl));
+  }
+
+  private record Challenge(String resourceMetadataUrl, String wwwAuthenticate) {}
+}
@@ -0,0 +1,133 @@
+package org.garethjevans.chained.auth.gatewayreactive.filter;
+
+import java.text.ParseException;
+import java.time.Duration;
+import org.garethjevans.chained.auth.gateway.core.metrics.GatewayMetrics;
+import org.garethjevans.chained.auth.gateway.core.metrics.GatewayMetrics.TokenSwapOutcome;
+import org.garethjevans.chained.auth.gateway.core.token.JwtClaimsExtractor;
+import org.garethjevans.chained.auth.gateway.core.token.TokenSwapCache;
+import org.garethjevans.chained.auth.gateway.core.token.TokenSwapCache.SwappedToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+
+/**
+ * Reactive port of the servlet gateway's {@code JwtTokenModifierFilter}. Extracts the JWT from the
+ * incoming request, reads the "sub" claim, and replaces the Bearer token with the value from the
+ * "access_token" claim for downstream requests. Successful swaps are cached until the JWT expires
+ * so repeat tokens skip the decode entirely.
+ *
+ * <p>The swap is CPU-only and never blocks, so it runs inline on the event loop. Claims are read
+ * with {@link JwtClaimsExtractor} and swaps share the servlet gateway's {@link TokenSwapCache}.
+ */
+@Component
+public class JwtTokenModifierFilter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(JwtTokenModifierFilter.class);
+
+  private static final String BEARER_PREFIX = "Bearer ";
+  private static final long DEFAULT_CACHE_MAXIMUM_SIZE = 10_000;
+  private static final Duration DEFAULT_CACHE_TIME_TO_LIVE = Duration.ofMinutes(5);
+
+  /**
+   * Creates a gateway filter that modifies the Authorization header, using a private default-sized
+   * cache of swapped tokens.
+   *
+   * @return A GatewayFilter that forwards the exchange with the swapped Authorization header
+   */
+  public static GatewayFilter modifyBearerToken() {
+    return modifyBearerToken(
+        new TokenSwapCache(DEFAULT_CACHE_MAXIMUM_SIZE, DEFAULT_CACHE_TIME_TO_LIVE));
+  }
+
+  /**
+   * Creates a gateway filter that modifies the Authorization header.
+   *
+   * @param tokenSwapCache cache of proxy JWTs that have already been swapped
+   * @return A GatewayFilter that forwards the exchange with the swapped Authorization header
+   */
+  public static GatewayFilter modifyBearerToken(TokenSwapCache tokenSwapCache) {
+    return modifyBearerToken(tokenSwapCache, GatewayMetrics.noop());
+  }
+
+  /**
+   * Creates a gateway filter that modifies the Authorization header, recording the time taken and
+   * the outcome of each swap in the given metrics.
+   *
+   * @param tokenSwapCache cache of proxy JWTs that have already been swapped
+   * @param metrics the metrics to record swaps in
+   * @return A GatewayFilter that forwards the exchange with the swapped Authorization header
+   */
+  public static GatewayFilter modifyBearerToken(
+      TokenSwapCache tokenSwapCache, GatewayMetrics metrics) {
+    return (exchange, chain) -> chain.filter(swapBearerToken(exchange, tokenSwapCache, metrics));
+  }
+
+  private static ServerWebExchange swapBearerToken(
+      ServerWebExchange exchange, TokenSwapCache tokenSwapCache, GatewayMetrics metrics) {
+    long start = System.nanoTime();
+    String authHeader = exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+
+    if (authHeader == null || !authHeader.startsWith(BEARER_PREFIX)) {
+      LOGGER.debug("No Bearer token found in Authorization header");
+      metrics.recordTokenSwap(TokenSwapOutcome.NO_TOKEN, System.nanoTime() - start);
+      return exchange;
+    }
+
+    String token = authHeader.substring(BEARER_PREFIX.length());
+    SwappedToken cached = tokenSwapCache.get(token);
+    if (cached != null) {
+      LOGGER.debug("Using cached access_token for subject: {}", cached.subject());
+      ServerWebExchange modified =
+          replaceAuthorizationHeader(exchange, cached.authorizationHeader());
+      metrics.recordTokenSwap(TokenSwapOutcome.CACHED, System.nanoTime() - start);
+      return modified;
+    }
+
+    try {
+      JwtClaimsExtractor.Claims claims = JwtClaimsExtractor.extract(token);
+
+      String subject = claims.subject();
+      LOGGER.debug("Processing JWT with subject: {}", subject);
+
+      // Extract the access_token claim
+      String accessToken = claims.accessToken();
+
+      if (accessToken == null || accessToken.isEmpty()) {
+        LOGGER.warn(
+            "No access_token claim found in JWT for subject: {}, using original token", subject);
+        metrics.recordTokenSwap(TokenSwapOutcome.NO_CLAIM, System.nanoTime() - start);
+        return exchange;
+      }
+
+      SwappedToken swapped =
+          tokenSwapCache.put(token, BEARER_PREFIX + accessToken, subject, claims.expiresAt());
+
+      // Replace the Authorization header with the new access token
+      LOGGER.debug("Replacing Bearer token with access_token from JWT claims");
+      ServerWebExchange modified =
+          replaceAuthorizationHeader(exchange, swapped.authorizationHeader());
+      metrics.recordTokenSwap(TokenSwapOutcome.SWAPPED, System.nanoTime() - start);
+      return modified;
+
+    } catch (ParseException e) {
+      LOGGER.warn("Failed to parse JWT token: {}", e.getMessage());
+      metrics.recordTokenSwap(TokenSwapOutcome.PARSE_ERROR, System.nanoTime() - start);
+      return exchange;
+    }
+  }
+
+  private static ServerWebExchange replaceAuthorizationHeader(
+      ServerWebExchange exchange, String authorizationHeader) {
+    return exchange
+        .mutate()
+        .request(
+            request ->
+                request.headers(
+                    headers -> headers.set(HttpHeaders.AUTHORIZATION, authorizationHeader)))
+        .build();
+  }
+}
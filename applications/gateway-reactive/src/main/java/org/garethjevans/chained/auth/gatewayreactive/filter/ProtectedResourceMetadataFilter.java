@@ -0,0 +1,157 @@
+package org.garethjevans.chained.auth.gatewayreactive.filter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.net.URI;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive port of the servlet gateway's {@code ProtectedResourceMetadataFilter}. Handles requests
+ * to the OAuth 2.0 Protected Resource Metadata endpoint (/.well-known/oauth-protected-resource) as
+ * defined in RFC 9728, returning metadata about the protected resource including supported
+ * authorization servers and scopes.
+ *
+ * <p>The metadata only varies by the origin the request was sent to, so the JSON document is
+ * serialized once per origin and written from an immutable byte array with a strong {@code ETag}
+ * and a {@code Cache-Control} max-age. Conditional requests carrying a matching {@code
+ * If-None-Match} header are answered with {@code 304 Not Modified}.
+ */
+@Component
+public class ProtectedResourceMetadataFilter {
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(ProtectedResourceMetadataFilter.class);
+
+  private static final String WELL_KNOWN_PATH = "/.well-known/oauth-protected-resource";
+  private static final String AUTH_ADAPTER_URL = "http://127.0.0.1:9000";
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  // The Host header is client controlled, so bound the number of origins we remember
+  private static final long MAXIMUM_ORIGINS = 1_000;
+  private static final CacheControl CACHE_CONTROL =
+      CacheControl.maxAge(Duration.ofHours(1)).cachePublic();
+
+  /**
+   * Creates a gateway filter that intercepts requests to the well-known OAuth protected resource
+   * metadata endpoint and writes the appropriate JSON response.
+   *
+   * @return A GatewayFilter that either returns metadata or passes through the request
+   */
+  public static GatewayFilter serveProtectedResourceMetadata() {
+    Cache<String, MetadataDocument> documents =
+        Caffeine.newBuilder().maximumSize(MAXIMUM_ORIGINS).build();
+
+    return (exchange, chain) -> {
+      ServerHttpRequest request = exchange.getRequest();
+
+      // Check if this is a request to the well-known metadata endpoint
+      if (!WELL_KNOWN_PATH.equals(request.getURI().getPath())) {
+        // Not a metadata request, continue processing
+        return chain.filter(exchange);
+      }
+
+      ServerHttpResponse response = exchange.getResponse();
+      MetadataDocument document;
+      try {
+        document = documents.get(origin(request.getURI()), ProtectedResourceMetadataFilter::render);
+      } catch (RuntimeException e) {
+        LOGGER.error("Failed to generate protected resource metadata", e);
+        response.setStatusCode(HttpStatus.INTERNAL_SERVER_ERROR);
+        return response.setComplete();
+      }
+
+      HttpHeaders headers = response.getHeaders();
+      headers.setETag(document.eTag());
+      headers.setCacheControl(CACHE_CONTROL);
+
+      if (matchesETag(request, document.eTag())) {
+        LOGGER.debug("Protected resource metadata not modified for {}", document.resource());
+        response.setStatusCode(HttpStatus.NOT_MODIFIED);
+        return response.setComplete();
+      }
+
+      LOGGER.debug("Serving OAuth protected resource metadata for {}", document.resource());
+
+      // Return 200 OK with application/json content type
+      response.setStatusCode(HttpStatus.OK);
+      headers.setContentType(MediaType.APPLICATION_JSON);
+      headers.setContentLength(document.body().length);
+      return response.writeWith(
+          Mono.fromSupplier(() -> response.bufferFactory().wrap(document.body())));
+    };
+  }
+
+  private static String origin(URI uri) {
+    return uri.getScheme()
+        + "://"
+        + uri.getHost()
+        + (uri.getPort() != -1 ? ":" + uri.getPort() : "");
+  }
+
+  private static MetadataDocument render(String resource) {
+    // Build the resource metadata response per RFC 9728
+    Map<String, Object> metadata = new LinkedHashMap<>();
+
+    // Resource identifier - the protected resource's URL
+    metadata.put("resource", resource);
+
+    // Authorization servers that can be used with this protected resource
+    metadata.put("authorization_servers", List.of(AUTH_ADAPTER_URL));
+
+    // Supported OAuth 2.0 bearer token presentation methods
+    metadata.put("bearer_methods_supported", List.of("header"));
+
+    // OAuth 2.0 scope values used to request access to this protected resource
+    metadata.put("scopes_supported", List.of("openid", "profile"));
+
+    // Human-readable name of the protected resource
+    metadata.put("resource_name", "Gateway Protected Resource");
+
+    try {
+      byte[] body = objectMapper.writeValueAsBytes(metadata);
+      String eTag = "\"" + DigestUtils.md5DigestAsHex(body) + "\"";
+      LOGGER.debug("Rendered OAuth protected resource metadata for {}", resource);
+      return new MetadataDocument(resource, body, eTag);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Unable to serialize protected resource metadata", e);
+    }
+  }
+
+  private static boolean matchesETag(ServerHttpRequest request, String eTag) {
+    for (String ifNoneMatch : request.getHeaders().getOrEmpty(HttpHeaders.IF_NONE_MATCH)) {
+      for (String candidate : ifNoneMatch.split(",")) {
+        String value = candidate.trim();
+        if (value.startsWith("W/")) {
+          value = value.substring(2);
+        }
+        if (value.equals("*") || value.equals(eTag)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Serialized metadata for a single origin. The body array is wrapped, not copied, for every
+   * response and must not be modified.
+   */
+  private record MetadataDocument(String resource, byte[] body, String eTag) {}
+}
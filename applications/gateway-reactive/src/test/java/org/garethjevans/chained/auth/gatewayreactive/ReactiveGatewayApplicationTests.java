@@ -0,0 +1,125 @@
+package org.garethjevans.chained.auth.gatewayreactive;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+/** Sends requests through the reactive gateway's routes to a stub MCP server. */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+class ReactiveGatewayApplicationTests {
+
+  private static final AtomicReference<String> forwardedAuthorization = new AtomicReference<>();
+
+  private static HttpServer backend;
+
+  @LocalServerPort private int port;
+
+  @BeforeAll
+  static void startBackend() throws IOException {
+    backend = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    backend.createContext(
+        "/mcp",
+        exchange -> {
+          forwardedAuthorization.set(exchange.getRequestHeaders().getFirst("Authorization"));
+          byte[] body =
+              "{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":{}}".getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().set("Content-Type", "application/json");
+          exchange.sendResponseHeaders(200, body.length);
+          exchange.getResponseBody().write(body);
+          exchange.close();
+        });
+    backend.start();
+  }
+
+  @AfterAll
+  static void stopBackend() {
+    backend.stop(0);
+  }
+
+  @DynamicPropertySource
+  static void backendProperties(DynamicPropertyRegistry registry) {
+    registry.add(
+        "gateway.upstreams.github-mcp-server.instances[0]",
+        () -> "http://127.0.0.1:" + backend.getAddress().getPort());
+  }
+
+  @Test
+  void testMcpRouteChallengesAnonymousRequests() {
+    client()
+        .post()
+        .uri("/mcp")
+        .exchange()
+        .expectStatus()
+        .isUnauthorized()
+        .expectHeader()
+        .valueEquals(
+            HttpHeaders.WWW_AUTHENTICATE,
+            "Bearer resource_metadata=\"http://127.0.0.1:"
+                + port
+                + "/.well-known/oauth-protected-resource\"");
+  }
+
+  @Test
+  void testMcpRouteForwardsSwappedToken() throws Exception {
+    JWTClaimsSet claims =
+        new JWTClaimsSet.Builder()
+            .subject("octocat")
+            .claim("access_token", "gho_upstream")
+            .expirationTime(new Date(System.currentTimeMillis() + 3600000))
+            .build();
+    SignedJWT jwt = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claims);
+    jwt.sign(new MACSigner("ThisIsASecretKeyForTestingPurposesOnly12345678".getBytes()));
+
+    client()
+        .post()
+        .uri("/mcp")
+        .header(HttpHeaders.AUTHORIZATION, "Bearer " + jwt.serialize())
+        .contentType(MediaType.APPLICATION_JSON)
+        .bodyValue("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"ping\"}")
+        .exchange()
+        .expectStatus()
+        .isOk();
+
+    assertThat(forwardedAuthorization.get()).isEqualTo("Bearer gho_upstream");
+  }
+
+  @Test
+  void testServesProtectedResourceMetadata() {
+    client()
+        .get()
+        .uri("/.well-known/oauth-protected-resource")
+        .exchange()
+        .expectStatus()
+        .isOk()
+        .expectHeader()
+        .contentType(MediaType.APPLICATION_JSON)
+        .expectBody()
+        .jsonPath("$.resource")
+        .isEqualTo("http://127.0.0.1:" + port);
+  }
+
+  private WebTestClient client() {
+    return WebTestClient.bindToServer().baseUrl("http://127.0.0.1:" + port).build();
+  }
+}
@@ -0,0 +1,41 @@
+package org.garethjevans.chained.auth.gatewayreactive.filter;
+
+import org.garethjevans.chained.auth.gateway.core.filter.AuthenticationRequiredFilterContract;
+import org.garethjevans.chained.auth.gateway.core.metrics.GatewayMetrics;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+
+class AuthenticationRequiredFilterTest extends AuthenticationRequiredFilterContract {
+
+  @Override
+  protected AuthenticationFilter requireAuthentication(GatewayMetrics metrics) {
+    GatewayFilter filter = AuthenticationRequiredFilter.requireAuthentication(metrics);
+    return (host, authorization) -> {
+      MockServerHttpRequest.BaseBuilder<?> request =
+          MockServerHttpRequest.get("http://" + host + "/mcp/test");
+      if (authorization != null) {
+        request.header(HttpHeaders.AUTHORIZATION, authorization);
+      }
+      MockServerWebExchange exchange = MockServerWebExchange.from(request);
+      boolean[] handlerCalled = {false};
+      filter
+          .filter(
+              exchange,
+              ex -> {
+                handlerCalled[0] = true;
+                ex.getResponse().setStatusCode(HttpStatus.OK);
+                return ex.getResponse().setComplete();
+              })
+          .block();
+      HttpHeaders headers = exchange.getResponse().getHeaders();
+      return new Response(
+          exchange.getResponse().getStatusCode().value(),
+          headers.getFirst(HttpHeaders.WWW_AUTHENTICATE),
+          headers.getCacheControl(),
+          handlerCalled[0]);
+    };
+  }
+}
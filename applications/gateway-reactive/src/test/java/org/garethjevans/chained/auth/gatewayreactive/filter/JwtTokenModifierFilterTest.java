@@ -0,0 +1,39 @@
+package org.garethjevans.chained.auth.gatewayreactive.filter;
+
+import java.util.concurrent.atomic.AtomicReference;
+import org.garethjevans.chained.auth.gateway.core.filter.JwtTokenModifierFilterContract;
+import org.garethjevans.chained.auth.gateway.core.metrics.GatewayMetrics;
+import org.garethjevans.chained.auth.gateway.core.token.TokenSwapCache;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+
+class JwtTokenModifierFilterTest extends JwtTokenModifierFilterContract {
+
+  @Override
+  protected BearerTokenFilter modifyBearerToken(
+      TokenSwapCache tokenSwapCache, GatewayMetrics metrics) {
+    GatewayFilter filter = JwtTokenModifierFilter.modifyBearerToken(tokenSwapCache, metrics);
+    return authorization -> forwardedAuthorization(filter, authorization);
+  }
+
+  /** Runs the filter and returns the Authorization header passed down the chain. */
+  private static String forwardedAuthorization(GatewayFilter filter, String authorization) {
+    MockServerHttpRequest.BaseBuilder<?> request = MockServerHttpRequest.get("/test");
+    if (authorization != null) {
+      request.header(HttpHeaders.AUTHORIZATION, authorization);
+    }
+    AtomicReference<String> forwarded = new AtomicReference<>();
+    filter
+        .filter(
+            MockServerWebExchange.from(request),
+            exchange -> {
+              forwarded.set(exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION));
+              return Mono.empty();
+            })
+        .block();
+    return forwarded.get();
+  }
+}
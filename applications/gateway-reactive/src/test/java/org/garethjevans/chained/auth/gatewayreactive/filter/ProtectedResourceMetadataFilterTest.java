@@ -0,0 +1,41 @@
+package org.garethjevans.chained.auth.gatewayreactive.filter;
+
+import org.garethjevans.chained.auth.gateway.core.filter.ProtectedResourceMetadataFilterContract;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+
+class ProtectedResourceMetadataFilterTest extends ProtectedResourceMetadataFilterContract {
+
+  @Override
+  protected MetadataFilter serveProtectedResourceMetadata() {
+    GatewayFilter filter = ProtectedResourceMetadataFilter.serveProtectedResourceMetadata();
+    return (uri, ifNoneMatch) -> {
+      MockServerHttpRequest.BaseBuilder<?> request = MockServerHttpRequest.get(uri);
+      if (ifNoneMatch != null) {
+        request.header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+      }
+      MockServerWebExchange exchange = MockServerWebExchange.from(request);
+      boolean[] handlerCalled = {false};
+      filter
+          .filter(
+              exchange,
+              ex -> {
+                handlerCalled[0] = true;
+                ex.getResponse().setStatusCode(HttpStatus.OK);
+                return ex.getResponse().setComplete();
+              })
+          .block();
+      HttpHeaders headers = exchange.getResponse().getHeaders();
+      return new Response(
+          exchange.getResponse().getStatusCode().value(),
+          headers.getContentType() != null ? headers.getContentType().toString() : null,
+          headers.getETag(),
+          headers.getCacheControl(),
+          handlerCalled[0] ? null : exchange.getResponse().getBodyAsString().block(),
+          handlerCalled[0]);
+    };
+  }
+}
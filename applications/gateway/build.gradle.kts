@@ -4,11 +4,21 @@ plugins {
 }
 
 dependencies {
+    // Token swap cache, claims extraction and metrics shared with the reactive gateway
+    implementation(project(":libraries:gateway-core"))
+
+    // Structured access and audit log
+    implementation(project(":libraries:event-log"))
+
+    // Ed25519 JWS verification shared with the auth-adapter
+    implementation(project(":libraries:jose"))
+
     // Spring Cloud Gateway
     implementation(libs.spring.cloud.gateway.mvc)
     
     // Spring Boot Actuator
     implementation(libs.spring.boot.starter.actuator)
+    runtimeOnly(libs.micrometer.registry.prometheus)
     
     // Spring Boot Web (includes Jackson)
     implementation(libs.spring.boot.starter.web)
@@ -18,9 +28,16 @@ dependencies {
     
     // JWT support
     implementation("com.nimbusds:nimbus-jose-jwt:10.9")
+
+    // Caching
+    implementation(libs.caffeine)
+
+    // Pooled upstream HTTP client
+    implementation(libs.reactor.netty.http)
     
     // Testing
     testImplementation(libs.spring.boot.starter.test)
+    testImplementation(testFixtures(project(":libraries:gateway-core")))
 }
 
 tasks.named<org.springframework.boot.gradle.tasks.bundling.BootJar>("bootJar") {
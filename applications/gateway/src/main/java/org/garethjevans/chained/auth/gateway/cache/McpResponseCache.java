@@ -0,0 +1,296 @@
+package org.garethjevans.chained.auth.gateway.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import org.jspecify.annotations.Nullable;
+import org.springframework.util.Assert;
+
+/**
+ * Cache of JSON-RPC results for read-only MCP calls, with single-flight de-duplication of identical
+ * calls that are in progress.
+ *
+ * <p>Only the {@code result} member of a response is cached, so a cached call can be answered for
+ * any request {@code id}. Which calls are cacheable, and for how long, is configured per JSON-RPC
+ * method (for example {@code tools/list}) and, for {@code tools/call}, per tool name (for example
+ * {@code get_me}). Entries expire after their time to live and are evicted by size once the cached
+ * results reach {@code maximumWeight} bytes.
+ *
+ * <p>When an identical call is already on its way to the backend, later callers {@link #join join}
+ * the same {@link Flight} and wait for its result instead of sending their own request. If the
+ * first call fails or its response cannot be cached, the waiting callers go to the backend
+ * themselves.
+ */
+public class McpResponseCache implements MeterBinder {
+
+  /** JSON-RPC method whose cacheability is decided by the tool name. */
+  public static final String TOOLS_CALL = "tools/call";
+
+  private final String routeId;
+  private final Map<String, Duration> methods;
+  private final Map<String, Duration> tools;
+  private final Duration collapseTimeout;
+  private final Cache<Key, Result> cache;
+  private final Map<Key, Flight> inFlight = new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder collapsed = new LongAdder();
+
+  public McpResponseCache(
+      String routeId,
+      Map<String, Duration> methods,
+      Map<String, Duration> tools,
+      long maximumWeight,
+      Duration collapseTimeout) {
+    this(routeId, methods, tools, maximumWeight, collapseTimeout, Ticker.systemTicker());
+  }
+
+  McpResponseCache(
+      String routeId,
+      Map<String, Duration> methods,
+      Map<String, Duration> tools,
+      long maximumWeight,
+      Duration collapseTimeout,
+      Ticker ticker) {
+    Assert.hasText(routeId, "routeId must not be empty");
+    Assert.isTrue(maximumWeight > 0, "maximumWeight must be greater than 0");
+    this.routeId = routeId;
+    this.methods = Map.copyOf(methods);
+    this.tools = Map.copyOf(tools);
+    this.collapseTimeout = collapseTimeout;
+    this.cache =
+        Caffeine.newBuilder()
+            .maximumWeight(maximumWeight)
+            .weigher((Key key, Result result) -> result.json().length() + key.weight())
+            .expireAfter(
+                Expiry.creating(
+                    (Key key, Result result) ->
+                        Objects.requireNonNullElse(
+                            timeToLive(key.method(), key.tool()), Duration.ZERO)))
+            .ticker(ticker)
+            .build();
+  }
+
+  /**
+   * Returns how long the result of a call may be cached.
+   *
+   * @param method the JSON-RPC method
+   * @param tool the tool name for {@code tools/call}, otherwise {@code null}
+   * @return the time to live, or {@code null} if the call must not be cached
+   */
+  public @Nullable Duration timeToLive(String method, @Nullable String tool) {
+    if (TOOLS_CALL.equals(method)) {
+      return tool != null ? tools.get(tool) : null;
+    }
+    return methods.get(method);
+  }
+
+  /**
+   * Returns the cached result for a call, if present and not expired.
+   *
+   * @param key the call
+   * @return the cached result, or {@code null} on a miss
+   */
+  public @Nullable Result get(Key key) {
+    Result result = cache.getIfPresent(key);
+    if (result != null) {
+      hits.increment();
+    }
+    return result;
+  }
+
+  /**
+   * Registers a call that missed the cache. The first caller for a key becomes the leader of the
+   * returned flight and must {@link Flight#complete complete} or {@link Flight#abandon abandon} it;
+   * later callers receive the same flight and {@link Flight#await await} its result.
+   *
+   * @param key the call
+   * @return the flight for the call
+   */
+  public Flight join(Key key) {
+    Flight created = new Flight(key);
+    Flight existing = inFlight.putIfAbsent(key, created);
+    if (existing != null) {
+      collapsed.increment();
+      return existing.follower();
+    }
+    misses.increment();
+    return created;
+  }
+
+  /**
+   * Returns the approximate number of cached results.
+   *
+   * @return the estimated number of entries
+   */
+  public long estimatedSize() {
+    return cache.estimatedSize();
+  }
+
+  /**
+   * Returns the number of calls answered from the cache.
+   *
+   * @return the total number of hits
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * Returns the number of calls sent to the backend because no result was cached or in flight.
+   *
+   * @return the total number of misses
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Returns the number of calls that waited for an identical call already in flight.
+   *
+   * @return the total number of collapsed calls
+   */
+  public long getCollapsed() {
+    return collapsed.sum();
+  }
+
+  /** Performs pending maintenance, such as evicting expired entries. */
+  void cleanUp() {
+    cache.cleanUp();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder("gateway.response-cache.requests", this, McpResponseCache::getHits)
+        .description("Cacheable MCP calls, by how they were answered")
+        .tags("route", routeId, "result", "hit")
+        .register(registry);
+    FunctionCounter.builder("gateway.response-cache.requests", this, McpResponseCache::getMisses)
+        .description("Cacheable MCP calls, by how they were answered")
+        .tags("route", routeId, "result", "miss")
+        .register(registry);
+    FunctionCounter.builder("gateway.response-cache.requests", this, McpResponseCache::getCollapsed)
+        .description("Cacheable MCP calls, by how they were answered")
+        .tags("route", routeId, "result", "collapsed")
+        .register(registry);
+    Gauge.builder("gateway.response-cache.size", this, McpResponseCache::estimatedSize)
+        .description("Approximate number of cached MCP results")
+        .tag("route", routeId)
+        .register(registry);
+  }
+
+  /**
+   * Identifies a cacheable call.
+   *
+   * @param credential a hash of the caller's bearer token, so results are never shared between
+   *     callers
+   * @param method the JSON-RPC method
+   * @param tool the tool name for {@code tools/call}, otherwise {@code null}
+   * @param params the call's parameters as canonical JSON, with object keys sorted
+   */
+  public record Key(String credential, String method, @Nullable String tool, String params) {
+
+    private int weight() {
+      return credential.length() + method.length() + params.length();
+    }
+  }
+
+  /**
+   * A cached JSON-RPC result.
+   *
+   * @param json the serialized {@code result} member of the backend's response
+   */
+  public record Result(String json) {}
+
+  /** A call to the backend that identical calls can wait for. */
+  public final class Flight {
+
+    private final Key key;
+    private final CompletableFuture<@Nullable Result> future;
+    private final @Nullable Flight leader;
+
+    private Flight(Key key) {
+      this(key, new CompletableFuture<>(), null);
+    }
+
+    private Flight(Key key, CompletableFuture<@Nullable Result> future, @Nullable Flight leader) {
+      this.key = key;
+      this.future = future;
+      this.leader = leader;
+    }
+
+    private Flight follower() {
+      return new Flight(key, future, this);
+    }
+
+    /**
+     * Returns whether this caller sends the request to the backend.
+     *
+     * @return {@code true} for the first caller of an identical call
+     */
+    public boolean isLeader() {
+      return leader == null;
+    }
+
+    /**
+     * Caches the result of the call and hands it to the waiting callers.
+     *
+     * @param result the result returned by the backend
+     */
+    public void complete(Result result) {
+      Assert.state(isLeader(), "Only the leader can complete a flight");
+      cache.put(key, result);
+      inFlight.remove(key, this);
+      future.complete(result);
+    }
+
+    /** Ends the call without caching anything; waiting callers go to the backend themselves. */
+    public void abandon() {
+      if (isLeader()) {
+        inFlight.remove(key, this);
+        future.complete(null);
+      }
+    }
+
+    /**
+     * Waits for the leader of the flight, at most for the collapse timeout. A leader that takes
+     * longer is no longer waited for: the flight is ended, so the callers waiting with this one and
+     * those arriving later go to the backend instead of waiting for it again, as they would for
+     * good if the leader's response was never written.
+     *
+     * @return the leader's result, or {@code null} if the leader failed, its result could not be
+     *     cached, or it took too long
+     */
+    public @Nullable Result await() {
+      try {
+        return future.get(collapseTimeout.toMillis(), TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return null;
+      } catch (ExecutionException ex) {
+        return null;
+      } catch (TimeoutException ex) {
+        if (leader != null) {
+          inFlight.remove(key, leader);
+        }
+        future.complete(null);
+        return null;
+      }
+    }
+  }
+}
@@ -0,0 +1,1034 @@
+package org.garethjevans.chained.auth.gateway.config;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.garethjevans.chained.auth.gateway.core.config.TokenCacheProperties;
+import org.garethjevans.chained.auth.gateway.upstream.UpstreamPool;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import reactor.netty.http.HttpProtocol;
+
+/** Configuration properties for the gateway filters, bound from the {@code gateway} prefix. */
+@ConfigurationProperties(prefix = "gateway")
+public class GatewayProperties {
+
+  private final TokenCacheProperties tokenCache = new TokenCacheProperties();
+
+  private final Verification verification = new Verification();
+
+  private final PhantomToken phantomToken = new PhantomToken();
+
+  private final ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit();
+
+  private final RateLimit rateLimit = new RateLimit();
+
+  private final EventLog eventLog = new EventLog();
+
+  private final ResponseCache responseCache = new ResponseCache();
+
+  private final Retry retry = new Retry();
+
+  /** Upstream HTTP client settings, keyed by route id. */
+  private final Map<String, Upstream> upstreams = new LinkedHashMap<>();
+
+  public TokenCacheProperties getTokenCache() {
+    return tokenCache;
+  }
+
+  public Verification getVerification() {
+    return verification;
+  }
+
+  public PhantomToken getPhantomToken() {
+    return phantomToken;
+  }
+
+  public ConcurrencyLimit getConcurrencyLimit() {
+    return concurrencyLimit;
+  }
+
+  public RateLimit getRateLimit() {
+    return rateLimit;
+  }
+
+  public EventLog getEventLog() {
+    return eventLog;
+  }
+
+  public ResponseCache getResponseCache() {
+    return responseCache;
+  }
+
+  public Retry getRetry() {
+    return retry;
+  }
+
+  public Map<String, Upstream> getUpstreams() {
+    return upstreams;
+  }
+
+  /**
+   * Returns the upstream client settings for the given route, falling back to the defaults when the
+   * route has not been configured.
+   *
+   * @param routeId the id of the gateway route
+   * @return the upstream client settings for the route
+   */
+  public Upstream getUpstream(String routeId) {
+    return upstreams.getOrDefault(routeId, new Upstream());
+  }
+
+  /** Settings for verifying proxy JWTs locally against the auth-adapter's JWK Set. */
+  public static class Verification {
+
+    /** Whether to reject proxy JWTs whose signature or expiry cannot be verified. */
+    private boolean enabled = false;
+
+    /** Location of the auth-adapter's JWK Set. */
+    private URI jwkSetUri = URI.create("http://127.0.0.1:9000/oauth2/jwks");
+
+    /** How often the JWK Set is refreshed in the background. */
+    private Duration refreshInterval = Duration.ofMinutes(5);
+
+    /** Minimum time between early refreshes triggered by an unknown key id. */
+    private Duration minimumRefreshInterval = Duration.ofSeconds(30);
+
+    /** Connect and read timeout for fetching the JWK Set. */
+    private Duration requestTimeout = Duration.ofSeconds(5);
+
+    /** Clock skew tolerated when checking the exp and nbf claims. */
+    private Duration clockSkew = Duration.ofSeconds(60);
+
+    /** Maximum number of verified tokens to remember. */
+    private long maximumSize = 10_000;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public URI getJwkSetUri() {
+      return jwkSetUri;
+    }
+
+    public void setJwkSetUri(URI jwkSetUri) {
+      this.jwkSetUri = jwkSetUri;
+    }
+
+    public Duration getRefreshInterval() {
+      return refreshInterval;
+    }
+
+    public void setRefreshInterval(Duration refreshInterval) {
+      this.refreshInterval = refreshInterval;
+    }
+
+    public Duration getMinimumRefreshInterval() {
+      return minimumRefreshInterval;
+    }
+
+    public void setMinimumRefreshInterval(Duration minimumRefreshInterval) {
+      this.minimumRefreshInterval = minimumRefreshInterval;
+    }
+
+    public Duration getRequestTimeout() {
+      return requestTimeout;
+    }
+
+    public void setRequestTimeout(Duration requestTimeout) {
+      this.requestTimeout = requestTimeout;
+    }
+
+    public Duration getClockSkew() {
+      return clockSkew;
+    }
+
+    public void setClockSkew(Duration clockSkew) {
+      this.clockSkew = clockSkew;
+    }
+
+    public long getMaximumSize() {
+      return maximumSize;
+    }
+
+    public void setMaximumSize(long maximumSize) {
+      this.maximumSize = maximumSize;
+    }
+  }
+
+  /** Settings for swapping phantom-token reference tokens through the auth-adapter. */
+  public static class PhantomToken {
+
+    /** Whether to resolve opaque reference tokens to their upstream token. */
+    private boolean enabled = false;
+
+    /** Location of the auth-adapter's token introspection endpoint. */
+    private URI introspectionUri = URI.create("http://127.0.0.1:9000/oauth2/introspect");
+
+    /** Client id the gateway authenticates to the introspection endpoint with. */
+    private String clientId = "gateway";
+
+    /** Client secret the gateway authenticates to the introspection endpoint with. */
+    private String clientSecret = "gateway-secret";
+
+    /** Connect and read timeout for introspection requests. */
+    private Duration requestTimeout = Duration.ofSeconds(2);
+
+    /** Longest a resolved token is used before it is introspected again, bounding revocation. */
+    private Duration maximumTimeToLive = Duration.ofSeconds(30);
+
+    /** How long tokens found to be inactive are rejected without asking the auth-adapter. */
+    private Duration negativeTimeToLive = Duration.ofSeconds(30);
+
+    /** Maximum number of inactive tokens to remember. */
+    private long maximumSize = 10_000;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public URI getIntrospectionUri() {
+      return introspectionUri;
+    }
+
+    public void setIntrospectionUri(URI introspectionUri) {
+      this.introspectionUri = introspectionUri;
+    }
+
+    public String getClientId() {
+      return clientId;
+    }
+
+    public void setClientId(String clientId) {
+      this.clientId = clientId;
+    }
+
+    public String getClientSecret() {
+      return clientSecret;
+    }
+
+    public void setClientSecret(String clientSecret) {
+      this.clientSecret = clientSecret;
+    }
+
+    public Duration getRequestTimeout() {
+      return requestTimeout;
+    }
+
+    public void setRequestTimeout(Duration requestTimeout) {
+      this.requestTimeout = requestTimeout;
+    }
+
+    public Duration getMaximumTimeToLive() {
+      return maximumTimeToLive;
+    }
+
+    public void setMaximumTimeToLive(Duration maximumTimeToLive) {
+      this.maximumTimeToLive = maximumTimeToLive;
+    }
+
+    public Duration getNegativeTimeToLive() {
+      return negativeTimeToLive;
+    }
+
+    public void setNegativeTimeToLive(Duration negativeTimeToLive) {
+      this.negativeTimeToLive = negativeTimeToLive;
+    }
+
+    public long getMaximumSize() {
+      return maximumSize;
+    }
+
+    public void setMaximumSize(long maximumSize) {
+      this.maximumSize = maximumSize;
+    }
+  }
+
+  /** Settings for the adaptive concurrency limit applied to each proxied route. */
+  public static class ConcurrencyLimit {
+
+    /** Whether to shed load once a route reaches its concurrency limit. */
+    private boolean enabled = true;
+
+    /** Concurrency limit each route starts with. */
+    private int initialLimit = 20;
+
+    /** Lower bound the limit never shrinks below. */
+    private int minLimit = 2;
+
+    /** Upper bound the limit never grows above. */
+    private int maxLimit = 200;
+
+    /** Factor the limit is multiplied by when a request is dropped. */
+    private double backoffRatio = 0.9;
+
+    /** Backend latency above which a request counts as dropped. */
+    private Duration latencyThreshold = Duration.ofSeconds(5);
+
+    /** Delay advertised in the Retry-After header of rejected requests. */
+    private Duration retryAfter = Duration.ofSeconds(1);
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public int getInitialLimit() {
+      return initialLimit;
+    }
+
+    public void setInitialLimit(int initialLimit) {
+      this.initialLimit = initialLimit;
+    }
+
+    public int getMinLimit() {
+      return minLimit;
+    }
+
+    public void setMinLimit(int minLimit) {
+      this.minLimit = minLimit;
+    }
+
+    public int getMaxLimit() {
+      return maxLimit;
+    }
+
+    public void setMaxLimit(int maxLimit) {
+      this.maxLimit = maxLimit;
+    }
+
+    public double getBackoffRatio() {
+      return backoffRatio;
+    }
+
+    public void setBackoffRatio(double backoffRatio) {
+      this.backoffRatio = backoffRatio;
+    }
+
+    public Duration getLatencyThreshold() {
+      return latencyThreshold;
+    }
+
+    public void setLatencyThreshold(Duration latencyThreshold) {
+      this.latencyThreshold = latencyThreshold;
+    }
+
+    public Duration getRetryAfter() {
+      return retryAfter;
+    }
+
+    public void setRetryAfter(Duration retryAfter) {
+      this.retryAfter = retryAfter;
+    }
+  }
+
+  /** Settings for the per-subject rate limit applied to each proxied route. */
+  public static class RateLimit {
+
+    /** Whether to reject requests once a subject exceeds its rate limit. */
+    private boolean enabled = true;
+
+    /** How long a subject's bucket is kept after its last request. */
+    private Duration idleTimeout = Duration.ofMinutes(10);
+
+    /** Maximum number of subjects to track per route. */
+    private long maximumSubjects = 100_000;
+
+    /** Rates, keyed by route id. */
+    private final Map<String, Rate> routes = new LinkedHashMap<>();
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public Duration getIdleTimeout() {
+      return idleTimeout;
+    }
+
+    public void setIdleTimeout(Duration idleTimeout) {
+      this.idleTimeout = idleTimeout;
+    }
+
+    public long getMaximumSubjects() {
+      return maximumSubjects;
+    }
+
+    public void setMaximumSubjects(long maximumSubjects) {
+      this.maximumSubjects = maximumSubjects;
+    }
+
+    public Map<String, Rate> getRoutes() {
+      return routes;
+    }
+
+    /**
+     * Returns the rate for the given route, falling back to the defaults when the route has not
+     * been configured.
+     *
+     * @param routeId the id of the gateway route
+     * @return the rate for the route
+     */
+    public Rate getRoute(String routeId) {
+      return routes.getOrDefault(routeId, new Rate());
+    }
+  }
+
+  /** A token-bucket rate: bursts of {@code capacity}, refilled at {@code refillTokens} a period. */
+  public static class Rate {
+
+    /** Maximum number of requests a subject may make in a burst. */
+    private long capacity = 120;
+
+    /** Number of requests a subject regains every refill period. */
+    private long refillTokens = 60;
+
+    /** Period over which {@code refillTokens} requests are regained. */
+    private Duration refillPeriod = Duration.ofMinutes(1);
+
+    public long getCapacity() {
+      return capacity;
+    }
+
+    public void setCapacity(long capacity) {
+      this.capacity = capacity;
+    }
+
+    public long getRefillTokens() {
+      return refillTokens;
+    }
+
+    public void setRefillTokens(long refillTokens) {
+      this.refillTokens = refillTokens;
+    }
+
+    public Duration getRefillPeriod() {
+      return refillPeriod;
+    }
+
+    public void setRefillPeriod(Duration refillPeriod) {
+      this.refillPeriod = refillPeriod;
+    }
+  }
+
+  /** Settings for the cache of read-only MCP call results. */
+  public static class ResponseCache {
+
+    /** Whether read-only MCP calls are answered from the cache. */
+    private boolean enabled = true;
+
+    /** Maximum total size of the cached results. */
+    private DataSize maximumSize = DataSize.ofMegabytes(64);
+
+    /** Largest response that is cached; larger responses are relayed but not stored. */
+    private DataSize maximumEntrySize = DataSize.ofMegabytes(1);
+
+    /** Largest request body that is inspected for a cacheable call. */
+    private DataSize maximumRequestSize = DataSize.ofKilobytes(64);
+
+    /** How long an identical call waits for one already in flight before going to the backend. */
+    private Duration collapseTimeout = Duration.ofSeconds(10);
+
+    /** Time to live of cached results, keyed by JSON-RPC method, for example tools/list. */
+    private final Map<String, Duration> methods = new LinkedHashMap<>();
+
+    /** Time to live of cached tools/call results, keyed by tool name, for example get_me. */
+    private final Map<String, Duration> tools = new LinkedHashMap<>();
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public DataSize getMaximumSize() {
+      return maximumSize;
+    }
+
+    public void setMaximumSize(DataSize maximumSize) {
+      this.maximumSize = maximumSize;
+    }
+
+    public DataSize getMaximumEntrySize() {
+      return maximumEntrySize;
+    }
+
+    public void setMaximumEntrySize(DataSize maximumEntrySize) {
+      this.maximumEntrySize = maximumEntrySize;
+    }
+
+    public DataSize getMaximumRequestSize() {
+      return maximumRequestSize;
+    }
+
+    public void setMaximumRequestSize(DataSize maximumRequestSize) {
+      this.maximumRequestSize = maximumRequestSize;
+    }
+
+    public Duration getCollapseTimeout() {
+      return collapseTimeout;
+    }
+
+    public void setCollapseTimeout(Duration collapseTimeout) {
+      this.collapseTimeout = collapseTimeout;
+    }
+
+    public Map<String, Duration> getMethods() {
+      return methods;
+    }
+
+    public Map<String, Duration> getTools() {
+      return tools;
+    }
+  }
+
+  /** Settings for the asynchronous access and audit log. */
+  public static class EventLog {
+
+    /** Whether to write access events for proxied requests. */
+    private boolean enabled = true;
+
+    /** Maximum number of events waiting to be written before new ones are dropped. */
+    private int queueCapacity = 8192;
+
+    /** Fraction of events to log for categories without their own sample rate. */
+    private double defaultSampleRate = 1.0;
+
+    /** Fraction of events to log, keyed by category. */
+    private final Map<String, Double> sampleRates = new LinkedHashMap<>();
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public int getQueueCapacity() {
+      return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+      this.queueCapacity = queueCapacity;
+    }
+
+    public double getDefaultSampleRate() {
+      return defaultSampleRate;
+    }
+
+    public void setDefaultSampleRate(double defaultSampleRate) {
+      this.defaultSampleRate = defaultSampleRate;
+    }
+
+    public Map<String, Double> getSampleRates() {
+      return sampleRates;
+    }
+  }
+
+  /**
+   * Settings for the backend instances of a route and the pooled HTTP client used to reach them.
+   */
+  public static class Upstream {
+
+    /** Base URIs of the backend instances requests are balanced across. */
+    private List<URI> instances = List.of(URI.create("http://localhost:8084"));
+
+    /** How an instance is picked for each request. */
+    private UpstreamPool.Strategy strategy = UpstreamPool.Strategy.POWER_OF_TWO_CHOICES;
+
+    /** Active health checks of the backend instances. */
+    private final HealthCheck healthCheck = new HealthCheck();
+
+    /** Passive health checks that eject failing or slow instances. */
+    private final OutlierDetection outlierDetection = new OutlierDetection();
+
+    /** Circuit breaker that fails requests fast while the backend as a whole is failing. */
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    /**
+     * HTTP protocols to negotiate. {@code H2C} together with {@code HTTP11} upgrades cleartext
+     * connections to HTTP/2 when the backend supports it; {@code H2C} alone assumes prior
+     * knowledge.
+     */
+    private List<HttpProtocol> protocols = List.of(HttpProtocol.HTTP11);
+
+    /** Maximum number of pooled connections to the backend. */
+    private int maxConnections = 50;
+
+    /** Maximum number of concurrent streams per HTTP/2 connection. */
+    private long maxConcurrentStreams = 100;
+
+    /** Maximum number of requests waiting for a connection before new ones are rejected. */
+    private int pendingAcquireMaxCount = 500;
+
+    /** Maximum time to wait for a pooled connection. */
+    private Duration pendingAcquireTimeout = Duration.ofSeconds(5);
+
+    /** How long a connection may stay idle in the pool before it is closed. */
+    private Duration maxIdleTime = Duration.ofSeconds(30);
+
+    /** Maximum lifetime of a pooled connection. */
+    private Duration maxLifeTime = Duration.ofMinutes(10);
+
+    /** How often idle and expired connections are evicted in the background. */
+    private Duration evictionInterval = Duration.ofSeconds(30);
+
+    /** Timeout for establishing a new connection. */
+    private Duration connectTimeout = Duration.ofSeconds(2);
+
+    /** Maximum time to wait between reads of the backend's response. */
+    private Duration readTimeout = Duration.ofSeconds(60);
+
+    public List<URI> getInstances() {
+      return instances;
+    }
+
+    public void setInstances(List<URI> instances) {
+      this.instances = instances;
+    }
+
+    public UpstreamPool.Strategy getStrategy() {
+      return strategy;
+    }
+
+    public void setStrategy(UpstreamPool.Strategy strategy) {
+      this.strategy = strategy;
+    }
+
+    public HealthCheck getHealthCheck() {
+      return healthCheck;
+    }
+
+    public OutlierDetection getOutlierDetection() {
+      return outlierDetection;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+      return circuitBreaker;
+    }
+
+    public List<HttpProtocol> getProtocols() {
+      return protocols;
+    }
+
+    public void setProtocols(List<HttpProtocol> protocols) {
+      this.protocols = protocols;
+    }
+
+    public int getMaxConnections() {
+      return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+      this.maxConnections = maxConnections;
+    }
+
+    public long getMaxConcurrentStreams() {
+      return maxConcurrentStreams;
+    }
+
+    public void setMaxConcurrentStreams(long maxConcurrentStreams) {
+      this.maxConcurrentStreams = maxConcurrentStreams;
+    }
+
+    public int getPendingAcquireMaxCount() {
+      return pendingAcquireMaxCount;
+    }
+
+    public void setPendingAcquireMaxCount(int pendingAcquireMaxCount) {
+      this.pendingAcquireMaxCount = pendingAcquireMaxCount;
+    }
+
+    public Duration getPendingAcquireTimeout() {
+      return pendingAcquireTimeout;
+    }
+
+    public void setPendingAcquireTimeout(Duration pendingAcquireTimeout) {
+      this.pendingAcquireTimeout = pendingAcquireTimeout;
+    }
+
+    public Duration getMaxIdleTime() {
+      return maxIdleTime;
+    }
+
+    public void setMaxIdleTime(Duration maxIdleTime) {
+      this.maxIdleTime = maxIdleTime;
+    }
+
+    public Duration getMaxLifeTime() {
+      return maxLifeTime;
+    }
+
+    public void setMaxLifeTime(Duration maxLifeTime) {
+      this.maxLifeTime = maxLifeTime;
+    }
+
+    public Duration getEvictionInterval() {
+      return evictionInterval;
+    }
+
+    public void setEvictionInterval(Duration evictionInterval) {
+      this.evictionInterval = evictionInterval;
+    }
+
+    public Duration getConnectTimeout() {
+      return connectTimeout;
+    }
+
+    public void setConnectTimeout(Duration connectTimeout) {
+      this.connectTimeout = connectTimeout;
+    }
+
+    public Duration getReadTimeout() {
+      return readTimeout;
+    }
+
+    public void setReadTimeout(Duration readTimeout) {
+      this.readTimeout = readTimeout;
+    }
+  }
+
+  /** Settings for the active health checks of a route's backend instances. */
+  public static class HealthCheck {
+
+    /** Whether instances are probed in the background. */
+    private boolean enabled = true;
+
+    /** Path of the health endpoint, resolved against each instance URI. */
+    private String path = "/actuator/health";
+
+    /** Time between two rounds of probes. */
+    private Duration interval = Duration.ofSeconds(10);
+
+    /** Connect and read timeout of a single probe. */
+    private Duration timeout = Duration.ofSeconds(2);
+
+    /** Successful probes in a row before an unhealthy instance is used again. */
+    private int healthyThreshold = 2;
+
+    /** Failed probes in a row before an instance is taken out of rotation. */
+    private int unhealthyThreshold = 3;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public void setPath(String path) {
+      this.path = path;
+    }
+
+    public Duration getInterval() {
+      return interval;
+    }
+
+    public void setInterval(Duration interval) {
+      this.interval = interval;
+    }
+
+    public Duration getTimeout() {
+      return timeout;
+    }
+
+    public void setTimeout(Duration timeout) {
+      this.timeout = timeout;
+    }
+
+    public int getHealthyThreshold() {
+      return healthyThreshold;
+    }
+
+    public void setHealthyThreshold(int healthyThreshold) {
+      this.healthyThreshold = healthyThreshold;
+    }
+
+    public int getUnhealthyThreshold() {
+      return unhealthyThreshold;
+    }
+
+    public void setUnhealthyThreshold(int unhealthyThreshold) {
+      this.unhealthyThreshold = unhealthyThreshold;
+    }
+  }
+
+  /** Settings for retrying idempotent MCP calls whose exchange with the backend failed. */
+  public static class Retry {
+
+    /** Whether failed exchanges for idempotent calls are retried. */
+    private boolean enabled = true;
+
+    /** Maximum number of attempts per call, including the first. */
+    private int maxAttempts = 3;
+
+    /** Base delay before the first retry; doubled for each further retry, with full jitter. */
+    private Duration backoff = Duration.ofMillis(50);
+
+    /** Upper bound for the delay before a retry. */
+    private Duration maxBackoff = Duration.ofSeconds(1);
+
+    /** Retries allowed as a share of all requests, across the whole gateway. */
+    private double budgetRatio = 0.2;
+
+    /** Retries per second that are allowed regardless of traffic. */
+    private double minRetriesPerSecond = 5;
+
+    /** Maximum number of retries saved up in the budget from past requests. */
+    private long maxBudget = 100;
+
+    /** Largest request body that is buffered so it can be sent again. */
+    private DataSize maximumRequestSize = DataSize.ofKilobytes(64);
+
+    /** JSON-RPC methods that are safe to send more than once. */
+    private Set<String> methods =
+        new LinkedHashSet<>(
+            List.of(
+                "initialize",
+                "ping",
+                "tools/list",
+                "prompts/list",
+                "prompts/get",
+                "resources/list",
+                "resources/templates/list",
+                "resources/read"));
+
+    /** Tools without side effects whose tools/call is safe to send more than once. */
+    private Set<String> tools = new LinkedHashSet<>();
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public int getMaxAttempts() {
+      return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+      this.maxAttempts = maxAttempts;
+    }
+
+    public Duration getBackoff() {
+      return backoff;
+    }
+
+    public void setBackoff(Duration backoff) {
+      this.backoff = backoff;
+    }
+
+    public Duration getMaxBackoff() {
+      return maxBackoff;
+    }
+
+    public void setMaxBackoff(Duration maxBackoff) {
+      this.maxBackoff = maxBackoff;
+    }
+
+    public double getBudgetRatio() {
+      return budgetRatio;
+    }
+
+    public void setBudgetRatio(double budgetRatio) {
+      this.budgetRatio = budgetRatio;
+    }
+
+    public double getMinRetriesPerSecond() {
+      return minRetriesPerSecond;
+    }
+
+    public void setMinRetriesPerSecond(double minRetriesPerSecond) {
+      this.minRetriesPerSecond = minRetriesPerSecond;
+    }
+
+    public long getMaxBudget() {
+      return maxBudget;
+    }
+
+    public void setMaxBudget(long maxBudget) {
+      this.maxBudget = maxBudget;
+    }
+
+    public DataSize getMaximumRequestSize() {
+      return maximumRequestSize;
+    }
+
+    public void setMaximumRequestSize(DataSize maximumRequestSize) {
+      this.maximumRequestSize = maximumRequestSize;
+    }
+
+    public Set<String> getMethods() {
+      return methods;
+    }
+
+    public void setMethods(Set<String> methods) {
+      this.methods = methods;
+    }
+
+    public Set<String> getTools() {
+      return tools;
+    }
+
+    public void setTools(Set<String> tools) {
+      this.tools = tools;
+    }
+  }
+
+  /** Settings for the circuit breaker in front of a route's backend. */
+  public static class CircuitBreaker {
+
+    /** Whether requests fail fast while the backend keeps failing. */
+    private boolean enabled = true;
+
+    /** Number of most recent calls the failure rate is computed over. */
+    private int slidingWindowSize = 20;
+
+    /** Calls that must be recorded before the failure rate can open the circuit. */
+    private int minimumNumberOfCalls = 10;
+
+    /** Share of failed calls in the window at which the circuit opens. */
+    private double failureRateThreshold = 0.5;
+
+    /** How long the circuit stays open before probe calls are let through. */
+    private Duration waitDurationInOpenState = Duration.ofSeconds(10);
+
+    /** Probe calls let through while half-open; all must succeed to close the circuit. */
+    private int permittedCallsInHalfOpenState = 3;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public int getSlidingWindowSize() {
+      return slidingWindowSize;
+    }
+
+    public void setSlidingWindowSize(int slidingWindowSize) {
+      this.slidingWindowSize = slidingWindowSize;
+    }
+
+    public int getMinimumNumberOfCalls() {
+      return minimumNumberOfCalls;
+    }
+
+    public void setMinimumNumberOfCalls(int minimumNumberOfCalls) {
+      this.minimumNumberOfCalls = minimumNumberOfCalls;
+    }
+
+    public double getFailureRateThreshold() {
+      return failureRateThreshold;
+    }
+
+    public void setFailureRateThreshold(double failureRateThreshold) {
+      this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public Duration getWaitDurationInOpenState() {
+      return waitDurationInOpenState;
+    }
+
+    public void setWaitDurationInOpenState(Duration waitDurationInOpenState) {
+      this.waitDurationInOpenState = waitDurationInOpenState;
+    }
+
+    public int getPermittedCallsInHalfOpenState() {
+      return permittedCallsInHalfOpenState;
+    }
+
+    public void setPermittedCallsInHalfOpenState(int permittedCallsInHalfOpenState) {
+      this.permittedCallsInHalfOpenState = permittedCallsInHalfOpenState;
+    }
+  }
+
+  /** Settings for ejecting backend instances that fail or respond slowly. */
+  public static class OutlierDetection {
+
+    /** Failed or slow requests in a row before an instance is ejected. */
+    private int consecutiveFailures = 5;
+
+    /** Requests slower than this, until response headers, count as failures. Zero disables it. */
+    private Duration slowCallThreshold = Duration.ofSeconds(10);
+
+    /** How long an instance is ejected the first time; doubled for each further ejection. */
+    private Duration baseEjectionTime = Duration.ofSeconds(30);
+
+    /** Upper bound for the ejection time. */
+    private Duration maxEjectionTime = Duration.ofMinutes(5);
+
+    /** Largest fraction of the instances that may be ejected at the same time. */
+    private double maxEjectionRatio = 0.5;
+
+    public int getConsecutiveFailures() {
+      return consecutiveFailures;
+    }
+
+    public void setConsecutiveFailures(int consecutiveFailures) {
+      this.consecutiveFailures = consecutiveFailures;
+    }
+
+    public Duration getSlowCallThreshold() {
+      return slowCallThreshold;
+    }
+
+    public void setSlowCallThreshold(Duration slowCallThreshold) {
+      this.slowCallThreshold = slowCallThreshold;
+    }
+
+    public Duration getBaseEjectionTime() {
+      return baseEjectionTime;
+    }
+
+    public void setBaseEjectionTime(Duration baseEjectionTime) {
+      this.baseEjectionTime = baseEjectionTime;
+    }
+
+    public Duration getMaxEjectionTime() {
+      return maxEjectionTime;
+    }
+
+    public void setMaxEjectionTime(Duration maxEjectionTime) {
+      this.maxEjectionTime = maxEjectionTime;
+    }
+
+    public double getMaxEjectionRatio() {
+      return maxEjectionRatio;
+    }
+
+    public void setMaxEjectionRatio(double maxEjectionRatio) {
+      this.maxEjectionRatio = maxEjectionRatio;
+    }
+  }
+}
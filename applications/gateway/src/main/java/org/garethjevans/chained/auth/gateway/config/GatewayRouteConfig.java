@@ -1,13 +1,41 @@
 package org.garethjevans.chained.auth.gateway.config;
 
+import static org.garethjevans.chained.auth.gateway.filter.AccessLogFilter.logAccess;
 import static org.garethjevans.chained.auth.gateway.filter.AuthenticationRequiredFilter.requireAuthentication;
+import static org.garethjevans.chained.auth.gateway.filter.CircuitBreakerFilter.failFastWhenOpen;
+import static org.garethjevans.chained.auth.gateway.filter.ConcurrencyLimitFilter.limitConcurrency;
 import static org.garethjevans.chained.auth.gateway.filter.JwtTokenModifierFilter.modifyBearerToken;
+import static org.garethjevans.chained.auth.gateway.filter.JwtVerificationFilter.verifyBearerToken;
+import static org.garethjevans.chained.auth.gateway.filter.LoadBalancingFilter.loadBalance;
+import static org.garethjevans.chained.auth.gateway.filter.PhantomTokenFilter.resolvePhantomTokens;
 import static org.garethjevans.chained.auth.gateway.filter.ProtectedResourceMetadataFilter.serveProtectedResourceMetadata;
-import static org.springframework.cloud.gateway.server.mvc.filter.BeforeFilterFunctions.uri;
+import static org.garethjevans.chained.auth.gateway.filter.RateLimitFilter.rateLimitBySubject;
+import static org.garethjevans.chained.auth.gateway.filter.ResponseCacheFilter.cacheReadOnlyCalls;
+import static org.garethjevans.chained.auth.gateway.filter.RetryFilter.retryIdempotentCalls;
+import static org.garethjevans.chained.auth.gateway.filter.UpstreamMetricsFilter.recordUpstream;
 import static org.springframework.cloud.gateway.server.mvc.handler.GatewayRouterFunctions.route;
 import static org.springframework.cloud.gateway.server.mvc.handler.HandlerFunctions.http;
 import static org.springframework.cloud.gateway.server.mvc.predicate.GatewayRequestPredicates.path;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.garethjevans.chained.auth.gateway.cache.McpResponseCache;
+import org.garethjevans.chained.auth.gateway.core.config.TokenCacheProperties;
+import org.garethjevans.chained.auth.gateway.core.metrics.GatewayMetrics;
+import org.garethjevans.chained.auth.gateway.core.token.TokenSwapCache;
+import org.garethjevans.chained.auth.gateway.limit.AdaptiveConcurrencyLimiter;
+import org.garethjevans.chained.auth.gateway.limit.SubjectRateLimiter;
+import org.garethjevans.chained.auth.gateway.token.JwksKeyCache;
+import org.garethjevans.chained.auth.gateway.token.JwtVerifier;
+import org.garethjevans.chained.auth.gateway.token.PhantomTokenResolver;
+import org.garethjevans.chained.auth.gateway.upstream.CircuitBreaker;
+import org.garethjevans.chained.auth.gateway.upstream.RetryBudget;
+import org.garethjevans.chained.auth.gateway.upstream.UpstreamPool;
+import org.garethjevans.chained.auth.logging.EventLogger;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.gateway.server.mvc.handler.ProxyExchangeHandlerFunction;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.function.RouterFunction;
@@ -15,8 +43,117 @@ import org.springframework.web.servlet.function.ServerResponse;
 
 /** Configuration for Gateway routes with JWT token modification filter. */
 @Configuration
+@EnableConfigurationProperties(GatewayProperties.class)
 public class GatewayRouteConfig {
 
+  @Bean
+  public TokenSwapCache tokenSwapCache(GatewayProperties properties) {
+    TokenCacheProperties tokenCache = properties.getTokenCache();
+    return new TokenSwapCache(tokenCache.getMaximumSize(), tokenCache.getDefaultTimeToLive());
+  }
+
+  @Bean
+  public GatewayMetrics gatewayMetrics(MeterRegistry meterRegistry) {
+    return new GatewayMetrics(meterRegistry);
+  }
+
+  @Bean
+  @ConditionalOnProperty(
+      prefix = "gateway.event-log",
+      name = "enabled",
+      havingValue = "true",
+      matchIfMissing = true)
+  public EventLogger eventLogger(GatewayProperties properties) {
+    GatewayProperties.EventLog eventLog = properties.getEventLog();
+    return new EventLogger(
+        "gateway-event-log",
+        eventLog.getQueueCapacity(),
+        eventLog.getSampleRates(),
+        eventLog.getDefaultSampleRate());
+  }
+
+  @Bean
+  @ConditionalOnProperty(prefix = "gateway.verification", name = "enabled", havingValue = "true")
+  public JwksKeyCache jwksKeyCache(GatewayProperties properties) {
+    GatewayProperties.Verification verification = properties.getVerification();
+    return new JwksKeyCache(
+        verification.getJwkSetUri(),
+        verification.getRefreshInterval(),
+        verification.getMinimumRefreshInterval(),
+        verification.getRequestTimeout());
+  }
+
+  @Bean
+  @ConditionalOnProperty(prefix = "gateway.verification", name = "enabled", havingValue = "true")
+  public JwtVerifier jwtVerifier(JwksKeyCache jwksKeyCache, GatewayProperties properties) {
+    GatewayProperties.Verification verification = properties.getVerification();
+    return new JwtVerifier(
+        jwksKeyCache, verification.getClockSkew(), verification.getMaximumSize());
+  }
+
+  @Bean
+  @ConditionalOnProperty(prefix = "gateway.phantom-token", name = "enabled", havingValue = "true")
+  public PhantomTokenResolver phantomTokenResolver(GatewayProperties properties) {
+    GatewayProperties.PhantomToken phantomToken = properties.getPhantomToken();
+    return new PhantomTokenResolver(
+        phantomToken.getIntrospectionUri(),
+        phantomToken.getClientId(),
+        phantomToken.getClientSecret(),
+        phantomToken.getRequestTimeout(),
+        phantomToken.getMaximumTimeToLive(),
+        phantomToken.getNegativeTimeToLive(),
+        phantomToken.getMaximumSize());
+  }
+
+  @Bean
+  @ConditionalOnProperty(
+      prefix = "gateway.concurrency-limit",
+      name = "enabled",
+      havingValue = "true",
+      matchIfMissing = true)
+  public AdaptiveConcurrencyLimiter githubMcpServerConcurrencyLimiter(
+      GatewayProperties properties) {
+    return concurrencyLimiter("github-mcp-server", properties.getConcurrencyLimit());
+  }
+
+  @Bean
+  @ConditionalOnProperty(
+      prefix = "gateway.rate-limit",
+      name = "enabled",
+      havingValue = "true",
+      matchIfMissing = true)
+  public SubjectRateLimiter githubMcpServerRateLimiter(GatewayProperties properties) {
+    return rateLimiter("github-mcp-server", properties.getRateLimit());
+  }
+
+  @Bean
+  @ConditionalOnProperty(
+      prefix = "gateway.response-cache",
+      name = "enabled",
+      havingValue = "true",
+      matchIfMissing = true)
+  public McpResponseCache githubMcpServerResponseCache(GatewayProperties properties) {
+    GatewayProperties.ResponseCache responseCache = properties.getResponseCache();
+    return new McpResponseCache(
+        "github-mcp-server",
+        responseCache.getMethods(),
+        responseCache.getTools(),
+        responseCache.getMaximumSize().toBytes(),
+        responseCache.getCollapseTimeout());
+  }
+
+  @Bean
+  @ConditionalOnProperty(
+      prefix = "gateway.retry",
+      name = "enabled",
+      havingValue = "true",
+      matchIfMissing = true)
+  public RetryBudget retryBudget(GatewayProperties properties) {
+    GatewayProperties.Retry retry = properties.getRetry();
+    return new RetryBudget(
+        retry.getBudgetRatio(), retry.getMinRetriesPerSecond(), retry.getMaxBudget());
+  }
+
   @Bean
   public RouterFunction<ServerResponse> protectedResourceMetadataRoute() {
     return route("protected-resource-metadata")
@@ -26,12 +163,102 @@ public class GatewayRouteConfig {
   }
 
   @Bean
-  public RouterFunction<ServerResponse> githubMcpServerRoute() {
-    return route("github-mcp-server")
-        .route(path("/mcp/**").or(path("/mcp")), http())
-        .filter(requireAuthentication())
-        .before(uri("http://localhost:8084"))
-        .before(modifyBearerToken())
+  public RouterFunction<ServerResponse> githubMcpServerRoute(
+      TokenSwapCache tokenSwapCache,
+      GatewayMetrics gatewayMetrics,
+      ObjectProvider<EventLogger> eventLogger,
+      ObjectProvider<JwtVerifier> jwtVerifier,
+      ObjectProvider<PhantomTokenResolver> phantomTokenResolver,
+      @Qualifier("githubMcpServerConcurrencyLimiter")
+          ObjectProvider<AdaptiveConcurrencyLimiter> concurrencyLimiter,
+      @Qualifier("githubMcpServerRateLimiter") ObjectProvider<SubjectRateLimiter> rateLimiter,
+      @Qualifier("githubMcpServerResponseCache") ObjectProvider<McpResponseCache> responseCache,
+      @Qualifier("githubMcpServerCircuitBreaker") ObjectProvider<CircuitBreaker> circuitBreaker,
+      ObjectProvider<RetryBudget> retryBudget,
+      GatewayProperties properties,
+      UpstreamPool githubMcpServerUpstreamPool,
+      ProxyExchangeHandlerFunction githubMcpServerProxy) {
+    var builder =
+        route("github-mcp-server")
+            // Proxy through the route's own connection pool, see UpstreamClientConfig
+            .route(path("/mcp/**").or(path("/mcp")), githubMcpServerProxy);
+    // Log every request, including those rejected by the filters below
+    eventLogger.ifAvailable(
+        logger -> builder.filter(logAccess(logger, "github-mcp-server", tokenSwapCache)));
+    builder.filter(requireAuthentication(gatewayMetrics));
+    PhantomTokenResolver resolver = phantomTokenResolver.getIfAvailable();
+    // Only forward tokens signed by the auth-adapter when verification is enabled
+    jwtVerifier.ifAvailable(
+        verifier -> builder.filter(verifyBearerToken(verifier, resolver != null)));
+    if (resolver != null) {
+      // Look reference tokens up at the auth-adapter; the swap itself happens below
+      builder.filter(resolvePhantomTokens(resolver, tokenSwapCache));
+    }
+    // Stop a single subject from using up the backend and the upstream rate limit; without
+    // verification the subject of a JWT can be forged, so those are limited by address instead
+    boolean verified = jwtVerifier.getIfAvailable() != null;
+    rateLimiter.ifAvailable(
+        limiter -> builder.filter(rateLimitBySubject(limiter, tokenSwapCache, verified)));
+    // Answer repeated read-only calls without using a concurrency permit or the backend
+    responseCache.ifAvailable(
+        cache ->
+            builder.filter(
+                cacheReadOnlyCalls(
+                    cache,
+                    (int) properties.getResponseCache().getMaximumRequestSize().toBytes(),
+                    (int) properties.getResponseCache().getMaximumEntrySize().toBytes())));
+    // Shed load before it reaches the MCP server, once the request is known to be authenticated
+    concurrencyLimiter.ifAvailable(
+        limiter ->
+            builder.filter(
+                limitConcurrency(limiter, properties.getConcurrencyLimit().getRetryAfter())));
+    // Retry idempotent calls whose exchange failed, each attempt passing the circuit breaker
+    retryBudget.ifAvailable(
+        budget ->
+            builder.filter(
+                retryIdempotentCalls(
+                    budget,
+                    properties.getRetry().getMethods(),
+                    properties.getRetry().getTools(),
+                    properties.getRetry().getMaxAttempts(),
+                    properties.getRetry().getBackoff(),
+                    properties.getRetry().getMaxBackoff(),
+                    (int) properties.getRetry().getMaximumRequestSize().toBytes())));
+    // Fail fast with a JSON-RPC error instead of waiting on a backend that keeps failing
+    circuitBreaker.ifAvailable(
+        breaker ->
+            builder.filter(
+                failFastWhenOpen(
+                    breaker, (int) properties.getRetry().getMaximumRequestSize().toBytes())));
+    return builder
+        .before(modifyBearerToken(tokenSwapCache, gatewayMetrics))
+        // Pick an MCP server instance; its outcome feeds the pool's passive health checks
+        .filter(loadBalance(githubMcpServerUpstreamPool))
+        // Added last so that only the exchange with the MCP server is timed
+        .filter(recordUpstream(gatewayMetrics, "github-mcp-server"))
         .build();
   }
+
+  private static AdaptiveConcurrencyLimiter concurrencyLimiter(
+      String routeId, GatewayProperties.ConcurrencyLimit concurrencyLimit) {
+    return new AdaptiveConcurrencyLimiter(
+        routeId,
+        concurrencyLimit.getInitialLimit(),
+        concurrencyLimit.getMinLimit(),
+        concurrencyLimit.getMaxLimit(),
+        concurrencyLimit.getBackoffRatio(),
+        concurrencyLimit.getLatencyThreshold());
+  }
+
+  private static SubjectRateLimiter rateLimiter(
+      String routeId, GatewayProperties.RateLimit rateLimit) {
+    GatewayProperties.Rate rate = rateLimit.getRoute(routeId);
+    return new SubjectRateLimiter(
+        routeId,
+        rate.getCapacity(),
+        rate.getRefillTokens(),
+        rate.getRefillPeriod(),
+        rateLimit.getIdleTimeout(),
+        rateLimit.getMaximumSubjects());
+  }
 }
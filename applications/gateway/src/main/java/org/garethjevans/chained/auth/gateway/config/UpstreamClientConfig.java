@@ -0,0 +1,148 @@
+package org.garethjevans.chained.auth.gateway.config;
+
+import io.netty.channel.ChannelOption;
+import org.garethjevans.chained.auth.gateway.proxy.StreamingRestClientProxyExchange;
+import org.garethjevans.chained.auth.gateway.upstream.CircuitBreaker;
+import org.garethjevans.chained.auth.gateway.upstream.UpstreamHealthCheck;
+import org.garethjevans.chained.auth.gateway.upstream.UpstreamPool;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.gateway.server.mvc.config.GatewayMvcProperties;
+import org.springframework.cloud.gateway.server.mvc.filter.HttpHeadersFilter.RequestHttpHeadersFilter;
+import org.springframework.cloud.gateway.server.mvc.filter.HttpHeadersFilter.ResponseHttpHeadersFilter;
+import org.springframework.cloud.gateway.server.mvc.handler.ProxyExchangeHandlerFunction;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ReactorClientHttpRequestFactory;
+import org.springframework.web.client.RestClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Configuration for the pooled HTTP clients the gateway routes use to reach their backends. Each
+ * route gets its own Reactor Netty connection pool, sized and timed out from {@code
+ * gateway.upstreams.<route-id>}, so one slow backend cannot exhaust connections meant for another.
+ *
+ * <p>Pool metrics are published under {@code reactor.netty.connection.provider.*}, tagged with the
+ * pool name (the route id): total, active, idle and pending connections, plus the time spent
+ * waiting to lease a connection ({@code pending.connections.time}).
+ *
+ * <p>A route's backend may run as several instances, listed under {@code
+ * gateway.upstreams.<route-id>.instances}. Requests are spread across them by an {@link
+ * UpstreamPool}; the connection pool is shared, with its limits applying per instance address.
+ */
+@Configuration
+public class UpstreamClientConfig {
+
+  private static final String GITHUB_MCP_SERVER_ROUTE = "github-mcp-server";
+
+  @Bean(destroyMethod = "dispose")
+  public ConnectionProvider githubMcpServerConnectionProvider(GatewayProperties properties) {
+    return connectionProvider(
+        GITHUB_MCP_SERVER_ROUTE, properties.getUpstream(GITHUB_MCP_SERVER_ROUTE));
+  }
+
+  @Bean
+  public UpstreamPool githubMcpServerUpstreamPool(GatewayProperties properties) {
+    return upstreamPool(GITHUB_MCP_SERVER_ROUTE, properties.getUpstream(GITHUB_MCP_SERVER_ROUTE));
+  }
+
+  @Bean
+  @ConditionalOnProperty(
+      prefix = "gateway.upstreams.github-mcp-server.health-check",
+      name = "enabled",
+      havingValue = "true",
+      matchIfMissing = true)
+  public UpstreamHealthCheck githubMcpServerHealthCheck(
+      UpstreamPool githubMcpServerUpstreamPool, GatewayProperties properties) {
+    GatewayProperties.HealthCheck healthCheck =
+        properties.getUpstream(GITHUB_MCP_SERVER_ROUTE).getHealthCheck();
+    return new UpstreamHealthCheck(
+        githubMcpServerUpstreamPool,
+        healthCheck.getPath(),
+        healthCheck.getInterval(),
+        healthCheck.getTimeout(),
+        healthCheck.getHealthyThreshold(),
+        healthCheck.getUnhealthyThreshold());
+  }
+
+  @Bean
+  @ConditionalOnProperty(
+      prefix = "gateway.upstreams.github-mcp-server.circuit-breaker",
+      name = "enabled",
+      havingValue = "true",
+      matchIfMissing = true)
+  public CircuitBreaker githubMcpServerCircuitBreaker(GatewayProperties properties) {
+    GatewayProperties.CircuitBreaker circuitBreaker =
+        properties.getUpstream(GITHUB_MCP_SERVER_ROUTE).getCircuitBreaker();
+    return new CircuitBreaker(
+        GITHUB_MCP_SERVER_ROUTE,
+        circuitBreaker.getSlidingWindowSize(),
+        circuitBreaker.getMinimumNumberOfCalls(),
+        circuitBreaker.getFailureRateThreshold(),
+        circuitBreaker.getWaitDurationInOpenState(),
+        circuitBreaker.getPermittedCallsInHalfOpenState());
+  }
+
+  /**
+   * Proxy handler for the GitHub MCP server route. Registered as a bean so that it picks up the
+   * gateway's request and response header filters once the context has been refreshed. Request and
+   * response bodies are streamed, so SSE events from the MCP server are relayed as they arrive.
+   */
+  @Bean
+  public ProxyExchangeHandlerFunction githubMcpServerProxy(
+      ConnectionProvider githubMcpServerConnectionProvider,
+      GatewayProperties properties,
+      GatewayMvcProperties gatewayMvcProperties,
+      RestClient.Builder restClientBuilder,
+      ObjectProvider<RequestHttpHeadersFilter> requestHttpHeadersFilters,
+      ObjectProvider<ResponseHttpHeadersFilter> responseHttpHeadersFilters) {
+    HttpClient httpClient =
+        httpClient(
+            githubMcpServerConnectionProvider, properties.getUpstream(GITHUB_MCP_SERVER_ROUTE));
+    RestClient restClient =
+        restClientBuilder.requestFactory(new ReactorClientHttpRequestFactory(httpClient)).build();
+    return new ProxyExchangeHandlerFunction(
+        new StreamingRestClientProxyExchange(restClient, gatewayMvcProperties),
+        requestHttpHeadersFilters,
+        responseHttpHeadersFilters);
+  }
+
+  private static UpstreamPool upstreamPool(String routeId, GatewayProperties.Upstream upstream) {
+    GatewayProperties.OutlierDetection outlierDetection = upstream.getOutlierDetection();
+    return new UpstreamPool(
+        routeId,
+        upstream.getInstances(),
+        upstream.getStrategy(),
+        outlierDetection.getConsecutiveFailures(),
+        outlierDetection.getSlowCallThreshold(),
+        outlierDetection.getBaseEjectionTime(),
+        outlierDetection.getMaxEjectionTime(),
+        outlierDetection.getMaxEjectionRatio());
+  }
+
+  private static ConnectionProvider connectionProvider(
+      String routeId, GatewayProperties.Upstream upstream) {
+    return ConnectionProvider.builder(routeId)
+        .maxConnections(upstream.getMaxConnections())
+        .pendingAcquireMaxCount(upstream.getPendingAcquireMaxCount())
+        .pendingAcquireTimeout(upstream.getPendingAcquireTimeout())
+        .maxIdleTime(upstream.getMaxIdleTime())
+        .maxLifeTime(upstream.getMaxLifeTime())
+        .evictInBackground(upstream.getEvictionInterval())
+        .metrics(true)
+        .build();
+  }
+
+  private static HttpClient httpClient(
+      ConnectionProvider connectionProvider, GatewayProperties.Upstream upstream) {
+    return HttpClient.create(connectionProvider)
+        .protocol(upstream.getProtocols().toArray(HttpProtocol[]::new))
+        .keepAlive(true)
+        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) upstream.getConnectTimeout().toMillis())
+        .responseTimeout(upstream.getReadTimeout())
+        .http2Settings(
+            settings -> settings.maxConcurrentStreams(upstream.getMaxConcurrentStreams()));
+  }
+}
@@ -0,0 +1,102 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+import org.garethjevans.chained.auth.gateway.core.token.JwtClaimsExtractor;
+import org.garethjevans.chained.auth.gateway.core.token.TokenSwapCache;
+import org.garethjevans.chained.auth.gateway.core.token.TokenSwapCache.SwappedToken;
+import org.garethjevans.chained.auth.gateway.token.PhantomTokenResolver;
+import org.garethjevans.chained.auth.logging.EventLogger;
+import org.jspecify.annotations.Nullable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.servlet.function.ServerResponse;
+
+/**
+ * Gateway filter that writes one {@code access} event per request to the {@link EventLogger}: the
+ * route, method, path, response status, duration, client address and the subject of the proxy JWT.
+ * It is added first, so rejections by the other filters are logged as well. The query string is
+ * left out because it may carry credentials.
+ *
+ * <p>The fields are only worked out once the event is sampled. The subject is read from the entry
+ * the token has in the {@link TokenSwapCache} by the time the request has been handled, which is
+ * also where the subject of a phantom-token reference token is found, or from the claims an earlier
+ * filter decoded. The proxy JWT is only decoded here when neither has it.
+ */
+@Component
+public class AccessLogFilter {
+
+  static final String CATEGORY = "access";
+
+  private static final String BEARER_PREFIX = "Bearer ";
+
+  /**
+   * Creates a filter function that logs every request handled by the route.
+   *
+   * @param eventLogger the event log to write to
+   * @param routeId the id of the route the filter is added to
+   * @param tokenSwapCache the cache swapped and resolved tokens are stored in
+   * @return A HandlerFilterFunction that logs the request once it has been handled
+   */
+  public static HandlerFilterFunction<ServerResponse, ServerResponse> logAccess(
+      EventLogger eventLogger, String routeId, TokenSwapCache tokenSwapCache) {
+    return (request, next) -> {
+      long start = System.nanoTime();
+      int status = 500;
+      try {
+        ServerResponse response = next.handle(request);
+        status = response.statusCode().value();
+        return response;
+      } finally {
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        int loggedStatus = status;
+        eventLogger.log(
+            CATEGORY,
+            () ->
+                new Object[] {
+                  "route",
+                  routeId,
+                  "method",
+                  request.method().name(),
+                  "path",
+                  request.path(),
+                  "status",
+                  loggedStatus,
+                  "duration_ms",
+                  durationMillis,
+                  "client",
+                  request.servletRequest().getRemoteAddr(),
+                  "sub",
+                  subject(request, tokenSwapCache)
+                });
+      }
+    };
+  }
+
+  private static @Nullable String subject(ServerRequest request, TokenSwapCache tokenSwapCache) {
+    String authHeader = request.headers().firstHeader(HttpHeaders.AUTHORIZATION);
+    if (authHeader == null || !authHeader.startsWith(BEARER_PREFIX)) {
+      return null;
+    }
+    String token = authHeader.substring(BEARER_PREFIX.length());
+    SwappedToken swapped = tokenSwapCache.get(token);
+    if (swapped != null) {
+      return swapped.subject();
+    }
+    if (request.attributes().get(JwtTokenModifierFilter.CLAIMS_ATTRIBUTE)
+        instanceof JwtClaimsExtractor.Claims decoded) {
+      return decoded.subject();
+    }
+    if (PhantomTokenResolver.isReferenceToken(token)) {
+      // Rejected or not resolved, so there is no subject to log
+      return null;
+    }
+    try {
+      return JwtClaimsExtractor.extract(token).subject();
+    } catch (ParseException e) {
+      return null;
+    }
+  }
+}
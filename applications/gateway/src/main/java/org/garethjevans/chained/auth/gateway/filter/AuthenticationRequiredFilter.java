@@ -1,11 +1,17 @@
 package org.garethjevans.chained.auth.gateway.filter;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.garethjevans.chained.auth.gateway.core.metrics.GatewayMetrics;
+import org.garethjevans.chained.auth.gateway.core.metrics.GatewayMetrics.AuthenticationOutcome;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.ServerRequest;
 import org.springframework.web.servlet.function.ServerResponse;
 
 /**
@@ -13,6 +19,9 @@ import org.springframework.web.servlet.function.ServerResponse;
  * WWW-Authenticate header when no Authorization header is present in the incoming request. The
  * WWW-Authenticate header is formatted according to RFC 9728 (OAuth 2.0 Protected Resource
  * Metadata).
+ *
+ * <p>The challenge only depends on the host the request was sent to, so the resource metadata URL
+ * and the header value are built once per host and reused for every rejected request.
  */
 @Component
 public class AuthenticationRequiredFilter {
@@ -22,6 +31,10 @@ public class AuthenticationRequiredFilter {
   private static final String RESOURCE_METADATA_URL_TEMPLATE =
       "http://%s/.well-known/oauth-protected-resource";
 
+  // The Host header is client controlled, so bound the number of hosts we remember
+  private static final Cache<String, Challenge> CHALLENGES =
+      Caffeine.newBuilder().maximumSize(1_000).build();
+
   /**
    * Creates a filter function that checks for the presence of an Authorization header. If the
    * header is missing, returns a 401 Unauthorized response with the WWW-Authenticate header set
@@ -31,31 +44,68 @@ public class AuthenticationRequiredFilter {
    *     response
    */
   public static HandlerFilterFunction<ServerResponse, ServerResponse> requireAuthentication() {
+    return requireAuthentication(GatewayMetrics.noop());
+  }
+
+  /**
+   * Creates a filter function that checks for the presence of an Authorization header, recording
+   * each decision in the given metrics.
+   *
+   * @param metrics the metrics to record decisions in
+   * @return A HandlerFilterFunction that either allows the request to proceed or returns a 401
+   *     response
+   */
+  public static HandlerFilterFunction<ServerResponse, ServerResponse> requireAuthentication(
+      GatewayMetrics metrics) {
     return (request, next) -> {
       String authHeader = request.headers().firstHeader(HttpHeaders.AUTHORIZATION);
 
       if (authHeader == null || authHeader.trim().isEmpty()) {
-        LOGGER.warn(
-            "Request to {} rejected: No Authorization header present", request.uri().getPath());
+        // Look up the precomputed challenge for the request's host
+        Challenge challenge = challenge(request);
 
-        // Build the resource metadata URL from the request's host
-        String host = request.uri().getHost();
-        String hostAndPort =
-            host + (request.uri().getPort() == -1 ? "" : ":" + request.uri().getPort());
-        String resourceMetadataUrl = String.format(RESOURCE_METADATA_URL_TEMPLATE, hostAndPort);
-
-        LOGGER.info("Setting {} to {}", HttpHeaders.WWW_AUTHENTICATE, resourceMetadataUrl);
+        LOGGER.debug(
+            "Request to {} rejected: No Authorization header present, resource metadata at {}",
+            request.uri().getPath(),
+            challenge.resourceMetadataUrl());
+        metrics.recordAuthentication(AuthenticationOutcome.CHALLENGED);
 
         // Return 401 with WWW-Authenticate header as per RFC 9728
         return ServerResponse.status(HttpStatus.UNAUTHORIZED)
-            .header(
-                HttpHeaders.WWW_AUTHENTICATE,
-                String.format("Bearer resource_metadata=\"%s\"", resourceMetadataUrl))
+            .header(HttpHeaders.WWW_AUTHENTICATE, challenge.wwwAuthenticate())
+            .cacheControl(CacheControl.noStore())
             .build();
       }
 
       // Authorization header is present, continue processing
+      metrics.recordAuthentication(AuthenticationOutcome.PRESENT);
       return next.handle(request);
     };
   }
+
+  /**
+   * Builds the URL of the protected resource metadata document for the host the request was sent
+   * to.
+   *
+   * @param request the incoming request
+   * @return the absolute URL of {@code /.well-known/oauth-protected-resource} on the request host
+   */
+  static String resourceMetadataUrl(ServerRequest request) {
+    return challenge(request).resourceMetadataUrl();
+  }
+
+  private static Challenge challenge(ServerRequest request) {
+    String host = request.uri().getHost();
+    String hostAndPort =
+        host + (request.uri().getPort() == -1 ? "" : ":" + request.uri().getPort());
+    return CHALLENGES.get(hostAndPort, AuthenticationRequiredFilter::createChallenge);
+  }
+
+  private static Challenge createChallenge(String hostAndPort) {
+    String resourceMetadataUrl = String.format(RESOURCE_METADATA_URL_TEMPLATE, hostAndPort);
+    return new Challenge(
+        resourceMetadataUrl, String.format("Bearer resource_metadata=\"%s\"", resourceMetadataUrl));
+  }
+
+  private record Challenge(String resourceMetadataUrl, String wwwAuthenticate) {}
 }
@@ -0,0 +1,155 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.function.Consumer;
+import org.jspecify.annotations.Nullable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.function.ServerResponse;
+
+/**
+ * {@link ServerResponse} that keeps a copy of the body while the wrapped response writes it to the
+ * client. Once the body has been written, the copy is handed to a callback; the callback receives
+ * {@code null} if writing failed, the body was larger than {@code maxBodySize}, or it was written
+ * through a {@link PrintWriter}. The client sees exactly the bytes it would have seen without the
+ * wrapper, as they are produced.
+ */
+final class CapturingServerResponse implements ServerResponse {
+
+  private final ServerResponse delegate;
+  private final int maxBodySize;
+  private final Consumer<byte @Nullable []> onWritten;
+
+  CapturingServerResponse(
+      ServerResponse delegate, int maxBodySize, Consumer<byte @Nullable []> onWritten) {
+    this.delegate = delegate;
+    this.maxBodySize = maxBodySize;
+    this.onWritten = onWritten;
+  }
+
+  @Override
+  public HttpStatusCode statusCode() {
+    return delegate.statusCode();
+  }
+
+  @Override
+  public HttpHeaders headers() {
+    return delegate.headers();
+  }
+
+  @Override
+  public MultiValueMap<String, Cookie> cookies() {
+    return delegate.cookies();
+  }
+
+  @Override
+  public @Nullable ModelAndView writeTo(
+      HttpServletRequest request, HttpServletResponse response, Context context)
+      throws ServletException, IOException {
+    CapturingResponse capturing = new CapturingResponse(response, maxBodySize);
+    byte[] body = null;
+    try {
+      ModelAndView modelAndView = delegate.writeTo(request, capturing, context);
+      body = capturing.captured();
+      return modelAndView;
+    } finally {
+      onWritten.accept(body);
+    }
+  }
+
+  private static final class CapturingResponse extends HttpServletResponseWrapper {
+
+    private final int maxBodySize;
+    private final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+    private @Nullable ServletOutputStream outputStream;
+    private boolean overflowed;
+
+    private CapturingResponse(HttpServletResponse response, int maxBodySize) {
+      super(response);
+      this.maxBodySize = maxBodySize;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+      if (outputStream == null) {
+        outputStream = new TeeOutputStream(super.getOutputStream());
+      }
+      return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      // Characters written here bypass the copy, so the body cannot be captured
+      overflowed = true;
+      return super.getWriter();
+    }
+
+    private byte @Nullable [] captured() {
+      return overflowed ? null : copy.toByteArray();
+    }
+
+    private void capture(byte[] buffer, int offset, int length) {
+      if (overflowed) {
+        return;
+      }
+      if (copy.size() + length > maxBodySize) {
+        overflowed = true;
+        copy.reset();
+        return;
+      }
+      copy.write(buffer, offset, length);
+    }
+
+    private final class TeeOutputStream extends ServletOutputStream {
+
+      private final ServletOutputStream delegate;
+
+      private TeeOutputStream(ServletOutputStream delegate) {
+        this.delegate = delegate;
+      }
+
+      @Override
+      public void write(int b) throws IOException {
+        delegate.write(b);
+        capture(new byte[] {(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] buffer, int offset, int length) throws IOException {
+        delegate.write(buffer, offset, length);
+        capture(buffer, offset, length);
+      }
+
+      @Override
+      public void flush() throws IOException {
+        delegate.flush();
+      }
+
+      @Override
+      public void close() throws IOException {
+        delegate.close();
+      }
+
+      @Override
+      public boolean isReady() {
+        return delegate.isReady();
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+        delegate.setWriteListener(writeListener);
+      }
+    }
+  }
+}
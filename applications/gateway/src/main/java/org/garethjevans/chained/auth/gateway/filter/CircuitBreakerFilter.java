@@ -0,0 +1,83 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import java.io.IOException;
+import org.garethjevans.chained.auth.gateway.upstream.CircuitBreaker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.gateway.server.mvc.handler.GatewayServerResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.servlet.function.ServerResponse;
+
+/**
+ * Gateway filter that stops forwarding to a backend that keeps failing. While the route's {@link
+ * CircuitBreaker} is open, requests are answered straight away with a 503 Service Unavailable
+ * response carrying a JSON-RPC error for the request's {@code id} and a {@code Retry-After} header,
+ * instead of each waiting for a connect or read timeout.
+ *
+ * <p>A failed exchange or a 5xx response from the backend counts as a failure.
+ */
+@Component
+public class CircuitBreakerFilter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreakerFilter.class);
+
+  /**
+   * Creates a filter function that forwards the request only while the circuit lets it through.
+   *
+   * @param circuitBreaker the circuit breaker for the route
+   * @param maxRequestSize the largest request body, in bytes, read to find the request id
+   * @return A HandlerFilterFunction that either allows the request to proceed or returns a 503
+   *     response
+   */
+  public static HandlerFilterFunction<ServerResponse, ServerResponse> failFastWhenOpen(
+      CircuitBreaker circuitBreaker, int maxRequestSize) {
+    return (request, next) -> {
+      CircuitBreaker.Permit permit = circuitBreaker.tryAcquire();
+
+      if (permit == null) {
+        LOGGER.debug(
+            "Request to {} rejected: circuit breaker is {}",
+            request.uri().getPath(),
+            circuitBreaker.getState());
+        return unavailable(request, circuitBreaker, maxRequestSize);
+      }
+
+      boolean failed = true;
+      try {
+        ServerResponse response = next.handle(request);
+        failed = response.statusCode().is5xxServerError();
+        return response;
+      } finally {
+        permit.release(failed);
+      }
+    };
+  }
+
+  private static ServerResponse unavailable(
+      ServerRequest request, CircuitBreaker circuitBreaker, int maxRequestSize) throws IOException {
+    // The request is not forwarded, but is answered with its id
+    JsonRpcRequest call = JsonRpcRequest.read(request, maxRequestSize).call();
+    byte[] error =
+        JsonRpcRequest.error(
+            call != null ? call.id() : null,
+            JsonRpcRequest.SERVER_ERROR,
+            "MCP server unavailable, try again later");
+    long retryAfter = Math.max(1, (circuitBreaker.getRemainingWait().toMillis() + 999) / 1000);
+    return GatewayServerResponse.status(HttpStatus.SERVICE_UNAVAILABLE)
+        .contentType(MediaType.APPLICATION_JSON)
+        .contentLength(error.length)
+        .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter))
+        .cacheControl(CacheControl.noStore())
+        .build(
+            (servletRequest, servletResponse) -> {
+              servletResponse.getOutputStream().write(error);
+              return null;
+            });
+  }
+}
@@ -0,0 +1,71 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import java.time.Duration;
+import org.garethjevans.chained.auth.gateway.limit.AdaptiveConcurrencyLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.ServerResponse;
+
+/**
+ * Gateway filter that sheds load when a route's backend slows down. Requests beyond the route's
+ * adaptive concurrency limit are rejected straight away with a 503 Service Unavailable response and
+ * a {@code Retry-After} header, so gateway threads are not tied up waiting on a degraded backend.
+ *
+ * <p>A request holds its permit until its response body has been written to the client, so a
+ * server-sent event or streamable HTTP stream counts against the limit for as long as it stays
+ * open, and streams piling up behind a slow MCP server are bounded like any other request. Latency
+ * is still measured until the backend's response headers arrive, so a long-lived stream is not
+ * mistaken for a slow backend; a failed exchange or a 5xx response from the backend counts as a
+ * drop and shrinks the limit.
+ */
+@Component
+public class ConcurrencyLimitFilter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrencyLimitFilter.class);
+
+  /**
+   * Creates a filter function that forwards the request only if the limiter grants a permit.
+   *
+   * @param limiter the concurrency limiter for the route
+   * @param retryAfter the delay advertised to rejected clients
+   * @return A HandlerFilterFunction that either allows the request to proceed or returns a 503
+   *     response
+   */
+  public static HandlerFilterFunction<ServerResponse, ServerResponse> limitConcurrency(
+      AdaptiveConcurrencyLimiter limiter, Duration retryAfter) {
+    String retryAfterSeconds = String.valueOf(Math.max(1, retryAfter.toSeconds()));
+
+    return (request, next) -> {
+      AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+
+      if (permit == null) {
+        LOGGER.debug(
+            "Request to {} rejected: concurrency limit of {} reached",
+            request.uri().getPath(),
+            limiter.getLimit());
+        return ServerResponse.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds)
+            .cacheControl(CacheControl.noStore())
+            .build();
+      }
+
+      long start = System.nanoTime();
+      ServerResponse response;
+      try {
+        response = next.handle(request);
+      } catch (Throwable ex) {
+        permit.release(Duration.ofNanos(System.nanoTime() - start), true);
+        throw ex;
+      }
+      Duration latency = Duration.ofNanos(System.nanoTime() - start);
+      boolean failed = response.statusCode().is5xxServerError();
+      // The body is only copied from the backend once the response is written
+      return new OnWrittenServerResponse(response, () -> permit.release(latency, failed));
+    };
+  }
+}
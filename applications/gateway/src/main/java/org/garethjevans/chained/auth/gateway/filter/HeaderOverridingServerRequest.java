@@ -0,0 +1,244 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpSession;
+import jakarta.servlet.http.Part;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.security.Principal;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.function.Consumer;
+import org.jspecify.annotations.Nullable;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.RequestPath;
+import org.springframework.util.MultiValueMap;
+import org.springframework.validation.BindException;
+import org.springframework.web.accept.ApiVersionStrategy;
+import org.springframework.web.bind.WebDataBinder;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.util.UriBuilder;
+
+/**
+ * {@link ServerRequest} view that replaces the value of a single header and delegates everything
+ * else to the original request. Unlike {@code ServerRequest.from(request)}, which copies the
+ * headers, cookies, attributes and parameters into a new request, creating the view is O(1); the
+ * full header map is only materialized if {@link Headers#asHttpHeaders()} is called, which the
+ * proxy does once when it builds the outbound request.
+ */
+final class HeaderOverridingServerRequest implements ServerRequest {
+
+  private final ServerRequest delegate;
+  private final OverridingHeaders headers;
+
+  private HeaderOverridingServerRequest(ServerRequest delegate, String name, String value) {
+    this.delegate = delegate;
+    this.headers = new OverridingHeaders(delegate.headers(), name, value);
+  }
+
+  /**
+   * Returns a view of the request in which the given header has exactly the given value.
+   *
+   * @param request the request to wrap
+   * @param name the header to replace
+   * @param value the new header value
+   * @return the request view
+   */
+  static ServerRequest withHeader(ServerRequest request, String name, String value) {
+    if (request instanceof HeaderOverridingServerRequest overriding) {
+      // Avoid stacking views when a header is replaced more than once
+      return new HeaderOverridingServerRequest(overriding.delegate, name, value);
+    }
+    return new HeaderOverridingServerRequest(request, name, value);
+  }
+
+  @Override
+  public Headers headers() {
+    return headers;
+  }
+
+  @Override
+  public HttpMethod method() {
+    return delegate.method();
+  }
+
+  @Override
+  public URI uri() {
+    return delegate.uri();
+  }
+
+  @Override
+  public UriBuilder uriBuilder() {
+    return delegate.uriBuilder();
+  }
+
+  @Override
+  public String path() {
+    return delegate.path();
+  }
+
+  @Override
+  public RequestPath requestPath() {
+    return delegate.requestPath();
+  }
+
+  @Override
+  public MultiValueMap<String, Cookie> cookies() {
+    return delegate.cookies();
+  }
+
+  @Override
+  public Optional<InetSocketAddress> remoteAddress() {
+    return delegate.remoteAddress();
+  }
+
+  @Override
+  public List<HttpMessageConverter<?>> messageConverters() {
+    return delegate.messageConverters();
+  }
+
+  @Override
+  public @Nullable ApiVersionStrategy apiVersionStrategy() {
+    return delegate.apiVersionStrategy();
+  }
+
+  @Override
+  public <T> T body(Class<T> bodyType) throws ServletException, IOException {
+    return delegate.body(bodyType);
+  }
+
+  @Override
+  public <T> T body(ParameterizedTypeReference<T> bodyType) throws ServletException, IOException {
+    return delegate.body(bodyType);
+  }
+
+  @Override
+  public <T> T bind(Class<T> bindType, Consumer<WebDataBinder> dataBinderCustomizer)
+      throws BindException {
+    return delegate.bind(bindType, dataBinderCustomizer);
+  }
+
+  @Override
+  public Optional<Object> attribute(String name) {
+    return delegate.attribute(name);
+  }
+
+  @Override
+  public Map<String, Object> attributes() {
+    return delegate.attributes();
+  }
+
+  @Override
+  public MultiValueMap<String, String> params() {
+    return delegate.params();
+  }
+
+  @Override
+  public MultiValueMap<String, Part> multipartData() throws IOException, ServletException {
+    return delegate.multipartData();
+  }
+
+  @Override
+  public Map<String, String> pathVariables() {
+    return delegate.pathVariables();
+  }
+
+  @Override
+  public HttpSession session() {
+    return delegate.session();
+  }
+
+  @Override
+  public Optional<Principal> principal() {
+    return delegate.principal();
+  }
+
+  @Override
+  public HttpServletRequest servletRequest() {
+    return delegate.servletRequest();
+  }
+
+  @Override
+  public String toString() {
+    return delegate.toString();
+  }
+
+  private static final class OverridingHeaders implements Headers {
+
+    private final Headers delegate;
+    private final String name;
+    private final List<String> value;
+    private @Nullable HttpHeaders httpHeaders;
+
+    OverridingHeaders(Headers delegate, String name, String value) {
+      this.delegate = delegate;
+      this.name = name;
+      this.value = List.of(value);
+    }
+
+    @Override
+    public List<String> header(String headerName) {
+      return name.equalsIgnoreCase(headerName) ? value : delegate.header(headerName);
+    }
+
+    @Override
+    public HttpHeaders asHttpHeaders() {
+      HttpHeaders result = httpHeaders;
+      if (result == null) {
+        result = new HttpHeaders();
+        result.putAll(delegate.asHttpHeaders());
+        result.put(name, value);
+        httpHeaders = HttpHeaders.readOnlyHttpHeaders(result);
+        result = httpHeaders;
+      }
+      return result;
+    }
+
+    @Override
+    public List<MediaType> accept() {
+      return delegate.accept();
+    }
+
+    @Override
+    public List<Charset> acceptCharset() {
+      return delegate.acceptCharset();
+    }
+
+    @Override
+    public List<Locale.LanguageRange> acceptLanguage() {
+      return delegate.acceptLanguage();
+    }
+
+    @Override
+    public OptionalLong contentLength() {
+      return delegate.contentLength();
+    }
+
+    @Override
+    public Optional<MediaType> contentType() {
+      return delegate.contentType();
+    }
+
+    @Override
+    public InetSocketAddress host() {
+      return delegate.host();
+    }
+
+    @Override
+    public List<HttpRange> range() {
+      return delegate.range();
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import org.jspecify.annotations.Nullable;
+import org.springframework.web.servlet.function.ServerRequest;
+
+/**
+ * The parts of a single JSON-RPC request body that the MCP route's filters look at, and the error
+ * responses they answer with when a request cannot be forwarded.
+ *
+ * <p>The body is read and parsed at most once per request, by the first filter that {@link #read
+ * reads} it; the filters after it find the result in the {@link #BODY_ATTRIBUTE} request attribute.
+ *
+ * @param id the request id, {@link NullNode} for notifications
+ * @param method the JSON-RPC method
+ * @param tool the tool name for {@code tools/call}, otherwise {@code null}
+ * @param params the request parameters, {@link MissingNode} if there are none
+ */
+record JsonRpcRequest(JsonNode id, String method, @Nullable String tool, JsonNode params) {
+
+  static final String TOOLS_CALL = "tools/call";
+
+  /** JSON-RPC implementation-defined server error, used when the backend is unavailable. */
+  static final int SERVER_ERROR = -32000;
+
+  /** Request attribute holding the body of the request once a filter has read it. */
+  static final String BODY_ATTRIBUTE = JsonRpcRequest.class.getName() + ".body";
+
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  /**
+   * Reads the body of a request and the JSON-RPC request in it, unless a filter before has read
+   * enough of it already. Whatever is read is put back, so the request returned forwards the body
+   * unchanged.
+   *
+   * @param request the request
+   * @param maxRequestSize the largest body, in bytes, that is read
+   * @return the body, and the request to forward in place of the given one
+   * @throws IOException if the body cannot be read
+   */
+  static Body read(ServerRequest request, int maxRequestSize) throws IOException {
+    if (request.attributes().get(BODY_ATTRIBUTE) instanceof Buffered buffered
+        && (buffered.bytes() != null || buffered.maxRequestSize() >= maxRequestSize)) {
+      // Read by an outer filter, which put the whole body back in front of the request
+      byte[] bytes = buffered.bytes();
+      boolean fits = bytes != null && bytes.length <= maxRequestSize;
+      return new Body(request, fits ? bytes : null, fits ? buffered.call() : null);
+    }
+    InputStream original = request.servletRequest().getInputStream();
+    byte[] bytes = original.readNBytes(maxRequestSize + 1);
+    ServerRequest replayed =
+        replay(request, new SequenceInputStream(new ByteArrayInputStream(bytes), original));
+    Buffered buffered =
+        bytes.length > maxRequestSize
+            ? new Buffered(maxRequestSize, null, null)
+            : new Buffered(maxRequestSize, bytes, parse(bytes));
+    request.attributes().put(BODY_ATTRIBUTE, buffered);
+    return new Body(replayed, buffered.bytes(), buffered.call());
+  }
+
+  /**
+   * Returns a request that reads its body from the given stream.
+   *
+   * @param request the request
+   * @param body the body to forward
+   * @return the request with the given body
+   */
+  static ServerRequest replay(ServerRequest request, InputStream body) {
+    return ServerRequest.create(
+        new ReplayableServletRequest(request.servletRequest(), body), request.messageConverters());
+  }
+
+  /**
+   * Reads a JSON-RPC request.
+   *
+   * @param body the request body
+   * @return the request, or {@code null} if the body is not a single JSON-RPC request
+   */
+  static @Nullable JsonRpcRequest parse(byte[] body) {
+    JsonNode request;
+    try {
+      request = objectMapper.readTree(body);
+    } catch (IOException ex) {
+      return null;
+    }
+    // Batches are arrays and are never treated as a single call
+    if (request == null || !request.isObject() || !request.path("method").isTextual()) {
+      return null;
+    }
+    String method = request.get("method").asText();
+    JsonNode params = request.path("params");
+    String tool = TOOLS_CALL.equals(method) ? params.path("name").asText(null) : null;
+    return new JsonRpcRequest(
+        request.path("id").isMissingNode() ? NullNode.getInstance() : request.get("id"),
+        method,
+        tool,
+        params);
+  }
+
+  /**
+   * Builds a JSON-RPC error response.
+   *
+   * @param id the id of the request being answered, or {@code null} if it is not known
+   * @param code the JSON-RPC error code
+   * @param message the error message
+   * @return the serialized response
+   */
+  static byte[] error(@Nullable JsonNode id, int code, String message) {
+    ObjectNode response = objectMapper.createObjectNode();
+    response.put("jsonrpc", "2.0");
+    response.set("id", id != null ? id : NullNode.getInstance());
+    response.putObject("error").put("code", code).put("message", message);
+    return response.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * The body of a request, as read by {@link #read}.
+   *
+   * @param request the request to forward, which still carries the whole body
+   * @param bytes the body, or {@code null} if it is larger than the filter reads
+   * @param call the JSON-RPC request in the body, or {@code null} if there is none or the body was
+   *     not read
+   */
+  record Body(ServerRequest request, byte @Nullable [] bytes, @Nullable JsonRpcRequest call) {}
+
+  private record Buffered(
+      int maxRequestSize, byte @Nullable [] bytes, @Nullable JsonRpcRequest call) {}
+}
@@ -1,9 +1,13 @@
 package org.garethjevans.chained.auth.gateway.filter;
 
-import com.nimbusds.jwt.JWTClaimsSet;
-import com.nimbusds.jwt.SignedJWT;
 import java.text.ParseException;
+import java.time.Duration;
 import java.util.function.Function;
+import org.garethjevans.chained.auth.gateway.core.metrics.GatewayMetrics;
+import org.garethjevans.chained.auth.gateway.core.metrics.GatewayMetrics.TokenSwapOutcome;
+import org.garethjevans.chained.auth.gateway.core.token.JwtClaimsExtractor;
+import org.garethjevans.chained.auth.gateway.core.token.TokenSwapCache;
+import org.garethjevans.chained.auth.gateway.core.token.TokenSwapCache.SwappedToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
@@ -12,8 +16,14 @@ import org.springframework.web.servlet.function.ServerRequest;
 
 /**
  * Gateway filter that modifies the Bearer token in the Authorization header. Extracts the JWT from
- * the incoming request, logs the "sub" claim, and replaces the Bearer token with the value from the
- * "access_token" claim for downstream requests.
+ * the incoming request, reads the "sub" claim, and replaces the Bearer token with the value from
+ * the "access_token" claim for downstream requests. Successful swaps are cached until the JWT
+ * expires so repeat tokens skip the decode entirely.
+ *
+ * <p>This filter runs on every MCP call, so it avoids general-purpose machinery on the hot path:
+ * claims are read with {@link JwtClaimsExtractor} rather than a full Nimbus parse, and the header
+ * is replaced through a request view instead of copying the whole request. Claims an earlier filter
+ * has already decoded are taken from the {@link #CLAIMS_ATTRIBUTE} request attribute.
  */
 @Component
 public class JwtTokenModifierFilter {
@@ -21,58 +31,103 @@ public class JwtTokenModifierFilter {
   private static final Logger LOGGER = LoggerFactory.getLogger(JwtTokenModifierFilter.class);
 
   private static final String BEARER_PREFIX = "Bearer ";
-  private static final String ACCESS_TOKEN_CLAIM = "access_token";
-  private static final String SUB_CLAIM = "sub";
+
+  /** Request attribute holding the claims of the request's proxy JWT, once decoded. */
+  static final String CLAIMS_ATTRIBUTE = JwtTokenModifierFilter.class.getName() + ".claims";
+
+  private static final long DEFAULT_CACHE_MAXIMUM_SIZE = 10_000;
+  private static final Duration DEFAULT_CACHE_TIME_TO_LIVE = Duration.ofMinutes(5);
 
   /**
-   * Creates a before filter function that modifies the Authorization header.
+   * Creates a before filter function that modifies the Authorization header, using a private
+   * default-sized cache of swapped tokens.
    *
    * @return A function that processes the ServerRequest and returns a modified ServerRequest
    */
   public static Function<ServerRequest, ServerRequest> modifyBearerToken() {
+    return modifyBearerToken(
+        new TokenSwapCache(DEFAULT_CACHE_MAXIMUM_SIZE, DEFAULT_CACHE_TIME_TO_LIVE));
+  }
+
+  /**
+   * Creates a before filter function that modifies the Authorization header.
+   *
+   * @param tokenSwapCache cache of proxy JWTs that have already been swapped
+   * @return A function that processes the ServerRequest and returns a modified ServerRequest
+   */
+  public static Function<ServerRequest, ServerRequest> modifyBearerToken(
+      TokenSwapCache tokenSwapCache) {
+    return modifyBearerToken(tokenSwapCache, GatewayMetrics.noop());
+  }
+
+  /**
+   * Creates a before filter function that modifies the Authorization header, recording the time
+   * taken and the outcome of each swap in the given metrics.
+   *
+   * @param tokenSwapCache cache of proxy JWTs that have already been swapped
+   * @param metrics the metrics to record swaps in
+   * @return A function that processes the ServerRequest and returns a modified ServerRequest
+   */
+  public static Function<ServerRequest, ServerRequest> modifyBearerToken(
+      TokenSwapCache tokenSwapCache, GatewayMetrics metrics) {
     return request -> {
+      long start = System.nanoTime();
       String authHeader = request.headers().firstHeader(HttpHeaders.AUTHORIZATION);
 
       if (authHeader == null || !authHeader.startsWith(BEARER_PREFIX)) {
         LOGGER.debug("No Bearer token found in Authorization header");
+        metrics.recordTokenSwap(TokenSwapOutcome.NO_TOKEN, System.nanoTime() - start);
         return request;
       }
 
+      String token = authHeader.substring(BEARER_PREFIX.length());
+      SwappedToken cached = tokenSwapCache.get(token);
+      if (cached != null) {
+        LOGGER.debug("Using cached access_token for subject: {}", cached.subject());
+        ServerRequest modified = replaceAuthorizationHeader(request, cached.authorizationHeader());
+        metrics.recordTokenSwap(TokenSwapOutcome.CACHED, System.nanoTime() - start);
+        return modified;
+      }
+
       try {
-        String token = authHeader.substring(BEARER_PREFIX.length());
-        LOGGER.info("Bearer token was {}", token);
-        SignedJWT jwt = SignedJWT.parse(token);
-        JWTClaimsSet claims = jwt.getJWTClaimsSet();
+        JwtClaimsExtractor.Claims claims =
+            request.attributes().get(CLAIMS_ATTRIBUTE) instanceof JwtClaimsExtractor.Claims decoded
+                ? decoded
+                : JwtClaimsExtractor.extract(token);
 
-        // Log the subject claim
-        String subject = claims.getStringClaim(SUB_CLAIM);
-        LOGGER.info("Processing JWT with subject: {}", subject);
+        String subject = claims.subject();
+        LOGGER.debug("Processing JWT with subject: {}", subject);
 
         // Extract the access_token claim
-        String accessToken = claims.getStringClaim(ACCESS_TOKEN_CLAIM);
+        String accessToken = claims.accessToken();
 
         if (accessToken == null || accessToken.isEmpty()) {
           LOGGER.warn(
               "No access_token claim found in JWT for subject: {}, using original token", subject);
+          metrics.recordTokenSwap(TokenSwapOutcome.NO_CLAIM, System.nanoTime() - start);
           return request;
         }
 
-        LOGGER.info("Bearer token is now {}", accessToken);
+        SwappedToken swapped =
+            tokenSwapCache.put(token, BEARER_PREFIX + accessToken, subject, claims.expiresAt());
 
         // Replace the Authorization header with the new access token
         LOGGER.debug("Replacing Bearer token with access_token from JWT claims");
-        return ServerRequest.from(request)
-            .headers(
-                httpHeaders -> {
-                  httpHeaders.remove(HttpHeaders.AUTHORIZATION);
-                  httpHeaders.add(HttpHeaders.AUTHORIZATION, BEARER_PREFIX + accessToken);
-                })
-            .build();
+        ServerRequest modified = replaceAuthorizationHeader(request, swapped.authorizationHeader());
+        metrics.recordTokenSwap(TokenSwapOutcome.SWAPPED, System.nanoTime() - start);
+        return modified;
 
       } catch (ParseException e) {
-        LOGGER.error("Failed to parse JWT token: {}", e.getMessage(), e);
+        LOGGER.warn("Failed to parse JWT token: {}", e.getMessage());
+        metrics.recordTokenSwap(TokenSwapOutcome.PARSE_ERROR, System.nanoTime() - start);
         return request;
       }
     };
   }
+
+  private static ServerRequest replaceAuthorizationHeader(
+      ServerRequest request, String authorizationHeader) {
+    return HeaderOverridingServerRequest.withHeader(
+        request, HttpHeaders.AUTHORIZATION, authorizationHeader);
+  }
 }
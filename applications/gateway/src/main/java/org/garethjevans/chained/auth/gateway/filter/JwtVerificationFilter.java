@@ -0,0 +1,88 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import org.garethjevans.chained.auth.gateway.token.JwtVerificationException;
+import org.garethjevans.chained.auth.gateway.token.JwtVerifier;
+import org.garethjevans.chained.auth.gateway.token.PhantomTokenResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.servlet.function.ServerResponse;
+
+/**
+ * Gateway filter that verifies the proxy JWT in the Authorization header against the auth-adapter's
+ * signing keys before the request is forwarded. Requests without a Bearer token, or with a token
+ * that fails verification, are rejected with a 401 Unauthorized response carrying an RFC 6750
+ * {@code invalid_token} error and the RFC 9728 resource metadata URL.
+ *
+ * <p>In phantom-token mode, opaque reference tokens are let through for {@link PhantomTokenFilter}
+ * to check against the auth-adapter.
+ */
+@Component
+public class JwtVerificationFilter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(JwtVerificationFilter.class);
+
+  private static final String BEARER_PREFIX = "Bearer ";
+
+  /**
+   * Creates a filter function that only lets requests with a verified proxy JWT through.
+   *
+   * @param jwtVerifier the verifier holding the auth-adapter's signing keys
+   * @return A HandlerFilterFunction that either allows the request to proceed or returns a 401
+   *     response
+   */
+  public static HandlerFilterFunction<ServerResponse, ServerResponse> verifyBearerToken(
+      JwtVerifier jwtVerifier) {
+    return verifyBearerToken(jwtVerifier, false);
+  }
+
+  /**
+   * Creates a filter function that only lets requests with a verified proxy JWT, or optionally an
+   * opaque reference token, through.
+   *
+   * @param jwtVerifier the verifier holding the auth-adapter's signing keys
+   * @param allowReferenceTokens whether to pass reference tokens on unverified
+   * @return A HandlerFilterFunction that either allows the request to proceed or returns a 401
+   *     response
+   */
+  public static HandlerFilterFunction<ServerResponse, ServerResponse> verifyBearerToken(
+      JwtVerifier jwtVerifier, boolean allowReferenceTokens) {
+    return (request, next) -> {
+      String authHeader = request.headers().firstHeader(HttpHeaders.AUTHORIZATION);
+
+      if (authHeader == null || !authHeader.startsWith(BEARER_PREFIX)) {
+        LOGGER.warn("Request to {} rejected: No Bearer token present", request.uri().getPath());
+        return invalidToken(request, "Bearer token required");
+      }
+
+      String token = authHeader.substring(BEARER_PREFIX.length());
+      if (allowReferenceTokens && PhantomTokenResolver.isReferenceToken(token)) {
+        return next.handle(request);
+      }
+
+      try {
+        jwtVerifier.verify(token);
+      } catch (JwtVerificationException e) {
+        LOGGER.warn("Request to {} rejected: {}", request.uri().getPath(), e.getMessage());
+        return invalidToken(request, "The access token is invalid");
+      }
+
+      return next.handle(request);
+    };
+  }
+
+  static ServerResponse invalidToken(ServerRequest request, String description) {
+    return ServerResponse.status(HttpStatus.UNAUTHORIZED)
+        .header(
+            HttpHeaders.WWW_AUTHENTICATE,
+            String.format(
+                "Bearer error=\"invalid_token\", error_description=\"%s\","
+                    + " resource_metadata=\"%s\"",
+                description, AuthenticationRequiredFilter.resourceMetadataUrl(request)))
+        .build();
+  }
+}
@@ -0,0 +1,49 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import org.garethjevans.chained.auth.gateway.upstream.UpstreamPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.gateway.server.mvc.common.MvcUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.ServerResponse;
+
+/**
+ * Gateway filter that spreads a route's requests across the instances of an {@link UpstreamPool}.
+ * It takes the place of a fixed {@code uri(...)} filter: the chosen instance becomes the request
+ * URL the proxy forwards to, and the outcome of the exchange feeds the pool's passive health
+ * checks. A failed exchange or a 5xx response counts as a failure; latency is measured until the
+ * backend's response headers arrive.
+ */
+@Component
+public class LoadBalancingFilter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LoadBalancingFilter.class);
+
+  /**
+   * Creates a filter function that forwards each request to an instance picked from the pool.
+   *
+   * @param pool the backend instances of the route
+   * @return A HandlerFilterFunction that routes the request to one instance of the pool
+   */
+  public static HandlerFilterFunction<ServerResponse, ServerResponse> loadBalance(
+      UpstreamPool pool) {
+    return (request, next) -> {
+      UpstreamPool.Instance instance = pool.choose();
+      LOGGER.debug("Forwarding {} to {}", request.uri().getPath(), instance.getUri());
+      MvcUtils.setRequestUrl(request, instance.getUri());
+
+      long start = System.nanoTime();
+      ServerResponse response;
+      try {
+        response = next.handle(request);
+      } catch (Throwable ex) {
+        instance.release(System.nanoTime() - start, true);
+        throw ex;
+      }
+      instance.record(System.nanoTime() - start, response.statusCode().is5xxServerError());
+      // A stream stays outstanding until its body has been copied from the backend
+      return new OnWrittenServerResponse(response, instance::release);
+    };
+  }
+}
@@ -0,0 +1,60 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jspecify.annotations.Nullable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.function.ServerResponse;
+
+/**
+ * {@link ServerResponse} that runs a callback once the wrapped response has been written to the
+ * client, whether or not writing succeeded. A proxied response only carries the backend's status
+ * and headers when the filter chain returns; its body is copied from the backend while it is
+ * written, which for a stream lasts as long as the stream stays open.
+ */
+final class OnWrittenServerResponse implements ServerResponse {
+
+  private final ServerResponse delegate;
+  private final Runnable onWritten;
+  private final AtomicBoolean written = new AtomicBoolean();
+
+  OnWrittenServerResponse(ServerResponse delegate, Runnable onWritten) {
+    this.delegate = delegate;
+    this.onWritten = onWritten;
+  }
+
+  @Override
+  public HttpStatusCode statusCode() {
+    return delegate.statusCode();
+  }
+
+  @Override
+  public HttpHeaders headers() {
+    return delegate.headers();
+  }
+
+  @Override
+  public MultiValueMap<String, Cookie> cookies() {
+    return delegate.cookies();
+  }
+
+  @Override
+  public @Nullable ModelAndView writeTo(
+      HttpServletRequest request, HttpServletResponse response, Context context)
+      throws ServletException, IOException {
+    try {
+      return delegate.writeTo(request, response, context);
+    } finally {
+      if (written.compareAndSet(false, true)) {
+        onWritten.run();
+      }
+    }
+  }
+}
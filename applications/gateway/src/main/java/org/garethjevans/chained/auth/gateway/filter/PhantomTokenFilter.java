@@ -0,0 +1,81 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import org.garethjevans.chained.auth.gateway.core.token.TokenSwapCache;
+import org.garethjevans.chained.auth.gateway.token.PhantomTokenException;
+import org.garethjevans.chained.auth.gateway.token.PhantomTokenResolver;
+import org.garethjevans.chained.auth.gateway.token.PhantomTokenResolver.Resolution;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.ServerResponse;
+
+/**
+ * Gateway filter for phantom-token mode. An opaque reference token in the Authorization header is
+ * resolved to its upstream token through a {@link PhantomTokenResolver}, and the result is put in
+ * the {@link TokenSwapCache}, where {@link JwtTokenModifierFilter} picks it up to replace the
+ * header. Tokens already in the cache are not resolved again until their entry expires. Proxy JWTs
+ * are left to the JWT filters.
+ *
+ * <p>Reference tokens the auth-adapter does not know, or reports as expired or revoked, are
+ * rejected with a 401 Unauthorized response carrying an RFC 6750 {@code invalid_token} error. If
+ * the auth-adapter cannot be reached the request is rejected with a 503 Service Unavailable
+ * response, as the token cannot be swapped.
+ */
+@Component
+public class PhantomTokenFilter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PhantomTokenFilter.class);
+
+  private static final String BEARER_PREFIX = "Bearer ";
+
+  /**
+   * Creates a filter function that resolves reference tokens before the request is forwarded.
+   *
+   * @param resolver the resolver that looks reference tokens up at the auth-adapter
+   * @param tokenSwapCache the cache the resolved upstream tokens are stored in
+   * @return A HandlerFilterFunction that either allows the request to proceed or returns an error
+   *     response
+   */
+  public static HandlerFilterFunction<ServerResponse, ServerResponse> resolvePhantomTokens(
+      PhantomTokenResolver resolver, TokenSwapCache tokenSwapCache) {
+    return (request, next) -> {
+      String authHeader = request.headers().firstHeader(HttpHeaders.AUTHORIZATION);
+      if (authHeader == null || !authHeader.startsWith(BEARER_PREFIX)) {
+        return next.handle(request);
+      }
+
+      String token = authHeader.substring(BEARER_PREFIX.length());
+      if (!PhantomTokenResolver.isReferenceToken(token) || tokenSwapCache.get(token) != null) {
+        return next.handle(request);
+      }
+
+      Resolution resolution;
+      try {
+        resolution = resolver.resolve(token);
+      } catch (PhantomTokenException e) {
+        LOGGER.warn(
+            "Request to {} rejected: {}: {}",
+            request.uri().getPath(),
+            e.getMessage(),
+            e.getCause() != null ? e.getCause().getMessage() : null);
+        return ServerResponse.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+      }
+
+      if (resolution == null) {
+        LOGGER.warn("Request to {} rejected: inactive reference token", request.uri().getPath());
+        return JwtVerificationFilter.invalidToken(request, "The access token is invalid");
+      }
+
+      LOGGER.debug("Resolved reference token for subject: {}", resolution.subject());
+      tokenSwapCache.put(
+          token,
+          BEARER_PREFIX + resolution.accessToken(),
+          resolution.subject(),
+          resolution.expiresAt());
+      return next.handle(request);
+    };
+  }
+}
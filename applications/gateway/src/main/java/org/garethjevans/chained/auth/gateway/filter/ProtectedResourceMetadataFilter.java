@@ -1,22 +1,35 @@
 package org.garethjevans.chained.auth.gateway.filter;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import java.util.HashMap;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.net.URI;
+import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.ServerRequest;
 import org.springframework.web.servlet.function.ServerResponse;
 
 /**
  * Gateway filter that handles requests to the OAuth 2.0 Protected Resource Metadata endpoint
  * (/.well-known/oauth-protected-resource) as defined in RFC 9728. Returns metadata about the
  * protected resource including supported authorization servers and scopes.
+ *
+ * <p>The metadata only varies by the origin the request was sent to, so the JSON document is
+ * serialized once per origin and served from an immutable byte array with a strong {@code ETag} and
+ * a {@code Cache-Control} max-age. Conditional requests carrying a matching {@code If-None-Match}
+ * header are answered with {@code 304 Not Modified}.
  */
 @Component
 public class ProtectedResourceMetadataFilter {
@@ -28,6 +41,11 @@ public class ProtectedResourceMetadataFilter {
   private static final String AUTH_ADAPTER_URL = "http://127.0.0.1:9000";
   private static final ObjectMapper objectMapper = new ObjectMapper();
 
+  // The Host header is client controlled, so bound the number of origins we remember
+  private static final long MAXIMUM_ORIGINS = 1_000;
+  private static final CacheControl CACHE_CONTROL =
+      CacheControl.maxAge(Duration.ofHours(1)).cachePublic();
+
   /**
    * Creates a filter function that intercepts requests to the well-known OAuth protected resource
    * metadata endpoint and returns the appropriate JSON response.
@@ -36,46 +54,34 @@ public class ProtectedResourceMetadataFilter {
    */
   public static HandlerFilterFunction<ServerResponse, ServerResponse>
       serveProtectedResourceMetadata() {
+    Cache<String, MetadataDocument> documents =
+        Caffeine.newBuilder().maximumSize(MAXIMUM_ORIGINS).build();
+
     return (request, next) -> {
       String path = request.uri().getPath();
 
       // Check if this is a request to the well-known metadata endpoint
       if (WELL_KNOWN_PATH.equals(path)) {
-        LOGGER.info("Serving OAuth protected resource metadata");
-
         try {
-          // Build the resource metadata response per RFC 9728
-          Map<String, Object> metadata = new HashMap<>();
-
-          // Resource identifier - the protected resource's URL
-          String resource =
-              String.format(
-                  "%s://%s",
-                  request.uri().getScheme(),
-                  request.uri().getHost()
-                      + (request.uri().getPort() != -1 ? ":" + request.uri().getPort() : ""));
-          metadata.put("resource", resource);
-
-          // Authorization servers that can be used with this protected resource
-          metadata.put("authorization_servers", List.of(AUTH_ADAPTER_URL));
-
-          // Supported OAuth 2.0 bearer token presentation methods
-          metadata.put("bearer_methods_supported", List.of("header"));
-
-          // OAuth 2.0 scope values used to request access to this protected resource
-          metadata.put("scopes_supported", List.of("openid", "profile"));
+          MetadataDocument document =
+              documents.get(origin(request.uri()), ProtectedResourceMetadataFilter::render);
 
-          // Human-readable name of the protected resource
-          metadata.put("resource_name", "Gateway Protected Resource");
+          if (matchesETag(request, document.eTag())) {
+            LOGGER.debug("Protected resource metadata not modified for {}", document.resource());
+            return ServerResponse.status(HttpStatus.NOT_MODIFIED)
+                .eTag(document.eTag())
+                .cacheControl(CACHE_CONTROL)
+                .build();
+          }
 
-          // Convert to JSON
-          String jsonResponse = objectMapper.writeValueAsString(metadata);
-          LOGGER.info("Serving OAuth protected resource metadata: {}", jsonResponse);
+          LOGGER.debug("Serving OAuth protected resource metadata for {}", document.resource());
 
           // Return 200 OK with application/json content type
           return ServerResponse.status(HttpStatus.OK)
               .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
-              .body(jsonResponse);
+              .eTag(document.eTag())
+              .cacheControl(CACHE_CONTROL)
+              .body(document.body());
 
         } catch (Exception e) {
           LOGGER.error("Failed to generate protected resource metadata", e);
@@ -87,4 +93,61 @@ public class ProtectedResourceMetadataFilter {
       return next.handle(request);
     };
   }
+
+  private static String origin(URI uri) {
+    return uri.getScheme()
+        + "://"
+        + uri.getHost()
+        + (uri.getPort() != -1 ? ":" + uri.getPort() : "");
+  }
+
+  private static MetadataDocument render(String resource) {
+    // Build the resource metadata response per RFC 9728
+    Map<String, Object> metadata = new LinkedHashMap<>();
+
+    // Resource identifier - the protected resource's URL
+    metadata.put("resource", resource);
+
+    // Authorization servers that can be used with this protected resource
+    metadata.put("authorization_servers", List.of(AUTH_ADAPTER_URL));
+
+    // Supported OAuth 2.0 bearer token presentation methods
+    metadata.put("bearer_methods_supported", List.of("header"));
+
+    // OAuth 2.0 scope values used to request access to this protected resource
+    metadata.put("scopes_supported", List.of("openid", "profile"));
+
+    // Human-readable name of the protected resource
+    metadata.put("resource_name", "Gateway Protected Resource");
+
+    try {
+      byte[] body = objectMapper.writeValueAsBytes(metadata);
+      String eTag = "\"" + DigestUtils.md5DigestAsHex(body) + "\"";
+      LOGGER.debug("Rendered OAuth protected resource metadata for {}", resource);
+      return new MetadataDocument(resource, body, eTag);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Unable to serialize protected resource metadata", e);
+    }
+  }
+
+  private static boolean matchesETag(ServerRequest request, String eTag) {
+    for (String ifNoneMatch : request.headers().header(HttpHeaders.IF_NONE_MATCH)) {
+      for (String candidate : ifNoneMatch.split(",")) {
+        String value = candidate.trim();
+        if (value.startsWith("W/")) {
+          value = value.substring(2);
+        }
+        if (value.equals("*") || value.equals(eTag)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Serialized metadata for a single origin. The body array is shared between responses and must
+   * not be modified.
+   */
+  private record MetadataDocument(String resource, byte[] body, String eTag) {}
 }
@@ -0,0 +1,155 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import java.text.ParseException;
+import java.time.Duration;
+import org.garethjevans.chained.auth.gateway.core.token.JwtClaimsExtractor;
+import org.garethjevans.chained.auth.gateway.core.token.TokenSwapCache;
+import org.garethjevans.chained.auth.gateway.core.token.TokenSwapCache.SwappedToken;
+import org.garethjevans.chained.auth.gateway.limit.SubjectRateLimiter;
+import org.garethjevans.chained.auth.gateway.token.PhantomTokenResolver;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.servlet.function.ServerResponse;
+
+/**
+ * Gateway filter that rate limits each subject separately. The subject is read from the entry the
+ * token has in the {@link TokenSwapCache}, and only when there is none from the {@code sub} claim
+ * of the proxy JWT, which is then handed on so the token swap does not decode it again.
+ *
+ * <p>A subject is only trusted once the token has been verified: a proxy JWT by {@link
+ * JwtVerificationFilter}, or a phantom-token reference token by the auth-adapter. Without
+ * verification anyone can mint a JWT with any {@code sub} around their own upstream token, so those
+ * requests are limited by client address instead, as are requests without a subject. Requests over
+ * the limit are rejected with a 429 Too Many Requests response and a {@code Retry-After} header.
+ *
+ * <p>Responses carry the {@code RateLimit-Limit}, {@code RateLimit-Remaining}, {@code
+ * RateLimit-Reset} and {@code RateLimit-Policy} headers from the IETF RateLimit header fields
+ * draft, so well-behaved clients can slow down before they are rejected.
+ */
+@Component
+public class RateLimitFilter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RateLimitFilter.class);
+
+  private static final String BEARER_PREFIX = "Bearer ";
+
+  static final String RATE_LIMIT_LIMIT = "RateLimit-Limit";
+  static final String RATE_LIMIT_REMAINING = "RateLimit-Remaining";
+  static final String RATE_LIMIT_RESET = "RateLimit-Reset";
+  static final String RATE_LIMIT_POLICY = "RateLimit-Policy";
+
+  /**
+   * Creates a filter function that forwards the request only if the subject is within its rate
+   * limit, for a route that verifies proxy JWTs before this filter.
+   *
+   * @param limiter the per-subject rate limiter for the route
+   * @return A HandlerFilterFunction that either allows the request to proceed or returns a 429
+   *     response
+   */
+  public static HandlerFilterFunction<ServerResponse, ServerResponse> rateLimitBySubject(
+      SubjectRateLimiter limiter) {
+    return rateLimitBySubject(limiter, null, true);
+  }
+
+  /**
+   * Creates a filter function that forwards the request only if the subject is within its rate
+   * limit, reading the subject of tokens already swapped from the given token swap cache.
+   *
+   * @param limiter the per-subject rate limiter for the route
+   * @param tokenSwapCache the cache swapped and resolved tokens are stored in, or {@code null}
+   * @param verified whether proxy JWTs are verified before this filter; if not, they are limited by
+   *     client address
+   * @return A HandlerFilterFunction that either allows the request to proceed or returns a 429
+   *     response
+   */
+  public static HandlerFilterFunction<ServerResponse, ServerResponse> rateLimitBySubject(
+      SubjectRateLimiter limiter, @Nullable TokenSwapCache tokenSwapCache, boolean verified) {
+    String limit = String.valueOf(limiter.getCapacity());
+    String policy =
+        String.format(
+            "%d;w=%d;burst=%d",
+            limiter.getRefillTokens(),
+            Math.max(1, limiter.getRefillPeriod().toSeconds()),
+            limiter.getCapacity());
+
+    return (request, next) -> {
+      String subject = subject(request, tokenSwapCache, verified);
+      SubjectRateLimiter.Decision decision = limiter.tryConsume(subject);
+
+      if (!decision.allowed()) {
+        LOGGER.debug(
+            "Request to {} rejected: rate limit exceeded for {}", request.uri().getPath(), subject);
+        return ServerResponse.status(HttpStatus.TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, seconds(decision.retryAfter()))
+            .header(RATE_LIMIT_LIMIT, limit)
+            .header(RATE_LIMIT_REMAINING, "0")
+            .header(RATE_LIMIT_RESET, seconds(decision.reset()))
+            .header(RATE_LIMIT_POLICY, policy)
+            .cacheControl(CacheControl.noStore())
+            .build();
+      }
+
+      ServerResponse response = next.handle(request);
+      try {
+        HttpHeaders headers = response.headers();
+        headers.set(RATE_LIMIT_LIMIT, limit);
+        headers.set(RATE_LIMIT_REMAINING, String.valueOf(decision.remaining()));
+        headers.set(RATE_LIMIT_RESET, seconds(decision.reset()));
+        headers.set(RATE_LIMIT_POLICY, policy);
+      } catch (UnsupportedOperationException e) {
+        // Only proxied responses have mutable headers, locally built ones are left as they are
+        LOGGER.trace("Not adding rate limit headers to a read-only response");
+      }
+      return response;
+    };
+  }
+
+  private static String subject(
+      ServerRequest request, @Nullable TokenSwapCache tokenSwapCache, boolean verified) {
+    String address = "addr:" + request.servletRequest().getRemoteAddr();
+    String authHeader = request.headers().firstHeader(HttpHeaders.AUTHORIZATION);
+    if (authHeader == null || !authHeader.startsWith(BEARER_PREFIX)) {
+      return address;
+    }
+    String token = authHeader.substring(BEARER_PREFIX.length());
+    // Reference tokens are resolved at the auth-adapter by PhantomTokenFilter, which runs first
+    boolean referenceToken = PhantomTokenResolver.isReferenceToken(token);
+    if (!verified && !referenceToken) {
+      return address;
+    }
+    SwappedToken swapped = tokenSwapCache != null ? tokenSwapCache.get(token) : null;
+    String subject;
+    if (swapped != null) {
+      subject = swapped.subject();
+    } else if (referenceToken) {
+      subject = null;
+    } else {
+      subject = decodedSubject(request, token);
+    }
+    return subject != null && !subject.isEmpty() ? "sub:" + subject : address;
+  }
+
+  private static @Nullable String decodedSubject(ServerRequest request, String token) {
+    try {
+      JwtClaimsExtractor.Claims claims = JwtClaimsExtractor.extract(token);
+      request.attributes().put(JwtTokenModifierFilter.CLAIMS_ATTRIBUTE, claims);
+      return claims.subject();
+    } catch (ParseException e) {
+      LOGGER.debug("Unable to read subject from Bearer token: {}", e.getMessage());
+      return null;
+    }
+  }
+
+  private static String seconds(Duration duration) {
+    // Round up so clients never retry before a token is actually available
+    long seconds = duration.toSeconds() + (duration.toNanosPart() > 0 ? 1 : 0);
+    return String.valueOf(Math.max(seconds, 0));
+  }
+}
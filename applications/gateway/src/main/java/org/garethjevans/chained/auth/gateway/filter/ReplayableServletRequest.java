@@ -0,0 +1,67 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Servlet request whose body is read from the given stream instead of the original request. Used by
+ * filters that inspect the body before it is proxied: the bytes they consumed are put back in front
+ * of whatever is left of the original body, so the proxy still forwards it unchanged.
+ */
+final class ReplayableServletRequest extends HttpServletRequestWrapper {
+
+  private final ServletInputStream body;
+
+  ReplayableServletRequest(HttpServletRequest request, InputStream body) {
+    super(request);
+    this.body = new ReplayedInputStream(body);
+  }
+
+  @Override
+  public ServletInputStream getInputStream() {
+    return body;
+  }
+
+  private static final class ReplayedInputStream extends ServletInputStream {
+
+    private final InputStream delegate;
+    private boolean finished;
+
+    private ReplayedInputStream(InputStream delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int read = delegate.read();
+      finished = read == -1;
+      return read;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int read = delegate.read(buffer, offset, length);
+      finished = read == -1;
+      return read;
+    }
+
+    @Override
+    public boolean isFinished() {
+      return finished;
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setReadListener(ReadListener readListener) {
+      throw new UnsupportedOperationException("Asynchronous reads are not supported");
+    }
+  }
+}
@@ -0,0 +1,204 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import org.garethjevans.chained.auth.gateway.cache.McpResponseCache;
+import org.garethjevans.chained.auth.gateway.core.token.TokenHashes;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.gateway.server.mvc.handler.GatewayServerResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.servlet.function.ServerResponse;
+
+/**
+ * Gateway filter that answers read-only MCP calls from a {@link McpResponseCache}. A JSON-RPC
+ * request is cacheable when its method, or for {@code tools/call} its tool name, has a time to live
+ * in the cache configuration; everything else, including batches and notifications, is passed
+ * through untouched.
+ *
+ * <p>Cached results are keyed by a hash of the caller's Authorization header, the method and the
+ * canonical parameters, so a result is only ever served to the caller whose token produced it. On a
+ * hit the response is rebuilt around the caller's own request {@code id}. On a miss the backend's
+ * JSON response is relayed as usual and its {@code result} is stored once it has been written;
+ * identical calls arriving in the meantime wait for it instead of reaching the backend.
+ *
+ * <p>Every cacheable response carries a {@code Cache-Status} header (RFC 9211).
+ */
+@Component
+public class ResponseCacheFilter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ResponseCacheFilter.class);
+
+  /** Response header describing how the gateway cache handled the request. */
+  public static final String CACHE_STATUS = "Cache-Status";
+
+  static final String HIT = "gateway; hit";
+  static final String COLLAPSED = "gateway; hit; detail=collapsed";
+  static final String MISS = "gateway; fwd=miss";
+
+  private static final ObjectMapper objectMapper =
+      new ObjectMapper().enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+
+  /**
+   * Creates a filter function that serves cacheable MCP calls from the cache.
+   *
+   * @param cache the response cache for the route
+   * @param maxRequestSize the largest request body, in bytes, that is inspected
+   * @param maxResponseSize the largest response body, in bytes, that is cached
+   * @return A HandlerFilterFunction that answers cached calls or forwards the request
+   */
+  public static HandlerFilterFunction<ServerResponse, ServerResponse> cacheReadOnlyCalls(
+      McpResponseCache cache, int maxRequestSize, int maxResponseSize) {
+    return (request, next) -> {
+      String authorization = request.headers().firstHeader(HttpHeaders.AUTHORIZATION);
+      if (!HttpMethod.POST.equals(request.method())
+          || authorization == null
+          || !isJson(request.headers().contentType().orElse(null))) {
+        return next.handle(request);
+      }
+
+      // Read once for the whole route; the filters after this one find it in a request attribute
+      JsonRpcRequest.Body body = JsonRpcRequest.read(request, maxRequestSize);
+      ServerRequest replayed = body.request();
+      JsonRpcRequest jsonRpcRequest = body.call();
+      Call call = jsonRpcRequest != null ? call(jsonRpcRequest, authorization, cache) : null;
+      if (call == null) {
+        return next.handle(replayed);
+      }
+
+      McpResponseCache.Result cached = cache.get(call.key());
+      if (cached != null) {
+        LOGGER.debug("Answering {} from the cache", call.key().method());
+        return cachedResponse(call.id(), cached, HIT);
+      }
+
+      McpResponseCache.Flight flight = cache.join(call.key());
+      if (!flight.isLeader()) {
+        McpResponseCache.Result result = flight.await();
+        if (result != null) {
+          return cachedResponse(call.id(), result, COLLAPSED);
+        }
+        // The identical call failed or could not be cached, so try the backend directly
+        return next.handle(replayed);
+      }
+
+      ServerResponse response;
+      try {
+        response = next.handle(replayed);
+      } catch (Exception ex) {
+        flight.abandon();
+        throw ex;
+      }
+      if (!isCacheable(response)) {
+        flight.abandon();
+        return response;
+      }
+      try {
+        response.headers().set(CACHE_STATUS, MISS);
+      } catch (UnsupportedOperationException ex) {
+        // Not a proxied response; the header is informational only
+      }
+      return new CapturingServerResponse(
+          response,
+          maxResponseSize,
+          captured -> {
+            McpResponseCache.Result result = captured != null ? parseResult(captured) : null;
+            if (result != null) {
+              flight.complete(result);
+            } else {
+              flight.abandon();
+            }
+          });
+    };
+  }
+
+  private static @Nullable Call call(
+      JsonRpcRequest request, String authorization, McpResponseCache cache) {
+    // Notifications (no id) are never cached, nor are batches, which are not read as a request
+    if (request.id().isNull()) {
+      return null;
+    }
+    Duration timeToLive = cache.timeToLive(request.method(), request.tool());
+    if (timeToLive == null || timeToLive.isZero() || timeToLive.isNegative()) {
+      return null;
+    }
+    try {
+      Object params = objectMapper.treeToValue(request.params(), Object.class);
+      if (params instanceof Map<?, ?> paramsObject) {
+        // Request metadata such as progress tokens does not change the result
+        paramsObject.remove("_meta");
+      }
+      return new Call(
+          request.id(),
+          new McpResponseCache.Key(
+              TokenHashes.sha256(authorization),
+              request.method(),
+              request.tool(),
+              objectMapper.writeValueAsString(params)));
+    } catch (IOException ex) {
+      return null;
+    }
+  }
+
+  private static McpResponseCache.@Nullable Result parseResult(byte[] body) {
+    try {
+      JsonNode response = objectMapper.readTree(body);
+      // Errors are not cached, nor are tool results that report a failure
+      if (response == null
+          || !response.has("result")
+          || response.has("error")
+          || response.path("result").path("isError").asBoolean(false)) {
+        return null;
+      }
+      return new McpResponseCache.Result(objectMapper.writeValueAsString(response.get("result")));
+    } catch (IOException ex) {
+      LOGGER.debug("Not caching unreadable MCP response: {}", ex.getMessage());
+      return null;
+    }
+  }
+
+  private static boolean isCacheable(ServerResponse response) {
+    HttpHeaders headers = response.headers();
+    return response.statusCode().value() == HttpStatus.OK.value()
+        && isJson(headers.getContentType())
+        && !headers.containsHeader(HttpHeaders.CONTENT_ENCODING);
+  }
+
+  private static boolean isJson(@Nullable MediaType contentType) {
+    return contentType != null && MediaType.APPLICATION_JSON.isCompatibleWith(contentType);
+  }
+
+  private static ServerResponse cachedResponse(
+      JsonNode id, McpResponseCache.Result result, String cacheStatus) throws IOException {
+    byte[] body =
+        ("{\"jsonrpc\":\"2.0\",\"id\":"
+                + objectMapper.writeValueAsString(id)
+                + ",\"result\":"
+                + result.json()
+                + "}")
+            .getBytes(StandardCharsets.UTF_8);
+    return GatewayServerResponse.ok()
+        .contentType(MediaType.APPLICATION_JSON)
+        .contentLength(body.length)
+        .header(CACHE_STATUS, cacheStatus)
+        .build(
+            (servletRequest, servletResponse) -> {
+              servletResponse.getOutputStream().write(body);
+              return null;
+            });
+  }
+
+  private record Call(JsonNode id, McpResponseCache.Key key) {}
+}
@@ -0,0 +1,117 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import org.garethjevans.chained.auth.gateway.upstream.RetryBudget;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.ServerResponse;
+
+/**
+ * Gateway filter that retries idempotent MCP calls when the exchange with the backend fails, for
+ * example because the instance it was sent to is restarting. Only JSON-RPC methods listed as
+ * idempotent, and {@code tools/call} for tools listed as read-only, are retried; everything else is
+ * forwarded exactly once.
+ *
+ * <p>Each retry is sent through the rest of the filter chain again, so load balancing can pick a
+ * different instance. Retries back off exponentially with full jitter and are only made while the
+ * gateway-wide {@link RetryBudget} allows them. Responses, including 5xx responses, are never
+ * retried: only exchanges that failed with an I/O error are.
+ */
+@Component
+public class RetryFilter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RetryFilter.class);
+
+  /**
+   * Creates a filter function that retries failed exchanges for idempotent calls.
+   *
+   * @param budget the gateway-wide retry budget
+   * @param methods the JSON-RPC methods that may be retried
+   * @param tools the tools whose {@code tools/call} may be retried
+   * @param maxAttempts the maximum number of attempts, including the first
+   * @param backoff the base delay before the first retry
+   * @param maxBackoff the maximum delay before a retry
+   * @param maxRequestSize the largest request body, in bytes, that is buffered for retries
+   * @return A HandlerFilterFunction that forwards the request, retrying failed attempts
+   */
+  public static HandlerFilterFunction<ServerResponse, ServerResponse> retryIdempotentCalls(
+      RetryBudget budget,
+      Set<String> methods,
+      Set<String> tools,
+      int maxAttempts,
+      Duration backoff,
+      Duration maxBackoff,
+      int maxRequestSize) {
+    Set<String> idempotentMethods = Set.copyOf(methods);
+    Set<String> readOnlyTools = Set.copyOf(tools);
+    return (request, next) -> {
+      budget.deposit();
+      if (maxAttempts <= 1
+          || !HttpMethod.POST.equals(request.method())
+          || !isJson(request.headers().contentType().orElse(null))) {
+        return next.handle(request);
+      }
+
+      JsonRpcRequest.Body body = JsonRpcRequest.read(request, maxRequestSize);
+      byte[] bytes = body.bytes();
+      JsonRpcRequest call = body.call();
+      if (bytes == null || call == null || !isIdempotent(call, idempotentMethods, readOnlyTools)) {
+        return next.handle(body.request());
+      }
+
+      for (int attempt = 1; ; attempt++) {
+        try {
+          return next.handle(JsonRpcRequest.replay(request, new ByteArrayInputStream(bytes)));
+        } catch (ResourceAccessException ex) {
+          if (attempt >= maxAttempts || !budget.tryWithdraw()) {
+            throw ex;
+          }
+          LOGGER.debug(
+              "Retrying {} after failed attempt {}: {}", call.method(), attempt, ex.getMessage());
+          if (!sleep(backoff(attempt, backoff, maxBackoff))) {
+            throw ex;
+          }
+        }
+      }
+    };
+  }
+
+  private static boolean isIdempotent(JsonRpcRequest call, Set<String> methods, Set<String> tools) {
+    if (JsonRpcRequest.TOOLS_CALL.equals(call.method())) {
+      return call.tool() != null && tools.contains(call.tool());
+    }
+    return methods.contains(call.method());
+  }
+
+  private static boolean isJson(@Nullable MediaType contentType) {
+    return contentType != null && MediaType.APPLICATION_JSON.isCompatibleWith(contentType);
+  }
+
+  private static Duration backoff(int attempt, Duration base, Duration max) {
+    long ceiling = base.toNanos();
+    for (int i = 1; i < attempt && ceiling < max.toNanos(); i++) {
+      ceiling *= 2;
+    }
+    ceiling = Math.min(ceiling, max.toNanos());
+    return Duration.ofNanos(ceiling > 0 ? ThreadLocalRandom.current().nextLong(ceiling) : 0);
+  }
+
+  private static boolean sleep(Duration delay) {
+    try {
+      Thread.sleep(delay);
+      return true;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
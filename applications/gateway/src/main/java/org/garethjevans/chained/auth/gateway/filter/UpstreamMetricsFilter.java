@@ -0,0 +1,37 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import org.garethjevans.chained.auth.gateway.core.metrics.GatewayMetrics;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.ServerResponse;
+
+/**
+ * Gateway filter that times the exchange with a route's backend. It is added last, so it only
+ * measures the proxy itself: from handing the request to the backend until its response headers
+ * arrive. Streamed response bodies are relayed after that and are not included.
+ */
+@Component
+public class UpstreamMetricsFilter {
+
+  /**
+   * Creates a filter function that records the latency and response status of proxied requests.
+   *
+   * @param metrics the metrics to record requests in
+   * @param routeId the id of the route the filter is added to
+   * @return A HandlerFilterFunction that records the backend exchange
+   */
+  public static HandlerFilterFunction<ServerResponse, ServerResponse> recordUpstream(
+      GatewayMetrics metrics, String routeId) {
+    return (request, next) -> {
+      long start = System.nanoTime();
+      int status = -1;
+      try {
+        ServerResponse response = next.handle(request);
+        status = response.statusCode().value();
+        return response;
+      } finally {
+        metrics.recordUpstream(routeId, status, System.nanoTime() - start);
+      }
+    };
+  }
+}
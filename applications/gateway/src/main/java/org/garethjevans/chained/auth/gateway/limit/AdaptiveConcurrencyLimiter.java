@@ -0,0 +1,156 @@
+package org.garethjevans.chained.auth.gateway.limit;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.jspecify.annotations.Nullable;
+import org.springframework.util.Assert;
+
+/**
+ * Additive-increase/multiplicative-decrease (AIMD) concurrency limit for a single gateway route.
+ * Each request must acquire a {@link Permit} before it is forwarded; once the number of in-flight
+ * requests reaches the current limit further requests are rejected immediately instead of queueing
+ * behind a slow backend.
+ *
+ * <p>The limit grows by one for every successful request completed while at least half of the limit
+ * was in use, and is multiplied by {@code backoffRatio} whenever a request is dropped: it failed,
+ * the backend answered with a 5xx, or it took longer than {@code latencyThreshold}. The limit and
+ * rejections are published as Micrometer meters tagged with the route id.
+ */
+public class AdaptiveConcurrencyLimiter implements MeterBinder {
+
+  private final String routeId;
+  private final int minLimit;
+  private final int maxLimit;
+  private final double backoffRatio;
+  private final long latencyThresholdNanos;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final LongAdder rejected = new LongAdder();
+  private volatile double limit;
+
+  public AdaptiveConcurrencyLimiter(
+      String routeId,
+      int initialLimit,
+      int minLimit,
+      int maxLimit,
+      double backoffRatio,
+      Duration latencyThreshold) {
+    Assert.hasText(routeId, "routeId must not be empty");
+    Assert.isTrue(minLimit > 0, "minLimit must be greater than 0");
+    Assert.isTrue(maxLimit >= minLimit, "maxLimit must not be less than minLimit");
+    Assert.isTrue(
+        initialLimit >= minLimit && initialLimit <= maxLimit,
+        "initialLimit must be between minLimit and maxLimit");
+    Assert.isTrue(backoffRatio > 0 && backoffRatio < 1, "backoffRatio must be between 0 and 1");
+    this.routeId = routeId;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.backoffRatio = backoffRatio;
+    this.latencyThresholdNanos = latencyThreshold.toNanos();
+    this.limit = initialLimit;
+  }
+
+  /**
+   * Tries to reserve a slot for a new request. Never blocks.
+   *
+   * @return a permit that must be released when the request completes, or {@code null} when the
+   *     route is at its concurrency limit
+   */
+  public @Nullable Permit tryAcquire() {
+    while (true) {
+      int current = inFlight.get();
+      if (current >= (int) limit) {
+        rejected.increment();
+        return null;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return new Permit(current + 1);
+      }
+    }
+  }
+
+  /**
+   * Returns the current concurrency limit.
+   *
+   * @return the maximum number of requests currently allowed in flight
+   */
+  public int getLimit() {
+    return (int) limit;
+  }
+
+  /**
+   * Returns the number of requests currently holding a permit.
+   *
+   * @return the number of in-flight requests
+   */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * Returns the number of requests rejected since the limiter was created.
+   *
+   * @return the total number of rejections
+   */
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  private synchronized void onSuccess(int inFlightAtStart) {
+    // Only probe upwards when the limit is actually being used
+    if (inFlightAtStart * 2 >= limit) {
+      limit = Math.min(maxLimit, limit + 1);
+    }
+  }
+
+  private synchronized void onDropped() {
+    limit = Math.max(minLimit, limit * backoffRatio);
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("gateway.concurrency.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+        .description("Current adaptive concurrency limit")
+        .tag("route", routeId)
+        .register(registry);
+    Gauge.builder("gateway.concurrency.in-flight", this, AdaptiveConcurrencyLimiter::getInFlight)
+        .description("Requests currently forwarded to the backend")
+        .tag("route", routeId)
+        .register(registry);
+    FunctionCounter.builder(
+            "gateway.concurrency.rejected", this, AdaptiveConcurrencyLimiter::getRejected)
+        .description("Requests rejected because the concurrency limit was reached")
+        .tag("route", routeId)
+        .register(registry);
+  }
+
+  /** A reserved slot for one in-flight request. Must be released exactly once. */
+  public final class Permit {
+
+    private final int inFlightAtStart;
+
+    private Permit(int inFlightAtStart) {
+      this.inFlightAtStart = inFlightAtStart;
+    }
+
+    /**
+     * Releases the permit for a request that completed.
+     *
+     * @param latency how long the backend took to respond
+     * @param failed whether the backend failed to produce a usable response
+     */
+    public void release(Duration latency, boolean failed) {
+      inFlight.decrementAndGet();
+      if (failed || latency.toNanos() > latencyThresholdNanos) {
+        onDropped();
+      } else {
+        onSuccess(inFlightAtStart);
+      }
+    }
+  }
+}
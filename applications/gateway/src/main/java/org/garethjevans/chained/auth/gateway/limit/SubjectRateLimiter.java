@@ -0,0 +1,188 @@
+package org.garethjevans.chained.auth.gateway.limit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.util.Assert;
+
+/**
+ * Token-bucket rate limit applied per subject (the {@code sub} claim of the proxy JWT) on a single
+ * gateway route. Each subject may burst up to {@code capacity} requests, after which it is allowed
+ * {@code refillTokens} requests every {@code refillPeriod}; one runaway client therefore cannot use
+ * up the backend, or the upstream rate limit it shares with everyone else.
+ *
+ * <p>Each bucket is kept as a single timestamp, the instant at which it will be full again, and is
+ * updated with a compare-and-set, so concurrent requests for the same subject never block each
+ * other. Buckets that have not been used for {@code idleTimeout} are full again anyway and are
+ * evicted, which bounds memory to the subjects that are actually active.
+ */
+public class SubjectRateLimiter implements MeterBinder {
+
+  private final String routeId;
+  private final long capacity;
+  private final long refillTokens;
+  private final Duration refillPeriod;
+  private final long nanosPerToken;
+  private final Ticker ticker;
+
+  private final Cache<String, Bucket> buckets;
+  private final LongAdder rejected = new LongAdder();
+
+  public SubjectRateLimiter(
+      String routeId,
+      long capacity,
+      long refillTokens,
+      Duration refillPeriod,
+      Duration idleTimeout,
+      long maximumSubjects) {
+    this(
+        routeId,
+        capacity,
+        refillTokens,
+        refillPeriod,
+        idleTimeout,
+        maximumSubjects,
+        Ticker.systemTicker());
+  }
+
+  SubjectRateLimiter(
+      String routeId,
+      long capacity,
+      long refillTokens,
+      Duration refillPeriod,
+      Duration idleTimeout,
+      long maximumSubjects,
+      Ticker ticker) {
+    Assert.hasText(routeId, "routeId must not be empty");
+    Assert.isTrue(capacity > 0, "capacity must be greater than 0");
+    Assert.isTrue(refillTokens > 0, "refillTokens must be greater than 0");
+    Assert.isTrue(
+        refillPeriod.toNanos() >= refillTokens, "refillPeriod must be at least 1ns per token");
+    Assert.isTrue(maximumSubjects > 0, "maximumSubjects must be greater than 0");
+    this.routeId = routeId;
+    this.capacity = capacity;
+    this.refillTokens = refillTokens;
+    this.refillPeriod = refillPeriod;
+    this.nanosPerToken = refillPeriod.toNanos() / refillTokens;
+    this.ticker = ticker;
+    // A bucket left alone for the time it takes to refill completely carries no state
+    Duration fullRefill = Duration.ofNanos(Math.multiplyExact(capacity, nanosPerToken));
+    this.buckets =
+        Caffeine.newBuilder()
+            .maximumSize(maximumSubjects)
+            .expireAfterAccess(idleTimeout.compareTo(fullRefill) > 0 ? idleTimeout : fullRefill)
+            .ticker(ticker)
+            .build();
+  }
+
+  /**
+   * Takes a token from the subject's bucket, if one is available. Never blocks.
+   *
+   * @param subject the subject the request is made on behalf of
+   * @return the outcome, including the values for the {@code RateLimit-*} response headers
+   */
+  public Decision tryConsume(String subject) {
+    Bucket bucket = buckets.get(subject, key -> new Bucket());
+    long now = ticker.read();
+    while (true) {
+      long fullAt = bucket.fullAt.get();
+      // The bucket is short of one token for every nanosPerToken left until it is full again
+      long base = Math.max(fullAt, now);
+      long next = base + nanosPerToken;
+      long emptyAt = next - capacity * nanosPerToken;
+      if (emptyAt > now) {
+        rejected.increment();
+        long retryAfter = emptyAt - now;
+        return new Decision(false, 0, Duration.ofNanos(base - now), Duration.ofNanos(retryAfter));
+      }
+      if (bucket.fullAt.compareAndSet(fullAt, next)) {
+        long remaining = (now - emptyAt) / nanosPerToken;
+        return new Decision(true, remaining, Duration.ofNanos(next - now), Duration.ZERO);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of requests a subject may burst.
+   *
+   * @return the bucket capacity
+   */
+  public long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns the number of tokens added to a bucket every refill period.
+   *
+   * @return the sustained number of requests per refill period
+   */
+  public long getRefillTokens() {
+    return refillTokens;
+  }
+
+  /**
+   * Returns the period over which {@link #getRefillTokens()} tokens are added to a bucket.
+   *
+   * @return the refill period
+   */
+  public Duration getRefillPeriod() {
+    return refillPeriod;
+  }
+
+  /**
+   * Returns the number of requests rejected since the limiter was created.
+   *
+   * @return the total number of rejections
+   */
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  /**
+   * Returns the approximate number of subjects with a bucket in memory.
+   *
+   * @return the estimated number of active subjects
+   */
+  public long estimatedSubjects() {
+    return buckets.estimatedSize();
+  }
+
+  void cleanUp() {
+    buckets.cleanUp();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("gateway.rate-limit.subjects", this, SubjectRateLimiter::estimatedSubjects)
+        .description("Subjects with an active rate limit bucket")
+        .tag("route", routeId)
+        .register(registry);
+    FunctionCounter.builder("gateway.rate-limit.rejected", this, SubjectRateLimiter::getRejected)
+        .description("Requests rejected because the subject's rate limit was exceeded")
+        .tag("route", routeId)
+        .register(registry);
+  }
+
+  private static final class Bucket {
+
+    /** Ticker time at which the bucket is full again; anything in the past means full. */
+    private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE / 2);
+  }
+
+  /**
+   * The outcome of a rate limit check.
+   *
+   * @param allowed whether the request may proceed
+   * @param remaining the number of requests the subject may still make without waiting
+   * @param reset the time until the subject's bucket is full again
+   * @param retryAfter the time until the next request would be allowed; zero when allowed
+   */
+  public record Decision(boolean allowed, long remaining, Duration reset, Duration retryAfter) {}
+}
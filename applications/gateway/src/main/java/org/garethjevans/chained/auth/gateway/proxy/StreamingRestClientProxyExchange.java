@@ -0,0 +1,126 @@
+package org.garethjevans.chained.auth.gateway.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.springframework.cloud.gateway.server.mvc.config.GatewayMvcProperties;
+import org.springframework.cloud.gateway.server.mvc.handler.RestClientProxyExchange;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.RestClient;
+
+/**
+ * {@link RestClientProxyExchange} that relays streaming responses as they arrive. The stock
+ * exchange only flushes when the backend's {@code Content-Type} exactly equals one of the
+ * configured streaming media types, so {@code text/event-stream;charset=UTF-8} or a chunked
+ * JSON-RPC response sits in the servlet output buffer until it fills up or the backend finishes.
+ *
+ * <p>Here a response is streamed when its media type is compatible with a streaming media type,
+ * ignoring parameters, or when it has no {@code Content-Length}. Both paths copy through a single
+ * fixed-size buffer, so memory per open stream stays constant, and backpressure comes from the
+ * blocking copy: the backend connection is only read as fast as the client accepts bytes.
+ *
+ * <p>Server-sent events are flushed at every event boundary, a blank line, which may span reads and
+ * buffer-full flushes; other streaming bodies are flushed each time the buffer fills. The pooled
+ * client's response stream only returns from a bulk read once it has filled the requested length,
+ * which would hold back small events, so events are read in bulk only as far as the stream reports
+ * bytes {@link InputStream#available() available}, and byte by byte otherwise.
+ */
+public class StreamingRestClientProxyExchange extends RestClientProxyExchange {
+
+  private final GatewayMvcProperties properties;
+
+  public StreamingRestClientProxyExchange(RestClient restClient, GatewayMvcProperties properties) {
+    super(restClient, properties);
+    this.properties = properties;
+  }
+
+  @Override
+  protected int copyResponseBody(
+      ClientHttpResponse clientResponse, InputStream inputStream, OutputStream outputStream)
+      throws IOException {
+    HttpHeaders headers = clientResponse.getHeaders();
+    if (isEventStream(headers)) {
+      return copyEvents(inputStream, outputStream);
+    }
+    if (isStreaming(headers)) {
+      return copyWithFlushing(inputStream, outputStream);
+    }
+    return StreamUtils.copy(inputStream, outputStream);
+  }
+
+  private int copyEvents(InputStream inputStream, OutputStream outputStream) throws IOException {
+    byte[] buffer = new byte[properties.getStreamingBufferSize()];
+    long total = 0;
+    int length = 0;
+    // Whether the last byte read ended a line, carried across reads and flushes
+    boolean atLineStart = false;
+    while (true) {
+      int wanted = Math.max(1, Math.min(inputStream.available(), buffer.length - length));
+      int read = inputStream.read(buffer, length, wanted);
+      if (read == -1) {
+        break;
+      }
+      boolean endOfEvent = false;
+      for (int i = length; i < length + read; i++) {
+        byte current = buffer[i];
+        // An event ends with an empty line; a CR before the LF is simply carried along
+        if (current == '\n') {
+          endOfEvent |= atLineStart;
+          atLineStart = true;
+        } else if (current != '\r') {
+          atLineStart = false;
+        }
+      }
+      length += read;
+      if (endOfEvent || length == buffer.length) {
+        outputStream.write(buffer, 0, length);
+        outputStream.flush();
+        total += length;
+        length = 0;
+      }
+    }
+    outputStream.write(buffer, 0, length);
+    outputStream.flush();
+    return (int) Math.min(total + length, Integer.MAX_VALUE);
+  }
+
+  private int copyWithFlushing(InputStream inputStream, OutputStream outputStream)
+      throws IOException {
+    byte[] buffer = new byte[properties.getStreamingBufferSize()];
+    long total = 0;
+    int readBytes;
+    while ((readBytes = inputStream.read(buffer)) != -1) {
+      outputStream.write(buffer, 0, readBytes);
+      outputStream.flush();
+      total += readBytes;
+    }
+    outputStream.flush();
+    return (int) Math.min(total, Integer.MAX_VALUE);
+  }
+
+  private static boolean isEventStream(HttpHeaders headers) {
+    MediaType contentType = headers.getContentType();
+    return contentType != null && MediaType.TEXT_EVENT_STREAM.equalsTypeAndSubtype(contentType);
+  }
+
+  /**
+   * Whether a backend response should be relayed as it arrives rather than copied in bulk.
+   *
+   * @param headers the backend response headers
+   * @return {@code true} for streaming media types and responses without a known length
+   */
+  boolean isStreaming(HttpHeaders headers) {
+    MediaType contentType = headers.getContentType();
+    if (contentType != null) {
+      for (MediaType streamingMediaType : properties.getStreamingMediaTypes()) {
+        if (streamingMediaType.equalsTypeAndSubtype(contentType)) {
+          return true;
+        }
+      }
+    }
+    return headers.getContentLength() < 0;
+  }
+}
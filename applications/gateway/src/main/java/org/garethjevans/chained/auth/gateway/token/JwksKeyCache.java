@@ -0,0 +1,195 @@
+package org.garethjevans.chained.auth.gateway.token;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.RSAKey;
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.garethjevans.chained.auth.jose.Ed25519JwsVerifier;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.util.Assert;
+import org.springframework.web.client.RestClient;
+
+/**
+ * In-memory snapshot of the auth-adapter's JSON Web Key Set, indexed by {@code kid}. The key set is
+ * fetched on a background thread when the cache starts and then refreshed on a fixed interval, so
+ * lookups on the request thread never block on HTTP. A lookup for an unknown {@code kid} schedules
+ * an early refresh, rate limited to one per {@code minimumRefreshInterval}, to pick up rotated
+ * keys.
+ */
+public class JwksKeyCache implements SmartLifecycle {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(JwksKeyCache.class);
+
+  private final RestClient restClient;
+  private final URI jwkSetUri;
+  private final Duration refreshInterval;
+  private final Duration minimumRefreshInterval;
+  private final AtomicLong lastRefreshRequest = new AtomicLong();
+
+  private volatile Map<String, VerificationKey> keys = Map.of();
+  private volatile @Nullable ScheduledExecutorService scheduler;
+
+  public JwksKeyCache(
+      URI jwkSetUri,
+      Duration refreshInterval,
+      Duration minimumRefreshInterval,
+      Duration requestTimeout) {
+    Assert.notNull(jwkSetUri, "jwkSetUri must not be null");
+    SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+    requestFactory.setConnectTimeout(requestTimeout);
+    requestFactory.setReadTimeout(requestTimeout);
+    this.restClient = RestClient.builder().requestFactory(requestFactory).build();
+    this.jwkSetUri = jwkSetUri;
+    this.refreshInterval = refreshInterval;
+    this.minimumRefreshInterval = minimumRefreshInterval;
+  }
+
+  /**
+   * Returns the verification key registered under the given key id. Never blocks; when the key id
+   * is unknown an asynchronous refresh is requested and {@code null} is returned.
+   *
+   * @param kid the {@code kid} header of the JWT being verified
+   * @return the verification key, or {@code null} if it is not (yet) known
+   */
+  public @Nullable VerificationKey getKey(String kid) {
+    VerificationKey key = keys.get(kid);
+    if (key == null) {
+      requestRefresh();
+    }
+    return key;
+  }
+
+  /**
+   * Returns the number of keys in the current snapshot.
+   *
+   * @return the number of known verification keys
+   */
+  public int size() {
+    return keys.size();
+  }
+
+  /**
+   * Fetches the key set and atomically replaces the current snapshot. Failures are logged and the
+   * previous snapshot is kept, so a temporarily unavailable auth-adapter does not evict keys.
+   */
+  public void refresh() {
+    try {
+      String body = restClient.get().uri(jwkSetUri).retrieve().body(String.class);
+      if (body == null) {
+        LOGGER.warn("Empty JWK Set response from {}", jwkSetUri);
+        return;
+      }
+      update(JWKSet.parse(body));
+    } catch (Exception ex) {
+      LOGGER.warn("Failed to refresh JWK Set from {}: {}", jwkSetUri, ex.getMessage());
+    }
+  }
+
+  /**
+   * Replaces the current snapshot with the signing keys from the given key set. Keys without a
+   * {@code kid}, encryption keys and unsupported key types are skipped.
+   *
+   * @param jwkSet the key set published by the auth-adapter
+   */
+  public void update(JWKSet jwkSet) {
+    Map<String, VerificationKey> updated = new HashMap<>();
+    for (JWK jwk : jwkSet.getKeys()) {
+      if (jwk.getKeyID() == null || KeyUse.ENCRYPTION.equals(jwk.getKeyUse())) {
+        continue;
+      }
+      try {
+        JWSVerifier verifier = createVerifier(jwk);
+        if (verifier != null) {
+          updated.put(jwk.getKeyID(), new VerificationKey(jwk, verifier));
+        }
+      } catch (JOSEException ex) {
+        LOGGER.warn("Skipping unusable JWK {}: {}", jwk.getKeyID(), ex.getMessage());
+      }
+    }
+    this.keys = Map.copyOf(updated);
+    LOGGER.debug("Loaded {} verification keys from {}", updated.size(), jwkSetUri);
+  }
+
+  private void requestRefresh() {
+    ScheduledExecutorService executor = this.scheduler;
+    if (executor == null) {
+      return;
+    }
+    long now = System.nanoTime();
+    long last = lastRefreshRequest.get();
+    if (now - last >= minimumRefreshInterval.toNanos()
+        && lastRefreshRequest.compareAndSet(last, now)) {
+      executor.execute(this::refresh);
+    }
+  }
+
+  private static @Nullable JWSVerifier createVerifier(JWK jwk) throws JOSEException {
+    if (jwk instanceof RSAKey rsaKey) {
+      return new RSASSAVerifier(rsaKey);
+    }
+    if (jwk instanceof ECKey ecKey) {
+      return new ECDSAVerifier(ecKey);
+    }
+    if (jwk instanceof OctetKeyPair okp && Curve.Ed25519.equals(okp.getCurve())) {
+      return new Ed25519JwsVerifier(okp);
+    }
+    LOGGER.debug("Ignoring JWK {} of unsupported type {}", jwk.getKeyID(), jwk.getKeyType());
+    return null;
+  }
+
+  @Override
+  public void start() {
+    ScheduledExecutorService executor =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "jwks-refresh");
+              thread.setDaemon(true);
+              return thread;
+            });
+    lastRefreshRequest.set(System.nanoTime());
+    executor.scheduleWithFixedDelay(
+        this::refresh, 0, refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+    this.scheduler = executor;
+  }
+
+  @Override
+  public void stop() {
+    ScheduledExecutorService executor = this.scheduler;
+    this.scheduler = null;
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return scheduler != null;
+  }
+
+  /**
+   * A JWK from the key set together with the verifier built for it.
+   *
+   * @param jwk the public key as published by the auth-adapter
+   * @param verifier the JWS verifier for the key
+   */
+  public record VerificationKey(JWK jwk, JWSVerifier verifier) {}
+}
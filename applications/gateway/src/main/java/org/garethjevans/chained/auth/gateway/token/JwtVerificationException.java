@@ -0,0 +1,13 @@
+package org.garethjevans.chained.auth.gateway.token;
+
+/** Thrown by {@link JwtVerifier} when a proxy JWT cannot be trusted. */
+public class JwtVerificationException extends Exception {
+
+  public JwtVerificationException(String message) {
+    super(message);
+  }
+
+  public JwtVerificationException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -0,0 +1,118 @@
+package org.garethjevans.chained.auth.gateway.token;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import java.text.ParseException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import org.garethjevans.chained.auth.gateway.core.token.ExpiresAtExpiry;
+import org.garethjevans.chained.auth.gateway.core.token.TokenHashes;
+import org.garethjevans.chained.auth.gateway.token.JwksKeyCache.VerificationKey;
+import org.jspecify.annotations.Nullable;
+import org.springframework.util.Assert;
+
+/**
+ * Verifies proxy JWTs against the keys held by a {@link JwksKeyCache}. Checks the signature, the
+ * {@code exp} and {@code nbf} claims (allowing for clock skew) and memoizes successfully verified
+ * tokens until they expire, so the signature check is paid once per distinct token.
+ */
+public class JwtVerifier {
+
+  private final JwksKeyCache keyCache;
+  private final Duration clockSkew;
+  private final Clock clock;
+  private final Cache<String, VerifiedToken> verified;
+
+  public JwtVerifier(JwksKeyCache keyCache, Duration clockSkew, long maximumSize) {
+    this(keyCache, clockSkew, maximumSize, Clock.systemUTC(), Ticker.systemTicker());
+  }
+
+  JwtVerifier(
+      JwksKeyCache keyCache, Duration clockSkew, long maximumSize, Clock clock, Ticker ticker) {
+    Assert.notNull(keyCache, "keyCache must not be null");
+    Assert.isTrue(maximumSize > 0, "maximumSize must be greater than 0");
+    this.keyCache = keyCache;
+    this.clockSkew = clockSkew;
+    this.clock = clock;
+    this.verified =
+        Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfter(new ExpiresAtExpiry<>(clock, VerifiedToken::expiresAt))
+            .ticker(ticker)
+            .build();
+  }
+
+  /**
+   * Verifies the given serialized JWT.
+   *
+   * @param token the raw proxy JWT, without the {@code Bearer } prefix
+   * @return the verified claims of the token
+   * @throws JwtVerificationException if the token is malformed, signed by an unknown key, carries
+   *     an invalid signature or has expired
+   */
+  public JWTClaimsSet verify(String token) throws JwtVerificationException {
+    String key = TokenHashes.sha256(token);
+    VerifiedToken cached = verified.getIfPresent(key);
+    if (cached != null) {
+      return cached.claims();
+    }
+
+    SignedJWT jwt;
+    JWTClaimsSet claims;
+    try {
+      jwt = SignedJWT.parse(token);
+      claims = jwt.getJWTClaimsSet();
+    } catch (ParseException ex) {
+      throw new JwtVerificationException("Malformed JWT: " + ex.getMessage(), ex);
+    }
+
+    JWSHeader header = jwt.getHeader();
+    if (header.getKeyID() == null) {
+      throw new JwtVerificationException("JWT has no kid header");
+    }
+    VerificationKey verificationKey = keyCache.getKey(header.getKeyID());
+    if (verificationKey == null) {
+      throw new JwtVerificationException("Unknown signing key " + header.getKeyID());
+    }
+    if (!verificationKey.verifier().supportedJWSAlgorithms().contains(header.getAlgorithm())
+        || (verificationKey.jwk().getAlgorithm() != null
+            && !verificationKey.jwk().getAlgorithm().equals(header.getAlgorithm()))) {
+      throw new JwtVerificationException(
+          "Algorithm " + header.getAlgorithm() + " not allowed for key " + header.getKeyID());
+    }
+
+    Instant now = clock.instant();
+    Instant expiresAt = toInstant(claims.getExpirationTime());
+    if (expiresAt == null || !expiresAt.plus(clockSkew).isAfter(now)) {
+      throw new JwtVerificationException("JWT has expired");
+    }
+    Instant notBefore = toInstant(claims.getNotBeforeTime());
+    if (notBefore != null && notBefore.minus(clockSkew).isAfter(now)) {
+      throw new JwtVerificationException("JWT is not yet valid");
+    }
+
+    try {
+      if (!jwt.verify(verificationKey.verifier())) {
+        throw new JwtVerificationException("Invalid JWT signature");
+      }
+    } catch (JOSEException ex) {
+      throw new JwtVerificationException("Unable to verify JWT signature: " + ex.getMessage(), ex);
+    }
+
+    verified.put(key, new VerifiedToken(claims, expiresAt.plus(clockSkew)));
+    return claims;
+  }
+
+  private static @Nullable Instant toInstant(@Nullable Date date) {
+    return date != null ? date.toInstant() : null;
+  }
+
+  private record VerifiedToken(JWTClaimsSet claims, Instant expiresAt) {}
+}
@@ -0,0 +1,13 @@
+package org.garethjevans.chained.auth.gateway.token;
+
+/** Thrown by {@link PhantomTokenResolver} when a reference token could not be looked up. */
+public class PhantomTokenException extends Exception {
+
+  public PhantomTokenException(String message) {
+    super(message);
+  }
+
+  public PhantomTokenException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -0,0 +1,323 @@
+package org.garethjevans.chained.auth.gateway.token;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import org.garethjevans.chained.auth.gateway.core.token.TokenHashes;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestClient;
+
+/**
+ * Resolves phantom tokens, the opaque reference tokens issued by the auth-adapter in phantom-token
+ * mode, to the upstream token they stand for. Tokens are looked up through the auth-adapter's OAuth
+ * 2.0 token introspection endpoint (RFC 7662), authenticating as the gateway client.
+ *
+ * <p>A resolved token is valid until its {@code exp} claim, but never for longer than {@code
+ * maximumTimeToLive}, so that callers re-resolve it regularly and a revoked token stops working
+ * within that window. Tokens the auth-adapter reports as inactive are remembered for {@code
+ * negativeTimeToLive} so repeated attempts with a bad token do not reach the auth-adapter. Only one
+ * lookup per token is in progress at a time; concurrent callers wait for its result.
+ */
+public class PhantomTokenResolver implements MeterBinder {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PhantomTokenResolver.class);
+
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final Lookup lookup;
+  private final Duration maximumTimeToLive;
+  private final Clock clock;
+  private final Cache<String, Boolean> rejected;
+  private final Map<String, CompletableFuture<@Nullable Resolution>> inFlight =
+      new ConcurrentHashMap<>();
+
+  private final LongAdder active = new LongAdder();
+  private final LongAdder inactive = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder collapsed = new LongAdder();
+  private final LongAdder rejectedHits = new LongAdder();
+
+  public PhantomTokenResolver(
+      URI introspectionUri,
+      String clientId,
+      String clientSecret,
+      Duration requestTimeout,
+      Duration maximumTimeToLive,
+      Duration negativeTimeToLive,
+      long maximumSize) {
+    this(
+        introspection(introspectionUri, clientId, clientSecret, requestTimeout),
+        maximumTimeToLive,
+        negativeTimeToLive,
+        maximumSize,
+        Clock.systemUTC(),
+        Ticker.systemTicker());
+  }
+
+  public PhantomTokenResolver(
+      Lookup lookup, Duration maximumTimeToLive, Duration negativeTimeToLive, long maximumSize) {
+    this(
+        lookup,
+        maximumTimeToLive,
+        negativeTimeToLive,
+        maximumSize,
+        Clock.systemUTC(),
+        Ticker.systemTicker());
+  }
+
+  PhantomTokenResolver(
+      Lookup lookup,
+      Duration maximumTimeToLive,
+      Duration negativeTimeToLive,
+      long maximumSize,
+      Clock clock,
+      Ticker ticker) {
+    Assert.notNull(lookup, "lookup must not be null");
+    Assert.isTrue(maximumSize > 0, "maximumSize must be greater than 0");
+    this.lookup = lookup;
+    this.maximumTimeToLive = maximumTimeToLive;
+    this.clock = clock;
+    this.rejected =
+        Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(negativeTimeToLive)
+            .ticker(ticker)
+            .build();
+  }
+
+  /**
+   * Returns whether the given bearer token is a reference token rather than a JWT.
+   *
+   * @param token the raw bearer token
+   * @return {@code true} if the token is opaque
+   */
+  public static boolean isReferenceToken(String token) {
+    return !token.isEmpty() && token.indexOf('.') < 0;
+  }
+
+  /**
+   * Resolves a reference token to its upstream token.
+   *
+   * @param token the raw reference token, without the {@code Bearer } prefix
+   * @return the upstream token, or {@code null} if the token is unknown, expired or revoked
+   * @throws PhantomTokenException if the auth-adapter could not be asked about the token
+   */
+  public @Nullable Resolution resolve(String token) throws PhantomTokenException {
+    String key = TokenHashes.sha256(token);
+    if (rejected.getIfPresent(key) != null) {
+      rejectedHits.increment();
+      return null;
+    }
+
+    CompletableFuture<@Nullable Resolution> created = new CompletableFuture<>();
+    CompletableFuture<@Nullable Resolution> existing = inFlight.putIfAbsent(key, created);
+    if (existing != null) {
+      collapsed.increment();
+      return await(existing);
+    }
+
+    try {
+      Resolution resolution = lookup(token);
+      if (resolution == null) {
+        inactive.increment();
+        rejected.put(key, Boolean.TRUE);
+      } else {
+        active.increment();
+      }
+      created.complete(resolution);
+      return resolution;
+    } catch (Exception ex) {
+      errors.increment();
+      created.completeExceptionally(ex);
+      throw new PhantomTokenException("Unable to introspect reference token", ex);
+    } finally {
+      inFlight.remove(key, created);
+    }
+  }
+
+  private @Nullable Resolution lookup(String token) throws Exception {
+    Resolution resolution = lookup.lookup(token);
+    if (resolution == null) {
+      return null;
+    }
+    Instant now = clock.instant();
+    Instant latest = now.plus(maximumTimeToLive);
+    Instant expiresAt = resolution.expiresAt();
+    if (expiresAt == null || expiresAt.isAfter(latest)) {
+      expiresAt = latest;
+    }
+    if (!expiresAt.isAfter(now)) {
+      return null;
+    }
+    return new Resolution(resolution.subject(), resolution.accessToken(), expiresAt);
+  }
+
+  private static @Nullable Resolution await(CompletableFuture<@Nullable Resolution> future)
+      throws PhantomTokenException {
+    try {
+      // The leader's lookup is bounded by the request timeout, so this does not wait forever
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new PhantomTokenException("Interrupted while waiting for token introspection", ex);
+    } catch (ExecutionException ex) {
+      throw new PhantomTokenException("Unable to introspect reference token", ex.getCause());
+    }
+  }
+
+  /**
+   * Returns the number of reference tokens the auth-adapter reported as active.
+   *
+   * @return the total number of successful lookups
+   */
+  public long getActive() {
+    return active.sum();
+  }
+
+  /**
+   * Returns the number of reference tokens the auth-adapter reported as inactive.
+   *
+   * @return the total number of rejected lookups
+   */
+  public long getInactive() {
+    return inactive.sum();
+  }
+
+  /**
+   * Returns the number of lookups that failed because the auth-adapter could not be reached.
+   *
+   * @return the total number of failed lookups
+   */
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  /**
+   * Returns the number of resolutions that waited for a lookup already in progress.
+   *
+   * @return the total number of collapsed resolutions
+   */
+  public long getCollapsed() {
+    return collapsed.sum();
+  }
+
+  /**
+   * Returns the number of resolutions answered from the remembered inactive tokens.
+   *
+   * @return the total number of tokens rejected without a lookup
+   */
+  public long getRejectedHits() {
+    return rejectedHits.sum();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder("gateway.phantom-token.lookups", this, PhantomTokenResolver::getActive)
+        .description("Reference token introspections, by result")
+        .tag("result", "active")
+        .register(registry);
+    FunctionCounter.builder(
+            "gateway.phantom-token.lookups", this, PhantomTokenResolver::getInactive)
+        .description("Reference token introspections, by result")
+        .tag("result", "inactive")
+        .register(registry);
+    FunctionCounter.builder("gateway.phantom-token.lookups", this, PhantomTokenResolver::getErrors)
+        .description("Reference token introspections, by result")
+        .tag("result", "error")
+        .register(registry);
+    FunctionCounter.builder(
+            "gateway.phantom-token.collapsed", this, PhantomTokenResolver::getCollapsed)
+        .description("Reference token resolutions that waited for an introspection in progress")
+        .register(registry);
+    FunctionCounter.builder(
+            "gateway.phantom-token.rejected", this, PhantomTokenResolver::getRejectedHits)
+        .description("Reference tokens rejected because they were recently found inactive")
+        .register(registry);
+  }
+
+  private static Lookup introspection(
+      URI introspectionUri, String clientId, String clientSecret, Duration requestTimeout) {
+    Assert.notNull(introspectionUri, "introspectionUri must not be null");
+    SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+    requestFactory.setConnectTimeout(requestTimeout);
+    requestFactory.setReadTimeout(requestTimeout);
+    RestClient restClient =
+        RestClient.builder()
+            .requestFactory(requestFactory)
+            .defaultHeaders(headers -> headers.setBasicAuth(clientId, clientSecret))
+            .build();
+    return token -> {
+      MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+      form.add("token", token);
+      form.add("token_type_hint", "access_token");
+      String body =
+          restClient
+              .post()
+              .uri(introspectionUri)
+              .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+              .body(form)
+              .retrieve()
+              .body(String.class);
+      JsonNode response = body != null ? objectMapper.readTree(body) : null;
+      if (response == null || !response.path("active").asBoolean(false)) {
+        return null;
+      }
+      String accessToken = response.path("access_token").asText("");
+      if (accessToken.isEmpty()) {
+        LOGGER.warn("Introspection response for an active token carries no upstream token");
+        return null;
+      }
+      Instant expiresAt =
+          response.path("exp").isNumber()
+              ? Instant.ofEpochSecond(response.get("exp").asLong())
+              : null;
+      return new Resolution(response.path("sub").asText(null), accessToken, expiresAt);
+    };
+  }
+
+  /** Looks up a reference token at the auth-adapter. */
+  @FunctionalInterface
+  public interface Lookup {
+
+    /**
+     * Looks up a reference token.
+     *
+     * @param token the raw reference token
+     * @return the upstream token and the reference token's own expiry, or {@code null} if the token
+     *     is not active
+     * @throws Exception if the auth-adapter could not be reached or its response not be read
+     */
+    @Nullable Resolution lookup(String token) throws Exception;
+  }
+
+  /**
+   * The upstream token a reference token stands for.
+   *
+   * @param subject the subject the reference token was issued to
+   * @param accessToken the upstream access token
+   * @param expiresAt the instant after which the reference token must be resolved again
+   */
+  public record Resolution(
+      @Nullable String subject, String accessToken, @Nullable Instant expiresAt) {}
+}
@@ -0,0 +1,245 @@
+package org.garethjevans.chained.auth.gateway.upstream;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import org.jspecify.annotations.Nullable;
+import org.springframework.util.Assert;
+
+/**
+ * Circuit breaker for the backend of a single gateway route. While the circuit is closed every call
+ * is let through and its outcome recorded in a sliding window of the last {@code slidingWindowSize}
+ * calls. Once at least {@code minimumNumberOfCalls} have been recorded and the share of failures
+ * reaches {@code failureRateThreshold}, the circuit opens and calls are rejected straight away.
+ *
+ * <p>After {@code waitDurationInOpenState} the circuit is half-open: up to {@code
+ * permittedCallsInHalfOpenState} probe calls are let through. If they all succeed the circuit
+ * closes again with an empty window; the first failure opens it for another wait.
+ *
+ * <p>Calls that were let through before the circuit changed state do not count towards the new
+ * state. The state and rejections are published as Micrometer meters tagged with the route id.
+ */
+public class CircuitBreaker implements MeterBinder {
+
+  /** The states of the circuit. */
+  public enum State {
+    /** Calls are let through and their outcome recorded. */
+    CLOSED,
+    /** Calls are rejected until the wait duration has passed. */
+    OPEN,
+    /** A limited number of probe calls are let through. */
+    HALF_OPEN
+  }
+
+  private final String routeId;
+  private final int minimumNumberOfCalls;
+  private final double failureRateThreshold;
+  private final long waitNanos;
+  private final int permittedCallsInHalfOpenState;
+  private final Ticker ticker;
+
+  private final boolean[] window;
+  private int windowIndex;
+  private int windowCount;
+  private int windowFailures;
+  private long openedAt;
+  private int halfOpenCalls;
+  private int halfOpenSuccesses;
+
+  // Read without the lock on the hot path, written under it
+  private volatile State state = State.CLOSED;
+  private volatile long generation;
+
+  private final LongAdder rejected = new LongAdder();
+
+  public CircuitBreaker(
+      String routeId,
+      int slidingWindowSize,
+      int minimumNumberOfCalls,
+      double failureRateThreshold,
+      Duration waitDurationInOpenState,
+      int permittedCallsInHalfOpenState) {
+    this(
+        routeId,
+        slidingWindowSize,
+        minimumNumberOfCalls,
+        failureRateThreshold,
+        waitDurationInOpenState,
+        permittedCallsInHalfOpenState,
+        Ticker.systemTicker());
+  }
+
+  CircuitBreaker(
+      String routeId,
+      int slidingWindowSize,
+      int minimumNumberOfCalls,
+      double failureRateThreshold,
+      Duration waitDurationInOpenState,
+      int permittedCallsInHalfOpenState,
+      Ticker ticker) {
+    Assert.hasText(routeId, "routeId must not be empty");
+    Assert.isTrue(slidingWindowSize > 0, "slidingWindowSize must be greater than 0");
+    Assert.isTrue(
+        minimumNumberOfCalls > 0 && minimumNumberOfCalls <= slidingWindowSize,
+        "minimumNumberOfCalls must be between 1 and slidingWindowSize");
+    Assert.isTrue(
+        failureRateThreshold > 0 && failureRateThreshold <= 1,
+        "failureRateThreshold must be greater than 0 and at most 1");
+    Assert.isTrue(
+        permittedCallsInHalfOpenState > 0, "permittedCallsInHalfOpenState must be greater than 0");
+    this.routeId = routeId;
+    this.window = new boolean[slidingWindowSize];
+    this.minimumNumberOfCalls = minimumNumberOfCalls;
+    this.failureRateThreshold = failureRateThreshold;
+    this.waitNanos = waitDurationInOpenState.toNanos();
+    this.permittedCallsInHalfOpenState = permittedCallsInHalfOpenState;
+    this.ticker = ticker;
+  }
+
+  /**
+   * Asks to let a call through. Never blocks.
+   *
+   * @return a permit whose {@link Permit#release release} records the call's outcome, or {@code
+   *     null} when the circuit is open
+   */
+  public @Nullable Permit tryAcquire() {
+    if (state == State.CLOSED) {
+      return new Permit(generation);
+    }
+    synchronized (this) {
+      if (state == State.OPEN && ticker.read() - openedAt >= waitNanos) {
+        transitionTo(State.HALF_OPEN);
+      }
+      switch (state) {
+        case CLOSED:
+          return new Permit(generation);
+        case HALF_OPEN:
+          if (halfOpenCalls < permittedCallsInHalfOpenState) {
+            halfOpenCalls++;
+            return new Permit(generation);
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    rejected.increment();
+    return null;
+  }
+
+  /**
+   * Returns the current state of the circuit.
+   *
+   * @return the state
+   */
+  public State getState() {
+    return state;
+  }
+
+  /**
+   * Returns how long the circuit stays open before it lets probe calls through.
+   *
+   * @return the remaining wait, or zero if the circuit is not open
+   */
+  public synchronized Duration getRemainingWait() {
+    if (state != State.OPEN) {
+      return Duration.ZERO;
+    }
+    return Duration.ofNanos(Math.max(0, waitNanos - (ticker.read() - openedAt)));
+  }
+
+  /**
+   * Returns the number of calls rejected because the circuit was open.
+   *
+   * @return the total number of rejected calls
+   */
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  private synchronized void onResult(long permitGeneration, boolean failed) {
+    if (permitGeneration != generation) {
+      return;
+    }
+    if (state == State.HALF_OPEN) {
+      if (failed) {
+        transitionTo(State.OPEN);
+      } else if (++halfOpenSuccesses >= permittedCallsInHalfOpenState) {
+        transitionTo(State.CLOSED);
+      }
+      return;
+    }
+    if (state != State.CLOSED) {
+      return;
+    }
+    if (windowCount == window.length) {
+      // The oldest outcome drops out of the window
+      if (window[windowIndex]) {
+        windowFailures--;
+      }
+    } else {
+      windowCount++;
+    }
+    window[windowIndex] = failed;
+    if (failed) {
+      windowFailures++;
+    }
+    windowIndex = (windowIndex + 1) % window.length;
+    if (windowCount >= minimumNumberOfCalls
+        && windowFailures >= failureRateThreshold * windowCount) {
+      transitionTo(State.OPEN);
+    }
+  }
+
+  private void transitionTo(State next) {
+    generation++;
+    halfOpenCalls = 0;
+    halfOpenSuccesses = 0;
+    if (next == State.OPEN) {
+      openedAt = ticker.read();
+    } else if (next == State.CLOSED) {
+      windowIndex = 0;
+      windowCount = 0;
+      windowFailures = 0;
+    }
+    state = next;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    for (State candidate : State.values()) {
+      Gauge.builder(
+              "gateway.circuit-breaker.state", this, breaker -> breaker.state == candidate ? 1 : 0)
+          .description("Whether the circuit breaker is in the given state")
+          .tags("route", routeId, "state", candidate.name().toLowerCase())
+          .register(registry);
+    }
+    FunctionCounter.builder("gateway.circuit-breaker.rejected", this, CircuitBreaker::getRejected)
+        .description("Calls rejected because the circuit breaker was open")
+        .tag("route", routeId)
+        .register(registry);
+  }
+
+  /** Permission for a single call, released once its outcome is known. */
+  public final class Permit {
+
+    private final long generation;
+
+    private Permit(long generation) {
+      this.generation = generation;
+    }
+
+    /**
+     * Records the outcome of the call.
+     *
+     * @param failed whether the call failed or the backend answered with a server error
+     */
+    public void release(boolean failed) {
+      onResult(generation, failed);
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package org.garethjevans.chained.auth.gateway.upstream;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.util.Assert;
+
+/**
+ * Gateway-wide budget that caps retries to a share of the traffic, so retries cannot multiply the
+ * load on a backend that is already failing. Every request deposits {@code retryRatio} of a retry
+ * and every retry withdraws a whole one; on top of that a reserve of {@code minRetriesPerSecond}
+ * keeps retries possible when traffic is light. The balance never grows beyond what ten seconds of
+ * reserve plus {@code maxBalance} deposits would give.
+ *
+ * <p>Deposits are lock-free as they happen on every request; withdrawals, which only happen for
+ * failed attempts, also top up the reserve for the time that has passed.
+ */
+public class RetryBudget implements MeterBinder {
+
+  // Balances are kept in millionths of a retry
+  private static final long SCALE = 1_000_000;
+
+  private final long depositPerRequest;
+  private final double reservePerNano;
+  private final long maxBalance;
+  private final Ticker ticker;
+
+  private final AtomicLong balance = new AtomicLong();
+  private long lastRefill;
+
+  private final LongAdder retries = new LongAdder();
+  private final LongAdder exhausted = new LongAdder();
+
+  public RetryBudget(double retryRatio, double minRetriesPerSecond, long maxBalance) {
+    this(retryRatio, minRetriesPerSecond, maxBalance, Ticker.systemTicker());
+  }
+
+  RetryBudget(double retryRatio, double minRetriesPerSecond, long maxBalance, Ticker ticker) {
+    Assert.isTrue(retryRatio >= 0, "retryRatio must not be negative");
+    Assert.isTrue(minRetriesPerSecond >= 0, "minRetriesPerSecond must not be negative");
+    Assert.isTrue(maxBalance > 0, "maxBalance must be greater than 0");
+    this.depositPerRequest = (long) (retryRatio * SCALE);
+    this.reservePerNano = minRetriesPerSecond * SCALE / TimeUnit.SECONDS.toNanos(1);
+    this.maxBalance = (maxBalance + (long) Math.ceil(minRetriesPerSecond * 10)) * SCALE;
+    this.ticker = ticker;
+    this.lastRefill = ticker.read();
+    // Start with a full reserve so a cold gateway can still retry
+    this.balance.set((long) (minRetriesPerSecond * 10 * SCALE));
+  }
+
+  /** Records a request, adding its share of a retry to the budget. */
+  public void deposit() {
+    if (depositPerRequest > 0) {
+      add(depositPerRequest);
+    }
+  }
+
+  /**
+   * Takes one retry from the budget, if there is one.
+   *
+   * @return {@code true} if the caller may retry
+   */
+  public boolean tryWithdraw() {
+    synchronized (this) {
+      long now = ticker.read();
+      long refill = (long) ((now - lastRefill) * reservePerNano);
+      if (refill > 0) {
+        lastRefill = now;
+        add(refill);
+      }
+    }
+    while (true) {
+      long current = balance.get();
+      if (current < SCALE) {
+        exhausted.increment();
+        return false;
+      }
+      if (balance.compareAndSet(current, current - SCALE)) {
+        retries.increment();
+        return true;
+      }
+    }
+  }
+
+  private void add(long amount) {
+    balance.accumulateAndGet(amount, (current, delta) -> Math.min(maxBalance, current + delta));
+  }
+
+  /**
+   * Returns the number of retries currently available.
+   *
+   * @return the balance, in retries
+   */
+  public double getBalance() {
+    return (double) balance.get() / SCALE;
+  }
+
+  /**
+   * Returns the number of retries taken from the budget.
+   *
+   * @return the total number of retries
+   */
+  public long getRetries() {
+    return retries.sum();
+  }
+
+  /**
+   * Returns the number of retries refused because the budget was empty.
+   *
+   * @return the total number of refused retries
+   */
+  public long getExhausted() {
+    return exhausted.sum();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("gateway.retry.budget", this, RetryBudget::getBalance)
+        .description("Retries currently available in the gateway-wide retry budget")
+        .register(registry);
+    FunctionCounter.builder("gateway.retry.attempts", this, RetryBudget::getRetries)
+        .description("Retries of upstream calls, by whether the retry budget allowed them")
+        .tag("result", "retried")
+        .register(registry);
+    FunctionCounter.builder("gateway.retry.attempts", this, RetryBudget::getExhausted)
+        .description("Retries of upstream calls, by whether the retry budget allowed them")
+        .tag("result", "budget_exhausted")
+        .register(registry);
+  }
+}
@@ -0,0 +1,129 @@
+package org.garethjevans.chained.auth.gateway.upstream;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.util.Assert;
+import org.springframework.web.client.RestClient;
+
+/**
+ * Active health check for the instances of an {@link UpstreamPool}. Each instance's health endpoint
+ * is probed on a background thread at a fixed interval; an instance is taken out of rotation after
+ * {@code unhealthyThreshold} failed probes in a row and put back after {@code healthyThreshold}
+ * successful ones. A probe succeeds when the endpoint answers with a 2xx status within the timeout.
+ */
+public class UpstreamHealthCheck implements SmartLifecycle {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(UpstreamHealthCheck.class);
+
+  private final UpstreamPool pool;
+  private final Predicate<URI> probe;
+  private final String path;
+  private final Duration interval;
+  private final int healthyThreshold;
+  private final int unhealthyThreshold;
+
+  /** Consecutive probe results per instance: positive for successes, negative for failures. */
+  private final Map<UpstreamPool.Instance, Integer> streaks = new HashMap<>();
+
+  private volatile @Nullable ScheduledExecutorService scheduler;
+
+  public UpstreamHealthCheck(
+      UpstreamPool pool,
+      String path,
+      Duration interval,
+      Duration timeout,
+      int healthyThreshold,
+      int unhealthyThreshold) {
+    this(pool, httpProbe(timeout), path, interval, healthyThreshold, unhealthyThreshold);
+  }
+
+  UpstreamHealthCheck(
+      UpstreamPool pool,
+      Predicate<URI> probe,
+      String path,
+      Duration interval,
+      int healthyThreshold,
+      int unhealthyThreshold) {
+    Assert.notNull(pool, "pool must not be null");
+    Assert.isTrue(healthyThreshold > 0, "healthyThreshold must be greater than 0");
+    Assert.isTrue(unhealthyThreshold > 0, "unhealthyThreshold must be greater than 0");
+    this.pool = pool;
+    this.probe = probe;
+    this.path = path;
+    this.interval = interval;
+    this.healthyThreshold = healthyThreshold;
+    this.unhealthyThreshold = unhealthyThreshold;
+  }
+
+  private static Predicate<URI> httpProbe(Duration timeout) {
+    SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+    requestFactory.setConnectTimeout(timeout);
+    requestFactory.setReadTimeout(timeout);
+    RestClient restClient = RestClient.builder().requestFactory(requestFactory).build();
+    return uri ->
+        restClient
+            .get()
+            .uri(uri)
+            .exchange((request, response) -> response.getStatusCode().is2xxSuccessful());
+  }
+
+  /** Probes every instance once and updates its health. Called on the health check thread. */
+  synchronized void checkAll() {
+    for (UpstreamPool.Instance instance : pool.getInstances()) {
+      URI target = instance.getUri().resolve(path);
+      boolean passed;
+      try {
+        passed = probe.test(target);
+      } catch (Exception ex) {
+        LOGGER.debug("Health check of {} failed: {}", target, ex.getMessage());
+        passed = false;
+      }
+      int streak = streaks.getOrDefault(instance, 0);
+      streak = passed ? Math.max(streak, 0) + 1 : Math.min(streak, 0) - 1;
+      streaks.put(instance, streak);
+      if (streak >= healthyThreshold) {
+        instance.setHealthy(true);
+      } else if (-streak >= unhealthyThreshold) {
+        instance.setHealthy(false);
+      }
+    }
+  }
+
+  @Override
+  public void start() {
+    ScheduledExecutorService executor =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "upstream-health-" + pool.getRouteId());
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.scheduleWithFixedDelay(this::checkAll, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    this.scheduler = executor;
+  }
+
+  @Override
+  public void stop() {
+    ScheduledExecutorService executor = this.scheduler;
+    this.scheduler = null;
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return scheduler != null;
+  }
+}
@@ -0,0 +1,384 @@
+package org.garethjevans.chained.auth.gateway.upstream;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Pool of backend instances behind a single gateway route. Each request is sent to one instance,
+ * picked by the configured {@link Strategy} from the instances that are currently available.
+ *
+ * <p>An instance is available while it passes its active health checks (see {@link
+ * UpstreamHealthCheck}) and is not ejected. Ejection is the passive side of health checking: after
+ * {@code consecutiveFailures} failed or slow requests in a row the instance is taken out of
+ * rotation for {@code baseEjectionTime}, doubling with every further ejection up to {@code
+ * maxEjectionTime}. At most {@code maxEjectionRatio} of the instances are ejected at any time, so a
+ * backend-wide problem does not empty the pool. When no instance is available at all, every
+ * instance is considered again rather than failing the request at the gateway.
+ *
+ * <p>Outstanding requests, availability and ejections are published as Micrometer meters tagged
+ * with the route id and the instance URI.
+ */
+public class UpstreamPool implements MeterBinder {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(UpstreamPool.class);
+
+  private final String routeId;
+  private final List<Instance> instances;
+  private final Strategy strategy;
+  private final int consecutiveFailures;
+  private final long slowCallThresholdNanos;
+  private final long baseEjectionNanos;
+  private final long maxEjectionNanos;
+  private final int maxEjected;
+  private final Ticker ticker;
+
+  public UpstreamPool(
+      String routeId,
+      List<URI> uris,
+      Strategy strategy,
+      int consecutiveFailures,
+      Duration slowCallThreshold,
+      Duration baseEjectionTime,
+      Duration maxEjectionTime,
+      double maxEjectionRatio) {
+    this(
+        routeId,
+        uris,
+        strategy,
+        consecutiveFailures,
+        slowCallThreshold,
+        baseEjectionTime,
+        maxEjectionTime,
+        maxEjectionRatio,
+        Ticker.systemTicker());
+  }
+
+  UpstreamPool(
+      String routeId,
+      List<URI> uris,
+      Strategy strategy,
+      int consecutiveFailures,
+      Duration slowCallThreshold,
+      Duration baseEjectionTime,
+      Duration maxEjectionTime,
+      double maxEjectionRatio,
+      Ticker ticker) {
+    Assert.hasText(routeId, "routeId must not be empty");
+    Assert.notEmpty(uris, "uris must not be empty");
+    Assert.isTrue(consecutiveFailures > 0, "consecutiveFailures must be greater than 0");
+    Assert.isTrue(
+        maxEjectionTime.compareTo(baseEjectionTime) >= 0,
+        "maxEjectionTime must not be less than baseEjectionTime");
+    Assert.isTrue(
+        maxEjectionRatio >= 0 && maxEjectionRatio <= 1, "maxEjectionRatio must be between 0 and 1");
+    this.routeId = routeId;
+    this.ticker = ticker;
+    List<Instance> created = new ArrayList<>(uris.size());
+    for (URI uri : uris) {
+      created.add(new Instance(uri));
+    }
+    this.instances = List.copyOf(created);
+    this.strategy = strategy;
+    this.consecutiveFailures = consecutiveFailures;
+    this.slowCallThresholdNanos = slowCallThreshold.toNanos();
+    this.baseEjectionNanos = baseEjectionTime.toNanos();
+    this.maxEjectionNanos = maxEjectionTime.toNanos();
+    this.maxEjected = (int) (uris.size() * maxEjectionRatio);
+  }
+
+  /**
+   * Returns the id of the route the pool serves.
+   *
+   * @return the route id
+   */
+  public String getRouteId() {
+    return routeId;
+  }
+
+  /**
+   * Returns all instances in the pool, available or not.
+   *
+   * @return the instances, in configuration order
+   */
+  public List<Instance> getInstances() {
+    return instances;
+  }
+
+  /**
+   * Picks the instance for a new request and counts the request as outstanding on it. The caller
+   * must {@link Instance#release release} the instance once the response has been written. Never
+   * blocks.
+   *
+   * @return the instance to send the request to
+   */
+  public Instance choose() {
+    long now = ticker.read();
+    List<Instance> candidates = new ArrayList<>(instances.size());
+    for (Instance instance : instances) {
+      if (instance.isAvailable(now)) {
+        candidates.add(instance);
+      }
+    }
+    if (candidates.isEmpty()) {
+      LOGGER.debug("No available instances for route {}, using all of them", routeId);
+      candidates = instances;
+    }
+    Instance chosen =
+        switch (strategy) {
+          case LEAST_OUTSTANDING -> leastOutstanding(candidates);
+          case POWER_OF_TWO_CHOICES -> powerOfTwoChoices(candidates);
+        };
+    chosen.acquire();
+    return chosen;
+  }
+
+  private static Instance leastOutstanding(List<Instance> candidates) {
+    // Start at a random offset so ties do not all go to the first instance
+    int size = candidates.size();
+    int offset = ThreadLocalRandom.current().nextInt(size);
+    Instance best = candidates.get(offset);
+    for (int i = 1; i < size; i++) {
+      Instance candidate = candidates.get((offset + i) % size);
+      if (candidate.getOutstanding() < best.getOutstanding()) {
+        best = candidate;
+      }
+    }
+    return best;
+  }
+
+  private static Instance powerOfTwoChoices(List<Instance> candidates) {
+    int size = candidates.size();
+    if (size == 1) {
+      return candidates.get(0);
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(size);
+    int second = random.nextInt(size - 1);
+    if (second >= first) {
+      second++;
+    }
+    Instance a = candidates.get(first);
+    Instance b = candidates.get(second);
+    return b.getOutstanding() < a.getOutstanding() ? b : a;
+  }
+
+  private synchronized void onFailure(Instance instance, long now) {
+    if (instance.consecutiveFailures.incrementAndGet() < consecutiveFailures
+        || instance.isEjected(now)) {
+      return;
+    }
+    int ejected = 0;
+    for (Instance other : instances) {
+      if (other.isEjected(now)) {
+        ejected++;
+      }
+    }
+    if (ejected >= maxEjected) {
+      LOGGER.debug(
+          "Not ejecting {} from route {}: {} of {} instances already ejected",
+          instance.uri,
+          routeId,
+          ejected,
+          instances.size());
+      return;
+    }
+    // Back off exponentially for instances that keep failing after they are readmitted
+    long duration = baseEjectionNanos;
+    for (int i = 0; i < instance.ejectionStreak && duration < maxEjectionNanos; i++) {
+      duration *= 2;
+    }
+    duration = Math.min(duration, maxEjectionNanos);
+    instance.ejectedUntil = now + duration;
+    instance.ejectionStreak++;
+    instance.consecutiveFailures.set(0);
+    instance.ejections.increment();
+    LOGGER.warn(
+        "Ejected {} from route {} for {} after {} consecutive failures",
+        instance.uri,
+        routeId,
+        Duration.ofNanos(duration),
+        consecutiveFailures);
+  }
+
+  private void onSuccess(Instance instance, long now) {
+    instance.consecutiveFailures.set(0);
+    // Forget earlier ejections once the instance has stayed healthy for a full backoff period
+    if (instance.ejectionStreak > 0 && now - instance.ejectedUntil > maxEjectionNanos) {
+      synchronized (this) {
+        instance.ejectionStreak = 0;
+      }
+    }
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    for (Instance instance : instances) {
+      String uri = instance.uri.toString();
+      Gauge.builder("gateway.upstream.outstanding", instance, Instance::getOutstanding)
+          .description("Requests waiting for a response from the backend instance")
+          .tags("route", routeId, "instance", uri)
+          .register(registry);
+      Gauge.builder(
+              "gateway.upstream.available", instance, i -> i.isAvailable(ticker.read()) ? 1 : 0)
+          .description("Whether the backend instance is healthy and not ejected")
+          .tags("route", routeId, "instance", uri)
+          .register(registry);
+      FunctionCounter.builder("gateway.upstream.ejections", instance, Instance::getEjections)
+          .description("Times the backend instance was ejected after consecutive failures")
+          .tags("route", routeId, "instance", uri)
+          .register(registry);
+    }
+  }
+
+  /** How an instance is picked from the available ones. */
+  public enum Strategy {
+    /** The instance with the fewest outstanding requests; ties are broken at random. */
+    LEAST_OUTSTANDING,
+    /** The less loaded of two instances picked at random. */
+    POWER_OF_TWO_CHOICES
+  }
+
+  /** A single backend instance and its load and health state. */
+  public final class Instance {
+
+    private final URI uri;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder ejections = new LongAdder();
+
+    private volatile boolean healthy = true;
+    private volatile long ejectedUntil;
+
+    /** Number of ejections in a row, guarded by the pool. */
+    private int ejectionStreak;
+
+    private Instance(URI uri) {
+      this.uri = uri;
+      this.ejectedUntil = ticker.read();
+    }
+
+    /**
+     * Returns the base URI requests are forwarded to.
+     *
+     * @return the instance URI
+     */
+    public URI getUri() {
+      return uri;
+    }
+
+    /**
+     * Returns the number of requests sent to the instance that have not been released yet.
+     *
+     * @return the number of outstanding requests
+     */
+    public int getOutstanding() {
+      return outstanding.get();
+    }
+
+    /**
+     * Returns the number of requests sent to the instance since the pool was created.
+     *
+     * @return the total number of requests
+     */
+    public long getRequests() {
+      return requests.sum();
+    }
+
+    /**
+     * Returns the number of times the instance was ejected.
+     *
+     * @return the total number of ejections
+     */
+    public long getEjections() {
+      return ejections.sum();
+    }
+
+    /**
+     * Returns whether the instance passes its active health checks.
+     *
+     * @return {@code false} once the instance failed enough health checks in a row
+     */
+    public boolean isHealthy() {
+      return healthy;
+    }
+
+    void setHealthy(boolean healthy) {
+      if (this.healthy != healthy) {
+        LOGGER.info(
+            "Instance {} of route {} is now {}", uri, routeId, healthy ? "healthy" : "unhealthy");
+      }
+      this.healthy = healthy;
+    }
+
+    /**
+     * Returns whether the instance is currently ejected after consecutive failures.
+     *
+     * @return {@code true} while the instance's ejection has not expired
+     */
+    public boolean isEjected() {
+      return isEjected(ticker.read());
+    }
+
+    private boolean isEjected(long now) {
+      return now - ejectedUntil < 0;
+    }
+
+    private boolean isAvailable(long now) {
+      return healthy && !isEjected(now);
+    }
+
+    /** Counts a new request as outstanding on the instance. */
+    void acquire() {
+      outstanding.incrementAndGet();
+      requests.increment();
+    }
+
+    /**
+     * Releases the instance after the backend responded, or failed to, recording the outcome. Use
+     * {@link #record} and {@link #release()} instead when the response is still being copied from
+     * the backend once its headers arrived.
+     *
+     * @param latencyNanos the time until the response headers arrived, in nanoseconds
+     * @param failed whether the exchange failed or the backend answered with a 5xx
+     */
+    public void release(long latencyNanos, boolean failed) {
+      record(latencyNanos, failed);
+      release();
+    }
+
+    /**
+     * Records the outcome of an exchange for the passive health checks, without releasing the
+     * instance.
+     *
+     * @param latencyNanos the time until the response headers arrived, in nanoseconds
+     * @param failed whether the exchange failed or the backend answered with a 5xx
+     */
+    public void record(long latencyNanos, boolean failed) {
+      long now = ticker.read();
+      if (failed || (slowCallThresholdNanos > 0 && latencyNanos > slowCallThresholdNanos)) {
+        onFailure(this, now);
+      } else {
+        onSuccess(this, now);
+      }
+    }
+
+    /** Stops counting a request as outstanding on the instance, once its response is written. */
+    public void release() {
+      outstanding.decrementAndGet();
+    }
+  }
+}
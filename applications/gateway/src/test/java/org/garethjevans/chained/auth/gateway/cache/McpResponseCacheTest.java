@@ -0,0 +1,173 @@
+package org.garethjevans.chained.auth.gateway.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class McpResponseCacheTest {
+
+  private final AtomicLong nanos = new AtomicLong();
+
+  private final McpResponseCache cache =
+      new McpResponseCache(
+          "test-route",
+          Map.of("tools/list", Duration.ofMinutes(5)),
+          Map.of("get_me", Duration.ofSeconds(30)),
+          1024 * 1024,
+          Duration.ofSeconds(1),
+          nanos::get);
+
+  private static McpResponseCache.Key key(String credential, String method, String tool) {
+    return new McpResponseCache.Key(credential, method, tool, "{}");
+  }
+
+  @Test
+  void testTimeToLiveByMethodAndTool() {
+    assertThat(cache.timeToLive("tools/list", null)).isEqualTo(Duration.ofMinutes(5));
+    assertThat(cache.timeToLive("tools/call", "get_me")).isEqualTo(Duration.ofSeconds(30));
+    assertThat(cache.timeToLive("tools/call", "create_issue")).isNull();
+    assertThat(cache.timeToLive("tools/call", null)).isNull();
+    assertThat(cache.timeToLive("initialize", null)).isNull();
+  }
+
+  @Test
+  void testCompletedFlightIsCachedUntilItExpires() {
+    McpResponseCache.Key key = key("alice", "tools/call", "get_me");
+    assertThat(cache.get(key)).isNull();
+
+    McpResponseCache.Flight flight = cache.join(key);
+    assertThat(flight.isLeader()).isTrue();
+    flight.complete(new McpResponseCache.Result("{\"login\":\"alice\"}"));
+
+    assertThat(cache.get(key)).isEqualTo(new McpResponseCache.Result("{\"login\":\"alice\"}"));
+
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(30));
+    assertThat(cache.get(key)).isNull();
+    assertThat(cache.getHits()).isEqualTo(1);
+    assertThat(cache.getMisses()).isEqualTo(1);
+  }
+
+  @Test
+  void testKeysAreSeparatedByCredential() {
+    cache.join(key("alice", "tools/list", null)).complete(new McpResponseCache.Result("[]"));
+
+    assertThat(cache.get(key("bob", "tools/list", null))).isNull();
+  }
+
+  @Test
+  void testIdenticalCallsJoinTheLeader() throws Exception {
+    McpResponseCache.Key key = key("alice", "tools/list", null);
+    McpResponseCache.Flight leader = cache.join(key);
+    McpResponseCache.Flight follower = cache.join(key);
+    assertThat(follower.isLeader()).isFalse();
+
+    CompletableFuture<McpResponseCache.Result> awaited =
+        CompletableFuture.supplyAsync(follower::await);
+    leader.complete(new McpResponseCache.Result("{\"tools\":[]}"));
+
+    assertThat(awaited.get(5, TimeUnit.SECONDS))
+        .isEqualTo(new McpResponseCache.Result("{\"tools\":[]}"));
+    assertThat(cache.getCollapsed()).isEqualTo(1);
+    // The flight has ended, so the next miss leads a new one
+    assertThat(cache.join(key("alice", "tools/call", "get_me")).isLeader()).isTrue();
+  }
+
+  @Test
+  void testAbandonedFlightIsNotCached() throws Exception {
+    McpResponseCache.Key key = key("alice", "tools/list", null);
+    McpResponseCache.Flight leader = cache.join(key);
+    McpResponseCache.Flight follower = cache.join(key);
+
+    leader.abandon();
+
+    assertThat(follower.await()).isNull();
+    assertThat(cache.get(key)).isNull();
+    assertThat(cache.join(key).isLeader()).isTrue();
+  }
+
+  @Test
+  void testFollowerGivesUpAfterCollapseTimeout() {
+    McpResponseCache.Key key = key("alice", "tools/list", null);
+    cache.join(key);
+
+    long start = System.nanoTime();
+    assertThat(cache.join(key).await()).isNull();
+    assertThat(System.nanoTime() - start)
+        .isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(900));
+  }
+
+  @Test
+  void testLeaderThatNeverFinishesIsNotWaitedForAgain() {
+    McpResponseCache.Key key = key("alice", "tools/list", null);
+    McpResponseCache.Flight stale = cache.join(key);
+    McpResponseCache.Flight waiting = cache.join(key);
+
+    // Never completed nor abandoned, as when its response is never written
+    assertThat(cache.join(key).await()).isNull();
+
+    long start = System.nanoTime();
+    assertThat(waiting.await()).isNull();
+    McpResponseCache.Flight next = cache.join(key);
+    assertThat(next.isLeader()).isTrue();
+    assertThat(System.nanoTime() - start).isLessThan(TimeUnit.MILLISECONDS.toNanos(500));
+
+    // The stale leader finishing late does not end the flight that replaced it
+    stale.abandon();
+    McpResponseCache.Flight follower = cache.join(key);
+    assertThat(follower.isLeader()).isFalse();
+    next.complete(new McpResponseCache.Result("[]"));
+    assertThat(follower.await()).isEqualTo(new McpResponseCache.Result("[]"));
+  }
+
+  @Test
+  void testSizeIsBounded() {
+    McpResponseCache small =
+        new McpResponseCache(
+            "test-route",
+            Map.of("tools/list", Duration.ofMinutes(5)),
+            Map.of(),
+            1_000,
+            Duration.ofSeconds(1),
+            nanos::get);
+    for (int i = 0; i < 50; i++) {
+      small
+          .join(key("caller-" + i, "tools/list", null))
+          .complete(new McpResponseCache.Result("x".repeat(100)));
+    }
+    small.cleanUp();
+
+    assertThat(small.estimatedSize()).isLessThan(10);
+  }
+
+  @Test
+  void testPublishesMeters() {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    cache.bindTo(registry);
+    McpResponseCache.Key key = key("alice", "tools/list", null);
+
+    cache.join(key).complete(new McpResponseCache.Result("[]"));
+    cache.get(key);
+
+    assertThat(
+            registry
+                .get("gateway.response-cache.requests")
+                .tags("route", "test-route", "result", "hit")
+                .functionCounter()
+                .count())
+        .isEqualTo(1);
+    assertThat(
+            registry
+                .get("gateway.response-cache.requests")
+                .tags("route", "test-route", "result", "miss")
+                .functionCounter()
+                .count())
+        .isEqualTo(1);
+    assertThat(registry.get("gateway.response-cache.size").gauge().value()).isEqualTo(1);
+  }
+}
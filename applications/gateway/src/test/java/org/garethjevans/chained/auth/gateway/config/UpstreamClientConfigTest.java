@@ -0,0 +1,133 @@
+package org.garethjevans.chained.auth.gateway.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.cloud.gateway.server.mvc.common.MvcUtils;
+import org.springframework.cloud.gateway.server.mvc.config.GatewayMvcProperties;
+import org.springframework.cloud.gateway.server.mvc.filter.HttpHeadersFilter.RequestHttpHeadersFilter;
+import org.springframework.cloud.gateway.server.mvc.filter.HttpHeadersFilter.ResponseHttpHeadersFilter;
+import org.springframework.cloud.gateway.server.mvc.filter.RemoveHopByHopRequestHeadersFilter;
+import org.springframework.cloud.gateway.server.mvc.handler.ProxyExchangeHandlerFunction;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.servlet.function.ServerResponse;
+import reactor.netty.resources.ConnectionProvider;
+
+class UpstreamClientConfigTest {
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private HttpServer backend;
+  private ConnectionProvider connectionProvider;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    Metrics.addRegistry(registry);
+    backend = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    backend.createContext(
+        "/mcp",
+        exchange -> {
+          byte[] body = "pong".getBytes(StandardCharsets.UTF_8);
+          exchange.sendResponseHeaders(200, body.length);
+          exchange.getResponseBody().write(body);
+          exchange.close();
+        });
+    backend.start();
+  }
+
+  @AfterEach
+  void tearDown() {
+    backend.stop(0);
+    if (connectionProvider != null) {
+      connectionProvider.dispose();
+    }
+    Metrics.removeRegistry(registry);
+  }
+
+  @Test
+  void testConnectionProviderUsesRouteSettings() {
+    GatewayProperties properties = new GatewayProperties();
+    GatewayProperties.Upstream upstream = new GatewayProperties.Upstream();
+    upstream.setMaxConnections(7);
+    properties.getUpstreams().put("github-mcp-server", upstream);
+
+    connectionProvider = new UpstreamClientConfig().githubMcpServerConnectionProvider(properties);
+
+    assertThat(connectionProvider.name()).isEqualTo("github-mcp-server");
+    assertThat(connectionProvider.maxConnections()).isEqualTo(7);
+  }
+
+  @Test
+  void testProxyReusesPooledConnectionAndPublishesPoolMetrics() throws Exception {
+    GatewayProperties properties = new GatewayProperties();
+    UpstreamClientConfig config = new UpstreamClientConfig();
+    connectionProvider = config.githubMcpServerConnectionProvider(properties);
+    StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+    beanFactory.addBean("removeHopByHop", new RemoveHopByHopRequestHeadersFilter());
+    ProxyExchangeHandlerFunction proxy =
+        config.githubMcpServerProxy(
+            connectionProvider,
+            properties,
+            new GatewayMvcProperties(),
+            RestClient.builder(),
+            beanFactory.getBeanProvider(RequestHttpHeadersFilter.class),
+            beanFactory.getBeanProvider(ResponseHttpHeadersFilter.class));
+    proxy.onApplicationEvent(null);
+
+    for (int i = 0; i < 3; i++) {
+      MockHttpServletResponse servletResponse = proxy(proxy);
+      assertThat(servletResponse.getStatus()).isEqualTo(HttpStatus.OK.value());
+      assertThat(servletResponse.getContentAsString()).isEqualTo("pong");
+    }
+
+    // Sequential requests are served by a single keep-alive connection
+    assertThat(
+            registry
+                .get("reactor.netty.connection.provider.total.connections")
+                .tag("name", "github-mcp-server")
+                .gauge()
+                .value())
+        .isEqualTo(1.0);
+    // Lease wait is recorded once requests have to queue for a connection
+    assertThat(
+            registry
+                .find("reactor.netty.connection.provider.pending.connections.time")
+                .tag("name", "github-mcp-server")
+                .timer())
+        .isNotNull();
+  }
+
+  private MockHttpServletResponse proxy(ProxyExchangeHandlerFunction proxy) throws Exception {
+    MockHttpServletRequest mockRequest = new MockHttpServletRequest();
+    mockRequest.setMethod("GET");
+    mockRequest.setRequestURI("/mcp");
+    mockRequest.setServerName("localhost");
+    ServerRequest serverRequest =
+        ServerRequest.create(mockRequest, Collections.<HttpMessageConverter<?>>emptyList());
+    serverRequest
+        .attributes()
+        .put(
+            MvcUtils.GATEWAY_REQUEST_URL_ATTR,
+            URI.create("http://127.0.0.1:" + backend.getAddress().getPort()));
+
+    ServerResponse response = proxy.handle(serverRequest);
+    MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+    response.writeTo(mockRequest, servletResponse, List::of);
+    return servletResponse;
+  }
+}
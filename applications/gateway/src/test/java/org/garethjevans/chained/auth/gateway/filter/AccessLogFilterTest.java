@@ -0,0 +1,136 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+import org.garethjevans.chained.auth.gateway.core.token.JwtClaimsExtractor;
+import org.garethjevans.chained.auth.gateway.core.token.TokenSwapCache;
+import org.garethjevans.chained.auth.logging.EventLogger;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.servlet.function.ServerResponse;
+
+class AccessLogFilterTest {
+
+  private static final String SECRET = "ThisIsASecretKeyForTestingPurposesOnly12345678";
+
+  private final List<Object[]> events = new CopyOnWriteArrayList<>();
+  private final TokenSwapCache tokenSwapCache = new TokenSwapCache(100, Duration.ofMinutes(5));
+
+  private final EventLogger eventLogger =
+      new EventLogger("test", 16, Map.of(), 1.0) {
+        @Override
+        public void log(String category, Supplier<Object[]> fields) {
+          assertThat(category).isEqualTo(AccessLogFilter.CATEGORY);
+          events.add(fields.get());
+        }
+      };
+
+  @Test
+  void testFilterLogsRequestWithoutCredentials() throws Exception {
+    SignedJWT jwt = createJwt("octocat");
+
+    MockHttpServletRequest mockRequest = new MockHttpServletRequest("POST", "/mcp");
+    mockRequest.setQueryString("code=secret");
+    mockRequest.setRemoteAddr("192.0.2.10");
+    mockRequest.addHeader(HttpHeaders.AUTHORIZATION, "Bearer " + jwt.serialize());
+
+    ServerResponse response =
+        AccessLogFilter.logAccess(eventLogger, "github-mcp-server", tokenSwapCache)
+            .filter(
+                ServerRequest.create(mockRequest, Collections.<HttpMessageConverter<?>>emptyList()),
+                req -> ServerResponse.status(HttpStatus.TOO_MANY_REQUESTS).build());
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+    assertThat(events).hasSize(1);
+    assertThat(events.getFirst())
+        .containsSubsequence("route", "github-mcp-server")
+        .containsSubsequence("method", "POST")
+        .containsSubsequence("path", "/mcp")
+        .containsSubsequence("status", 429)
+        .containsSubsequence("client", "192.0.2.10")
+        .containsSubsequence("sub", "octocat")
+        .doesNotContain(jwt.serialize(), "code=secret");
+  }
+
+  @Test
+  void testSubjectIsReadFromTokenSwapCache() throws Exception {
+    // A reference token cannot be decoded, its subject is only known once it is resolved
+    MockHttpServletRequest mockRequest = new MockHttpServletRequest("POST", "/mcp");
+    mockRequest.addHeader(HttpHeaders.AUTHORIZATION, "Bearer reference-a");
+
+    AccessLogFilter.logAccess(eventLogger, "github-mcp-server", tokenSwapCache)
+        .filter(
+            ServerRequest.create(mockRequest, Collections.<HttpMessageConverter<?>>emptyList()),
+            req -> {
+              tokenSwapCache.put("reference-a", "Bearer gho_x", "octocat", null);
+              return ServerResponse.ok().build();
+            });
+
+    assertThat(events)
+        .singleElement()
+        .satisfies((fields) -> assertThat(fields).containsSubsequence("sub", "octocat"));
+  }
+
+  @Test
+  void testSubjectIsReadFromClaimsDecodedEarlierInTheChain() throws Exception {
+    SignedJWT jwt = createJwt("octocat");
+    MockHttpServletRequest mockRequest = new MockHttpServletRequest("POST", "/mcp");
+    mockRequest.addHeader(HttpHeaders.AUTHORIZATION, "Bearer " + jwt.serialize());
+
+    AccessLogFilter.logAccess(eventLogger, "github-mcp-server", tokenSwapCache)
+        .filter(
+            ServerRequest.create(mockRequest, Collections.<HttpMessageConverter<?>>emptyList()),
+            req -> {
+              // Decoded by an earlier filter, which the token itself would contradict
+              req.attributes()
+                  .put(
+                      JwtTokenModifierFilter.CLAIMS_ATTRIBUTE,
+                      JwtClaimsExtractor.extract(createJwt("decoded").serialize()));
+              return ServerResponse.ok().build();
+            });
+
+    assertThat(events)
+        .singleElement()
+        .satisfies((fields) -> assertThat(fields).containsSubsequence("sub", "decoded"));
+  }
+
+  @Test
+  void testSampledOutRequestsAreNotDescribed() throws Exception {
+    EventLogger sampledOut =
+        new EventLogger("test", 16, Map.of(AccessLogFilter.CATEGORY, 0.0), 1.0);
+    MockHttpServletRequest mockRequest = new MockHttpServletRequest("POST", "/mcp");
+    mockRequest.addHeader(HttpHeaders.AUTHORIZATION, "Bearer not-a-jwt.at.all");
+
+    AccessLogFilter.logAccess(sampledOut, "github-mcp-server", tokenSwapCache)
+        .filter(
+            ServerRequest.create(mockRequest, Collections.<HttpMessageConverter<?>>emptyList()),
+            req -> ServerResponse.ok().build());
+
+    assertThat(sampledOut.getSampledOut()).isEqualTo(1);
+    assertThat(sampledOut.getQueued()).isZero();
+  }
+
+  private static SignedJWT createJwt(String subject) throws Exception {
+    SignedJWT jwt =
+        new SignedJWT(
+            new JWSHeader(JWSAlgorithm.HS256),
+            new JWTClaimsSet.Builder().subject(subject).claim("access_token", "gho_x").build());
+    jwt.sign(new MACSigner(SECRET.getBytes()));
+    return jwt;
+  }
+}
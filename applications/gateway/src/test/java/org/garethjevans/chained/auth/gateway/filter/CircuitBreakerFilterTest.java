@@ -0,0 +1,125 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import org.garethjevans.chained.auth.gateway.upstream.CircuitBreaker;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.servlet.function.ServerResponse;
+
+class CircuitBreakerFilterTest {
+
+  private static final String TOOLS_LIST =
+      "{\"jsonrpc\":\"2.0\",\"id\":42,\"method\":\"tools/list\"}";
+
+  private final CircuitBreaker circuitBreaker =
+      new CircuitBreaker("github-mcp-server", 4, 2, 0.5, Duration.ofSeconds(10), 1);
+
+  private final HandlerFilterFunction<ServerResponse, ServerResponse> filter =
+      CircuitBreakerFilter.failFastWhenOpen(circuitBreaker, 1024);
+
+  @Test
+  void testFilterForwardsRequestWhileClosed() throws Exception {
+    ServerResponse response =
+        filter.filter(createRequest(TOOLS_LIST), req -> ServerResponse.ok().body("success"));
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+  }
+
+  @Test
+  void testServerErrorsAndExceptionsOpenCircuit() throws Exception {
+    filter.filter(
+        createRequest(TOOLS_LIST), req -> ServerResponse.status(HttpStatus.BAD_GATEWAY).build());
+    assertThatThrownBy(
+            () ->
+                filter.filter(
+                    createRequest(TOOLS_LIST),
+                    req -> {
+                      throw new ResourceAccessException("connection refused");
+                    }))
+        .isInstanceOf(ResourceAccessException.class);
+
+    assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+  }
+
+  @Test
+  void testClientErrorsDoNotOpenCircuit() throws Exception {
+    for (int i = 0; i < 4; i++) {
+      filter.filter(
+          createRequest(TOOLS_LIST), req -> ServerResponse.status(HttpStatus.NOT_FOUND).build());
+    }
+
+    assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+  }
+
+  @Test
+  void testFilterFailsFastWithJsonRpcErrorWhileOpen() throws Exception {
+    circuitBreaker.tryAcquire().release(true);
+    circuitBreaker.tryAcquire().release(true);
+
+    MockHttpServletRequest mockRequest = createMockRequest(TOOLS_LIST);
+    ServerResponse response =
+        filter.filter(
+            ServerRequest.create(mockRequest, Collections.<HttpMessageConverter<?>>emptyList()),
+            req -> {
+              throw new IllegalStateException("Handler should not be called");
+            });
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+    assertThat(response.headers().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("10");
+    assertThat(response.headers().getCacheControl()).isEqualTo("no-store");
+    MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+    response.writeTo(mockRequest, servletResponse, List::of);
+    assertThat(servletResponse.getContentType()).isEqualTo(MediaType.APPLICATION_JSON_VALUE);
+    assertThat(servletResponse.getContentAsString())
+        .isEqualTo(
+            "{\"jsonrpc\":\"2.0\",\"id\":42,\"error\":{\"code\":-32000,"
+                + "\"message\":\"MCP server unavailable, try again later\"}}");
+    assertThat(circuitBreaker.getRejected()).isEqualTo(1);
+  }
+
+  @Test
+  void testFilterAnswersWithNullIdWhenBodyIsNotJsonRpc() throws Exception {
+    circuitBreaker.tryAcquire().release(true);
+    circuitBreaker.tryAcquire().release(true);
+
+    MockHttpServletRequest mockRequest = createMockRequest("not json");
+    ServerResponse response =
+        filter.filter(
+            ServerRequest.create(mockRequest, Collections.<HttpMessageConverter<?>>emptyList()),
+            req -> ServerResponse.ok().build());
+
+    MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+    response.writeTo(mockRequest, servletResponse, List::of);
+    assertThat(servletResponse.getContentAsString()).contains("\"id\":null");
+  }
+
+  private static ServerRequest createRequest(String body) {
+    return ServerRequest.create(
+        createMockRequest(body), Collections.<HttpMessageConverter<?>>emptyList());
+  }
+
+  private static MockHttpServletRequest createMockRequest(String body) {
+    MockHttpServletRequest mockRequest = new MockHttpServletRequest();
+    mockRequest.setMethod("POST");
+    mockRequest.setRequestURI("/mcp");
+    mockRequest.setServerName("localhost");
+    mockRequest.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    mockRequest.setContent(body.getBytes(StandardCharsets.UTF_8));
+    return mockRequest;
+  }
+}
@@ -0,0 +1,133 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import org.garethjevans.chained.auth.gateway.limit.AdaptiveConcurrencyLimiter;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.servlet.function.ServerResponse;
+
+class ConcurrencyLimitFilterTest {
+
+  private final AdaptiveConcurrencyLimiter limiter =
+      new AdaptiveConcurrencyLimiter("github-mcp-server", 2, 1, 10, 0.5, Duration.ofSeconds(5));
+
+  private final HandlerFilterFunction<ServerResponse, ServerResponse> filter =
+      ConcurrencyLimitFilter.limitConcurrency(limiter, Duration.ofSeconds(2));
+
+  @Test
+  void testFilterForwardsRequestWithinLimit() throws Exception {
+    final boolean[] handlerCalled = {false};
+
+    ServerResponse response =
+        filter.filter(
+            createRequest(),
+            req -> {
+              handlerCalled[0] = true;
+              assertThat(limiter.getInFlight()).isEqualTo(1);
+              return ServerResponse.ok().build();
+            });
+
+    assertThat(handlerCalled[0]).isTrue();
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.OK);
+    // Held until the body has been written
+    assertThat(limiter.getInFlight()).isEqualTo(1);
+
+    write(response);
+
+    assertThat(limiter.getInFlight()).isZero();
+  }
+
+  @Test
+  void testStreamHoldsPermitUntilBodyIsWritten() throws Exception {
+    AdaptiveConcurrencyLimiter fastLimiter =
+        new AdaptiveConcurrencyLimiter("github-mcp-server", 2, 1, 10, 0.5, Duration.ofMillis(50));
+    final int[] inFlightWhileStreaming = {-1};
+
+    ServerResponse response =
+        ConcurrencyLimitFilter.limitConcurrency(fastLimiter, Duration.ofSeconds(2))
+            .filter(
+                createRequest(),
+                req ->
+                    ServerResponse.ok()
+                        .build(
+                            (servletRequest, servletResponse) -> {
+                              inFlightWhileStreaming[0] = fastLimiter.getInFlight();
+                              // An open stream outlives the latency threshold
+                              Thread.sleep(100);
+                              servletResponse.getOutputStream().write("data: {}\n\n".getBytes());
+                              return null;
+                            }));
+    write(response);
+
+    assertThat(inFlightWhileStreaming[0]).isEqualTo(1);
+    assertThat(fastLimiter.getInFlight()).isZero();
+    // Latency is measured to the response headers, so the stream is not counted as a drop
+    assertThat(fastLimiter.getLimit()).isEqualTo(3);
+  }
+
+  @Test
+  void testFilterRejectsRequestOverLimit() throws Exception {
+    limiter.tryAcquire();
+    limiter.tryAcquire();
+
+    ServerResponse response =
+        filter.filter(
+            createRequest(),
+            req -> {
+              throw new IllegalStateException("Handler should not be called");
+            });
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+    assertThat(response.headers().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("2");
+    assertThat(response.headers().getCacheControl()).isEqualTo("no-store");
+    assertThat(limiter.getRejected()).isEqualTo(1);
+  }
+
+  @Test
+  void testBackendErrorShrinksLimit() throws Exception {
+    write(
+        filter.filter(
+            createRequest(), req -> ServerResponse.status(HttpStatus.BAD_GATEWAY).build()));
+
+    assertThat(limiter.getLimit()).isEqualTo(1);
+    assertThat(limiter.getInFlight()).isZero();
+  }
+
+  @Test
+  void testExceptionReleasesPermitAndShrinksLimit() {
+    assertThatThrownBy(
+            () ->
+                filter.filter(
+                    createRequest(),
+                    req -> {
+                      throw new IllegalStateException("connection refused");
+                    }))
+        .isInstanceOf(IllegalStateException.class);
+
+    assertThat(limiter.getLimit()).isEqualTo(1);
+    assertThat(limiter.getInFlight()).isZero();
+  }
+
+  private static void write(ServerResponse response) throws Exception {
+    response.writeTo(new MockHttpServletRequest(), new MockHttpServletResponse(), List::of);
+  }
+
+  private static ServerRequest createRequest() {
+    MockHttpServletRequest mockRequest = new MockHttpServletRequest();
+    mockRequest.setMethod("POST");
+    mockRequest.setRequestURI("/mcp");
+    mockRequest.setServerName("localhost");
+    return ServerRequest.create(mockRequest, Collections.<HttpMessageConverter<?>>emptyList());
+  }
+}
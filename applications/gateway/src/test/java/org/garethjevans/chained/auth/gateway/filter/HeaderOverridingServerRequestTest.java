@@ -0,0 +1,71 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.function.ServerRequest;
+
+class HeaderOverridingServerRequestTest {
+
+  @Test
+  void testOverridesOnlyTheGivenHeader() {
+    ServerRequest request = createRequest();
+
+    ServerRequest view =
+        HeaderOverridingServerRequest.withHeader(
+            request, HttpHeaders.AUTHORIZATION, "Bearer upstream");
+
+    assertThat(view.headers().firstHeader("authorization")).isEqualTo("Bearer upstream");
+    assertThat(view.headers().header(HttpHeaders.AUTHORIZATION)).containsExactly("Bearer upstream");
+    assertThat(view.headers().firstHeader("X-Trace")).isEqualTo("abc");
+
+    HttpHeaders httpHeaders = view.headers().asHttpHeaders();
+    assertThat(httpHeaders.get(HttpHeaders.AUTHORIZATION)).containsExactly("Bearer upstream");
+    assertThat(httpHeaders.getFirst("X-Trace")).isEqualTo("abc");
+    assertThat(view.headers().asHttpHeaders()).isSameAs(httpHeaders);
+
+    // The original request is untouched
+    assertThat(request.headers().firstHeader(HttpHeaders.AUTHORIZATION)).isEqualTo("Bearer proxy");
+  }
+
+  @Test
+  void testSharesAttributesAndServletRequestWithOriginal() {
+    ServerRequest request = createRequest();
+
+    ServerRequest view =
+        HeaderOverridingServerRequest.withHeader(
+            request, HttpHeaders.AUTHORIZATION, "Bearer upstream");
+    view.attributes().put("gateway.attr", "value");
+
+    assertThat(request.attribute("gateway.attr")).contains("value");
+    assertThat(view.servletRequest()).isSameAs(request.servletRequest());
+    assertThat(view.path()).isEqualTo("/mcp");
+  }
+
+  @Test
+  void testDoesNotStackViews() {
+    ServerRequest request = createRequest();
+
+    ServerRequest first =
+        HeaderOverridingServerRequest.withHeader(request, HttpHeaders.AUTHORIZATION, "Bearer one");
+    ServerRequest second =
+        HeaderOverridingServerRequest.withHeader(first, HttpHeaders.AUTHORIZATION, "Bearer two");
+
+    assertThat(second.headers().firstHeader(HttpHeaders.AUTHORIZATION)).isEqualTo("Bearer two");
+    assertThat(second.headers().asHttpHeaders().get(HttpHeaders.AUTHORIZATION))
+        .containsExactly("Bearer two");
+  }
+
+  private static ServerRequest createRequest() {
+    MockHttpServletRequest mockRequest = new MockHttpServletRequest();
+    mockRequest.setMethod("POST");
+    mockRequest.setRequestURI("/mcp");
+    mockRequest.addHeader(HttpHeaders.AUTHORIZATION, "Bearer proxy");
+    mockRequest.addHeader("X-Trace", "abc");
+    return ServerRequest.create(mockRequest, Collections.<HttpMessageConverter<?>>emptyList());
+  }
+}
@@ -0,0 +1,141 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Date;
+import org.garethjevans.chained.auth.gateway.token.JwksKeyCache;
+import org.garethjevans.chained.auth.gateway.token.JwtVerifier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.servlet.function.ServerResponse;
+
+class JwtVerificationFilterTest {
+
+  private static final String TEST_HOST = "resource.example.com";
+
+  private RSAKey signingKey;
+  private HandlerFilterFunction<ServerResponse, ServerResponse> filter;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    signingKey = new RSAKeyGenerator(2048).keyID("key-1").generate();
+    JwksKeyCache keyCache =
+        new JwksKeyCache(
+            URI.create("http://127.0.0.1:9000/oauth2/jwks"),
+            Duration.ofMinutes(5),
+            Duration.ofSeconds(30),
+            Duration.ofSeconds(5));
+    keyCache.update(new JWKSet(signingKey.toPublicJWK()));
+    filter =
+        JwtVerificationFilter.verifyBearerToken(
+            new JwtVerifier(keyCache, Duration.ofSeconds(60), 100));
+  }
+
+  @Test
+  void testFilterAllowsRequestWithVerifiedToken() throws Exception {
+    ServerRequest serverRequest = createRequest("Bearer " + createJwt(signingKey));
+
+    final boolean[] handlerCalled = {false};
+
+    ServerResponse response =
+        filter.filter(
+            serverRequest,
+            req -> {
+              handlerCalled[0] = true;
+              return ServerResponse.ok().body("success");
+            });
+
+    // Verify the handler was called (request was allowed)
+    assertThat(handlerCalled[0]).isTrue();
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.OK);
+  }
+
+  @Test
+  void testFilterRejectsTokenSignedByUnknownKey() throws Exception {
+    RSAKey otherKey = new RSAKeyGenerator(2048).keyID("key-1").generate();
+    ServerRequest serverRequest = createRequest("Bearer " + createJwt(otherKey));
+
+    ServerResponse response =
+        filter.filter(
+            serverRequest,
+            req -> {
+              throw new IllegalStateException("Handler should not be called");
+            });
+
+    // Verify 401 status with an RFC 6750 invalid_token challenge
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+    String wwwAuthHeader = response.headers().getFirst(HttpHeaders.WWW_AUTHENTICATE);
+    assertThat(wwwAuthHeader).startsWith("Bearer error=\"invalid_token\"");
+    assertThat(wwwAuthHeader)
+        .contains(
+            "resource_metadata=\"http://resource.example.com/.well-known/oauth-protected-resource\"");
+  }
+
+  @Test
+  void testFilterRejectsNonBearerAuthorization() throws Exception {
+    ServerRequest serverRequest = createRequest("Basic dXNlcjpwYXNz");
+
+    ServerResponse response =
+        filter.filter(
+            serverRequest,
+            req -> {
+              throw new IllegalStateException("Handler should not be called");
+            });
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+  }
+
+  @Test
+  void testFilterRejectsMalformedToken() throws Exception {
+    ServerRequest serverRequest = createRequest("Bearer invalid.jwt.token");
+
+    ServerResponse response =
+        filter.filter(
+            serverRequest,
+            req -> {
+              throw new IllegalStateException("Handler should not be called");
+            });
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+  }
+
+  private static ServerRequest createRequest(String authorization) {
+    MockHttpServletRequest mockRequest = new MockHttpServletRequest();
+    mockRequest.setMethod("GET");
+    mockRequest.setRequestURI("/mcp/test");
+    mockRequest.setServerName(TEST_HOST);
+    mockRequest.addHeader(HttpHeaders.AUTHORIZATION, authorization);
+    return ServerRequest.create(mockRequest, Collections.<HttpMessageConverter<?>>emptyList());
+  }
+
+  private static String createJwt(RSAKey key) throws Exception {
+    JWTClaimsSet claims =
+        new JWTClaimsSet.Builder()
+            .subject("test-user")
+            .claim("access_token", "downstream-access-token-xyz")
+            .expirationTime(new Date(System.currentTimeMillis() + 3600000))
+            .build();
+    SignedJWT jwt =
+        new SignedJWT(
+            new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(), claims);
+    jwt.sign(new RSASSASigner(key));
+    return jwt.serialize();
+  }
+}
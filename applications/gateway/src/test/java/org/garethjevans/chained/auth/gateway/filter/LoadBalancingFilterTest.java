@@ -0,0 +1,122 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.garethjevans.chained.auth.gateway.upstream.UpstreamPool;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.server.mvc.common.MvcUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.servlet.function.ServerResponse;
+
+class LoadBalancingFilterTest {
+
+  private static final URI INSTANCE = URI.create("http://mcp-a:8084");
+
+  private final UpstreamPool pool =
+      new UpstreamPool(
+          "github-mcp-server",
+          List.of(INSTANCE, URI.create("http://mcp-b:8084")),
+          UpstreamPool.Strategy.LEAST_OUTSTANDING,
+          2,
+          Duration.ofSeconds(10),
+          Duration.ofSeconds(30),
+          Duration.ofMinutes(5),
+          0.5);
+
+  private final HandlerFilterFunction<ServerResponse, ServerResponse> filter =
+      LoadBalancingFilter.loadBalance(pool);
+
+  @Test
+  void testFilterSetsRequestUrlToChosenInstance() throws Exception {
+    AtomicReference<Object> requestUrl = new AtomicReference<>();
+
+    ServerResponse response =
+        filter.filter(
+            createRequest(),
+            req -> {
+              requestUrl.set(req.attribute(MvcUtils.GATEWAY_REQUEST_URL_ATTR).orElse(null));
+              return ServerResponse.ok().build();
+            });
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(requestUrl.get()).isIn(pool.getInstances().stream().map(i -> i.getUri()).toList());
+    write(response);
+    assertThat(pool.getInstances()).allMatch(instance -> instance.getOutstanding() == 0);
+  }
+
+  @Test
+  void testInstanceStaysOutstandingUntilResponseIsWritten() throws Exception {
+    // A stream's headers arrive long before its body has been copied from the backend
+    ServerResponse stream = filter.filter(createRequest(), req -> ServerResponse.ok().build());
+
+    assertThat(pool.getInstances().stream().mapToInt(UpstreamPool.Instance::getOutstanding).sum())
+        .isEqualTo(1);
+
+    // So the next request goes to the other instance
+    ServerResponse next = filter.filter(createRequest(), req -> ServerResponse.ok().build());
+    assertThat(pool.getInstances()).allMatch(instance -> instance.getOutstanding() == 1);
+
+    write(stream);
+    write(next);
+    assertThat(pool.getInstances()).allMatch(instance -> instance.getOutstanding() == 0);
+  }
+
+  @Test
+  void testServerErrorsEjectInstance() throws Exception {
+    // Instances are picked at random, so keep going until the failing one has been hit enough
+    for (int i = 0; i < 100 && !pool.getInstances().get(0).isEjected(); i++) {
+      write(
+          filter.filter(
+              createRequest(),
+              req ->
+                  ServerResponse.status(
+                          INSTANCE.equals(
+                                  req.attribute(MvcUtils.GATEWAY_REQUEST_URL_ATTR).orElseThrow())
+                              ? HttpStatus.BAD_GATEWAY
+                              : HttpStatus.OK)
+                      .build()));
+    }
+
+    assertThat(pool.getInstances().get(0).isEjected()).isTrue();
+    assertThat(pool.getInstances().get(1).isEjected()).isFalse();
+  }
+
+  @Test
+  void testFailedExchangeReleasesInstance() {
+    assertThatThrownBy(
+            () ->
+                filter.filter(
+                    createRequest(),
+                    req -> {
+                      throw new UncheckedIOException(new ConnectException("connection refused"));
+                    }))
+        .isInstanceOf(UncheckedIOException.class);
+
+    assertThat(pool.getInstances()).allMatch(instance -> instance.getOutstanding() == 0);
+  }
+
+  private static void write(ServerResponse response) throws Exception {
+    response.writeTo(new MockHttpServletRequest(), new MockHttpServletResponse(), List::of);
+  }
+
+  private static ServerRequest createRequest() {
+    MockHttpServletRequest mockRequest = new MockHttpServletRequest();
+    mockRequest.setMethod("POST");
+    mockRequest.setRequestURI("/mcp");
+    mockRequest.setServerName("localhost");
+    return ServerRequest.create(mockRequest, Collections.<HttpMessageConverter<?>>emptyList());
+  }
+}
@@ -0,0 +1,159 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.garethjevans.chained.auth.gateway.core.token.TokenSwapCache;
+import org.garethjevans.chained.auth.gateway.core.token.TokenSwapCache.SwappedToken;
+import org.garethjevans.chained.auth.gateway.token.PhantomTokenResolver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.servlet.function.ServerResponse;
+
+class PhantomTokenFilterTest {
+
+  private static final String TEST_HOST = "resource.example.com";
+
+  private final AtomicInteger lookups = new AtomicInteger();
+  private TokenSwapCache tokenSwapCache;
+
+  @BeforeEach
+  void setUp() {
+    tokenSwapCache = new TokenSwapCache(100, Duration.ofMinutes(5));
+  }
+
+  @Test
+  void testResolvedTokenIsSwappedByTokenModifier() throws Exception {
+    HandlerFilterFunction<ServerResponse, ServerResponse> filter =
+        PhantomTokenFilter.resolvePhantomTokens(
+            resolver(
+                token ->
+                    new PhantomTokenResolver.Resolution(
+                        "user-a", "gho_upstream", Instant.now().plusSeconds(300))),
+            tokenSwapCache);
+    Function<ServerRequest, ServerRequest> modifier =
+        JwtTokenModifierFilter.modifyBearerToken(tokenSwapCache);
+
+    String[] forwarded = new String[1];
+    ServerResponse response =
+        filter.filter(
+            createRequest("Bearer reference-a"),
+            request -> {
+              forwarded[0] =
+                  modifier.apply(request).headers().firstHeader(HttpHeaders.AUTHORIZATION);
+              return ServerResponse.ok().build();
+            });
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(forwarded[0]).isEqualTo("Bearer gho_upstream");
+    SwappedToken swapped = tokenSwapCache.get("reference-a");
+    assertThat(swapped).isNotNull();
+    assertThat(swapped.subject()).isEqualTo("user-a");
+  }
+
+  @Test
+  void testCachedTokenIsNotResolvedAgain() throws Exception {
+    HandlerFilterFunction<ServerResponse, ServerResponse> filter =
+        PhantomTokenFilter.resolvePhantomTokens(
+            resolver(token -> new PhantomTokenResolver.Resolution("user-a", "gho_upstream", null)),
+            tokenSwapCache);
+
+    filter.filter(createRequest("Bearer reference-a"), request -> ServerResponse.ok().build());
+    filter.filter(createRequest("Bearer reference-a"), request -> ServerResponse.ok().build());
+
+    assertThat(lookups).hasValue(1);
+  }
+
+  @Test
+  void testInactiveTokenIsRejected() throws Exception {
+    HandlerFilterFunction<ServerResponse, ServerResponse> filter =
+        PhantomTokenFilter.resolvePhantomTokens(resolver(token -> null), tokenSwapCache);
+
+    ServerResponse response =
+        filter.filter(
+            createRequest("Bearer revoked"),
+            request -> {
+              throw new IllegalStateException("Handler should not be called");
+            });
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+    assertThat(response.headers().getFirst(HttpHeaders.WWW_AUTHENTICATE))
+        .contains("error=\"invalid_token\"")
+        .contains(
+            "resource_metadata=\"http://" + TEST_HOST + "/.well-known/oauth-protected-resource\"");
+  }
+
+  @Test
+  void testUnreachableAuthAdapterFailsClosed() throws Exception {
+    HandlerFilterFunction<ServerResponse, ServerResponse> filter =
+        PhantomTokenFilter.resolvePhantomTokens(
+            new PhantomTokenResolver(
+                URI.create("http://127.0.0.1:1/oauth2/introspect"),
+                "gateway",
+                "gateway-secret",
+                Duration.ofMillis(200),
+                Duration.ofSeconds(30),
+                Duration.ofSeconds(30),
+                100),
+            tokenSwapCache);
+
+    ServerResponse response =
+        filter.filter(
+            createRequest("Bearer reference-a"),
+            request -> {
+              throw new IllegalStateException("Handler should not be called");
+            });
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+  }
+
+  @Test
+  void testJwtIsLeftToJwtFilters() throws Exception {
+    HandlerFilterFunction<ServerResponse, ServerResponse> filter =
+        PhantomTokenFilter.resolvePhantomTokens(
+            resolver(
+                token -> {
+                  throw new IllegalStateException("JWTs must not be introspected");
+                }),
+            tokenSwapCache);
+
+    ServerResponse response =
+        filter.filter(
+            createRequest("Bearer header.payload.signature"),
+            request -> ServerResponse.ok().build());
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(lookups).hasValue(0);
+  }
+
+  private PhantomTokenResolver resolver(PhantomTokenResolver.Lookup lookup) {
+    return new PhantomTokenResolver(
+        token -> {
+          lookups.incrementAndGet();
+          return lookup.lookup(token);
+        },
+        Duration.ofSeconds(30),
+        Duration.ofSeconds(30),
+        100);
+  }
+
+  private static ServerRequest createRequest(String authorization) {
+    MockHttpServletRequest mockRequest = new MockHttpServletRequest();
+    mockRequest.setMethod("POST");
+    mockRequest.setRequestURI("/mcp");
+    mockRequest.setServerName(TEST_HOST);
+    mockRequest.addHeader(HttpHeaders.AUTHORIZATION, authorization);
+    return ServerRequest.create(mockRequest, Collections.<HttpMessageConverter<?>>emptyList());
+  }
+}
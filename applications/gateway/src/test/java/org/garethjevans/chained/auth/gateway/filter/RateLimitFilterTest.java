@@ -0,0 +1,168 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import java.time.Duration;
+import java.util.Collections;
+import org.garethjevans.chained.auth.gateway.core.token.JwtClaimsExtractor;
+import org.garethjevans.chained.auth.gateway.core.token.TokenSwapCache;
+import org.garethjevans.chained.auth.gateway.limit.SubjectRateLimiter;
+import org.jspecify.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.server.mvc.handler.GatewayServerResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.servlet.function.ServerResponse;
+
+class RateLimitFilterTest {
+
+  private static final String SECRET = "ThisIsASecretKeyForTestingPurposesOnly12345678";
+
+  private final SubjectRateLimiter limiter =
+      new SubjectRateLimiter(
+          "github-mcp-server", 2, 60, Duration.ofMinutes(1), Duration.ofMinutes(10), 100);
+
+  private final HandlerFilterFunction<ServerResponse, ServerResponse> filter =
+      RateLimitFilter.rateLimitBySubject(limiter);
+
+  @Test
+  void testFilterAddsRateLimitHeadersToProxiedResponse() throws Exception {
+    ServerResponse response =
+        filter.filter(createRequest(createJwt("alice")), req -> GatewayServerResponse.ok().build());
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.OK);
+    HttpHeaders headers = response.headers();
+    assertThat(headers.getFirst(RateLimitFilter.RATE_LIMIT_LIMIT)).isEqualTo("2");
+    assertThat(headers.getFirst(RateLimitFilter.RATE_LIMIT_REMAINING)).isEqualTo("1");
+    assertThat(headers.getFirst(RateLimitFilter.RATE_LIMIT_RESET)).isEqualTo("1");
+    assertThat(headers.getFirst(RateLimitFilter.RATE_LIMIT_POLICY)).isEqualTo("60;w=60;burst=2");
+  }
+
+  @Test
+  void testFilterRejectsSubjectOverLimit() throws Exception {
+    String jwt = createJwt("alice");
+    filter.filter(createRequest(jwt), req -> GatewayServerResponse.ok().build());
+    filter.filter(createRequest(jwt), req -> GatewayServerResponse.ok().build());
+
+    ServerResponse response =
+        filter.filter(
+            createRequest(jwt),
+            req -> {
+              throw new IllegalStateException("Handler should not be called");
+            });
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+    assertThat(response.headers().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+    assertThat(response.headers().getFirst(RateLimitFilter.RATE_LIMIT_REMAINING)).isEqualTo("0");
+    assertThat(response.headers().getFirst(RateLimitFilter.RATE_LIMIT_RESET)).isEqualTo("2");
+    assertThat(response.headers().getCacheControl()).isEqualTo("no-store");
+  }
+
+  @Test
+  void testSubjectsAreLimitedSeparately() throws Exception {
+    String alice = createJwt("alice");
+    filter.filter(createRequest(alice), req -> GatewayServerResponse.ok().build());
+    filter.filter(createRequest(alice), req -> GatewayServerResponse.ok().build());
+
+    ServerResponse response =
+        filter.filter(createRequest(createJwt("bob")), req -> GatewayServerResponse.ok().build());
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(limiter.estimatedSubjects()).isEqualTo(2);
+  }
+
+  @Test
+  void testRequestsWithoutSubjectAreLimitedByAddress() throws Exception {
+    filter.filter(createRequest(null), req -> GatewayServerResponse.ok().build());
+    filter.filter(createRequest("not-a-jwt"), req -> GatewayServerResponse.ok().build());
+
+    ServerResponse response =
+        filter.filter(createRequest(null), req -> GatewayServerResponse.ok().build());
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+  }
+
+  @Test
+  void testSubjectIsReadFromTokenSwapCache() throws Exception {
+    TokenSwapCache tokenSwapCache = new TokenSwapCache(100, Duration.ofMinutes(5));
+    // Not a JWT, so the subject can only come from the cache
+    tokenSwapCache.put("swapped-token", "Bearer upstream", "alice", null);
+    HandlerFilterFunction<ServerResponse, ServerResponse> cached =
+        RateLimitFilter.rateLimitBySubject(limiter, tokenSwapCache, true);
+    cached.filter(createRequest("swapped-token"), req -> GatewayServerResponse.ok().build());
+    cached.filter(createRequest("swapped-token"), req -> GatewayServerResponse.ok().build());
+
+    ServerResponse response =
+        cached.filter(createRequest(createJwt("alice")), req -> GatewayServerResponse.ok().build());
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+  }
+
+  @Test
+  void testDecodedClaimsAreHandedOnToTokenSwap() throws Exception {
+    ServerRequest request = createRequest(createJwt("alice"));
+
+    filter.filter(request, req -> GatewayServerResponse.ok().build());
+
+    assertThat(request.attributes().get(JwtTokenModifierFilter.CLAIMS_ATTRIBUTE))
+        .isInstanceOfSatisfying(
+            JwtClaimsExtractor.Claims.class,
+            claims -> assertThat(claims.subject()).isEqualTo("alice"));
+  }
+
+  @Test
+  void testUnverifiedSubjectsAreLimitedByAddress() throws Exception {
+    HandlerFilterFunction<ServerResponse, ServerResponse> unverified =
+        RateLimitFilter.rateLimitBySubject(limiter, null, false);
+    // Forged subjects around the same caller's token do not get a bucket each
+    unverified.filter(createRequest(createJwt("alice")), req -> GatewayServerResponse.ok().build());
+    unverified.filter(createRequest(createJwt("bob")), req -> GatewayServerResponse.ok().build());
+
+    ServerResponse response =
+        unverified.filter(
+            createRequest(createJwt("carol")), req -> GatewayServerResponse.ok().build());
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+    assertThat(limiter.estimatedSubjects()).isEqualTo(1);
+  }
+
+  @Test
+  void testReadOnlyResponseIsPassedThrough() throws Exception {
+    ServerResponse response =
+        filter.filter(
+            createRequest(createJwt("alice")),
+            req -> ServerResponse.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+    assertThat(response.headers().containsHeader(RateLimitFilter.RATE_LIMIT_LIMIT)).isFalse();
+  }
+
+  private static ServerRequest createRequest(@Nullable String token) {
+    MockHttpServletRequest mockRequest = new MockHttpServletRequest();
+    mockRequest.setMethod("POST");
+    mockRequest.setRequestURI("/mcp");
+    mockRequest.setServerName("localhost");
+    mockRequest.setRemoteAddr("192.0.2.10");
+    if (token != null) {
+      mockRequest.addHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+    }
+    return ServerRequest.create(mockRequest, Collections.<HttpMessageConverter<?>>emptyList());
+  }
+
+  private static String createJwt(String subject) throws JOSEException {
+    JWTClaimsSet claimsSet = new JWTClaimsSet.Builder().subject(subject).build();
+    SignedJWT signedJWT = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claimsSet);
+    signedJWT.sign(new MACSigner(SECRET.getBytes()));
+    return signedJWT.serialize();
+  }
+}
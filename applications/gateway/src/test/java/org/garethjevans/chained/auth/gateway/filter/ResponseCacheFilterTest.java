@@ -0,0 +1,296 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.garethjevans.chained.auth.gateway.cache.McpResponseCache;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.cloud.gateway.server.mvc.common.MvcUtils;
+import org.springframework.cloud.gateway.server.mvc.config.GatewayMvcProperties;
+import org.springframework.cloud.gateway.server.mvc.filter.HttpHeadersFilter.RequestHttpHeadersFilter;
+import org.springframework.cloud.gateway.server.mvc.filter.HttpHeadersFilter.ResponseHttpHeadersFilter;
+import org.springframework.cloud.gateway.server.mvc.filter.RemoveHopByHopRequestHeadersFilter;
+import org.springframework.cloud.gateway.server.mvc.handler.GatewayServerResponse;
+import org.springframework.cloud.gateway.server.mvc.handler.ProxyExchangeHandlerFunction;
+import org.springframework.cloud.gateway.server.mvc.handler.RestClientProxyExchange;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.HandlerFunction;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.servlet.function.ServerResponse;
+
+class ResponseCacheFilterTest {
+
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  private static final String GET_ME =
+      "{\"jsonrpc\":\"2.0\",\"id\":%d,\"method\":\"tools/call\","
+          + "\"params\":{\"name\":\"get_me\",\"arguments\":{}}}";
+
+  private final McpResponseCache cache =
+      new McpResponseCache(
+          "github-mcp-server",
+          Map.of("tools/list", Duration.ofMinutes(5)),
+          Map.of("get_me", Duration.ofSeconds(30)),
+          1024 * 1024,
+          Duration.ofSeconds(5));
+
+  private final HandlerFilterFunction<ServerResponse, ServerResponse> filter =
+      ResponseCacheFilter.cacheReadOnlyCalls(cache, 64 * 1024, 1024 * 1024);
+
+  private final AtomicInteger backendCalls = new AtomicInteger();
+
+  /** Stands in for the proxy: echoes the request id with a fixed result. */
+  private final HandlerFunction<ServerResponse> backend =
+      request -> {
+        backendCalls.incrementAndGet();
+        JsonNode call = objectMapper.readTree(request.servletRequest().getInputStream());
+        return jsonResponse(
+            HttpStatus.OK, "{\"jsonrpc\":\"2.0\",\"id\":" + call.get("id") + ",\"result\":{}}");
+      };
+
+  @Test
+  void testSecondCallIsAnsweredFromCacheWithItsOwnId() throws Exception {
+    MockHttpServletResponse first = send(GET_ME.formatted(1), "Bearer alice", backend);
+    MockHttpServletResponse second = send(GET_ME.formatted(2), "Bearer alice", backend);
+
+    assertThat(backendCalls).hasValue(1);
+    assertThat(first.getHeader(ResponseCacheFilter.CACHE_STATUS))
+        .isEqualTo(ResponseCacheFilter.MISS);
+    assertThat(second.getHeader(ResponseCacheFilter.CACHE_STATUS))
+        .isEqualTo(ResponseCacheFilter.HIT);
+    assertThat(second.getContentType()).isEqualTo(MediaType.APPLICATION_JSON_VALUE);
+    assertThat(objectMapper.readTree(second.getContentAsByteArray()))
+        .isEqualTo(objectMapper.readTree("{\"jsonrpc\":\"2.0\",\"id\":2,\"result\":{}}"));
+  }
+
+  @Test
+  void testParameterOrderAndMetadataDoNotChangeTheKey() throws Exception {
+    send(
+        "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"tools/call\",\"params\":"
+            + "{\"name\":\"get_me\",\"arguments\":{\"a\":1,\"b\":2}}}",
+        "Bearer alice",
+        backend);
+    send(
+        "{\"id\":\"two\",\"method\":\"tools/call\",\"jsonrpc\":\"2.0\",\"params\":"
+            + "{\"_meta\":{\"progressToken\":7},\"arguments\":{\"b\":2,\"a\":1},\"name\":\"get_me\"}}",
+        "Bearer alice",
+        backend);
+
+    assertThat(backendCalls).hasValue(1);
+  }
+
+  @Test
+  void testParsedCallIsHandedOnToLaterFilters() throws Exception {
+    AtomicReference<JsonRpcRequest.Body> handedOn = new AtomicReference<>();
+
+    send(
+        GET_ME.formatted(1),
+        "Bearer alice",
+        request -> {
+          // What a later filter reading the body gets, without parsing it again
+          handedOn.set(JsonRpcRequest.read(request, 64 * 1024));
+          return backend.handle(request);
+        });
+
+    assertThat(handedOn.get().call())
+        .isEqualTo(JsonRpcRequest.parse(GET_ME.formatted(1).getBytes(StandardCharsets.UTF_8)));
+    assertThat(backendCalls).hasValue(1);
+  }
+
+  @Test
+  void testResultsAreNotSharedBetweenTokens() throws Exception {
+    send(GET_ME.formatted(1), "Bearer alice", backend);
+    MockHttpServletResponse other = send(GET_ME.formatted(2), "Bearer bob", backend);
+
+    assertThat(backendCalls).hasValue(2);
+    assertThat(other.getHeader(ResponseCacheFilter.CACHE_STATUS))
+        .isEqualTo(ResponseCacheFilter.MISS);
+  }
+
+  @Test
+  void testUncacheableCallsArePassedThrough() throws Exception {
+    String createIssue =
+        "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"tools/call\","
+            + "\"params\":{\"name\":\"create_issue\",\"arguments\":{}}}";
+    String notification = "{\"jsonrpc\":\"2.0\",\"method\":\"tools/list\"}";
+    HandlerFunction<ServerResponse> accepted =
+        request -> {
+          backendCalls.incrementAndGet();
+          return GatewayServerResponse.status(HttpStatus.ACCEPTED).build();
+        };
+
+    MockHttpServletResponse response = send(createIssue, "Bearer alice", backend);
+    send(createIssue, "Bearer alice", backend);
+    send(notification, "Bearer alice", accepted);
+    send(notification, "Bearer alice", accepted);
+
+    assertThat(backendCalls).hasValue(4);
+    assertThat(response.getHeader(ResponseCacheFilter.CACHE_STATUS)).isNull();
+  }
+
+  @Test
+  void testErrorResponsesAreNotCached() throws Exception {
+    HandlerFunction<ServerResponse> failing =
+        request -> {
+          backendCalls.incrementAndGet();
+          return jsonResponse(
+              HttpStatus.OK,
+              "{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":{\"content\":[],\"isError\":true}}");
+        };
+
+    send(GET_ME.formatted(1), "Bearer alice", failing);
+    send(GET_ME.formatted(1), "Bearer alice", failing);
+    send(
+        GET_ME.formatted(1),
+        "Bearer alice",
+        request -> {
+          backendCalls.incrementAndGet();
+          return jsonResponse(HttpStatus.BAD_GATEWAY, "{}");
+        });
+
+    assertThat(backendCalls).hasValue(3);
+    assertThat(cache.estimatedSize()).isZero();
+  }
+
+  @Test
+  void testConcurrentIdenticalCallsAreCollapsed() throws Exception {
+    CountDownLatch backendEntered = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    HandlerFunction<ServerResponse> slowBackend =
+        request -> {
+          backendEntered.countDown();
+          release.await(5, TimeUnit.SECONDS);
+          return backend.handle(request);
+        };
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Future<MockHttpServletResponse> leader =
+          executor.submit(() -> send(GET_ME.formatted(1), "Bearer alice", slowBackend));
+      assertThat(backendEntered.await(5, TimeUnit.SECONDS)).isTrue();
+      List<Future<MockHttpServletResponse>> followers =
+          List.of(
+              executor.submit(() -> send(GET_ME.formatted(2), "Bearer alice", slowBackend)),
+              executor.submit(() -> send(GET_ME.formatted(3), "Bearer alice", slowBackend)));
+      while (cache.getCollapsed() < 2) {
+        Thread.onSpinWait();
+      }
+      release.countDown();
+
+      assertThat(leader.get(5, TimeUnit.SECONDS).getHeader(ResponseCacheFilter.CACHE_STATUS))
+          .isEqualTo(ResponseCacheFilter.MISS);
+      for (Future<MockHttpServletResponse> follower : followers) {
+        MockHttpServletResponse response = follower.get(5, TimeUnit.SECONDS);
+        assertThat(response.getHeader(ResponseCacheFilter.CACHE_STATUS))
+            .isEqualTo(ResponseCacheFilter.COLLAPSED);
+      }
+      assertThat(backendCalls).hasValue(1);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void testRequestBodyIsStillProxiedAfterInspection() throws Exception {
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext(
+        "/mcp",
+        exchange -> {
+          backendCalls.incrementAndGet();
+          JsonNode call = objectMapper.readTree(exchange.getRequestBody());
+          byte[] body =
+              ("{\"jsonrpc\":\"2.0\",\"id\":"
+                      + call.get("id")
+                      + ",\"result\":{\"tools\":[{\"name\":\"get_me\"}]}}")
+                  .getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().set(HttpHeaders.CONTENT_TYPE, "application/json");
+          exchange.sendResponseHeaders(200, body.length);
+          exchange.getResponseBody().write(body);
+          exchange.close();
+        });
+    server.start();
+    try {
+      StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+      beanFactory.addBean("removeHopByHop", new RemoveHopByHopRequestHeadersFilter());
+      ProxyExchangeHandlerFunction proxy =
+          new ProxyExchangeHandlerFunction(
+              new RestClientProxyExchange(RestClient.create(), new GatewayMvcProperties()),
+              beanFactory.getBeanProvider(RequestHttpHeadersFilter.class),
+              beanFactory.getBeanProvider(ResponseHttpHeadersFilter.class));
+      proxy.onApplicationEvent(null);
+      URI backendUri = URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+      HandlerFunction<ServerResponse> proxied =
+          request -> {
+            MvcUtils.setRequestUrl(request, backendUri);
+            return proxy.handle(request);
+          };
+      String toolsList = "{\"jsonrpc\":\"2.0\",\"id\":%d,\"method\":\"tools/list\"}";
+
+      MockHttpServletResponse first = send(toolsList.formatted(1), "Bearer alice", proxied);
+      MockHttpServletResponse second = send(toolsList.formatted(2), "Bearer alice", proxied);
+
+      assertThat(backendCalls).hasValue(1);
+      assertThat(objectMapper.readTree(first.getContentAsByteArray()).get("id").asInt())
+          .isEqualTo(1);
+      assertThat(objectMapper.readTree(second.getContentAsByteArray()))
+          .isEqualTo(
+              objectMapper.readTree(
+                  "{\"jsonrpc\":\"2.0\",\"id\":2,\"result\":{\"tools\":[{\"name\":\"get_me\"}]}}"));
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  private MockHttpServletResponse send(
+      String body, String authorization, HandlerFunction<ServerResponse> handler) throws Exception {
+    MockHttpServletRequest mockRequest = new MockHttpServletRequest();
+    mockRequest.setMethod("POST");
+    mockRequest.setRequestURI("/mcp");
+    mockRequest.setServerName("localhost");
+    mockRequest.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    mockRequest.addHeader(HttpHeaders.AUTHORIZATION, authorization);
+    mockRequest.setContent(body.getBytes(StandardCharsets.UTF_8));
+    ServerRequest request =
+        ServerRequest.create(mockRequest, Collections.<HttpMessageConverter<?>>emptyList());
+
+    ServerResponse response = filter.filter(request, handler);
+    MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+    response.writeTo(mockRequest, servletResponse, List::of);
+    return servletResponse;
+  }
+
+  private static ServerResponse jsonResponse(HttpStatus status, String body) {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    return GatewayServerResponse.status(status)
+        .contentType(MediaType.APPLICATION_JSON)
+        .build(
+            (servletRequest, servletResponse) -> {
+              servletResponse.getOutputStream().write(bytes);
+              return null;
+            });
+  }
+}
@@ -0,0 +1,172 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.garethjevans.chained.auth.gateway.upstream.RetryBudget;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.HandlerFunction;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.servlet.function.ServerResponse;
+
+class RetryFilterTest {
+
+  private static final String TOOLS_LIST =
+      "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"tools/list\"}";
+
+  private static final String GET_ME =
+      "{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"tools/call\",\"params\":{\"name\":\"get_me\"}}";
+
+  private static final String CREATE_ISSUE =
+      "{\"jsonrpc\":\"2.0\",\"id\":3,\"method\":\"tools/call\","
+          + "\"params\":{\"name\":\"create_issue\"}}";
+
+  private final RetryBudget budget = new RetryBudget(0.2, 10, 100);
+
+  private final List<String> bodies = new ArrayList<>();
+
+  private HandlerFilterFunction<ServerResponse, ServerResponse> filter =
+      RetryFilter.retryIdempotentCalls(
+          budget,
+          Set.of("tools/list"),
+          Set.of("get_me"),
+          3,
+          Duration.ofMillis(1),
+          Duration.ofMillis(5),
+          1024);
+
+  @Test
+  void testIdempotentMethodIsRetriedWithSameBody() throws Exception {
+    ServerResponse response = filter.filter(createRequest(TOOLS_LIST), failingTimes(2));
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(bodies).containsExactly(TOOLS_LIST, TOOLS_LIST, TOOLS_LIST);
+    assertThat(budget.getRetries()).isEqualTo(2);
+  }
+
+  @Test
+  void testReadOnlyToolCallIsRetried() throws Exception {
+    ServerResponse response = filter.filter(createRequest(GET_ME), failingTimes(1));
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(bodies).containsExactly(GET_ME, GET_ME);
+  }
+
+  @Test
+  void testOtherToolCallIsNotRetried() {
+    assertThatThrownBy(() -> filter.filter(createRequest(CREATE_ISSUE), failingTimes(1)))
+        .isInstanceOf(ResourceAccessException.class);
+
+    assertThat(bodies).containsExactly(CREATE_ISSUE);
+    assertThat(budget.getRetries()).isZero();
+  }
+
+  @Test
+  void testAttemptsAreBounded() {
+    assertThatThrownBy(() -> filter.filter(createRequest(TOOLS_LIST), failingTimes(5)))
+        .isInstanceOf(ResourceAccessException.class);
+
+    assertThat(bodies).hasSize(3);
+  }
+
+  @Test
+  void testServerErrorResponseIsNotRetried() throws Exception {
+    ServerResponse response =
+        filter.filter(
+            createRequest(TOOLS_LIST),
+            req -> {
+              bodies.add(readBody(req));
+              return ServerResponse.status(HttpStatus.BAD_GATEWAY).build();
+            });
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.BAD_GATEWAY);
+    assertThat(bodies).hasSize(1);
+  }
+
+  @Test
+  void testExhaustedBudgetStopsRetries() {
+    RetryBudget empty = new RetryBudget(0, 0, 100);
+    for (int i = 0; i < 1000 && empty.tryWithdraw(); i++) {
+      // drain the initial reserve
+    }
+    filter =
+        RetryFilter.retryIdempotentCalls(
+            empty,
+            Set.of("tools/list"),
+            Set.of(),
+            3,
+            Duration.ofMillis(1),
+            Duration.ofMillis(5),
+            1024);
+
+    assertThatThrownBy(() -> filter.filter(createRequest(TOOLS_LIST), failingTimes(1)))
+        .isInstanceOf(ResourceAccessException.class);
+
+    assertThat(bodies).hasSize(1);
+    assertThat(empty.getExhausted()).isGreaterThan(0);
+  }
+
+  @Test
+  void testBodyReadByEarlierFilterIsNotReadAgain() throws Exception {
+    ServerRequest request = createRequest(TOOLS_LIST);
+    JsonRpcRequest.Body body = JsonRpcRequest.read(request, 1024);
+    Object buffered = request.attributes().get(JsonRpcRequest.BODY_ATTRIBUTE);
+
+    ServerResponse response = filter.filter(body.request(), failingTimes(1));
+
+    assertThat(response.statusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(bodies).containsExactly(TOOLS_LIST, TOOLS_LIST);
+    assertThat(request.attributes().get(JsonRpcRequest.BODY_ATTRIBUTE)).isSameAs(buffered);
+  }
+
+  @Test
+  void testOversizedBodyIsForwardedIntact() throws Exception {
+    String large =
+        "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"tools/list\",\"pad\":\""
+            + "x".repeat(2048)
+            + "\"}";
+
+    assertThatThrownBy(() -> filter.filter(createRequest(large), failingTimes(1)))
+        .isInstanceOf(ResourceAccessException.class);
+
+    assertThat(bodies).containsExactly(large);
+  }
+
+  private HandlerFunction<ServerResponse> failingTimes(int failures) {
+    int[] attempts = {0};
+    return req -> {
+      bodies.add(readBody(req));
+      if (attempts[0]++ < failures) {
+        throw new ResourceAccessException("connection reset");
+      }
+      return ServerResponse.ok().build();
+    };
+  }
+
+  private static String readBody(ServerRequest request) throws Exception {
+    return new String(
+        request.servletRequest().getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+  }
+
+  private static ServerRequest createRequest(String body) {
+    MockHttpServletRequest mockRequest = new MockHttpServletRequest();
+    mockRequest.setMethod("POST");
+    mockRequest.setRequestURI("/mcp");
+    mockRequest.setServerName("localhost");
+    mockRequest.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    mockRequest.setContent(body.getBytes(StandardCharsets.UTF_8));
+    return ServerRequest.create(mockRequest, Collections.<HttpMessageConverter<?>>emptyList());
+  }
+}
@@ -0,0 +1,71 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.util.Collections;
+import org.garethjevans.chained.auth.gateway.core.metrics.GatewayMetrics;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.servlet.function.ServerResponse;
+
+class UpstreamMetricsFilterTest {
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+  private final HandlerFilterFunction<ServerResponse, ServerResponse> filter =
+      UpstreamMetricsFilter.recordUpstream(new GatewayMetrics(registry), "github-mcp-server");
+
+  @Test
+  void testFilterRecordsStatusPerRoute() throws Exception {
+    filter.filter(createRequest(), req -> ServerResponse.ok().build());
+    filter.filter(createRequest(), req -> ServerResponse.ok().build());
+    filter.filter(createRequest(), req -> ServerResponse.status(HttpStatus.BAD_GATEWAY).build());
+
+    Timer ok =
+        registry
+            .get("gateway.upstream.requests")
+            .tags("route", "github-mcp-server", "status", "200", "outcome", "SUCCESS")
+            .timer();
+    Timer badGateway =
+        registry
+            .get("gateway.upstream.requests")
+            .tags("route", "github-mcp-server", "status", "502", "outcome", "SERVER_ERROR")
+            .timer();
+    assertThat(ok.count()).isEqualTo(2);
+    assertThat(badGateway.count()).isEqualTo(1);
+  }
+
+  @Test
+  void testFilterRecordsFailedExchange() {
+    assertThatThrownBy(
+            () ->
+                filter.filter(
+                    createRequest(),
+                    req -> {
+                      throw new UncheckedIOException(new ConnectException("connection refused"));
+                    }))
+        .isInstanceOf(UncheckedIOException.class);
+
+    assertThat(
+            registry
+                .get("gateway.upstream.requests")
+                .tags("route", "github-mcp-server", "status", "IO_ERROR")
+                .timer()
+                .count())
+        .isEqualTo(1);
+  }
+
+  private static ServerRequest createRequest() {
+    MockHttpServletRequest mockRequest = new MockHttpServletRequest("POST", "/mcp");
+    return ServerRequest.create(mockRequest, Collections.<HttpMessageConverter<?>>emptyList());
+  }
+}
@@ -0,0 +1,105 @@
+package org.garethjevans.chained.auth.gateway.limit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveConcurrencyLimiterTest {
+
+  private static final Duration FAST = Duration.ofMillis(10);
+  private static final Duration SLOW = Duration.ofSeconds(10);
+
+  private final AdaptiveConcurrencyLimiter limiter =
+      new AdaptiveConcurrencyLimiter("test-route", 4, 2, 6, 0.5, Duration.ofSeconds(1));
+
+  @Test
+  void testRejectsOnceLimitIsReached() {
+    for (int i = 0; i < 4; i++) {
+      assertThat(limiter.tryAcquire()).isNotNull();
+    }
+
+    assertThat(limiter.tryAcquire()).isNull();
+    assertThat(limiter.getInFlight()).isEqualTo(4);
+    assertThat(limiter.getRejected()).isEqualTo(1);
+  }
+
+  @Test
+  void testReleasingPermitFreesSlot() {
+    AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+    permit.release(FAST, false);
+
+    assertThat(limiter.getInFlight()).isZero();
+  }
+
+  @Test
+  void testLimitGrowsWhenSaturatedAndFast() {
+    AdaptiveConcurrencyLimiter.Permit first = limiter.tryAcquire();
+    AdaptiveConcurrencyLimiter.Permit second = limiter.tryAcquire();
+
+    // Only the second request saw half of the limit in use
+    first.release(FAST, false);
+    second.release(FAST, false);
+
+    assertThat(limiter.getLimit()).isEqualTo(5);
+  }
+
+  @Test
+  void testLimitDoesNotGrowWhenUnderused() {
+    limiter.tryAcquire().release(FAST, false);
+
+    assertThat(limiter.getLimit()).isEqualTo(4);
+  }
+
+  @Test
+  void testLimitNeverExceedsMaximum() {
+    for (int i = 0; i < 10; i++) {
+      AdaptiveConcurrencyLimiter.Permit a = limiter.tryAcquire();
+      AdaptiveConcurrencyLimiter.Permit b = limiter.tryAcquire();
+      AdaptiveConcurrencyLimiter.Permit c = limiter.tryAcquire();
+      a.release(FAST, false);
+      b.release(FAST, false);
+      c.release(FAST, false);
+    }
+
+    assertThat(limiter.getLimit()).isEqualTo(6);
+  }
+
+  @Test
+  void testLimitBacksOffOnSlowOrFailedRequests() {
+    limiter.tryAcquire().release(SLOW, false);
+    assertThat(limiter.getLimit()).isEqualTo(2);
+
+    limiter.tryAcquire().release(FAST, true);
+    assertThat(limiter.getLimit()).isEqualTo(2);
+  }
+
+  @Test
+  void testPublishesMetersTaggedWithRoute() {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    limiter.bindTo(registry);
+
+    limiter.tryAcquire();
+    for (int i = 0; i < 4; i++) {
+      limiter.tryAcquire();
+    }
+
+    assertThat(registry.get("gateway.concurrency.limit").tag("route", "test-route").gauge().value())
+        .isEqualTo(4.0);
+    assertThat(
+            registry
+                .get("gateway.concurrency.in-flight")
+                .tag("route", "test-route")
+                .gauge()
+                .value())
+        .isEqualTo(4.0);
+    assertThat(
+            registry
+                .get("gateway.concurrency.rejected")
+                .tag("route", "test-route")
+                .functionCounter()
+                .count())
+        .isEqualTo(1.0);
+  }
+}
@@ -0,0 +1,136 @@
+package org.garethjevans.chained.auth.gateway.limit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class SubjectRateLimiterTest {
+
+  private final AtomicLong nanos = new AtomicLong();
+
+  // Bursts of 3, then one request per second
+  private final SubjectRateLimiter limiter =
+      new SubjectRateLimiter(
+          "test-route", 3, 1, Duration.ofSeconds(1), Duration.ofMinutes(10), 100, nanos::get);
+
+  @Test
+  void testAllowsBurstUpToCapacity() {
+    assertThat(limiter.tryConsume("alice").remaining()).isEqualTo(2);
+    assertThat(limiter.tryConsume("alice").remaining()).isEqualTo(1);
+    assertThat(limiter.tryConsume("alice").remaining()).isZero();
+
+    SubjectRateLimiter.Decision rejected = limiter.tryConsume("alice");
+    assertThat(rejected.allowed()).isFalse();
+    assertThat(rejected.retryAfter()).isEqualTo(Duration.ofSeconds(1));
+    assertThat(rejected.reset()).isEqualTo(Duration.ofSeconds(3));
+    assertThat(limiter.getRejected()).isEqualTo(1);
+  }
+
+  @Test
+  void testRefillsOverTime() {
+    for (int i = 0; i < 3; i++) {
+      limiter.tryConsume("alice");
+    }
+
+    nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+    assertThat(limiter.tryConsume("alice").allowed()).isFalse();
+
+    nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+    SubjectRateLimiter.Decision decision = limiter.tryConsume("alice");
+    assertThat(decision.allowed()).isTrue();
+    assertThat(decision.remaining()).isZero();
+
+    // Refilling never exceeds the capacity
+    nanos.addAndGet(TimeUnit.MINUTES.toNanos(1));
+    assertThat(limiter.tryConsume("alice").remaining()).isEqualTo(2);
+  }
+
+  @Test
+  void testSubjectsAreLimitedIndependently() {
+    for (int i = 0; i < 3; i++) {
+      limiter.tryConsume("alice");
+    }
+
+    assertThat(limiter.tryConsume("alice").allowed()).isFalse();
+    assertThat(limiter.tryConsume("bob").allowed()).isTrue();
+  }
+
+  @Test
+  void testIdleBucketsAreEvicted() {
+    limiter.tryConsume("alice");
+    limiter.tryConsume("bob");
+    assertThat(limiter.estimatedSubjects()).isEqualTo(2);
+
+    nanos.addAndGet(TimeUnit.MINUTES.toNanos(5));
+    limiter.tryConsume("bob");
+    nanos.addAndGet(TimeUnit.MINUTES.toNanos(6));
+    limiter.cleanUp();
+
+    assertThat(limiter.estimatedSubjects()).isEqualTo(1);
+  }
+
+  @Test
+  void testConcurrentRequestsNeverExceedCapacity() throws Exception {
+    SubjectRateLimiter wide =
+        new SubjectRateLimiter(
+            "test-route", 1_000, 1, Duration.ofHours(1), Duration.ofMinutes(10), 100, nanos::get);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    CountDownLatch start = new CountDownLatch(1);
+    try {
+      List<Future<Integer>> results = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        results.add(
+            executor.submit(
+                () -> {
+                  start.await();
+                  int allowed = 0;
+                  for (int i = 0; i < 500; i++) {
+                    if (wide.tryConsume("alice").allowed()) {
+                      allowed++;
+                    }
+                  }
+                  return allowed;
+                }));
+      }
+      start.countDown();
+
+      int allowed = 0;
+      for (Future<Integer> result : results) {
+        allowed += result.get(10, TimeUnit.SECONDS);
+      }
+      assertThat(allowed).isEqualTo(1_000);
+      assertThat(wide.getRejected()).isEqualTo(3_000);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void testPublishesMeters() {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    limiter.bindTo(registry);
+
+    for (int i = 0; i < 4; i++) {
+      limiter.tryConsume("alice");
+    }
+
+    assertThat(
+            registry
+                .get("gateway.rate-limit.rejected")
+                .tag("route", "test-route")
+                .functionCounter()
+                .count())
+        .isEqualTo(1);
+    assertThat(registry.get("gateway.rate-limit.subjects").gauge().value()).isEqualTo(1);
+  }
+}
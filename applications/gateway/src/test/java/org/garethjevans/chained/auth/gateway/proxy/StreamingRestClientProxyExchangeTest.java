@@ -0,0 +1,423 @@
+package org.garethjevans.chained.auth.gateway.proxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.garethjevans.chained.auth.gateway.config.GatewayProperties;
+import org.garethjevans.chained.auth.gateway.config.UpstreamClientConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.cloud.gateway.server.mvc.common.MvcUtils;
+import org.springframework.cloud.gateway.server.mvc.config.GatewayMvcProperties;
+import org.springframework.cloud.gateway.server.mvc.filter.HttpHeadersFilter.RequestHttpHeadersFilter;
+import org.springframework.cloud.gateway.server.mvc.filter.HttpHeadersFilter.ResponseHttpHeadersFilter;
+import org.springframework.cloud.gateway.server.mvc.filter.RemoveHopByHopRequestHeadersFilter;
+import org.springframework.cloud.gateway.server.mvc.handler.ProxyExchangeHandlerFunction;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.servlet.function.ServerResponse;
+import reactor.netty.resources.ConnectionProvider;
+
+class StreamingRestClientProxyExchangeTest {
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private HttpServer backend;
+  private ConnectionProvider connectionProvider;
+  private ProxyExchangeHandlerFunction proxy;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    backend = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    backend.setExecutor(executor);
+    backend.start();
+
+    GatewayProperties properties = new GatewayProperties();
+    UpstreamClientConfig config = new UpstreamClientConfig();
+    connectionProvider = config.githubMcpServerConnectionProvider(properties);
+    StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+    beanFactory.addBean("removeHopByHop", new RemoveHopByHopRequestHeadersFilter());
+    proxy =
+        config.githubMcpServerProxy(
+            connectionProvider,
+            properties,
+            new GatewayMvcProperties(),
+            RestClient.builder(),
+            beanFactory.getBeanProvider(RequestHttpHeadersFilter.class),
+            beanFactory.getBeanProvider(ResponseHttpHeadersFilter.class));
+    proxy.onApplicationEvent(null);
+  }
+
+  @AfterEach
+  void tearDown() {
+    backend.stop(0);
+    connectionProvider.dispose();
+    executor.shutdownNow();
+  }
+
+  @Test
+  void testStreamingDetection() {
+    StreamingRestClientProxyExchange exchange =
+        new StreamingRestClientProxyExchange(RestClient.create(), new GatewayMvcProperties());
+
+    HttpHeaders sse = new HttpHeaders();
+    sse.setContentType(MediaType.parseMediaType("text/event-stream;charset=UTF-8"));
+    sse.setContentLength(100);
+    assertThat(exchange.isStreaming(sse)).isTrue();
+
+    HttpHeaders chunkedJson = new HttpHeaders();
+    chunkedJson.setContentType(MediaType.APPLICATION_JSON);
+    assertThat(exchange.isStreaming(chunkedJson)).isTrue();
+
+    HttpHeaders fixedJson = new HttpHeaders();
+    fixedJson.setContentType(MediaType.APPLICATION_JSON);
+    fixedJson.setContentLength(100);
+    assertThat(exchange.isStreaming(fixedJson)).isFalse();
+  }
+
+  @Test
+  void testSseEventIsFlushedBeforeStreamCompletes() throws Exception {
+    CountDownLatch finish = new CountDownLatch(1);
+    backend.createContext(
+        "/mcp",
+        exchange -> {
+          startEventStream(exchange);
+          OutputStream body = exchange.getResponseBody();
+          body.write("data: {\"jsonrpc\":\"2.0\",\"id\":1}\n\n".getBytes(StandardCharsets.UTF_8));
+          body.flush();
+          await(finish);
+          body.write("data: {\"jsonrpc\":\"2.0\",\"id\":2}\n\n".getBytes(StandardCharsets.UTF_8));
+          exchange.close();
+        });
+
+    CountingResponse response = new CountingResponse();
+    Future<?> relay = executor.submit(() -> relay(response));
+
+    // The first event reaches the client while the backend still holds the stream open
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!response.received().contains("\"id\":1") && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(response.received()).contains("\"id\":1").doesNotContain("\"id\":2");
+
+    finish.countDown();
+    relay.get(10, TimeUnit.SECONDS);
+    assertThat(response.received()).contains("\"id\":2");
+    assertThat(response.getContentType()).startsWith(MediaType.TEXT_EVENT_STREAM_VALUE);
+  }
+
+  @Test
+  void testEventEndingAcrossBufferFlushIsFlushedWhenItEnds() throws Exception {
+    GatewayMvcProperties properties = new GatewayMvcProperties();
+    properties.setStreamingBufferSize(4);
+    StreamingRestClientProxyExchange exchange =
+        new StreamingRestClientProxyExchange(RestClient.create(), properties);
+    RecordingOutputStream client = new RecordingOutputStream();
+    // The buffer fills, and is flushed, between the CR LF ending the data line and the final LF
+    ChunkedInputStream backend =
+        new ChunkedInputStream(
+            false, () -> assertThat(client.flushed()).isEqualTo("ab\r\n\r\n"), "ab\r\n", "\r\n");
+
+    int copied = exchange.copyResponseBody(eventStream(), backend, client);
+
+    assertThat(copied).isEqualTo(6);
+    assertThat(backend.checked).isTrue();
+  }
+
+  @Test
+  void testEventsAreReadInBulkWhenAvailable() throws Exception {
+    StreamingRestClientProxyExchange exchange =
+        new StreamingRestClientProxyExchange(RestClient.create(), new GatewayMvcProperties());
+    RecordingOutputStream client = new RecordingOutputStream();
+    String events = "data: 1\n\ndata: 2\n\n";
+    ChunkedInputStream backend =
+        new ChunkedInputStream(
+            true,
+            () -> assertThat(client.flushed()).isEqualTo(events + "data: 3\n\n"),
+            events,
+            "data: 3\n\n");
+
+    exchange.copyResponseBody(eventStream(), backend, client);
+
+    assertThat(backend.checked).isTrue();
+    // One read per chunk and one for the end of the stream
+    assertThat(backend.reads).isEqualTo(3);
+  }
+
+  @Test
+  void testConcurrentEventStreamsKeepHeapFlat() throws Exception {
+    // 1 KB events, 4 MB per stream before the backend pauses
+    byte[] event = new byte[1024];
+    Arrays.fill(event, (byte) 'x');
+    System.arraycopy("data: ".getBytes(StandardCharsets.UTF_8), 0, event, 0, 6);
+    event[1022] = '\n';
+    event[1023] = '\n';
+    assertHeapStaysFlat("text/event-stream;charset=UTF-8", event, 16, 4L * 1024 * 1024);
+  }
+
+  @Test
+  void testConcurrentChunkedBodiesKeepHeapFlat() throws Exception {
+    assertHeapStaysFlat("application/json", new byte[8 * 1024], 16, 16L * 1024 * 1024);
+  }
+
+  private void assertHeapStaysFlat(String contentType, byte[] chunk, int streams, long halfStream)
+      throws Exception {
+    CountDownLatch finish = new CountDownLatch(1);
+    backend.createContext(
+        "/mcp",
+        exchange -> {
+          exchange.getResponseHeaders().add(HttpHeaders.CONTENT_TYPE, contentType);
+          // A zero length selects chunked transfer encoding
+          exchange.sendResponseHeaders(200, 0);
+          OutputStream body = exchange.getResponseBody();
+          writeChunks(body, chunk, halfStream);
+          await(finish);
+          writeChunks(body, chunk, halfStream);
+          exchange.close();
+        });
+
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    System.gc();
+    long baseline = memory.getHeapMemoryUsage().getUsed();
+
+    List<CountingResponse> responses = new ArrayList<>();
+    List<Future<?>> relays = new ArrayList<>();
+    for (int i = 0; i < streams; i++) {
+      CountingResponse response = new CountingResponse();
+      responses.add(response);
+      relays.add(executor.submit(() -> relay(response)));
+    }
+
+    // Wait until every client has seen the first half of its stream
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+    while (responses.stream().anyMatch(r -> r.bytes() < halfStream)
+        && System.nanoTime() < deadline) {
+      Thread.sleep(20);
+    }
+    assertThat(responses).allMatch(r -> r.bytes() == halfStream);
+
+    // None of the bytes that have passed through the gateway may still be held on the heap
+    System.gc();
+    long retained = memory.getHeapMemoryUsage().getUsed() - baseline;
+    assertThat(retained).isLessThan(streams * halfStream / 2);
+
+    finish.countDown();
+    for (Future<?> relay : relays) {
+      relay.get(60, TimeUnit.SECONDS);
+    }
+    assertThat(responses).allMatch(r -> r.bytes() == 2 * halfStream);
+    assertThat(responses).allMatch(r -> r.flushes() > 1);
+  }
+
+  private Void relay(MockHttpServletResponse servletResponse) throws Exception {
+    MockHttpServletRequest mockRequest = new MockHttpServletRequest();
+    mockRequest.setMethod("GET");
+    mockRequest.setRequestURI("/mcp");
+    mockRequest.setServerName("localhost");
+    mockRequest.addHeader(HttpHeaders.ACCEPT, MediaType.TEXT_EVENT_STREAM_VALUE);
+    ServerRequest serverRequest =
+        ServerRequest.create(mockRequest, Collections.<HttpMessageConverter<?>>emptyList());
+    serverRequest
+        .attributes()
+        .put(
+            MvcUtils.GATEWAY_REQUEST_URL_ATTR,
+            URI.create("http://127.0.0.1:" + backend.getAddress().getPort()));
+
+    ServerResponse response = proxy.handle(serverRequest);
+    response.writeTo(mockRequest, servletResponse, List::of);
+    return null;
+  }
+
+  private static void startEventStream(HttpExchange exchange) throws IOException {
+    exchange.getResponseHeaders().add(HttpHeaders.CONTENT_TYPE, "text/event-stream;charset=UTF-8");
+    // A zero length selects chunked transfer encoding
+    exchange.sendResponseHeaders(200, 0);
+  }
+
+  private static void writeChunks(OutputStream body, byte[] chunk, long total) throws IOException {
+    for (long written = 0; written < total; written += chunk.length) {
+      body.write(chunk);
+    }
+    body.flush();
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(60, TimeUnit.SECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static ClientHttpResponse eventStream() {
+    MockClientHttpResponse response = new MockClientHttpResponse(new byte[0], HttpStatus.OK);
+    response.getHeaders().setContentType(MediaType.TEXT_EVENT_STREAM);
+    return response;
+  }
+
+  /**
+   * Backend response body delivered in chunks, like the pooled client's. Each chunk is reported
+   * {@link InputStream#available() available} if {@code reportsAvailable}; a read blocks, rather
+   * than returning part of the requested length, until a chunk has been taken. Before reporting the
+   * end of the stream it runs a check, while the whole body would still be held back by a relay
+   * that waits for more bytes.
+   */
+  private static final class ChunkedInputStream extends InputStream {
+
+    private final boolean reportsAvailable;
+    private final Runnable beforeEnd;
+    private final List<byte[]> chunks = new ArrayList<>();
+    private int chunk;
+    private int position;
+    private int reads;
+    private boolean checked;
+
+    private ChunkedInputStream(boolean reportsAvailable, Runnable beforeEnd, String... chunks) {
+      this.reportsAvailable = reportsAvailable;
+      this.beforeEnd = beforeEnd;
+      for (String body : chunks) {
+        this.chunks.add(body.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+
+    @Override
+    public int read() {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) == -1 ? -1 : one[0];
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+      reads++;
+      int copied = 0;
+      while (copied < length) {
+        if (chunk == chunks.size()) {
+          if (copied > 0) {
+            return copied;
+          }
+          beforeEnd.run();
+          checked = true;
+          return -1;
+        }
+        byte[] current = chunks.get(chunk);
+        int count = Math.min(length - copied, current.length - position);
+        System.arraycopy(current, position, buffer, offset + copied, count);
+        copied += count;
+        position += count;
+        if (position == current.length) {
+          chunk++;
+          position = 0;
+        }
+      }
+      return copied;
+    }
+
+    @Override
+    public int available() {
+      return reportsAvailable && chunk < chunks.size() ? chunks.get(chunk).length - position : 0;
+    }
+  }
+
+  /** Client output stream that remembers what had been flushed. */
+  private static final class RecordingOutputStream extends ByteArrayOutputStream {
+
+    private String flushed = "";
+
+    @Override
+    public void flush() {
+      flushed = toString(StandardCharsets.UTF_8);
+    }
+
+    String flushed() {
+      return flushed;
+    }
+  }
+
+  /** Servlet response that counts what is written instead of buffering it. */
+  private static class CountingResponse extends MockHttpServletResponse {
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicInteger flushes = new AtomicInteger();
+    private final ByteArrayOutputStream head = new ByteArrayOutputStream();
+
+    private final ServletOutputStream outputStream =
+        new ServletOutputStream() {
+          @Override
+          public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+          }
+
+          @Override
+          public void write(byte[] b, int off, int len) {
+            synchronized (head) {
+              head.write(b, off, Math.max(0, Math.min(len, 1024 - head.size())));
+            }
+            bytes.addAndGet(len);
+          }
+
+          @Override
+          public void flush() {
+            flushes.incrementAndGet();
+          }
+
+          @Override
+          public boolean isReady() {
+            return true;
+          }
+
+          @Override
+          public void setWriteListener(WriteListener writeListener) {}
+        };
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+      return outputStream;
+    }
+
+    long bytes() {
+      return bytes.get();
+    }
+
+    int flushes() {
+      return flushes.get();
+    }
+
+    String received() {
+      synchronized (head) {
+        return head.toString(StandardCharsets.UTF_8);
+      }
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package org.garethjevans.chained.auth.gateway.token;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import java.net.URI;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Date;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class JwtVerifierTest {
+
+  private static final String SECRET = "ThisIsASecretKeyForTestingPurposesOnly12345678";
+
+  private RSAKey signingKey;
+  private JwksKeyCache keyCache;
+  private JwtVerifier verifier;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    signingKey = new RSAKeyGenerator(2048).keyID("key-1").generate();
+    keyCache =
+        new JwksKeyCache(
+            URI.create("http://127.0.0.1:9000/oauth2/jwks"),
+            Duration.ofMinutes(5),
+            Duration.ofSeconds(30),
+            Duration.ofSeconds(5));
+    keyCache.update(new JWKSet(signingKey.toPublicJWK()));
+    verifier = new JwtVerifier(keyCache, Duration.ofSeconds(60), 100);
+  }
+
+  @Test
+  void testVerifiesTokenSignedByKnownKey() throws Exception {
+    String token = sign(signingKey, "test-user", new Date(System.currentTimeMillis() + 3600000));
+
+    JWTClaimsSet claims = verifier.verify(token);
+
+    assertThat(claims.getSubject()).isEqualTo("test-user");
+  }
+
+  @Test
+  void testVerifiesTokenSignedByEd25519Key() throws Exception {
+    KeyPair keyPair = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+    byte[] publicKey = keyPair.getPublic().getEncoded();
+    OctetKeyPair jwk =
+        new OctetKeyPair.Builder(
+                Curve.Ed25519,
+                Base64URL.encode(
+                    Arrays.copyOfRange(publicKey, publicKey.length - 32, publicKey.length)))
+            .keyID("key-ed")
+            .build();
+    keyCache.update(new JWKSet(jwk));
+    JWTClaimsSet claims =
+        new JWTClaimsSet.Builder()
+            .subject("test-user")
+            .expirationTime(new Date(System.currentTimeMillis() + 3600000))
+            .build();
+    SignedJWT jwt =
+        new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.EdDSA).keyID("key-ed").build(), claims);
+    Signature signature = Signature.getInstance("Ed25519");
+    signature.initSign(keyPair.getPrivate());
+    signature.update(jwt.getSigningInput());
+    String token =
+        jwt.getHeader().toBase64URL()
+            + "."
+            + jwt.getPayload().toBase64URL()
+            + "."
+            + Base64URL.encode(signature.sign());
+
+    assertThat(verifier.verify(token).getSubject()).isEqualTo("test-user");
+  }
+
+  @Test
+  void testMemoizesVerifiedToken() throws Exception {
+    String token = sign(signingKey, "test-user", new Date(System.currentTimeMillis() + 3600000));
+    verifier.verify(token);
+
+    // Once verified, the token no longer needs the key that signed it
+    keyCache.update(new JWKSet());
+
+    assertThat(verifier.verify(token).getSubject()).isEqualTo("test-user");
+  }
+
+  @Test
+  void testRejectsTokenSignedByDifferentKey() throws Exception {
+    RSAKey otherKey = new RSAKeyGenerator(2048).keyID("key-1").generate();
+    String token = sign(otherKey, "test-user", new Date(System.currentTimeMillis() + 3600000));
+
+    assertThatThrownBy(() -> verifier.verify(token))
+        .isInstanceOf(JwtVerificationException.class)
+        .hasMessageContaining("signature");
+  }
+
+  @Test
+  void testRejectsTokenWithUnknownKeyId() throws Exception {
+    RSAKey otherKey = new RSAKeyGenerator(2048).keyID("key-2").generate();
+    String token = sign(otherKey, "test-user", new Date(System.currentTimeMillis() + 3600000));
+
+    assertThatThrownBy(() -> verifier.verify(token))
+        .isInstanceOf(JwtVerificationException.class)
+        .hasMessageContaining("key-2");
+  }
+
+  @Test
+  void testRejectsExpiredToken() throws Exception {
+    String token = sign(signingKey, "test-user", new Date(System.currentTimeMillis() - 120000));
+
+    assertThatThrownBy(() -> verifier.verify(token))
+        .isInstanceOf(JwtVerificationException.class)
+        .hasMessageContaining("expired");
+  }
+
+  @Test
+  void testRejectsTokenWithoutExpiry() throws Exception {
+    String token = sign(signingKey, "test-user", null);
+
+    assertThatThrownBy(() -> verifier.verify(token)).isInstanceOf(JwtVerificationException.class);
+  }
+
+  @Test
+  void testRejectsHmacTokenPresentingRsaKeyId() throws Exception {
+    JWTClaimsSet claims =
+        new JWTClaimsSet.Builder()
+            .subject("test-user")
+            .expirationTime(new Date(System.currentTimeMillis() + 3600000))
+            .build();
+    SignedJWT jwt =
+        new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.HS256).keyID("key-1").build(), claims);
+    jwt.sign(new MACSigner(SECRET.getBytes()));
+
+    assertThatThrownBy(() -> verifier.verify(jwt.serialize()))
+        .isInstanceOf(JwtVerificationException.class)
+        .hasMessageContaining("HS256");
+  }
+
+  @Test
+  void testRejectsMalformedToken() {
+    assertThatThrownBy(() -> verifier.verify("invalid.jwt.token"))
+        .isInstanceOf(JwtVerificationException.class);
+  }
+
+  private static String sign(RSAKey key, String subject, Date expirationTime) throws JOSEException {
+    JWTClaimsSet claims =
+        new JWTClaimsSet.Builder()
+            .subject(subject)
+            .claim("access_token", "downstream-access-token-xyz")
+            .issueTime(new Date())
+            .expirationTime(expirationTime)
+            .build();
+    SignedJWT jwt =
+        new SignedJWT(
+            new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(), claims);
+    jwt.sign(new RSASSASigner(key));
+    return jwt.serialize();
+  }
+}
@@ -0,0 +1,230 @@
+package org.garethjevans.chained.auth.gateway.token;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.garethjevans.chained.auth.gateway.token.PhantomTokenResolver.Resolution;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+class PhantomTokenResolverTest {
+
+  private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+
+  private final AtomicLong nanos = new AtomicLong();
+  private final AtomicInteger lookups = new AtomicInteger();
+
+  @Test
+  void testRecognisesReferenceTokens() {
+    assertThat(PhantomTokenResolver.isReferenceToken("abc_DEF-123")).isTrue();
+    assertThat(PhantomTokenResolver.isReferenceToken("header.payload.signature")).isFalse();
+    assertThat(PhantomTokenResolver.isReferenceToken("")).isFalse();
+  }
+
+  @Test
+  void testResolvesActiveTokenCappedAtMaximumTimeToLive() throws Exception {
+    PhantomTokenResolver resolver =
+        newResolver(
+            token -> {
+              lookups.incrementAndGet();
+              return new Resolution("user-a", "gho_upstream", NOW.plusSeconds(300));
+            });
+
+    Resolution resolution = resolver.resolve("reference-a");
+
+    assertThat(resolution).isNotNull();
+    assertThat(resolution.subject()).isEqualTo("user-a");
+    assertThat(resolution.accessToken()).isEqualTo("gho_upstream");
+    assertThat(resolution.expiresAt()).isEqualTo(NOW.plusSeconds(30));
+    assertThat(resolver.getActive()).isEqualTo(1);
+  }
+
+  @Test
+  void testKeepsEarlierTokenExpiry() throws Exception {
+    PhantomTokenResolver resolver =
+        newResolver(token -> new Resolution("user-a", "gho_upstream", NOW.plusSeconds(10)));
+
+    Resolution resolution = resolver.resolve("reference-a");
+
+    assertThat(resolution).isNotNull();
+    assertThat(resolution.expiresAt()).isEqualTo(NOW.plusSeconds(10));
+  }
+
+  @Test
+  void testRemembersInactiveTokensForNegativeTimeToLive() throws Exception {
+    PhantomTokenResolver resolver =
+        newResolver(
+            token -> {
+              lookups.incrementAndGet();
+              return null;
+            });
+
+    assertThat(resolver.resolve("revoked")).isNull();
+    assertThat(resolver.resolve("revoked")).isNull();
+    assertThat(lookups).hasValue(1);
+    assertThat(resolver.getRejectedHits()).isEqualTo(1);
+
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(31));
+    assertThat(resolver.resolve("revoked")).isNull();
+    assertThat(lookups).hasValue(2);
+  }
+
+  @Test
+  void testTreatsExpiredTokenAsInactive() throws Exception {
+    PhantomTokenResolver resolver =
+        newResolver(token -> new Resolution("user-a", "gho_upstream", NOW.minusSeconds(1)));
+
+    assertThat(resolver.resolve("expired")).isNull();
+    assertThat(resolver.getInactive()).isEqualTo(1);
+  }
+
+  @Test
+  void testLookupFailureIsNotRemembered() throws Exception {
+    PhantomTokenResolver resolver =
+        newResolver(
+            token -> {
+              if (lookups.incrementAndGet() == 1) {
+                throw new IOException("Connection refused");
+              }
+              return new Resolution("user-a", "gho_upstream", null);
+            });
+
+    assertThatThrownBy(() -> resolver.resolve("reference-a"))
+        .isInstanceOf(PhantomTokenException.class)
+        .hasRootCauseMessage("Connection refused");
+    assertThat(resolver.resolve("reference-a")).isNotNull();
+    assertThat(resolver.getErrors()).isEqualTo(1);
+  }
+
+  @Test
+  void testConcurrentResolutionsShareOneLookup() throws Exception {
+    CountDownLatch lookupStarted = new CountDownLatch(1);
+    CountDownLatch releaseLookup = new CountDownLatch(1);
+    PhantomTokenResolver resolver =
+        newResolver(
+            token -> {
+              lookups.incrementAndGet();
+              lookupStarted.countDown();
+              releaseLookup.await(5, TimeUnit.SECONDS);
+              return new Resolution("user-a", "gho_upstream", null);
+            });
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Resolution>> results = new ArrayList<>();
+      results.add(executor.submit(() -> resolver.resolve("reference-a")));
+      assertThat(lookupStarted.await(5, TimeUnit.SECONDS)).isTrue();
+      for (int i = 0; i < 3; i++) {
+        results.add(executor.submit(() -> resolver.resolve("reference-a")));
+      }
+      while (resolver.getCollapsed() < 3) {
+        Thread.onSpinWait();
+      }
+      releaseLookup.countDown();
+
+      for (Future<Resolution> result : results) {
+        assertThat(result.get(5, TimeUnit.SECONDS).accessToken()).isEqualTo("gho_upstream");
+      }
+      assertThat(lookups).hasValue(1);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void testIntrospectsTokenAtAuthAdapter() throws Exception {
+    List<String> requests = new ArrayList<>();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext(
+        "/oauth2/introspect",
+        exchange -> {
+          String form =
+              new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+          requests.add(
+              exchange.getRequestHeaders().getFirst(HttpHeaders.AUTHORIZATION)
+                  + " "
+                  + URLDecoder.decode(form, StandardCharsets.UTF_8));
+          String body =
+              form.contains("token=reference-a")
+                  ? "{\"active\":true,\"sub\":\"user-a\",\"access_token\":\"gho_upstream\","
+                      + "\"exp\":"
+                      + Instant.now().plusSeconds(300).getEpochSecond()
+                      + "}"
+                  : "{\"active\":false}";
+          byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().set(HttpHeaders.CONTENT_TYPE, "application/json");
+          exchange.sendResponseHeaders(200, bytes.length);
+          exchange.getResponseBody().write(bytes);
+          exchange.close();
+        });
+    server.start();
+    try {
+      PhantomTokenResolver resolver =
+          new PhantomTokenResolver(
+              URI.create(
+                  "http://127.0.0.1:" + server.getAddress().getPort() + "/oauth2/introspect"),
+              "gateway",
+              "gateway-secret",
+              Duration.ofSeconds(2),
+              Duration.ofSeconds(30),
+              Duration.ofSeconds(30),
+              100);
+
+      Resolution resolution = resolver.resolve("reference-a");
+
+      assertThat(resolution).isNotNull();
+      assertThat(resolution.subject()).isEqualTo("user-a");
+      assertThat(resolution.accessToken()).isEqualTo("gho_upstream");
+      assertThat(resolver.resolve("unknown")).isNull();
+      assertThat(requests)
+          .first()
+          .asString()
+          .startsWith("Basic Z2F0ZXdheTpnYXRld2F5LXNlY3JldA==")
+          .contains("token=reference-a");
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  private PhantomTokenResolver newResolver(PhantomTokenResolver.Lookup lookup) {
+    Clock clock =
+        new Clock() {
+          @Override
+          public ZoneId getZone() {
+            return ZoneOffset.UTC;
+          }
+
+          @Override
+          public Clock withZone(ZoneId zone) {
+            return this;
+          }
+
+          @Override
+          public Instant instant() {
+            return NOW.plusNanos(nanos.get());
+          }
+        };
+    return new PhantomTokenResolver(
+        lookup, Duration.ofSeconds(30), Duration.ofSeconds(30), 100, clock, nanos::get);
+  }
+}
@@ -0,0 +1,132 @@
+package org.garethjevans.chained.auth.gateway.upstream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class CircuitBreakerTest {
+
+  private final AtomicLong nanos = new AtomicLong();
+
+  private final CircuitBreaker breaker =
+      new CircuitBreaker("test-route", 10, 4, 0.5, Duration.ofSeconds(10), 2, nanos::get);
+
+  @Test
+  void testStaysClosedBelowMinimumNumberOfCalls() {
+    record(3, true);
+
+    assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    assertThat(breaker.tryAcquire()).isNotNull();
+  }
+
+  @Test
+  void testOpensAtFailureRateThreshold() {
+    record(2, false);
+    record(1, true);
+    assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+    record(1, true);
+
+    assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    assertThat(breaker.tryAcquire()).isNull();
+    assertThat(breaker.getRejected()).isEqualTo(1);
+    assertThat(breaker.getRemainingWait()).isEqualTo(Duration.ofSeconds(10));
+  }
+
+  @Test
+  void testOldOutcomesLeaveTheWindow() {
+    record(3, false);
+    record(1, true);
+    record(6, false);
+    record(3, true);
+
+    // Only the last ten calls count: three failures out of ten, not four out of thirteen
+    assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    record(2, true);
+
+    // Five out of the last ten
+    assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+  }
+
+  @Test
+  void testHalfOpenProbesCloseCircuit() {
+    record(4, true);
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+    CircuitBreaker.Permit first = breaker.tryAcquire();
+    CircuitBreaker.Permit second = breaker.tryAcquire();
+    assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+    assertThat(first).isNotNull();
+    assertThat(second).isNotNull();
+    // Only the permitted number of probes are let through
+    assertThat(breaker.tryAcquire()).isNull();
+
+    first.release(false);
+    second.release(false);
+
+    assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    assertThat(breaker.tryAcquire()).isNotNull();
+  }
+
+  @Test
+  void testFailedProbeReopensCircuit() {
+    record(4, true);
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+    CircuitBreaker.Permit probe = breaker.tryAcquire();
+    assertThat(probe).isNotNull();
+    probe.release(true);
+
+    assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    assertThat(breaker.tryAcquire()).isNull();
+  }
+
+  @Test
+  void testCallsFromBeforeTransitionAreIgnored() {
+    CircuitBreaker.Permit stale = breaker.tryAcquire();
+    record(4, true);
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    CircuitBreaker.Permit probe = breaker.tryAcquire();
+
+    // A failure from a call let through while closed must not reopen the circuit
+    stale.release(true);
+
+    assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+    assertThat(probe).isNotNull();
+  }
+
+  @Test
+  void testPublishesStateAndRejections() {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    breaker.bindTo(registry);
+    record(4, true);
+    breaker.tryAcquire();
+
+    assertThat(
+            registry
+                .get("gateway.circuit-breaker.state")
+                .tags("route", "test-route", "state", "open")
+                .gauge()
+                .value())
+        .isEqualTo(1.0);
+    assertThat(
+            registry
+                .get("gateway.circuit-breaker.state")
+                .tags("route", "test-route", "state", "closed")
+                .gauge()
+                .value())
+        .isZero();
+    assertThat(registry.get("gateway.circuit-breaker.rejected").functionCounter().count())
+        .isEqualTo(1.0);
+  }
+
+  private void record(int calls, boolean failed) {
+    for (int i = 0; i < calls; i++) {
+      breaker.tryAcquire().release(failed);
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package org.garethjevans.chained.auth.gateway.upstream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class RetryBudgetTest {
+
+  private final AtomicLong nanos = new AtomicLong();
+
+  @Test
+  void testDepositsAllowRetriesInProportionToRequests() {
+    RetryBudget budget = new RetryBudget(0.2, 0, 100, nanos::get);
+
+    assertThat(budget.tryWithdraw()).isFalse();
+    for (int i = 0; i < 10; i++) {
+      budget.deposit();
+    }
+
+    assertThat(budget.tryWithdraw()).isTrue();
+    assertThat(budget.tryWithdraw()).isTrue();
+    assertThat(budget.tryWithdraw()).isFalse();
+    assertThat(budget.getRetries()).isEqualTo(2);
+    assertThat(budget.getExhausted()).isEqualTo(2);
+  }
+
+  @Test
+  void testReserveRefillsOverTime() {
+    RetryBudget budget = new RetryBudget(0, 2, 100, nanos::get);
+
+    // A new budget starts with ten seconds of reserve
+    for (int i = 0; i < 20; i++) {
+      assertThat(budget.tryWithdraw()).isTrue();
+    }
+    assertThat(budget.tryWithdraw()).isFalse();
+
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+
+    assertThat(budget.tryWithdraw()).isTrue();
+    assertThat(budget.tryWithdraw()).isTrue();
+    assertThat(budget.tryWithdraw()).isFalse();
+  }
+
+  @Test
+  void testBalanceIsCapped() {
+    RetryBudget budget = new RetryBudget(1, 0, 5, nanos::get);
+
+    for (int i = 0; i < 100; i++) {
+      budget.deposit();
+    }
+
+    assertThat(budget.getBalance()).isEqualTo(5.0);
+  }
+}
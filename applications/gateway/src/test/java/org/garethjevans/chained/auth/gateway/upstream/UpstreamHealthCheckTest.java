@@ -0,0 +1,97 @@
+package org.garethjevans.chained.auth.gateway.upstream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class UpstreamHealthCheckTest {
+
+  private static final URI A = URI.create("http://mcp-a:8084");
+  private static final URI B = URI.create("http://mcp-b:8084");
+
+  private final UpstreamPool pool =
+      new UpstreamPool(
+          "test-route",
+          List.of(A, B),
+          UpstreamPool.Strategy.LEAST_OUTSTANDING,
+          5,
+          Duration.ofSeconds(10),
+          Duration.ofSeconds(30),
+          Duration.ofMinutes(5),
+          0.5);
+
+  private final Set<URI> failing = new HashSet<>();
+  private final List<URI> probed = new ArrayList<>();
+
+  private final UpstreamHealthCheck healthCheck =
+      new UpstreamHealthCheck(
+          pool,
+          uri -> {
+            probed.add(uri);
+            if (uri.getHost().equals("mcp-b") && failing.contains(B)) {
+              throw new IllegalStateException("Connection refused");
+            }
+            return !failing.contains(URI.create(uri.getScheme() + "://" + uri.getAuthority()));
+          },
+          "/actuator/health",
+          Duration.ofSeconds(10),
+          2,
+          3);
+
+  @Test
+  void testProbesHealthPathOfEachInstance() {
+    healthCheck.checkAll();
+
+    assertThat(probed)
+        .containsExactly(
+            URI.create("http://mcp-a:8084/actuator/health"),
+            URI.create("http://mcp-b:8084/actuator/health"));
+  }
+
+  @Test
+  void testInstanceIsUnhealthyAfterConsecutiveFailures() {
+    UpstreamPool.Instance a = pool.getInstances().get(0);
+    failing.add(A);
+
+    healthCheck.checkAll();
+    healthCheck.checkAll();
+    assertThat(a.isHealthy()).isTrue();
+
+    healthCheck.checkAll();
+    assertThat(a.isHealthy()).isFalse();
+    assertThat(pool.getInstances().get(1).isHealthy()).isTrue();
+  }
+
+  @Test
+  void testProbeExceptionCountsAsFailure() {
+    failing.add(B);
+
+    for (int i = 0; i < 3; i++) {
+      healthCheck.checkAll();
+    }
+
+    assertThat(pool.getInstances().get(1).isHealthy()).isFalse();
+  }
+
+  @Test
+  void testInstanceRecoversAfterConsecutiveSuccesses() {
+    UpstreamPool.Instance a = pool.getInstances().get(0);
+    failing.add(A);
+    for (int i = 0; i < 3; i++) {
+      healthCheck.checkAll();
+    }
+    failing.clear();
+
+    healthCheck.checkAll();
+    assertThat(a.isHealthy()).isFalse();
+
+    healthCheck.checkAll();
+    assertThat(a.isHealthy()).isTrue();
+  }
+}
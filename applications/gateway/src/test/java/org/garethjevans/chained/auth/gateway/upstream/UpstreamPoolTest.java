@@ -0,0 +1,211 @@
+package org.garethjevans.chained.auth.gateway.upstream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class UpstreamPoolTest {
+
+  private static final URI A = URI.create("http://mcp-a:8084");
+  private static final URI B = URI.create("http://mcp-b:8084");
+  private static final URI C = URI.create("http://mcp-c:8084");
+
+  private final AtomicLong nanos = new AtomicLong();
+
+  private UpstreamPool pool(UpstreamPool.Strategy strategy, double maxEjectionRatio, URI... uris) {
+    return new UpstreamPool(
+        "test-route",
+        List.of(uris),
+        strategy,
+        3,
+        Duration.ofSeconds(1),
+        Duration.ofSeconds(30),
+        Duration.ofMinutes(2),
+        maxEjectionRatio,
+        nanos::get);
+  }
+
+  @Test
+  void testLeastOutstandingPicksLeastLoadedInstance() {
+    UpstreamPool pool = pool(UpstreamPool.Strategy.LEAST_OUTSTANDING, 0.5, A, B, C);
+
+    Set<URI> chosen = new HashSet<>();
+    for (int i = 0; i < 3; i++) {
+      chosen.add(pool.choose().getUri());
+    }
+
+    // Each instance holds one outstanding request before any gets a second
+    assertThat(chosen).containsExactlyInAnyOrder(A, B, C);
+    assertThat(pool.getInstances()).allMatch(instance -> instance.getOutstanding() == 1);
+  }
+
+  @Test
+  void testPowerOfTwoChoicesAvoidsBusyInstance() {
+    UpstreamPool pool = pool(UpstreamPool.Strategy.POWER_OF_TWO_CHOICES, 0.5, A, B);
+    UpstreamPool.Instance busy = pool.getInstances().get(0);
+    for (int i = 0; i < 5; i++) {
+      busy.acquire();
+    }
+
+    for (int i = 0; i < 20; i++) {
+      UpstreamPool.Instance instance = pool.choose();
+      assertThat(instance.getUri()).isEqualTo(B);
+      instance.release(0, false);
+    }
+  }
+
+  @Test
+  void testReleaseTracksOutstandingRequests() {
+    UpstreamPool pool = pool(UpstreamPool.Strategy.POWER_OF_TWO_CHOICES, 0.5, A);
+
+    UpstreamPool.Instance instance = pool.choose();
+    assertThat(instance.getOutstanding()).isEqualTo(1);
+
+    instance.release(TimeUnit.MILLISECONDS.toNanos(5), false);
+    assertThat(instance.getOutstanding()).isZero();
+    assertThat(instance.getRequests()).isEqualTo(1);
+  }
+
+  @Test
+  void testConsecutiveFailuresEjectInstance() {
+    UpstreamPool pool = pool(UpstreamPool.Strategy.LEAST_OUTSTANDING, 0.5, A, B);
+    UpstreamPool.Instance a = pool.getInstances().get(0);
+
+    fail(a, 2);
+    assertThat(a.isEjected()).isFalse();
+    fail(a, 1);
+    assertThat(a.isEjected()).isTrue();
+
+    for (int i = 0; i < 10; i++) {
+      UpstreamPool.Instance instance = pool.choose();
+      assertThat(instance.getUri()).isEqualTo(B);
+      instance.release(0, false);
+    }
+
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(30));
+    assertThat(a.isEjected()).isFalse();
+  }
+
+  @Test
+  void testSlowResponsesCountAsFailures() {
+    UpstreamPool pool = pool(UpstreamPool.Strategy.LEAST_OUTSTANDING, 0.5, A, B);
+    UpstreamPool.Instance a = pool.getInstances().get(0);
+
+    for (int i = 0; i < 3; i++) {
+      a.acquire();
+      a.release(TimeUnit.SECONDS.toNanos(2), false);
+    }
+
+    assertThat(a.isEjected()).isTrue();
+  }
+
+  @Test
+  void testSuccessResetsFailureCount() {
+    UpstreamPool pool = pool(UpstreamPool.Strategy.LEAST_OUTSTANDING, 0.5, A, B);
+    UpstreamPool.Instance a = pool.getInstances().get(0);
+
+    fail(a, 2);
+    a.acquire();
+    a.release(0, false);
+    fail(a, 2);
+
+    assertThat(a.isEjected()).isFalse();
+  }
+
+  @Test
+  void testRepeatedEjectionsBackOff() {
+    UpstreamPool pool = pool(UpstreamPool.Strategy.LEAST_OUTSTANDING, 0.5, A, B);
+    UpstreamPool.Instance a = pool.getInstances().get(0);
+
+    fail(a, 3);
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(30));
+    fail(a, 3);
+
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(59));
+    assertThat(a.isEjected()).isTrue();
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertThat(a.isEjected()).isFalse();
+    assertThat(a.getEjections()).isEqualTo(2);
+  }
+
+  @Test
+  void testEjectionRatioKeepsInstancesInRotation() {
+    UpstreamPool pool = pool(UpstreamPool.Strategy.LEAST_OUTSTANDING, 0.5, A, B);
+    UpstreamPool.Instance a = pool.getInstances().get(0);
+    UpstreamPool.Instance b = pool.getInstances().get(1);
+
+    fail(a, 3);
+    fail(b, 3);
+
+    assertThat(a.isEjected()).isTrue();
+    assertThat(b.isEjected()).isFalse();
+  }
+
+  @Test
+  void testFallsBackToAllInstancesWhenNoneAvailable() {
+    UpstreamPool pool = pool(UpstreamPool.Strategy.POWER_OF_TWO_CHOICES, 0.5, A, B);
+    pool.getInstances().forEach(instance -> instance.setHealthy(false));
+
+    UpstreamPool.Instance instance = pool.choose();
+
+    assertThat(instance.getUri()).isIn(A, B);
+  }
+
+  @Test
+  void testUnhealthyInstancesAreSkipped() {
+    UpstreamPool pool = pool(UpstreamPool.Strategy.POWER_OF_TWO_CHOICES, 0.5, A, B, C);
+    pool.getInstances().get(0).setHealthy(false);
+    pool.getInstances().get(1).setHealthy(false);
+
+    for (int i = 0; i < 10; i++) {
+      UpstreamPool.Instance instance = pool.choose();
+      assertThat(instance.getUri()).isEqualTo(C);
+      instance.release(0, false);
+    }
+  }
+
+  @Test
+  void testPublishesMeters() {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    UpstreamPool pool = pool(UpstreamPool.Strategy.LEAST_OUTSTANDING, 0.5, A, B);
+    pool.bindTo(registry);
+
+    pool.choose();
+    fail(pool.getInstances().get(1), 3);
+
+    assertThat(
+            registry
+                .get("gateway.upstream.available")
+                .tags("route", "test-route", "instance", B.toString())
+                .gauge()
+                .value())
+        .isZero();
+    assertThat(
+            registry
+                .get("gateway.upstream.ejections")
+                .tags("route", "test-route", "instance", B.toString())
+                .functionCounter()
+                .count())
+        .isEqualTo(1);
+    assertThat(
+            registry.get("gateway.upstream.outstanding").gauges().stream()
+                .mapToDouble(gauge -> gauge.value())
+                .sum())
+        .isEqualTo(1);
+  }
+
+  private static void fail(UpstreamPool.Instance instance, int times) {
+    for (int i = 0; i < times; i++) {
+      instance.acquire();
+      instance.release(0, true);
+    }
+  }
+}
@@ -1,11 +1,14 @@
 package org.garethjevans.chained.auth.githubmcp.config;
 
 import org.garethjevans.chained.auth.githubmcp.tool.GitHubTools;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.reactive.function.client.WebClient;
 
 @Configuration
+@EnableConfigurationProperties(McpServerConfig.GitHubProperties.class)
 public class McpServerConfig {
 
   @Bean
@@ -14,7 +17,23 @@ public class McpServerConfig {
   }
 
   @Bean
-  public GitHubTools gitHubTools(WebClient.Builder webClientBuilder) {
-    return new GitHubTools(webClientBuilder);
+  public GitHubTools gitHubTools(WebClient.Builder webClientBuilder, GitHubProperties properties) {
+    return new GitHubTools(webClientBuilder, properties.getApiUrl());
+  }
+
+  /** Settings for the GitHub API, bound from the {@code github} prefix. */
+  @ConfigurationProperties(prefix = "github")
+  public static class GitHubProperties {
+
+    /** Base URL of the GitHub REST API, overridden to point at a stand-in in load tests. */
+    private String apiUrl = "https://api.github.com";
+
+    public String getApiUrl() {
+      return apiUrl;
+    }
+
+    public void setApiUrl(String apiUrl) {
+      this.apiUrl = apiUrl;
+    }
   }
 }
@@ -16,10 +16,10 @@ public class GitHubTools {
 
   private final WebClient webClient;
 
-  public GitHubTools(WebClient.Builder webClientBuilder) {
+  public GitHubTools(WebClient.Builder webClientBuilder, String baseUrl) {
     this.webClient =
         webClientBuilder
-            .baseUrl("https://api.github.com")
+            .baseUrl(baseUrl)
             .defaultHeader("Accept", "application/vnd.github+json")
             .defaultHeader("X-GitHub-Api-Version", "2022-11-28")
             .build();
@@ -80,7 +80,7 @@ public class HomeController {
    * @param token the JWT token string
    * @return a map of claims from the token payload
    */
-  private Map<String, Object> decodeJwtClaims(String token) {
+  Map<String, Object> decodeJwtClaims(String token) {
     Map<String, Object> claims = new LinkedHashMap<>();
 
     try {
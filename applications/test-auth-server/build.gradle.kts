@@ -4,6 +4,9 @@ plugins {
 }
 
 dependencies {
+    // Verified token cache
+    implementation(project(":libraries:jose"))
+
     // Spring Boot Starters
     implementation(libs.spring.boot.starter.web)
     implementation(libs.spring.boot.starter.security)
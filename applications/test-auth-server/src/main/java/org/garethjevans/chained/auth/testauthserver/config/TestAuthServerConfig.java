@@ -10,6 +10,9 @@ import java.security.KeyPairGenerator;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
 import java.util.UUID;
+import org.garethjevans.chained.auth.jose.CachingJwtDecoder;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.annotation.Order;
@@ -40,7 +43,8 @@ import org.springframework.security.web.util.matcher.MediaTypeRequestMatcher;
  * OAuth2/OIDC server with hardcoded test users.
  */
 @Configuration
-@EnableWebSecurity(debug = true)
+@EnableWebSecurity
+@EnableConfigurationProperties(TestAuthServerConfig.TestAuthServerProperties.class)
 public class TestAuthServerConfig {
 
   @Bean
@@ -152,13 +156,37 @@ public class TestAuthServerConfig {
     return keyPair;
   }
 
+  /**
+   * Decodes bearer tokens with the keys in {@link #jwkSource()} rather than by fetching the
+   * server's own JWK Set endpoint, which is not being served yet while the server starts.
+   */
   @Bean
   public JwtDecoder jwtDecoder(JWKSource<SecurityContext> jwkSource) {
-    return NimbusJwtDecoder.withJwkSetUri("http://127.0.0.1:9001/oauth2/jwks").build();
+    return new CachingJwtDecoder(NimbusJwtDecoder.withJwkSource(jwkSource).build(), 10_000);
   }
 
   @Bean
-  public AuthorizationServerSettings authorizationServerSettings() {
-    return AuthorizationServerSettings.builder().issuer("http://127.0.0.1:9001").build();
+  public AuthorizationServerSettings authorizationServerSettings(
+      TestAuthServerProperties properties) {
+    return AuthorizationServerSettings.builder().issuer(properties.getIssuer()).build();
+  }
+
+  /** Settings for the test auth server, bound from the {@code test-auth-server} prefix. */
+  @ConfigurationProperties(prefix = "test-auth-server")
+  public static class TestAuthServerProperties {
+
+    /**
+     * Issuer identifier, which must match the URL the server is reached on. Override it when the
+     * server runs on another port, for example in load tests.
+     */
+    private String issuer = "http://127.0.0.1:9001";
+
+    public String getIssuer() {
+      return issuer;
+    }
+
+    public void setIssuer(String issuer) {
+      this.issuer = issuer;
+    }
   }
 }
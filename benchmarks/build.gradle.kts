@@ -0,0 +1,89 @@
+plugins {
+    id("java.conventions")
+    alias(libs.plugins.jmh)
+}
+
+dependencies {
+    // Code under test
+    implementation(project(":applications:gateway"))
+    implementation(project(":applications:auth-adapter"))
+    implementation(project(":applications:test-app"))
+    implementation(project(":libraries:event-log"))
+    implementation(project(":libraries:gateway-core"))
+
+    // Spring MVC functional API and servlet mocks used to build requests
+    implementation(libs.spring.boot.starter.web)
+    implementation("org.springframework:spring-test")
+
+    // Token generation in the authorization server, and the metrics its audit log binds to
+    implementation(libs.spring.boot.starter.oauth2.authorization.server)
+    implementation("io.micrometer:micrometer-core")
+
+    // JWT support
+    implementation("com.nimbusds:nimbus-jose-jwt:10.9")
+
+    // Reading JMH results for the baseline comparison
+    implementation("com.fasterxml.jackson.core:jackson-databind")
+}
+
+// Compares the latest `jmh` run with the results committed in baseline/results.json
+tasks.register<JavaExec>("jmhCompare") {
+    group = "benchmark"
+    description = "Compares the latest JMH results with the committed baseline."
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.garethjevans.chained.auth.benchmarks.BaselineComparison")
+    args(file("baseline/results.json"), layout.buildDirectory.file("results/jmh/results.json").get().asFile)
+}
+
+// Head-to-head of the servlet and reactive gateways: streaming connections held per GB of heap
+tasks.register<JavaExec>("heldConnections") {
+    group = "benchmark"
+    description = "Compares the heap each held MCP stream costs the servlet and reactive gateways."
+    dependsOn(":applications:gateway:bootJar", ":applications:gateway-reactive:bootJar")
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.garethjevans.chained.auth.gatewayreactive.HeldConnectionsBenchmark")
+    args(
+        rootProject.file("applications/gateway/build/libs/gateway.jar"),
+        rootProject.file("applications/gateway-reactive/build/libs/gateway-reactive.jar"),
+        providers.gradleProperty("connections").getOrElse("2000"),
+        providers.gradleProperty("maxHeap").getOrElse("1g"),
+    )
+}
+
+// Runtime classpaths of the applications the chain load test starts, each in its own class loader
+val loadTestClasspaths =
+    listOf("test-auth-server", "auth-adapter", "gateway", "github-mcp-server").associateWith { app ->
+        configurations.create("loadTest-$app") {
+            isCanBeConsumed = false
+            attributes {
+                attribute(Usage.USAGE_ATTRIBUTE, objects.named(Usage.JAVA_RUNTIME))
+            }
+        }.also { dependencies.add(it.name, project(":applications:$app")) }
+    }
+
+// End-to-end load test: virtual users through login, token issuance and MCP tool calls
+tasks.register<JavaExec>("loadTest") {
+    group = "benchmark"
+    description = "Drives concurrent users through the whole chain and reports latency per phase."
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.garethjevans.chained.auth.loadtest.ChainLoadTest")
+    maxHeapSize = "2g"
+    loadTestClasspaths.forEach { (app, configuration) ->
+        inputs.files(configuration)
+        jvmArgumentProviders.add(
+            CommandLineArgumentProvider { listOf("-Dloadtest.classpath.$app=${configuration.asPath}") }
+        )
+    }
+    args(
+        providers.gradleProperty("users").getOrElse("1,4,16,64"),
+        providers.gradleProperty("rounds").getOrElse("5"),
+        providers.gradleProperty("calls").getOrElse("20"),
+    )
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    // Report allocation rates alongside timings
+    profilers.add("gc")
+    resultFormat.set("JSON")
+}
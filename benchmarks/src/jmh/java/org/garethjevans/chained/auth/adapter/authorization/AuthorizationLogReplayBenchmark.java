@@ -0,0 +1,153 @@
+package org.garethjevans.chained.auth.adapter.authorization;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.garethjevans.chained.auth.adapter.config.PocOAuth2AuthorizationCodeRequestAuthenticationProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.security.oauth2.server.authorization.OAuth2Authorization;
+import org.springframework.security.oauth2.server.authorization.OAuth2AuthorizationCode;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Measures how long the auth-adapter takes to restart when its {@link
+ * PersistentOAuth2AuthorizationService} log holds {@code authorizations} issued authorizations.
+ * {@code timeToReady} opens the log, replays it and indexes what it restores, which is all that
+ * happens before the adapter serves requests; {@code timeToReadAll} also reads every restored
+ * authorization, as the background warm-up does after startup. Holding a million read
+ * authorizations takes more than the heap the benchmark forks with, so {@code timeToReadAll} stops
+ * at 100,000.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class AuthorizationLogReplayBenchmark {
+
+  private static final Instant NOW = Instant.now();
+
+  @Benchmark
+  public PersistentOAuth2AuthorizationService timeToReady(StoredLog log) {
+    return log.open();
+  }
+
+  @Benchmark
+  public int timeToReadAll(SmallerStoredLog log) {
+    return log.open().readAll();
+  }
+
+  @State(Scope.Benchmark)
+  public static class StoredLog extends Log {
+
+    @Param({"100000", "1000000"})
+    private int authorizations;
+
+    @Override
+    int authorizations() {
+      return authorizations;
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class SmallerStoredLog extends Log {
+
+    @Param({"100000"})
+    private int authorizations;
+
+    @Override
+    int authorizations() {
+      return authorizations;
+    }
+  }
+
+  /** A log of {@code authorizations} issued authorizations in a temporary directory. */
+  abstract static class Log {
+
+    private Path directory;
+    private Path path;
+    private PersistentOAuth2AuthorizationService service;
+
+    abstract int authorizations();
+
+    @Setup(Level.Trial)
+    public void writeLog() throws IOException {
+      directory = Files.createTempDirectory("authorization-log");
+      path = directory.resolve("authorizations.log");
+      RegisteredClient client =
+          RegisteredClient.withId("client-id")
+              .clientId("client")
+              .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+              .redirectUri("http://127.0.0.1:8080/login/oauth2/code/auth-adapter")
+              .build();
+      try (AuthorizationLog log =
+          new AuthorizationLog(path, AuthorizationLog.DEFAULT_REGION_SIZE)) {
+        log.replay(NOW);
+        for (int i = 0; i < authorizations(); i++) {
+          log.saved(ShardedOAuth2AuthorizationService.Entry.of(issued(client, i)));
+        }
+      }
+    }
+
+    PersistentOAuth2AuthorizationService open() {
+      service =
+          new PersistentOAuth2AuthorizationService(
+              path, Duration.ofSeconds(1), Duration.ofMinutes(5));
+      return service;
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() throws IOException {
+      service.close();
+      service = null;
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteLog() throws IOException {
+      FileSystemUtils.deleteRecursively(directory);
+    }
+  }
+
+  private static OAuth2Authorization issued(RegisteredClient client, int i) {
+    return OAuth2Authorization.withRegisteredClient(client)
+        .id("authorization-" + i)
+        .principalName("user-" + i)
+        .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+        .authorizedScopes(Set.of("openid", "profile"))
+        .attribute(OAuth2ParameterNames.STATE, "state-" + i)
+        .attribute(
+            PocOAuth2AuthorizationCodeRequestAuthenticationProvider.ACCESS_TOKEN_KEY,
+            "gho_upstream-" + i)
+        .token(new OAuth2AuthorizationCode("code-" + i, NOW, NOW.plusSeconds(300)))
+        .accessToken(
+            new OAuth2AccessToken(
+                OAuth2AccessToken.TokenType.BEARER,
+                "access-" + i,
+                NOW,
+                NOW.plusSeconds(300),
+                Set.of("openid", "profile")))
+        .refreshToken(new OAuth2RefreshToken("refresh-" + i, NOW, NOW.plus(Duration.ofDays(1))))
+        .build();
+  }
+}
@@ -0,0 +1,121 @@
+package org.garethjevans.chained.auth.adapter.authorization;
+
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.garethjevans.chained.auth.adapter.config.PocOAuth2AuthorizationCodeRequestAuthenticationProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.security.oauth2.server.authorization.InMemoryOAuth2AuthorizationService;
+import org.springframework.security.oauth2.server.authorization.OAuth2Authorization;
+import org.springframework.security.oauth2.server.authorization.OAuth2AuthorizationCode;
+import org.springframework.security.oauth2.server.authorization.OAuth2AuthorizationService;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenType;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+
+/**
+ * Measures the authorization store calls on the auth-adapter's hot paths while {@code
+ * liveAuthorizations} issued authorizations are held: {@code attachUpstreamToken} is what {@link
+ * PocOAuth2AuthorizationCodeRequestAuthenticationProvider} does for every authorization, and {@code
+ * findByAccessToken} is what introspection and revocation do.
+ *
+ * <p>{@code in-memory} is Spring Authorization Server's {@link InMemoryOAuth2AuthorizationService},
+ * updated with {@code findByToken} and {@code save}; {@code sharded} is {@link
+ * ShardedOAuth2AuthorizationService}, updated with {@code updateAttributes}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthorizationServiceBenchmark {
+
+  private static final OAuth2TokenType CODE = new OAuth2TokenType(OAuth2ParameterNames.CODE);
+  private static final Instant NOW = Instant.now();
+
+  @Param({"in-memory", "sharded"})
+  private String implementation;
+
+  @Param({"1000", "100000"})
+  private int liveAuthorizations;
+
+  private OAuth2AuthorizationService service;
+  private String code;
+
+  @Setup
+  public void setUp() {
+    service =
+        "sharded".equals(implementation)
+            ? new ShardedOAuth2AuthorizationService()
+            : new InMemoryOAuth2AuthorizationService();
+
+    RegisteredClient client =
+        RegisteredClient.withId("client-id")
+            .clientId("client")
+            .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+            .redirectUri("http://127.0.0.1:8080/login/oauth2/code/auth-adapter")
+            .build();
+    for (int i = 0; i < liveAuthorizations; i++) {
+      service.save(
+          authorization(client, i)
+              .accessToken(
+                  new OAuth2AccessToken(
+                      OAuth2AccessToken.TokenType.BEARER, "access-" + i, NOW, NOW.plusSeconds(300)))
+              .build());
+    }
+    // The authorization the code was just issued for, waiting for its upstream token
+    service.save(authorization(client, liveAuthorizations).build());
+    code = "code-" + liveAuthorizations;
+  }
+
+  private static OAuth2Authorization.Builder authorization(RegisteredClient client, int i) {
+    return OAuth2Authorization.withRegisteredClient(client)
+        .id("authorization-" + i)
+        .principalName("user-" + i)
+        .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+        .authorizedScopes(Set.of("openid", "profile"))
+        .token(new OAuth2AuthorizationCode("code-" + i, NOW, NOW.plusSeconds(300)));
+  }
+
+  @Benchmark
+  public OAuth2Authorization attachUpstreamToken() {
+    String upstreamToken = "gho_" + ThreadLocalRandom.current().nextInt();
+    if (service instanceof UpdatableOAuth2AuthorizationService updatable) {
+      return updatable.updateAttributes(
+          code,
+          CODE,
+          attributes ->
+              attributes.put(
+                  PocOAuth2AuthorizationCodeRequestAuthenticationProvider.ACCESS_TOKEN_KEY,
+                  upstreamToken));
+    }
+    OAuth2Authorization authorization =
+        OAuth2Authorization.from(service.findByToken(code, CODE))
+            .attribute(
+                PocOAuth2AuthorizationCodeRequestAuthenticationProvider.ACCESS_TOKEN_KEY,
+                upstreamToken)
+            .build();
+    service.save(authorization);
+    return authorization;
+  }
+
+  @Benchmark
+  public OAuth2Authorization findByAccessToken() {
+    int i = ThreadLocalRandom.current().nextInt(liveAuthorizations);
+    return service.findByToken("access-" + i, OAuth2TokenType.ACCESS_TOKEN);
+  }
+}
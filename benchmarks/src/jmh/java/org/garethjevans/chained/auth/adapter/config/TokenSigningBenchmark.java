@@ -0,0 +1,142 @@
+package org.garethjevans.chained.auth.adapter.config;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.garethjevans.chained.auth.adapter.keys.KeyRingJwtEncoder;
+import org.garethjevans.chained.auth.adapter.keys.SigningKeyRing;
+import org.garethjevans.chained.auth.logging.EventLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.authorization.OAuth2Authorization;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenType;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.security.oauth2.server.authorization.context.AuthorizationServerContext;
+import org.springframework.security.oauth2.server.authorization.settings.AuthorizationServerSettings;
+import org.springframework.security.oauth2.server.authorization.token.DefaultOAuth2TokenContext;
+import org.springframework.security.oauth2.server.authorization.token.JwtGenerator;
+import org.springframework.security.oauth2.server.authorization.token.OAuth2TokenContext;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Measures minting a proxy token the way the authorization server does: a {@link JwtGenerator} that
+ * signs with the auth-adapter's default signing key ring and runs {@link PocAuthTokenCustomizer} to
+ * embed the upstream GitHub token, which also switches access tokens to ES256. {@code
+ * generateUncustomized} signs the same claims without the customizer, and so with the RS256 the
+ * authorization server asks for.
+ *
+ * <p>{@code scopes} sets the number of authorized scopes; 2, 64 and 320 scopes give tokens of about
+ * 1 KB, 2 KB and 6 KB, the same sizes the gateway benchmarks use.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenSigningBenchmark {
+
+  private static final String ISSUER = "http://127.0.0.1:9000";
+
+  @Param({"2", "64", "320"})
+  private int scopes;
+
+  private Path keyDirectory;
+  private EventLogger eventLogger;
+  private JwtGenerator generator;
+  private JwtGenerator uncustomizedGenerator;
+  private OAuth2TokenContext context;
+
+  @Setup
+  public void setUp() throws IOException {
+    eventLogger = new EventLogger("benchmark", 10_000, Map.of(), 1.0);
+    eventLogger.start();
+
+    SigningKeyConfig.SigningKeyProperties keyProperties =
+        new SigningKeyConfig.SigningKeyProperties();
+    keyDirectory = Files.createTempDirectory("signing-keys");
+    keyProperties.setPath(keyDirectory.resolve("signing-keys.json"));
+    SigningKeyRing keyRing = new SigningKeyConfig().signingKeyRing(keyProperties);
+    KeyRingJwtEncoder encoder = new KeyRingJwtEncoder(keyRing);
+    generator = new JwtGenerator(encoder);
+    generator.setJwtCustomizer(new PocAuthTokenCustomizer(eventLogger, keyRing));
+    uncustomizedGenerator = new JwtGenerator(encoder);
+
+    RegisteredClient client =
+        ClientRegistrationConfig.configuredClients(new PhantomTokenConfig.PhantomTokenProperties())
+            .get(0);
+    Set<String> authorizedScopes = new LinkedHashSet<>(List.of("openid", "profile"));
+    for (int i = authorizedScopes.size(); i < scopes; i++) {
+      authorizedScopes.add(String.format("repo:%04d", i));
+    }
+    OAuth2Authorization authorization =
+        OAuth2Authorization.withRegisteredClient(client)
+            .principalName("octocat")
+            .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+            .authorizedScopes(authorizedScopes)
+            .attribute(
+                PocOAuth2AuthorizationCodeRequestAuthenticationProvider.ACCESS_TOKEN_KEY,
+                "gho_" + "a".repeat(36))
+            .build();
+    AuthorizationServerSettings settings =
+        AuthorizationServerSettings.builder().issuer(ISSUER).build();
+    context =
+        DefaultOAuth2TokenContext.builder()
+            .registeredClient(client)
+            .principal(
+                UsernamePasswordAuthenticationToken.authenticated("octocat", null, List.of()))
+            .authorizationServerContext(
+                new AuthorizationServerContext() {
+                  @Override
+                  public String getIssuer() {
+                    return ISSUER;
+                  }
+
+                  @Override
+                  public AuthorizationServerSettings getAuthorizationServerSettings() {
+                    return settings;
+                  }
+                })
+            .authorization(authorization)
+            .authorizedScopes(authorizedScopes)
+            .tokenType(OAuth2TokenType.ACCESS_TOKEN)
+            .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+            .build();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    eventLogger.stop();
+    FileSystemUtils.deleteRecursively(keyDirectory);
+  }
+
+  @Benchmark
+  public String generate() {
+    Jwt jwt = generator.generate(context);
+    return jwt.getTokenValue();
+  }
+
+  @Benchmark
+  public String generateUncustomized() {
+    Jwt jwt = uncustomizedGenerator.generate(context);
+    return jwt.getTokenValue();
+  }
+}
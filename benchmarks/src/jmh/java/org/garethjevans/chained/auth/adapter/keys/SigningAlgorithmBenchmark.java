@@ -0,0 +1,110 @@
+package org.garethjevans.chained.auth.adapter.keys;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jwt.SignedJWT;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.garethjevans.chained.auth.gateway.token.JwksKeyCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.oauth2.jwt.JwsHeader;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Compares the cost of each {@link SigningAlgorithm} at both ends of a proxy token: {@code sign}
+ * mints one with the auth-adapter's {@link KeyRingJwtEncoder}, and {@code verify} checks its
+ * signature with the verifier the gateway builds from the published key set. The claims are those
+ * of a proxy token with two scopes, so the difference between algorithms is the signature itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SigningAlgorithmBenchmark {
+
+  @Param({"RS256", "ES256", "ED25519"})
+  private SigningAlgorithm algorithm;
+
+  private Path keyDirectory;
+  private KeyRingJwtEncoder encoder;
+  private JwtEncoderParameters parameters;
+  private SignedJWT token;
+  private JWSVerifier verifier;
+
+  @Setup
+  public void setUp() throws IOException, ParseException {
+    keyDirectory = Files.createTempDirectory("signing-keys");
+    SigningKeyRing keyRing =
+        new SigningKeyRing(
+            keyDirectory.resolve("signing-keys.json"),
+            List.of(algorithm),
+            Duration.ofDays(30),
+            Duration.ofHours(1),
+            Duration.ofDays(1));
+    encoder = new KeyRingJwtEncoder(keyRing);
+    Instant issuedAt = Instant.now();
+    parameters =
+        JwtEncoderParameters.from(
+            JwsHeader.with(KeyRingJwtEncoder.jwsAlgorithm(algorithm)).build(),
+            JwtClaimsSet.builder()
+                .subject("octocat")
+                .issuer("http://127.0.0.1:9000")
+                .audience(List.of("mcp-client"))
+                .notBefore(issuedAt)
+                .issuedAt(issuedAt)
+                .expiresAt(issuedAt.plus(Duration.ofMinutes(5)))
+                .id(UUID.randomUUID().toString())
+                .claim("scope", List.of("openid", "profile"))
+                .claim("access_token", "gho_" + "a".repeat(36))
+                .build());
+    token = SignedJWT.parse(sign());
+
+    JwksKeyCache keyCache =
+        new JwksKeyCache(
+            URI.create("http://127.0.0.1:9000/oauth2/jwks"),
+            Duration.ofMinutes(5),
+            Duration.ofSeconds(30),
+            Duration.ofSeconds(5));
+    keyCache.update(new JWKSet(keyRing.keys()).toPublicJWKSet());
+    verifier = keyCache.getKey(token.getHeader().getKeyID()).verifier();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    FileSystemUtils.deleteRecursively(keyDirectory);
+  }
+
+  @Benchmark
+  public String sign() {
+    return encoder.encode(parameters).getTokenValue();
+  }
+
+  @Benchmark
+  public boolean verify() throws JOSEException {
+    return verifier.verify(token.getHeader(), token.getSigningInput(), token.getSignature());
+  }
+}
@@ -0,0 +1,116 @@
+package org.garethjevans.chained.auth.adapter.registration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.ClientAuthenticationMethod;
+import org.springframework.security.oauth2.server.authorization.client.InMemoryRegisteredClientRepository;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClientRepository;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Measures finding a client by client id, as every authorization and token request does, among
+ * {@code clients} registered clients. {@code cached} looks up the same few clients, which stay in
+ * the {@link PersistentRegisteredClientRepository} cache; {@code uncached} looks up clients at
+ * random, nearly all of which are read from the log; {@code inMemory} is Spring Authorization
+ * Server's repository holding every client in memory, for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class RegisteredClientLookupBenchmark {
+
+  private static final int CACHE_SIZE = 1_000;
+
+  @Benchmark
+  public RegisteredClient cached(Clients clients) {
+    return clients.persistent.findByClientId(
+        clientId(ThreadLocalRandom.current().nextInt(CACHE_SIZE / 10)));
+  }
+
+  @Benchmark
+  public RegisteredClient uncached(Clients clients) {
+    return clients.persistent.findByClientId(
+        clientId(ThreadLocalRandom.current().nextInt(clients.clients)));
+  }
+
+  @Benchmark
+  public RegisteredClient inMemory(Clients clients) {
+    return clients.inMemory.findByClientId(
+        clientId(ThreadLocalRandom.current().nextInt(clients.clients)));
+  }
+
+  private static String clientId(int i) {
+    return "client-" + i;
+  }
+
+  @State(Scope.Benchmark)
+  public static class Clients {
+
+    @Param({"100000"})
+    private int clients;
+
+    private Path directory;
+    private PersistentRegisteredClientRepository persistent;
+    private RegisteredClientRepository inMemory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+      directory = Files.createTempDirectory("clients");
+      persistent =
+          new PersistentRegisteredClientRepository(
+              directory.resolve("clients.log"),
+              List.of(),
+              CACHE_SIZE,
+              Duration.ofDays(90),
+              Duration.ofSeconds(1),
+              Duration.ofMinutes(5));
+      RegisteredClient[] registered = new RegisteredClient[clients];
+      for (int i = 0; i < clients; i++) {
+        registered[i] = client(i);
+        persistent.save(registered[i]);
+      }
+      inMemory = new InMemoryRegisteredClientRepository(registered);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+      persistent.close();
+      FileSystemUtils.deleteRecursively(directory);
+    }
+
+    private static RegisteredClient client(int i) {
+      return RegisteredClient.withId("id-" + i)
+          .clientId(clientId(i))
+          .clientName("Cursor")
+          .clientAuthenticationMethod(ClientAuthenticationMethod.NONE)
+          .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+          .authorizationGrantType(AuthorizationGrantType.REFRESH_TOKEN)
+          .redirectUri("cursor://anysphere.cursor-mcp/oauth/callback")
+          .scope("openid")
+          .scope("profile")
+          .build();
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package org.garethjevans.chained.auth.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares a JMH run with the committed baseline, {@code benchmarks/baseline/results.json}.
+ *
+ * <p>Results are matched by benchmark and parameters. A change is flagged when the score intervals
+ * (score plus or minus the 99.9% error) of the two runs do not overlap, so noise on a shared
+ * machine is not reported as a regression. Allocations per operation from the {@code gc} profiler
+ * are compared alongside the timings. Benchmarks that only appear in one of the runs are listed so
+ * new benchmarks can be added to the baseline.
+ *
+ * <p>Run with {@code ./gradlew :benchmarks:jmh :benchmarks:jmhCompare}.
+ */
+public final class BaselineComparison {
+
+  private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  private BaselineComparison() {}
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: BaselineComparison <baseline.json> <results.json>");
+      System.exit(2);
+    }
+    Map<String, JsonNode> baseline = read(new File(args[0]));
+    Map<String, JsonNode> current = read(new File(args[1]));
+
+    System.out.printf(
+        "%-70s %22s %22s %9s %12s %12s%n",
+        "Benchmark", "Baseline", "Current", "Change", "Base B/op", "Curr B/op");
+    int regressions = 0;
+    for (Map.Entry<String, JsonNode> entry : current.entrySet()) {
+      JsonNode before = baseline.get(entry.getKey());
+      if (before == null) {
+        continue;
+      }
+      JsonNode after = entry.getValue();
+      JsonNode beforeScore = before.path("primaryMetric");
+      JsonNode afterScore = after.path("primaryMetric");
+      double change =
+          (afterScore.path("score").asDouble() - beforeScore.path("score").asDouble())
+              / beforeScore.path("score").asDouble();
+      String verdict = verdict(beforeScore, afterScore, isHigherBetter(after));
+      if ("regressed".equals(verdict)) {
+        regressions++;
+      }
+      System.out.printf(
+          "%-70s %22s %22s %+8.1f%% %12s %12s %s%n",
+          entry.getKey(),
+          format(beforeScore),
+          format(afterScore),
+          change * 100,
+          allocation(before),
+          allocation(after),
+          verdict);
+    }
+
+    for (String key : current.keySet()) {
+      if (!baseline.containsKey(key)) {
+        System.out.println("Not in baseline: " + key);
+      }
+    }
+    for (String key : baseline.keySet()) {
+      if (!current.containsKey(key)) {
+        System.out.println("Not run: " + key);
+      }
+    }
+    System.out.printf("%d regression(s) against the baseline%n", regressions);
+  }
+
+  private static Map<String, JsonNode> read(File file) throws IOException {
+    Map<String, JsonNode> results = new TreeMap<>();
+    for (JsonNode result : objectMapper.readTree(file)) {
+      results.put(key(result), result);
+    }
+    return results;
+  }
+
+  private static String key(JsonNode result) {
+    Map<String, String> params = new LinkedHashMap<>();
+    result.path("params").properties().forEach(p -> params.put(p.getKey(), p.getValue().asText()));
+    String benchmark = result.path("benchmark").asText();
+    // Drop the package, the class and method name are enough to identify a benchmark
+    String name =
+        benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1);
+    return params.isEmpty() ? name : name + params;
+  }
+
+  private static boolean isHigherBetter(JsonNode result) {
+    String mode = result.path("mode").asText();
+    return "thrpt".equals(mode);
+  }
+
+  private static String verdict(JsonNode before, JsonNode after, boolean higherIsBetter) {
+    double beforeLow = before.path("score").asDouble() - error(before);
+    double beforeHigh = before.path("score").asDouble() + error(before);
+    double afterLow = after.path("score").asDouble() - error(after);
+    double afterHigh = after.path("score").asDouble() + error(after);
+    if (afterLow > beforeHigh) {
+      return higherIsBetter ? "improved" : "regressed";
+    }
+    if (afterHigh < beforeLow) {
+      return higherIsBetter ? "regressed" : "improved";
+    }
+    return "";
+  }
+
+  private static double error(JsonNode metric) {
+    // The error is NaN when a benchmark ran a single iteration
+    double error = metric.path("scoreError").asDouble();
+    return Double.isNaN(error) ? 0 : error;
+  }
+
+  private static String format(JsonNode metric) {
+    return String.format(
+        "%.1f +- %.1f %s",
+        metric.path("score").asDouble(), error(metric), metric.path("scoreUnit").asText());
+  }
+
+  private static String allocation(JsonNode result) {
+    JsonNode metric = result.path("secondaryMetrics").path(ALLOCATION);
+    return metric.isMissingNode() ? "-" : String.format("%.0f", metric.path("score").asDouble());
+  }
+}
@@ -0,0 +1,89 @@
+package org.garethjevans.chained.auth.benchmarks;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Creates JWTs shaped like the proxy tokens minted by the auth-adapter, padded with extra scopes to
+ * a target serialized size.
+ *
+ * <p>Benchmarks take the size as a {@code tokenBytes} parameter so hot paths that scale with the
+ * token are measured at the sizes seen in practice: about 1 KB is what the auth-adapter issues
+ * today, an RS256 token with two scopes, and 6 KB approaches the 8 KB request-header limit of
+ * Tomcat and Netty.
+ */
+public final class ProxyTokens {
+
+  private static final RSAKey SIGNING_KEY = generateKey();
+
+  private ProxyTokens() {}
+
+  /**
+   * Creates a signed proxy token of roughly the given size. The token is never smaller than the
+   * base claim set and exceeds the target by less than one scope.
+   *
+   * @param targetBytes the serialized size to pad the token to
+   * @param expiresAt the expiry of the token
+   * @return the compact serialization of the token
+   */
+  public static String create(int targetBytes, Instant expiresAt) {
+    String token = sign(expiresAt, 0);
+    if (token.length() >= targetBytes) {
+      return token;
+    }
+    // Scopes are all the same length, so the size grows linearly with their number
+    int probeScopes = 16;
+    double bytesPerScope =
+        (sign(expiresAt, probeScopes).length() - token.length()) / (double) probeScopes;
+    return sign(expiresAt, (int) Math.ceil((targetBytes - token.length()) / bytesPerScope));
+  }
+
+  private static String sign(Instant expiresAt, int extraScopes) {
+    List<String> scopes = new ArrayList<>(List.of("openid", "profile"));
+    for (int i = 0; i < extraScopes; i++) {
+      scopes.add(String.format("repo:%04d", i));
+    }
+    Instant issuedAt = expiresAt.minusSeconds(300);
+    JWTClaimsSet claims =
+        new JWTClaimsSet.Builder()
+            .subject("octocat")
+            .issuer("http://127.0.0.1:9000")
+            .audience(List.of("mcp-client"))
+            .notBeforeTime(Date.from(issuedAt))
+            .issueTime(Date.from(issuedAt))
+            .expirationTime(Date.from(expiresAt))
+            .jwtID(UUID.randomUUID().toString())
+            .claim("scope", scopes)
+            .claim("access_token", "gho_" + "a".repeat(36))
+            .build();
+    SignedJWT jwt =
+        new SignedJWT(
+            new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(SIGNING_KEY.getKeyID()).build(),
+            claims);
+    try {
+      jwt.sign(new RSASSASigner(SIGNING_KEY));
+    } catch (JOSEException ex) {
+      throw new IllegalStateException("Unable to sign proxy token", ex);
+    }
+    return jwt.serialize();
+  }
+
+  private static RSAKey generateKey() {
+    try {
+      return new RSAKeyGenerator(2048).keyID(UUID.randomUUID().toString()).generate();
+    } catch (JOSEException ex) {
+      throw new IllegalStateException("Unable to generate signing key", ex);
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.HandlerFunction;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.servlet.function.ServerResponse;
+
+/**
+ * Measures {@link AuthenticationRequiredFilter} on both of its paths: {@code challenge} answers a
+ * request without credentials with the cached 401 challenge, {@code authenticated} lets a request
+ * with a bearer token through to the next handler. The check only looks at whether the header is
+ * present, so its cost does not depend on the size of the token.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthenticationRequiredBenchmark {
+
+  private HandlerFilterFunction<ServerResponse, ServerResponse> filter;
+  private HandlerFunction<ServerResponse> next;
+  private ServerRequest anonymousRequest;
+  private ServerRequest authenticatedRequest;
+
+  @Setup
+  public void setUp() {
+    filter = AuthenticationRequiredFilter.requireAuthentication();
+    ServerResponse ok = ServerResponse.ok().build();
+    next = request -> ok;
+
+    anonymousRequest = mcpRequest(null);
+    authenticatedRequest = mcpRequest("Bearer " + "a".repeat(1024));
+  }
+
+  private static ServerRequest mcpRequest(String authorization) {
+    MockHttpServletRequest servletRequest = new MockHttpServletRequest("POST", "/mcp");
+    servletRequest.setServerName("gateway.example.com");
+    servletRequest.setServerPort(8080);
+    if (authorization != null) {
+      servletRequest.addHeader(HttpHeaders.AUTHORIZATION, authorization);
+    }
+    servletRequest.addHeader(HttpHeaders.ACCEPT, "application/json, text/event-stream");
+    servletRequest.addHeader(HttpHeaders.CONTENT_TYPE, "application/json");
+    return ServerRequest.create(servletRequest, Collections.<HttpMessageConverter<?>>emptyList());
+  }
+
+  @Benchmark
+  public HttpHeaders challenge() throws Exception {
+    return filter.filter(anonymousRequest, next).headers();
+  }
+
+  @Benchmark
+  public HttpHeaders authenticated() throws Exception {
+    return filter.filter(authenticatedRequest, next).headers();
+  }
+}
@@ -0,0 +1,142 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.garethjevans.chained.auth.benchmarks.ProxyTokens;
+import org.garethjevans.chained.auth.gateway.core.token.JwtClaimsExtractor;
+import org.garethjevans.chained.auth.gateway.core.token.TokenSwapCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.function.ServerRequest;
+
+/**
+ * Compares the bearer-token swap in {@link JwtTokenModifierFilter} with the implementation it
+ * replaced: a full Nimbus parse to read the claims and {@code ServerRequest.from(request)} to
+ * rewrite the Authorization header. Each pair of benchmarks covers one half of the hot path, and
+ * {@code legacySwap}/{@code swapOnCacheMiss}/{@code swapOnCacheHit} cover the whole filter. Every
+ * benchmark ends by reading the outbound headers, as the proxy does. Tokens are sized by {@code
+ * tokenBytes}, see {@link ProxyTokens}.
+ *
+ * <p>Run with {@code ./gradlew :benchmarks:jmh}; the {@code gc} profiler reports allocations per
+ * operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtTokenModifierBenchmark {
+
+  private static final String BEARER_PREFIX = "Bearer ";
+
+  @Param({"1024", "2048", "6144"})
+  private int tokenBytes;
+
+  private String token;
+  private ServerRequest request;
+  private ServerRequest expiredRequest;
+  private Function<ServerRequest, ServerRequest> filter;
+
+  @Setup
+  public void setUp() {
+    token = ProxyTokens.create(tokenBytes, Instant.now().plus(Duration.ofHours(1)));
+    request = mcpRequest(token);
+    // Expired proxy tokens are never cached, so every call takes the decode path
+    expiredRequest =
+        mcpRequest(ProxyTokens.create(tokenBytes, Instant.now().minus(Duration.ofHours(1))));
+
+    filter =
+        JwtTokenModifierFilter.modifyBearerToken(new TokenSwapCache(1_000, Duration.ofMinutes(5)));
+  }
+
+  private static ServerRequest mcpRequest(String token) {
+    MockHttpServletRequest servletRequest = new MockHttpServletRequest("POST", "/mcp");
+    servletRequest.addHeader(HttpHeaders.AUTHORIZATION, BEARER_PREFIX + token);
+    servletRequest.addHeader(HttpHeaders.ACCEPT, "application/json, text/event-stream");
+    servletRequest.addHeader(HttpHeaders.CONTENT_TYPE, "application/json");
+    servletRequest.addHeader("Mcp-Session-Id", "8f1c6a2e-2b7d-4c55-9c0e-3f2d1a7b9e10");
+    return ServerRequest.create(servletRequest, Collections.<HttpMessageConverter<?>>emptyList());
+  }
+
+  @Benchmark
+  public Object nimbusClaims() throws ParseException {
+    JWTClaimsSet claims = SignedJWT.parse(token).getJWTClaimsSet();
+    return new Object[] {
+      claims.getStringClaim("sub"),
+      claims.getStringClaim("access_token"),
+      claims.getExpirationTime()
+    };
+  }
+
+  @Benchmark
+  public Object extractorClaims() throws ParseException {
+    return JwtClaimsExtractor.extract(token);
+  }
+
+  @Benchmark
+  public HttpHeaders copyRequestHeader() {
+    return ServerRequest.from(request)
+        .headers(
+            httpHeaders -> {
+              httpHeaders.remove(HttpHeaders.AUTHORIZATION);
+              httpHeaders.add(HttpHeaders.AUTHORIZATION, "Bearer upstream");
+            })
+        .build()
+        .headers()
+        .asHttpHeaders();
+  }
+
+  @Benchmark
+  public HttpHeaders overrideRequestHeader() {
+    return HeaderOverridingServerRequest.withHeader(
+            request, HttpHeaders.AUTHORIZATION, "Bearer upstream")
+        .headers()
+        .asHttpHeaders();
+  }
+
+  @Benchmark
+  public HttpHeaders legacySwap() throws ParseException {
+    String authHeader = expiredRequest.headers().firstHeader(HttpHeaders.AUTHORIZATION);
+    JWTClaimsSet claims =
+        SignedJWT.parse(authHeader.substring(BEARER_PREFIX.length())).getJWTClaimsSet();
+    String accessToken = claims.getStringClaim("access_token");
+    return ServerRequest.from(expiredRequest)
+        .headers(
+            httpHeaders -> {
+              httpHeaders.remove(HttpHeaders.AUTHORIZATION);
+              httpHeaders.add(HttpHeaders.AUTHORIZATION, BEARER_PREFIX + accessToken);
+            })
+        .build()
+        .headers()
+        .asHttpHeaders();
+  }
+
+  @Benchmark
+  public HttpHeaders swapOnCacheMiss() {
+    return filter.apply(expiredRequest).headers().asHttpHeaders();
+  }
+
+  @Benchmark
+  public HttpHeaders swapOnCacheHit() {
+    return filter.apply(request).headers().asHttpHeaders();
+  }
+}
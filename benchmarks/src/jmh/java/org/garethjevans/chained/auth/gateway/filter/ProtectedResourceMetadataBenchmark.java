@@ -0,0 +1,80 @@
+package org.garethjevans.chained.auth.gateway.filter;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.function.HandlerFilterFunction;
+import org.springframework.web.servlet.function.HandlerFunction;
+import org.springframework.web.servlet.function.ServerRequest;
+import org.springframework.web.servlet.function.ServerResponse;
+
+/**
+ * Measures {@link ProtectedResourceMetadataFilter}: {@code serveDocument} answers a metadata
+ * request from the per-origin cache, {@code notModified} answers a conditional request with a 304,
+ * and {@code passThrough} is the cost added to every other request on the route.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtectedResourceMetadataBenchmark {
+
+  private static final String WELL_KNOWN_PATH = "/.well-known/oauth-protected-resource";
+
+  private HandlerFilterFunction<ServerResponse, ServerResponse> filter;
+  private HandlerFunction<ServerResponse> next;
+  private ServerRequest metadataRequest;
+  private ServerRequest conditionalRequest;
+  private ServerRequest mcpRequest;
+
+  @Setup
+  public void setUp() throws Exception {
+    filter = ProtectedResourceMetadataFilter.serveProtectedResourceMetadata();
+    ServerResponse ok = ServerResponse.ok().build();
+    next = request -> ok;
+
+    metadataRequest = request("GET", WELL_KNOWN_PATH, null);
+    String eTag = filter.filter(metadataRequest, next).headers().getETag();
+    conditionalRequest = request("GET", WELL_KNOWN_PATH, eTag);
+    mcpRequest = request("POST", "/mcp", null);
+  }
+
+  private static ServerRequest request(String method, String path, String ifNoneMatch) {
+    MockHttpServletRequest servletRequest = new MockHttpServletRequest(method, path);
+    servletRequest.setServerName("gateway.example.com");
+    servletRequest.setServerPort(8080);
+    if (ifNoneMatch != null) {
+      servletRequest.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+    }
+    return ServerRequest.create(servletRequest, Collections.<HttpMessageConverter<?>>emptyList());
+  }
+
+  @Benchmark
+  public HttpHeaders serveDocument() throws Exception {
+    return filter.filter(metadataRequest, next).headers();
+  }
+
+  @Benchmark
+  public HttpHeaders notModified() throws Exception {
+    return filter.filter(conditionalRequest, next).headers();
+  }
+
+  @Benchmark
+  public HttpHeaders passThrough() throws Exception {
+    return filter.filter(mcpRequest, next).headers();
+  }
+}
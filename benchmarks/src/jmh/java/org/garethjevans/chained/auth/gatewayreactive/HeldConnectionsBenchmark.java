@@ -0,0 +1,436 @@
+package org.garethjevans.chained.auth.gatewayreactive;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares how many long-lived MCP streams the servlet gateway and the reactive gateway can hold
+ * per GB of heap.
+ *
+ * <p>Each gateway's boot jar is started in its own JVM with the same maximum heap, in front of a
+ * stub MCP server that answers every call with a server-sent event and then keeps the stream open.
+ * Once the requested number of streams has been relayed through the gateway, a full GC is forced
+ * with {@code jcmd} and the live heap is read from the gateway's {@code jvm.memory.used} metric.
+ * The growth over the idle baseline is the heap cost of the held connections. Off-heap memory, such
+ * as Netty's direct buffers and platform thread stacks, is not counted, so the live thread count is
+ * reported alongside.
+ *
+ * <p>The servlet gateway's filters that the reactive gateway does not port are switched off, so
+ * both run the same authentication check and bearer-token swap on each request.
+ *
+ * <p>Run with {@code ./gradlew :benchmarks:heldConnections -Pconnections=2000}.
+ */
+public final class HeldConnectionsBenchmark {
+
+  private static final String LOOPBACK = "127.0.0.1";
+  private static final String SECRET = "ThisIsASecretKeyForBenchmarkingPurposesOnly12345";
+  private static final String HOLD_HEADER = "X-Benchmark-Hold";
+  private static final String ROUTE = "gateway.upstreams.github-mcp-server.";
+  private static final byte[] EVENT =
+      "event: message\ndata: {\"jsonrpc\":\"2.0\",\"method\":\"notifications/progress\"}\n\n"
+          .getBytes(StandardCharsets.UTF_8);
+  private static final Pattern METRIC_VALUE = Pattern.compile("\"value\"\\s*:\\s*([0-9.Ee+-]+)");
+
+  private static final int WARM_UP_STREAMS = 500;
+  private static final int MAX_CONCURRENT_OPENS = 128;
+  private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(2);
+  private static final Duration READ_TIMEOUT = Duration.ofSeconds(30);
+
+  private HeldConnectionsBenchmark() {}
+
+  /**
+   * Runs the comparison.
+   *
+   * @param args the servlet gateway jar, the reactive gateway jar, and optionally the number of
+   *     connections to hold (default 2000) and the maximum heap of each gateway (default 1g)
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      throw new IllegalArgumentException(
+          "Usage: HeldConnectionsBenchmark <gateway.jar> <gateway-reactive.jar> [connections]"
+              + " [max-heap]");
+    }
+    int connections = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+    String maxHeap = args.length > 3 ? args[3] : "1g";
+
+    List<String> tokens = new ArrayList<>(connections);
+    for (int i = 0; i < connections; i++) {
+      tokens.add(proxyToken("user-" + i));
+    }
+
+    List<Result> results =
+        List.of(
+            run("mvc", Path.of(args[0]), maxHeap, tokens, HeldConnectionsBenchmark::mvcProperties),
+            run("webflux", Path.of(args[1]), maxHeap, tokens, (upstream, held) -> List.of()));
+
+    System.out.printf(
+        "%n%-8s %6s %6s %10s %10s %9s %12s %14s%n",
+        "Gateway", "Held", "Failed", "Idle MB", "Loaded MB", "KB/conn", "Conns/GB", "Threads");
+    for (Result result : results) {
+      System.out.printf(
+          "%-8s %6d %6d %10.1f %10.1f %9.1f %12.0f %6d -> %5d%n",
+          result.variant(),
+          result.held(),
+          result.failed(),
+          result.idle().heapUsed() / 1_048_576.0,
+          result.loaded().heapUsed() / 1_048_576.0,
+          result.bytesPerConnection() / 1024.0,
+          result.connectionsPerGb(),
+          result.idle().liveThreads(),
+          result.loaded().liveThreads());
+    }
+  }
+
+  /** Settings that reduce the servlet gateway to the filters the reactive gateway ports. */
+  private static List<String> mvcProperties(String upstream, int connections) {
+    return List.of(
+        "--" + ROUTE + "health-check.enabled=false",
+        "--" + ROUTE + "circuit-breaker.enabled=false",
+        "--" + ROUTE + "max-connections=" + (connections + 100),
+        "--" + ROUTE + "read-timeout=10m",
+        "--server.tomcat.max-connections=" + (connections + 100),
+        "--gateway.concurrency-limit.enabled=false",
+        "--gateway.rate-limit.enabled=false",
+        "--gateway.response-cache.enabled=false",
+        "--gateway.retry.enabled=false",
+        "--gateway.event-log.enabled=false");
+  }
+
+  private static Result run(
+      String variant,
+      Path jar,
+      String maxHeap,
+      List<String> tokens,
+      VariantProperties variantProperties)
+      throws Exception {
+    if (!Files.isRegularFile(jar)) {
+      throw new IllegalArgumentException("Gateway jar not found: " + jar);
+    }
+    try (StubMcpServer upstream = new StubMcpServer();
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      int port = freePort();
+      List<String> command = new ArrayList<>();
+      command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+      command.add("-Xms" + maxHeap);
+      command.add("-Xmx" + maxHeap);
+      command.add("-XX:+UseG1GC");
+      command.add("-jar");
+      command.add(jar.toString());
+      command.add("--server.port=" + port);
+      command.add("--" + ROUTE + "instances[0]=" + upstream.uri());
+      command.add("--spring.main.banner-mode=off");
+      command.add("--logging.level.root=WARN");
+      command.addAll(variantProperties.properties(upstream.uri(), tokens.size()));
+
+      Path log = Path.of("build", "held-connections-" + variant + ".log");
+      Files.createDirectories(log.getParent());
+      Process gateway =
+          new ProcessBuilder(command)
+              .redirectErrorStream(true)
+              .redirectOutput(log.toFile())
+              .start();
+      HttpClient client = HttpClient.newHttpClient();
+      Queue<Socket> held = new ConcurrentLinkedQueue<>();
+      try {
+        awaitStartup(gateway, client, port, log);
+        System.out.printf("%s gateway started on port %d, log in %s%n", variant, port, log);
+
+        // Load classes and warm up both paths before taking the baseline
+        openStreams(
+            executor,
+            port,
+            tokens.subList(0, Math.min(WARM_UP_STREAMS, tokens.size())),
+            false,
+            new ConcurrentLinkedQueue<>());
+        Snapshot idle = snapshot(gateway, client, port);
+
+        Instant start = Instant.now();
+        int failed = openStreams(executor, port, tokens, true, held);
+        System.out.printf(
+            "%s gateway holding %d streams after %d ms (%d failed)%n",
+            variant, held.size(), Duration.between(start, Instant.now()).toMillis(), failed);
+        Snapshot loaded = snapshot(gateway, client, port);
+
+        return new Result(variant, held.size(), failed, idle, loaded);
+      } finally {
+        for (Socket socket : held) {
+          socket.close();
+        }
+        gateway.destroy();
+        if (!gateway.waitFor(30, TimeUnit.SECONDS)) {
+          gateway.destroyForcibly();
+        }
+      }
+    }
+  }
+
+  private static void awaitStartup(Process gateway, HttpClient client, int port, Path log)
+      throws Exception {
+    Instant deadline = Instant.now().plus(STARTUP_TIMEOUT);
+    HttpRequest health =
+        HttpRequest.newBuilder(URI.create("http://" + LOOPBACK + ":" + port + "/actuator/health"))
+            .build();
+    while (Instant.now().isBefore(deadline)) {
+      if (!gateway.isAlive()) {
+        throw new IllegalStateException("Gateway exited during startup, see " + log);
+      }
+      try {
+        if (client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+          return;
+        }
+      } catch (IOException ex) {
+        // Not listening yet
+      }
+      Thread.sleep(250);
+    }
+    throw new IllegalStateException("Gateway did not start within " + STARTUP_TIMEOUT);
+  }
+
+  /**
+   * Opens a stream through the gateway for each token, waiting until every one has relayed its
+   * first event. Held streams are added to {@code held}; the others are closed straight away.
+   *
+   * @return the number of streams that could not be opened
+   */
+  private static int openStreams(
+      ExecutorService executor, int port, List<String> tokens, boolean hold, Queue<Socket> held)
+      throws InterruptedException {
+    Semaphore opening = new Semaphore(MAX_CONCURRENT_OPENS);
+    CountDownLatch done = new CountDownLatch(tokens.size());
+    AtomicInteger failed = new AtomicInteger();
+    AtomicReference<Exception> firstFailure = new AtomicReference<>();
+    for (String token : tokens) {
+      opening.acquire();
+      executor.execute(
+          () -> {
+            try {
+              Socket socket = openStream(port, token, hold);
+              if (hold) {
+                held.add(socket);
+              } else {
+                socket.close();
+              }
+            } catch (IOException ex) {
+              failed.incrementAndGet();
+              firstFailure.compareAndSet(null, ex);
+            } finally {
+              opening.release();
+              done.countDown();
+            }
+          });
+    }
+    done.await();
+    if (firstFailure.get() != null) {
+      System.out.printf("First failure: %s%n", firstFailure.get());
+    }
+    return failed.get();
+  }
+
+  private static Socket openStream(int port, String token, boolean hold) throws IOException {
+    byte[] body =
+        "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"tools/call\",\"params\":{\"name\":\"watch\"}}"
+            .getBytes(StandardCharsets.UTF_8);
+    String head =
+        "POST /mcp HTTP/1.1\r\n"
+            + "Host: "
+            + LOOPBACK
+            + ":"
+            + port
+            + "\r\n"
+            + "Authorization: Bearer "
+            + token
+            + "\r\n"
+            + "Content-Type: application/json\r\n"
+            + "Accept: application/json, text/event-stream\r\n"
+            + HOLD_HEADER
+            + ": "
+            + hold
+            + "\r\n"
+            + "Content-Length: "
+            + body.length
+            + "\r\n\r\n";
+
+    Socket socket = new Socket(LOOPBACK, port);
+    try {
+      socket.setSoTimeout((int) READ_TIMEOUT.toMillis());
+      OutputStream out = socket.getOutputStream();
+      out.write(head.getBytes(StandardCharsets.US_ASCII));
+      out.write(body);
+      out.flush();
+
+      // The stream counts as held once its first event has made it through the gateway
+      BufferedReader in =
+          new BufferedReader(
+              new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      String status = in.readLine();
+      if (status == null || !status.startsWith("HTTP/1.1 200")) {
+        throw new IOException("Unexpected response: " + status);
+      }
+      for (String line = in.readLine(); ; line = in.readLine()) {
+        if (line == null) {
+          throw new IOException("Stream closed before the first event");
+        }
+        if (line.startsWith("data:")) {
+          return socket;
+        }
+      }
+    } catch (IOException ex) {
+      socket.close();
+      throw ex;
+    }
+  }
+
+  private static Snapshot snapshot(Process gateway, HttpClient client, int port) throws Exception {
+    // Collect twice so objects released by finalization-like cleanup are gone too
+    for (int i = 0; i < 2; i++) {
+      Process jcmd =
+          new ProcessBuilder(
+                  Path.of(System.getProperty("java.home"), "bin", "jcmd").toString(),
+                  Long.toString(gateway.pid()),
+                  "GC.run")
+              .redirectErrorStream(true)
+              .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+              .start();
+      if (jcmd.waitFor() != 0) {
+        throw new IllegalStateException("jcmd GC.run failed for pid " + gateway.pid());
+      }
+    }
+    return new Snapshot(
+        (long) metric(client, port, "jvm.memory.used?tag=area:heap"),
+        (int) metric(client, port, "jvm.threads.live"));
+  }
+
+  private static double metric(HttpClient client, int port, String metric) throws Exception {
+    HttpResponse<String> response =
+        client.send(
+            HttpRequest.newBuilder(
+                    URI.create("http://" + LOOPBACK + ":" + port + "/actuator/metrics/" + metric))
+                .build(),
+            HttpResponse.BodyHandlers.ofString());
+    Matcher value = METRIC_VALUE.matcher(response.body());
+    if (response.statusCode() != 200 || !value.find()) {
+      throw new IllegalStateException("Unable to read " + metric + ": " + response.body());
+    }
+    return Double.parseDouble(value.group(1));
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0, 0, InetAddress.getByName(LOOPBACK))) {
+      return socket.getLocalPort();
+    }
+  }
+
+  /** Creates a JWT shaped like the proxy tokens minted by the auth-adapter. */
+  private static String proxyToken(String subject) throws JOSEException {
+    JWTClaimsSet claims =
+        new JWTClaimsSet.Builder()
+            .subject(subject)
+            .issuer("http://127.0.0.1:9000")
+            .issueTime(new Date())
+            .expirationTime(Date.from(Instant.now().plus(Duration.ofHours(1))))
+            .claim("access_token", "gho_" + subject)
+            .build();
+    SignedJWT jwt = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claims);
+    jwt.sign(new MACSigner(SECRET.getBytes(StandardCharsets.UTF_8)));
+    return jwt.serialize();
+  }
+
+  @FunctionalInterface
+  private interface VariantProperties {
+    List<String> properties(String upstream, int connections);
+  }
+
+  private record Snapshot(long heapUsed, int liveThreads) {}
+
+  private record Result(String variant, int held, int failed, Snapshot idle, Snapshot loaded) {
+
+    double bytesPerConnection() {
+      return held == 0 ? Double.NaN : (loaded.heapUsed() - idle.heapUsed()) / (double) held;
+    }
+
+    double connectionsPerGb() {
+      return (1L << 30) / bytesPerConnection();
+    }
+  }
+
+  /**
+   * MCP server stand-in that answers every call with one server-sent event, then keeps the stream
+   * open until it is closed, unless the request asks for the stream to end straight away.
+   */
+  private static final class StubMcpServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    StubMcpServer() throws IOException {
+      server = HttpServer.create(new InetSocketAddress(LOOPBACK, 0), 1024);
+      server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+      server.createContext("/mcp", this::stream);
+      server.start();
+    }
+
+    String uri() {
+      return "http://" + LOOPBACK + ":" + server.getAddress().getPort();
+    }
+
+    private void stream(HttpExchange exchange) throws IOException {
+      exchange.getRequestBody().readAllBytes();
+      exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+      exchange.sendResponseHeaders(200, 0);
+      OutputStream body = exchange.getResponseBody();
+      body.write(EVENT);
+      body.flush();
+      if (Boolean.parseBoolean(exchange.getRequestHeaders().getFirst(HOLD_HEADER))) {
+        try {
+          released.await();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      exchange.close();
+    }
+
+    @Override
+    public void close() {
+      released.countDown();
+      server.stop(0);
+    }
+  }
+}
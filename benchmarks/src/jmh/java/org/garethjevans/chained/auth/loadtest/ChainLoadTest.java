@@ -0,0 +1,212 @@
+package org.garethjevans.chained.auth.loadtest;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.garethjevans.chained.auth.loadtest.LatencyRecorder.Phase;
+
+/**
+ * Load test of the whole chain: test-auth-server, auth-adapter, gateway and github-mcp-server run
+ * in this JVM, each from its own class loader and on a random port, in front of a {@link
+ * GitHubStandIn}. {@link VirtualUser}s go through login, token issuance and {@code /mcp} tool calls
+ * concurrently, and each phase is reported with its throughput and p50, p95 and p99 latency.
+ *
+ * <p>The test runs once for each number of concurrent users given, so the point where the chain
+ * saturates shows as throughput that stops growing while latency keeps climbing. Everything shares
+ * one machine, including the load generator, so the results locate the bottleneck rather than
+ * predict production capacity.
+ *
+ * <p>Rate limiting and response caching are switched off in the gateway: every virtual user logs in
+ * as the same test user, and both would otherwise stop tool calls from reaching the MCP server.
+ *
+ * <p>Run with {@code ./gradlew :benchmarks:loadTest -Pusers=1,4,16,64 -Prounds=5 -Pcalls=20}.
+ */
+public final class ChainLoadTest {
+
+  private static final String CLASSPATH_PROPERTY = "loadtest.classpath.";
+  private static final String ROUTE = "gateway.upstreams.github-mcp-server.";
+  private static final int WARM_UP_USERS = 4;
+  private static final int WARM_UP_ROUNDS = 2;
+
+  private ChainLoadTest() {}
+
+  /** The URLs of the running applications. */
+  record Chain(URI authServer, URI authAdapter, URI gateway, URI github) {}
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      System.err.println("Usage: ChainLoadTest <users,users,...> <rounds> <calls per round>");
+      System.exit(2);
+    }
+    int[] levels = Arrays.stream(args[0].split(",")).mapToInt(Integer::parseInt).toArray();
+    int rounds = Integer.parseInt(args[1]);
+    int calls = Integer.parseInt(args[2]);
+
+    List<IsolatedApplication> applications = new ArrayList<>();
+    try (GitHubStandIn github = new GitHubStandIn()) {
+      Chain chain = start(github, applications);
+      System.out.printf("Chain started: %s%n", chain);
+
+      // Let the JIT and connection pools settle before measuring
+      run(chain, WARM_UP_USERS, WARM_UP_ROUNDS, calls, new LatencyRecorder());
+
+      List<String> summary = new ArrayList<>();
+      for (int users : levels) {
+        LatencyRecorder recorder = new LatencyRecorder();
+        Duration elapsed = run(chain, users, rounds, calls, recorder);
+        System.out.printf(
+            "%n%d users, %d rounds of %d calls each, %.1f s%n",
+            users, rounds, calls, elapsed.toNanos() / 1e9);
+        recorder.print(System.out, elapsed);
+        summary.add(summarize(users, elapsed, recorder));
+      }
+
+      System.out.printf(
+          "%n%8s %12s %12s %12s %12s %8s%n",
+          "users", "flows/s", "mcp calls/s", "mcp p50 ms", "mcp p99 ms", "errors");
+      summary.forEach(System.out::println);
+      System.out.printf(
+          "%nGitHub stand-in: %d authorizations, %d token exchanges, %d user requests%n",
+          github.authorizations(), github.tokenExchanges(), github.userRequests());
+    } finally {
+      for (int i = applications.size() - 1; i >= 0; i--) {
+        applications.get(i).close();
+      }
+    }
+  }
+
+  private static Chain start(GitHubStandIn github, List<IsolatedApplication> applications)
+      throws IOException {
+    int authServerPort = freePort();
+    int mcpServerPort = freePort();
+    int authAdapterPort = freePort();
+    int gatewayPort = freePort();
+    String authServer = "http://127.0.0.1:" + authServerPort;
+
+    // The auth-adapter discovers the test-auth-server, so it has to be up first
+    Map<String, String> authServerProperties = common(authServerPort);
+    authServerProperties.put("test-auth-server.issuer", authServer);
+    applications.add(
+        start(
+            "test-auth-server",
+            "org.garethjevans.chained.auth.testauthserver.TestAuthServerApplication",
+            authServerProperties));
+
+    Map<String, String> mcpServerProperties = common(mcpServerPort);
+    mcpServerProperties.put("github.api-url", github.url());
+    applications.add(
+        start(
+            "github-mcp-server",
+            "org.garethjevans.chained.auth.githubmcp.GitHubMcpServerApplication",
+            mcpServerProperties));
+
+    String provider = "spring.security.oauth2.client.provider.";
+    Map<String, String> authAdapterProperties = common(authAdapterPort);
+    authAdapterProperties.put(provider + "test-auth-server.issuer-uri", authServer);
+    authAdapterProperties.put(
+        provider + "github.authorization-uri", github.url() + "/login/oauth/authorize");
+    authAdapterProperties.put(
+        provider + "github.token-uri", github.url() + "/login/oauth/access_token");
+    authAdapterProperties.put(provider + "github.user-info-uri", github.url() + "/user");
+    // A fresh authorization log, client log and signing key ring per run, outside the working tree
+    Path authAdapterData = Files.createTempDirectory("auth-adapter");
+    authAdapterProperties.put(
+        "auth-adapter.authorization-store.path",
+        authAdapterData.resolve("authorizations.log").toString());
+    authAdapterProperties.put(
+        "auth-adapter.signing-keys.path", authAdapterData.resolve("signing-keys.json").toString());
+    authAdapterProperties.put(
+        "auth-adapter.client-registration.path", authAdapterData.resolve("clients.log").toString());
+    applications.add(
+        start(
+            "auth-adapter",
+            "org.garethjevans.chained.auth.adapter.AuthAdapterApplication",
+            authAdapterProperties));
+
+    Map<String, String> gatewayProperties = common(gatewayPort);
+    gatewayProperties.put(ROUTE + "instances[0]", "http://127.0.0.1:" + mcpServerPort);
+    gatewayProperties.put("gateway.rate-limit.enabled", "false");
+    gatewayProperties.put("gateway.response-cache.enabled", "false");
+    applications.add(
+        start(
+            "gateway",
+            "org.garethjevans.chained.auth.gateway.GatewayApplication",
+            gatewayProperties));
+
+    return new Chain(
+        URI.create(authServer),
+        URI.create("http://127.0.0.1:" + authAdapterPort),
+        URI.create("http://127.0.0.1:" + gatewayPort),
+        URI.create(github.url()));
+  }
+
+  private static IsolatedApplication start(
+      String name, String mainClass, Map<String, String> properties) {
+    String classpath = System.getProperty(CLASSPATH_PROPERTY + name);
+    if (classpath == null) {
+      throw new IllegalStateException(
+          "Missing " + CLASSPATH_PROPERTY + name + ", run with ./gradlew :benchmarks:loadTest");
+    }
+    System.out.printf("Starting %s on port %s%n", name, properties.get("server.port"));
+    return IsolatedApplication.start(name, classpath, mainClass, properties);
+  }
+
+  private static Map<String, String> common(int port) {
+    Map<String, String> properties = new LinkedHashMap<>();
+    properties.put("server.port", String.valueOf(port));
+    properties.put("spring.main.banner-mode", "off");
+    // Keep the applications' own log levels, but only print warnings and errors
+    properties.put("logging.threshold.console", "WARN");
+    // Tomcat reports the other applications' threads as leaks when one is stopped
+    properties.put("logging.level.org.apache.catalina.loader", "ERROR");
+    return properties;
+  }
+
+  private static Duration run(
+      Chain chain, int users, int rounds, int calls, LatencyRecorder recorder)
+      throws InterruptedException {
+    long start = System.nanoTime();
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < users; i++) {
+        executor.submit(
+            () -> {
+              new VirtualUser(chain, recorder, calls).run(rounds);
+              return null;
+            });
+      }
+    }
+    return Duration.ofNanos(System.nanoTime() - start);
+  }
+
+  private static String summarize(int users, Duration elapsed, LatencyRecorder recorder) {
+    double seconds = elapsed.toNanos() / 1e9;
+    long errors = 0;
+    for (Phase phase : Phase.values()) {
+      errors += recorder.errors(phase);
+    }
+    return String.format(
+        "%8d %12.1f %12.1f %12.1f %12.1f %8d",
+        users,
+        recorder.count(Phase.TOKEN) / seconds,
+        recorder.count(Phase.MCP) / seconds,
+        recorder.percentile(Phase.MCP, 50),
+        recorder.percentile(Phase.MCP, 99),
+        errors);
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package org.garethjevans.chained.auth.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Answers the parts of GitHub that the chain calls: the OAuth authorize and token endpoints used by
+ * the auth-adapter, and {@code GET /user} used by the github-mcp-server's {@code get_me} tool.
+ *
+ * <p>The authorize endpoint approves every request straight away. Codes can be exchanged once, and
+ * {@code /user} only accepts tokens this stand-in issued, so a broken token swap anywhere in the
+ * chain shows up as errors rather than as fast responses.
+ */
+final class GitHubStandIn implements AutoCloseable {
+
+  static final String LOGIN = "octocat";
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+  private static final HexFormat HEX = HexFormat.of();
+
+  private final HttpServer server;
+  private final Set<String> codes = ConcurrentHashMap.newKeySet();
+  private final Set<String> tokens = ConcurrentHashMap.newKeySet();
+
+  private final LongAdder authorizations = new LongAdder();
+  private final LongAdder tokenExchanges = new LongAdder();
+  private final LongAdder userRequests = new LongAdder();
+
+  GitHubStandIn() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+    server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    server.createContext("/login/oauth/authorize", this::authorize);
+    server.createContext("/login/oauth/access_token", this::token);
+    server.createContext("/user", this::user);
+    server.start();
+  }
+
+  /** Returns the base URL, standing in for both {@code github.com} and {@code api.github.com}. */
+  String url() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  long authorizations() {
+    return authorizations.sum();
+  }
+
+  long tokenExchanges() {
+    return tokenExchanges.sum();
+  }
+
+  long userRequests() {
+    return userRequests.sum();
+  }
+
+  private void authorize(HttpExchange exchange) throws IOException {
+    Map<String, String> params = parse(exchange.getRequestURI().getRawQuery());
+    String code = random(20);
+    codes.add(code);
+    authorizations.increment();
+
+    String location =
+        params.get("redirect_uri")
+            + "?code="
+            + code
+            + "&state="
+            + URLEncoder.encode(params.get("state"), StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Location", location);
+    exchange.sendResponseHeaders(302, -1);
+    exchange.close();
+  }
+
+  private void token(HttpExchange exchange) throws IOException {
+    Map<String, String> params =
+        parse(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+    if (!"POST".equals(exchange.getRequestMethod())
+        || !codes.remove(params.getOrDefault("code", ""))) {
+      respond(exchange, 400, "{\"error\":\"bad_verification_code\"}");
+      return;
+    }
+    String token = "gho_" + random(18);
+    tokens.add(token);
+    tokenExchanges.increment();
+    respond(
+        exchange,
+        200,
+        "{\"access_token\":\""
+            + token
+            + "\",\"token_type\":\"bearer\",\"scope\":\"read:user user:email\"}");
+  }
+
+  private void user(HttpExchange exchange) throws IOException {
+    userRequests.increment();
+    String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+    if (authorization == null
+        || !authorization.startsWith("Bearer ")
+        || !tokens.contains(authorization.substring(7))) {
+      respond(exchange, 401, "{\"message\":\"Bad credentials\"}");
+      return;
+    }
+    respond(
+        exchange,
+        200,
+        "{\"login\":\"" + LOGIN + "\",\"id\":583231,\"name\":\"The Octocat\",\"type\":\"User\"}");
+  }
+
+  private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+    byte[] body = json.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, body.length);
+    exchange.getResponseBody().write(body);
+    exchange.close();
+  }
+
+  static Map<String, String> parse(String query) {
+    Map<String, String> params = new HashMap<>();
+    if (query == null || query.isEmpty()) {
+      return params;
+    }
+    for (String pair : query.split("&")) {
+      int equals = pair.indexOf('=');
+      if (equals > 0) {
+        params.put(
+            URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+            URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+      }
+    }
+    return params;
+  }
+
+  static Map<String, String> parse(URI uri) {
+    return parse(uri.getRawQuery());
+  }
+
+  private static String random(int bytes) {
+    byte[] value = new byte[bytes];
+    RANDOM.nextBytes(value);
+    return HEX.formatHex(value);
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+}
@@ -0,0 +1,108 @@
+package org.garethjevans.chained.auth.loadtest;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Spring Boot application started in this JVM from its own class loader. Each application only
+ * sees its own runtime classpath, so the auto-configuration of one, such as the authorization
+ * server in the auth-adapter, does not leak into another, such as the gateway.
+ */
+final class IsolatedApplication implements AutoCloseable {
+
+  private final String name;
+  private final URLClassLoader classLoader;
+  private final Object context;
+
+  private IsolatedApplication(String name, URLClassLoader classLoader, Object context) {
+    this.name = name;
+    this.classLoader = classLoader;
+    this.context = context;
+  }
+
+  /**
+   * Starts an application and waits until its web server is listening.
+   *
+   * @param name the application name, used in error messages
+   * @param classpath the application's runtime classpath, separated by {@link File#pathSeparator}
+   * @param mainClass the application class passed to {@code SpringApplication.run}
+   * @param properties properties passed as command line arguments, overriding the application's own
+   *     configuration
+   * @return the running application
+   */
+  static IsolatedApplication start(
+      String name, String classpath, String mainClass, Map<String, String> properties) {
+    List<URL> urls = new ArrayList<>();
+    for (String entry : classpath.split(File.pathSeparator)) {
+      try {
+        urls.add(new File(entry).toURI().toURL());
+      } catch (MalformedURLException ex) {
+        throw new IllegalArgumentException("Invalid classpath entry " + entry, ex);
+      }
+    }
+    URLClassLoader classLoader =
+        new URLClassLoader(name, urls.toArray(URL[]::new), ClassLoader.getPlatformClassLoader());
+
+    String[] args =
+        properties.entrySet().stream()
+            .map(property -> "--" + property.getKey() + "=" + property.getValue())
+            .toArray(String[]::new);
+
+    Thread thread = Thread.currentThread();
+    ClassLoader previous = thread.getContextClassLoader();
+    thread.setContextClassLoader(classLoader);
+    try {
+      disableTomcatUrlHandlers(classLoader);
+      Class<?> springApplication =
+          classLoader.loadClass("org.springframework.boot.SpringApplication");
+      Object context =
+          springApplication
+              .getMethod("run", Class.class, String[].class)
+              .invoke(null, classLoader.loadClass(mainClass), args);
+      return new IsolatedApplication(name, classLoader, context);
+    } catch (InvocationTargetException ex) {
+      throw new IllegalStateException("Failed to start " + name, ex.getCause());
+    } catch (ReflectiveOperationException ex) {
+      throw new IllegalStateException("Failed to start " + name, ex);
+    } finally {
+      thread.setContextClassLoader(previous);
+    }
+  }
+
+  private static void disableTomcatUrlHandlers(ClassLoader classLoader)
+      throws ReflectiveOperationException {
+    // Tomcat installs a JVM-wide URL stream handler factory, which only one copy can do
+    try {
+      classLoader
+          .loadClass("org.apache.catalina.webresources.TomcatURLStreamHandlerFactory")
+          .getMethod("disable")
+          .invoke(null);
+    } catch (ClassNotFoundException ex) {
+      // Not a Tomcat application
+    }
+  }
+
+  @Override
+  public void close() throws Exception {
+    Thread thread = Thread.currentThread();
+    ClassLoader previous = thread.getContextClassLoader();
+    thread.setContextClassLoader(classLoader);
+    try {
+      classLoader
+          .loadClass("org.springframework.context.ConfigurableApplicationContext")
+          .getMethod("close")
+          .invoke(context);
+    } catch (InvocationTargetException ex) {
+      throw new IllegalStateException("Failed to stop " + name, ex.getCause());
+    } finally {
+      thread.setContextClassLoader(previous);
+      classLoader.close();
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package org.garethjevans.chained.auth.loadtest;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the latency of every operation in each phase of the flow, and reports throughput and
+ * percentiles over a run. Every sample is kept, so percentiles are exact rather than estimated from
+ * buckets.
+ */
+final class LatencyRecorder {
+
+  /** The phases of the flow a virtual user goes through. */
+  enum Phase {
+    /** The authorization request at the auth-adapter, until the client receives its code. */
+    AUTHORIZE("authorize"),
+    /** Form login at the test-auth-server, part of {@link #AUTHORIZE}. */
+    LOGIN("login"),
+    /** The auth-adapter's authorization at GitHub, part of {@link #AUTHORIZE} when it happens. */
+    UPSTREAM("github authorize"),
+    /** Exchanging the code for a proxy token at the auth-adapter. */
+    TOKEN("token"),
+    /** A {@code tools/call} for {@code get_me} through the gateway. */
+    MCP("mcp tools/call");
+
+    private final String label;
+
+    Phase(String label) {
+      this.label = label;
+    }
+  }
+
+  private final Map<Phase, Samples> samples = new EnumMap<>(Phase.class);
+
+  LatencyRecorder() {
+    for (Phase phase : Phase.values()) {
+      samples.put(phase, new Samples());
+    }
+  }
+
+  void record(Phase phase, long nanos) {
+    samples.get(phase).add(nanos);
+  }
+
+  void error(Phase phase, Exception ex) {
+    Samples phaseSamples = samples.get(phase);
+    phaseSamples.errors.increment();
+    phaseSamples.firstError.compareAndSet(null, ex.toString());
+  }
+
+  /**
+   * Returns the latency, in milliseconds, at the given percentile of a phase.
+   *
+   * @param phase the phase
+   * @param percentile the percentile, between 0 and 100
+   * @return the latency, or {@code NaN} if nothing was recorded
+   */
+  double percentile(Phase phase, double percentile) {
+    long[] sorted = samples.get(phase).sorted();
+    if (sorted.length == 0) {
+      return Double.NaN;
+    }
+    // Nearest-rank percentile
+    int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+    return sorted[Math.max(0, rank - 1)] / 1e6;
+  }
+
+  long count(Phase phase) {
+    return samples.get(phase).size();
+  }
+
+  long errors(Phase phase) {
+    return samples.get(phase).errors.sum();
+  }
+
+  void print(PrintStream out, Duration elapsed) {
+    double seconds = elapsed.toNanos() / 1e9;
+    out.printf(
+        "  %-18s %8s %7s %9s %9s %9s %9s %9s%n",
+        "phase", "ops", "errors", "ops/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+    for (Phase phase : Phase.values()) {
+      long count = count(phase);
+      out.printf(
+          "  %-18s %8d %7d %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+          phase.label,
+          count,
+          errors(phase),
+          count / seconds,
+          percentile(phase, 50),
+          percentile(phase, 95),
+          percentile(phase, 99),
+          percentile(phase, 100));
+    }
+    for (Phase phase : Phase.values()) {
+      String firstError = samples.get(phase).firstError.get();
+      if (firstError != null) {
+        out.printf("  first %s error: %s%n", phase.label, firstError);
+      }
+    }
+  }
+
+  private static final class Samples {
+
+    private final LongAdder errors = new LongAdder();
+    private final AtomicReference<String> firstError = new AtomicReference<>();
+
+    private long[] values = new long[1024];
+    private int size;
+
+    synchronized void add(long value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    synchronized int size() {
+      return size;
+    }
+
+    synchronized long[] sorted() {
+      long[] copy = Arrays.copyOf(values, size);
+      Arrays.sort(copy);
+      return copy;
+    }
+  }
+}
@@ -0,0 +1,266 @@
+package org.garethjevans.chained.auth.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.UUID;
+import org.garethjevans.chained.auth.loadtest.LatencyRecorder.Phase;
+
+/**
+ * A user of an MCP client going through the whole chain. Each round starts a new browser session:
+ * the authorization code flow at the auth-adapter, with form login at the test-auth-server and,
+ * when the adapter holds no GitHub token for the user, authorization at GitHub; then the code
+ * exchange for a proxy token; then a number of {@code get_me} tool calls through the gateway.
+ *
+ * <p>A failed step is recorded as an error in its phase and ends the round.
+ */
+final class VirtualUser {
+
+  // Registered for the "client" client in the auth-adapter; nothing listens on it
+  private static final String REDIRECT_URI = "http://127.0.0.1:8080/login/oauth2/code/auth-adapter";
+  private static final String CLIENT_CREDENTIALS =
+      Base64.getEncoder().encodeToString("client:secret".getBytes(StandardCharsets.UTF_8));
+  private static final int MAX_REDIRECTS = 20;
+  private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+  private static final Base64.Encoder BASE64_URL = Base64.getUrlEncoder().withoutPadding();
+
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final ChainLoadTest.Chain chain;
+  private final LatencyRecorder recorder;
+  private final int calls;
+
+  VirtualUser(ChainLoadTest.Chain chain, LatencyRecorder recorder, int calls) {
+    this.chain = chain;
+    this.recorder = recorder;
+    this.calls = calls;
+  }
+
+  void run(int rounds) throws InterruptedException {
+    for (int round = 0; round < rounds; round++) {
+      try (HttpClient client =
+          HttpClient.newBuilder()
+              .cookieHandler(new CookieManager(null, CookiePolicy.ACCEPT_ALL))
+              .followRedirects(HttpClient.Redirect.NEVER)
+              .connectTimeout(TIMEOUT)
+              .build()) {
+        round(client);
+      }
+    }
+  }
+
+  private void round(HttpClient client) throws InterruptedException {
+    // The client is required to use PKCE
+    byte[] verifierBytes = new byte[32];
+    RANDOM.nextBytes(verifierBytes);
+    String verifier = BASE64_URL.encodeToString(verifierBytes);
+
+    String code = timed(Phase.AUTHORIZE, () -> authorize(client, challenge(verifier)));
+    if (code == null) {
+      return;
+    }
+    String token = timed(Phase.TOKEN, () -> token(client, code, verifier));
+    if (token == null) {
+      return;
+    }
+    for (int call = 1; call <= calls; call++) {
+      int id = call;
+      if (timed(Phase.MCP, () -> getMe(client, token, id)) == null) {
+        return;
+      }
+    }
+  }
+
+  private String authorize(HttpClient client, String codeChallenge)
+      throws IOException, InterruptedException {
+    String state = UUID.randomUUID().toString();
+    URI next =
+        chain
+            .authAdapter()
+            .resolve(
+                "/oauth2/authorize?response_type=code&client_id=client&scope=openid%20profile"
+                    + "&state="
+                    + state
+                    + "&code_challenge="
+                    + codeChallenge
+                    + "&code_challenge_method=S256"
+                    + "&redirect_uri="
+                    + encode(REDIRECT_URI));
+    Long upstreamStart = null;
+
+    for (int redirects = 0; redirects < MAX_REDIRECTS; redirects++) {
+      if (next.toString().startsWith(REDIRECT_URI)) {
+        Map<String, String> params = GitHubStandIn.parse(next);
+        if (!state.equals(params.get("state")) || params.get("code") == null) {
+          throw new IllegalStateException("Authorization failed: " + next.getRawQuery());
+        }
+        return params.get("code");
+      }
+      if (next.getPort() == chain.authServer().getPort() && "/login".equals(next.getPath())) {
+        next = login(client, next);
+        continue;
+      }
+      if (upstreamStart == null && next.getPort() == chain.github().getPort()) {
+        upstreamStart = System.nanoTime();
+      }
+
+      HttpResponse<String> response =
+          client.send(
+              request(next).header("Accept", "text/html").GET().build(),
+              HttpResponse.BodyHandlers.ofString());
+      String location = redirect(response, next);
+
+      if (upstreamStart != null && next.getPath().startsWith("/authorize/oauth2/code/github")) {
+        recorder.record(Phase.UPSTREAM, System.nanoTime() - upstreamStart);
+        upstreamStart = null;
+      }
+      next = next.resolve(location);
+    }
+    throw new IllegalStateException("Too many redirects, last to " + next);
+  }
+
+  private URI login(HttpClient client, URI loginPage) throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    HttpResponse<String> page =
+        client.send(request(loginPage).GET().build(), HttpResponse.BodyHandlers.ofString());
+    if (page.statusCode() != 200) {
+      throw new IllegalStateException("Login page returned " + page.statusCode());
+    }
+
+    String form = "username=testuser&password=password&_csrf=" + encode(csrfToken(page.body()));
+    HttpResponse<String> response =
+        client.send(
+            request(loginPage)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build(),
+            HttpResponse.BodyHandlers.ofString());
+    String location = redirect(response, loginPage);
+    if (location.contains("error")) {
+      throw new IllegalStateException("Login failed, redirected to " + location);
+    }
+    recorder.record(Phase.LOGIN, System.nanoTime() - start);
+    return loginPage.resolve(location);
+  }
+
+  private String token(HttpClient client, String code, String verifier)
+      throws IOException, InterruptedException {
+    String form =
+        "grant_type=authorization_code&code="
+            + encode(code)
+            + "&code_verifier="
+            + verifier
+            + "&redirect_uri="
+            + encode(REDIRECT_URI);
+    HttpResponse<String> response =
+        client.send(
+            request(chain.authAdapter().resolve("/oauth2/token"))
+                .header("Authorization", "Basic " + CLIENT_CREDENTIALS)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build(),
+            HttpResponse.BodyHandlers.ofString());
+    if (response.statusCode() != 200) {
+      throw new IllegalStateException(
+          "Token request returned " + response.statusCode() + ": " + response.body());
+    }
+    return objectMapper.readTree(response.body()).path("access_token").asText();
+  }
+
+  private Boolean getMe(HttpClient client, String token, int id)
+      throws IOException, InterruptedException {
+    String body =
+        "{\"jsonrpc\":\"2.0\",\"id\":"
+            + id
+            + ",\"method\":\"tools/call\",\"params\":{\"name\":\"get_me\",\"arguments\":{}}}";
+    HttpResponse<String> response =
+        client.send(
+            request(chain.gateway().resolve("/mcp"))
+                .header("Authorization", "Bearer " + token)
+                .header("Content-Type", "application/json")
+                .header("Accept", "application/json, text/event-stream")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build(),
+            HttpResponse.BodyHandlers.ofString());
+    // The tool reports GitHub errors in its result, so check the user came back
+    if (response.statusCode() != 200 || !response.body().contains(GitHubStandIn.LOGIN)) {
+      throw new IllegalStateException(
+          "Tool call returned " + response.statusCode() + ": " + response.body());
+    }
+    return Boolean.TRUE;
+  }
+
+  private <T> T timed(Phase phase, Step<T> step) throws InterruptedException {
+    long start = System.nanoTime();
+    try {
+      T result = step.run();
+      recorder.record(phase, System.nanoTime() - start);
+      return result;
+    } catch (InterruptedException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      recorder.error(phase, ex);
+      return null;
+    }
+  }
+
+  private static HttpRequest.Builder request(URI uri) {
+    return HttpRequest.newBuilder(uri).timeout(TIMEOUT);
+  }
+
+  private static String redirect(HttpResponse<String> response, URI uri) {
+    if (response.statusCode() / 100 != 3) {
+      throw new IllegalStateException(
+          "Expected a redirect from " + uri.getPath() + " but got " + response.statusCode());
+    }
+    return response
+        .headers()
+        .firstValue("Location")
+        .orElseThrow(() -> new IllegalStateException("Redirect without Location from " + uri));
+  }
+
+  private static String csrfToken(String html) {
+    // <input name="_csrf" type="hidden" value="..." />
+    int field = html.indexOf("name=\"_csrf\"");
+    int valueStart = field == -1 ? -1 : html.indexOf("value=\"", field);
+    if (valueStart == -1) {
+      throw new IllegalStateException("No CSRF token on the login page");
+    }
+    valueStart += "value=\"".length();
+    return html.substring(valueStart, html.indexOf('"', valueStart));
+  }
+
+  private static String challenge(String verifier) {
+    try {
+      byte[] digest =
+          MessageDigest.getInstance("SHA-256").digest(verifier.getBytes(StandardCharsets.US_ASCII));
+      return BASE64_URL.encodeToString(digest);
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+
+  @FunctionalInterface
+  private interface Step<T> {
+    T run() throws Exception;
+  }
+}
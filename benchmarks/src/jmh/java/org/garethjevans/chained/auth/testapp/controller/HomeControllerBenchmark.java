@@ -0,0 +1,50 @@
+package org.garethjevans.chained.auth.testapp.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.garethjevans.chained.auth.benchmarks.ProxyTokens;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link HomeController#decodeJwtClaims(String)}, which decodes the proxy token shown on
+ * the test-app's authenticated page. Tokens are sized by {@code tokenBytes}, see {@link
+ * ProxyTokens}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HomeControllerBenchmark {
+
+  @Param({"1024", "2048", "6144"})
+  private int tokenBytes;
+
+  private HomeController controller;
+  private String token;
+
+  @Setup
+  public void setUp() {
+    controller = new HomeController(new ObjectMapper());
+    token = ProxyTokens.create(tokenBytes, Instant.now().plus(Duration.ofHours(1)));
+  }
+
+  @Benchmark
+  public Map<String, Object> decodeJwtClaims() {
+    return controller.decodeJwtClaims(token);
+  }
+}
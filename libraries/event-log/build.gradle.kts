@@ -0,0 +1,13 @@
+plugins {
+    id("java.conventions")
+}
+
+dependencies {
+    // Lifecycle and metrics the event log plugs into
+    api("org.springframework:spring-context")
+    api("io.micrometer:micrometer-core")
+    implementation("org.slf4j:slf4j-api")
+
+    // Testing
+    testImplementation(libs.spring.boot.starter.test)
+}
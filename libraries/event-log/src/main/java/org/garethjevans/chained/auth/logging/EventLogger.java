@@ -0,0 +1,305 @@
+package org.garethjevans.chained.auth.logging;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.util.Assert;
+
+/**
+ * Structured access and audit log that keeps formatting and I/O off the request thread. Events are
+ * handed to a bounded queue and written as {@code key=value} lines by a single background thread;
+ * when the queue is full the event is dropped and counted rather than blocking the request.
+ *
+ * <p>Each event belongs to a category (for example {@code access}) with its own sampling rate, so
+ * high-volume categories can be thinned out without losing rarer ones. Sampling is decided before
+ * the event is queued. Values are redacted when they are written: fields named like credentials,
+ * and values that look like bearer tokens, JWTs or GitHub tokens, are replaced with a short SHA-256
+ * fingerprint that still lets requests for the same token be correlated.
+ *
+ * <p>Lines are written to the logger {@code event.<category>} at INFO, so the destination and
+ * format of each category can be configured like any other logger.
+ */
+public class EventLogger implements SmartLifecycle, MeterBinder {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(EventLogger.class);
+
+  private static final String LOGGER_PREFIX = "event.";
+
+  private static final Set<String> SECRET_FIELDS =
+      Set.of(
+          "authorization",
+          "token",
+          "access_token",
+          "refresh_token",
+          "id_token",
+          "code",
+          "client_secret",
+          "password");
+
+  private static final Pattern SECRET_VALUE =
+      Pattern.compile(
+          "(?i)^(bearer\\s+.+|eyJ[\\w-]*\\.[\\w-]*\\.[\\w-]*|gh[opusr]_\\w+|github_pat_\\w+)$");
+
+  private static final HexFormat HEX = HexFormat.of();
+
+  private final String name;
+  private final BlockingQueue<Event> queue;
+  private final Map<String, Double> sampleRates;
+  private final double defaultSampleRate;
+  private final @Nullable Consumer<String> sink;
+
+  private final LongAdder logged = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder sampledOut = new LongAdder();
+
+  private volatile @Nullable Thread writer;
+
+  public EventLogger(
+      String name, int queueCapacity, Map<String, Double> sampleRates, double defaultSampleRate) {
+    this(name, queueCapacity, sampleRates, defaultSampleRate, null);
+  }
+
+  EventLogger(
+      String name,
+      int queueCapacity,
+      Map<String, Double> sampleRates,
+      double defaultSampleRate,
+      @Nullable Consumer<String> sink) {
+    Assert.hasText(name, "name must not be empty");
+    Assert.isTrue(queueCapacity > 0, "queueCapacity must be greater than 0");
+    this.name = name;
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.sampleRates = Map.copyOf(sampleRates);
+    this.defaultSampleRate = defaultSampleRate;
+    this.sink = sink;
+  }
+
+  /**
+   * Queues an event for the given category, if it is sampled. Never blocks.
+   *
+   * @param category the event category, which selects the sampling rate and the logger
+   * @param fields alternating field names and values; values are formatted when written
+   */
+  public void log(String category, Object... fields) {
+    if (sampled(category)) {
+      enqueue(category, fields);
+    }
+  }
+
+  /**
+   * Queues an event for the given category, if it is sampled, only building its fields once it is.
+   * Never blocks. Use this when the fields cost something to work out, so events that are sampled
+   * out cost nothing.
+   *
+   * @param category the event category, which selects the sampling rate and the logger
+   * @param fields supplies alternating field names and values; values are formatted when written
+   */
+  public void log(String category, Supplier<Object[]> fields) {
+    if (sampled(category)) {
+      enqueue(category, fields.get());
+    }
+  }
+
+  /**
+   * Returns the number of events written since the logger was created.
+   *
+   * @return the total number of written events
+   */
+  public long getLogged() {
+    return logged.sum();
+  }
+
+  /**
+   * Returns the number of events dropped because the queue was full.
+   *
+   * @return the total number of dropped events
+   */
+  public long getDropped() {
+    return dropped.sum();
+  }
+
+  /**
+   * Returns the number of events skipped by sampling.
+   *
+   * @return the total number of sampled-out events
+   */
+  public long getSampledOut() {
+    return sampledOut.sum();
+  }
+
+  /**
+   * Returns the number of events waiting to be written.
+   *
+   * @return the current queue length
+   */
+  public int getQueued() {
+    return queue.size();
+  }
+
+  /**
+   * Formats a field value for logging, replacing credentials with a fingerprint.
+   *
+   * @param field the field name
+   * @param value the field value
+   * @return the value as it should appear in the log
+   */
+  static String redact(String field, @Nullable Object value) {
+    if (value == null) {
+      return "-";
+    }
+    String text = value.toString();
+    if (text.isEmpty()) {
+      return text;
+    }
+    if (SECRET_FIELDS.contains(field.toLowerCase(Locale.ROOT))
+        || SECRET_VALUE.matcher(text).matches()) {
+      return "[redacted sha256:" + fingerprint(text) + "]";
+    }
+    return text;
+  }
+
+  private static String fingerprint(String value) {
+    try {
+      byte[] digest =
+          MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+      return HEX.formatHex(digest, 0, 4);
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException("SHA-256 is not available", ex);
+    }
+  }
+
+  private boolean sampled(String category) {
+    double rate = sampleRates.getOrDefault(category, defaultSampleRate);
+    if (rate < 1.0 && ThreadLocalRandom.current().nextDouble() >= rate) {
+      sampledOut.increment();
+      return false;
+    }
+    return true;
+  }
+
+  private void enqueue(String category, Object[] fields) {
+    if (!queue.offer(new Event(category, System.currentTimeMillis(), fields))) {
+      dropped.increment();
+    }
+  }
+
+  static String format(Event event) {
+    StringBuilder line = new StringBuilder(128);
+    line.append("ts=").append(Instant.ofEpochMilli(event.timestamp()));
+    Object[] fields = event.fields();
+    for (int i = 0; i + 1 < fields.length; i += 2) {
+      String field = String.valueOf(fields[i]);
+      String value = redact(field, fields[i + 1]);
+      line.append(' ').append(field).append('=');
+      if (value.indexOf(' ') >= 0 || value.indexOf('"') >= 0) {
+        line.append('"').append(value.replace("\"", "\\\"")).append('"');
+      } else {
+        line.append(value);
+      }
+    }
+    return line.toString();
+  }
+
+  private void write(Event event) {
+    try {
+      String line = format(event);
+      if (sink != null) {
+        sink.accept(line);
+      } else {
+        LoggerFactory.getLogger(LOGGER_PREFIX + event.category()).info(line);
+      }
+      logged.increment();
+    } catch (RuntimeException ex) {
+      LOGGER.warn("Failed to write {} event: {}", event.category(), ex.getMessage());
+    }
+  }
+
+  private void drain() {
+    Thread current = Thread.currentThread();
+    while (!current.isInterrupted()) {
+      try {
+        Event event = queue.poll(1, TimeUnit.SECONDS);
+        if (event != null) {
+          write(event);
+        }
+      } catch (InterruptedException ex) {
+        current.interrupt();
+      }
+    }
+    // Flush what is left so events are not lost on shutdown
+    Event event;
+    while ((event = queue.poll()) != null) {
+      write(event);
+    }
+  }
+
+  @Override
+  public void start() {
+    Thread thread = new Thread(this::drain, name + "-writer");
+    thread.setDaemon(true);
+    thread.start();
+    this.writer = thread;
+  }
+
+  @Override
+  public void stop() {
+    Thread thread = this.writer;
+    this.writer = null;
+    if (thread != null) {
+      thread.interrupt();
+      try {
+        thread.join(TimeUnit.SECONDS.toMillis(5));
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return writer != null;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder("event.log.events", this, EventLogger::getLogged)
+        .description("Events handled by the event log, by outcome")
+        .tags("logger", name, "outcome", "logged")
+        .register(registry);
+    FunctionCounter.builder("event.log.events", this, EventLogger::getDropped)
+        .description("Events handled by the event log, by outcome")
+        .tags("logger", name, "outcome", "dropped")
+        .register(registry);
+    FunctionCounter.builder("event.log.events", this, EventLogger::getSampledOut)
+        .description("Events handled by the event log, by outcome")
+        .tags("logger", name, "outcome", "sampled-out")
+        .register(registry);
+    Gauge.builder("event.log.queue.size", this, EventLogger::getQueued)
+        .description("Events waiting to be written")
+        .tag("logger", name)
+        .register(registry);
+  }
+
+  record Event(String category, long timestamp, Object[] fields) {}
+}
@@ -0,0 +1,26 @@
+plugins {
+    id("java.conventions")
+    `java-test-fixtures`
+}
+
+dependencies {
+    // Token swap cache and its expiry policy
+    api(libs.caffeine)
+
+    // Gateway meters
+    api("io.micrometer:micrometer-core")
+    implementation("org.springframework:spring-core")
+
+    // Streaming JSON parser for the JWT payload
+    implementation("com.fasterxml.jackson.core:jackson-core")
+
+    // Filter contract tests run by both gateway variants
+    testFixturesApi("org.junit.jupiter:junit-jupiter-api")
+    testFixturesApi("org.assertj:assertj-core")
+    testFixturesImplementation("com.nimbusds:nimbus-jose-jwt:10.9")
+    testFixturesImplementation("com.fasterxml.jackson.core:jackson-databind")
+
+    // Testing
+    testImplementation(libs.spring.boot.starter.test)
+    testImplementation("com.nimbusds:nimbus-jose-jwt:10.9")
+}
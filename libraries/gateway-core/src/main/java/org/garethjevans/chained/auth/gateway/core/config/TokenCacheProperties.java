@@ -0,0 +1,32 @@
+package org.garethjevans.chained.auth.gateway.core.config;
+
+import java.time.Duration;
+
+/**
+ * Settings for the cache of proxy JWTs that have already been swapped for upstream tokens, bound
+ * from {@code gateway.token-cache} by both gateway variants.
+ */
+public class TokenCacheProperties {
+
+  /** Maximum number of swapped tokens to keep in memory. */
+  private long maximumSize = 10_000;
+
+  /** How long to cache a swapped token whose JWT carries no {@code exp} claim. */
+  private Duration defaultTimeToLive = Duration.ofMinutes(5);
+
+  public long getMaximumSize() {
+    return maximumSize;
+  }
+
+  public void setMaximumSize(long maximumSize) {
+    this.maximumSize = maximumSize;
+  }
+
+  public Duration getDefaultTimeToLive() {
+    return defaultTimeToLive;
+  }
+
+  public void setDefaultTimeToLive(Duration defaultTimeToLive) {
+    this.defaultTimeToLive = defaultTimeToLive;
+  }
+}
@@ -0,0 +1,143 @@
+package org.garethjevans.chained.auth.gateway.core.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.http.Outcome;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters for each stage of the gateway filter chain:
+ *
+ * <ul>
+ *   <li>{@code gateway.authentication}: counter of {@code requireAuthentication} decisions, tagged
+ *       with the {@code outcome}.
+ *   <li>{@code gateway.token.swap}: timer of the {@code modifyBearerToken} stage, tagged with the
+ *       {@code outcome}; cache misses include the time spent decoding the JWT.
+ *   <li>{@code gateway.upstream.requests}: timer of proxied requests until the backend's response
+ *       headers arrive, tagged with the {@code route} id, the response {@code status} and its
+ *       {@code outcome}.
+ * </ul>
+ *
+ * <p>Meters for the fixed outcomes are registered up front, so recording them on the request path
+ * does not need a registry lookup.
+ */
+public class GatewayMetrics {
+
+  private static final String AUTHENTICATION = "gateway.authentication";
+  private static final String TOKEN_SWAP = "gateway.token.swap";
+  private static final String UPSTREAM_REQUESTS = "gateway.upstream.requests";
+
+  private final MeterRegistry registry;
+  private final Map<AuthenticationOutcome, Counter> authentications =
+      new EnumMap<>(AuthenticationOutcome.class);
+  private final Map<TokenSwapOutcome, Timer> tokenSwaps = new EnumMap<>(TokenSwapOutcome.class);
+
+  public GatewayMetrics(MeterRegistry registry) {
+    this.registry = registry;
+    for (AuthenticationOutcome outcome : AuthenticationOutcome.values()) {
+      authentications.put(
+          outcome,
+          Counter.builder(AUTHENTICATION)
+              .description("Authentication decisions made by the gateway")
+              .tag("outcome", outcome.tagValue())
+              .register(registry));
+    }
+    for (TokenSwapOutcome outcome : TokenSwapOutcome.values()) {
+      tokenSwaps.put(
+          outcome,
+          Timer.builder(TOKEN_SWAP)
+              .description("Time taken to swap the proxy JWT for the upstream token")
+              .tag("outcome", outcome.tagValue())
+              .register(registry));
+    }
+  }
+
+  /**
+   * Returns metrics that are not published anywhere, for filters created without a registry.
+   *
+   * @return metrics backed by an empty composite registry
+   */
+  public static GatewayMetrics noop() {
+    return new GatewayMetrics(new CompositeMeterRegistry());
+  }
+
+  /**
+   * Records an authentication decision.
+   *
+   * @param outcome whether the request was let through
+   */
+  public void recordAuthentication(AuthenticationOutcome outcome) {
+    authentications.get(outcome).increment();
+  }
+
+  /**
+   * Records the time spent swapping a bearer token.
+   *
+   * @param outcome the result of the swap
+   * @param nanos the time taken, in nanoseconds
+   */
+  public void recordTokenSwap(TokenSwapOutcome outcome, long nanos) {
+    tokenSwaps.get(outcome).record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Records a request proxied to a route's backend.
+   *
+   * @param routeId the id of the gateway route
+   * @param status the backend's response status, or {@code -1} if the exchange failed
+   * @param nanos the time until the response headers arrived, in nanoseconds
+   */
+  public void recordUpstream(String routeId, int status, long nanos) {
+    Tags tags =
+        status < 0
+            ? Tags.of("route", routeId, "status", "IO_ERROR", "outcome", Outcome.UNKNOWN.name())
+            : Tags.of(
+                "route",
+                routeId,
+                "status",
+                String.valueOf(status),
+                "outcome",
+                Outcome.forStatus(status).name());
+    Timer.builder(UPSTREAM_REQUESTS)
+        .description("Latency of requests proxied to the backend, until response headers")
+        .tags(tags)
+        .register(registry)
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /** Outcome of the {@code requireAuthentication} stage. */
+  public enum AuthenticationOutcome {
+    /** An Authorization header was present and the request was let through. */
+    PRESENT,
+    /** No Authorization header was present and a 401 challenge was returned. */
+    CHALLENGED;
+
+    String tagValue() {
+      return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+  }
+
+  /** Outcome of the {@code modifyBearerToken} stage. */
+  public enum TokenSwapOutcome {
+    /** The upstream token was taken from the swap cache. */
+    CACHED,
+    /** The JWT was decoded and its upstream token forwarded. */
+    SWAPPED,
+    /** The JWT carried no {@code access_token} claim and was forwarded unchanged. */
+    NO_CLAIM,
+    /** The JWT could not be decoded and was forwarded unchanged. */
+    PARSE_ERROR,
+    /** The request carried no Bearer token. */
+    NO_TOKEN;
+
+    String tagValue() {
+      return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package org.garethjevans.chained.auth.gateway.core.token;
+
+import com.github.benmanes.caffeine.cache.Expiry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Function;
+
+/**
+ * Caffeine expiry policy that evicts each entry at an absolute instant carried by the cached value,
+ * typically the {@code exp} claim of the token it was derived from.
+ *
+ * @param <V> the type of the cached value
+ */
+public final class ExpiresAtExpiry<V> implements Expiry<String, V> {
+
+  private final Clock clock;
+  private final Function<V, Instant> expiresAt;
+
+  public ExpiresAtExpiry(Clock clock, Function<V, Instant> expiresAt) {
+    this.clock = clock;
+    this.expiresAt = expiresAt;
+  }
+
+  @Override
+  public long expireAfterCreate(String key, V value, long currentTime) {
+    return Math.max(0, Duration.between(clock.instant(), expiresAt.apply(value)).toNanos());
+  }
+
+  @Override
+  public long expireAfterUpdate(String key, V value, long currentTime, long currentDuration) {
+    return expireAfterCreate(key, value, currentTime);
+  }
+
+  @Override
+  public long expireAfterRead(String key, V value, long currentTime, long currentDuration) {
+    return currentDuration;
+  }
+}
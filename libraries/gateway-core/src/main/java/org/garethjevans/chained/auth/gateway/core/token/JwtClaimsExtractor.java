@@ -0,0 +1,159 @@
+package org.garethjevans.chained.auth.gateway.core.token;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.Arrays;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Reads the {@code sub}, {@code access_token} and {@code exp} claims from a serialized JWT without
+ * building a full claims set. Only the payload segment is base64url-decoded, into a per-thread
+ * buffer that is reused across calls, and it is scanned with a streaming JSON parser that skips
+ * every other claim. The header and signature are not decoded; use the gateway's {@code
+ * JwtVerifier} when the token has to be trusted.
+ */
+public final class JwtClaimsExtractor {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private static final String SUB_CLAIM = "sub";
+  private static final String ACCESS_TOKEN_CLAIM = "access_token";
+  private static final String EXP_CLAIM = "exp";
+
+  private static final int INITIAL_BUFFER_SIZE = 2048;
+  private static final ThreadLocal<byte[]> BUFFER =
+      ThreadLocal.withInitial(() -> new byte[INITIAL_BUFFER_SIZE]);
+
+  private static final byte[] BASE64_URL_VALUES = new byte[128];
+
+  static {
+    Arrays.fill(BASE64_URL_VALUES, (byte) -1);
+    String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+    for (int i = 0; i < alphabet.length(); i++) {
+      BASE64_URL_VALUES[alphabet.charAt(i)] = (byte) i;
+    }
+  }
+
+  private JwtClaimsExtractor() {}
+
+  /**
+   * Extracts the claims needed to swap a proxy JWT.
+   *
+   * @param token the raw JWT, without the {@code Bearer } prefix
+   * @return the extracted claims; claims missing from the payload are {@code null}
+   * @throws ParseException if the token is not a three-part JWT, the payload is not valid
+   *     base64url-encoded JSON, or a claim has an unexpected type
+   */
+  public static Claims extract(String token) throws ParseException {
+    int payloadStart = token.indexOf('.') + 1;
+    if (payloadStart == 0) {
+      throw new ParseException("Invalid serialized JWT: missing dot delimiter", 0);
+    }
+    int payloadEnd = token.indexOf('.', payloadStart);
+    if (payloadEnd < 0) {
+      throw new ParseException("Invalid serialized JWT: missing second dot delimiter", 0);
+    }
+
+    byte[] buffer = BUFFER.get();
+    int maxLength = (payloadEnd - payloadStart) * 3 / 4;
+    if (buffer.length < maxLength) {
+      buffer = new byte[Math.max(maxLength, buffer.length * 2)];
+      BUFFER.set(buffer);
+    }
+    int length = decodeBase64Url(token, payloadStart, payloadEnd, buffer);
+
+    try (JsonParser parser = JSON_FACTORY.createParser(buffer, 0, length)) {
+      return parseClaims(parser, payloadStart);
+    } catch (IOException ex) {
+      throw new ParseException("Invalid JWT payload: " + ex.getMessage(), payloadStart);
+    }
+  }
+
+  private static Claims parseClaims(JsonParser parser, int offset)
+      throws IOException, ParseException {
+    if (parser.nextToken() != JsonToken.START_OBJECT) {
+      throw new ParseException("Invalid JWT payload: not a JSON object", offset);
+    }
+
+    String subject = null;
+    String accessToken = null;
+    Instant expiresAt = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.currentName();
+      JsonToken value = parser.nextToken();
+      switch (name) {
+        case SUB_CLAIM -> subject = stringValue(parser, value, name, offset);
+        case ACCESS_TOKEN_CLAIM -> accessToken = stringValue(parser, value, name, offset);
+        case EXP_CLAIM -> expiresAt = instantValue(parser, value, offset);
+        default -> parser.skipChildren();
+      }
+    }
+    return new Claims(subject, accessToken, expiresAt);
+  }
+
+  private static @Nullable String stringValue(
+      JsonParser parser, JsonToken value, String name, int offset)
+      throws IOException, ParseException {
+    if (value == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    if (value != JsonToken.VALUE_STRING) {
+      throw new ParseException("The " + name + " claim is not a String", offset);
+    }
+    return parser.getText();
+  }
+
+  private static @Nullable Instant instantValue(JsonParser parser, JsonToken value, int offset)
+      throws IOException, ParseException {
+    if (value == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    if (value != JsonToken.VALUE_NUMBER_INT && value != JsonToken.VALUE_NUMBER_FLOAT) {
+      throw new ParseException("The exp claim is not a number", offset);
+    }
+    return Instant.ofEpochSecond(parser.getLongValue());
+  }
+
+  private static int decodeBase64Url(String source, int start, int end, byte[] target)
+      throws ParseException {
+    // Padding is optional in JWTs, so strip it rather than rely on it
+    while (end > start && source.charAt(end - 1) == '=') {
+      end--;
+    }
+    if ((end - start) % 4 == 1) {
+      throw new ParseException("Invalid JWT payload: truncated base64url", start);
+    }
+
+    int length = 0;
+    int bits = 0;
+    int bitCount = 0;
+    for (int i = start; i < end; i++) {
+      char c = source.charAt(i);
+      int value = c < 128 ? BASE64_URL_VALUES[c] : -1;
+      if (value < 0) {
+        throw new ParseException("Invalid JWT payload: illegal base64url character", i);
+      }
+      bits = (bits << 6) | value;
+      bitCount += 6;
+      if (bitCount >= 8) {
+        bitCount -= 8;
+        target[length++] = (byte) (bits >> bitCount);
+      }
+    }
+    return length;
+  }
+
+  /**
+   * The claims of a proxy JWT that the gateway acts on.
+   *
+   * @param subject the {@code sub} claim
+   * @param accessToken the {@code access_token} claim holding the upstream token
+   * @param expiresAt the {@code exp} claim
+   */
+  public record Claims(
+      @Nullable String subject, @Nullable String accessToken, @Nullable Instant expiresAt) {}
+}
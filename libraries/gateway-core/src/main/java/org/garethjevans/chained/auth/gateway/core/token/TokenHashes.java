@@ -0,0 +1,29 @@
+package org.garethjevans.chained.auth.gateway.core.token;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/** Derives compact cache keys from bearer tokens so raw tokens are never used as map keys. */
+public final class TokenHashes {
+
+  private static final Base64.Encoder KEY_ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+  private TokenHashes() {}
+
+  /**
+   * Returns the unpadded base64url encoding of the SHA-256 digest of the given token.
+   *
+   * @param token the raw bearer token
+   * @return the cache key for the token
+   */
+  public static String sha256(String token) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return KEY_ENCODER.encodeToString(digest.digest(token.getBytes(StandardCharsets.US_ASCII)));
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package org.garethjevans.chained.auth.gateway.core.token;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import org.jspecify.annotations.Nullable;
+import org.springframework.util.Assert;
+
+/**
+ * Bounded, concurrent cache of the upstream Authorization header produced for a proxy JWT. Entries
+ * are keyed by a SHA-256 hash of the incoming token so the raw proxy JWT is never retained, expire
+ * at the JWT's {@code exp} claim and are evicted by size once {@code maximumSize} is reached.
+ */
+public class TokenSwapCache {
+
+  private final Cache<String, SwappedToken> cache;
+  private final Duration defaultTimeToLive;
+  private final Clock clock;
+
+  public TokenSwapCache(long maximumSize, Duration defaultTimeToLive) {
+    this(maximumSize, defaultTimeToLive, Clock.systemUTC(), Ticker.systemTicker());
+  }
+
+  TokenSwapCache(long maximumSize, Duration defaultTimeToLive, Clock clock, Ticker ticker) {
+    Assert.isTrue(maximumSize > 0, "maximumSize must be greater than 0");
+    Assert.notNull(defaultTimeToLive, "defaultTimeToLive must not be null");
+    this.defaultTimeToLive = defaultTimeToLive;
+    this.clock = clock;
+    this.cache =
+        Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfter(new ExpiresAtExpiry<>(clock, SwappedToken::expiresAt))
+            .ticker(ticker)
+            .build();
+  }
+
+  /**
+   * Returns the cached swap result for the given proxy token, if one is present and not expired.
+   *
+   * @param token the raw proxy JWT, without the {@code Bearer } prefix
+   * @return the cached swap result, or {@code null} when the token has not been seen
+   */
+  public @Nullable SwappedToken get(String token) {
+    return cache.getIfPresent(TokenHashes.sha256(token));
+  }
+
+  /**
+   * Caches the swap result for the given proxy token until {@code expiresAt}. When the JWT carries
+   * no expiry, the entry lives for the default time to live. Tokens that have already expired are
+   * not cached.
+   *
+   * @param token the raw proxy JWT, without the {@code Bearer } prefix
+   * @param authorizationHeader the upstream Authorization header value
+   * @param subject the {@code sub} claim of the proxy JWT
+   * @param expiresAt the {@code exp} claim of the proxy JWT, may be {@code null}
+   * @return the cached swap result
+   */
+  public SwappedToken put(
+      String token,
+      String authorizationHeader,
+      @Nullable String subject,
+      @Nullable Instant expiresAt) {
+    Instant now = clock.instant();
+    Instant effectiveExpiry = expiresAt != null ? expiresAt : now.plus(defaultTimeToLive);
+    SwappedToken swapped = new SwappedToken(authorizationHeader, subject, effectiveExpiry);
+    if (effectiveExpiry.isAfter(now)) {
+      cache.put(TokenHashes.sha256(token), swapped);
+    }
+    return swapped;
+  }
+
+  /**
+   * Returns the approximate number of entries in the cache.
+   *
+   * @return the estimated number of cached swaps
+   */
+  public long estimatedSize() {
+    return cache.estimatedSize();
+  }
+
+  void cleanUp() {
+    cache.cleanUp();
+  }
+
+  /**
+   * The result of swapping a proxy JWT for its upstream token.
+   *
+   * @param authorizationHeader the Authorization header to send to the upstream service
+   * @param subject the {@code sub} claim of the proxy JWT
+   * @param expiresAt the instant after which the swap must no longer be used
+   */
+  public record SwappedToken(
+      String authorizationHeader, @Nullable String subject, Instant expiresAt) {}
+}
@@ -0,0 +1,127 @@
+package org.garethjevans.chained.auth.gateway.core.token;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class JwtClaimsExtractorTest {
+
+  private static final String SECRET = "ThisIsASecretKeyForTestingPurposesOnly12345678";
+
+  @Test
+  void testExtractsClaimsFromSignedJwt() throws Exception {
+    Instant expiresAt = Instant.parse("2030-01-01T00:00:00Z");
+    String token =
+        sign(
+            new JWTClaimsSet.Builder()
+                .subject("test-user")
+                .claim("access_token", "gho_upstream")
+                .expirationTime(Date.from(expiresAt))
+                .build());
+
+    JwtClaimsExtractor.Claims claims = JwtClaimsExtractor.extract(token);
+
+    assertThat(claims.subject()).isEqualTo("test-user");
+    assertThat(claims.accessToken()).isEqualTo("gho_upstream");
+    assertThat(claims.expiresAt()).isEqualTo(expiresAt);
+  }
+
+  @Test
+  void testSkipsOtherClaimsIncludingNestedValues() throws Exception {
+    String token =
+        sign(
+            new JWTClaimsSet.Builder()
+                .claim("aud", List.of("gateway", "mcp"))
+                .claim("nested", Map.of("sub", "not-the-subject", "list", List.of(1, 2, 3)))
+                .claim("scope", "openid profile")
+                .subject("süb-ünicode")
+                .claim("access_token", "gho_upstream")
+                .build());
+
+    JwtClaimsExtractor.Claims claims = JwtClaimsExtractor.extract(token);
+
+    assertThat(claims.subject()).isEqualTo("süb-ünicode");
+    assertThat(claims.accessToken()).isEqualTo("gho_upstream");
+    assertThat(claims.expiresAt()).isNull();
+  }
+
+  @Test
+  void testMissingClaimsAreNull() throws Exception {
+    JwtClaimsExtractor.Claims claims =
+        JwtClaimsExtractor.extract(sign(new JWTClaimsSet.Builder().issuer("issuer").build()));
+
+    assertThat(claims.subject()).isNull();
+    assertThat(claims.accessToken()).isNull();
+    assertThat(claims.expiresAt()).isNull();
+  }
+
+  @Test
+  void testReusesBufferForLargePayloads() throws Exception {
+    String large = "x".repeat(10_000);
+    String token =
+        sign(new JWTClaimsSet.Builder().claim("padding", large).claim("access_token", "a").build());
+
+    assertThat(JwtClaimsExtractor.extract(token).accessToken()).isEqualTo("a");
+    assertThat(
+            JwtClaimsExtractor.extract(sign(new JWTClaimsSet.Builder().subject("s").build()))
+                .subject())
+        .isEqualTo("s");
+  }
+
+  @Test
+  void testAcceptsPaddedPayload() throws Exception {
+    String payload =
+        Base64.getUrlEncoder().encodeToString("{\"sub\":\"abc\"}".getBytes(StandardCharsets.UTF_8));
+    assertThat(payload).endsWith("=");
+
+    assertThat(JwtClaimsExtractor.extract("e30." + payload + ".sig").subject()).isEqualTo("abc");
+  }
+
+  @Test
+  void testRejectsNonStringClaim() {
+    String payload = encode("{\"sub\":42}");
+
+    assertThatThrownBy(() -> JwtClaimsExtractor.extract("e30." + payload + ".sig"))
+        .isInstanceOf(ParseException.class)
+        .hasMessageContaining("sub");
+  }
+
+  @Test
+  void testRejectsMalformedTokens() {
+    assertThatThrownBy(() -> JwtClaimsExtractor.extract("not-a-jwt"))
+        .isInstanceOf(ParseException.class);
+    assertThatThrownBy(() -> JwtClaimsExtractor.extract("e30.e30"))
+        .isInstanceOf(ParseException.class);
+    assertThatThrownBy(() -> JwtClaimsExtractor.extract("e30.!!!!.sig"))
+        .isInstanceOf(ParseException.class);
+    assertThatThrownBy(() -> JwtClaimsExtractor.extract("e30." + encode("[1,2]") + ".sig"))
+        .isInstanceOf(ParseException.class);
+    assertThatThrownBy(() -> JwtClaimsExtractor.extract("e30." + encode("{\"sub\":") + ".sig"))
+        .isInstanceOf(ParseException.class);
+  }
+
+  private static String encode(String json) {
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String sign(JWTClaimsSet claims) throws Exception {
+    SignedJWT jwt = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claims);
+    jwt.sign(new MACSigner(SECRET));
+    return jwt.serialize();
+  }
+}
@@ -0,0 +1,100 @@
+package org.garethjevans.chained.auth.gateway.core.token;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.garethjevans.chained.auth.gateway.core.token.TokenSwapCache.SwappedToken;
+import org.junit.jupiter.api.Test;
+
+class TokenSwapCacheTest {
+
+  private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+
+  private final AtomicLong nanos = new AtomicLong();
+
+  @Test
+  void testReturnsCachedSwapForSameToken() {
+    TokenSwapCache cache = newCache(100);
+
+    cache.put("token-a", "Bearer upstream-a", "user-a", NOW.plusSeconds(60));
+
+    SwappedToken swapped = cache.get("token-a");
+    assertThat(swapped).isNotNull();
+    assertThat(swapped.authorizationHeader()).isEqualTo("Bearer upstream-a");
+    assertThat(swapped.subject()).isEqualTo("user-a");
+    assertThat(cache.get("token-b")).isNull();
+  }
+
+  @Test
+  void testEntryExpiresAtJwtExpiry() {
+    TokenSwapCache cache = newCache(100);
+
+    cache.put("token-a", "Bearer upstream-a", "user-a", NOW.plusSeconds(60));
+
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(59));
+    assertThat(cache.get("token-a")).isNotNull();
+
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(2));
+    assertThat(cache.get("token-a")).isNull();
+  }
+
+  @Test
+  void testEntryWithoutExpiryUsesDefaultTimeToLive() {
+    TokenSwapCache cache = newCache(100);
+
+    SwappedToken swapped = cache.put("token-a", "Bearer upstream-a", "user-a", null);
+
+    assertThat(swapped.expiresAt()).isEqualTo(NOW.plus(Duration.ofMinutes(5)));
+    nanos.addAndGet(TimeUnit.MINUTES.toNanos(6));
+    assertThat(cache.get("token-a")).isNull();
+  }
+
+  @Test
+  void testExpiredTokenIsNotCached() {
+    TokenSwapCache cache = newCache(100);
+
+    SwappedToken swapped = cache.put("token-a", "Bearer upstream-a", "user-a", NOW.minusSeconds(1));
+
+    assertThat(swapped.authorizationHeader()).isEqualTo("Bearer upstream-a");
+    assertThat(cache.get("token-a")).isNull();
+  }
+
+  @Test
+  void testCacheIsBoundedBySize() {
+    TokenSwapCache cache = newCache(10);
+
+    for (int i = 0; i < 100; i++) {
+      cache.put("token-" + i, "Bearer upstream-" + i, "user", NOW.plusSeconds(60));
+    }
+    cache.cleanUp();
+
+    assertThat(cache.estimatedSize()).isLessThanOrEqualTo(10);
+  }
+
+  private TokenSwapCache newCache(long maximumSize) {
+    Clock clock =
+        new Clock() {
+          @Override
+          public ZoneId getZone() {
+            return ZoneOffset.UTC;
+          }
+
+          @Override
+          public Clock withZone(ZoneId zone) {
+            return this;
+          }
+
+          @Override
+          public Instant instant() {
+            return NOW.plusNanos(nanos.get());
+          }
+        };
+    return new TokenSwapCache(maximumSize, Duration.ofMinutes(5), clock, nanos::get);
+  }
+}
@@ -0,0 +1,156 @@
+package org.garethjevans.chained.auth.gateway.core.filter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.garethjevans.chained.auth.gateway.core.metrics.GatewayMetrics;
+import org.jspecify.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Behaviour of the {@code requireAuthentication} stage that both gateway variants must share. Each
+ * variant's test extends this class and runs its own filter through {@link #requireAuthentication}.
+ */
+public abstract class AuthenticationRequiredFilterContract {
+
+  protected static final String TEST_HOST = "resource.example.com";
+  protected static final String EXPECTED_METADATA_URL =
+      "http://resource.example.com/.well-known/oauth-protected-resource";
+
+  /** A gateway variant's {@code requireAuthentication} filter. */
+  @FunctionalInterface
+  protected interface AuthenticationFilter {
+
+    /**
+     * Runs a GET request for {@code /mcp/test} through the filter. A request passed down the chain
+     * is answered with 200 OK.
+     *
+     * @param host the host the request was sent to
+     * @param authorization the request's Authorization header, or {@code null} for none
+     * @return the response
+     */
+    Response filter(String host, @Nullable String authorization) throws Exception;
+  }
+
+  /**
+   * The parts of the filter's response the contract checks.
+   *
+   * @param status the response status
+   * @param wwwAuthenticate the {@code WWW-Authenticate} header
+   * @param cacheControl the {@code Cache-Control} header
+   * @param forwarded whether the request was passed down the chain
+   */
+  public record Response(
+      int status,
+      @Nullable String wwwAuthenticate,
+      @Nullable String cacheControl,
+      boolean forwarded) {}
+
+  /**
+   * Creates the variant's filter.
+   *
+   * @param metrics the metrics to record decisions in
+   * @return the filter
+   */
+  protected abstract AuthenticationFilter requireAuthentication(GatewayMetrics metrics);
+
+  @Test
+  void testFilterRejectsRequestWithNoAuthorizationHeader() throws Exception {
+    assertChallenged(null);
+  }
+
+  @Test
+  void testFilterRejectsRequestWithEmptyAuthorizationHeader() throws Exception {
+    assertChallenged("");
+  }
+
+  @Test
+  void testFilterRejectsRequestWithWhitespaceOnlyAuthorizationHeader() throws Exception {
+    assertChallenged("   ");
+  }
+
+  @Test
+  void testFilterAllowsRequestWithBearerToken() throws Exception {
+    assertAllowed("Bearer test-token-123");
+  }
+
+  @Test
+  void testFilterAllowsRequestWithBasicAuth() throws Exception {
+    assertAllowed("Basic dXNlcjpwYXNz");
+  }
+
+  @Test
+  void testFilterAllowsRequestWithApiKeyHeader() throws Exception {
+    assertAllowed("ApiKey abc123xyz");
+  }
+
+  @Test
+  void testFilterBuildsCorrectMetadataUrlForDifferentHosts() throws Exception {
+    Response response =
+        requireAuthentication(GatewayMetrics.noop()).filter("api.example.org", null);
+
+    // Verify WWW-Authenticate header contains the correct host
+    assertThat(response.wwwAuthenticate())
+        .isEqualTo(
+            "Bearer"
+                + " resource_metadata=\"http://api.example.org/.well-known/oauth-protected-resource\"");
+  }
+
+  @Test
+  void testFilterWWWAuthenticateHeaderFormat() throws Exception {
+    // Verify the exact format matches RFC 9728
+    String wwwAuthHeader =
+        requireAuthentication(GatewayMetrics.noop()).filter(TEST_HOST, null).wwwAuthenticate();
+
+    assertThat(wwwAuthHeader).startsWith("Bearer resource_metadata=\"");
+    assertThat(wwwAuthHeader).endsWith("\"");
+    assertThat(wwwAuthHeader).contains("/.well-known/oauth-protected-resource");
+  }
+
+  @Test
+  void testUnauthorizedResponseIsNotCacheable() throws Exception {
+    AuthenticationFilter filter = requireAuthentication(GatewayMetrics.noop());
+
+    Response first = filter.filter(TEST_HOST, null);
+    Response second = filter.filter(TEST_HOST, null);
+
+    assertThat(first.cacheControl()).isEqualTo("no-store");
+    // The precomputed challenge is reused for the same host
+    assertThat(second.wwwAuthenticate()).isSameAs(first.wwwAuthenticate());
+  }
+
+  @Test
+  void testFilterRecordsDecisions() throws Exception {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    AuthenticationFilter filter = requireAuthentication(new GatewayMetrics(registry));
+
+    filter.filter(TEST_HOST, null);
+    filter.filter(TEST_HOST, "Bearer token");
+
+    assertThat(
+            registry.get("gateway.authentication").tag("outcome", "challenged").counter().count())
+        .isEqualTo(1);
+    assertThat(registry.get("gateway.authentication").tag("outcome", "present").counter().count())
+        .isEqualTo(1);
+  }
+
+  private void assertChallenged(@Nullable String authorization) throws Exception {
+    Response response =
+        requireAuthentication(GatewayMetrics.noop()).filter(TEST_HOST, authorization);
+
+    // Verify the handler was not called and a 401 challenge was returned
+    assertThat(response.forwarded()).isFalse();
+    assertThat(response.status()).isEqualTo(401);
+    assertThat(response.wwwAuthenticate())
+        .isEqualTo(String.format("Bearer resource_metadata=\"%s\"", EXPECTED_METADATA_URL));
+  }
+
+  private void assertAllowed(String authorization) throws Exception {
+    Response response =
+        requireAuthentication(GatewayMetrics.noop()).filter(TEST_HOST, authorization);
+
+    // Verify the handler was called (request was allowed)
+    assertThat(response.forwarded()).isTrue();
+    assertThat(response.status()).isEqualTo(200);
+  }
+}
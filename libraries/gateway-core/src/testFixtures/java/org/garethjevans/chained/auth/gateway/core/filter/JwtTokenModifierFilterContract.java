@@ -0,0 +1,198 @@
+package org.garethjevans.chained.auth.gateway.core.filter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.Date;
+import org.garethjevans.chained.auth.gateway.core.metrics.GatewayMetrics;
+import org.garethjevans.chained.auth.gateway.core.token.TokenSwapCache;
+import org.jspecify.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Behaviour of the {@code modifyBearerToken} stage that both gateway variants must share. Each
+ * variant's test extends this class and runs its own filter through {@link #modifyBearerToken}.
+ */
+public abstract class JwtTokenModifierFilterContract {
+
+  protected static final String SECRET = "ThisIsASecretKeyForTestingPurposesOnly12345678";
+  protected static final String TEST_SUBJECT = "test-user";
+  protected static final String TEST_ACCESS_TOKEN = "downstream-access-token-xyz";
+
+  /** A gateway variant's {@code modifyBearerToken} filter. */
+  @FunctionalInterface
+  protected interface BearerTokenFilter {
+
+    /**
+     * Runs a request through the filter.
+     *
+     * @param authorization the request's Authorization header, or {@code null} for none
+     * @return the Authorization header passed down the chain
+     */
+    @Nullable String forwardedAuthorization(@Nullable String authorization) throws Exception;
+  }
+
+  /**
+   * Creates the variant's filter.
+   *
+   * @param tokenSwapCache cache of proxy JWTs that have already been swapped
+   * @param metrics the metrics to record swaps in
+   * @return the filter
+   */
+  protected abstract BearerTokenFilter modifyBearerToken(
+      TokenSwapCache tokenSwapCache, GatewayMetrics metrics);
+
+  private BearerTokenFilter modifyBearerToken() {
+    return modifyBearerToken(new TokenSwapCache(100, Duration.ofMinutes(5)), GatewayMetrics.noop());
+  }
+
+  @Test
+  void testFilterExtractsAndReplacesToken() throws Exception {
+    String jwt = createJwtWithAccessToken(TEST_SUBJECT, TEST_ACCESS_TOKEN);
+
+    // Verify the authorization header was replaced with the access token
+    assertThat(modifyBearerToken().forwardedAuthorization("Bearer " + jwt))
+        .isEqualTo("Bearer " + TEST_ACCESS_TOKEN);
+  }
+
+  @Test
+  void testFilterWithNoAuthorizationHeader() throws Exception {
+    // Verify no authorization header was added
+    assertThat(modifyBearerToken().forwardedAuthorization(null)).isNull();
+  }
+
+  @Test
+  void testFilterWithNonBearerToken() throws Exception {
+    // Verify the authorization header was not modified
+    assertThat(modifyBearerToken().forwardedAuthorization("Basic dXNlcjpwYXNz"))
+        .isEqualTo("Basic dXNlcjpwYXNz");
+  }
+
+  @Test
+  void testFilterWithJwtWithoutAccessToken() throws Exception {
+    String jwt = createJwtWithoutAccessToken(TEST_SUBJECT);
+
+    // Verify the original token is preserved when no access_token claim exists
+    assertThat(modifyBearerToken().forwardedAuthorization("Bearer " + jwt))
+        .isEqualTo("Bearer " + jwt);
+  }
+
+  @Test
+  void testFilterWithInvalidJwt() throws Exception {
+    // Verify the original token is preserved when JWT parsing fails
+    assertThat(modifyBearerToken().forwardedAuthorization("Bearer invalid.jwt.token"))
+        .isEqualTo("Bearer invalid.jwt.token");
+  }
+
+  @Test
+  void testFilterWithEmptyAccessToken() throws Exception {
+    String jwt = createJwtWithAccessToken(TEST_SUBJECT, "");
+
+    // Verify the original token is preserved when access_token is empty
+    assertThat(modifyBearerToken().forwardedAuthorization("Bearer " + jwt))
+        .isEqualTo("Bearer " + jwt);
+  }
+
+  @Test
+  void testFilterWithMultipleClaimsInJwt() throws Exception {
+    JWTClaimsSet claimsSet =
+        new JWTClaimsSet.Builder()
+            .subject(TEST_SUBJECT)
+            .claim("access_token", TEST_ACCESS_TOKEN)
+            .claim("email", "test@example.com")
+            .claim("roles", new String[] {"user", "admin"})
+            .issueTime(new Date())
+            .expirationTime(new Date(System.currentTimeMillis() + 3600000))
+            .build();
+
+    // Verify the access_token was correctly extracted despite other claims
+    assertThat(modifyBearerToken().forwardedAuthorization("Bearer " + sign(claimsSet)))
+        .isEqualTo("Bearer " + TEST_ACCESS_TOKEN);
+  }
+
+  @Test
+  void testFilterCachesSwappedToken() throws Exception {
+    String jwt = createJwtWithAccessToken(TEST_SUBJECT, TEST_ACCESS_TOKEN);
+    TokenSwapCache cache = new TokenSwapCache(100, Duration.ofMinutes(5));
+    BearerTokenFilter filter = modifyBearerToken(cache, GatewayMetrics.noop());
+
+    for (int i = 0; i < 3; i++) {
+      // Verify every request is swapped, whether or not it was served from the cache
+      assertThat(filter.forwardedAuthorization("Bearer " + jwt))
+          .isEqualTo("Bearer " + TEST_ACCESS_TOKEN);
+    }
+
+    // Verify the swap was cached once for the repeated token
+    assertThat(cache.estimatedSize()).isEqualTo(1);
+    assertThat(cache.get(jwt)).isNotNull();
+    assertThat(cache.get(jwt).subject()).isEqualTo(TEST_SUBJECT);
+  }
+
+  @Test
+  void testFilterDoesNotCacheTokenWithoutAccessToken() throws Exception {
+    String jwt = createJwtWithoutAccessToken(TEST_SUBJECT);
+    TokenSwapCache cache = new TokenSwapCache(100, Duration.ofMinutes(5));
+
+    modifyBearerToken(cache, GatewayMetrics.noop()).forwardedAuthorization("Bearer " + jwt);
+
+    // Verify nothing was cached when no swap took place
+    assertThat(cache.get(jwt)).isNull();
+  }
+
+  @Test
+  void testFilterRecordsSwapOutcomes() throws Exception {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    BearerTokenFilter filter =
+        modifyBearerToken(
+            new TokenSwapCache(100, Duration.ofMinutes(5)), new GatewayMetrics(registry));
+    String jwt = createJwtWithAccessToken(TEST_SUBJECT, TEST_ACCESS_TOKEN);
+
+    filter.forwardedAuthorization("Bearer " + jwt);
+    filter.forwardedAuthorization("Bearer " + jwt);
+    filter.forwardedAuthorization("Bearer " + createJwtWithoutAccessToken(TEST_SUBJECT));
+    filter.forwardedAuthorization("Bearer not-a-jwt");
+    filter.forwardedAuthorization("Basic dXNlcjpwYXNz");
+
+    for (String outcome :
+        new String[] {"swapped", "cached", "no-claim", "parse-error", "no-token"}) {
+      assertThat(registry.get("gateway.token.swap").tag("outcome", outcome).timer().count())
+          .as(outcome)
+          .isEqualTo(1);
+    }
+  }
+
+  protected static String createJwtWithAccessToken(String subject, String accessToken)
+      throws JOSEException {
+    return sign(
+        new JWTClaimsSet.Builder()
+            .subject(subject)
+            .claim("access_token", accessToken)
+            .issueTime(new Date())
+            .expirationTime(new Date(System.currentTimeMillis() + 3600000)) // 1 hour
+            .build());
+  }
+
+  protected static String createJwtWithoutAccessToken(String subject) throws JOSEException {
+    return sign(
+        new JWTClaimsSet.Builder()
+            .subject(subject)
+            .issueTime(new Date())
+            .expirationTime(new Date(System.currentTimeMillis() + 3600000)) // 1 hour
+            .build());
+  }
+
+  private static String sign(JWTClaimsSet claimsSet) throws JOSEException {
+    JWSSigner signer = new MACSigner(SECRET.getBytes());
+    SignedJWT signedJWT = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claimsSet);
+    signedJWT.sign(signer);
+    return signedJWT.serialize();
+  }
+}
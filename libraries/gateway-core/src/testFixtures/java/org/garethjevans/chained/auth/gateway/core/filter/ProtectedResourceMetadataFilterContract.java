@@ -0,0 +1,174 @@
+package org.garethjevans.chained.auth.gateway.core.filter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jspecify.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Behaviour of the protected resource metadata endpoint that both gateway variants must share. Each
+ * variant's test extends this class and runs its own filter through {@link
+ * #serveProtectedResourceMetadata}.
+ */
+public abstract class ProtectedResourceMetadataFilterContract {
+
+  protected static final String WELL_KNOWN_PATH = "/.well-known/oauth-protected-resource";
+  protected static final String AUTH_ADAPTER_URL = "http://127.0.0.1:9000";
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  /** A gateway variant's {@code serveProtectedResourceMetadata} filter. */
+  @FunctionalInterface
+  protected interface MetadataFilter {
+
+    /**
+     * Runs a GET request through the filter. A request passed down the chain is answered with 200
+     * OK and no body.
+     *
+     * @param uri the absolute request URI
+     * @param ifNoneMatch the request's {@code If-None-Match} header, or {@code null} for none
+     * @return the response
+     */
+    Response filter(String uri, @Nullable String ifNoneMatch) throws Exception;
+  }
+
+  /**
+   * The parts of the filter's response the contract checks.
+   *
+   * @param status the response status
+   * @param contentType the {@code Content-Type} header
+   * @param eTag the {@code ETag} header
+   * @param cacheControl the {@code Cache-Control} header
+   * @param body the response body, or {@code null} for none
+   * @param forwarded whether the request was passed down the chain
+   */
+  public record Response(
+      int status,
+      @Nullable String contentType,
+      @Nullable String eTag,
+      @Nullable String cacheControl,
+      @Nullable String body,
+      boolean forwarded) {}
+
+  /**
+   * Creates the variant's filter.
+   *
+   * @return the filter
+   */
+  protected abstract MetadataFilter serveProtectedResourceMetadata();
+
+  @Test
+  void testFilterServesMetadataForWellKnownEndpoint() throws Exception {
+    Response response = serve("http://localhost:8085" + WELL_KNOWN_PATH);
+
+    // Verify 200 OK status
+    assertThat(response.forwarded()).isFalse();
+    assertThat(response.status()).isEqualTo(200);
+
+    // Verify Content-Type is application/json
+    assertThat(response.contentType()).isEqualTo("application/json");
+  }
+
+  @Test
+  void testFilterPassesThroughNonMetadataRequests() throws Exception {
+    assertPassedThrough("/mcp/test");
+  }
+
+  @Test
+  void testFilterPassesThroughDifferentPaths() throws Exception {
+    for (String testPath :
+        new String[] {"/", "/api/test", "/well-known/other", "/.well-known/other-config", "/mcp"}) {
+      assertPassedThrough(testPath);
+    }
+  }
+
+  @Test
+  void testMetadataWithDifferentHosts() throws Exception {
+    for (String testHost : new String[] {"example.com", "api.example.org", "resource.test.com"}) {
+      Response response = serve("https://" + testHost + WELL_KNOWN_PATH);
+
+      // Verify response is successful for different hosts
+      assertThat(response.status()).as("Should return 200 OK for host: " + testHost).isEqualTo(200);
+    }
+  }
+
+  @Test
+  void testMetadataWithDifferentPorts() throws Exception {
+    for (int testPort : new int[] {8080, 8085, 9000, 443}) {
+      Response response = serve("http://localhost:" + testPort + WELL_KNOWN_PATH);
+
+      // Verify response is successful for different ports
+      assertThat(response.status()).as("Should return 200 OK for port: " + testPort).isEqualTo(200);
+    }
+  }
+
+  @Test
+  void testMetadataEndpointExactPathMatch() throws Exception {
+    // Test that only exact path matches are handled
+    for (String testPath :
+        new String[] {
+          "/.well-known/oauth-protected-resource/",
+          "/.well-known/oauth-protected-resource/extra",
+          "/prefix/.well-known/oauth-protected-resource"
+        }) {
+      assertPassedThrough(testPath);
+    }
+  }
+
+  @Test
+  void testMetadataBodyIsRenderedForRequestOrigin() throws Exception {
+    Response response = serve("http://localhost:8085" + WELL_KNOWN_PATH);
+
+    JsonNode metadata = objectMapper.readTree(response.body());
+    assertThat(metadata.get("resource").asText()).isEqualTo("http://localhost:8085");
+    assertThat(metadata.get("authorization_servers").get(0).asText()).isEqualTo(AUTH_ADAPTER_URL);
+    assertThat(metadata.get("bearer_methods_supported").get(0).asText()).isEqualTo("header");
+    assertThat(metadata.get("resource_name").asText()).isEqualTo("Gateway Protected Resource");
+  }
+
+  @Test
+  void testMetadataIsServedWithETagAndCacheControl() throws Exception {
+    MetadataFilter filter = serveProtectedResourceMetadata();
+    String uri = "http://localhost:8085" + WELL_KNOWN_PATH;
+
+    Response first = filter.filter(uri, null);
+    Response second = filter.filter(uri, null);
+
+    assertThat(first.eTag()).isNotBlank().startsWith("\"");
+    assertThat(first.cacheControl()).contains("max-age=3600").contains("public");
+
+    // The same document is served again for the same origin
+    assertThat(second.eTag()).isEqualTo(first.eTag());
+    assertThat(second.body()).isEqualTo(first.body());
+  }
+
+  @Test
+  void testMetadataReturnsNotModifiedForMatchingETag() throws Exception {
+    MetadataFilter filter = serveProtectedResourceMetadata();
+    String uri = "http://localhost:8085" + WELL_KNOWN_PATH;
+
+    String eTag = filter.filter(uri, null).eTag();
+
+    Response response = filter.filter(uri, eTag);
+    assertThat(response.status()).isEqualTo(304);
+    assertThat(response.eTag()).isEqualTo(eTag);
+
+    Response weak = filter.filter(uri, "W/" + eTag);
+    assertThat(weak.status()).isEqualTo(304);
+
+    Response stale = filter.filter(uri, "\"stale\"");
+    assertThat(stale.status()).isEqualTo(200);
+  }
+
+  private Response serve(String uri) throws Exception {
+    return serveProtectedResourceMetadata().filter(uri, null);
+  }
+
+  private void assertPassedThrough(String path) throws Exception {
+    Response response = serveProtectedResourceMetadata().filter("http://localhost" + path, null);
+
+    // Verify the handler was called for non-metadata paths
+    assertThat(response.forwarded()).as("Handler should be called for path: " + path).isTrue();
+  }
+}
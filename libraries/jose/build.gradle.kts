@@ -0,0 +1,16 @@
+plugins {
+    id("java.conventions")
+}
+
+dependencies {
+    // JWS verification with the JDK's Ed25519 implementation
+    api("com.nimbusds:nimbus-jose-jwt:10.9")
+
+    // Verified token cache; Spring Security's JwtDecoder is provided by the applications that use it
+    implementation(libs.caffeine)
+    compileOnly("org.springframework.security:spring-security-oauth2-jose")
+
+    // Testing
+    testImplementation(libs.spring.boot.starter.test)
+    testImplementation("org.springframework.security:spring-security-oauth2-jose")
+}
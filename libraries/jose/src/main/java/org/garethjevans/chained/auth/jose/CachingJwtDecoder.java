@@ -0,0 +1,63 @@
+package org.garethjevans.chained.auth.jose;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import java.time.Clock;
+import java.time.Duration;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.util.Assert;
+
+/**
+ * Remembers the tokens a {@link JwtDecoder} has decoded until they expire, so a bearer token
+ * presented again is not parsed and its signature checked again. Tokens without an {@code exp}
+ * claim, and tokens the delegate rejects, are not remembered.
+ */
+public class CachingJwtDecoder implements JwtDecoder {
+
+  private final JwtDecoder delegate;
+  private final Cache<String, Jwt> verified;
+
+  /**
+   * Creates a decoder.
+   *
+   * @param delegate the decoder that parses and verifies tokens not yet remembered
+   * @param maximumSize the most decoded tokens to remember
+   */
+  public CachingJwtDecoder(JwtDecoder delegate, long maximumSize) {
+    this(delegate, maximumSize, Clock.systemUTC(), Ticker.systemTicker());
+  }
+
+  CachingJwtDecoder(JwtDecoder delegate, long maximumSize, Clock clock, Ticker ticker) {
+    Assert.notNull(delegate, "delegate must not be null");
+    Assert.isTrue(maximumSize > 0, "maximumSize must be greater than 0");
+    this.delegate = delegate;
+    this.verified =
+        Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfter(
+                Expiry.<String, Jwt>creating(
+                    (token, jwt) -> {
+                      Duration remaining = Duration.between(clock.instant(), jwt.getExpiresAt());
+                      return remaining.isNegative() ? Duration.ZERO : remaining;
+                    }))
+            .ticker(ticker)
+            .build();
+  }
+
+  @Override
+  public Jwt decode(String token) throws JwtException {
+    Jwt cached = verified.getIfPresent(token);
+    if (cached != null) {
+      return cached;
+    }
+    Jwt jwt = delegate.decode(token);
+    if (jwt.getExpiresAt() != null) {
+      verified.put(token, jwt);
+    }
+    return jwt;
+  }
+}
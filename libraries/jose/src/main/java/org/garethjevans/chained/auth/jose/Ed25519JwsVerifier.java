@@ -0,0 +1,69 @@
+package org.garethjevans.chained.auth.jose;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.jca.JCAContext;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.util.Base64URL;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Set;
+
+/**
+ * Verifies EdDSA signatures made with an Ed25519 key using the JDK's implementation. The Nimbus
+ * {@code Ed25519Verifier} needs Google Tink, which the applications do not ship.
+ */
+public final class Ed25519JwsVerifier implements JWSVerifier {
+
+  private final PublicKey publicKey;
+  private final JCAContext jcaContext = new JCAContext();
+
+  /**
+   * Creates a verifier for the public part of a JWK.
+   *
+   * @param jwk the key
+   * @throws JOSEException if the key is not an Ed25519 key
+   */
+  public Ed25519JwsVerifier(OctetKeyPair jwk) throws JOSEException {
+    this(Ed25519Keys.publicKey(jwk));
+  }
+
+  /**
+   * Creates a verifier.
+   *
+   * @param publicKey the Ed25519 public key
+   */
+  public Ed25519JwsVerifier(PublicKey publicKey) {
+    this.publicKey = publicKey;
+  }
+
+  @Override
+  public boolean verify(JWSHeader header, byte[] signingInput, Base64URL signature)
+      throws JOSEException {
+    if (!JWSAlgorithm.EdDSA.equals(header.getAlgorithm())) {
+      throw new JOSEException("Unsupported JWS algorithm " + header.getAlgorithm());
+    }
+    try {
+      Signature verifier = Signature.getInstance("Ed25519");
+      verifier.initVerify(publicKey);
+      verifier.update(signingInput);
+      return verifier.verify(signature.decode());
+    } catch (GeneralSecurityException ex) {
+      // A malformed signature is an invalid one
+      return false;
+    }
+  }
+
+  @Override
+  public Set<JWSAlgorithm> supportedJWSAlgorithms() {
+    return Set.of(JWSAlgorithm.EdDSA);
+  }
+
+  @Override
+  public JCAContext getJCAContext() {
+    return jcaContext;
+  }
+}
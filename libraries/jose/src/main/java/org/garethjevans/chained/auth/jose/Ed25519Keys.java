@@ -0,0 +1,72 @@
+package org.garethjevans.chained.auth.jose;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.HexFormat;
+
+/** Converts Ed25519 {@link OctetKeyPair}s to JDK keys. */
+public final class Ed25519Keys {
+
+  /** The length of a raw Ed25519 public or private key. */
+  public static final int KEY_LENGTH = 32;
+
+  // DER encodings of an Ed25519 key up to the raw key bytes, from RFC 8410
+  private static final byte[] PUBLIC_KEY_PREFIX =
+      HexFormat.of().parseHex("302a300506032b6570032100");
+  private static final byte[] PRIVATE_KEY_PREFIX =
+      HexFormat.of().parseHex("302e020100300506032b657004220420");
+
+  private Ed25519Keys() {}
+
+  /**
+   * Returns the public part of an Ed25519 key.
+   *
+   * @param jwk the key
+   * @return the public key
+   * @throws JOSEException if the key is not an Ed25519 key
+   */
+  public static PublicKey publicKey(OctetKeyPair jwk) throws JOSEException {
+    return generate(jwk, PUBLIC_KEY_PREFIX, jwk.getDecodedX(), false);
+  }
+
+  /**
+   * Returns the private part of an Ed25519 key.
+   *
+   * @param jwk the key
+   * @return the private key
+   * @throws JOSEException if the key is not an Ed25519 key or has no private part
+   */
+  public static PrivateKey privateKey(OctetKeyPair jwk) throws JOSEException {
+    if (!jwk.isPrivate()) {
+      throw new JOSEException("Ed25519 key " + jwk.getKeyID() + " has no private part");
+    }
+    return generate(jwk, PRIVATE_KEY_PREFIX, jwk.getDecodedD(), true);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K> K generate(OctetKeyPair jwk, byte[] prefix, byte[] key, boolean isPrivate)
+      throws JOSEException {
+    if (!Curve.Ed25519.equals(jwk.getCurve()) || key.length != KEY_LENGTH) {
+      throw new JOSEException("Key " + jwk.getKeyID() + " is not an Ed25519 key");
+    }
+    byte[] encoded = new byte[prefix.length + key.length];
+    System.arraycopy(prefix, 0, encoded, 0, prefix.length);
+    System.arraycopy(key, 0, encoded, prefix.length, key.length);
+    try {
+      KeyFactory keyFactory = KeyFactory.getInstance("Ed25519");
+      return (K)
+          (isPrivate
+              ? keyFactory.generatePrivate(new PKCS8EncodedKeySpec(encoded))
+              : keyFactory.generatePublic(new X509EncodedKeySpec(encoded)));
+    } catch (GeneralSecurityException ex) {
+      throw new JOSEException("Invalid Ed25519 key " + jwk.getKeyID(), ex);
+    }
+  }
+}
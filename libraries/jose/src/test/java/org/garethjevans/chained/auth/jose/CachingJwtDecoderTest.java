@@ -0,0 +1,130 @@
+package org.garethjevans.chained.auth.jose;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.jwt.BadJwtException;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+class CachingJwtDecoderTest {
+
+  private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+
+  private final AtomicInteger decodes = new AtomicInteger();
+
+  @Test
+  void testRemembersDecodedToken() {
+    CachingJwtDecoder decoder =
+        new CachingJwtDecoder(
+            (token) -> {
+              decodes.incrementAndGet();
+              return Jwt.withTokenValue(token)
+                  .header("alg", "RS256")
+                  .subject("testuser")
+                  .expiresAt(Instant.now().plusSeconds(300))
+                  .build();
+            },
+            100);
+
+    Jwt first = decoder.decode("token");
+
+    assertThat(decoder.decode("token")).isSameAs(first);
+    assertThat(decodes).hasValue(1);
+  }
+
+  @Test
+  void testForgetsTokenOnceItExpires() {
+    MutableClock clock = new MutableClock(NOW);
+    CachingJwtDecoder decoder =
+        new CachingJwtDecoder(
+            (token) -> {
+              decodes.incrementAndGet();
+              return Jwt.withTokenValue(token)
+                  .header("alg", "ES256")
+                  .subject("testuser")
+                  .issuedAt(NOW)
+                  .expiresAt(NOW.plusSeconds(300))
+                  .build();
+            },
+            100,
+            clock,
+            clock);
+
+    decoder.decode("token");
+    decoder.decode("token");
+    assertThat(decodes).hasValue(1);
+
+    clock.instant = NOW.plusSeconds(300);
+    decoder.decode("token");
+    assertThat(decodes).hasValue(2);
+  }
+
+  @Test
+  void testDoesNotRememberTokenWithoutExpiry() {
+    CachingJwtDecoder decoder =
+        new CachingJwtDecoder(
+            (token) -> {
+              decodes.incrementAndGet();
+              return Jwt.withTokenValue(token).header("alg", "ES256").subject("testuser").build();
+            },
+            100,
+            Clock.systemUTC(),
+            Ticker.systemTicker());
+
+    decoder.decode("token");
+    decoder.decode("token");
+
+    assertThat(decodes).hasValue(2);
+  }
+
+  @Test
+  void testDoesNotRememberRejectedToken() {
+    CachingJwtDecoder decoder =
+        new CachingJwtDecoder(
+            (token) -> {
+              decodes.incrementAndGet();
+              throw new BadJwtException("Invalid signature");
+            },
+            100);
+
+    assertThatThrownBy(() -> decoder.decode("token")).isInstanceOf(BadJwtException.class);
+    assertThatThrownBy(() -> decoder.decode("token")).isInstanceOf(BadJwtException.class);
+    assertThat(decodes).hasValue(2);
+  }
+
+  private static final class MutableClock extends Clock implements Ticker {
+
+    private volatile Instant instant;
+
+    private MutableClock(Instant instant) {
+      this.instant = instant;
+    }
+
+    @Override
+    public Instant instant() {
+      return instant;
+    }
+
+    @Override
+    public long read() {
+      return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    @Override
+    public ZoneOffset getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package org.garethjevans.chained.auth.jose;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.util.Base64URL;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class Ed25519JwsVerifierTest {
+
+  private static final JWSHeader HEADER = new JWSHeader(JWSAlgorithm.EdDSA);
+  private static final byte[] SIGNING_INPUT = "header.payload".getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  void testVerifiesSignatureMadeWithKey() throws Exception {
+    KeyPair keyPair = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+    Ed25519JwsVerifier verifier = new Ed25519JwsVerifier(jwk(keyPair));
+
+    assertThat(verifier.verify(HEADER, SIGNING_INPUT, sign(keyPair))).isTrue();
+  }
+
+  @Test
+  void testRejectsSignatureMadeWithAnotherKey() throws Exception {
+    KeyPair keyPair = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+    KeyPair otherKeyPair = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+    Ed25519JwsVerifier verifier = new Ed25519JwsVerifier(keyPair.getPublic());
+
+    assertThat(verifier.verify(HEADER, SIGNING_INPUT, sign(otherKeyPair))).isFalse();
+    assertThat(verifier.verify(HEADER, SIGNING_INPUT, Base64URL.encode("short"))).isFalse();
+  }
+
+  @Test
+  void testRejectsKeyOnAnotherCurve() {
+    OctetKeyPair x25519 =
+        new OctetKeyPair.Builder(Curve.X25519, Base64URL.encode(new byte[32])).keyID("x").build();
+
+    assertThatThrownBy(() -> new Ed25519JwsVerifier(x25519))
+        .isInstanceOf(JOSEException.class)
+        .hasMessageContaining("not an Ed25519 key");
+  }
+
+  private static OctetKeyPair jwk(KeyPair keyPair) {
+    byte[] encoded = keyPair.getPublic().getEncoded();
+    byte[] x = Arrays.copyOfRange(encoded, encoded.length - Ed25519Keys.KEY_LENGTH, encoded.length);
+    return new OctetKeyPair.Builder(Curve.Ed25519, Base64URL.encode(x)).keyID("key-ed").build();
+  }
+
+  private static Base64URL sign(KeyPair keyPair) throws Exception {
+    Signature signature = Signature.getInstance("Ed25519");
+    signature.initSign(keyPair.getPrivate());
+    signature.update(SIGNING_INPUT);
+    return Base64URL.encode(signature.sign());
+  }
+}
@@ -12,4 +12,13 @@ include("applications:auth-adapter")
 include("applications:test-app")
 include("applications:test-auth-server")
 include("applications:github-mcp-server")
-include("applications:gateway")
\ No newline at end of file
+include("applications:gateway")
+include("applications:gateway-reactive")
+
+// Libraries shared by the applications
+include("libraries:event-log")
+include("libraries:gateway-core")
+include("libraries:jose")
+
+// Benchmarks
+include("benchmarks")